@@ -316,6 +316,8 @@ public class Column {
             return Types.NUMERIC;
         } else if (m_type.equals("text")) {
             return Types.LONGVARCHAR;
+        } else if (m_type.equals("date")) {
+            return Types.DATE;
         } else if (m_type.equals("timestamp")) {
             return Types.TIMESTAMP;
         } else if (m_type.equals("timestamptz")) {
@@ -360,6 +362,8 @@ public class Column {
             return "text";
         } else if (column.equals("trigger")) {
             return "trigger";
+        } else if (column.equals("date")) {
+            return "date";
         } else if (column.equals("timestamp") || column.equals("timestamp without time zone")) {
             return "timestamp";
         } else if (column.equals("timestamptz") || column.equals("timestamp with time zone")) {
@@ -383,7 +387,7 @@ public class Column {
             return 1;
         } else if (type.equals("smallint")) {
             return 2;
-        } else if (type.equals("integer")) {
+        } else if (type.equals("integer") || type.equals("date")) {
             return 4;
         } else if (type.equals("bigint") || type.equals("timestamp") || type.equals("timestamptz")) {
             return 8;
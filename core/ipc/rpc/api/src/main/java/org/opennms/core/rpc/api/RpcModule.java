@@ -28,6 +28,8 @@
 
 package org.opennms.core.rpc.api;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Provides the ability to execute the RPCs and defines how the requests/responses will
  * be marshaled/unmarshaled over the wire.
@@ -63,6 +65,45 @@ public interface RpcModule<S extends RpcRequest, T extends RpcResponse> extends
      */
     T unmarshalResponse(String response);
 
+    /**
+     * Marshals the request to the bytes that are sent over the wire.
+     *
+     * By default, this is the UTF-8 encoding of {@link #marshalRequest(RpcRequest)}.
+     */
+    default byte[] marshalRequestToBytes(S request) {
+        return marshalRequest(request).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unmarshals the request from bytes.
+     *
+     * Implementations that change the encoding used by {@link #marshalRequestToBytes(RpcRequest)}
+     * must keep on accepting the UTF-8 encoding of {@link #marshalRequest(RpcRequest)}, since this
+     * is what is sent by previous versions.
+     */
+    default S unmarshalRequestFromBytes(byte[] request) {
+        return unmarshalRequest(new String(request, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Marshals the response to the bytes that are sent over the wire.
+     *
+     * By default, this is the UTF-8 encoding of {@link #marshalResponse(RpcResponse)}.
+     */
+    default byte[] marshalResponseToBytes(T response) {
+        return marshalResponse(response).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unmarshals the response from bytes.
+     *
+     * Like {@link #unmarshalRequestFromBytes(byte[])}, implementations must keep on
+     * accepting the UTF-8 encoding of {@link #marshalResponse(RpcResponse)}.
+     */
+    default T unmarshalResponseFromBytes(byte[] response) {
+        return unmarshalResponse(new String(response, StandardCharsets.UTF_8));
+    }
+
     /**
      * Called when the {@link RpcModule} throws an exception while executing a request.
      *
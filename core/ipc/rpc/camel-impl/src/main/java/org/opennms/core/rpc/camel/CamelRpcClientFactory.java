@@ -82,7 +82,7 @@ public class CamelRpcClientFactory implements RpcClientFactory {
                     @Override
                     public void onComplete(Exchange exchange) {
                         try (MDCCloseable mdc = Logging.withContextMapCloseable(clientContextMap)) {
-                            final T response = module.unmarshalResponse(exchange.getOut().getBody(String.class));
+                            final T response = module.unmarshalResponseFromBytes(exchange.getOut().getBody(byte[].class));
                             if (response.getErrorMessage() != null) {
                                 future.completeExceptionally(new RemoteExecutionException(response.getErrorMessage()));
                             } else {
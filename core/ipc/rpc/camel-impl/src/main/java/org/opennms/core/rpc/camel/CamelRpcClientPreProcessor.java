@@ -65,7 +65,7 @@ public class CamelRpcClientPreProcessor implements Processor {
                 wrapper.getModule().getId(), wrapper.getRequest().getLocation());
         exchange.getIn().setHeader(CamelRpcConstants.JMS_QUEUE_NAME_HEADER, queueNameFactory.getName());
         exchange.getIn().setHeader(CamelRpcConstants.CAMEL_JMS_REQUEST_TIMEOUT_HEADER, wrapper.getRequest().getTimeToLiveMs() != null ? wrapper.getRequest().getTimeToLiveMs() : CAMEL_JMS_REQUEST_TIMEOUT);
-        final String request = wrapper.getModule().marshalRequest((RpcRequest)wrapper.getRequest());
+        final byte[] request = wrapper.getModule().marshalRequestToBytes((RpcRequest)wrapper.getRequest());
         exchange.getIn().setBody(request);
     }
 }
@@ -63,7 +63,7 @@ public class CamelRpcServerProcessor implements AsyncProcessor {
 
     @Override
     public boolean process(Exchange exchange, AsyncCallback callback) {
-        final RpcRequest request = module.unmarshalRequest(exchange.getIn().getBody(String.class));
+        final RpcRequest request = module.unmarshalRequestFromBytes(exchange.getIn().getBody(byte[].class));
         final CompletableFuture<RpcResponse> future = module.execute(request);
         future.whenComplete((res, ex) -> {
             try {
@@ -78,7 +78,7 @@ public class CamelRpcServerProcessor implements AsyncProcessor {
                 }
 
                 try {
-                    exchange.getOut().setBody(module.marshalResponse(response), String.class);
+                    exchange.getOut().setBody(module.marshalResponseToBytes(response), byte[].class);
                 }  catch (Throwable t) {
                     LOG.error("Marshalling a response in RPC module {} failed.", module, t);
                     exchange.setException(t);
@@ -33,82 +33,95 @@ import java.util.Objects;
 import org.opennms.core.rpc.api.RpcModule;
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.core.rpc.api.RpcResponse;
-import org.opennms.core.xml.XmlHandler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.opennms.core.xml.codec.MessageCodec;
+import org.opennms.core.xml.codec.MessageEncoding;
+import org.opennms.core.xml.codec.MessageMarshaller;
 
 /**
  * {@link RpcModule} that uses JaxbUtils for marshaling and unmarshaling requests.
  *
+ * When sent over the wire, the requests and responses can use one of the other
+ * {@link MessageEncoding}s instead. The encoding can be selected for all of the modules
+ * with the <code>org.opennms.core.ipc.rpc.encoding</code> system property, or for a specific
+ * module with <code>org.opennms.core.ipc.rpc.${moduleId}.encoding</code>. Requests and
+ * responses are always unmarshaled from any of the encodings.
+ *
  * @author jwhite
  */
 public abstract class AbstractXmlRpcModule<S extends RpcRequest,T extends RpcResponse> implements RpcModule<S, T>  {
 
-    private static final Logger LOG = LoggerFactory.getLogger(AbstractXmlRpcModule.class);
+    public static final String ENCODING_PROPERTY_PREFIX = "org.opennms.core.ipc.rpc";
 
-    private final Class<S> requestClazz;
-    private final Class<T> responseClazz;
+    private final MessageMarshaller<S> requestMarshaller;
+    private final MessageMarshaller<T> responseMarshaller;
 
-    /**
-     * Store a thread-local reference to the {@link XmlHandler} because 
-     * Unmarshalers are not thread-safe.
-     */
-    private final ThreadLocal<XmlHandler<S>> requestXmlHandler = new ThreadLocal<>();
-    private final ThreadLocal<XmlHandler<T>> responseXmlHandler = new ThreadLocal<>();
+    private MessageEncoding encoding;
 
     public AbstractXmlRpcModule(Class<S> requestClazz, Class<T> responseClazz) {
-        this.requestClazz = Objects.requireNonNull(requestClazz);
-        this.responseClazz = Objects.requireNonNull(responseClazz);
+        this(requestClazz, null, responseClazz, null);
+    }
+
+    /**
+     * @param requestCodec used for the binary encodings of the requests, may be null
+     * @param responseCodec used for the binary encodings of the responses, may be null
+     */
+    public AbstractXmlRpcModule(Class<S> requestClazz, MessageCodec<S> requestCodec, Class<T> responseClazz, MessageCodec<T> responseCodec) {
+        this.requestMarshaller = new MessageMarshaller<>(Objects.requireNonNull(requestClazz), requestCodec);
+        this.responseMarshaller = new MessageMarshaller<>(Objects.requireNonNull(responseClazz), responseCodec);
     }
 
     @Override
     public String marshalRequest(S request) {
-        return getRequestXmlHandler().marshal(request);
+        return requestMarshaller.marshal(request);
     }
 
     @Override
     public S unmarshalRequest(String requestXml) {
-        return getRequestXmlHandler().unmarshal(requestXml);
+        return requestMarshaller.unmarshal(requestXml);
     }
 
     @Override
     public String marshalResponse(T response) {
-        return getResponseXmlHandler().marshal(response);
+        return responseMarshaller.marshal(response);
     }
 
     @Override
     public T unmarshalResponse(String response) {
-        return getResponseXmlHandler().unmarshal(response);
+        return responseMarshaller.unmarshal(response);
     }
 
-    private XmlHandler<S> getRequestXmlHandler() {
-        XmlHandler<S> xmlHandler = requestXmlHandler.get();
-        if (xmlHandler == null) {
-            xmlHandler = createXmlHandler(requestClazz);
-            requestXmlHandler.set(xmlHandler);
-        }
-        return xmlHandler;
+    @Override
+    public byte[] marshalRequestToBytes(S request) {
+        return requestMarshaller.marshal(request, getEncoding());
     }
 
-    private XmlHandler<T> getResponseXmlHandler() {
-        XmlHandler<T> xmlHandler = responseXmlHandler.get();
-        if (xmlHandler == null) {
-            xmlHandler = createXmlHandler(responseClazz);
-            responseXmlHandler.set(xmlHandler);
-        }
-        return xmlHandler;
+    @Override
+    public S unmarshalRequestFromBytes(byte[] request) {
+        return requestMarshaller.unmarshal(request);
     }
 
-    private <W> XmlHandler<W> createXmlHandler(Class<W> clazz) {
-        try {
-            return new XmlHandler<>(clazz);
-        } catch (Throwable t) {
-            // NMS-8793: This is a work-around for some failure in the Minion container
-            // When invoked for the first time, the creation may fail due to
-            // errors of the form "invalid protocol handler: mvn", but subsequent
-            // calls always seem to work
-            LOG.warn("Creating the XmlHandler failed. Retrying.", t);
-            return new XmlHandler<>(clazz);
+    @Override
+    public byte[] marshalResponseToBytes(T response) {
+        return responseMarshaller.marshal(response, getEncoding());
+    }
+
+    @Override
+    public T unmarshalResponseFromBytes(byte[] response) {
+        return responseMarshaller.unmarshal(response);
+    }
+
+    /**
+     * The encoding used when marshaling to bytes, retrieved from
+     * the system properties the first time it is used.
+     */
+    public MessageEncoding getEncoding() {
+        if (encoding == null) {
+            encoding = MessageEncoding.fromSystemProperties(ENCODING_PROPERTY_PREFIX, getId());
         }
+        return encoding;
+    }
+
+    public void setEncoding(MessageEncoding encoding) {
+        this.encoding = encoding;
     }
 }
@@ -66,4 +66,59 @@ public interface AsyncPolicy {
      * should block when the queue is full
      */
     boolean isBlockWhenFull();
+
+    /**
+     * System property used to set the directory in which the messages
+     * of all modules are journaled, see {@link #getJournalDirectory()}.
+     */
+    String JOURNAL_DIRECTORY_SYS_PROP = "org.opennms.core.ipc.sink.journal.directory";
+
+    /**
+     * System property used to override the default journal segment size.
+     */
+    String JOURNAL_SEGMENT_SIZE_SYS_PROP = "org.opennms.core.ipc.sink.journal.segmentSize";
+
+    /**
+     * System property used to override the default maximum journal size.
+     */
+    String JOURNAL_MAX_SIZE_SYS_PROP = "org.opennms.core.ipc.sink.journal.maxSize";
+
+    /**
+     * Directory in which messages should be journaled while they
+     * are awaiting dispatch.
+     *
+     * When set, messages are written to an append-only journal on
+     * disk, in a sub-directory named after the module, instead of
+     * being held in memory, and are replayed in order
+     * once the broker is available. The queue size and number of threads
+     * are not used in this mode, and {@link #isBlockWhenFull()} applies
+     * when the journal reaches {@link #getJournalMaxSize()}.
+     *
+     * Defaults to the value of the {@link #JOURNAL_DIRECTORY_SYS_PROP}
+     * system property.
+     *
+     * @return the journal directory, or <code>null</code> if messages
+     * should be queued in memory
+     */
+    default String getJournalDirectory() {
+        return System.getProperty(JOURNAL_DIRECTORY_SYS_PROP);
+    }
+
+    /**
+     * Size of the individual journal segment files, in bytes.
+     *
+     * @return journal segment size
+     */
+    default int getJournalSegmentSize() {
+        return Integer.getInteger(JOURNAL_SEGMENT_SIZE_SYS_PROP, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Maximum amount of disk space used by the journal, in bytes.
+     *
+     * @return maximum journal size
+     */
+    default long getJournalMaxSize() {
+        return Long.getLong(JOURNAL_MAX_SIZE_SYS_PROP, 1024L * 1024 * 1024);
+    }
 }
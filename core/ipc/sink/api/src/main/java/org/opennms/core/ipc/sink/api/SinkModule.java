@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Defines how the messages will be routed and marshaled/unmarshaled over the wire.
  *
@@ -64,6 +66,26 @@ public interface SinkModule<S extends Message, T extends Message> {
      */
     T unmarshal(String message);
 
+    /**
+     * Marshals the message to the bytes that are sent over the wire.
+     *
+     * By default, this is the UTF-8 encoding of {@link #marshal(Message)}.
+     */
+    default byte[] marshalToBytes(T message) {
+        return marshal(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unmarshals the message from bytes.
+     *
+     * Implementations that change the encoding used by {@link #marshalToBytes(Message)}
+     * must keep on accepting the UTF-8 encoding of {@link #marshal(Message)}, since this
+     * is what is sent by previous versions.
+     */
+    default T unmarshalFromBytes(byte[] message) {
+        return unmarshal(new String(message, StandardCharsets.UTF_8));
+    }
+
     /**
      * Defines how messages should be combined, and when they
      * should be "released".
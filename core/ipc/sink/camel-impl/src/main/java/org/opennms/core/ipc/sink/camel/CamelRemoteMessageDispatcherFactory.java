@@ -68,7 +68,7 @@ public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatch
 
     @Override
     public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, Map<String, Object> headers, T message) {
-        template.sendBodyAndHeaders(endpoint, module.marshal((T)message), headers);
+        template.sendBodyAndHeaders(endpoint, module.marshalToBytes((T)message), headers);
     }
 
     public void registerJmxReporter() {
@@ -29,9 +29,11 @@
 package org.opennms.core.ipc.sink.common;
 
 import java.util.Objects;
+import java.util.function.Consumer;
 
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
 import org.opennms.core.ipc.sink.api.SinkModule;
@@ -46,7 +48,8 @@ import com.codahale.metrics.Timer.Context;
  *
  * Different types of dispatchers are created based on whether or not the module is using aggregation.
  *
- * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher.
+ * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher,
+ * or a journal on disk when the module's {@link AsyncPolicy} specifies a journal directory.
  *
  * @author jwhite
  *
@@ -67,6 +70,27 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         }
     }
 
+    /**
+     * Dispatches a message that was read from a journal.
+     *
+     * Unlike {@link #dispatch}, this must throw an exception when the message
+     * could not be sent, so that it is kept in the journal and retried.
+     * Defaults to {@link #dispatch}, for factories that already throw
+     * when a message could not be sent.
+     */
+    protected <S extends Message, T extends Message> void dispatchFromJournal(SinkModule<S, T> module, W metadata, T message) {
+        dispatch(module, metadata, message);
+    }
+
+    /**
+     * Invokes dispatchFromJournal within a timer context.
+     */
+    private <S extends Message, T extends Message> void timedDispatchFromJournal(DispatcherState<W, S,T> state, T message) {
+        try (Context ctx = state.getDispatchTimer().time()) {
+            dispatchFromJournal(state.getModule(), state.getMetaData(), message);
+        }
+    }
+
     /**
      * Optionally build meta-data or state information for the module which will
      * be passed on all the calls to {@link #dispatch}.
@@ -93,18 +117,33 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module, "module cannot be null");
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
+        final AsyncPolicy asyncPolicy = module.getAsyncPolicy();
+        if (asyncPolicy.getJournalDirectory() != null) {
+            // Aggregate the messages into the journal, and dispatch them from there
+            return new JournalingAsyncDispatcherImpl<>(state, asyncPolicy,
+                    journal -> createSyncDispatcher(state, journal),
+                    message -> timedDispatchFromJournal(state, message));
+        }
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
-        return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
+        return new AsyncDispatcherImpl<>(state, asyncPolicy, syncDispatcher);
     }
 
     protected <S extends Message, T extends Message> SyncDispatcher<S> createSyncDispatcher(DispatcherState<W,S,T> state) {
+        return createSyncDispatcher(state, message -> timedDispatch(state, message));
+    }
+
+    /**
+     * Builds a dispatcher that applies the module's aggregation policy, if any,
+     * and hands the resulting messages to the given consumer.
+     */
+    protected <S extends Message, T extends Message> SyncDispatcher<S> createSyncDispatcher(DispatcherState<W,S,T> state, Consumer<T> dispatcher) {
         final SinkModule<S,T> module = state.getModule();
         if (module.getAggregationPolicy() != null) {
             // Aggregate the message before dispatching them
             return new AggregatingSinkMessageProducer<S,T>(module) {
                 @Override
                 public void dispatch(T message) {
-                    AbstractMessageDispatcherFactory.this.timedDispatch(state, message);
+                    dispatcher.accept(message);
                 }
                 @Override
                 public void close() throws Exception {
@@ -114,15 +153,17 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
             };
         } else {
             // No aggregation strategy is set, dispatch directly to reduce overhead
-            return new DirectDispatcher<>(state);
+            return new DirectDispatcher<>(state, dispatcher);
         }
     }
 
     private class DirectDispatcher<S extends Message, T extends Message> implements SyncDispatcher<S> {
         private final DispatcherState<W, S, T> state;
+        private final Consumer<T> dispatcher;
 
-        public DirectDispatcher(DispatcherState<W, S,T> state) {
+        public DirectDispatcher(DispatcherState<W, S,T> state, Consumer<T> dispatcher) {
             this.state = state;
+            this.dispatcher = dispatcher;
         }
 
         @SuppressWarnings("unchecked")
@@ -130,7 +171,7 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         public void send(S message) {
             // Cast S to T, modules that do not use an AggregationPolicty
             // must have the same types for S and T
-            AbstractMessageDispatcherFactory.this.timedDispatch(state, (T)message);
+            dispatcher.accept((T)message);
         }
 
         @Override
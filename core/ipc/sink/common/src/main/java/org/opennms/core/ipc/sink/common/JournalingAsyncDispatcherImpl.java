@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.joda.time.Duration;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.ipc.sink.journal.MessageJournal;
+import org.opennms.core.ipc.sink.journal.MessageJournal.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * An {@link AsyncDispatcher} that writes the (aggregated) messages to a
+ * {@link MessageJournal} on disk, and replays them to the broker from a
+ * single background thread, in the order in which they were written.
+ *
+ * When the broker is unavailable the messages accumulate in the journal,
+ * and the replay thread retries the oldest message with an exponential
+ * back-off until it succeeds.
+ *
+ * Messages are marshaled with the module before being written to the
+ * journal, so this works for any {@link SinkModule} regardless of the
+ * factory that is used to dispatch the messages.
+ */
+public class JournalingAsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalingAsyncDispatcherImpl.class);
+
+    private static final long INITIAL_RETRY_DELAY_MS = 100;
+
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final RateLimitedLog rateLimittedLogger = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    private final SinkModule<S, T> module;
+
+    private final boolean blockWhenFull;
+
+    private final MessageJournal journal;
+
+    private final SyncDispatcher<S> syncDispatcher;
+
+    private final Consumer<T> brokerDispatcher;
+
+    private final Counter droppedCounter;
+
+    private final Counter replayedCounter;
+
+    private final Thread replayThread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param state the dispatcher state
+     * @param asyncPolicy the policy, which must have a journal directory
+     * @param syncDispatcherFactory creates the dispatcher that applies the module's
+     * aggregation policy, if any, and hands the resulting messages to the given consumer
+     * @param brokerDispatcher sends the messages to the broker, it must throw an exception
+     * if the message could not be sent
+     */
+    public JournalingAsyncDispatcherImpl(DispatcherState<W,S,T> state, AsyncPolicy asyncPolicy,
+            Function<Consumer<T>, SyncDispatcher<S>> syncDispatcherFactory, Consumer<T> brokerDispatcher) {
+        Objects.requireNonNull(state);
+        Objects.requireNonNull(asyncPolicy);
+        Objects.requireNonNull(asyncPolicy.getJournalDirectory(), "asyncPolicy must have a journal directory");
+        this.module = state.getModule();
+        this.blockWhenFull = asyncPolicy.isBlockWhenFull();
+        this.brokerDispatcher = Objects.requireNonNull(brokerDispatcher);
+
+        try {
+            journal = new MessageJournal(Paths.get(asyncPolicy.getJournalDirectory(), module.getId()),
+                    asyncPolicy.getJournalSegmentSize(), asyncPolicy.getJournalMaxSize());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the journal for module " + module.getId()
+                    + " in " + asyncPolicy.getJournalDirectory(), e);
+        }
+
+        final MetricRegistry metrics = state.getMetrics();
+        droppedCounter = metrics.counter(MetricRegistry.name(module.getId(), "dropped"));
+        replayedCounter = metrics.counter(MetricRegistry.name(module.getId(), "journal-replayed"));
+        metrics.register(MetricRegistry.name(module.getId(), "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueSize();
+            }
+        });
+        metrics.register(MetricRegistry.name(module.getId(), "journal-depth"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return journal.getDepth();
+            }
+        });
+        metrics.register(MetricRegistry.name(module.getId(), "journal-bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return journal.getBytes();
+            }
+        });
+        metrics.register(MetricRegistry.name(module.getId(), "journal-age-ms"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return journal.getAgeMs();
+            }
+        });
+
+        syncDispatcher = syncDispatcherFactory.apply(this::append);
+
+        replayThread = new Thread(this::replay, "OpenNMS.Sink.JournalReplay." + module.getId());
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @Override
+    public CompletableFuture<S> send(S message) {
+        final CompletableFuture<S> future = new CompletableFuture<>();
+        try {
+            syncDispatcher.send(message);
+            future.complete(message);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Writes the given message to the journal.
+     */
+    private void append(T message) {
+        final byte[] payload = module.marshalToBytes(message);
+        final boolean appended;
+        try {
+            appended = journal.append(payload, blockWhenFull);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedCounter.inc();
+            throw new IllegalStateException("Interrupted while writing to the journal of module " + module.getId(), e);
+        } catch (IOException e) {
+            droppedCounter.inc();
+            throw new IllegalStateException("Failed to write to the journal of module " + module.getId(), e);
+        } catch (IllegalArgumentException e) {
+            droppedCounter.inc();
+            throw e;
+        }
+        if (!appended) {
+            droppedCounter.inc();
+            throw new IllegalStateException("The journal of module " + module.getId() + " is full.");
+        }
+    }
+
+    /**
+     * Dispatches the messages from the journal, in order, until we're closed.
+     */
+    private void replay() {
+        long retryDelayMs = INITIAL_RETRY_DELAY_MS;
+        while (running) {
+            final Record record;
+            try {
+                record = journal.peek(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException|IllegalStateException e) {
+                if (running) {
+                    LOG.error("Failed to read from the journal of module {}. Replay is stopping.", module.getId(), e);
+                }
+                break;
+            }
+            if (record == null) {
+                continue;
+            }
+
+            final T message;
+            try {
+                if (!record.isValid()) {
+                    throw new IOException("Checksum mismatch for " + record);
+                }
+                message = module.unmarshalFromBytes(record.getPayload());
+            } catch (Exception e) {
+                LOG.error("Discarding message from the journal of module {} that could not be read.", module.getId(), e);
+                droppedCounter.inc();
+                journal.commit(record);
+                continue;
+            }
+
+            try {
+                brokerDispatcher.accept(message);
+            } catch (Exception e) {
+                rateLimittedLogger.warn("Failed to dispatch message from the journal of module {}. Will retry in {}ms.",
+                        module.getId(), retryDelayMs, e);
+                try {
+                    Thread.sleep(retryDelayMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                continue;
+            }
+
+            journal.commit(record);
+            replayedCounter.inc();
+            retryDelayMs = INITIAL_RETRY_DELAY_MS;
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (int)Math.min(Integer.MAX_VALUE, journal.getDepth());
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            syncDispatcher.close();
+        } finally {
+            running = false;
+            replayThread.interrupt();
+            replayThread.join(TimeUnit.SECONDS.toMillis(30));
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,577 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of opaque messages backed by memory-mapped segment files.
+ *
+ * Messages are appended to the current segment until it is full, at which point
+ * a new segment is created.  A single reader consumes the messages in the order
+ * in which they were appended: {@link #peek(long, TimeUnit)} returns the oldest
+ * message and {@link #commit(Record)} acknowledges it, after which it will not be
+ * returned again.  Segments are deleted once all of their messages have been
+ * committed.
+ *
+ * The position of the reader is stored in a checkpoint file so that messages that
+ * were not yet committed are replayed when the journal is re-opened.  Messages
+ * can be replayed more than once if the process stops between the dispatch of a
+ * message and the update of the checkpoint.
+ *
+ * Each record is laid out as:
+ * <pre>
+ *   int  length of the record, including this header
+ *   int  CRC32 of the payload
+ *   long time at which the message was appended
+ *   byte[] payload
+ * </pre>
+ * The length is written last, so a record that was only partially written is
+ * never visible to the reader.
+ */
+public class MessageJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageJournal.class);
+
+    public static final String SEGMENT_SUFFIX = ".journal";
+
+    public static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8;
+
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final long maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * All of the segments that have not been fully consumed, oldest first.
+     * The first one is being read and the last one is being written.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final MappedByteBuffer checkpoint;
+
+    private int readOffset;
+
+    private long pendingRecords = 0;
+
+    private long pendingBytes = 0;
+
+    private long diskUsage = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Opens the journal stored in the given directory, creating it if necessary.
+     *
+     * @param directory where the segments and the checkpoint are stored
+     * @param segmentSize size of the segment files, in bytes
+     * @param maxSize maximum number of bytes used by the segments files, appends
+     * will fail or block when this is reached
+     */
+    public MessageJournal(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + RECORD_HEADER_SIZE + " bytes, got " + segmentSize);
+        }
+        if (maxSize < 2L * segmentSize) {
+            throw new IllegalArgumentException("Maximum size must be at least twice the segment size, got " + maxSize);
+        }
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+        checkpoint = map(directory.resolve(CHECKPOINT_FILE), 12);
+        recover();
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param payload the message
+     * @param blockWhenFull whether the calling thread should wait for space
+     * to become available when the journal is full
+     * Messages that take up more than half of the maximum size are rejected,
+     * since there's no guarantee that the journal will ever have room for them.
+     *
+     * @return <code>true</code> if the message was appended, <code>false</code>
+     * if the journal is full and blockWhenFull is <code>false</code>
+     * @throws IllegalArgumentException if the message is too large for the journal
+     */
+    public boolean append(byte[] payload, boolean blockWhenFull) throws IOException, InterruptedException {
+        final int recordLength = RECORD_HEADER_SIZE + payload.length;
+        if (recordLength > maxSize / 2) {
+            throw new IllegalArgumentException("Message of " + payload.length + " bytes is too large for a journal of at most " + maxSize + " bytes.");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        lock.lockInterruptibly();
+        try {
+            Segment segment;
+            while (true) {
+                checkOpen();
+                segment = segments.peekLast();
+                if (segment.writeOffset + recordLength <= segment.capacity) {
+                    break;
+                }
+
+                // Roll over to a new segment if we have room for it
+                final int capacity = Math.max(segmentSize, recordLength);
+                if (diskUsage + capacity <= maxSize) {
+                    if (segment.writeOffset + 4 <= segment.capacity) {
+                        segment.buffer().putInt(segment.writeOffset, END_OF_SEGMENT);
+                    }
+                    if (segment != segments.peekFirst()) {
+                        // The reader will map it again once it gets there
+                        segment.release();
+                    }
+                    segment = createSegment(segment.id + 1, capacity);
+                    break;
+                }
+
+                if (!blockWhenFull) {
+                    return false;
+                }
+                notFull.await();
+            }
+
+            final ByteBuffer buffer = segment.buffer().duplicate();
+            buffer.position(segment.writeOffset + 4);
+            buffer.putInt((int)crc.getValue());
+            buffer.putLong(System.currentTimeMillis());
+            buffer.put(payload);
+            // Publish the record
+            segment.buffer().putInt(segment.writeOffset, recordLength);
+            segment.writeOffset += recordLength;
+
+            pendingRecords++;
+            pendingBytes += recordLength;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves, but does not remove, the oldest message in the journal,
+     * waiting up to the given time for one to become available.
+     *
+     * @return the oldest message, or <code>null</code> if none was available in time
+     */
+    public Record peek(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                checkOpen();
+                final Record record = readRecord(true);
+                if (record != null) {
+                    return record;
+                }
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given message, which must have been the last one
+     * returned by {@link #peek(long, TimeUnit)}, from the journal.
+     */
+    public void commit(Record record) {
+        lock.lock();
+        try {
+            checkOpen();
+            final Segment segment = segments.peekFirst();
+            if (segment.id != record.segmentId || readOffset != record.offset) {
+                throw new IllegalStateException("Record " + record + " is not at the head of the journal.");
+            }
+            readOffset += record.length;
+            pendingRecords--;
+            pendingBytes -= record.length;
+            writeCheckpoint();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages that have not yet been committed
+     */
+    public long getDepth() {
+        lock.lock();
+        try {
+            return pendingRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes used by messages that have not yet been committed
+     */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the age of the oldest message that has not yet been committed,
+     * in milliseconds, or 0 if the journal is empty
+     */
+    public long getAgeMs() {
+        lock.lock();
+        try {
+            if (closed) {
+                return 0;
+            }
+            final Record record = readRecord(false);
+            return record == null ? 0 : Math.max(0, System.currentTimeMillis() - record.timestamp);
+        } catch (IOException e) {
+            LOG.warn("Failed to read the oldest record from the journal in {}.", directory, e);
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.force();
+                segment.release();
+            }
+            checkpoint.force();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MessageJournal[directory=" + directory + "]";
+    }
+
+    /**
+     * Reads the record at the current position of the reader, deleting
+     * segments that have been fully consumed on the way.
+     *
+     * Must be called while holding the lock.
+     */
+    private Record readRecord(boolean withPayload) throws IOException {
+        while (true) {
+            final Segment segment = segments.peekFirst();
+            if (readOffset >= segment.writeOffset) {
+                if (segment == segments.peekLast()) {
+                    // We've caught up with the writer
+                    return null;
+                }
+                // End of this segment, move on to the next one
+                deleteHeadSegment();
+                continue;
+            }
+
+            final ByteBuffer view = segment.buffer().duplicate();
+            view.position(readOffset);
+            final int length = view.getInt();
+            final int crc = view.getInt();
+            final long timestamp = view.getLong();
+            byte[] payload = null;
+            if (withPayload) {
+                payload = new byte[length - RECORD_HEADER_SIZE];
+                view.get(payload);
+            }
+            return new Record(segment.id, readOffset, length, timestamp, crc, payload);
+        }
+    }
+
+    private void deleteHeadSegment() throws IOException {
+        final Segment segment = segments.removeFirst();
+        segment.release();
+        Files.deleteIfExists(segment.path);
+        diskUsage -= segment.capacity;
+        readOffset = 0;
+        writeCheckpoint();
+        notFull.signalAll();
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, segments.peekFirst().id);
+        checkpoint.putInt(8, readOffset);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(this + " is closed.");
+        }
+    }
+
+    /**
+     * Rebuilds the state of the journal from the segments and checkpoint on disk.
+     */
+    private void recover() throws IOException {
+        final long checkpointSegmentId = checkpoint.getLong(0);
+        final int checkpointOffset = checkpoint.getInt(8);
+
+        final List<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segmentPaths.add(path);
+            }
+        }
+        // The file names are zero-padded so their lexical order is their numerical order
+        Collections.sort(segmentPaths);
+
+        for (Path path : segmentPaths) {
+            final long id = segmentId(path);
+            if (id < checkpointSegmentId) {
+                // Fully consumed, but not removed before we stopped
+                Files.delete(path);
+                continue;
+            }
+            final Segment segment = new Segment(id, path, (int)Files.size(path));
+            segments.addLast(segment);
+            diskUsage += segment.capacity;
+        }
+
+        if (segments.isEmpty()) {
+            createSegment(checkpointSegmentId, segmentSize);
+            readOffset = 0;
+        } else {
+            readOffset = segments.peekFirst().id == checkpointSegmentId ? checkpointOffset : 0;
+            // Scan the remaining records to find the end of every segment and the size of the backlog
+            int offset = readOffset;
+            for (Segment segment : segments) {
+                offset = scan(segment, offset);
+                segment.writeOffset = offset;
+                if (segment != segments.peekFirst() && segment != segments.peekLast()) {
+                    segment.release();
+                }
+                offset = 0;
+            }
+
+            // Wipe whatever follows the last valid record so that it can't be
+            // mistaken for a record when we recover the next time
+            final Segment last = segments.peekLast();
+            if (last.writeOffset + 4 <= last.capacity && last.buffer().getInt(last.writeOffset) != 0) {
+                final ByteBuffer view = last.buffer().duplicate();
+                view.position(last.writeOffset);
+                while (view.hasRemaining()) {
+                    view.put((byte)0);
+                }
+            }
+        }
+        writeCheckpoint();
+
+        if (pendingRecords > 0) {
+            LOG.info("Recovered {} messages ({} bytes) from the journal in {}.", pendingRecords, pendingBytes, directory);
+        }
+    }
+
+    /**
+     * Walks the valid records in the segment starting at the given offset.
+     *
+     * @return the offset following the last valid record
+     */
+    private int scan(Segment segment, int offset) throws IOException {
+        final MappedByteBuffer buffer = segment.buffer();
+        final CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER_SIZE <= segment.capacity) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0) {
+                break;
+            }
+            if (length < RECORD_HEADER_SIZE || offset + length > segment.capacity) {
+                LOG.warn("Invalid record length {} at offset {} of {}. Ignoring the remainder of the segment.", length, offset, segment.path);
+                break;
+            }
+            final byte[] payload = new byte[length - RECORD_HEADER_SIZE];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(offset + 4);
+            final int expectedCrc = view.getInt();
+            view.getLong();
+            view.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int)crc.getValue() != expectedCrc) {
+                LOG.warn("Corrupt record at offset {} of {}. Ignoring the remainder of the segment.", offset, segment.path);
+                break;
+            }
+            pendingRecords++;
+            pendingBytes += length;
+            offset += length;
+        }
+        return offset;
+    }
+
+    private Segment createSegment(long id, int capacity) throws IOException {
+        final Segment segment = new Segment(id, directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX)), capacity);
+        // Mapping the file extends it to the requested capacity
+        segment.buffer();
+        segments.addLast(segment);
+        diskUsage += capacity;
+        return segment;
+    }
+
+    private static long segmentId(Path path) {
+        final String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping remains valid after the channel is closed
+            return channel.map(MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final int capacity;
+        private int writeOffset;
+        private MappedByteBuffer buffer;
+
+        private Segment(long id, Path path, int capacity) {
+            this.id = id;
+            this.path = path;
+            this.capacity = capacity;
+        }
+
+        private MappedByteBuffer buffer() throws IOException {
+            if (buffer == null) {
+                buffer = map(path, capacity);
+            }
+            return buffer;
+        }
+
+        private void force() {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        private void release() {
+            // There's no portable way to unmap the buffer, it will be unmapped once collected
+            buffer = null;
+        }
+    }
+
+    /**
+     * A message read from the journal.
+     */
+    public static class Record {
+        private final long segmentId;
+        private final int offset;
+        private final int length;
+        private final long timestamp;
+        private final int crc;
+        private final byte[] payload;
+
+        private Record(long segmentId, int offset, int length, long timestamp, int crc, byte[] payload) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+            this.crc = crc;
+            this.payload = payload;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return <code>true</code> if the payload matches the checksum that was stored with it
+         */
+        public boolean isValid() {
+            final CRC32 actual = new CRC32();
+            actual.update(payload);
+            return (int)actual.getValue() == crc;
+        }
+
+        @Override
+        public String toString() {
+            return "Record[segment=" + segmentId + ", offset=" + offset + ", length=" + length + "]";
+        }
+    }
+}
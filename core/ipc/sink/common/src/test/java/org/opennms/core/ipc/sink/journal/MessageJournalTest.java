@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.journal.MessageJournal.Record;
+
+public class MessageJournalTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path journalDir;
+
+    @Before
+    public void setUp() {
+        journalDir = tempFolder.getRoot().toPath().resolve("journal");
+    }
+
+    @Test
+    public void canAppendPeekAndCommit() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            assertNull(journal.peek(0, TimeUnit.MILLISECONDS));
+            assertEquals(0, journal.getAgeMs());
+
+            assertTrue(journal.append(bytes("a"), false));
+            assertTrue(journal.append(bytes("b"), false));
+            assertEquals(2, journal.getDepth());
+
+            // Peeking twice returns the same record
+            assertEquals("a", string(journal.peek(0, TimeUnit.MILLISECONDS)));
+            final Record record = journal.peek(0, TimeUnit.MILLISECONDS);
+            assertEquals("a", string(record));
+            assertTrue(record.isValid());
+            journal.commit(record);
+
+            assertEquals(1, journal.getDepth());
+            assertEquals("b", string(journal.peek(0, TimeUnit.MILLISECONDS)));
+        }
+    }
+
+    @Test
+    public void canRollOverSegments() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            // Each of these take up ~1/4 of a segment, so we'll need a few segments
+            for (int i = 0; i < 10; i++) {
+                assertTrue(journal.append(message(i), false));
+            }
+            assertTrue(segmentFiles().length > 1);
+
+            for (int i = 0; i < 10; i++) {
+                final Record record = journal.peek(0, TimeUnit.MILLISECONDS);
+                assertArrayEquals(message(i), record.getPayload());
+                journal.commit(record);
+            }
+            assertNull(journal.peek(0, TimeUnit.MILLISECONDS));
+            assertEquals(0, journal.getDepth());
+            assertEquals(0, journal.getBytes());
+            // The consumed segments should have been removed
+            assertEquals(1, segmentFiles().length);
+        }
+    }
+
+    @Test
+    public void canRecoverAfterRestart() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            for (int i = 0; i < 8; i++) {
+                journal.append(message(i), false);
+            }
+            for (int i = 0; i < 3; i++) {
+                journal.commit(journal.peek(0, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            assertEquals(5, journal.getDepth());
+            // Append some more after the recovered messages
+            journal.append(message(8), false);
+            for (int i = 3; i < 9; i++) {
+                final Record record = journal.peek(0, TimeUnit.MILLISECONDS);
+                assertArrayEquals(message(i), record.getPayload());
+                journal.commit(record);
+            }
+            assertNull(journal.peek(0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void canRejectOrBlockWhenFull() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 2 * SEGMENT_SIZE)) {
+            int numAppended = 0;
+            while (journal.append(message(numAppended), false)) {
+                numAppended++;
+            }
+            assertTrue(numAppended > 0);
+            assertEquals(numAppended, journal.getDepth());
+
+            // Blocking appends should wait until a segment is freed up
+            final CompletableFuture<Boolean> blockedAppend = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return journal.append(message(-1), true);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(blockedAppend.isDone());
+
+            // Drain the first segment
+            for (int i = 0; i < numAppended; i++) {
+                journal.commit(journal.peek(0, TimeUnit.MILLISECONDS));
+            }
+            assertTrue(blockedAppend.get(1, TimeUnit.MINUTES));
+            assertArrayEquals(message(-1), journal.peek(0, TimeUnit.MILLISECONDS).getPayload());
+        }
+    }
+
+    @Test
+    public void canAppendMessagesLargerThanASegment() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            final byte[] large = new byte[SEGMENT_SIZE + 1];
+            assertTrue(journal.append(large, false));
+            assertArrayEquals(large, journal.peek(0, TimeUnit.MILLISECONDS).getPayload());
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void canRejectMessagesThatWouldNeverFit() throws Exception {
+        try (MessageJournal journal = new MessageJournal(journalDir, SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            // This would block forever if it were accepted
+            journal.append(new byte[3 * SEGMENT_SIZE], true);
+        }
+    }
+
+    private File[] segmentFiles() {
+        return journalDir.toFile().listFiles((dir, name) -> name.endsWith(MessageJournal.SEGMENT_SUFFIX));
+    }
+
+    private static byte[] message(int i) {
+        final byte[] message = new byte[SEGMENT_SIZE / 4];
+        for (int k = 0; k < message.length; k++) {
+            message[k] = (byte)(i + k);
+        }
+        return message;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(Record record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
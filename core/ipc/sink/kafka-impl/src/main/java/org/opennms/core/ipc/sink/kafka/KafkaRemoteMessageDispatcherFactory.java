@@ -38,6 +38,7 @@ import java.util.concurrent.Future;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.opennms.core.camel.JmsQueueNameFactory;
 import org.opennms.core.ipc.sink.api.Message;
@@ -61,7 +62,7 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
 
     private JmxReporter reporter;
 
-    private KafkaProducer<String,String> producer;
+    private KafkaProducer<String,byte[]> producer;
 
     @Override
     public <S extends Message, T extends Message> String getModuleMetadata(final SinkModule<S, T> module) {
@@ -73,12 +74,8 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
     public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, String topic, T message) {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             LOG.trace("dispatch({}): sending message {}", topic, message);
-            final ProducerRecord<String,String> record = new ProducerRecord<>(topic, module.marshal(message));
             try {
-                // From KafkaProducer's JavaDoc: The producer is thread safe and should generally be shared among all threads for best performance.
-                final Future<RecordMetadata> future = producer.send(record);
-                // The call to dispatch() is synchronous, so we block until the message was sent
-                future.get();
+                send(module, topic, message);
             } catch (InterruptedException e) {
                 LOG.warn("Interrupted while sending message to topic {}.", topic, e);
             } catch (ExecutionException e) {
@@ -87,6 +84,30 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
         }
     }
 
+    @Override
+    protected <S extends Message, T extends Message> void dispatchFromJournal(SinkModule<S, T> module, String topic, T message) {
+        try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
+            LOG.trace("dispatchFromJournal({}): sending message {}", topic, message);
+            try {
+                send(module, topic, message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Let the journal know that the message wasn't sent, so that it is retried
+                throw new IllegalStateException("Interrupted while sending message to topic " + topic + ".", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error occured while sending message to topic " + topic + ".", e.getCause());
+            }
+        }
+    }
+
+    private <S extends Message, T extends Message> void send(SinkModule<S, T> module, String topic, T message) throws InterruptedException, ExecutionException {
+        final ProducerRecord<String,byte[]> record = new ProducerRecord<>(topic, module.marshalToBytes(message));
+        // From KafkaProducer's JavaDoc: The producer is thread safe and should generally be shared among all threads for best performance.
+        final Future<RecordMetadata> future = producer.send(record);
+        // The call to dispatch() is synchronous, so we block until the message was sent
+        future.get();
+    }
+
     public void init() throws IOException {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             registerJmxReporter();
@@ -94,7 +115,7 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
             // Defaults
             kafkaConfig.clear();
             kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
-            kafkaConfig.put("value.serializer", StringSerializer.class.getCanonicalName());
+            kafkaConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
 
             // Retrieve all of the properties from org.opennms.core.ipc.sink.kafka.cfg
             final Dictionary<String, Object> properties = configAdmin.getConfiguration(KafkaSinkConstants.KAFKA_CONFIG_PID).getProperties();
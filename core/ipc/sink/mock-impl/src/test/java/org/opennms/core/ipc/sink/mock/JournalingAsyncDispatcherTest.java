@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.mock;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.MessageConsumer;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.common.JournalingAsyncDispatcherImpl;
+
+/**
+ * Verifies the journaling mode of the async dispatchers against the
+ * {@link MockMessageDispatcherFactory}.
+ */
+public class JournalingAsyncDispatcherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static class MyMessage implements Message {
+        private final String value;
+
+        private MyMessage(String value) {
+            this.value = value;
+        }
+    }
+
+    private class MyModule extends MockSinkModule<MyMessage, MyMessage> {
+        @Override
+        public String getId() {
+            return "test";
+        }
+
+        @Override
+        public String marshal(MyMessage message) {
+            return message.value;
+        }
+
+        @Override
+        public MyMessage unmarshal(String message) {
+            return new MyMessage(message);
+        }
+
+        @Override
+        public AsyncPolicy getAsyncPolicy() {
+            return new AsyncPolicy() {
+                @Override
+                public int getQueueSize() {
+                    return 0;
+                }
+
+                @Override
+                public int getNumThreads() {
+                    return 0;
+                }
+
+                @Override
+                public boolean isBlockWhenFull() {
+                    return false;
+                }
+
+                @Override
+                public String getJournalDirectory() {
+                    return tempFolder.getRoot().getAbsolutePath();
+                }
+            };
+        }
+    }
+
+    /**
+     * Stores the messages in a list, or fails when the broker is unavailable.
+     */
+    private class FlakyConsumer implements MessageConsumer<MyMessage, MyMessage> {
+        private final List<String> consumed = new CopyOnWriteArrayList<>();
+        private volatile boolean available = true;
+
+        @Override
+        public SinkModule<MyMessage, MyMessage> getModule() {
+            return module;
+        }
+
+        @Override
+        public void handleMessage(MyMessage message) {
+            if (!available) {
+                throw new IllegalStateException("Broker is unavailable.");
+            }
+            consumed.add(message.value);
+        }
+    }
+
+    private final MyModule module = new MyModule();
+
+    private final FlakyConsumer consumer = new FlakyConsumer();
+
+    private MockMessageDispatcherFactory<MyMessage, MyMessage> dispatcherFactory;
+
+    @Before
+    public void setUp() {
+        dispatcherFactory = new MockMessageDispatcherFactory<>();
+        dispatcherFactory.setConsumer(consumer);
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canReplayMessagesInOrderWhenBrokerBecomesAvailable() throws Exception {
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+        assertTrue(asyncDispatcher instanceof JournalingAsyncDispatcherImpl);
+
+        asyncDispatcher.send(new MyMessage("0")).get();
+        await().atMost(1, MINUTES).until(() -> consumer.consumed.size(), equalTo(1));
+
+        // The messages should accumulate in the journal while the broker is unavailable
+        consumer.available = false;
+        final List<String> expected = new ArrayList<>();
+        expected.add("0");
+        for (int i = 1; i <= 100; i++) {
+            asyncDispatcher.send(new MyMessage(Integer.toString(i))).get();
+            expected.add(Integer.toString(i));
+        }
+        await().atMost(1, MINUTES).until(() -> asyncDispatcher.getQueueSize(), equalTo(100));
+        assertEquals(1, consumer.consumed.size());
+
+        // And be replayed in order once it's back
+        consumer.available = true;
+        await().atMost(1, MINUTES).until(() -> asyncDispatcher.getQueueSize(), equalTo(0));
+        assertEquals(expected, consumer.consumed);
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canReplayMessagesAfterRestart() throws Exception {
+        consumer.available = false;
+        AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module);
+        for (int i = 0; i < 10; i++) {
+            asyncDispatcher.send(new MyMessage(Integer.toString(i))).get();
+        }
+        asyncDispatcher.close();
+        assertEquals(0, consumer.consumed.size());
+
+        // The messages should be dispatched by the next dispatcher for the module
+        consumer.available = true;
+        final MockMessageDispatcherFactory<MyMessage, MyMessage> nextDispatcherFactory = new MockMessageDispatcherFactory<>();
+        nextDispatcherFactory.setConsumer(consumer);
+        asyncDispatcher = nextDispatcherFactory.createAsyncDispatcher(module);
+        await().atMost(1, MINUTES).until(() -> consumer.consumed.size(), equalTo(10));
+        assertEquals("0", consumer.consumed.get(0));
+        assertEquals("9", consumer.consumed.get(9));
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canUseTheJournalDirectoryFromTheSystemProperties() throws Exception {
+        final MockSinkModule<MyMessage, MyMessage> moduleWithDefaults = new MyModule() {
+            @Override
+            public AsyncPolicy getAsyncPolicy() {
+                return new AsyncPolicy() {
+                    @Override
+                    public int getQueueSize() {
+                        return 1;
+                    }
+
+                    @Override
+                    public int getNumThreads() {
+                        return 1;
+                    }
+
+                    @Override
+                    public boolean isBlockWhenFull() {
+                        return true;
+                    }
+                };
+            }
+        };
+
+        System.setProperty(AsyncPolicy.JOURNAL_DIRECTORY_SYS_PROP, tempFolder.getRoot().getAbsolutePath());
+        try {
+            final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(moduleWithDefaults);
+            assertTrue(asyncDispatcher instanceof JournalingAsyncDispatcherImpl);
+            asyncDispatcher.close();
+        } finally {
+            System.clearProperty(AsyncPolicy.JOURNAL_DIRECTORY_SYS_PROP);
+        }
+        final AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(moduleWithDefaults);
+        assertTrue(!(asyncDispatcher instanceof JournalingAsyncDispatcherImpl));
+        asyncDispatcher.close();
+    }
+}
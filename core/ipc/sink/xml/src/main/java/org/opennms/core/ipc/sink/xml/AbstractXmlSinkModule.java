@@ -30,36 +30,75 @@ package org.opennms.core.ipc.sink.xml;
 
 import java.util.Objects;
 
-import org.opennms.core.ipc.sink.api.SinkModule;
-import org.opennms.core.xml.XmlHandler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.xml.codec.MessageCodec;
+import org.opennms.core.xml.codec.MessageEncoding;
+import org.opennms.core.xml.codec.MessageMarshaller;
 
+/**
+ * {@link SinkModule} that marshals the messages to XML, or to one of the other
+ * {@link MessageEncoding}s when sent over the wire.
+ *
+ * The encoding can be selected for all of the modules with the
+ * <code>org.opennms.core.ipc.sink.encoding</code> system property, or for a
+ * specific module with <code>org.opennms.core.ipc.sink.${moduleId}.encoding</code>.
+ * Messages are always unmarshaled from any of the encodings, so only the
+ * producers need to be configured.
+ */
 public abstract class AbstractXmlSinkModule<S extends Message, T extends Message> implements SinkModule<S, T> {
 
-    private static final Logger LOG = LoggerFactory.getLogger(AbstractXmlSinkModule.class);
+    public static final String ENCODING_PROPERTY_PREFIX = "org.opennms.core.ipc.sink";
 
-    private final Class<T> messageClazz;
+    private final MessageMarshaller<T> marshaller;
 
-    /**
-     * Store a thread-local reference to the {@link XmlHandler} because 
-     * Unmarshalers are not thread-safe.
-     */
-    private final ThreadLocal<XmlHandler<T>> messageXmlHandler = new ThreadLocal<>();
+    private MessageEncoding encoding;
 
     public AbstractXmlSinkModule(Class<T> messageClazz) {
-        this.messageClazz = Objects.requireNonNull(messageClazz);
+        this(messageClazz, null);
+    }
+
+    /**
+     * @param messageClazz the message type
+     * @param messageCodec used for the binary encodings, may be null
+     */
+    public AbstractXmlSinkModule(Class<T> messageClazz, MessageCodec<T> messageCodec) {
+        this.marshaller = new MessageMarshaller<>(Objects.requireNonNull(messageClazz), messageCodec);
     }
 
     @Override
     public String marshal(T message) {
-        return getXmlHandler().marshal(message);
+        return marshaller.marshal(message);
     }
 
     @Override
     public T unmarshal(String message) {
-        return getXmlHandler().unmarshal(message);
+        return marshaller.unmarshal(message);
+    }
+
+    @Override
+    public byte[] marshalToBytes(T message) {
+        return marshaller.marshal(message, getEncoding());
+    }
+
+    @Override
+    public T unmarshalFromBytes(byte[] message) {
+        return marshaller.unmarshal(message);
+    }
+
+    /**
+     * The encoding used by {@link #marshalToBytes(Message)}, retrieved from
+     * the system properties the first time it is used.
+     */
+    public MessageEncoding getEncoding() {
+        if (encoding == null) {
+            encoding = MessageEncoding.fromSystemProperties(ENCODING_PROPERTY_PREFIX, getId());
+        }
+        return encoding;
+    }
+
+    public void setEncoding(MessageEncoding encoding) {
+        this.encoding = encoding;
     }
 
     @Override
@@ -73,26 +112,4 @@ public abstract class AbstractXmlSinkModule<S extends Message, T extends Message
         if (obj == null) return false;
         return getClass() == obj.getClass();
     }
-
-    private XmlHandler<T> getXmlHandler() {
-        XmlHandler<T> xmlHandler = messageXmlHandler.get();
-        if (xmlHandler == null) {
-            xmlHandler = createXmlHandler(messageClazz);
-            messageXmlHandler.set(xmlHandler);
-        }
-        return xmlHandler;
-    }
-
-    private <W> XmlHandler<W> createXmlHandler(Class<W> clazz) {
-        try {
-            return new XmlHandler<>(clazz);
-        } catch (Throwable t) {
-            // NMS-8793: This is a work-around for some failure in the Minion container
-            // When invoked for the first time, the creation may fail due to
-            // errors of the form "invalid protocol handler: mvn", but subsequent
-            // calls always seem to work
-            LOG.warn("Creating the XmlHandler failed. Retrying.", t);
-            return new XmlHandler<>(clazz);
-        }
-    }
 }
@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -64,14 +65,22 @@ import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
 import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
 import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+
 /**
  * A implementation of the JmxCollector.
  * It iterates over all configured MBeans, collects either attributes or composite members and creates a sample accordingly.
+ * <p/>
+ * The connections are borrowed from a {@link JmxConnectionPool} and the object names matching wildcard MBeans
+ * are kept in an {@link ObjectNameCache}, so that most collections only need a single round trip per object name.
  *
  * @see org.opennms.netmgt.jmx.JmxCollector
  */
@@ -79,6 +88,28 @@ public class DefaultJmxCollector implements JmxCollector {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private final JmxConnectionPool connectionPool;
+
+    private final ObjectNameCache objectNameCache;
+
+    private final Histogram roundTripsHistogram;
+
+    private final Meter objectNameCacheHits;
+
+    private final Meter objectNameCacheMisses;
+
+    public DefaultJmxCollector() {
+        this(JmxConnectionPool.getDefault(), ObjectNameCache.getDefault());
+    }
+
+    public DefaultJmxCollector(JmxConnectionPool connectionPool, ObjectNameCache objectNameCache) {
+        this.connectionPool = Objects.requireNonNull(connectionPool);
+        this.objectNameCache = Objects.requireNonNull(objectNameCache);
+        roundTripsHistogram = connectionPool.getMetrics().histogram("collector.round-trips");
+        objectNameCacheHits = connectionPool.getMetrics().meter("collector.object-names.cache-hits");
+        objectNameCacheMisses = connectionPool.getMetrics().meter("collector.object-names.cache-misses");
+    }
+
     @Override
     public void collect(JmxCollectorConfig config, MBeanServer mBeanServer, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
         Map<String, String> mergedStringMap = new HashMap<>(config.getServiceProperties());
@@ -86,34 +117,45 @@ public class DefaultJmxCollector implements JmxCollector {
             mergedStringMap.putAll(mBeanServer.getParameterMap());
         }
 
-        JmxConnectionManager connectionManager = new DefaultConnectionManager(config.getRetries());
+        JmxConnectionManager connectionManager = new PooledConnectionManager(connectionPool, new DefaultConnectionManager(config.getRetries()));
         try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), mergedStringMap, null)) {
             Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
             Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
 
             final MBeanServerConnection concreteConnection = connectionWrapper.getMBeanServerConnection();
-            collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+            final String agent = config.getConnectionName() + "://" + config.getAgentAddress() + ":" + mergedStringMap.get("port") + mergedStringMap.get("urlPath");
+            collect(agent, concreteConnection, config.getJmxCollection(), sampleProcessor);
         }
     }
 
-    private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
+    private void collect(String agent, MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
         if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
             logger.info("No MBeans to collect.");
             return;
         }
 
+        final AtomicInteger roundTrips = new AtomicInteger();
         try {
             for (Mbean eachMbean : jmxCollection.getMbeans()) {
                 logger.debug("Collecting MBean (objectname={}, wildcard={})", eachMbean.getObjectname(), isWildcard(eachMbean.getObjectname()));
 
-                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, eachMbean.getObjectname());
+                final Collection<ObjectName> objectNames = getObjectNames(agent, concreteConnection, eachMbean.getObjectname(), roundTrips);
                 for (ObjectName eachObjectName : objectNames) {
                     logger.debug("Collecting ObjectName {}", eachObjectName);
 
-                    boolean collect = canBeCollected(concreteConnection, eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
+                    boolean collect = canBeCollected(eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
                     if (collect) {
                         List<String> attributeNames = extractAttributeNames(eachMbean);
-                        List<Attribute> attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        final List<Attribute> attributes;
+                        try {
+                            roundTrips.incrementAndGet();
+                            attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        } catch (InstanceNotFoundException e) {
+                            // The object names of wildcard MBeans may be cached, look them up again on the next collection
+                            logger.debug("ObjectName {} is not registered.", eachObjectName);
+                            objectNameCache.invalidate(agent, eachMbean.getObjectname());
+                            continue;
+                        }
 
                         for (Attribute eachAttribute : attributes) {
                             if (eachAttribute.getValue() instanceof CompositeData) {
@@ -138,25 +180,25 @@ public class DefaultJmxCollector implements JmxCollector {
             logger.error("Could not collect data", e);
         } catch (IOException e) {
             logger.error("Could not communicate with MBeanServer", e);
+        } finally {
+            roundTripsHistogram.update(roundTrips.get());
         }
     }
 
     /**
      * Checks if a given objectName can be collected.
-     * It cannot be collected if it is excluded or not registered, otherwise it can be collected.
+     * It cannot be collected if it is excluded, otherwise it can be collected.
+     * <p/>
+     * Whether or not the objectName is registered is not checked up front, as this would
+     * take another round trip. Instead, getting the attributes fails with an {@link InstanceNotFoundException}.
      *
      * @return if it can be collected.
-     * @throws IOException If an error while communicating with the MBeanServer occurs.
      */
-    private boolean canBeCollected(MBeanServerConnection connection, ObjectName objectName, String keyField, String excludeList) throws IOException {
+    private boolean canBeCollected(ObjectName objectName, String keyField, String excludeList) {
         if (isExcluded(objectName, keyField, excludeList)) {
             logger.debug("ObjectName {} with key {} is in excludeList {}.", objectName, keyField, excludeList);
             return false;
         }
-        if (!connection.isRegistered(objectName)) {
-            logger.debug("ObjectName {} is not registered.", objectName);
-            return false;
-        }
         return true;
     }
 
@@ -260,6 +302,7 @@ public class DefaultJmxCollector implements JmxCollector {
 
     /**
      * Returns an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
+     * The results of the queries for wildcard entries are cached.
      *
      * @param objectName The objectName to query the server with. May contain wildcards.
      *                   See {@link javax.management.MBeanServer#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)} for details.
@@ -267,14 +310,24 @@ public class DefaultJmxCollector implements JmxCollector {
      * @throws MalformedObjectNameException
      * @throws IOException
      */
-    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String objectName) throws MalformedObjectNameException, IOException {
+    private Set<ObjectName> getObjectNames(String agent, MBeanServerConnection mbeanServer, String objectName, AtomicInteger roundTrips) throws MalformedObjectNameException, IOException {
         Set<ObjectName> objectNames = new HashSet<>();
 
         // if we have a wildcard in the object Name, we have to query the server for
         // all object names matching that expression
         if (isWildcard(objectName)) {
+            final Set<ObjectName> cachedObjectNames = objectNameCache.get(agent, objectName);
+            if (cachedObjectNames != null) {
+                objectNameCacheHits.mark();
+                return cachedObjectNames;
+            }
+            objectNameCacheMisses.mark();
+            roundTrips.incrementAndGet();
             Set<ObjectName> retrievedObjectNames = mbeanServer.queryNames(new ObjectName(objectName), null);
             objectNames.addAll(retrievedObjectNames);
+            objectNames = Collections.unmodifiableSet(objectNames);
+            objectNameCache.put(agent, objectName, objectNames);
+            return objectNames;
         } else {
             // we do not have a wildcard
             objectNames.add(new ObjectName(objectName));
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.jmx.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+/**
+ * Caches the {@link ObjectName}s that matched a wildcard MBean on an agent,
+ * so that the agent doesn't have to be queried again on every collection.
+ * <p/>
+ * Entries expire after the configured TTL, so that MBeans that were registered
+ * later are picked up eventually. A TTL of 0 disables the cache.
+ */
+public class ObjectNameCache {
+
+    public static final String TTL_PROPERTY = "org.opennms.netmgt.jmx.objectNameCache.ttl";
+
+    private static final ObjectNameCache DEFAULT = new ObjectNameCache(Long.getLong(TTL_PROPERTY, TimeUnit.MINUTES.toMillis(5)));
+
+    /**
+     * @return the cache shared by the collectors.
+     */
+    public static ObjectNameCache getDefault() {
+        return DEFAULT;
+    }
+
+    private final long ttlMs;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile long lastPurgeMs = System.currentTimeMillis();
+
+    public ObjectNameCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @return the cached object names, or null if there are none or they expired.
+     */
+    public Set<ObjectName> get(String agent, String objectName) {
+        if (ttlMs <= 0) {
+            return null;
+        }
+        final Key key = new Key(agent, objectName);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresMs <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.objectNames;
+    }
+
+    public void put(String agent, String objectName, Set<ObjectName> objectNames) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        entries.put(new Key(agent, objectName), new Entry(objectNames, now + ttlMs));
+        if (now - lastPurgeMs >= ttlMs) {
+            lastPurgeMs = now;
+            purge(now);
+        }
+    }
+
+    /**
+     * Removes the cached object names, i.e. when one of them is no longer registered.
+     */
+    public void invalidate(String agent, String objectName) {
+        entries.remove(new Key(agent, objectName));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void purge(long now) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresMs <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Key {
+        private final String agent;
+        private final String objectName;
+
+        private Key(String agent, String objectName) {
+            this.agent = agent;
+            this.objectName = objectName;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(agent, objectName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(agent, other.agent)
+                    && Objects.equals(objectName, other.objectName);
+        }
+    }
+
+    private static class Entry {
+        private final Set<ObjectName> objectNames;
+        private final long expiresMs;
+
+        private Entry(Set<ObjectName> objectNames, long expiresMs) {
+            this.objectNames = objectNames;
+            this.expiresMs = expiresMs;
+        }
+    }
+}
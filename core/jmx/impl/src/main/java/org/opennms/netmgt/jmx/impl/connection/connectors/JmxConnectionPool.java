@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Keeps idle JMX connections, keyed by the connector, the address of the agent
+ * and the properties used to connect, so that they can be reused by the next
+ * collection or poll of the same agent.
+ * <p/>
+ * Connections that have been idle for longer than the validation interval are
+ * checked with {@link MBeanServerConnection#getMBeanCount()} before they are reused,
+ * and connections that fail with an {@link IOException} while they are in use are
+ * closed instead of being returned to the pool. Idle connections are closed once
+ * they have been idle for longer than the idle timeout.
+ *
+ * @see PooledConnectionManager
+ */
+public class JmxConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    public static final String MAX_IDLE_PER_AGENT_PROPERTY = "org.opennms.netmgt.jmx.pool.maxIdlePerAgent";
+
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.jmx.pool.idleTimeout";
+
+    public static final String VALIDATION_INTERVAL_PROPERTY = "org.opennms.netmgt.jmx.pool.validationInterval";
+
+    /**
+     * The properties used by the {@link org.opennms.netmgt.jmx.connection.JmxServerConnector}s
+     * to establish the connection. Other properties, i.e. the collection or the tests of the
+     * monitor, do not prevent collectors and monitors from sharing the connections.
+     */
+    private static final Set<String> CONNECTION_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "factory", "port", "protocol", "urlPath", "rmiServerport", "remoteJMX",
+            "username", "password", "timeout", "version", "sunCacao")));
+
+    private static final JmxConnectionPool DEFAULT;
+
+    static {
+        DEFAULT = new JmxConnectionPool(Integer.getInteger(MAX_IDLE_PER_AGENT_PROPERTY, 2),
+                Long.getLong(IDLE_TIMEOUT_PROPERTY, TimeUnit.MINUTES.toMillis(5)),
+                Long.getLong(VALIDATION_INTERVAL_PROPERTY, TimeUnit.SECONDS.toMillis(30)));
+        JmxReporter.forRegistry(DEFAULT.getMetrics())
+                .inDomain(JmxConnectionPool.class.getPackage().getName())
+                .build()
+                .start();
+    }
+
+    /**
+     * @return the pool shared by the JMX collectors and monitors.
+     */
+    public static JmxConnectionPool getDefault() {
+        return DEFAULT;
+    }
+
+    private final int maxIdlePerAgent;
+
+    private final long idleTimeoutMs;
+
+    private final long validationIntervalMs;
+
+    private final Map<Key, Deque<PooledConnection>> idleConnections = new HashMap<>();
+
+    private int idleCount = 0;
+
+    private long lastEvictionMs = System.currentTimeMillis();
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private final Meter created = metrics.meter("connections.created");
+
+    private final Meter reused = metrics.meter("connections.reused");
+
+    private final Meter invalidated = metrics.meter("connections.invalidated");
+
+    private final Meter evicted = metrics.meter("connections.evicted");
+
+    private final Meter roundTrips = metrics.meter("round-trips");
+
+    /**
+     * @param maxIdlePerAgent the maximum number of idle connections kept for each agent, 0 disables the pooling
+     * @param idleTimeoutMs idle connections are closed after this many milliseconds
+     * @param validationIntervalMs connections that have been idle for longer than this are validated before they are reused
+     */
+    public JmxConnectionPool(int maxIdlePerAgent, long idleTimeoutMs, long validationIntervalMs) {
+        this.maxIdlePerAgent = Math.max(0, maxIdlePerAgent);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+
+        metrics.register("connections.active", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return activeCount.get();
+            }
+        });
+        metrics.register("connections.idle", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getIdleCount();
+            }
+        });
+    }
+
+    /**
+     * Returns an idle connection to the agent if there is one that is still valid,
+     * otherwise establishes a new connection using the given connection manager.
+     * <p/>
+     * The connection is returned to the pool when it is closed.
+     */
+    public JmxServerConnectionWrapper connect(JmxConnectionManager connectionManager, JmxConnectors connectorName, InetAddress ipAddress,
+            Map<String, String> properties, JmxConnectionManager.RetryCallback retryCallback) throws JmxServerConnectionException {
+        final Key key = new Key(connectorName, ipAddress, properties);
+        evictIdleConnections();
+
+        PooledConnection connection;
+        while ((connection = poll(key)) != null) {
+            if (isValid(connection)) {
+                reused.mark();
+                activeCount.incrementAndGet();
+                connection.borrow();
+                return connection;
+            }
+            LOG.debug("Idle connection to {} is no longer valid. Reconnecting.", ipAddress);
+            invalidated.mark();
+            connection.closeDelegate();
+        }
+
+        final JmxServerConnectionWrapper delegate = connectionManager.connect(connectorName, ipAddress, properties, retryCallback);
+        created.mark();
+        activeCount.incrementAndGet();
+        connection = new PooledConnection(key, delegate);
+        connection.borrow();
+        return connection;
+    }
+
+    /**
+     * Closes all of the idle connections.
+     */
+    public void clear() {
+        final List<PooledConnection> connections = new ArrayList<>();
+        synchronized (idleConnections) {
+            for (Deque<PooledConnection> deque : idleConnections.values()) {
+                connections.addAll(deque);
+            }
+            idleConnections.clear();
+            idleCount = 0;
+        }
+        for (PooledConnection connection : connections) {
+            connection.closeDelegate();
+        }
+    }
+
+    public int getIdleCount() {
+        synchronized (idleConnections) {
+            return idleCount;
+        }
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    private PooledConnection poll(Key key) {
+        synchronized (idleConnections) {
+            final Deque<PooledConnection> deque = idleConnections.get(key);
+            if (deque == null) {
+                return null;
+            }
+            final PooledConnection connection = deque.pollFirst();
+            if (deque.isEmpty()) {
+                idleConnections.remove(key);
+            }
+            if (connection != null) {
+                idleCount--;
+            }
+            return connection;
+        }
+    }
+
+    private boolean isValid(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.lastUsedMs < validationIntervalMs) {
+            return true;
+        }
+        try {
+            roundTrips.mark();
+            connection.delegate.getMBeanServerConnection().getMBeanCount();
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Validation of the idle connection to {} failed.", connection.key.ipAddress, e);
+            return false;
+        }
+    }
+
+    private void release(PooledConnection connection) {
+        activeCount.decrementAndGet();
+        if (connection.broken) {
+            invalidated.mark();
+            connection.closeDelegate();
+            return;
+        }
+
+        connection.lastUsedMs = System.currentTimeMillis();
+        synchronized (idleConnections) {
+            Deque<PooledConnection> deque = idleConnections.get(connection.key);
+            if (deque == null) {
+                deque = new ArrayDeque<>(maxIdlePerAgent);
+                idleConnections.put(connection.key, deque);
+            }
+            if (deque.size() < maxIdlePerAgent) {
+                // The most recently used connections are reused first, so the others can expire
+                deque.addFirst(connection);
+                idleCount++;
+                return;
+            }
+            if (deque.isEmpty()) {
+                idleConnections.remove(connection.key);
+            }
+        }
+        connection.closeDelegate();
+    }
+
+    private void evictIdleConnections() {
+        final long now = System.currentTimeMillis();
+        final List<PooledConnection> expired = new ArrayList<>();
+        synchronized (idleConnections) {
+            if (now - lastEvictionMs < Math.min(idleTimeoutMs, TimeUnit.MINUTES.toMillis(1))) {
+                return;
+            }
+            lastEvictionMs = now;
+            for (Iterator<Deque<PooledConnection>> it = idleConnections.values().iterator(); it.hasNext(); ) {
+                final Deque<PooledConnection> deque = it.next();
+                // The least recently used connections are at the end of the deque
+                while (!deque.isEmpty() && now - deque.peekLast().lastUsedMs >= idleTimeoutMs) {
+                    expired.add(deque.pollLast());
+                    idleCount--;
+                }
+                if (deque.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        for (PooledConnection connection : expired) {
+            evicted.mark();
+            connection.closeDelegate();
+        }
+    }
+
+    private static class Key {
+        private final JmxConnectors connectorName;
+        private final InetAddress ipAddress;
+        private final Map<String, String> properties = new TreeMap<>();
+
+        private Key(JmxConnectors connectorName, InetAddress ipAddress, Map<String, String> properties) {
+            this.connectorName = connectorName;
+            this.ipAddress = ipAddress;
+            if (properties != null) {
+                for (Map.Entry<String, String> entry : properties.entrySet()) {
+                    if (CONNECTION_PROPERTIES.contains(entry.getKey())) {
+                        this.properties.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connectorName, ipAddress, properties);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(connectorName, other.connectorName)
+                    && Objects.equals(ipAddress, other.ipAddress)
+                    && Objects.equals(properties, other.properties);
+        }
+    }
+
+    /**
+     * Returns the connection to the pool when it is closed. The {@link MBeanServerConnection}
+     * is proxied in order to count the round trips and to detect broken connections.
+     */
+    private class PooledConnection implements JmxServerConnectionWrapper, InvocationHandler {
+        private final Key key;
+        private final JmxServerConnectionWrapper delegate;
+        private final MBeanServerConnection connection;
+        private volatile boolean borrowed = false;
+        private volatile boolean broken = false;
+        private volatile long lastUsedMs;
+
+        private PooledConnection(Key key, JmxServerConnectionWrapper delegate) {
+            this.key = key;
+            this.delegate = delegate;
+            this.connection = (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(),
+                    new Class<?>[] { MBeanServerConnection.class }, this);
+        }
+
+        private void borrow() {
+            borrowed = true;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (borrowed) {
+                borrowed = false;
+                release(this);
+            }
+        }
+
+        private void closeDelegate() {
+            try {
+                delegate.close();
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to close the connection to {}.", key.ipAddress, e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            roundTrips.mark();
+            try {
+                return method.invoke(delegate.getMBeanServerConnection(), args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+    }
+}
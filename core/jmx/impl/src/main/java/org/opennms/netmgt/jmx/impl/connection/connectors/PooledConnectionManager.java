@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+/**
+ * A {@link JmxConnectionManager} that reuses the connections kept by a {@link JmxConnectionPool}
+ * and establishes new connections with a {@link DefaultConnectionManager}.
+ * <p/>
+ * Closing the returned {@link JmxServerConnectionWrapper} returns the connection to the pool.
+ */
+public class PooledConnectionManager implements JmxConnectionManager {
+
+    private final JmxConnectionPool pool;
+
+    private final JmxConnectionManager connectionManager;
+
+    /**
+     * Uses the default pool.
+     *
+     * @param retryCount see {@link DefaultConnectionManager#DefaultConnectionManager(int)}
+     */
+    public PooledConnectionManager(int retryCount) {
+        this(JmxConnectionPool.getDefault(), new DefaultConnectionManager(retryCount));
+    }
+
+    public PooledConnectionManager(JmxConnectionPool pool, JmxConnectionManager connectionManager) {
+        this.pool = Objects.requireNonNull(pool);
+        this.connectionManager = Objects.requireNonNull(connectionManager);
+    }
+
+    @Override
+    public JmxServerConnectionWrapper connect(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> connectionProperties, RetryCallback retryCallback) throws JmxServerConnectionException {
+        return pool.connect(connectionManager, connectionName, ipAddress, connectionProperties, retryCallback);
+    }
+}
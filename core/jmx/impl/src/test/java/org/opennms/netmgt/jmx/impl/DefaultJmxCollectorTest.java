@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.jmx.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.collectd.jmx.Attrib;
+import org.opennms.netmgt.config.collectd.jmx.JmxCollection;
+import org.opennms.netmgt.config.collectd.jmx.Mbean;
+import org.opennms.netmgt.jmx.JmxCollectorConfig;
+import org.opennms.netmgt.jmx.JmxSampleProcessor;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
+import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
+
+public class DefaultJmxCollectorTest {
+
+    public interface CounterMBean {
+        int getValue();
+    }
+
+    private final MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private JmxConnectionPool connectionPool;
+
+    private DefaultJmxCollector collector;
+
+    private JmxCollectorConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        for (String name : new String[] { "a", "b" }) {
+            platformMBeanServer.registerMBean(new StandardMBean(() -> 42, CounterMBean.class), objectName(name));
+        }
+
+        connectionPool = new JmxConnectionPool(2, TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1));
+        collector = new DefaultJmxCollector(connectionPool, new ObjectNameCache(TimeUnit.MINUTES.toMillis(5)));
+
+        final Attrib attrib = new Attrib();
+        attrib.setName("Value");
+        final Mbean mbean = new Mbean();
+        mbean.setName("Counters");
+        mbean.setObjectname("org.opennms.netmgt.jmx.impl:type=Counter,*");
+        mbean.addAttrib(attrib);
+        final JmxCollection jmxCollection = new JmxCollection();
+        jmxCollection.addMbean(mbean);
+
+        config = new JmxCollectorConfig();
+        config.setAgentAddress("127.0.0.1");
+        config.setConnectionName(JmxConnectors.platform);
+        config.setRetries(1);
+        config.setServiceProperties(Collections.emptyMap());
+        config.setJmxCollection(jmxCollection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ObjectName objectName : platformMBeanServer.queryNames(objectName("*"), null)) {
+            platformMBeanServer.unregisterMBean(objectName);
+        }
+        connectionPool.clear();
+    }
+
+    @Test
+    public void canCacheObjectNames() throws Exception {
+        // One query for the object names and a single round trip for the attributes of each object name
+        assertEquals(2, collect().size());
+        assertEquals(2, collect().size());
+        assertEquals(1, connectionPool.getMetrics().meter("collector.object-names.cache-hits").getCount());
+        assertEquals(1, connectionPool.getMetrics().meter("collector.object-names.cache-misses").getCount());
+        assertArrayEquals(new long[] { 2, 3 }, connectionPool.getMetrics().histogram("collector.round-trips").getSnapshot().getValues());
+
+        // Object names that are no longer registered are skipped, and looked up again on the next collection
+        platformMBeanServer.unregisterMBean(objectName("b"));
+        assertEquals(1, collect().size());
+        assertEquals(1, collect().size());
+        assertEquals(2, connectionPool.getMetrics().meter("collector.object-names.cache-misses").getCount());
+
+        // The connection was reused
+        assertEquals(1, connectionPool.getMetrics().meter("connections.created").getCount());
+    }
+
+    private List<JmxAttributeSample> collect() throws Exception {
+        final List<JmxAttributeSample> samples = new ArrayList<>();
+        collector.collect(config, null, new JmxSampleProcessor() {
+            @Override
+            public void process(JmxAttributeSample attributeSample) {
+                samples.add(attributeSample);
+            }
+
+            @Override
+            public void process(JmxCompositeSample compositeSample) {
+                samples.add(null);
+            }
+        });
+        return samples;
+    }
+
+    private static ObjectName objectName(String name) throws Exception {
+        return new ObjectName("org.opennms.netmgt.jmx.impl:type=Counter,name=" + name);
+    }
+}
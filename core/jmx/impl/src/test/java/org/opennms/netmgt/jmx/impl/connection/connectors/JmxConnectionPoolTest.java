@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.Test;
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+public class JmxConnectionPoolTest {
+
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long VALIDATION_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+
+    private final TestConnectionManager connectionManager = new TestConnectionManager();
+
+    @Test
+    public void canReuseConnections() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(2, IDLE_TIMEOUT_MS, VALIDATION_INTERVAL_MS);
+
+        final Map<String, String> collectorProperties = new HashMap<>();
+        collectorProperties.put("port", "1099");
+        collectorProperties.put("collection", "jsr160");
+        try (JmxServerConnectionWrapper connection = connect(pool, collectorProperties)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+            assertEquals(1, pool.getActiveCount());
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        // Properties that are not used to connect don't matter
+        final Map<String, String> monitorProperties = new HashMap<>();
+        monitorProperties.put("port", "1099");
+        monitorProperties.put("test.heap", "heap.HeapMemoryUsage.used > 0");
+        try (JmxServerConnectionWrapper connection = connect(pool, monitorProperties)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+        assertEquals(1, connectionManager.connects);
+        assertEquals(1, pool.getMetrics().meter("connections.reused").getCount());
+        assertEquals(2, pool.getMetrics().meter("round-trips").getCount());
+
+        // Another port is another agent
+        final Map<String, String> otherProperties = new HashMap<>();
+        otherProperties.put("port", "1100");
+        try (JmxServerConnectionWrapper connection = connect(pool, otherProperties)) {
+            connection.getMBeanServerConnection().getMBeanCount();
+        }
+        assertEquals(2, connectionManager.connects);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(0, connectionManager.closes);
+
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, connectionManager.closes);
+    }
+
+    @Test
+    public void canLimitIdleConnections() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(1, IDLE_TIMEOUT_MS, VALIDATION_INTERVAL_MS);
+
+        final JmxServerConnectionWrapper first = connect(pool, new HashMap<>());
+        final JmxServerConnectionWrapper second = connect(pool, new HashMap<>());
+        assertEquals(2, connectionManager.connects);
+        first.close();
+        second.close();
+        // Closing twice has no effect
+        second.close();
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, connectionManager.closes);
+    }
+
+    @Test
+    public void canDisablePooling() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(0, IDLE_TIMEOUT_MS, VALIDATION_INTERVAL_MS);
+
+        connect(pool, new HashMap<>()).close();
+        connect(pool, new HashMap<>()).close();
+        assertEquals(2, connectionManager.connects);
+        assertEquals(2, connectionManager.closes);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void canDiscardBrokenConnections() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(2, IDLE_TIMEOUT_MS, VALIDATION_INTERVAL_MS);
+
+        connectionManager.broken = true;
+        try (JmxServerConnectionWrapper connection = connect(pool, new HashMap<>())) {
+            connection.getMBeanServerConnection().getMBeanCount();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, connectionManager.closes);
+        assertEquals(1, pool.getMetrics().meter("connections.invalidated").getCount());
+
+        connectionManager.broken = false;
+        connect(pool, new HashMap<>()).close();
+        assertEquals(2, connectionManager.connects);
+    }
+
+    @Test
+    public void canValidateIdleConnections() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(2, IDLE_TIMEOUT_MS, 0);
+
+        connect(pool, new HashMap<>()).close();
+        connect(pool, new HashMap<>()).close();
+        assertEquals(1, connectionManager.connects);
+        assertEquals(1, pool.getMetrics().meter("round-trips").getCount());
+
+        // The agent was restarted while the connection was idle
+        connectionManager.broken = true;
+        connect(pool, new HashMap<>()).close();
+        assertEquals(2, connectionManager.connects);
+        assertEquals(1, pool.getMetrics().meter("connections.invalidated").getCount());
+    }
+
+    @Test
+    public void canEvictIdleConnections() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(2, 0, VALIDATION_INTERVAL_MS);
+
+        connect(pool, new HashMap<>()).close();
+        assertEquals(1, pool.getIdleCount());
+        connect(pool, new HashMap<>()).close();
+        assertEquals(2, connectionManager.connects);
+        assertEquals(1, pool.getMetrics().meter("connections.evicted").getCount());
+    }
+
+    private JmxServerConnectionWrapper connect(JmxConnectionPool pool, Map<String, String> properties) throws JmxServerConnectionException {
+        return pool.connect(connectionManager, JmxConnectors.jsr160, address, properties, null);
+    }
+
+    /**
+     * Connects to the platform MBean server, or to one that fails with an
+     * {@link IOException} when the connections are broken.
+     */
+    private static class TestConnectionManager implements JmxConnectionManager {
+        private int connects = 0;
+        private int closes = 0;
+        private boolean broken = false;
+
+        @Override
+        public JmxServerConnectionWrapper connect(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> connectionProperties, RetryCallback retryCallback) {
+            connects++;
+            return new JmxServerConnectionWrapper() {
+                private final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(
+                        MBeanServerConnection.class.getClassLoader(), new Class<?>[] { MBeanServerConnection.class },
+                        (proxy, method, args) -> {
+                            if (broken) {
+                                throw new IOException("Connection refused");
+                            }
+                            try {
+                                return method.invoke(ManagementFactory.getPlatformMBeanServer(), args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        });
+
+                @Override
+                public MBeanServerConnection getMBeanServerConnection() {
+                    return connection;
+                }
+
+                @Override
+                public void close() {
+                    closes++;
+                }
+            };
+        }
+    }
+}
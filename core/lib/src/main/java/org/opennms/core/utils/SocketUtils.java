@@ -35,6 +35,7 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -55,6 +56,30 @@ public abstract class SocketUtils {
     }
 
     public static SSLSocket wrapSocketInSslContext(Socket socket, String[] cipherSuites) throws IOException {
+        SSLSocketFactory socketFactory = getRelaxedSslContext().getSocketFactory();
+        InetAddress inetAddress = socket.getInetAddress();
+        String hostAddress = InetAddressUtils.str(inetAddress);
+        SSLSocket wrappedSocket = (SSLSocket) socketFactory.createSocket(socket, hostAddress, socket.getPort(), true);
+        if (cipherSuites != null && cipherSuites.length > 0) {
+            wrappedSocket.setEnabledCipherSuites(cipherSuites);
+        }
+        return wrappedSocket;
+    }
+
+    /**
+     * Creates an {@link SSLEngine} in client mode that trusts all of the
+     * certificates, like the sockets returned by {@link #wrapSocketInSslContext(Socket, String[])}.
+     */
+    public static SSLEngine createSslEngine(InetAddress address, int port, String[] cipherSuites) {
+        SSLEngine engine = getRelaxedSslContext().createSSLEngine(InetAddressUtils.str(address), port);
+        engine.setUseClientMode(true);
+        if (cipherSuites != null && cipherSuites.length > 0) {
+            engine.setEnabledCipherSuites(cipherSuites);
+        }
+        return engine;
+    }
+
+    private static SSLContext getRelaxedSslContext() {
         TrustManager[] tm = { new RelaxedX509TrustManager() };
         SSLContext sslContext = null;
         try {
@@ -67,14 +92,7 @@ public abstract class SocketUtils {
         	LOG.error("wrapSocket: Error wrapping socket, throwing runtime exception", e);
             throw new IllegalStateException("Key management exception in SSLSocketFactory: " + e);
         }
-        SSLSocketFactory socketFactory = sslContext.getSocketFactory();
-        InetAddress inetAddress = socket.getInetAddress();
-        String hostAddress = InetAddressUtils.str(inetAddress);
-        SSLSocket wrappedSocket = (SSLSocket) socketFactory.createSocket(socket, hostAddress, socket.getPort(), true);
-        if (cipherSuites != null && cipherSuites.length > 0) {
-            wrappedSocket.setEnabledCipherSuites(cipherSuites);
-        }
-        return wrappedSocket;
+        return sslContext;
     }
 
 }
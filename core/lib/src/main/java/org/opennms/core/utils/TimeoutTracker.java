@@ -147,6 +147,23 @@ public class TimeoutTracker {
 
     }
 
+    /**
+     * Returns the number of nanoseconds that {@link #startAttempt()} would
+     * currently sleep for before starting the next attempt. This is always
+     * 0 unless strict timeouts are enabled.
+     *
+     * Callers that must not block can wait for this long before calling
+     * {@link #startAttempt()}.
+     *
+     * @return a long.
+     */
+    public long getNanosUntilNextAttempt() {
+        if (!m_strictTimeouts) {
+            return 0L;
+        }
+        return Math.max(0L, m_nextRetryTimeNanos - System.nanoTime());
+    }
+
     private void sleep(long nanos) {
         long millis = nanos / 1000000L;
         int remainingNanos = (int)(nanos % 1000000L);
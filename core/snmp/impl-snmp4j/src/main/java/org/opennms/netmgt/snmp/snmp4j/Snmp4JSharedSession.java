@@ -0,0 +1,573 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * A single SNMP4J session that is shared by all of the requests made by the
+ * {@link Snmp4JStrategy} and {@link Snmp4JWalker} when
+ * {@link #SHARED_SESSION_PROPERTY} is set, instead of creating a socket,
+ * a listener thread and, for SNMPv3, a USM for every request.
+ *
+ * The requests are spread over a small, fixed set of UDP sockets. SNMP4J
+ * matches the responses to the pending requests using their request ID, so
+ * any number of requests can be in flight on the same socket.
+ *
+ * SNMPv3 users are added to a single USM, localized to the engine ID of the
+ * agent, which is discovered once and then cached along with the engine
+ * boots and time of the agent. The discovery is made in the background, the
+ * requests that are waiting for it are sent once it completes. Failed
+ * discoveries are cached too, and requests to the agent time out immediately
+ * until the discovery is retried, with an exponential backoff. Traps are sent
+ * with the local engine ID, so the users they are sent with are localized to
+ * it instead.
+ *
+ * The USM can only hold one user per engine ID and security name. When agents
+ * share an engine ID, typically because they were cloned, and use different
+ * credentials for the same security name, the user of the first agent is kept
+ * in the USM and the requests to the other agents are sent with a dedicated
+ * session and USM, like they are when the shared session is disabled.
+ */
+public class Snmp4JSharedSession implements Snmp4JSharedSessionMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSharedSession.class);
+
+    /**
+     * Use the shared session when <code>true</code>. Defaults to <code>false</code>,
+     * in which case a new session is created for every request.
+     */
+    public static final String SHARED_SESSION_PROPERTY = "org.opennms.snmp.snmp4j.sharedSession";
+
+    /**
+     * Number of UDP sockets used by the shared session.
+     */
+    public static final String NUM_TRANSPORTS_PROPERTY = "org.opennms.snmp.snmp4j.sharedSession.sockets";
+
+    private static final int DEFAULT_NUM_TRANSPORTS = 4;
+
+    /**
+     * Time to wait before retrying a failed engine ID discovery, doubled on
+     * every consecutive failure.
+     */
+    private static final long INITIAL_DISCOVERY_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long MAX_DISCOVERY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String MBEAN_NAME = "org.opennms.netmgt.snmp.snmp4j:name=SharedSession";
+
+    private static Snmp4JSharedSession s_instance;
+
+    private final Snmp m_session;
+
+    private final List<TransportMapping<UdpAddress>> m_transports = new ArrayList<>();
+
+    private final MPv3 m_mpv3;
+
+    private final USM m_usm;
+
+    /**
+     * The users that were added to the USM, keyed by engine ID and security name.
+     */
+    private final Map<String, SharedUser> m_users = new ConcurrentHashMap<>();
+
+    /**
+     * The engine ID discoveries in progress, keyed by agent address.
+     */
+    private final Map<Address, CompletableFuture<OctetString>> m_discoveries = new ConcurrentHashMap<>();
+
+    /**
+     * The agents for which the engine ID discovery failed.
+     */
+    private final Map<Address, DiscoveryFailure> m_failedDiscoveries = new ConcurrentHashMap<>();
+
+    /**
+     * Discovers engine IDs and closes dedicated sessions, so that neither
+     * happens on the threads that send the requests or receive the responses.
+     */
+    private final ExecutorService m_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger m_threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "SNMP4J-SharedSession-Worker-" + m_threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicInteger m_nextTransport = new AtomicInteger();
+
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+
+    private final AtomicLong m_requests = new AtomicLong();
+
+    private final AtomicLong m_timeouts = new AtomicLong();
+
+    private final AtomicLong m_retries = new AtomicLong();
+
+    private final AtomicLong m_engineIdDiscoveries = new AtomicLong();
+
+    private final AtomicLong m_dedicatedSessionRequests = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(SHARED_SESSION_PROPERTY);
+    }
+
+    /**
+     * Returns the shared session, opening it on first use.
+     */
+    public static synchronized Snmp4JSharedSession getInstance() throws IOException {
+        if (s_instance == null) {
+            s_instance = new Snmp4JSharedSession(Math.max(1, Integer.getInteger(NUM_TRANSPORTS_PROPERTY, DEFAULT_NUM_TRANSPORTS)));
+            s_instance.registerMBean();
+        }
+        return s_instance;
+    }
+
+    protected Snmp4JSharedSession(int numTransports) throws IOException {
+        m_usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+        m_mpv3 = new MPv3(m_usm);
+
+        final MessageDispatcher dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv1());
+        dispatcher.addMessageProcessingModel(new MPv2c());
+        dispatcher.addMessageProcessingModel(m_mpv3);
+
+        for (int i = 0; i < numTransports; i++) {
+            final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+            transport.setThreadName("SNMP4J-SharedSession-" + i);
+            // All of the responses are received on these sockets, so make the buffers as large as we can
+            transport.setReceiveBufferSize(Integer.MAX_VALUE);
+            m_transports.add(transport);
+        }
+        m_session = new Snmp(dispatcher, m_transports.get(0));
+        for (int i = 1; i < numTransports; i++) {
+            m_session.addTransportMapping(m_transports.get(i));
+        }
+
+        // Keep our own counters, the default counter support is shared by all of the sessions
+        final CounterSupport counterSupport = new CounterSupport() {};
+        counterSupport.addCounterListener(this::incrementCounter);
+        m_session.setCounterSupport(counterSupport);
+
+        m_session.listen();
+        LOG.info("Opened the shared SNMP session with {} sockets.", numTransports);
+    }
+
+    /**
+     * Sends the request on one of the sockets. The listener is invoked once
+     * with the response, or with a <code>null</code> response on timeout.
+     *
+     * If the engine ID of an SNMPv3 agent must be discovered first, the
+     * request is sent once the discovery completes, without blocking the
+     * caller.
+     */
+    public void send(Snmp4JAgentConfig agentConfig, PDU pdu, Target target, ResponseListener listener) throws IOException {
+        m_requests.incrementAndGet();
+        if (!agentConfig.isSnmpV3()) {
+            sendOnSharedSession(pdu, target, listener);
+            return;
+        }
+
+        final CompletableFuture<OctetString> engineId = getEngineId(agentConfig, pdu, target.getAddress());
+        if (engineId.isDone()) {
+            sendV3(agentConfig, pdu, target, engineId.join(), listener);
+            return;
+        }
+        engineId.thenAccept(discoveredEngineId -> {
+            try {
+                sendV3(agentConfig, pdu, target, discoveredEngineId, listener);
+            } catch (IOException|RuntimeException e) {
+                LOG.warn("Failed to send {} to {}.", PDU.getTypeString(pdu.getType()), target.getAddress(), e);
+                listener.onResponse(new ResponseEvent(this, null, pdu, null, null, e));
+            }
+        });
+    }
+
+    /**
+     * Sends a request for which no response is expected, such as a trap.
+     */
+    public void send(Snmp4JAgentConfig agentConfig, PDU pdu, Target target) throws IOException {
+        m_requests.incrementAndGet();
+        if (!agentConfig.isSnmpV3()) {
+            m_session.send(pdu, target, nextTransport());
+            return;
+        }
+
+        final CompletableFuture<OctetString> engineId = getEngineId(agentConfig, pdu, target.getAddress());
+        if (engineId.isDone()) {
+            sendV3(agentConfig, pdu, target, engineId.join());
+            return;
+        }
+        engineId.thenAccept(discoveredEngineId -> {
+            try {
+                sendV3(agentConfig, pdu, target, discoveredEngineId);
+            } catch (IOException|RuntimeException e) {
+                LOG.warn("Failed to send {} to {}.", PDU.getTypeString(pdu.getType()), target.getAddress(), e);
+            }
+        });
+    }
+
+    private void sendV3(Snmp4JAgentConfig agentConfig, PDU pdu, Target target, OctetString engineId, ResponseListener listener) throws IOException {
+        if (engineId == null) {
+            // The agent didn't respond to the discovery recently, don't wait for it again
+            m_timeouts.incrementAndGet();
+            listener.onResponse(new ResponseEvent(this, null, pdu, null, null));
+        } else if (addUser(agentConfig, engineId, target.getAddress())) {
+            sendOnSharedSession(pdu, target, listener);
+        } else {
+            sendOnDedicatedSession(agentConfig, pdu, target, listener);
+        }
+    }
+
+    private void sendV3(Snmp4JAgentConfig agentConfig, PDU pdu, Target target, OctetString engineId) throws IOException {
+        if (engineId == null) {
+            throw new IOException("Engine ID discovery failed for " + target.getAddress() + ", not sending " + PDU.getTypeString(pdu.getType()) + ".");
+        } else if (addUser(agentConfig, engineId, target.getAddress())) {
+            m_session.send(pdu, target, nextTransport());
+        } else {
+            m_dedicatedSessionRequests.incrementAndGet();
+            final Snmp session = agentConfig.createSnmpSession();
+            try {
+                session.send(pdu, target);
+            } finally {
+                closeQuietly(session);
+            }
+        }
+    }
+
+    private void sendOnSharedSession(PDU pdu, Target target, ResponseListener listener) throws IOException {
+        m_inFlight.incrementAndGet();
+        try {
+            m_session.send(pdu, target, nextTransport(), null, new TrackingResponseListener(m_session, listener));
+        } catch (IOException|RuntimeException e) {
+            m_inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request with a session and USM of its own, which is closed
+     * once the request is done.
+     */
+    private void sendOnDedicatedSession(Snmp4JAgentConfig agentConfig, PDU pdu, Target target, ResponseListener listener) throws IOException {
+        m_dedicatedSessionRequests.incrementAndGet();
+        final Snmp session = agentConfig.createSnmpSession();
+        m_inFlight.incrementAndGet();
+        try {
+            session.listen();
+            session.send(pdu, target, null, new TrackingResponseListener(session, listener) {
+                @Override
+                public void onResponse(ResponseEvent event) {
+                    try {
+                        super.onResponse(event);
+                    } finally {
+                        // Don't close the session on its own listener thread
+                        m_executor.execute(() -> closeQuietly(session));
+                    }
+                }
+            });
+        } catch (IOException|RuntimeException e) {
+            m_inFlight.decrementAndGet();
+            closeQuietly(session);
+            throw e;
+        }
+    }
+
+    private TransportMapping<UdpAddress> nextTransport() {
+        return m_transports.get(Math.floorMod(m_nextTransport.getAndIncrement(), m_transports.size()));
+    }
+
+    /**
+     * Adds the agent's user to the USM, localized to the given engine ID so
+     * that agents with the same security name and different keys can be
+     * queried through the same USM.
+     *
+     * @return <code>false</code> if another agent with the same engine ID
+     * uses different credentials for the same security name, in which case
+     * the request must not be sent with the shared USM
+     */
+    private boolean addUser(Snmp4JAgentConfig agentConfig, OctetString engineId, Address address) {
+        final UsmUser user = new UsmUser(
+                agentConfig.getSecurityName(),
+                agentConfig.getAuthProtocol(),
+                agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(),
+                agentConfig.getPrivPassPhrase()
+        );
+        final String key = engineId.toHexString() + "/" + agentConfig.getSecurityName();
+        final String credentials = Objects.toString(user.getAuthenticationProtocol()) + "/" + user.getAuthenticationPassphrase()
+                + "/" + user.getPrivacyProtocol() + "/" + user.getPrivacyPassphrase();
+
+        final SharedUser sharedUser = m_users.get(key);
+        if (sharedUser != null && sharedUser.m_credentials.equals(credentials)) {
+            return true;
+        }
+        synchronized (m_users) {
+            final SharedUser existing = m_users.get(key);
+            if (existing != null && existing.m_credentials.equals(credentials)) {
+                return true;
+            }
+            if (existing != null && !existing.m_address.equals(address)) {
+                LOG.debug("{} uses the engine ID {} of {} with different credentials for {}, using a dedicated session.",
+                        address, engineId.toHexString(), existing.m_address, agentConfig.getSecurityName());
+                return false;
+            }
+            // The user is new, or the credentials of the agent were changed
+            m_usm.addUser(agentConfig.getSecurityName(), engineId, user);
+            m_users.put(key, new SharedUser(credentials, address));
+            return true;
+        }
+    }
+
+    /**
+     * Returns the engine ID that the user must be localized to.
+     *
+     * For PDUs that are not confirmed, such as traps, we are the authoritative
+     * engine, so this is the local engine ID and no discovery is made.
+     * Otherwise, this is the engine ID of the agent, which is discovered in
+     * the background if it isn't known yet. Concurrent requests to the same
+     * agent share the discovery.
+     *
+     * @return the engine ID, completed with <code>null</code> if the
+     * discovery failed
+     */
+    private CompletableFuture<OctetString> getEngineId(Snmp4JAgentConfig agentConfig, PDU pdu, Address address) {
+        if (!pdu.isConfirmedPdu()) {
+            return CompletableFuture.completedFuture(m_usm.getLocalEngineID());
+        }
+
+        final OctetString engineId = m_mpv3.getEngineID(address);
+        if (engineId != null) {
+            return CompletableFuture.completedFuture(engineId);
+        }
+
+        final DiscoveryFailure failure = m_failedDiscoveries.get(address);
+        if (failure != null && System.currentTimeMillis() < failure.m_retryAt) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<OctetString> discovery = new CompletableFuture<>();
+        final CompletableFuture<OctetString> existing = m_discoveries.putIfAbsent(address, discovery);
+        if (existing != null) {
+            return existing;
+        }
+        m_executor.execute(() -> {
+            try {
+                discovery.complete(discoverEngineId(agentConfig, address));
+            } catch (Throwable t) {
+                LOG.warn("Unexpected error while discovering the engine ID of {}.", address, t);
+                discovery.complete(null);
+            } finally {
+                m_discoveries.remove(address, discovery);
+            }
+        });
+        return discovery;
+    }
+
+    /**
+     * Discovers the engine ID of the agent, and caches the result.
+     *
+     * @return the engine ID, or <code>null</code> if the discovery failed
+     */
+    private OctetString discoverEngineId(Snmp4JAgentConfig agentConfig, Address address) {
+        m_engineIdDiscoveries.incrementAndGet();
+        final byte[] discoveredEngineId = m_session.discoverAuthoritativeEngineID(address, (long)agentConfig.getTimeout() * (agentConfig.getRetries() + 1));
+        if (discoveredEngineId == null) {
+            final DiscoveryFailure nextFailure = new DiscoveryFailure(m_failedDiscoveries.get(address));
+            m_failedDiscoveries.put(address, nextFailure);
+            LOG.info("Failed to discover the engine ID of {}, retrying in {}ms.", address, nextFailure.m_backoffMs);
+            return null;
+        }
+
+        m_failedDiscoveries.remove(address);
+        m_mpv3.addEngineID(address, new OctetString(discoveredEngineId));
+        return new OctetString(discoveredEngineId);
+    }
+
+    private static void closeQuietly(Snmp session) {
+        try {
+            session.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the dedicated SNMP session.", e);
+        }
+    }
+
+    private void incrementCounter(CounterEvent event) {
+        if (SnmpConstants.snmp4jStatsRequestRetries.equals(event.getOid())) {
+            m_retries.incrementAndGet();
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOG.warn("Failed to register the MBean for the shared SNMP session.", e);
+        }
+    }
+
+    /**
+     * Closes the sockets. Only used for testing, the session is otherwise
+     * kept open for the lifetime of the JVM.
+     */
+    protected void close() throws IOException {
+        m_executor.shutdown();
+        m_session.close();
+    }
+
+    @Override
+    public int getNumTransports() {
+        return m_transports.size();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return m_inFlight.get();
+    }
+
+    @Override
+    public long getRequests() {
+        return m_requests.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return m_timeouts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return m_retries.get();
+    }
+
+    @Override
+    public long getEngineIdDiscoveries() {
+        return m_engineIdDiscoveries.get();
+    }
+
+    @Override
+    public long getDedicatedSessionRequests() {
+        return m_dedicatedSessionRequests.get();
+    }
+
+    /**
+     * A user that was added to the USM, and the agent it was added for.
+     */
+    private static class SharedUser {
+        private final String m_credentials;
+        private final Address m_address;
+
+        private SharedUser(String credentials, Address address) {
+            m_credentials = credentials;
+            m_address = address;
+        }
+    }
+
+    private static class DiscoveryFailure {
+        private final long m_backoffMs;
+        private final long m_retryAt;
+
+        private DiscoveryFailure(DiscoveryFailure previous) {
+            m_backoffMs = previous == null ? INITIAL_DISCOVERY_BACKOFF_MS : Math.min(previous.m_backoffMs * 2, MAX_DISCOVERY_BACKOFF_MS);
+            m_retryAt = System.currentTimeMillis() + m_backoffMs;
+        }
+    }
+
+    /**
+     * Tracks the number of requests in flight and releases the request
+     * once it's done. SNMP4J would otherwise keep a reference to every
+     * asynchronous request made on the session.
+     */
+    private class TrackingResponseListener implements ResponseListener {
+        private final Snmp m_trackedSession;
+        private final ResponseListener m_delegate;
+
+        private TrackingResponseListener(Snmp trackedSession, ResponseListener delegate) {
+            m_trackedSession = trackedSession;
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void onResponse(ResponseEvent event) {
+            m_trackedSession.cancel(event.getRequest(), this);
+            m_inFlight.decrementAndGet();
+            if (event.getResponse() == null && event.getError() == null) {
+                m_timeouts.incrementAndGet();
+            }
+            m_delegate.onResponse(event);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+/**
+ * Statistics for the {@link Snmp4JSharedSession}.
+ */
+public interface Snmp4JSharedSessionMBean {
+
+    /**
+     * @return number of UDP sockets used by the session
+     */
+    int getNumTransports();
+
+    /**
+     * @return number of requests awaiting a response or a timeout
+     */
+    int getInFlightRequests();
+
+    /**
+     * @return total number of requests sent
+     */
+    long getRequests();
+
+    /**
+     * @return total number of requests that timed out after all of their retries
+     */
+    long getTimeouts();
+
+    /**
+     * @return total number of retries
+     */
+    long getRetries();
+
+    /**
+     * @return total number of SNMPv3 engine ID discoveries
+     */
+    long getEngineIdDiscoveries();
+
+    /**
+     * @return total number of SNMPv3 requests sent with a dedicated session, because
+     * another agent with the same engine ID uses different credentials
+     */
+    long getDedicatedSessionRequests();
+}
@@ -285,6 +285,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (Snmp4JSharedSession.isEnabled()) {
+            sendWithSharedSession(agentConfig, pdu, expectResponse, future);
+            return;
+        }
+
         Snmp session;
 
         try {
@@ -343,6 +348,33 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private static void sendWithSharedSession(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        try {
+            final Snmp4JSharedSession session = Snmp4JSharedSession.getInstance();
+            if (expectResponse) {
+                session.send(agentConfig, pdu, agentConfig.getTarget(), new ResponseListener() {
+                    @Override
+                    public void onResponse(ResponseEvent responseEvent) {
+                        try {
+                            future.complete(processResponse(agentConfig, responseEvent));
+                        } catch (IOException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+            } else {
+                session.send(agentConfig, pdu, agentConfig.getTarget());
+                future.complete(null);
+            }
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            future.completeExceptionally(e);
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
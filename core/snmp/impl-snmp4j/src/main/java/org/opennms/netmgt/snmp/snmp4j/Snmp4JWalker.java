@@ -164,7 +164,10 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            // (the shared session takes care of this itself)
+            if (m_session != null) {
+                m_session.cancel(responseEvent.getRequest(), this);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -217,6 +220,11 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+        if (Snmp4JSharedSession.isEnabled()) {
+            LOG.debug("Sending tracker pdu of size {} using the shared session", snmp4JPduBuilder.getPdu().size());
+            Snmp4JSharedSession.getInstance().send(m_agentConfig, snmp4JPduBuilder.getPdu(), m_tgt, m_listener);
+            return;
+        }
         if (m_session == null) {
             m_session = m_agentConfig.createSnmpSession();
             m_session.listen();
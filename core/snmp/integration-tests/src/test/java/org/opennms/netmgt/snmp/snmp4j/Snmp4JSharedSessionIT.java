@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opennms.mock.snmp.MockSnmpAgent;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpConfiguration;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpV3TrapBuilder;
+import org.opennms.netmgt.snmp.SnmpV3User;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.TrapInformation;
+import org.opennms.netmgt.snmp.TrapNotificationListener;
+import org.snmp4j.PDU;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.PrivDES;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Tests for the SNMP4J strategy when all of the requests go through the
+ * {@link Snmp4JSharedSession}.
+ */
+public class Snmp4JSharedSessionIT extends MockSnmpAgentITCase {
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @BeforeClass
+    public static void enableSharedSession() {
+        System.setProperty(Snmp4JSharedSession.SHARED_SESSION_PROPERTY, "true");
+    }
+
+    @AfterClass
+    public static void disableSharedSession() {
+        System.clearProperty(Snmp4JSharedSession.SHARED_SESSION_PROPERTY);
+    }
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        final SnmpValue value = m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0"));
+
+        assertNotNull("value should not be null", value);
+        assertEquals(SnmpValue.SNMP_INT32, value.getType());
+        assertEquals(42, value.toInt());
+    }
+
+    @Test
+    public void testGetNext() throws Exception {
+        final SnmpValue value = m_strategy.getNext(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0"));
+
+        assertNotNull("value should not be null", value);
+        assertEquals(SnmpValue.SNMP_GAUGE32, value.getType());
+    }
+
+    @Test
+    public void testManyConcurrentRequests() throws Exception {
+        final Snmp4JSharedSession session = Snmp4JSharedSession.getInstance();
+        final long requestsBefore = session.getRequests();
+
+        // The mock agent answers one request at a time and the burst can overflow
+        // its socket's receive buffer, so allow for retries
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setTimeout(2000);
+        config.setRetries(3);
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(m_strategy.getAsync(config, new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0"), SnmpObjId.get(".1.3.5.1.1.4.0") }));
+        }
+        for (CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get();
+            assertEquals(2, values.length);
+            assertEquals(42, values[0].toInt());
+            assertEquals(42, values[1].toInt());
+        }
+
+        assertEquals(200, session.getRequests() - requestsBefore);
+        assertEquals(0, session.getInFlightRequests());
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        final List<SnmpResult> results = new ArrayList<>();
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.add(res);
+            }
+        };
+
+        try (final SnmpWalker walker = m_strategy.createWalker(getAgentConfig(), "test", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertEquals(false, walker.failed());
+        }
+        assertEquals(SnmpObjId.get(".1.3.5.1.1.1.0"), results.get(0).getAbsoluteInstance());
+        assertEquals(0, Snmp4JSharedSession.getInstance().getInFlightRequests());
+    }
+
+    @Test
+    public void testGetWithSnmpV3() throws Exception {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+        config.setSecurityName("opennmsUser");
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase("0p3nNMSv3");
+        config.setPrivProtocol("DES");
+        config.setPrivPassPhrase("0p3nNMSv3");
+
+        // The engine ID and user are cached after the first request
+        for (int i = 0; i < 3; i++) {
+            final SnmpValue value = m_strategy.get(config, SnmpObjId.get(".1.3.5.1.1.3.0"));
+            assertNotNull("value should not be null", value);
+            assertEquals(42, value.toInt());
+        }
+    }
+
+    @Test
+    public void testSendV3TrapWithLocalEngineId() throws Exception {
+        final Snmp4JSharedSession session = Snmp4JSharedSession.getInstance();
+        final long discoveriesBefore = session.getEngineIdDiscoveries();
+
+        final List<TrapInformation> traps = new CopyOnWriteArrayList<>();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final TrapNotificationListener listener = new TrapNotificationListener() {
+            @Override
+            public void trapReceived(TrapInformation trapInformation) {
+                traps.add(trapInformation);
+            }
+
+            @Override
+            public void trapError(int error, String msg) {
+                errors.add(msg);
+            }
+        };
+
+        final int trapPort = getFreePort();
+        final SnmpV3User user = new SnmpV3User("opennmsUser", "MD5", "0p3nNMSv3", "DES", "0p3nNMSv3");
+        m_strategy.registerForTraps(listener, getAgentAddress(), trapPort, Collections.singletonList(user));
+        try {
+            final SnmpV3TrapBuilder trap = m_strategy.getV3TrapBuilder();
+            trap.addVarBind(SnmpObjId.get(".1.3.6.1.2.1.1.3.0"), m_strategy.getValueFactory().getTimeTicks(0));
+            trap.addVarBind(SnmpObjId.get(".1.3.6.1.6.3.1.1.4.1.0"), m_strategy.getValueFactory().getObjectId(SnmpObjId.get(".1.3.6.1.4.1.5813.1")));
+            trap.send(getAgentAddress().getHostAddress(), trapPort, SnmpConfiguration.AUTH_PRIV, "opennmsUser", "0p3nNMSv3", "MD5", "0p3nNMSv3", "DES");
+
+            // The receiver can only authenticate and decrypt the trap if the keys were localized to our engine ID
+            await().atMost(5, SECONDS).until(() -> traps.size(), equalTo(1));
+            assertEquals(Collections.emptyList(), errors);
+        } finally {
+            m_strategy.unregisterForTraps(listener, getAgentAddress(), trapPort);
+        }
+
+        // Traps are sent without discovering the engine ID of the receiver
+        assertEquals(discoveriesBefore, session.getEngineIdDiscoveries());
+    }
+
+    @Test
+    public void testFailedEngineIdDiscoveryIsCached() throws Exception {
+        final SnmpAgentConfig config = getAgentConfig();
+        // Nothing listens on this port, so the discovery will time out
+        config.setPort(getFreePort());
+        config.setTimeout(500);
+        config.setRetries(0);
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+        config.setSecurityName("opennmsUser");
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase("0p3nNMSv3");
+        config.setPrivProtocol("DES");
+        config.setPrivPassPhrase("0p3nNMSv3");
+
+        final Snmp4JSharedSession session = Snmp4JSharedSession.getInstance();
+        final long discoveriesBefore = session.getEngineIdDiscoveries();
+        final long timeoutsBefore = session.getTimeouts();
+
+        assertNull(m_strategy.get(config, SnmpObjId.get(".1.3.5.1.1.3.0")));
+        assertEquals(discoveriesBefore + 1, session.getEngineIdDiscoveries());
+
+        // The following requests time out immediately, without trying to discover the engine ID again
+        final long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertNull(m_strategy.get(config, SnmpObjId.get(".1.3.5.1.1.3.0")));
+        }
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("requests should not wait for the discovery, took " + elapsedMs + "ms", elapsedMs < 500);
+        assertEquals(discoveriesBefore + 1, session.getEngineIdDiscoveries());
+        assertEquals(timeoutsBefore + 4, session.getTimeouts());
+        assertEquals(0, session.getInFlightRequests());
+    }
+
+    @Test
+    public void testSendDoesNotWaitForEngineIdDiscovery() throws Exception {
+        final SnmpAgentConfig config = getAgentConfig();
+        // Nothing listens on this port, so the discovery will time out
+        config.setPort(getFreePort());
+        config.setTimeout(1000);
+        config.setRetries(0);
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+        config.setSecurityName("opennmsUser");
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase("0p3nNMSv3");
+        config.setPrivProtocol("DES");
+        config.setPrivPassPhrase("0p3nNMSv3");
+
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(config);
+        final PDU pdu = agentConfig.createPdu(PDU.GET);
+        pdu.add(new VariableBinding(new OID(".1.3.5.1.1.3.0")));
+
+        final CompletableFuture<ResponseEvent> response = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        Snmp4JSharedSession.getInstance().send(agentConfig, pdu, agentConfig.getTarget(), response::complete);
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("send should not wait for the discovery, took " + elapsedMs + "ms", elapsedMs < 500);
+
+        // The request times out once the discovery fails
+        assertNull(response.get(10, SECONDS).getResponse());
+        assertEquals(0, Snmp4JSharedSession.getInstance().getInFlightRequests());
+    }
+
+    @Test
+    public void testAgentsWithTheSameEngineIdAndDifferentCredentials() throws Exception {
+        // All of the mock agents use the same engine ID, give this one a different password
+        final MockSnmpAgent otherAgent = new MockSnmpAgent(new File("/dev/null"), getPropertiesResource().getURL(), getAgentAddress().getHostAddress() + "/0") {
+            @Override
+            protected void addUsmUser(USM usm) {
+                final UsmUser user = new UsmUser(new OctetString("opennmsUser"),
+                                                 AuthMD5.ID,
+                                                 new OctetString("0th3rP4ssw0rd"),
+                                                 PrivDES.ID,
+                                                 new OctetString("0th3rP4ssw0rd"));
+                usm.addUser(user.getSecurityName(), usm.getLocalEngineID(), user);
+            }
+        };
+        final Thread thread = new Thread(otherAgent, "MockSnmpAgent-other");
+        thread.start();
+        try {
+            await().atMost(10, SECONDS).until(() -> otherAgent.isRunning() || !thread.isAlive());
+            assertTrue("the other agent failed to start", otherAgent.isRunning());
+            assertEquals(getAgent().getAgent().getContextEngineID(), otherAgent.getAgent().getContextEngineID());
+
+            final SnmpAgentConfig config = getV3AgentConfig("0p3nNMSv3");
+            final SnmpAgentConfig otherConfig = getV3AgentConfig("0th3rP4ssw0rd");
+            otherConfig.setAddress(otherAgent.getInetAddress());
+            otherConfig.setPort(otherAgent.getPort());
+
+            final Snmp4JSharedSession session = Snmp4JSharedSession.getInstance();
+            final long dedicatedBefore = session.getDedicatedSessionRequests();
+
+            // Neither agent's user replaces the other's
+            for (int i = 0; i < 3; i++) {
+                final SnmpValue value = m_strategy.get(config, SnmpObjId.get(".1.3.5.1.1.3.0"));
+                assertNotNull("value should not be null", value);
+                assertEquals(42, value.toInt());
+
+                final SnmpValue otherValue = m_strategy.get(otherConfig, SnmpObjId.get(".1.3.5.1.1.3.0"));
+                assertNotNull("value from the other agent should not be null", otherValue);
+                assertEquals(42, otherValue.toInt());
+            }
+
+            // The requests to the agent whose credentials conflict go through a dedicated session
+            assertEquals(3, session.getDedicatedSessionRequests() - dedicatedBefore);
+            assertEquals(0, session.getInFlightRequests());
+        } finally {
+            otherAgent.shutDownAndWait();
+        }
+    }
+
+    private SnmpAgentConfig getV3AgentConfig(String passPhrase) {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+        config.setSecurityName("opennmsUser");
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase(passPhrase);
+        config.setPrivProtocol("DES");
+        config.setPrivPassPhrase(passPhrase);
+        return config;
+    }
+
+    private static int getFreePort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
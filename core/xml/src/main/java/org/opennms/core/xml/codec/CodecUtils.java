@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.xml.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the common field types for the {@link MessageCodec}s.
+ *
+ * Integers are written as variable-length quantities, seven bits at a time, so that
+ * small values only take a single byte. Strings, byte arrays and addresses may be
+ * null, and are prefixed with their length plus one, zero being used for null.
+ */
+public abstract class CodecUtils {
+
+    /**
+     * Upper bound for the length of the strings and arrays, protects
+     * the readers from allocating huge arrays on corrupted input.
+     */
+    private static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length long.");
+    }
+
+    public static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        writeBytes(out, value, 0, value != null ? value.length : 0);
+    }
+
+    public static void writeBytes(DataOutput out, byte[] value, int offset, int length) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, length + 1);
+            out.write(value, offset, length);
+        }
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        final int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    /**
+     * Writes the string as UTF-8. Unlike {@link DataOutput#writeUTF(String)},
+     * this isn't limited to 64k and supports null values.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    public static void writeInetAddress(DataOutput out, InetAddress value) throws IOException {
+        writeBytes(out, value != null ? value.getAddress() : null);
+    }
+
+    public static InetAddress readInetAddress(DataInput in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes != null ? InetAddress.getByAddress(bytes) : null;
+    }
+
+    public static void writeIntArray(DataOutput out, int[] value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, value.length + 1);
+        for (int v : value) {
+            writeVarInt(out, v);
+        }
+    }
+
+    public static int[] readIntArray(DataInput in) throws IOException {
+        final int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        final int[] value = new int[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = readVarInt(in);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the length of a collection, written with {@link #writeVarInt(DataOutput, int)}.
+     */
+    public static int readCount(DataInput in) throws IOException {
+        final int count = readVarInt(in);
+        if (count < 0 || count > MAX_LENGTH) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the length, or -1 for null
+     */
+    private static int readLength(DataInput in) throws IOException {
+        final int length = readVarInt(in);
+        if (length < 0 || length > MAX_LENGTH + 1) {
+            throw new IOException("Invalid length: " + length);
+        }
+        return length - 1;
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.xml.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of a message type, used by the {@link MessageMarshaller}
+ * in place of XML when one of the binary {@link MessageEncoding}s is selected.
+ *
+ * The version returned by {@link #getVersion()} is written along with every
+ * message, and is given back to {@link #decode(DataInput, int)}. Implementations
+ * must keep on reading all of the versions they previously wrote, so that the
+ * producers and the consumers can be upgraded independently.
+ *
+ * See {@link CodecUtils} for helpers that read and write the common field types.
+ *
+ * @param <T> the message type
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * The version of the schema written by {@link #encode(Object, DataOutput)}.
+     */
+    int getVersion();
+
+    void encode(T message, DataOutput out) throws IOException;
+
+    T decode(DataInput in, int version) throws IOException;
+
+}
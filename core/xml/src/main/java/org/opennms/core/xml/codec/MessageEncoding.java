@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.xml.codec;
+
+import java.util.Locale;
+
+/**
+ * The encodings supported by the {@link MessageMarshaller}.
+ *
+ * {@link #XML} is the plain UTF-8 encoded XML document, as used by previous versions.
+ * The other encodings are wrapped in a small header that identifies the encoding, and
+ * the version of the schema. The binary encodings fall back to XML for message types
+ * that do not have a {@link MessageCodec}.
+ */
+public enum MessageEncoding {
+    XML(false, false),
+    COMPRESSED_XML(false, true),
+    BINARY(true, false),
+    COMPRESSED_BINARY(true, true);
+
+    private final boolean binary;
+    private final boolean compressed;
+
+    private MessageEncoding(boolean binary, boolean compressed) {
+        this.binary = binary;
+        this.compressed = compressed;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Parses the name of an encoding, ignoring the case and
+     * accepting '-' in place of '_' i.e. "compressed-binary".
+     *
+     * @return the encoding, or the given default if the value is null or invalid
+     */
+    public static MessageEncoding fromString(String value, MessageEncoding defaultEncoding) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultEncoding;
+        }
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return defaultEncoding;
+        }
+    }
+
+    /**
+     * Retrieves the encoding for the given module from the system properties.
+     *
+     * The <code>${prefix}.${moduleId}.encoding</code> property takes precedence over
+     * the <code>${prefix}.encoding</code> property, and the encoding defaults to {@link #XML}.
+     */
+    public static MessageEncoding fromSystemProperties(String prefix, String moduleId) {
+        final MessageEncoding defaultEncoding = fromString(System.getProperty(prefix + ".encoding"), XML);
+        return fromString(System.getProperty(prefix + "." + moduleId + ".encoding"), defaultEncoding);
+    }
+}
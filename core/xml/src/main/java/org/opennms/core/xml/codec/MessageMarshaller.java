@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.xml.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.opennms.core.xml.XmlHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Marshals and unmarshals messages to and from bytes using one of the
+ * {@link MessageEncoding}s, and to and from strings using XML.
+ *
+ * With the exception of {@link MessageEncoding#XML}, the encoded messages start with a header:
+ * <pre>
+ * +------+------+--------+-------+----------------+
+ * | 0x00 | 0xEC | format | flags | version (u16)  |
+ * +------+------+--------+-------+----------------+
+ * </pre>
+ * where the format is either XML (0) or binary (1), and the flags indicate whether or
+ * not the payload that follows is compressed with deflate. XML documents never start
+ * with a null byte, so {@link #unmarshal(byte[])} accepts both the messages with a header
+ * and the plain XML documents produced by previous versions.
+ *
+ * Instances of this class are thread safe.
+ *
+ * @param <T> the message type
+ */
+public class MessageMarshaller<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageMarshaller.class);
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = (byte)0xEC;
+
+    private static final int HEADER_LENGTH = 6;
+
+    private static final byte FORMAT_XML = 0;
+    private static final byte FORMAT_BINARY = 1;
+
+    private static final byte FLAG_DEFLATE = 0x01;
+
+    private final Class<T> clazz;
+
+    private final MessageCodec<T> codec;
+
+    /**
+     * Store a thread-local reference to the {@link XmlHandler} because
+     * Unmarshalers are not thread-safe.
+     */
+    private final ThreadLocal<XmlHandler<T>> xmlHandler = new ThreadLocal<>();
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    public MessageMarshaller(Class<T> clazz) {
+        this(clazz, null);
+    }
+
+    /**
+     * @param clazz the message type
+     * @param codec the binary codec for the message type, or null if it
+     * should always be encoded as XML
+     */
+    public MessageMarshaller(Class<T> clazz, MessageCodec<T> codec) {
+        this.clazz = Objects.requireNonNull(clazz);
+        this.codec = codec;
+    }
+
+    public MessageCodec<T> getCodec() {
+        return codec;
+    }
+
+    public String marshal(T message) {
+        return getXmlHandler().marshal(message);
+    }
+
+    public T unmarshal(String message) {
+        return getXmlHandler().unmarshal(message);
+    }
+
+    public byte[] marshal(T message, MessageEncoding encoding) {
+        if (encoding == MessageEncoding.XML) {
+            return marshal(message).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final boolean binary = encoding.isBinary() && codec != null;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        bytes.write(MAGIC_0);
+        bytes.write(MAGIC_1);
+        bytes.write(binary ? FORMAT_BINARY : FORMAT_XML);
+        bytes.write(encoding.isCompressed() ? FLAG_DEFLATE : 0);
+        final int version = binary ? codec.getVersion() : 0;
+        bytes.write((version >>> 8) & 0xFF);
+        bytes.write(version & 0xFF);
+
+        Deflater deflater = null;
+        try {
+            OutputStream out = bytes;
+            if (encoding.isCompressed()) {
+                deflater = DEFLATER.get();
+                out = new DeflaterOutputStream(bytes, deflater, 1024);
+            }
+            if (binary) {
+                final DataOutputStream dataOut = new DataOutputStream(out);
+                codec.encode(message, dataOut);
+                dataOut.flush();
+            } else {
+                out.write(marshal(message).getBytes(StandardCharsets.UTF_8));
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream)out).finish();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode message of type " + clazz.getName(), e);
+        } finally {
+            if (deflater != null) {
+                deflater.reset();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unmarshals the message from bytes produced by {@link #marshal(Object, MessageEncoding)}
+     * with any of the encodings.
+     */
+    public T unmarshal(byte[] message) {
+        if (!isEncoded(message)) {
+            return unmarshal(new String(message, StandardCharsets.UTF_8));
+        }
+
+        final byte format = message[2];
+        final boolean compressed = (message[3] & FLAG_DEFLATE) != 0;
+        final int version = ((message[4] & 0xFF) << 8) | (message[5] & 0xFF);
+
+        Inflater inflater = null;
+        try {
+            InputStream in = new ByteArrayInputStream(message, HEADER_LENGTH, message.length - HEADER_LENGTH);
+            if (compressed) {
+                inflater = INFLATER.get();
+                in = new InflaterInputStream(in, inflater, 1024);
+            }
+            switch (format) {
+            case FORMAT_XML:
+                return unmarshal(new String(readFully(in, compressed ? message.length * 4 : message.length), StandardCharsets.UTF_8));
+            case FORMAT_BINARY:
+                if (codec == null) {
+                    throw new IllegalArgumentException("Message of type " + clazz.getName() + " was encoded in binary, but no codec is available.");
+                }
+                if (version > codec.getVersion()) {
+                    throw new IllegalArgumentException("Message of type " + clazz.getName() + " was encoded with version " + version
+                            + ", but only versions up to " + codec.getVersion() + " are supported.");
+                }
+                return codec.decode(new DataInputStream(in), version);
+            default:
+                throw new IllegalArgumentException("Message of type " + clazz.getName() + " has an unsupported format: " + format);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode message of type " + clazz.getName(), e);
+        } finally {
+            if (inflater != null) {
+                inflater.reset();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the message was encoded with a header, or false
+     * if it is a plain XML document.
+     */
+    public static boolean isEncoded(byte[] message) {
+        return message.length >= HEADER_LENGTH && message[0] == MAGIC_0 && message[1] == MAGIC_1;
+    }
+
+    private static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private XmlHandler<T> getXmlHandler() {
+        XmlHandler<T> handler = xmlHandler.get();
+        if (handler == null) {
+            handler = createXmlHandler(clazz);
+            xmlHandler.set(handler);
+        }
+        return handler;
+    }
+
+    private static <W> XmlHandler<W> createXmlHandler(Class<W> clazz) {
+        try {
+            return new XmlHandler<>(clazz);
+        } catch (Throwable t) {
+            // NMS-8793: This is a work-around for some failure in the Minion container
+            // When invoked for the first time, the creation may fail due to
+            // errors of the form "invalid protocol handler: mvn", but subsequent
+            // calls always seem to work
+            LOG.warn("Creating the XmlHandler failed. Retrying.", t);
+            return new XmlHandler<>(clazz);
+        }
+    }
+}
@@ -28,16 +28,21 @@
 
 package org.opennms.netmgt.bsm.daemon;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.netmgt.bsm.service.BusinessServiceManager;
 import org.opennms.netmgt.bsm.service.BusinessServiceStateChangeHandler;
 import org.opennms.netmgt.bsm.service.BusinessServiceStateMachine;
 import org.opennms.netmgt.bsm.service.internal.AlarmWrapperImpl;
+import org.opennms.netmgt.bsm.service.internal.DefaultBusinessServiceStateMachine;
 import org.opennms.netmgt.bsm.service.internal.SeverityMapper;
 import org.opennms.netmgt.bsm.service.model.BusinessService;
 import org.opennms.netmgt.bsm.service.model.Status;
@@ -84,6 +89,11 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     public static final String NAME = "Bsmd";
 
+    /**
+     * Maximum number of alarms that are loaded with a single query.
+     */
+    private static final int ALARM_LOAD_BATCH_SIZE = 1000;
+
     @Autowired
     private AlarmDao m_alarmDao;
 
@@ -105,7 +115,15 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     private boolean m_verifyReductionKeys = true;
 
-    final ScheduledExecutorService alarmPoller = Executors.newScheduledThreadPool(1);
+    final ScheduledExecutorService alarmPoller = Executors.newScheduledThreadPool(2);
+
+    /**
+     * When greater than 0, the ids of the alarms referenced by the life-cycle events
+     * are queued, and loaded together at this interval (in milliseconds).
+     */
+    private long m_alarmLoadInterval = 0;
+
+    private final Set<Integer> m_pendingAlarmIds = ConcurrentHashMap.newKeySet();
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -124,6 +142,61 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
         handleConfigurationChanged();
         startAlarmPolling();
+        startPendingAlarmLoading();
+    }
+
+    private void startPendingAlarmLoading() {
+        // Alarm updates are coalesced by the state machine, so there's no point
+        // in loading every alarm as soon as we're notified of a change
+        final long alarmLoadInterval = Long.getLong(DefaultBusinessServiceStateMachine.COALESCING_WINDOW_KEY, 0L);
+        if (alarmLoadInterval <= 0) {
+            return;
+        }
+        LOG.debug("Loading the updated alarms every {}ms", alarmLoadInterval);
+        m_alarmLoadInterval = alarmLoadInterval;
+        alarmPoller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadPendingAlarms();
+                } catch (Exception ex) {
+                    LOG.error("Error while loading the updated alarms", ex);
+                }
+            }
+        }, alarmLoadInterval, alarmLoadInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads all of the alarms that were queued by {@link #handleAlarmLifecycleEvents(Event)}
+     * in a single transaction, and updates the state machine with these.
+     */
+    private void loadPendingAlarms() {
+        if (m_pendingAlarmIds.isEmpty()) {
+            return;
+        }
+        final List<Integer> alarmIds = new ArrayList<>();
+        for (Integer alarmId : m_pendingAlarmIds) {
+            if (m_pendingAlarmIds.remove(alarmId)) {
+                alarmIds.add(alarmId);
+            }
+        }
+
+        m_template.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                int found = 0;
+                for (int i = 0; i < alarmIds.size(); i += ALARM_LOAD_BATCH_SIZE) {
+                    final List<Integer> batch = alarmIds.subList(i, Math.min(i + ALARM_LOAD_BATCH_SIZE, alarmIds.size()));
+                    for (OnmsAlarm alarm : m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("id", batch).toCriteria())) {
+                        handleAlarm(alarm);
+                        found++;
+                    }
+                }
+                if (found < alarmIds.size()) {
+                    LOG.debug("Could not find {} of the {} updated alarms, they were probably deleted.", alarmIds.size() - found, alarmIds.size());
+                }
+            }
+        });
     }
 
     private void startAlarmPolling() {
@@ -235,6 +308,12 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
             return;
         }
 
+        if (m_alarmLoadInterval > 0) {
+            // The alarm will be loaded, along with the other alarms that were updated, on the next pass
+            m_pendingAlarmIds.add(alarmId);
+            return;
+        }
+
         m_template.execute(new TransactionCallbackWithoutResult() {
             @Override
             protected void doInTransactionWithoutResult(TransactionStatus status) {
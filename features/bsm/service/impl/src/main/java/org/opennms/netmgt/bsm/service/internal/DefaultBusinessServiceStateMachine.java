@@ -38,12 +38,20 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -73,9 +81,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
@@ -85,15 +99,92 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
+    /**
+     * Window, in milliseconds, over which alarm updates are coalesced by reduction key
+     * before being propagated through the graph. When 0 (the default), every update
+     * is propagated synchronously by {@link #handleNewOrUpdatedAlarm(AlarmWrapper)}.
+     */
+    public static final String COALESCING_WINDOW_KEY = "org.opennms.features.bsm.coalescingWindow";
+
     @Autowired
     private AlarmProvider m_alarmProvider;
 
     private final List<BusinessServiceStateChangeHandler> m_handlers = Lists.newArrayList();
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
-    private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    private volatile BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+
+    private final long m_coalescingWindow;
+    private final MetricRegistry m_metrics;
+    private final ConcurrentMap<String, PendingUpdate> m_pendingUpdates = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService m_propagationExecutor;
+    private final Counter m_updatesReceived;
+    private final Counter m_updatesCoalesced;
+    private final Histogram m_updatesPerPass;
+    private final Timer m_propagationTimer;
+    private final Timer m_latencyTimer;
+
+    /**
+     * Immutable view of the statuses, only maintained when updates are coalesced, so that
+     * the operational status can be read without waiting for a propagation pass.
+     */
+    private volatile StatusSnapshot m_snapshot;
+
+    public DefaultBusinessServiceStateMachine() {
+        this(new MetricRegistry());
+    }
+
+    public DefaultBusinessServiceStateMachine(MetricRegistry metrics) {
+        this(Long.getLong(COALESCING_WINDOW_KEY, 0L), metrics);
+    }
+
+    public DefaultBusinessServiceStateMachine(long coalescingWindow, MetricRegistry metrics) {
+        m_coalescingWindow = Math.max(0L, coalescingWindow);
+        m_metrics = Objects.requireNonNull(metrics);
+        m_updatesReceived = metrics.counter("updates-received");
+        m_updatesCoalesced = metrics.counter("updates-coalesced");
+        m_updatesPerPass = metrics.histogram("updates-per-pass");
+        m_propagationTimer = metrics.timer("propagation");
+        m_latencyTimer = metrics.timer("propagation-latency");
+        metrics.register("updates-pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_pendingUpdates.size();
+            }
+        });
+
+        if (m_coalescingWindow > 0) {
+            m_snapshot = new StatusSnapshot(m_g);
+            m_propagationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("bsm-propagation-%d")
+                    .setDaemon(true)
+                    .build());
+            m_propagationExecutor.scheduleWithFixedDelay(this::propagatePendingUpdates,
+                    m_coalescingWindow, m_coalescingWindow, TimeUnit.MILLISECONDS);
+        } else {
+            m_propagationExecutor = null;
+        }
+    }
+
+    public void destroy() {
+        if (m_propagationExecutor != null) {
+            m_propagationExecutor.shutdown();
+        }
+    }
+
+    public long getCoalescingWindow() {
+        return m_coalescingWindow;
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
+        if (m_propagationExecutor != null) {
+            setBusinessServicesAndPropagateByLevel(businessServices);
+            return;
+        }
         m_rwLock.writeLock().lock();
         try {
             // Create a new graph
@@ -130,8 +221,65 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         }
     }
 
+    /**
+     * Builds the new graph and looks up the status of the new reduction keys without holding
+     * the lock, and primes the graph using a single level by level propagation pass.
+     */
+    private void setBusinessServicesAndPropagateByLevel(List<BusinessService> businessServices) {
+        // Create a new graph
+        final BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
+
+        // Query the status of the reductions keys that were added
+        final Set<String> reductionsKeysToLookup = Sets.newHashSet();
+        for (String reductionKey : g.getReductionKeys()) {
+            if (m_g.getVertexByReductionKey(reductionKey) == null) {
+                reductionsKeysToLookup.add(reductionKey);
+            }
+        }
+        final AlarmProvider alarmProvider = m_alarmProvider;
+        Map<String, AlarmWrapper> lookup = Collections.emptyMap();
+        if (alarmProvider == null && reductionsKeysToLookup.size() > 0) {
+            LOG.warn("There are one or more reduction keys to lookup, but no alarm provider is set.");
+        } else if (reductionsKeysToLookup.size() > 0) {
+            lookup = alarmProvider.lookup(reductionsKeysToLookup);
+        }
+
+        m_rwLock.writeLock().lock();
+        try {
+            // Prime the graph with the state from the previous graph, the graph may have
+            // been updated since the lookup, so use whatever it knows at this point
+            final Map<String, Status> statusesByReductionKey = new HashMap<>();
+            for (Entry<String, AlarmWrapper> eachEntry : lookup.entrySet()) {
+                statusesByReductionKey.put(eachEntry.getKey(), eachEntry.getValue().getStatus());
+            }
+            for (String reductionKey : g.getReductionKeys()) {
+                GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
+                if (reductionKeyVertex != null) {
+                    statusesByReductionKey.put(reductionKey, reductionKeyVertex.getStatus());
+                }
+            }
+            updateAndPropagateVerticesByLevel(g, statusesByReductionKey);
+            m_g = g;
+            m_snapshot = new StatusSnapshot(g);
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        if (m_propagationExecutor != null) {
+            // Queue the update, only the most recent status of every reduction key is propagated
+            m_updatesReceived.inc();
+            final PendingUpdate update = new PendingUpdate(alarm.getStatus(), System.nanoTime());
+            final PendingUpdate previous = m_pendingUpdates.merge(alarm.getReductionKey(), update,
+                    (p, u) -> new PendingUpdate(u.status, p.queuedAt));
+            if (previous != update) {
+                m_updatesCoalesced.inc();
+            }
+            return;
+        }
+
         m_rwLock.writeLock().lock();
         try {
             // Recursively propagate the status
@@ -141,12 +289,99 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         }
     }
 
+    /**
+     * Propagates the updates queued since the last pass, if any.
+     */
+    protected void propagatePendingUpdates() {
+        if (m_pendingUpdates.isEmpty()) {
+            return;
+        }
+        try {
+            final Map<String, PendingUpdate> updates = new HashMap<>();
+            for (String reductionKey : m_pendingUpdates.keySet()) {
+                final PendingUpdate update = m_pendingUpdates.remove(reductionKey);
+                if (update != null) {
+                    updates.put(reductionKey, update);
+                }
+            }
+
+            final Map<String, Status> statusesByReductionKey = new HashMap<>();
+            for (Entry<String, PendingUpdate> eachEntry : updates.entrySet()) {
+                statusesByReductionKey.put(eachEntry.getKey(), eachEntry.getValue().status);
+            }
+
+            try (Timer.Context ctx = m_propagationTimer.time()) {
+                m_rwLock.writeLock().lock();
+                try {
+                    updateAndPropagateVerticesByLevel(m_g, statusesByReductionKey);
+                    m_snapshot = new StatusSnapshot(m_g);
+                } finally {
+                    m_rwLock.writeLock().unlock();
+                }
+            }
+
+            final long now = System.nanoTime();
+            for (PendingUpdate update : updates.values()) {
+                m_latencyTimer.update(now - update.queuedAt, TimeUnit.NANOSECONDS);
+            }
+            m_updatesPerPass.update(updates.size());
+        } catch (Throwable t) {
+            LOG.error("Failed to propagate the pending alarm updates.", t);
+        }
+    }
+
+    /**
+     * Updates the reduction key vertices and propagates the changes towards the roots one level
+     * at a time, starting with the deepest one. Since the children of a vertex are always on a
+     * deeper level, every impacted vertex is reduced once, after all of its children were updated.
+     */
+    private void updateAndPropagateVerticesByLevel(BusinessServiceGraph graph, Map<String, Status> statusesByReductionKey) {
+        final SortedMap<Integer, Set<GraphVertex>> verticesToReduceByLevel = new TreeMap<>(Collections.reverseOrder());
+        for (Entry<String, Status> eachEntry : statusesByReductionKey.entrySet()) {
+            final GraphVertex vertex = graph.getVertexByReductionKey(eachEntry.getKey());
+            if (vertex != null) {
+                addParentsToReduce(graph, vertex, updateVertex(graph, vertex, eachEntry.getValue()), verticesToReduceByLevel);
+            }
+        }
+
+        while (!verticesToReduceByLevel.isEmpty()) {
+            final Set<GraphVertex> vertices = verticesToReduceByLevel.remove(verticesToReduceByLevel.firstKey());
+            for (GraphVertex vertex : vertices) {
+                addParentsToReduce(graph, vertex, updateVertex(graph, vertex, reduce(graph, vertex)), verticesToReduceByLevel);
+            }
+        }
+    }
+
+    private static void addParentsToReduce(BusinessServiceGraph graph, GraphVertex vertex, List<GraphEdge> updatedEdges, SortedMap<Integer, Set<GraphVertex>> verticesToReduceByLevel) {
+        for (GraphEdge edge : updatedEdges) {
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            Set<GraphVertex> verticesAtLevel = verticesToReduceByLevel.get(parent.getLevel());
+            if (verticesAtLevel == null) {
+                verticesAtLevel = new LinkedHashSet<>();
+                verticesToReduceByLevel.put(parent.getLevel(), verticesAtLevel);
+            }
+            verticesAtLevel.add(parent);
+        }
+    }
+
     private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
         if (vertex == null) {
             // Nothing to do here
             return;
         }
 
+        // Propagate once all of the edges have been updated
+        for (GraphEdge edge : updateVertex(graph, vertex, newStatus)) {
+            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+        }
+    }
+
+    /**
+     * Updates the status of the vertex and of its incoming edges.
+     *
+     * @return the edges whose status changed
+     */
+    private List<GraphEdge> updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
         // Apply lower bound
         newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
 
@@ -154,7 +389,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         Status previousStatus = vertex.getStatus();
         if (previousStatus.equals(newStatus)) {
             // The status hasn't changed, there's nothing to propagate
-            return;
+            return Collections.emptyList();
         }
         vertex.setStatus(newStatus);
 
@@ -181,11 +416,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             edge.setStatus(mappedStatus);
             updatedEges.add(edge);
         }
-
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
-        }
+        return updatedEges;
     }
 
     private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
@@ -194,21 +425,21 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             return;
         }
 
+        // Update and propagate
+        updateAndPropagateVertex(graph, vertex, reduce(graph, vertex));
+    }
+
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
         Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
 
-        Status newStatus;
         if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
-        } else {
-            newStatus = MIN_SEVERITY;
+            return reducedStatus.get().getStatus();
         }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
+        return MIN_SEVERITY;
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -273,6 +504,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     @Override
     public Status getOperationalStatus(BusinessService businessService) {
         Objects.requireNonNull(businessService);
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.m_businessServices.get(businessService.getId());
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
@@ -287,6 +522,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(IpService ipService) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.m_ipServices.get(ipService.getId());
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
@@ -301,6 +540,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(String reductionKey) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.m_reductionKeys.get(reductionKey);
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
@@ -315,6 +558,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(Edge edge) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.m_edges.get(edge.getId());
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
@@ -425,7 +672,8 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     public BusinessServiceStateMachine clone(boolean preserveState) {
         m_rwLock.readLock().lock();
         try {
-            final BusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine();
+            // The clone is used for simulations, which expect the state to be updated synchronously
+            final BusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine(0, new MetricRegistry());
 
             // Rebuild the graph using the business services from the existing state machine
             final BusinessServiceGraph graph = getGraph();
@@ -543,4 +791,39 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private List<GraphVertex> calculateImpact(GraphVertex vertex) {
         return GraphAlgorithms.calculateImpact(m_g, vertex);
     }
+
+    private static class PendingUpdate {
+        private final Status status;
+        private final long queuedAt;
+
+        private PendingUpdate(Status status, long queuedAt) {
+            this.status = status;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class StatusSnapshot {
+        private final Map<Long, Status> m_businessServices = new HashMap<>();
+        private final Map<Integer, Status> m_ipServices = new HashMap<>();
+        private final Map<String, Status> m_reductionKeys = new HashMap<>();
+        private final Map<Long, Status> m_edges = new HashMap<>();
+
+        private StatusSnapshot(BusinessServiceGraph graph) {
+            for (GraphVertex vertex : graph.getVertices()) {
+                if (vertex.getBusinessService() != null) {
+                    m_businessServices.put(vertex.getBusinessService().getId(), vertex.getStatus());
+                    for (Edge edge : vertex.getBusinessService().getEdges()) {
+                        final GraphVertex vertexForEdge = graph.getVertexByEdgeId(edge.getId());
+                        if (vertexForEdge != null) {
+                            m_edges.put(edge.getId(), vertexForEdge.getStatus());
+                        }
+                    }
+                } else if (vertex.getIpService() != null) {
+                    m_ipServices.put(vertex.getIpService().getId(), vertex.getStatus());
+                } else if (vertex.getReductionKey() != null) {
+                    m_reductionKeys.put(vertex.getReductionKey(), vertex.getStatus());
+                }
+            }
+        }
+    }
 }
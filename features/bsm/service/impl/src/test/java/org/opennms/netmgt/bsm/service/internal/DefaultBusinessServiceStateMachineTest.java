@@ -37,6 +37,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -55,7 +56,9 @@ import org.opennms.netmgt.bsm.service.model.functions.reduce.Threshold;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DefaultBusinessServiceStateMachineTest {
@@ -241,6 +244,92 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals("b1", impacts.get(0).getBusinessService().getName());
     }
 
+    @Test
+    public void canCoalesceUpdatesAndPropagateThemByLevel() {
+        HighestSeverity highestSeverity = new HighestSeverity();
+        Threshold threshold = new Threshold();
+        threshold.setThreshold(0.5f);
+        HighestSeverityAbove highestSeverityAbove = new HighestSeverityAbove();
+        highestSeverityAbove.setThreshold(Status.MINOR);
+
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withName("b1")
+                    .withReductionFunction(highestSeverityAbove)
+                    .withBusinessService(2)
+                        .withName("b2")
+                        .withReductionFunction(highestSeverity)
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                        .withReductionKey(23, "a3")
+                    .commit()
+                    .withBusinessService(3)
+                        .withName("b3")
+                        .withReductionFunction(threshold)
+                        .withReductionKey(34, "a4")
+                        .withReductionKey(35, "a5")
+                        .withReductionKey(36, "a6")
+                        .withReductionKey(37, "a7")
+                    .commit()
+                .commit()
+                .build();
+
+        // Setup a state machine that propagates the updates synchronously, and one that coalesces them
+        // The window is large enough for the pending updates to only be propagated when we ask for it
+        DefaultBusinessServiceStateMachine expectedStateMachine = new DefaultBusinessServiceStateMachine();
+        expectedStateMachine.setBusinessServices(h.getBusinessServices());
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine(TimeUnit.HOURS.toMillis(1), new MetricRegistry());
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        try {
+            List<MockAlarmWrapper> alarms = Lists.newArrayList(
+                    new MockAlarmWrapper("a1", Status.CRITICAL),
+                    new MockAlarmWrapper("a4", Status.MAJOR),
+                    new MockAlarmWrapper("a6", Status.CRITICAL),
+                    new MockAlarmWrapper("a1", Status.MINOR),
+                    new MockAlarmWrapper("a7", Status.MAJOR),
+                    new MockAlarmWrapper("a4", Status.MAJOR));
+            for (MockAlarmWrapper alarm : alarms) {
+                expectedStateMachine.handleNewOrUpdatedAlarm(alarm);
+                stateMachine.handleNewOrUpdatedAlarm(alarm);
+            }
+
+            // Nothing was propagated yet
+            assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+            assertEquals(Status.NORMAL, stateMachine.getOperationalStatus("a1"));
+            assertEquals(0, stateChangeHandler.getStateChanges().size());
+
+            stateMachine.propagatePendingUpdates();
+
+            // The state should match the one of the synchronous state machine
+            for (long id = 1; id <= 3; id++) {
+                BusinessService businessService = h.getBusinessServiceById(id);
+                assertEquals(expectedStateMachine.getOperationalStatus(businessService), stateMachine.getOperationalStatus(businessService));
+            }
+            for (int i = 1; i <= 7; i++) {
+                assertEquals(expectedStateMachine.getOperationalStatus("a" + i), stateMachine.getOperationalStatus("a" + i));
+                Edge edge = h.getEdgeByReductionKey("a" + i);
+                assertEquals(expectedStateMachine.getOperationalStatus(edge), stateMachine.getOperationalStatus(edge));
+            }
+            assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(1)));
+            assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getBusinessServiceById(2)));
+
+            // Every business service changed state once, without going through the intermediate states
+            assertEquals(3, stateChangeHandler.getStateChanges().size());
+
+            // 6 updates were received, and 2 of these were coalesced
+            MetricRegistry metrics = stateMachine.getMetrics();
+            assertEquals(6, metrics.counter("updates-received").getCount());
+            assertEquals(2, metrics.counter("updates-coalesced").getCount());
+            assertEquals(1, metrics.timer("propagation").getCount());
+            assertEquals(4, metrics.timer("propagation-latency").getCount());
+        } finally {
+            stateMachine.destroy();
+        }
+    }
+
     @Test
     public void canRenderGraphToPng() {
         // Create a simple hierarchy
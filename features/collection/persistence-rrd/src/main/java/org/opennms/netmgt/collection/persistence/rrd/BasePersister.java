@@ -82,6 +82,7 @@ public class BasePersister extends AbstractPersister {
         if (resource.getTimeKeeper() != null) {
             builder.setTimeKeeper(resource.getTimeKeeper());
         }
+        builder.setResourceStorageDao(m_resourceStorageDao);
         for (Iterator<CollectionAttributeType> iter = attributeTypes.iterator(); iter.hasNext();) {
             CollectionAttributeType attrType = iter.next();
             if (attrType instanceof NumericCollectionAttributeType) {
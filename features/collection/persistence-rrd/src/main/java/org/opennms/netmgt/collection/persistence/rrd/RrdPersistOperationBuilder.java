@@ -52,8 +52,10 @@ import org.opennms.netmgt.collection.api.PersistOperationBuilder;
 import org.opennms.netmgt.collection.api.ResourceIdentifier;
 import org.opennms.netmgt.collection.api.TimeKeeper;
 import org.opennms.netmgt.collection.support.DefaultTimeKeeper;
+import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.rrd.RrdAttributeType;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -78,10 +80,14 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     private final Map<CollectionAttributeType, Number> m_declarations;
     private final Map<String, String> m_metaData = new LinkedHashMap<String, String>();
     private TimeKeeper m_timeKeeper = new DefaultTimeKeeper();
+    private ResourceStorageDao m_resourceStorageDao;
 
     /** Constant <code>MAX_DS_NAME_LENGTH=19</code> */
     public static final int MAX_DS_NAME_LENGTH = 19;
 
+    /** Every integer up to this magnitude can be represented exactly as a double. */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
     public RrdPersistOperationBuilder(RrdStrategy<?, ?> rrdStrategy,
                                       RrdRepository repository,
                                       ResourceIdentifier resource,
@@ -202,7 +208,15 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
                 createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList(), m_metaData);
-                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                final double[] values = getDoubleValues();
+                if (values != null) {
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), values);
+                } else {
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                }
+                if (m_resourceStorageDao != null) {
+                    m_resourceStorageDao.metricsPersisted(ResourceTypeUtils.getResourcePathWithRepository(m_repository, m_resource.getPath()));
+                }
             }
         } catch (FileNotFoundException e) {
             LoggerFactory.getLogger(getClass()).warn("Could not get resource directory: " + e.getMessage(), e);
@@ -228,6 +242,33 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         return values.toString();
     }
 
+    /**
+     * Returns the values as doubles, so that they can be handed to the strategy
+     * without formatting them as a string, or null if one of the values can't
+     * be represented exactly as a double (i.e. a counter above 2^53).
+     */
+    private double[] getDoubleValues() {
+        final double[] values = new double[m_declarations.size()];
+        int i = 0;
+        for (Number value : m_declarations.values()) {
+            if (value == null) {
+                values[i++] = Double.NaN;
+            } else if (value instanceof Double || value instanceof Float) {
+                final double d = value.doubleValue();
+                values[i++] = Double.isFinite(d) ? d : Double.NaN;
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                final long l = value.longValue();
+                if (l > MAX_EXACT_LONG || l < -MAX_EXACT_LONG) {
+                    return null;
+                }
+                values[i++] = l;
+            } else {
+                return null;
+            }
+        }
+        return values;
+    }
+
     private List<RrdDataSource> getDataSources() {
         List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>(m_declarations.size());
         for (CollectionAttributeType attrDef : m_declarations.keySet()) {
@@ -325,6 +366,47 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    /**
+     * Add datapoints to a round robin database.
+     *
+     * @param owner the owner of the file. This is used in log messages
+     * @param repositoryDir the directory the file resides in
+     * @param rrdName the name for the rrd file.
+     * @param timestamp the timestamp in millis to use for the rrd update (this
+     * gets rounded to the nearest second)
+     * @param values the values for the datasources of this rrd, NaN for unknown values
+     * @throws org.opennms.netmgt.rrd.RrdException if any.
+     */
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, double[] values) throws RrdException {
+        // Issue the RRD update
+        String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
+        long time = (timestamp + 500L) / 1000L;
+
+        LOG.info("updateRRD: updating RRD file {} at {} with values {}", rrdFile, time, values);
+
+        RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
+        Object rrd = null;
+        try {
+            rrd = strategy.openFile(rrdFile);
+            strategy.updateFile(rrd, owner, time, values);
+        } catch (Throwable e) {
+            final String updateVal = RrdStrategy.toUpdateString(time, values);
+            LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
+            throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
+        } finally {
+            try {
+                if (rrd != null) {
+                    strategy.closeFile(rrd);
+                }
+            } catch (Throwable e) {
+                LOG.error("updateRRD: Exception closing RRD file {}", rrdFile, e);
+                throw new org.opennms.netmgt.rrd.RrdException("Exception closing RRD file " + rrdFile + ": " + e, e);
+            }
+        }
+
+        LOG.debug("updateRRD: RRD update command completed.");
+    }
+
     @SuppressWarnings("unchecked")
     private static RrdStrategy<Object, Object> toGenericType(RrdStrategy<?, ?> rrdStrategy) {
         Assert.notNull(rrdStrategy);
@@ -357,4 +439,13 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     public void setTimeKeeper(TimeKeeper timeKeeper) {
         m_timeKeeper = timeKeeper;
     }
+
+    /**
+     * <p>setResourceStorageDao</p>
+     *
+     * @param resourceStorageDao notified when the metrics have been persisted, may be null
+     */
+    public void setResourceStorageDao(ResourceStorageDao resourceStorageDao) {
+        m_resourceStorageDao = resourceStorageDao;
+    }
 }
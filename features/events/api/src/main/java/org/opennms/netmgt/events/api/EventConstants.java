@@ -32,8 +32,12 @@ import java.math.BigInteger;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.opennms.core.utils.Base64;
@@ -1138,6 +1142,33 @@ public abstract class EventConstants {
     public static final String COMPONENT_DELETED_UEI = "uei.opennms.org/internal/ncs/componentDeleted";
     public static final String COMPONENT_UPDATED_UEI = "uei.opennms.org/internal/ncs/componentUpdated";
 
+    //
+    // for Notifd and the filters
+    //
+
+    /**
+     * The events sent when the inventory changes. Filter rules may match a
+     * different set of nodes, interfaces and services once these are received.
+     */
+    public static final Set<String> INVENTORY_CHANGED_UEIS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            NODE_ADDED_EVENT_UEI,
+            NODE_UPDATED_EVENT_UEI,
+            NODE_DELETED_EVENT_UEI,
+            DUP_NODE_DELETED_EVENT_UEI,
+            NODE_LABEL_CHANGED_EVENT_UEI,
+            NODE_INFO_CHANGED_EVENT_UEI,
+            NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            ASSET_INFO_CHANGED_EVENT_UEI,
+            NODE_GAINED_INTERFACE_EVENT_UEI,
+            INTERFACE_DELETED_EVENT_UEI,
+            INTERFACE_REPARENTED_EVENT_UEI,
+            INTERFACE_INDEX_CHANGED_EVENT_UEI,
+            INTERFACE_IP_HOSTNAME_CHANGED_EVENT_UEI,
+            PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+            NODE_GAINED_SERVICE_EVENT_UEI,
+            SERVICE_DELETED_EVENT_UEI,
+            SERVICE_UNMANAGED_EVENT_UEI)));
+
     //
     // For Trapd
     //
@@ -29,14 +29,17 @@
 package org.opennms.netmgt.eventd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -51,6 +54,7 @@ import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventProxyException;
+import org.opennms.netmgt.events.api.SynchronousEventListener;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
@@ -111,7 +115,19 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private Map<String, EventListenerQueue> m_listenerThreads = new HashMap<String, EventListenerQueue>();
+
+    /**
+     * The listeners that the events are broadcast to, rebuilt whenever the
+     * listeners change
+     */
+    private volatile RoutingTable m_routingTable = new RoutingTable(m_listeners, m_ueiListeners, m_listenerThreads);
+
+    /**
+     * Whether the events are delivered to the listeners from ring buffers instead
+     * of executors
+     */
+    private boolean m_batchedDispatch = Boolean.getBoolean("org.opennms.eventd.ipc.batchedDispatch");
 
     /**
      * The thread pool handling the events
@@ -126,13 +142,26 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     private final MetricRegistry m_registry;
 
+    /**
+     * Queues the events meant for a single listener, and delivers them from a
+     * thread dedicated to the listener.
+     */
+    interface EventListenerQueue {
+        void addEvent(Event event);
+
+        /**
+         * Stops the execution of this listener.
+         */
+        void stop();
+    }
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
      */
-    private static class EventListenerExecutor {
+    private static class EventListenerExecutor implements EventListenerQueue {
         /**
          * Listener to which this thread is dedicated
          */
@@ -169,6 +198,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             );
         }
 
+        @Override
         public void addEvent(final Event event) {
             m_delegateThread.execute(new Runnable() {
                 @Override
@@ -190,14 +220,152 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             });
         }
 
-        /**
-         * Stops the execution of this listener.
-         */
+        @Override
         public void stop() {
             m_delegateThread.shutdown();
         }
     }
 
+    /**
+     * An immutable snapshot of the listeners that resolves the queues an event
+     * must be sent to without locking. The queues are resolved once per UEI,
+     * including the partial wild card "directory" matches, and then cached.
+     * The {@link SynchronousEventListener}s have no queue, they are resolved
+     * and cached the same way.
+     */
+    private static class RoutingTable {
+        /**
+         * Bounds the cache, in case the events are sent with arbitrary UEIs
+         */
+        private static final int MAX_CACHED_UEIS = 10000;
+
+        private static final EventListenerQueue[] NO_QUEUES = new EventListenerQueue[0];
+
+        private static final SynchronousEventListener[] NO_LISTENERS = new SynchronousEventListener[0];
+
+        private final Map<String, List<EventListener>> m_ueiListeners = new HashMap<>();
+
+        private final Map<String, EventListenerQueue> m_queues;
+
+        private final EventListenerQueue[] m_matchAllQueues;
+
+        private final SynchronousEventListener[] m_matchAllSynchronousListeners;
+
+        private final ConcurrentMap<String, EventListenerQueue[]> m_ueiQueues = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<String, SynchronousEventListener[]> m_ueiSynchronousListeners = new ConcurrentHashMap<>();
+
+        private RoutingTable(List<EventListener> listeners, Map<String, List<EventListener>> ueiListeners, Map<String, EventListenerQueue> queues) {
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    m_ueiListeners.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+            }
+            m_queues = new HashMap<>(queues);
+            m_matchAllQueues = getQueues(listeners);
+            m_matchAllSynchronousListeners = filterSynchronousListeners(listeners);
+
+            for (String uei : m_ueiListeners.keySet()) {
+                m_ueiQueues.put(uei, getQueues(resolve(uei)));
+                m_ueiSynchronousListeners.put(uei, resolveSynchronousListeners(uei));
+            }
+        }
+
+        /**
+         * Returns the queues of the listeners interested in all events.
+         */
+        private EventListenerQueue[] getMatchAllQueues() {
+            return m_matchAllQueues;
+        }
+
+        /**
+         * Returns the queues of the listeners interested in the given UEI.
+         */
+        private EventListenerQueue[] getUeiQueues(String uei) {
+            EventListenerQueue[] queues = m_ueiQueues.get(uei);
+            if (queues == null) {
+                queues = getQueues(resolve(uei));
+                if (m_ueiQueues.size() < MAX_CACHED_UEIS) {
+                    m_ueiQueues.putIfAbsent(uei, queues);
+                }
+            }
+            return queues;
+        }
+
+        /**
+         * Returns the synchronous listeners interested in all events, followed
+         * by the ones interested in the given UEI.
+         */
+        private SynchronousEventListener[] getSynchronousListeners(String uei) {
+            if (uei == null) {
+                return m_matchAllSynchronousListeners;
+            }
+            SynchronousEventListener[] listeners = m_ueiSynchronousListeners.get(uei);
+            if (listeners == null) {
+                listeners = resolveSynchronousListeners(uei);
+                if (m_ueiSynchronousListeners.size() < MAX_CACHED_UEIS) {
+                    m_ueiSynchronousListeners.putIfAbsent(uei, listeners);
+                }
+            }
+            return listeners;
+        }
+
+        private SynchronousEventListener[] resolveSynchronousListeners(String uei) {
+            final Set<EventListener> listeners = new LinkedHashSet<>(Arrays.asList(m_matchAllSynchronousListeners));
+            listeners.addAll(resolve(uei));
+            return filterSynchronousListeners(listeners);
+        }
+
+        private Set<EventListener> resolve(String fullUei) {
+            /*
+             * Find the listeners who are interested in this event UEI.
+             * Loop to attempt partial wild card "directory" matches.
+             */
+            final Set<EventListener> listeners = new LinkedHashSet<>();
+            for (String uei = fullUei; uei.length() > 0; ) {
+                final List<EventListener> ueiListeners = m_ueiListeners.get(uei);
+                if (ueiListeners != null) {
+                    listeners.addAll(ueiListeners);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return listeners;
+        }
+
+        private EventListenerQueue[] getQueues(Collection<EventListener> listeners) {
+            if (listeners.isEmpty()) {
+                return NO_QUEUES;
+            }
+            final List<EventListenerQueue> queues = new ArrayList<>(listeners.size());
+            for (EventListener listener : listeners) {
+                final EventListenerQueue queue = m_queues.get(listener.getName());
+                if (queue != null) {
+                    queues.add(queue);
+                }
+            }
+            return queues.toArray(new EventListenerQueue[queues.size()]);
+        }
+
+        private static SynchronousEventListener[] filterSynchronousListeners(Collection<EventListener> listeners) {
+            final List<SynchronousEventListener> synchronousListeners = new ArrayList<>();
+            for (EventListener listener : listeners) {
+                if (listener instanceof SynchronousEventListener) {
+                    synchronousListeners.add((SynchronousEventListener)listener);
+                }
+            }
+            return synchronousListeners.isEmpty() ? NO_LISTENERS : synchronousListeners.toArray(new SynchronousEventListener[synchronousListeners.size()]);
+        }
+    }
+
     /**
      * <p>Constructor for EventIpcManagerDefaultImpl.</p>
      */
@@ -293,13 +461,25 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        final RoutingTable routingTable = m_routingTable;
+
+        // Let the synchronous listeners see the event before any of the others
+        for (SynchronousEventListener listener : routingTable.getSynchronousListeners(event.getUei())) {
+            try {
+                listener.onEvent(event);
+            } catch (Throwable t) {
+                LOG.warn("broadcastNow: an unexpected error occured in synchronous listener {}", listener.getName(), t);
+            }
+        }
+
+        final EventListenerQueue[] matchAllQueues = routingTable.getMatchAllQueues();
+        if (LOG.isDebugEnabled() && matchAllQueues.length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (EventListenerQueue queue : matchAllQueues) {
+            queue.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -309,43 +489,19 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        // Send to listeners who are interested in this event UEI
+        final EventListenerQueue[] ueiQueues = routingTable.getUeiQueues(event.getUei());
+        for (EventListenerQueue queue : ueiQueues) {
+            queue.addEvent(event);
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (ueiQueues.length == 0) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
             }
         }
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -364,6 +520,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -393,6 +551,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -427,6 +587,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -446,6 +608,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -472,21 +636,37 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
             m_listenerThreads.remove(listener.getName());
         }
+
+        updateRoutingTable();
     }
 
     /**
      * Create a new queue and listener thread for this listener if one does not
-     * already exist.
+     * already exist. The synchronous listeners are called from the broadcasting
+     * thread and don't get one.
      */
     private void createListenerThread(EventListener listener) {
-        if (m_listenerThreads.containsKey(listener.getName())) {
+        if (listener instanceof SynchronousEventListener || m_listenerThreads.containsKey(listener.getName())) {
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        final EventListenerQueue listenerThread;
+        if (m_batchedDispatch) {
+            listenerThread = new EventListenerRingBuffer(listener, m_handlerQueueLength, m_registry);
+        } else {
+            listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        }
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * Publishes a new snapshot of the listeners to the threads that
+     * broadcast the events.
+     */
+    private void updateRoutingTable() {
+        m_routingTable = new RoutingTable(m_listeners, m_ueiListeners, m_listenerThreads);
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -623,6 +803,29 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    /**
+     * <p>isBatchedDispatch</p>
+     *
+     * @return a boolean.
+     */
+    public boolean isBatchedDispatch() {
+        return m_batchedDispatch;
+    }
+
+    /**
+     * Sets whether the events are delivered to each listener from a ring buffer,
+     * in batches, instead of from a single-threaded executor. The ring buffers
+     * expose their depth, the dropped events and the delivery latency of each
+     * listener as metrics. Defaults to the value of the
+     * <code>org.opennms.eventd.ipc.batchedDispatch</code> system property.
+     *
+     * @param batchedDispatch a boolean.
+     */
+    public void setBatchedDispatch(boolean batchedDispatch) {
+        Assert.state(m_eventHandlerPool == null, "batchedDispatch property cannot be set after afterPropertiesSet() is called");
+        m_batchedDispatch = batchedDispatch;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
         if (this.m_ueiListeners.containsKey(uei)) {
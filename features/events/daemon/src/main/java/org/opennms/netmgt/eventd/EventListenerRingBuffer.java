@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Delivers the events meant for a single listener from a bounded ring buffer.
+ *
+ * Any number of threads can add events to the buffer without locking. The
+ * listener's thread takes the events off the buffer in batches, and restores
+ * its logging context once per batch instead of once per event.
+ *
+ * Events are dropped, and counted, when the buffer is full. The depth of the
+ * buffer, the number of dropped events and the time between the broadcast of
+ * an event and its delivery are exposed in the given {@link MetricRegistry}
+ * under <code>eventlisteners.&lt;listener name&gt;.&lt;instance id&gt;</code>,
+ * so that listeners with the same name don't share, or remove, each other's
+ * metrics.
+ */
+class EventListenerRingBuffer implements EventIpcManagerDefaultImpl.EventListenerQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerRingBuffer.class);
+
+    /**
+     * The size of the buffer when no queue length is configured.
+     */
+    static final int DEFAULT_CAPACITY = 16384;
+
+    /**
+     * The maximum number of events that are taken off the buffer at once.
+     */
+    static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * How long the listener's thread parks when the buffer is empty, as a
+     * safety net for missed wake ups.
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final AtomicInteger INSTANCE_IDS = new AtomicInteger();
+
+    private final EventListener m_listener;
+
+    private final MetricRegistry m_registry;
+
+    private final String m_droppedName;
+
+    private final String m_latencyName;
+
+    private final String m_queueDepthName;
+
+    private final AtomicReferenceArray<Event> m_events;
+
+    private final long[] m_enqueuedAt;
+
+    private final int m_mask;
+
+    /**
+     * The sequence of the next slot that will be claimed by a producer.
+     */
+    private final AtomicLong m_tail = new AtomicLong();
+
+    /**
+     * The sequence of the next slot that will be read by the listener's thread.
+     */
+    private volatile long m_head = 0;
+
+    private volatile boolean m_parked = false;
+
+    private volatile boolean m_running = true;
+
+    private final Counter m_dropped;
+
+    private final Timer m_latency;
+
+    private final Thread m_thread;
+
+    EventListenerRingBuffer(EventListener listener, Integer queueLength, MetricRegistry registry) {
+        m_listener = listener;
+        m_registry = registry;
+
+        int capacity = 1;
+        while (capacity < (queueLength == null ? DEFAULT_CAPACITY : queueLength)) {
+            capacity <<= 1;
+        }
+        m_events = new AtomicReferenceArray<>(capacity);
+        m_enqueuedAt = new long[capacity];
+        m_mask = capacity - 1;
+
+        final String metricPrefix = MetricRegistry.name("eventlisteners", listener.getName(), Integer.toString(INSTANCE_IDS.incrementAndGet()));
+        m_droppedName = MetricRegistry.name(metricPrefix, "dropped");
+        m_latencyName = MetricRegistry.name(metricPrefix, "latency");
+        m_queueDepthName = MetricRegistry.name(metricPrefix, "queue-depth");
+        m_dropped = registry.counter(m_droppedName);
+        m_latency = registry.timer(m_latencyName);
+        registry.register(m_queueDepthName, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getDepth();
+            }
+        });
+
+        // Like the executors, the thread inherits the logging prefix of the caller
+        // so that the events that a listener handles are logged in its own log file
+        m_thread = new LogPreservingThreadFactory(listener.getName(), 1).newThread(this::deliver);
+        m_thread.start();
+    }
+
+    @Override
+    public void addEvent(Event event) {
+        long tail;
+        do {
+            tail = m_tail.get();
+            if (tail - m_head >= m_events.length()) {
+                m_dropped.inc();
+                LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                return;
+            }
+        } while (!m_tail.compareAndSet(tail, tail + 1));
+
+        final int slot = (int)tail & m_mask;
+        m_enqueuedAt[slot] = System.nanoTime();
+        // The volatile write publishes the timestamp along with the event
+        m_events.set(slot, event);
+
+        if (m_parked) {
+            LockSupport.unpark(m_thread);
+        }
+    }
+
+    /**
+     * Delivers the events to the listener until it is stopped and the remaining
+     * events have been delivered.
+     */
+    private void deliver() {
+        final Event[] batch = new Event[MAX_BATCH_SIZE];
+        final long[] enqueuedAt = new long[MAX_BATCH_SIZE];
+
+        while (true) {
+            final int count = drain(batch, enqueuedAt);
+            if (count == 0) {
+                if (!m_running && m_head == m_tail.get()) {
+                    return;
+                }
+                m_parked = true;
+                // Check again, a producer may have published before seeing the flag
+                if (m_events.get((int)m_head & m_mask) == null) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                m_parked = false;
+                continue;
+            }
+
+            // Make sure we restore our logging prefix after onEvent is called
+            final Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                for (int i = 0; i < count; i++) {
+                    final Event event = batch[i];
+                    batch[i] = null;
+                    LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+                    try {
+                        m_listener.onEvent(event);
+                    } catch (Throwable t) {
+                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                    }
+                    m_latency.update(System.nanoTime() - enqueuedAt[i], TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        }
+    }
+
+    /**
+     * Takes up to a batch of events off the buffer, in the order in which the
+     * slots were claimed.
+     */
+    private int drain(Event[] batch, long[] enqueuedAt) {
+        long head = m_head;
+        int count = 0;
+        while (count < batch.length) {
+            final int slot = (int)head & m_mask;
+            final Event event = m_events.get(slot);
+            if (event == null) {
+                // Either empty, or the slot was claimed and isn't published yet
+                break;
+            }
+            enqueuedAt[count] = m_enqueuedAt[slot];
+            batch[count++] = event;
+            m_events.lazySet(slot, null);
+            head++;
+        }
+        if (count > 0) {
+            m_head = head;
+        }
+        return count;
+    }
+
+    long getDepth() {
+        return m_tail.get() - m_head;
+    }
+
+    /**
+     * Stops the listener's thread once the events that are already in the
+     * buffer have been delivered.
+     */
+    @Override
+    public void stop() {
+        m_running = false;
+        LockSupport.unpark(m_thread);
+        m_registry.remove(m_droppedName);
+        m_registry.remove(m_latencyName);
+        m_registry.remove(m_queueDepthName);
+    }
+}
@@ -28,11 +28,13 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Queue;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.DistPollerDao;
@@ -64,6 +66,7 @@ import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -82,6 +85,11 @@ import com.codahale.metrics.Timer.Context;
  *
  * Values for the ' <parms>' block are loaded with each parm name and parm value
  * delimited with the NAME_VAL_DELIM.
+ *
+ * The logs that are processed concurrently by the event handlers are grouped
+ * into batches, which are inserted with a single JDBC batch per transaction.
+ * {@link #process(Log)} only returns once the events of the log have been
+ * committed, so the events have their dbid set before they are broadcast.
  * 
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#MULTIPLE_VAL_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#DB_ATTRIB_DELIM
@@ -122,8 +130,41 @@ public class HibernateEventWriter implements EventWriter {
 
     private final Timer writeTimer;
 
+    private final Timer commitTimer;
+
+    private final Histogram batchSizeHistogram;
+
+    private final Queue<PendingWrite> m_pendingWrites = new ArrayDeque<>();
+
+    private int m_pendingEvents = 0;
+
+    private int m_activeFlushes = 0;
+
+    private int m_maxBatchSize = Integer.getInteger("org.opennms.eventd.writer.maxBatchSize", 500);
+
+    private long m_maxBatchDelay = Long.getLong("org.opennms.eventd.writer.maxBatchDelay", 0);
+
+    private int m_maxConcurrentFlushes = Integer.getInteger("org.opennms.eventd.writer.maxConcurrentFlushes", 2);
+
+    /**
+     * The events of a single log that are waiting to be stored.
+     */
+    private static class PendingWrite {
+        private final Header header;
+        private final List<Event> events;
+        private boolean done = false;
+        private EventProcessorException exception;
+
+        private PendingWrite(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }
+
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        commitTimer = registry.timer("eventlogs.process.write.commit");
+        batchSizeHistogram = registry.histogram("eventlogs.process.write.batch-size");
     }
 
     /**
@@ -174,48 +215,152 @@ public class HibernateEventWriter implements EventWriter {
 
             // Time the transaction and insertions
             try (Context context = writeTimer.time()) {
-                final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
-
-                m_transactionManager.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus status) {
-                        for (Event eachEvent : eventsToPersist) {
-                            try {
-                                process(eventLog.getHeader(), eachEvent);
-                            } catch (EventProcessorException e) {
-                                exception.set(e);
-                                return;
-                            }
+                final PendingWrite write = new PendingWrite(eventLog.getHeader(), eventsToPersist);
+                write(write);
+                if (write.exception != null) {
+                    throw write.exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the write and waits until it is done. Writes that are queued by
+     * the other event handlers in the meantime are stored in the same batch,
+     * by whichever thread gets to flush the queue first.
+     *
+     * Once queued, the write is always completed, so interrupts are deferred
+     * until it is done.
+     */
+    private void write(PendingWrite write) {
+        boolean interrupted = false;
+        synchronized (m_pendingWrites) {
+            m_pendingWrites.add(write);
+            m_pendingEvents += write.events.size();
+            m_pendingWrites.notifyAll();
+        }
+
+        try {
+            while (true) {
+                final List<PendingWrite> batch = new ArrayList<>();
+                synchronized (m_pendingWrites) {
+                    // An empty queue means that the write was drained into a
+                    // batch that is still being flushed by another handler
+                    while (!write.done && (m_activeFlushes >= m_maxConcurrentFlushes || m_pendingWrites.isEmpty())) {
+                        try {
+                            m_pendingWrites.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
                         }
                     }
-                });
+                    if (write.done) {
+                        return;
+                    }
 
-                if (exception.get() != null) {
-                    throw exception.get();
+                    // Give the other handlers a chance to fill up the batch
+                    final long deadline = System.currentTimeMillis() + m_maxBatchDelay;
+                    long remaining = m_maxBatchDelay;
+                    while (m_pendingEvents < m_maxBatchSize && remaining > 0) {
+                        try {
+                            m_pendingWrites.wait(remaining);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                    if (m_pendingWrites.isEmpty()) {
+                        // Another handler drained the queue while we were waiting
+                        continue;
+                    }
+
+                    // Drain up to a full batch, it always includes at least one write
+                    int events = 0;
+                    while (!m_pendingWrites.isEmpty() && (events == 0 || events + m_pendingWrites.peek().events.size() <= m_maxBatchSize)) {
+                        final PendingWrite pending = m_pendingWrites.poll();
+                        events += pending.events.size();
+                        batch.add(pending);
+                    }
+                    m_pendingEvents -= events;
+                    m_activeFlushes++;
+                }
+
+                try {
+                    flush(batch);
+                } finally {
+                    synchronized (m_pendingWrites) {
+                        for (PendingWrite pending : batch) {
+                            pending.done = true;
+                        }
+                        m_activeFlushes--;
+                        m_pendingWrites.notifyAll();
+                    }
                 }
             }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Stores the events of all the writes in a single transaction, and sets the
+     * database id on each event once the transaction was committed.
      *
-     * The method that inserts the event into the database
+     * If the transaction fails, the writes are retried one by one so that a
+     * single bad event doesn't prevent the others from being stored.
      */
-    private void process(final Header eventHeader, final Event event) throws EventProcessorException {
-        LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+    private void flush(List<PendingWrite> batch) {
+        final List<Event> events = new ArrayList<>();
+        final List<OnmsEvent> ovents = new ArrayList<>();
+
+        try (Context context = commitTimer.time()) {
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    events.clear();
+                    ovents.clear();
+                    for (PendingWrite write : batch) {
+                        final List<OnmsEvent> oventsInWrite = new ArrayList<>(write.events.size());
+                        try {
+                            for (Event event : write.events) {
+                                LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+                                oventsInWrite.add(createOnmsEvent(write.header, event));
+                            }
+                        } catch (Throwable e) {
+                            write.exception = new EventProcessorException("Unexpected exception while storing events: " + write.events, e);
+                            continue;
+                        }
+                        events.addAll(write.events);
+                        ovents.addAll(oventsInWrite);
+                    }
+                    eventDao.saveAll(ovents);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (batch.size() > 1) {
+                LOG.warn("Failed to store a batch of {} events. Storing them one log at a time.", ovents.size(), e);
+                for (PendingWrite write : batch) {
+                    write.exception = null;
+                    flush(Collections.singletonList(write));
+                }
+            } else {
+                for (PendingWrite write : batch) {
+                    if (e instanceof DeadlockLoserDataAccessException) {
+                        write.exception = new EventProcessorException("Encountered deadlock when inserting events: " + write.events, e);
+                    } else {
+                        write.exception = new EventProcessorException("Unexpected exception while storing events: " + write.events, e);
+                    }
+                }
+            }
+            return;
+        }
 
-        try {
-            final OnmsEvent ovent = createOnmsEvent(eventHeader, event);
-            eventDao.save(ovent);
-
-            // Update the event with the database ID of the event stored in the database
-            event.setDbid(ovent.getId());
-        } catch (DeadlockLoserDataAccessException e) {
-            throw new EventProcessorException("Encountered deadlock when inserting event: " + event.toString(), e);
-        } catch (Throwable e) {
-            throw new EventProcessorException("Unexpected exception while storing event: " + event.toString(), e);
+        // Update the events with the database ID of the events stored in the database
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).setDbid(ovents.get(i).getId());
         }
+        batchSizeHistogram.update(ovents.size());
     }
 
     /**
@@ -400,4 +545,27 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    /**
+     * Sets the maximum number of events that are stored in a single transaction.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        m_maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets how long, in milliseconds, to wait for a batch to fill up before it's
+     * stored. With the default of 0 the batches only contain the events that were
+     * queued while the previous batches were being stored.
+     */
+    public void setMaxBatchDelay(long maxBatchDelay) {
+        m_maxBatchDelay = maxBatchDelay;
+    }
+
+    /**
+     * Sets the maximum number of batches that are stored at the same time.
+     */
+    public void setMaxConcurrentFlushes(int maxConcurrentFlushes) {
+        m_maxConcurrentFlushes = maxConcurrentFlushes;
+    }
 }
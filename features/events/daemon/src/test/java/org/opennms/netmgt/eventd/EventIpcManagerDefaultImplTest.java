@@ -37,6 +37,7 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +47,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.SynchronousEventListener;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Log;
@@ -604,6 +606,212 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         await().pollInterval(1, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(6)));
     }
 
+    public void testSynchronousListenerIsCalledBeforeTheOtherListeners() throws Exception {
+        final List<Event> synchronouslyReceived = new CopyOnWriteArrayList<>();
+        final AtomicReference<Thread> synchronousThread = new AtomicReference<>();
+        final SynchronousEventListener synchronousListener = new SynchronousEventListener() {
+            @Override
+            public String getName() {
+                return "testSynchronousListener";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                synchronouslyReceived.add(event);
+                synchronousThread.set(Thread.currentThread());
+            }
+        };
+
+        final List<Boolean> seenBySynchronousListener = new CopyOnWriteArrayList<>();
+        final EventListener listener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testListener";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                seenBySynchronousListener.add(synchronouslyReceived.contains(event));
+            }
+        };
+
+        m_manager.addEventListener(synchronousListener, "uei.opennms.org/foo/");
+        m_manager.addEventListener(listener);
+
+        final Event e = new EventBuilder("uei.opennms.org/foo/bar", "testSynchronousListener").getEvent();
+        m_manager.broadcastNow(e);
+        assertEquals(1, synchronouslyReceived.size());
+        assertSame(e, synchronouslyReceived.get(0));
+        assertSame(Thread.currentThread(), synchronousThread.get());
+
+        // Not a match for the synchronous listener
+        m_manager.broadcastNow(new EventBuilder("uei.opennms.org/bar", "testSynchronousListener").getEvent());
+        assertEquals(1, synchronouslyReceived.size());
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> seenBySynchronousListener.size(), is(equalTo(2)));
+        assertEquals(Boolean.TRUE, seenBySynchronousListener.get(0));
+
+        m_manager.removeEventListener(synchronousListener);
+        m_manager.broadcastNow(e);
+        assertEquals(1, synchronouslyReceived.size());
+    }
+
+    public void testBatchedDispatchWithUeiAndSubUeiMatch() throws Exception {
+        final EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setEventHandler(m_eventHandler);
+        manager.setBatchedDispatch(true);
+        manager.afterPropertiesSet();
+
+        final List<Event> received = new CopyOnWriteArrayList<>();
+        final EventListener listener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testBatchedDispatchWithUeiAndSubUeiMatch";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                received.add(event);
+            }
+        };
+        manager.addEventListener(listener, "uei.opennms.org/foo");
+        manager.addEventListener(listener, "uei.opennms.org/");
+
+        final List<Event> sent = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final Event e = new EventBuilder(i % 2 == 0 ? "uei.opennms.org/foo" : "uei.opennms.org/bar/" + i, "testBatchedDispatchWithUeiAndSubUeiMatch").getEvent();
+            sent.add(e);
+            manager.broadcastNow(e);
+        }
+        // Not a match
+        manager.broadcastNow(new EventBuilder("uei.example.org/foo", "testBatchedDispatchWithUeiAndSubUeiMatch").getEvent());
+
+        // Every event is delivered once, in order
+        await().atMost(10, TimeUnit.SECONDS).until(() -> received.size(), is(equalTo(sent.size())));
+        assertEquals(sent, received);
+
+        manager.removeEventListener(listener, "uei.opennms.org/");
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/bar", "testBatchedDispatchWithUeiAndSubUeiMatch").getEvent());
+        final Event e = new EventBuilder("uei.opennms.org/foo", "testBatchedDispatchWithUeiAndSubUeiMatch").getEvent();
+        manager.broadcastNow(e);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> received.size(), is(equalTo(sent.size() + 1)));
+        assertEquals(e, received.get(sent.size()));
+
+        final String prefix = getMetricPrefix("testBatchedDispatchWithUeiAndSubUeiMatch");
+        manager.removeEventListener(listener);
+        assertFalse(m_registry.getGauges().containsKey(prefix + "queue-depth"));
+    }
+
+    public void testBatchedDispatchMetricsAreKeptPerListenerInstance() throws Exception {
+        final EventListener first = new MockEventListener();
+        final EventListener second = new MockEventListener();
+        assertEquals(first.getName(), second.getName());
+
+        // Two managers that share the registry, with a listener of the same name each
+        final List<EventIpcManagerDefaultImpl> managers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+            manager.setHandlerPoolSize(1);
+            manager.setEventHandler(m_eventHandler);
+            manager.setBatchedDispatch(true);
+            manager.afterPropertiesSet();
+            managers.add(manager);
+        }
+        managers.get(0).addEventListener(first);
+        managers.get(1).addEventListener(second);
+
+        final List<String> queueDepths = new ArrayList<>();
+        for (String name : m_registry.getGauges().keySet()) {
+            if (name.startsWith("eventlisteners." + first.getName() + ".") && name.endsWith(".queue-depth")) {
+                queueDepths.add(name);
+            }
+        }
+        assertEquals(2, queueDepths.size());
+
+        // Stopping the first listener must leave the metrics of the second one in place
+        managers.get(0).removeEventListener(first);
+        final List<String> remaining = new ArrayList<>();
+        for (String name : queueDepths) {
+            if (m_registry.getGauges().containsKey(name)) {
+                remaining.add(name);
+            }
+        }
+        assertEquals(1, remaining.size());
+        final String prefix = remaining.get(0).substring(0, remaining.get(0).length() - "queue-depth".length());
+        assertTrue(m_registry.getCounters().containsKey(prefix + "dropped"));
+        assertTrue(m_registry.getTimers().containsKey(prefix + "latency"));
+
+        managers.get(1).removeEventListener(second);
+        assertFalse(m_registry.getGauges().containsKey(remaining.get(0)));
+    }
+
+    public void testSlowEventListenerWithBatchedDispatch() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger();
+
+        final EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testSlowEventListenerWithBatchedDispatch";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(4);
+        manager.setBatchedDispatch(true);
+        DefaultEventHandlerImpl handler = new DefaultEventHandlerImpl(m_registry);
+        manager.setEventHandler(handler);
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(slowListener);
+
+        // The first event blocks the listener, the next 4 fill up its
+        // queue, and the last 5 are dropped.
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo/0", "testSlowEventListenerWithBatchedDispatch").getEvent());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/" + i, "testSlowEventListenerWithBatchedDispatch");
+            manager.broadcastNow(bldr.getEvent());
+        }
+
+        final String prefix = getMetricPrefix("testSlowEventListenerWithBatchedDispatch");
+        assertEquals(4L, m_registry.getGauges().get(prefix + "queue-depth").getValue());
+        assertEquals(5L, m_registry.counter(prefix + "dropped").getCount());
+
+        release.countDown();
+        await().pollInterval(100, TimeUnit.MILLISECONDS).untilAtomic(counter, is(equalTo(5)));
+        await().until(() -> m_registry.timer(prefix + "latency").getCount(), is(equalTo(5L)));
+        assertEquals(0L, m_registry.getGauges().get(prefix + "queue-depth").getValue());
+    }
+
+    /**
+     * Returns the prefix, including the trailing dot, of the metrics of the
+     * only ring buffer that was created for the listener with the given name.
+     */
+    private String getMetricPrefix(String listenerName) {
+        final List<String> prefixes = new ArrayList<>();
+        for (String name : m_registry.getGauges().keySet()) {
+            if (name.startsWith("eventlisteners." + listenerName + ".") && name.endsWith(".queue-depth")) {
+                prefixes.add(name.substring(0, name.length() - "queue-depth".length()));
+            }
+        }
+        assertEquals(1, prefixes.size());
+        return prefixes.get(0);
+    }
+
     /**
      * This test creates two event listeners that both create events as they
      * handle events. This test can be used to detect deadlocks between the
@@ -28,20 +28,44 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.codahale.metrics.MetricRegistry;
@@ -116,4 +140,206 @@ public class HibernateEventWriterTest {
         eventWriter.process(log);
         verify(transactionManager, times(1)).execute(any());
     }
+
+    /**
+     * Verifies that the events that are written while a transaction is in
+     * progress are stored together, in the next transaction.
+     */
+    @Test(timeout=30000)
+    @SuppressWarnings("unchecked")
+    public void testConcurrentWritesAreBatched() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        eventWriter = new HibernateEventWriter(registry);
+        eventWriter.setTransactionManager(transactionManager);
+        eventWriter.setMaxConcurrentFlushes(1);
+
+        final EventDao eventDao = mock(EventDao.class);
+        final DistPollerDao distPollerDao = mock(DistPollerDao.class);
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller("00000000-0000-0000-0000-000000000000"));
+        setField(eventWriter, "eventDao", eventDao);
+        setField(eventWriter, "distPollerDao", distPollerDao);
+        setField(eventWriter, "serviceTypeDao", mock(ServiceTypeDao.class));
+        setField(eventWriter, "eventUtil", mock(EventUtil.class));
+
+        // Hold the first transaction until all of the other logs are queued
+        final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+        final AtomicInteger transactions = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (transactions.incrementAndGet() == 1) {
+                firstTransactionStarted.countDown();
+                releaseFirstTransaction.await();
+            }
+            return ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(null);
+        }).when(transactionManager).execute(any());
+
+        final AtomicInteger nextId = new AtomicInteger();
+        final List<Integer> batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            final List<OnmsEvent> ovents = (List<OnmsEvent>)invocation.getArguments()[0];
+            batchSizes.add(ovents.size());
+            ovents.forEach(e -> e.setId(nextId.incrementAndGet()));
+            return null;
+        }).when(eventDao).saveAll(any());
+
+        final int numLogs = 10;
+        final List<Event> events = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(numLogs);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numLogs; i++) {
+                final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+                bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+                events.add(bldr.getEvent());
+                futures.add(executor.submit(() -> {
+                    eventWriter.process(bldr.getLog());
+                    return null;
+                }));
+                if (i == 0) {
+                    firstTransactionStarted.await();
+                }
+            }
+
+            // Wait until the other logs are queued
+            while (queuedEvents(eventWriter) < numLogs - 1) {
+                Thread.sleep(10);
+            }
+            releaseFirstTransaction.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2, transactions.get());
+        assertEquals(2, batchSizes.size());
+        assertEquals(1, batchSizes.get(0).intValue());
+        assertEquals(numLogs - 1, batchSizes.get(1).intValue());
+
+        final Set<Integer> dbids = new HashSet<>();
+        for (Event event : events) {
+            assertTrue(event.getDbid() > 0);
+            dbids.add(event.getDbid());
+        }
+        assertEquals(numLogs, dbids.size());
+        assertEquals(2, registry.histogram("eventlogs.process.write.batch-size").getCount());
+    }
+
+    /**
+     * Verifies that the handlers whose writes were drained into a batch that
+     * is still in flight wait for it, instead of flushing empty batches when
+     * another flush completes.
+     */
+    @Test(timeout=30000)
+    @SuppressWarnings("unchecked")
+    public void testNoEmptyBatchesWithConcurrentFlushes() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        eventWriter = new HibernateEventWriter(registry);
+        eventWriter.setTransactionManager(transactionManager);
+        eventWriter.setMaxConcurrentFlushes(2);
+
+        final EventDao eventDao = mock(EventDao.class);
+        final DistPollerDao distPollerDao = mock(DistPollerDao.class);
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller("00000000-0000-0000-0000-000000000000"));
+        setField(eventWriter, "eventDao", eventDao);
+        setField(eventWriter, "distPollerDao", distPollerDao);
+        setField(eventWriter, "serviceTypeDao", mock(ServiceTypeDao.class));
+        setField(eventWriter, "eventUtil", mock(EventUtil.class));
+
+        // Hold each of the first three transactions until it is released
+        final int numHeldTransactions = 3;
+        final List<CountDownLatch> transactionStarted = new ArrayList<>();
+        final List<CountDownLatch> releaseTransaction = new ArrayList<>();
+        for (int i = 0; i < numHeldTransactions; i++) {
+            transactionStarted.add(new CountDownLatch(1));
+            releaseTransaction.add(new CountDownLatch(1));
+        }
+        final AtomicInteger transactions = new AtomicInteger();
+        doAnswer(invocation -> {
+            final int transaction = transactions.getAndIncrement();
+            if (transaction < numHeldTransactions) {
+                transactionStarted.get(transaction).countDown();
+                releaseTransaction.get(transaction).await();
+            }
+            return ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(null);
+        }).when(transactionManager).execute(any());
+
+        final AtomicInteger nextId = new AtomicInteger();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            final List<OnmsEvent> ovents = (List<OnmsEvent>)invocation.getArguments()[0];
+            batchSizes.add(ovents.size());
+            ovents.forEach(e -> e.setId(nextId.incrementAndGet()));
+            return null;
+        }).when(eventDao).saveAll(any());
+
+        final int numLogs = 10;
+        final ExecutorService executor = Executors.newFixedThreadPool(numLogs);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numLogs; i++) {
+                final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+                bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+                futures.add(executor.submit(() -> {
+                    eventWriter.process(bldr.getLog());
+                    return null;
+                }));
+                // The first two logs are flushed on their own, one per slot
+                if (i < 2) {
+                    transactionStarted.get(i).await();
+                }
+            }
+
+            // Wait until the other logs are queued, and have them drained
+            // into the third batch once the first flush completes
+            while (queuedEvents(eventWriter) < numLogs - 2) {
+                Thread.sleep(10);
+            }
+            releaseTransaction.get(0).countDown();
+            transactionStarted.get(2).await();
+
+            // Complete the second flush while the third batch is still in flight,
+            // the handlers whose writes are in the third batch must keep waiting
+            releaseTransaction.get(1).countDown();
+            futures.get(0).get(10, TimeUnit.SECONDS);
+            futures.get(1).get(10, TimeUnit.SECONDS);
+            Thread.sleep(100);
+            assertEquals(numHeldTransactions, transactions.get());
+
+            releaseTransaction.get(2).countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(numHeldTransactions, transactions.get());
+        assertEquals(3, batchSizes.size());
+        assertEquals(1, batchSizes.get(0).intValue());
+        assertEquals(1, batchSizes.get(1).intValue());
+        assertEquals(numLogs - 2, batchSizes.get(2).intValue());
+        assertEquals(3, registry.histogram("eventlogs.process.write.batch-size").getCount());
+    }
+
+    private static int queuedEvents(HibernateEventWriter eventWriter) throws Exception {
+        final Field field = HibernateEventWriter.class.getDeclaredField("m_pendingEvents");
+        field.setAccessible(true);
+        synchronized (getField(eventWriter, "m_pendingWrites")) {
+            return field.getInt(eventWriter);
+        }
+    }
+
+    private static Object getField(Object target, String name) throws Exception {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
 }
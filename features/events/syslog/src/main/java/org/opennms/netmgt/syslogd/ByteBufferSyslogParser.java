@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A parser for RFC 3164 and RFC 5424 messages that works directly on the bytes
+ * of the message, without regular expressions, date formats or intermediate strings.
+ * Only the fields of the resulting {@link SyslogMessage} are allocated.
+ *
+ * RFC 5424 messages are detected by the version that follows the PRI. Otherwise, the
+ * message is parsed as an RFC 3164 message, with an optional timestamp (in either the
+ * RFC 3164 or the ISO 8601 format), followed by the host name, the optional process name
+ * and ID, and the message.
+ *
+ * Like the SyslogNGParser, it ignores forwarding-regexp, matching-group-host, and
+ * matching-group-message. The {@link ConvertToEvent} uses the bytes received from the
+ * network as is when this parser is configured.
+ */
+public class ByteBufferSyslogParser extends SyslogParser {
+    private static final Logger LOG = LoggerFactory.getLogger(ByteBufferSyslogParser.class);
+
+    private static final byte[][] MONTHS = new byte[][] {
+        "jan".getBytes(StandardCharsets.US_ASCII), "feb".getBytes(StandardCharsets.US_ASCII),
+        "mar".getBytes(StandardCharsets.US_ASCII), "apr".getBytes(StandardCharsets.US_ASCII),
+        "may".getBytes(StandardCharsets.US_ASCII), "jun".getBytes(StandardCharsets.US_ASCII),
+        "jul".getBytes(StandardCharsets.US_ASCII), "aug".getBytes(StandardCharsets.US_ASCII),
+        "sep".getBytes(StandardCharsets.US_ASCII), "oct".getBytes(StandardCharsets.US_ASCII),
+        "nov".getBytes(StandardCharsets.US_ASCII), "dec".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final ByteBuffer m_buffer;
+
+    private SyslogMessage m_message;
+
+    private boolean m_parsed = false;
+
+    public ByteBufferSyslogParser(final SyslogdConfig config, final String text) {
+        super(config, text);
+        m_buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean find() {
+        return parse() != null;
+    }
+
+    @Override
+    public boolean matches() {
+        return find();
+    }
+
+    @Override
+    public SyslogMessage parse() {
+        if (!m_parsed) {
+            m_message = parse(m_buffer);
+            m_parsed = true;
+        }
+        return m_message;
+    }
+
+    /**
+     * Parses the remaining bytes in the given buffer, without modifying its position.
+     *
+     * @return the message, or null if the buffer does not contain a syslog message
+     */
+    public static SyslogMessage parse(final ByteBuffer buffer) {
+        final Cursor cursor = new Cursor(buffer);
+
+        // Trailing NULs and leading white space are ignored
+        while (cursor.end > cursor.pos && buffer.get(cursor.end - 1) == 0) {
+            cursor.end--;
+        }
+        cursor.skipSpaces();
+
+        // <PRI>
+        if (!cursor.skip('<')) {
+            return null;
+        }
+        final int priStart = cursor.pos;
+        final int pri = cursor.readInt(3);
+        if (cursor.pos == priStart || !cursor.skip('>')) {
+            return null;
+        }
+
+        final SyslogMessage message = new SyslogMessage();
+        message.setParserClass(ByteBufferSyslogParser.class);
+        message.setFacility(SyslogFacility.getFacilityForCode(pri));
+        message.setSeverity(SyslogSeverity.getSeverityForCode(pri));
+
+        // An RFC 5424 message has a version, followed by a space
+        final int versionStart = cursor.pos;
+        final int version = cursor.readInt(2);
+        if (cursor.pos > versionStart && version > 0 && cursor.skip(' ')) {
+            message.setVersion(version);
+            return parseRfc5424(cursor, message);
+        }
+        cursor.pos = versionStart;
+        return parseRfc3164(cursor, message);
+    }
+
+    private static SyslogMessage parseRfc5424(final Cursor cursor, final SyslogMessage message) {
+        // TIMESTAMP HOSTNAME APP-NAME PROCID MSGID
+        int start = cursor.pos;
+        int end = cursor.nextSpace();
+        if (!cursor.isNil(start, end)) {
+            message.setDate(parseIsoDate(cursor, start, end));
+        }
+        if (!cursor.skip(' ')) {
+            return null;
+        }
+
+        start = cursor.pos;
+        end = cursor.nextSpace();
+        if (!cursor.isNil(start, end)) {
+            message.setHostName(cursor.ascii(start, end));
+        }
+        if (!cursor.skip(' ')) {
+            return null;
+        }
+
+        start = cursor.pos;
+        end = cursor.nextSpace();
+        if (!cursor.isNil(start, end)) {
+            message.setProcessName(cursor.ascii(start, end));
+        }
+        if (!cursor.skip(' ')) {
+            return null;
+        }
+
+        start = cursor.pos;
+        final int pid = cursor.readInt(9);
+        if (cursor.pos > start && cursor.peek() == ' ') {
+            message.setProcessId(pid);
+        } else {
+            cursor.pos = start;
+            cursor.nextSpace();
+        }
+        if (!cursor.skip(' ')) {
+            return null;
+        }
+
+        start = cursor.pos;
+        end = cursor.nextSpace();
+        if (!cursor.isNil(start, end)) {
+            message.setMessageID(cursor.ascii(start, end));
+        }
+        if (!cursor.skip(' ')) {
+            return null;
+        }
+
+        // STRUCTURED-DATA is skipped
+        if (!cursor.skip('-')) {
+            while (cursor.peek() == '[') {
+                if (!cursor.skipStructuredDataElement()) {
+                    return null;
+                }
+            }
+        }
+
+        // [SP MSG], which is UTF-8 when it starts with a BOM
+        if (cursor.skip(' ')) {
+            if (cursor.remaining() >= 3 && cursor.peek() == (byte)0xEF && cursor.buffer.get(cursor.pos + 1) == (byte)0xBB && cursor.buffer.get(cursor.pos + 2) == (byte)0xBF) {
+                cursor.pos += 3;
+                message.setMessage(cursor.trimmed(StandardCharsets.UTF_8));
+            } else if (cursor.remaining() >= 3 && cursor.peek() == 'B' && cursor.buffer.get(cursor.pos + 1) == 'O' && cursor.buffer.get(cursor.pos + 2) == 'M') {
+                // Like the Rfc5424SyslogParser, accept the literal "BOM" used in the examples of the RFC
+                cursor.pos += 3;
+                message.setMessage(cursor.trimmed(StandardCharsets.UTF_8));
+            } else {
+                message.setMessage(cursor.trimmed(StandardCharsets.US_ASCII));
+            }
+        }
+        return message;
+    }
+
+    private static SyslogMessage parseRfc3164(final Cursor cursor, final SyslogMessage message) {
+        cursor.skipSpaces();
+
+        // TIMESTAMP, defaults to now, like the other parsers
+        Date date = null;
+        final int timestampStart = cursor.pos;
+        if (cursor.isDigit(0) && cursor.isDigit(3) && cursor.peek(4) == '-') {
+            final int end = cursor.nextSpace();
+            date = parseIsoDate(cursor, timestampStart, end);
+        } else {
+            date = parseRfc3164Date(cursor);
+        }
+        if (date == null) {
+            cursor.pos = timestampStart;
+            date = new Date();
+        }
+        message.setDate(date);
+        cursor.skipSpaces();
+
+        // HOSTNAME, unless the first token is the tag
+        int start = cursor.pos;
+        int end = cursor.nextSpace();
+        if (end > start && cursor.buffer.get(end - 1) != ':' && cursor.indexOf('[', start, end) < 0) {
+            message.setHostName(cursor.ascii(start, end));
+            cursor.skipSpaces();
+            start = cursor.pos;
+            end = cursor.nextSpace();
+        }
+
+        // TAG[PID]: or TAG:
+        final int colon = cursor.indexOf(':', start, end);
+        if (colon > start && colon == end - 1) {
+            final int lb = cursor.indexOf('[', start, colon);
+            if (lb > start && cursor.buffer.get(colon - 1) == ']') {
+                message.setProcessName(cursor.ascii(start, lb));
+                cursor.pos = lb + 1;
+                final int pid = cursor.readInt(9);
+                if (cursor.pos == colon - 1 && cursor.pos > lb + 1) {
+                    message.setProcessId(pid);
+                }
+            } else if (lb < 0) {
+                message.setProcessName(cursor.ascii(start, colon));
+            }
+            cursor.pos = end;
+        } else {
+            cursor.pos = start;
+        }
+
+        message.setMessage(cursor.trimmed(StandardCharsets.US_ASCII));
+        return message;
+    }
+
+    /**
+     * Parses "Mmm dd hh:mm:ss" in the current year and the default time zone.
+     */
+    private static Date parseRfc3164Date(final Cursor cursor) {
+        final int start = cursor.pos;
+        final int month = cursor.readMonth();
+        if (month < 1 || !cursor.skip(' ')) {
+            return null;
+        }
+        cursor.skipSpaces();
+        final int dayStart = cursor.pos;
+        final int day = cursor.readInt(2);
+        if (cursor.pos == dayStart || !cursor.skip(' ')) {
+            return null;
+        }
+        cursor.skipSpaces();
+        final int hour = cursor.readFixedInt(2);
+        if (hour < 0 || !cursor.skip(':')) {
+            return null;
+        }
+        final int minute = cursor.readFixedInt(2);
+        if (minute < 0 || !cursor.skip(':')) {
+            return null;
+        }
+        final int second = cursor.readFixedInt(2);
+        if (second < 0 || cursor.peek() != ' ') {
+            return null;
+        }
+        try {
+            final ZoneId zone = ZoneId.systemDefault();
+            final LocalDateTime dateTime = LocalDateTime.of(LocalDateTime.now(zone).getYear(), month, day, hour, minute, second);
+            return Date.from(dateTime.atZone(zone).toInstant());
+        } catch (final RuntimeException e) {
+            LOG.debug("Unable to parse date '{}'", cursor.ascii(start, cursor.pos), e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses "yyyy-MM-dd", in the default time zone, or "yyyy-MM-ddThh:mm:ss[.fraction](Z|+hh:mm|+hhmm)".
+     */
+    private static Date parseIsoDate(final Cursor cursor, final int start, final int end) {
+        try {
+            cursor.pos = start;
+            final int year = cursor.readFixedInt(4);
+            if (year < 0 || !cursor.skip('-')) {
+                return null;
+            }
+            final int month = cursor.readFixedInt(2);
+            if (month < 0 || !cursor.skip('-')) {
+                return null;
+            }
+            final int day = cursor.readFixedInt(2);
+            if (day < 0) {
+                return null;
+            }
+            if (cursor.pos == end) {
+                return Date.from(LocalDateTime.of(year, month, day, 0, 0).atZone(ZoneId.systemDefault()).toInstant());
+            }
+            if (!cursor.skip('T')) {
+                return null;
+            }
+            final int hour = cursor.readFixedInt(2);
+            if (hour < 0 || !cursor.skip(':')) {
+                return null;
+            }
+            final int minute = cursor.readFixedInt(2);
+            if (minute < 0 || !cursor.skip(':')) {
+                return null;
+            }
+            final int second = cursor.readFixedInt(2);
+            if (second < 0) {
+                return null;
+            }
+
+            // Fractions of a second are truncated to milliseconds
+            int millis = 0;
+            if (cursor.skip('.')) {
+                int scale = 100;
+                while (cursor.pos < end && cursor.isDigit(0)) {
+                    millis += scale * (cursor.buffer.get(cursor.pos++) - '0');
+                    scale /= 10;
+                }
+            }
+
+            int offsetSeconds = 0;
+            if (!cursor.skip('Z')) {
+                final byte sign = cursor.peek();
+                if (sign != '+' && sign != '-') {
+                    return null;
+                }
+                cursor.pos++;
+                final int offsetHours = cursor.readFixedInt(2);
+                cursor.skip(':');
+                final int offsetMinutes = cursor.readFixedInt(2);
+                if (offsetHours < 0 || offsetMinutes < 0) {
+                    return null;
+                }
+                offsetSeconds = (sign == '-' ? -1 : 1) * (offsetHours * 3600 + offsetMinutes * 60);
+            }
+            if (cursor.pos != end) {
+                return null;
+            }
+
+            final long epochSeconds = LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.ofTotalSeconds(offsetSeconds));
+            return new Date(epochSeconds * 1000 + millis);
+        } catch (final RuntimeException e) {
+            LOG.debug("Unable to parse date '{}'", cursor.ascii(start, end), e);
+            return null;
+        } finally {
+            cursor.pos = end;
+        }
+    }
+
+    /**
+     * Position within the remaining bytes of a buffer. All of the reads
+     * use absolute indexes, so the buffer itself is never modified.
+     */
+    private static class Cursor {
+        private final ByteBuffer buffer;
+        private int pos;
+        private int end;
+
+        private Cursor(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.pos = buffer.position();
+            this.end = buffer.limit();
+        }
+
+        private int remaining() {
+            return end - pos;
+        }
+
+        private byte peek() {
+            return peek(0);
+        }
+
+        private byte peek(final int offset) {
+            return pos + offset < end ? buffer.get(pos + offset) : 0;
+        }
+
+        private boolean isDigit(final int offset) {
+            final byte b = peek(offset);
+            return b >= '0' && b <= '9';
+        }
+
+        private boolean skip(final char c) {
+            if (pos < end && buffer.get(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (pos < end && buffer.get(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        /**
+         * Moves to the next space, or the end of the buffer.
+         *
+         * @return the new position
+         */
+        private int nextSpace() {
+            while (pos < end && buffer.get(pos) != ' ') {
+                pos++;
+            }
+            return pos;
+        }
+
+        private int indexOf(final char c, final int from, final int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isNil(final int from, final int to) {
+            return to == from + 1 && buffer.get(from) == '-';
+        }
+
+        /**
+         * Reads up to maxDigits digits.
+         */
+        private int readInt(final int maxDigits) {
+            int value = 0;
+            final int limit = Math.min(end, pos + maxDigits);
+            while (pos < limit && isDigit(0)) {
+                value = value * 10 + (buffer.get(pos++) - '0');
+            }
+            return value;
+        }
+
+        /**
+         * Reads exactly numDigits digits.
+         *
+         * @return the value, or -1 if there are not enough digits
+         */
+        private int readFixedInt(final int numDigits) {
+            final int start = pos;
+            final int value = readInt(numDigits);
+            return pos - start == numDigits ? value : -1;
+        }
+
+        /**
+         * @return the month, from 1 to 12, or -1 if the next three letters are not a month
+         */
+        private int readMonth() {
+            if (remaining() < 3) {
+                return -1;
+            }
+            for (int k = 0; k < MONTHS.length; k++) {
+                final byte[] month = MONTHS[k];
+                if ((buffer.get(pos) | 0x20) == month[0] && (buffer.get(pos + 1) | 0x20) == month[1] && (buffer.get(pos + 2) | 0x20) == month[2]) {
+                    pos += 3;
+                    return k + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Skips a structured data element, including any escaped
+         * characters in the parameter values.
+         */
+        private boolean skipStructuredDataElement() {
+            boolean inValue = false;
+            for (pos++; pos < end; pos++) {
+                final byte b = buffer.get(pos);
+                if (inValue) {
+                    if (b == '\\') {
+                        pos++;
+                    } else if (b == '"') {
+                        inValue = false;
+                    }
+                } else if (b == '"') {
+                    inValue = true;
+                } else if (b == ']') {
+                    pos++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String ascii(final int from, final int to) {
+            return decode(from, to, StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Decodes the remaining bytes, without leading and trailing white space.
+         */
+        private String trimmed(final Charset charset) {
+            int from = pos;
+            int to = end;
+            while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+                from++;
+            }
+            while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+                to--;
+            }
+            pos = end;
+            return decode(from, to, charset);
+        }
+
+        private String decode(final int from, final int to, final Charset charset) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + from, to - from, charset);
+            }
+            final byte[] bytes = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                bytes[i - from] = buffer.get(i);
+            }
+            return new String(bytes, charset);
+        }
+    }
+}
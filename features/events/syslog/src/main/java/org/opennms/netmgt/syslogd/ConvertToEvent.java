@@ -33,6 +33,8 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -137,37 +139,43 @@ public class ConvertToEvent {
         final String data,
         final SyslogdConfig config
     ) throws UnsupportedEncodingException, MessageDiscardedException {
+        this(systemId, location, parse(config, data), config);
+    }
 
-        if (config == null) {
-            throw new IllegalArgumentException("Config cannot be null");
-        }
+    /**
+     * Constructs a new event encapsulation instance based upon the
+     * information passed to the method. When the configured parser is the
+     * {@link ByteBufferSyslogParser}, the message is parsed directly from the
+     * buffer, otherwise it is decoded into a string using the <tt>US-ASCII</tt>
+     * character encoding. The position of the buffer is not modified.
+     *
+     * @param addr The remote agent's address.
+     * @param port The remote agent's port
+     * @param data The message in US-ASCII encoding.
+     * @throws MessageDiscardedException 
+     */
+    public ConvertToEvent(
+        final String systemId,
+        final String location,
+        final InetAddress addr,
+        final int port,
+        final ByteBuffer data,
+        final SyslogdConfig config
+    ) throws MessageDiscardedException {
+        this(systemId, location, parse(config, data), config);
+    }
 
-        String syslogString = data;
-        // Trim trailing nulls from the string
-        while (syslogString.endsWith("\0")) {
-            syslogString = syslogString.substring(0, syslogString.length() - 1);
-        }
+    private ConvertToEvent(
+        final String systemId,
+        final String location,
+        final SyslogMessage message,
+        final SyslogdConfig config
+    ) throws MessageDiscardedException {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Converting to event: {}", this);
         }
 
-        SyslogParser parser = SyslogParser.getParserInstance(config, syslogString);
-        if (!parser.find()) {
-            throw new MessageDiscardedException(String.format("Message does not match regex: '%s'", syslogString));
-        }
-        SyslogMessage message;
-        try {
-            message = parser.parse();
-        } catch (final SyslogParserException ex) {
-            LOG.debug("Unable to parse '{}'", syslogString, ex);
-            throw new MessageDiscardedException(ex);
-        }
-
-        if (message == null) {
-            throw new MessageDiscardedException(String.format("Unable to parse message: '%s'", syslogString));
-        }
-
         if (LOG.isDebugEnabled()) {
             LOG.debug("got syslog message {}", message);
         }
@@ -303,6 +311,52 @@ public class ConvertToEvent {
         m_event = bldr.getEvent();
     }
 
+    private static SyslogMessage parse(final SyslogdConfig config, final String data) throws MessageDiscardedException {
+        if (config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+
+        // Trim trailing nulls from the string
+        int length = data.length();
+        while (length > 0 && data.charAt(length - 1) == '\0') {
+            length--;
+        }
+        final String syslogString = data.substring(0, length);
+
+        SyslogParser parser = SyslogParser.getParserInstance(config, syslogString);
+        if (!parser.find()) {
+            throw new MessageDiscardedException(String.format("Message does not match regex: '%s'", syslogString));
+        }
+        SyslogMessage message;
+        try {
+            message = parser.parse();
+        } catch (final SyslogParserException ex) {
+            LOG.debug("Unable to parse '{}'", syslogString, ex);
+            throw new MessageDiscardedException(ex);
+        }
+
+        if (message == null) {
+            throw new MessageDiscardedException(String.format("Unable to parse message: '%s'", syslogString));
+        }
+        return message;
+    }
+
+    private static SyslogMessage parse(final SyslogdConfig config, final ByteBuffer data) throws MessageDiscardedException {
+        if (config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+
+        if (!ByteBufferSyslogParser.class.getName().equals(config.getParser())) {
+            return parse(config, StandardCharsets.US_ASCII.decode(data.duplicate()).toString());
+        }
+
+        final SyslogMessage message = ByteBufferSyslogParser.parse(data);
+        if (message == null) {
+            throw new MessageDiscardedException(String.format("Unable to parse message: '%s'", StandardCharsets.US_ASCII.decode(data.duplicate())));
+        }
+        return message;
+    }
+
     private static boolean matchFind(final String expression, final String input, final String context) {
         if (input == null) {
             return false;
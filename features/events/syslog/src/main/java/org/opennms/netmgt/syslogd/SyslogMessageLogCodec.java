@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opennms.core.xml.codec.CodecUtils;
+import org.opennms.core.xml.codec.MessageCodec;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+
+/**
+ * Binary encoding of the {@link SyslogMessageLogDTO}.
+ *
+ * Version 1:
+ * <pre>
+ * system-id, location, source-address, source-port, count, count * (has-timestamp, [timestamp], bytes)
+ * </pre>
+ */
+public class SyslogMessageLogCodec implements MessageCodec<SyslogMessageLogDTO> {
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public void encode(SyslogMessageLogDTO messageLog, DataOutput out) throws IOException {
+        CodecUtils.writeString(out, messageLog.getSystemId());
+        CodecUtils.writeString(out, messageLog.getLocation());
+        CodecUtils.writeInetAddress(out, messageLog.getSourceAddress());
+        CodecUtils.writeVarInt(out, messageLog.getSourcePort());
+
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        CodecUtils.writeVarInt(out, messages.size());
+        for (SyslogMessageDTO message : messages) {
+            final Date timestamp = message.getTimestamp();
+            out.writeBoolean(timestamp != null);
+            if (timestamp != null) {
+                CodecUtils.writeVarLong(out, timestamp.getTime());
+            }
+
+            // Like the ByteBufferXmlAdapter, encode the bytes from the start of the buffer
+            final ByteBuffer bytes = message.getBytes();
+            if (bytes == null) {
+                CodecUtils.writeBytes(out, null);
+            } else if (bytes.hasArray()) {
+                CodecUtils.writeBytes(out, bytes.array(), bytes.arrayOffset(), bytes.limit());
+            } else {
+                final ByteBuffer duplicate = bytes.duplicate();
+                duplicate.rewind();
+                final byte[] array = new byte[duplicate.remaining()];
+                duplicate.get(array);
+                CodecUtils.writeBytes(out, array);
+            }
+        }
+    }
+
+    @Override
+    public SyslogMessageLogDTO decode(DataInput in, int version) throws IOException {
+        final SyslogMessageLogDTO messageLog = new SyslogMessageLogDTO();
+        messageLog.setSystemId(CodecUtils.readString(in));
+        messageLog.setLocation(CodecUtils.readString(in));
+        messageLog.setSourceAddress(CodecUtils.readInetAddress(in));
+        messageLog.setSourcePort(CodecUtils.readVarInt(in));
+
+        final int count = CodecUtils.readCount(in);
+        final List<SyslogMessageDTO> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final SyslogMessageDTO message = new SyslogMessageDTO();
+            if (in.readBoolean()) {
+                message.setTimestamp(new Date(CodecUtils.readVarLong(in)));
+            }
+            final byte[] bytes = CodecUtils.readBytes(in);
+            if (bytes != null) {
+                message.setBytes(ByteBuffer.wrap(bytes));
+            }
+            messages.add(message);
+        }
+        messageLog.setMessages(messages);
+        return messageLog;
+    }
+}
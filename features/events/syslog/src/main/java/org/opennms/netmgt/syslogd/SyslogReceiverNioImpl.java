@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Receives syslog messages on several datagram channels, each with its own thread.
+ *
+ * When the JVM supports SO_REUSEPORT, every thread gets its own channel bound to the
+ * same port, and the kernel distributes the packets between them. Otherwise, or when
+ * this is disabled with {@link #setReusePort(boolean)}, all of the threads receive
+ * from a single channel.
+ *
+ * Each thread receives into its own direct buffer, which is reused for every packet,
+ * and only copies the bytes of the packet into the message that is dispatched.
+ *
+ * The number of threads defaults to the value of the
+ * <code>org.opennms.netmgt.syslogd.nio.threads</code> system property.
+ */
+public class SyslogReceiverNioImpl extends SinkDispatchingSyslogReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverNioImpl.class);
+
+    private static final MetricRegistry METRICS = new MetricRegistry();
+
+    /**
+     * Only available on Java 9 and above.
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
+    private final SyslogdConfig m_config;
+
+    private int m_numThreads = Integer.getInteger("org.opennms.netmgt.syslogd.nio.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private boolean m_reusePort = true;
+
+    private final List<DatagramChannel> m_channels = new CopyOnWriteArrayList<>();
+
+    private final List<Thread> m_threads = new CopyOnWriteArrayList<>();
+
+    private volatile boolean m_stop = false;
+
+    private final Meter m_packetMeter = METRICS.meter(MetricRegistry.name(getClass(), "packets"));
+
+    private final Meter m_droppedMeter = METRICS.meter(MetricRegistry.name(getClass(), "dropped"));
+
+    private final Histogram m_packetSizeHistogram = METRICS.histogram(MetricRegistry.name(getClass(), "packetSize"));
+
+    public SyslogReceiverNioImpl(final SyslogdConfig config) {
+        super(config);
+        m_config = config;
+    }
+
+    public void setNumThreads(int numThreads) {
+        if (numThreads > 0) {
+            m_numThreads = numThreads;
+        }
+    }
+
+    /**
+     * Whether every thread should get its own channel when SO_REUSEPORT is
+     * supported. When disabled, all of the threads share a single channel.
+     */
+    public void setReusePort(boolean reusePort) {
+        m_reusePort = reusePort;
+    }
+
+    @Override
+    public String getName() {
+        String listenAddress = (m_config.getListenAddress() != null && m_config.getListenAddress().length() > 0) ? m_config.getListenAddress() : "0.0.0.0";
+        return getClass().getSimpleName() + " [" + listenAddress + ":" + m_config.getSyslogPort() + "]";
+    }
+
+    public long getPacketsReceived() {
+        return m_packetMeter.getCount();
+    }
+
+    public long getPacketsDropped() {
+        return m_droppedMeter.getCount();
+    }
+
+    /**
+     * @return the number of channels that were opened by {@link #run()}
+     */
+    public int getChannelCount() {
+        return m_channels.size();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        m_stop = true;
+
+        // Closing the channels wakes up the threads
+        closeChannels();
+        for (Thread thread : m_threads) {
+            LOG.debug("Stopping and joining thread {}", thread.getName());
+            thread.interrupt();
+            thread.join();
+        }
+        m_channels.clear();
+        m_threads.clear();
+
+        super.stop();
+    }
+
+    /**
+     * Opens the channels and starts the receiver threads, then waits
+     * for them to exit.
+     */
+    @Override
+    public void run() {
+        // Setup logging and create the dispatcher
+        super.run();
+
+        if (m_stop) {
+            LOG.debug("Stop flag set before thread started, exiting");
+            return;
+        }
+
+        final boolean reusePort = m_reusePort && m_numThreads > 1 && SO_REUSEPORT != null;
+        final int numChannels = reusePort ? m_numThreads : 1;
+        try {
+            for (int i = 0; i < numChannels; i++) {
+                m_channels.add(openChannel(reusePort));
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to open the syslog channel(s) on {}", getName(), e);
+            closeChannels();
+            m_channels.clear();
+            return;
+        }
+        LOG.info("Receiving syslog messages on {} with {} channel(s) and {} thread(s).", getName(), numChannels, m_numThreads);
+
+        for (int i = 0; i < m_numThreads; i++) {
+            final DatagramChannel channel = m_channels.get(i % numChannels);
+            final Thread thread = new Thread(() -> receive(channel), "SyslogReceiverNio-" + i);
+            m_threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : m_threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                LOG.debug("Interrupted, stopping the receiver threads");
+                m_stop = true;
+                closeChannels();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        LOG.debug("Thread context exiting");
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : m_channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close channel {}", channel, e);
+            }
+        }
+    }
+
+    private DatagramChannel openChannel(boolean reusePort) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            // Set SO_REUSEADDR so that we don't run into problems in
+            // unit tests trying to rebind to an address where other tests
+            // also bound. This shouldn't have any effect at runtime.
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                channel.setOption(SO_REUSEPORT, true);
+            }
+
+            // Increase the receive buffer for the socket
+            try {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.MAX_VALUE);
+                LOG.debug("Actual receive buffer size is {}", channel.getOption(StandardSocketOptions.SO_RCVBUF));
+            } catch (IOException e) {
+                LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
+            }
+
+            if (m_config.getListenAddress() != null && m_config.getListenAddress().length() != 0) {
+                channel.bind(new InetSocketAddress(InetAddressUtils.addr(m_config.getListenAddress()), m_config.getSyslogPort()));
+            } else {
+                channel.bind(new InetSocketAddress(m_config.getSyslogPort()));
+            }
+            return channel;
+        } catch (IOException|RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void receive(DatagramChannel channel) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(SyslogConnection.MAX_PACKET_SIZE);
+        while (!m_stop) {
+            final InetSocketAddress source;
+            try {
+                buffer.clear();
+                source = (InetSocketAddress)channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                // Thrown when the channel is closed during shutdown
+                break;
+            } catch (IOException e) {
+                if (m_stop) {
+                    break;
+                }
+                LOG.warn("An I/O exception occured while receiving syslog messages.", e);
+                continue;
+            }
+            buffer.flip();
+
+            m_packetMeter.mark();
+            m_packetSizeHistogram.update(buffer.remaining());
+
+            // The buffer is reused, so copy the packet into the message
+            final byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            try {
+                m_dispatcher.send(new SyslogConnection(source, ByteBuffer.wrap(data)));
+            } catch (RuntimeException e) {
+                m_droppedMeter.mark();
+                LOG.warn("Failed to dispatch syslog message from {}.", source, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
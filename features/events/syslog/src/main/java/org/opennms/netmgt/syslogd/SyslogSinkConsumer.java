@@ -30,8 +30,6 @@ package org.opennms.netmgt.syslogd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
@@ -56,6 +54,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -80,11 +79,15 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private final Timer consumerTimer;
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
+    private final Meter parsedMeter;
+    private final Meter discardedMeter;
 
     public SyslogSinkConsumer(MetricRegistry registry) {
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
+        parsedMeter = registry.meter("consumer.parsed");
+        discardedMeter = registry.meter("consumer.discarded");
         localAddr = InetAddressUtils.getLocalHostName();
     }
 
@@ -122,17 +125,18 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                         messageLog.getLocation(),
                         messageLog.getSourceAddress(),
                         messageLog.getSourcePort(),
-                        // Decode the packet content as ASCII
+                        // The packet content is decoded as ASCII, unless the parser works on the bytes
                         // TODO: Support more character encodings?
-                        StandardCharsets.US_ASCII.decode(message.getBytes()).toString(),
+                        message.getBytes(),
                         syslogdConfig
                     );
                 events.addEvent(re.getEvent());
-            } catch (final UnsupportedEncodingException e) {
-                LOG.info("Failure to convert package", e);
+                parsedMeter.mark();
             } catch (final MessageDiscardedException e) {
+                discardedMeter.mark();
                 LOG.info("Message discarded, returning without enqueueing event.", e);
             } catch (final Throwable e) {
+                discardedMeter.mark();
                 LOG.error("Unexpected exception while processing SyslogConnection", e);
             }
         }
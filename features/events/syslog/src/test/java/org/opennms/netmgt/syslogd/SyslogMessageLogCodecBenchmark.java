@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.syslogd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opennms.core.xml.codec.MessageEncoding;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the encodings of the {@link SyslogSinkModule} on a batch built
+ * from the captured messages in syslogMessages.txt. The size of the encoded
+ * batch is logged during the setup of each trial.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.syslogd.SyslogMessageLogCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SyslogMessageLogCodecBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMessageLogCodecBenchmark.class);
+
+    @Param({"XML", "COMPRESSED_XML", "BINARY", "COMPRESSED_BINARY"})
+    public String encoding;
+
+    private SyslogSinkModule m_module;
+
+    private SyslogMessageLogDTO m_messageLog;
+
+    private byte[] m_encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        m_module = new SyslogSinkModule(Mockito.mock(SyslogdConfig.class), Mockito.mock(DistPollerDao.class));
+        m_module.setEncoding(MessageEncoding.valueOf(encoding));
+
+        m_messageLog = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000ddba11",
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 514));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/syslogMessages.txt"), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                    continue;
+                }
+                final SyslogMessageDTO message = new SyslogMessageDTO(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+                message.setTimestamp(new Date());
+                m_messageLog.getMessages().add(message);
+            }
+        }
+
+        m_encoded = m_module.marshalToBytes(m_messageLog);
+        LOG.info("{}: {} messages encoded in {} bytes", encoding, m_messageLog.getMessages().size(), m_encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return m_module.marshalToBytes(m_messageLog);
+    }
+
+    @Benchmark
+    public SyslogMessageLogDTO decode() {
+        return m_module.unmarshalFromBytes(m_encoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(SyslogMessageLogCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
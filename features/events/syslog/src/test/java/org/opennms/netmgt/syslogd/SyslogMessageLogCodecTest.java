@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennms.core.xml.codec.MessageEncoding;
+import org.opennms.core.xml.codec.MessageMarshaller;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+
+public class SyslogMessageLogCodecTest {
+
+    private SyslogSinkModule module;
+
+    private SyslogMessageLogDTO messageLog;
+
+    @Before
+    public void setUp() throws Exception {
+        module = new SyslogSinkModule(Mockito.mock(SyslogdConfig.class), Mockito.mock(DistPollerDao.class));
+
+        messageLog = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000ddba11",
+                new InetSocketAddress(InetAddress.getByName("192.168.0.1"), 514));
+
+        final SyslogMessageDTO heapMessage = new SyslogMessageDTO(ByteBuffer.wrap(
+                "<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - 'su root' failed on /dev/pts/8"
+                .getBytes(StandardCharsets.US_ASCII)));
+        heapMessage.setTimestamp(new Date(1065910455003L));
+        messageLog.getMessages().add(heapMessage);
+
+        // Messages read by the NIO listener are backed by direct buffers
+        final byte[] bytes = "<13>Oct 11 22:14:15 mymachine test: a message".getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+        directBuffer.put(bytes).flip();
+        messageLog.getMessages().add(new SyslogMessageDTO(directBuffer));
+    }
+
+    @Test
+    public void canRoundTripWithAllEncodings() {
+        for (MessageEncoding encoding : MessageEncoding.values()) {
+            module.setEncoding(encoding);
+            final byte[] bytes = module.marshalToBytes(messageLog);
+            assertEquals(encoding.toString(), encoding != MessageEncoding.XML, MessageMarshaller.isEncoded(bytes));
+            assertEquals(encoding.toString(), messageLog, module.unmarshalFromBytes(bytes));
+        }
+    }
+
+    @Test
+    public void canReadLegacyXml() {
+        module.setEncoding(MessageEncoding.BINARY);
+        final byte[] xml = module.marshal(messageLog).getBytes(StandardCharsets.UTF_8);
+        assertFalse(MessageMarshaller.isEncoded(xml));
+        assertEquals(messageLog, module.unmarshalFromBytes(xml));
+    }
+
+    @Test
+    public void binaryIsSmallerThanXml() {
+        module.setEncoding(MessageEncoding.XML);
+        final int xmlSize = module.marshalToBytes(messageLog).length;
+        module.setEncoding(MessageEncoding.BINARY);
+        final int binarySize = module.marshalToBytes(messageLog).length;
+        assertTrue("binary: " + binarySize + ", xml: " + xmlSize, binarySize < xmlSize);
+    }
+}
@@ -29,12 +29,15 @@
 package org.opennms.netmgt.syslogd;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -344,4 +347,82 @@ public class SyslogMessageTest {
         assertEquals(Integer.valueOf(1317), message.getProcessId());
         assertEquals("CFMD_CCM_DEFECT_RMEP", message.getMessageID());
     }
+
+    @Test
+    public void testByteBufferParserRfc5424() throws Exception {
+        final SyslogParser parser = new ByteBufferSyslogParser(m_config, "<165>1 2003-10-11T22:14:15.000003-00:00 192.0.2.1 myproc 8710 - [exampleSDID@32473 iut=\"3\" eventSource=\"Appli\\]cation\"] %% It's time to make the do-nuts.");
+        assertTrue(parser.find());
+        final SyslogMessage message = parser.parse();
+
+        assertEquals(SyslogFacility.LOCAL4, message.getFacility());
+        assertEquals(SyslogSeverity.NOTICE, message.getSeverity());
+        assertEquals(1, message.getVersion().intValue());
+        assertEquals(new Date(1065910455000L), message.getDate());
+        assertEquals("192.0.2.1", message.getHostName());
+        assertEquals("myproc", message.getProcessName());
+        assertEquals(8710, message.getProcessId().intValue());
+        assertEquals(null, message.getMessageID());
+        assertEquals("%% It's time to make the do-nuts.", message.getMessage());
+    }
+
+    @Test
+    public void testByteBufferParserRfc5424WithBom() throws Exception {
+        final byte[] prefix = "<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - ".getBytes(StandardCharsets.US_ASCII);
+        final byte[] bom = new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF };
+        final byte[] text = "'su root' failed for l\u00f6nvick\0\0".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(prefix.length + bom.length + text.length);
+        buffer.put(prefix).put(bom).put(text).flip();
+
+        final SyslogMessage message = ByteBufferSyslogParser.parse(buffer);
+        assertEquals(0, buffer.position());
+        assertEquals(SyslogFacility.AUTH, message.getFacility());
+        assertEquals(SyslogSeverity.CRITICAL, message.getSeverity());
+        assertEquals(new Date(1065910455003L), message.getDate());
+        assertEquals("mymachine.example.com", message.getHostName());
+        assertEquals("su", message.getProcessName());
+        assertEquals(null, message.getProcessId());
+        assertEquals("ID47", message.getMessageID());
+        assertEquals("'su root' failed for l\u00f6nvick", message.getMessage());
+    }
+
+    @Test
+    public void testByteBufferParserRfc3164() throws Exception {
+        final SyslogParser parser = new ByteBufferSyslogParser(m_config, "<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: Configuration saved to database initial");
+        assertTrue(parser.find());
+        final SyslogMessage message = parser.parse();
+        final Calendar calendar = new GregorianCalendar();
+        calendar.set(Calendar.MONTH, 11);
+        calendar.set(Calendar.DATE, 7);
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        calendar.set(Calendar.MINUTE, 2);
+        calendar.set(Calendar.SECOND, 6);
+        calendar.set(Calendar.MILLISECOND, 0);
+
+        assertEquals(SyslogFacility.LOCAL5, message.getFacility());
+        assertEquals(SyslogSeverity.NOTICE, message.getSeverity());
+        assertEquals(null, message.getMessageID());
+        assertEquals(calendar.getTime(), message.getDate());
+        assertEquals("10.13.110.116", message.getHostName());
+        assertEquals("mgmtd", message.getProcessName());
+        assertEquals(8326, message.getProcessId().intValue());
+        assertEquals("[mgmtd.NOTICE]: Configuration saved to database initial", message.getMessage());
+    }
+
+    @Test
+    public void testByteBufferParserRfc3164WithoutHost() throws Exception {
+        final SyslogMessage message = new ByteBufferSyslogParser(m_config, "<0>Mar 14 17:10:25 sudo:  cyrille : user NOT in sudoers").parse();
+        assertEquals(SyslogFacility.KERNEL, message.getFacility());
+        assertEquals(SyslogSeverity.EMERGENCY, message.getSeverity());
+        assertEquals(null, message.getHostName());
+        assertEquals("sudo", message.getProcessName());
+        assertEquals(null, message.getProcessId());
+        assertEquals("cyrille : user NOT in sudoers", message.getMessage());
+    }
+
+    @Test
+    public void testByteBufferParserInvalid() throws Exception {
+        assertFalse(new ByteBufferSyslogParser(m_config, "no priority").find());
+        assertFalse(new ByteBufferSyslogParser(m_config, "<1234>Mar 14 17:10:25 host sudo: message").find());
+        assertNull(ByteBufferSyslogParser.parse(ByteBuffer.wrap("<34>1 2003-10-11T22:14:15.003Z host".getBytes(StandardCharsets.US_ASCII))));
+    }
 }
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opennms.netmgt.config.SyslogdConfig;
+
+/**
+ * Compares the syslog parsers on the captured messages in syslogMessages.txt,
+ * starting from the bytes of the packets, as received by the listeners.
+ *
+ * The regular expression based parsers include the decoding of the message
+ * to a string. The GC profiler is enabled so that the allocation rate per
+ * operation (gc.alloc.rate.norm) is reported along with the throughput.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.syslogd.SyslogParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SyslogParserBenchmark {
+
+    @Param({"CustomSyslogParser", "JuniperSyslogParser", "Rfc5424SyslogParser", "ByteBufferSyslogParser"})
+    public String parser;
+
+    private SyslogdConfig m_config;
+
+    private final List<ByteBuffer> m_packets = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final SyslogConfigBean config = new SyslogConfigBean();
+        config.setParser(SyslogParserBenchmark.class.getPackage().getName() + "." + parser);
+        if (!"Rfc5424SyslogParser".equals(parser)) {
+            config.setForwardingRegexp("^.*\\s(19|20)\\d\\d([-/.])(0[1-9]|1[012])\\2(0[1-9]|[12][0-9]|3[01])(\\s+)(\\S+)(\\s)(\\S.+)");
+            config.setMatchingGroupHost(6);
+            config.setMatchingGroupMessage(8);
+        }
+        config.setDiscardUei("DISCARD-MATCHING-MESSAGES");
+        m_config = config;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/syslogMessages.txt"), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Ignore comments and blank lines, like ConvertToEventTest
+                if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                    continue;
+                }
+                m_packets.add(ByteBuffer.wrap(line.replaceAll("\\x00", "\0").getBytes(StandardCharsets.US_ASCII)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        if ("ByteBufferSyslogParser".equals(parser)) {
+            for (ByteBuffer packet : m_packets) {
+                blackhole.consume(ByteBufferSyslogParser.parse(packet));
+            }
+        } else {
+            for (ByteBuffer packet : m_packets) {
+                final String text = StandardCharsets.US_ASCII.decode(packet.duplicate()).toString();
+                try {
+                    final SyslogParser syslogParser = SyslogParser.getParserInstance(m_config, text);
+                    blackhole.consume(syslogParser.find() ? syslogParser.parse() : null);
+                } catch (MessageDiscardedException|SyslogParserException e) {
+                    blackhole.consume(e);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(SyslogParserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.StandardSocketOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+
+/**
+ * Sends datagrams to a {@link SyslogReceiverNioImpl} and verifies that they
+ * are dispatched and counted, with one or more channels and threads.
+ */
+public class SyslogReceiverNioImplIT {
+
+    private static final String THREAD_PREFIX = "SyslogReceiverNio-";
+
+    private final List<String> m_dispatched = new CopyOnWriteArrayList<>();
+
+    private AsyncDispatcher<SyslogConnection> m_dispatcher;
+
+    private SyslogReceiverNioImpl m_receiver;
+
+    private Thread m_receiverThread;
+
+    private int m_port;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        // Pick a port that is free
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            m_port = socket.getLocalPort();
+        }
+
+        m_dispatcher = mock(AsyncDispatcher.class);
+        when(m_dispatcher.send(any(SyslogConnection.class))).thenAnswer(invocation -> {
+            final SyslogConnection connection = (SyslogConnection)invocation.getArguments()[0];
+            final String message = StandardCharsets.US_ASCII.decode(connection.getBuffer().duplicate()).toString();
+            if (message.contains("reject")) {
+                throw new IllegalStateException("dispatch failed");
+            }
+            m_dispatched.add(message);
+            return CompletableFuture.completedFuture(connection);
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_receiver != null) {
+            m_receiver.stop();
+            m_receiverThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test(timeout=30000)
+    public void canReceiveWithOneThread() throws Exception {
+        startReceiver(1, true);
+        assertEquals(1, m_receiver.getChannelCount());
+        assertEquals(1, getReceiverThreadCount());
+
+        sendAndVerify(100, 1);
+    }
+
+    @Test(timeout=30000)
+    public void canReceiveWithOneChannelPerThread() throws Exception {
+        Assume.assumeTrue("SO_REUSEPORT is not supported by this JVM", isReusePortSupported());
+
+        startReceiver(4, true);
+        assertEquals(4, m_receiver.getChannelCount());
+        assertEquals(4, getReceiverThreadCount());
+
+        // Use several sources, the kernel picks the channel using the source address and port
+        sendAndVerify(400, 8);
+    }
+
+    @Test(timeout=30000)
+    public void canReceiveWithManyThreadsOnOneChannel() throws Exception {
+        startReceiver(4, false);
+        assertEquals(1, m_receiver.getChannelCount());
+        assertEquals(4, getReceiverThreadCount());
+
+        sendAndVerify(400, 8);
+    }
+
+    @Test(timeout=30000)
+    public void failedDispatchesAreCountedAsDropped() throws Exception {
+        startReceiver(2, true);
+        final long received = m_receiver.getPacketsReceived();
+        final long dropped = m_receiver.getPacketsDropped();
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            send(socket, "<13>Mar 25 21:00:00 localhost test: accept");
+            send(socket, "<13>Mar 25 21:00:01 localhost test: reject");
+            send(socket, "<13>Mar 25 21:00:02 localhost test: accept");
+        }
+
+        waitFor(() -> m_receiver.getPacketsReceived() - received == 3);
+        waitFor(() -> m_dispatched.size() == 2);
+        assertEquals(1, m_receiver.getPacketsDropped() - dropped);
+    }
+
+    @Test(timeout=30000)
+    public void stopClosesTheChannelsAndJoinsTheThreads() throws Exception {
+        startReceiver(4, true);
+        assertEquals(4, getReceiverThreadCount());
+
+        m_receiver.stop();
+        m_receiverThread.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(m_receiverThread.isAlive());
+        assertEquals(0, getReceiverThreadCount());
+        assertEquals(0, m_receiver.getChannelCount());
+        verify(m_dispatcher).close();
+
+        // The port must have been released
+        try (DatagramSocket socket = new DatagramSocket(m_port, InetAddress.getLoopbackAddress())) {
+            assertTrue(socket.isBound());
+        }
+        m_receiver = null;
+    }
+
+    private void startReceiver(int numThreads, boolean reusePort) throws Exception {
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getListenAddress()).thenReturn(InetAddress.getLoopbackAddress().getHostAddress());
+        when(config.getSyslogPort()).thenReturn(m_port);
+
+        final MessageDispatcherFactory messageDispatcherFactory = mock(MessageDispatcherFactory.class);
+        when(messageDispatcherFactory.createAsyncDispatcher(any(SyslogSinkModule.class))).thenReturn(m_dispatcher);
+
+        m_receiver = new SyslogReceiverNioImpl(config);
+        m_receiver.setNumThreads(numThreads);
+        m_receiver.setReusePort(reusePort);
+        m_receiver.setDistPollerDao(mock(DistPollerDao.class));
+        m_receiver.setMessageDispatcherFactory(messageDispatcherFactory);
+
+        m_receiverThread = new Thread(m_receiver, "SyslogReceiverNioImplIT");
+        m_receiverThread.start();
+
+        final int numChannels = reusePort && numThreads > 1 && isReusePortSupported() ? numThreads : 1;
+        waitFor(() -> m_receiver.getChannelCount() == numChannels && getReceiverThreadCount() == numThreads);
+    }
+
+    private void sendAndVerify(int numMessages, int numSources) throws Exception {
+        final long received = m_receiver.getPacketsReceived();
+        final long dropped = m_receiver.getPacketsDropped();
+
+        final DatagramSocket[] sockets = new DatagramSocket[numSources];
+        try {
+            for (int i = 0; i < numSources; i++) {
+                sockets[i] = new DatagramSocket();
+            }
+            for (int i = 0; i < numMessages; i++) {
+                send(sockets[i % numSources], "<13>Mar 25 21:00:00 localhost test: message " + i);
+                if (i % 50 == 49) {
+                    // Send in bursts so that we don't overrun the receive buffers
+                    final int sent = i + 1;
+                    waitFor(() -> m_dispatched.size() >= sent);
+                }
+            }
+        } finally {
+            for (DatagramSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+
+        waitFor(() -> m_dispatched.size() == numMessages);
+        assertEquals(numMessages, m_receiver.getPacketsReceived() - received);
+        assertEquals(0, m_receiver.getPacketsDropped() - dropped);
+        for (int i = 0; i < numMessages; i++) {
+            assertTrue("message " + i + " was not dispatched", m_dispatched.contains("<13>Mar 25 21:00:00 localhost test: message " + i));
+        }
+    }
+
+    private void send(DatagramSocket socket, String message) throws Exception {
+        final byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        socket.send(new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), m_port));
+    }
+
+    private static int getReceiverThreadCount() {
+        return (int)Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith(THREAD_PREFIX) && t.isAlive())
+                .count();
+    }
+
+    private static boolean isReusePortSupported() {
+        try {
+            return StandardSocketOptions.class.getField("SO_REUSEPORT") != null;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for the condition");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.util.KeyValueHolder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.ipc.sink.api.MessageConsumer;
+import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.mock.MockMessageDispatcherFactory;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.camel.CamelBlueprintTest;
+import org.opennms.minion.core.api.MinionIdentity;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.springframework.test.context.ContextConfiguration;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/META-INF/opennms/emptyContext.xml" })
+public class SyslogdReceiverNioBlueprintIT extends CamelBlueprintTest {
+
+    private static final int NUM_RECEIVER_THREADS = 4;
+
+    private final int m_port = getFreePort();
+
+    private final List<SyslogMessageLogDTO> m_messageLogs = new CopyOnWriteArrayList<>();
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected void addServicesOnStartup(Map<String, KeyValueHolder<Object, Dictionary>> services) {
+        // Register any mock OSGi services here
+        final MockMessageDispatcherFactory<SyslogConnection, SyslogMessageLogDTO> messageDispatcherFactory = new MockMessageDispatcherFactory<>();
+        messageDispatcherFactory.setConsumer(new MessageConsumer<SyslogConnection, SyslogMessageLogDTO>() {
+            @Override
+            public SinkModule<SyslogConnection, SyslogMessageLogDTO> getModule() {
+                return null;
+            }
+
+            @Override
+            public void handleMessage(SyslogMessageLogDTO messageLog) {
+                m_messageLogs.add(messageLog);
+            }
+        });
+        final DistPollerDao distPollerDao = mock(DistPollerDao.class);
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller("00000000-0000-0000-0000-000000000000"));
+        final MinionIdentity minionIdentity = mock(MinionIdentity.class);
+        services.put(MessageDispatcherFactory.class.getName(),
+                new KeyValueHolder<Object, Dictionary>(messageDispatcherFactory, new Properties()));
+        services.put(DistPollerDao.class.getName(),
+                new KeyValueHolder<Object, Dictionary>(distPollerDao, new Properties()));
+        services.put(MinionIdentity.class.getName(),
+                new KeyValueHolder<Object, Dictionary>(minionIdentity, new Properties()));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected String useOverridePropertiesWithConfigAdmin(Dictionary props) throws Exception {
+        props.put("syslog.listen.interface", InetAddress.getLoopbackAddress().getHostAddress());
+        props.put("syslog.listen.port", String.valueOf(m_port));
+        props.put("syslog.receiver.threads", String.valueOf(NUM_RECEIVER_THREADS));
+        props.put("syslog.batch.size", "1");
+        props.put("syslog.batch.interval", "100");
+        return "org.opennms.netmgt.syslog";
+    }
+
+    // The location of our Blueprint XML files to be used for testing
+    @Override
+    protected String getBlueprintDescriptor() {
+        return "file:blueprint-syslog-listener-nio.xml,blueprint-empty-camel-context.xml";
+    }
+
+    @Test(timeout=60000)
+    public void testSyslogd() throws Exception {
+        final SyslogReceiverNioImpl receiver = (SyslogReceiverNioImpl)getOsgiService(SyslogReceiver.class);
+        waitForChannels(receiver);
+        final long received = receiver.getPacketsReceived();
+
+        final int numMessages = 100;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            for (int i = 0; i < numMessages; i++) {
+                final byte[] bytes = ("<13>Mar 25 21:00:00 localhost test: message " + i).getBytes(StandardCharsets.US_ASCII);
+                socket.send(new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), m_port));
+            }
+        }
+
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (getNumMessagesDispatched() < numMessages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(numMessages, getNumMessagesDispatched());
+        assertEquals(numMessages, receiver.getPacketsReceived() - received);
+        for (SyslogMessageLogDTO messageLog : m_messageLogs) {
+            assertEquals("Default", messageLog.getLocation());
+        }
+    }
+
+    private void waitForChannels(SyslogReceiverNioImpl receiver) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (receiver.getChannelCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int getNumMessagesDispatched() {
+        return m_messageLogs.stream().mapToInt(l -> l.getMessages().size()).sum();
+    }
+
+    private static int getFreePort() {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        } catch (SocketException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.opennms.core.xml.codec.CodecUtils;
+import org.opennms.core.xml.codec.MessageCodec;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+
+/**
+ * Binary encoding of the {@link TrapLogDTO}.
+ *
+ * Version 1:
+ * <pre>
+ * system-id, location, trap-address, count, count * trap
+ *
+ * trap: agent-address, community, version, timestamp, pdu-length, creation-time, raw-message,
+ *       has-identity, [generic, specific, enterprise-id], count, count * result
+ *
+ * result: base, instance, has-value, [type, bytes]
+ * </pre>
+ * The object ids are written as arrays of integers, and the values as their type and
+ * bytes, like the {@link org.opennms.netmgt.snmp.SnmpValueXmlAdapter}.
+ */
+public class TrapLogCodec implements MessageCodec<TrapLogDTO> {
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public void encode(TrapLogDTO trapLog, DataOutput out) throws IOException {
+        CodecUtils.writeString(out, trapLog.getSystemId());
+        CodecUtils.writeString(out, trapLog.getLocation());
+        CodecUtils.writeInetAddress(out, trapLog.getTrapAddress());
+
+        final List<TrapDTO> traps = trapLog.getMessages();
+        CodecUtils.writeVarInt(out, traps.size());
+        for (TrapDTO trap : traps) {
+            encodeTrap(trap, out);
+        }
+    }
+
+    @Override
+    public TrapLogDTO decode(DataInput in, int version) throws IOException {
+        final TrapLogDTO trapLog = new TrapLogDTO();
+        trapLog.setSystemId(CodecUtils.readString(in));
+        trapLog.setLocation(CodecUtils.readString(in));
+        trapLog.setTrapAddress(CodecUtils.readInetAddress(in));
+
+        final int count = CodecUtils.readCount(in);
+        for (int i = 0; i < count; i++) {
+            trapLog.addMessage(decodeTrap(in));
+        }
+        return trapLog;
+    }
+
+    private static void encodeTrap(TrapDTO trap, DataOutput out) throws IOException {
+        CodecUtils.writeInetAddress(out, trap.getAgentAddress());
+        CodecUtils.writeString(out, trap.getCommunity());
+        CodecUtils.writeString(out, trap.getVersion());
+        CodecUtils.writeVarLong(out, trap.getTimestamp());
+        CodecUtils.writeVarInt(out, trap.getPduLength());
+        CodecUtils.writeVarLong(out, trap.getCreationTime());
+        CodecUtils.writeBytes(out, trap.getRawMessage());
+
+        final TrapIdentityDTO identity = trap.getTrapIdentity();
+        out.writeBoolean(identity != null);
+        if (identity != null) {
+            CodecUtils.writeVarInt(out, identity.getGeneric());
+            CodecUtils.writeVarInt(out, identity.getSpecific());
+            CodecUtils.writeString(out, identity.getEnterpriseId());
+        }
+
+        final List<SnmpResult> results = trap.getResults();
+        CodecUtils.writeVarInt(out, results.size());
+        for (SnmpResult result : results) {
+            CodecUtils.writeIntArray(out, result.getBase() != null ? result.getBase().getIds() : null);
+            CodecUtils.writeIntArray(out, result.getInstance() != null ? result.getInstance().getIds() : null);
+            final SnmpValue value = result.getValue();
+            out.writeBoolean(value != null);
+            if (value != null) {
+                CodecUtils.writeVarInt(out, value.getType());
+                CodecUtils.writeBytes(out, value.getBytes());
+            }
+        }
+    }
+
+    private static TrapDTO decodeTrap(DataInput in) throws IOException {
+        final TrapDTO trap = new TrapDTO();
+        trap.setAgentAddress(CodecUtils.readInetAddress(in));
+        trap.setCommunity(CodecUtils.readString(in));
+        trap.setVersion(CodecUtils.readString(in));
+        trap.setTimestamp(CodecUtils.readVarLong(in));
+        trap.setPduLength(CodecUtils.readVarInt(in));
+        trap.setCreationTime(CodecUtils.readVarLong(in));
+        trap.setRawMessage(CodecUtils.readBytes(in));
+
+        if (in.readBoolean()) {
+            final TrapIdentityDTO identity = new TrapIdentityDTO();
+            identity.setGeneric(CodecUtils.readVarInt(in));
+            identity.setSpecific(CodecUtils.readVarInt(in));
+            identity.setEnterpriseId(CodecUtils.readString(in));
+            trap.setTrapIdentity(identity);
+        }
+
+        final int count = CodecUtils.readCount(in);
+        final List<SnmpResult> results = trap.getResults();
+        for (int i = 0; i < count; i++) {
+            final int[] base = CodecUtils.readIntArray(in);
+            final int[] instance = CodecUtils.readIntArray(in);
+            SnmpValue value = null;
+            if (in.readBoolean()) {
+                final int type = CodecUtils.readVarInt(in);
+                value = SnmpUtils.getValueFactory().getValue(type, CodecUtils.readBytes(in));
+            }
+            results.add(new SnmpResult(base != null ? SnmpObjId.get(base) : null,
+                    instance != null ? new SnmpInstId(instance) : null, value));
+        }
+        return trap;
+    }
+}
@@ -52,7 +52,7 @@ public class TrapSinkModule extends AbstractXmlSinkModule<TrapInformationWrapper
     private OnmsDistPoller distPoller;
 
     public TrapSinkModule(TrapdConfig trapdConfig, OnmsDistPoller distPoller) {
-        super(TrapLogDTO.class);
+        super(TrapLogDTO.class, new TrapLogCodec());
         this.config = Objects.requireNonNull(trapdConfig);
         this.distPoller = Objects.requireNonNull(distPoller);
     }
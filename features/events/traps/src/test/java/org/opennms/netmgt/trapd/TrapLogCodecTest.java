@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.xml.codec.MessageEncoding;
+import org.opennms.core.xml.codec.MessageMarshaller;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.snmp.TrapInformation;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JTrapNotifier;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+public class TrapLogCodecTest {
+
+    private TrapSinkModule module;
+
+    private TrapLogDTO trapLog;
+
+    @Before
+    public void setUp() {
+        final OnmsDistPoller distPoller = Mockito.mock(OnmsDistPoller.class);
+        Mockito.when(distPoller.getId()).thenReturn("00000000-0000-0000-0000-000000ddba11");
+        Mockito.when(distPoller.getLocation()).thenReturn("Default");
+        module = new TrapSinkModule(new TrapdConfigBean(), distPoller);
+
+        trapLog = new TrapLogDTO(distPoller.getId(), distPoller.getLocation(), InetAddressUtils.ONE_TWENTY_SEVEN);
+
+        final PDU v2Pdu = new PDU();
+        v2Pdu.setType(PDU.TRAP);
+        v2Pdu.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(5000)));
+        v2Pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, new OID(".1.3.6.1.4.1.5813.1.1")));
+        v2Pdu.add(new VariableBinding(SnmpConstants.snmpTrapAddress, new IpAddress("127.0.0.1")));
+        v2Pdu.add(new VariableBinding(new OID(".1.3.6.1.2.1.1.5.0"), new OctetString("Trap Msg v2 \u00e9")));
+        v2Pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.733.6.3.18.1.5.0"), new Integer32(-1)));
+        v2Pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.733.6.3.18.1.6.0"), new Counter64(Long.MAX_VALUE)));
+        v2Pdu.add(new VariableBinding(new OID(".1.3.6.1.2.1.1.5.1"), new Null(128)));
+        final TrapDTO v2Trap = new TrapDTO(new Snmp4JTrapNotifier.Snmp4JV2TrapInformation(
+                InetAddressUtils.ONE_TWENTY_SEVEN, "public", v2Pdu));
+        v2Trap.setRawMessage(new byte[] { 0x30, 0x26, 0x02, 0x01, 0x01 });
+        trapLog.addMessage(v2Trap);
+
+        final PDUv1 v1Pdu = new PDUv1();
+        v1Pdu.setType(PDU.V1TRAP);
+        v1Pdu.setEnterprise(new OID(".1.3.6.1.6.3.1.1.4.1.0"));
+        v1Pdu.setGenericTrap(6);
+        v1Pdu.setSpecificTrap(2);
+        v1Pdu.setTimestamp(5000);
+        v1Pdu.add(new VariableBinding(new OID(".1.3.6.1.2.1.1.5.0"), new OctetString("mockhost")));
+        final TrapInformation v1TrapInfo = new Snmp4JTrapNotifier.Snmp4JV1TrapInformation(
+                InetAddressUtils.ONE_TWENTY_SEVEN, null, v1Pdu);
+        trapLog.addMessage(new TrapDTO(v1TrapInfo));
+    }
+
+    @Test
+    public void canRoundTripWithAllEncodings() {
+        final String expectedXml = module.marshal(trapLog);
+        for (MessageEncoding encoding : MessageEncoding.values()) {
+            module.setEncoding(encoding);
+            final byte[] bytes = module.marshalToBytes(trapLog);
+            assertEquals(encoding.toString(), encoding != MessageEncoding.XML, MessageMarshaller.isEncoded(bytes));
+            // Compare the XML, the DTOs compare the raw messages by reference
+            assertEquals(encoding.toString(), expectedXml, module.marshal(module.unmarshalFromBytes(bytes)));
+        }
+    }
+
+    @Test
+    public void canReadLegacyXml() {
+        module.setEncoding(MessageEncoding.BINARY);
+        final byte[] xml = module.marshal(trapLog).getBytes(StandardCharsets.UTF_8);
+        assertFalse(MessageMarshaller.isEncoded(xml));
+        assertEquals(module.marshal(trapLog), module.marshal(module.unmarshalFromBytes(xml)));
+    }
+
+    @Test
+    public void binaryIsSmallerThanXml() {
+        module.setEncoding(MessageEncoding.XML);
+        final int xmlSize = module.marshalToBytes(trapLog).length;
+        module.setEncoding(MessageEncoding.BINARY);
+        final int binarySize = module.marshalToBytes(trapLog).length;
+        assertTrue("binary: " + binarySize + ", xml: " + xmlSize, binarySize * 3 < xmlSize);
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * A {@link Filter} that operates directly on the primitive arrays
+ * of a {@link ColumnarTable}.
+ *
+ * The table based API remains available to existing callers, and
+ * is implemented by converting the table to and from a {@link ColumnarTable}.
+ *
+ * This is an abstract class rather than an interface with a default method
+ * since the API is compiled for Java 7.
+ */
+public abstract class ColumnarFilter implements Filter {
+
+    /**
+     * Applies the filter to the given table.
+     *
+     * @return the filtered table, which may be the given table, a slice
+     * of the given table or an entirely new table
+     */
+    public abstract ColumnarTable filter(ColumnarTable table) throws Exception;
+
+    @Override
+    public void filter(RowSortedTable<Long, String, Double> qrAsTable) throws Exception {
+        final boolean hasTimestamps = qrAsTable.containsColumn(TIMESTAMP_COLUMN_NAME);
+        final long firstRowKey = qrAsTable.isEmpty() ? 0L : qrAsTable.rowKeySet().first();
+        final ColumnarTable results = filter(ColumnarTable.fromRowSortedTable(qrAsTable));
+        qrAsTable.clear();
+        results.copyTo(qrAsTable, firstRowKey, hasTimestamps);
+    }
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.TreeBasedTable;
+
+/**
+ * A column oriented view of the results of a fetch, backed by primitive arrays.
+ *
+ * The view covers a window of rows in the backing arrays, starting at {@link #getOffset()}.
+ * Slicing the table only moves this window, and never copies the values, so filters
+ * that need to index the arrays directly must add the offset to the row number.
+ *
+ * Tables created from {@link FetchResults} share the arrays with the results, and filters
+ * are free to modify the values in place.
+ */
+public class ColumnarTable {
+
+    private final long[] m_timestamps;
+
+    private final Map<String, double[]> m_columns;
+
+    private final int m_offset;
+
+    private final int m_rowCount;
+
+    public ColumnarTable(final long[] timestamps, final Map<String, double[]> columns) {
+        this(timestamps, Maps.newLinkedHashMap(Preconditions.checkNotNull(columns, "columns argument")), 0,
+                Preconditions.checkNotNull(timestamps, "timestamps argument").length);
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            Preconditions.checkArgument(column.getValue().length == m_timestamps.length,
+                    "column %s has %s rows, expected %s", column.getKey(), column.getValue().length, m_timestamps.length);
+        }
+    }
+
+    private ColumnarTable(final long[] timestamps, final Map<String, double[]> columns, final int offset, final int rowCount) {
+        m_timestamps = timestamps;
+        m_columns = columns;
+        m_offset = offset;
+        m_rowCount = rowCount;
+    }
+
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    /**
+     * Index of the first row of this table in the backing arrays.
+     */
+    public int getOffset() {
+        return m_offset;
+    }
+
+    /**
+     * @return the backing array of the timestamps, indexed from {@link #getOffset()}
+     */
+    public long[] getTimestamps() {
+        return m_timestamps;
+    }
+
+    public long getTimestamp(int row) {
+        return m_timestamps[m_offset + checkRow(row)];
+    }
+
+    public void setTimestamp(int row, long timestamp) {
+        m_timestamps[m_offset + checkRow(row)] = timestamp;
+    }
+
+    public Set<String> getColumnNames() {
+        return m_columns.keySet();
+    }
+
+    public boolean containsColumn(String columnName) {
+        return m_columns.containsKey(columnName);
+    }
+
+    /**
+     * @return the backing array of the column, indexed from {@link #getOffset()}, or null if
+     * there is no such column
+     */
+    public double[] getColumn(String columnName) {
+        return m_columns.get(columnName);
+    }
+
+    /**
+     * Retrieves the backing array of the column, adding the column with all NaN values
+     * if it does not already exist.
+     */
+    public double[] getOrCreateColumn(String columnName) {
+        double[] column = m_columns.get(columnName);
+        if (column == null) {
+            column = new double[m_timestamps.length];
+            Arrays.fill(column, Double.NaN);
+            m_columns.put(columnName, column);
+        }
+        return column;
+    }
+
+    /**
+     * @return the value in the given row, or NaN if there is no such column
+     */
+    public double get(String columnName, int row) {
+        final double[] column = m_columns.get(columnName);
+        return column == null ? Double.NaN : column[m_offset + checkRow(row)];
+    }
+
+    /**
+     * Returns a view of the rows in [fromRow, toRow) that shares the backing arrays with this table.
+     *
+     * Columns added to the view are not added to this table.
+     */
+    public ColumnarTable slice(int fromRow, int toRow) {
+        Preconditions.checkPositionIndexes(fromRow, toRow, m_rowCount);
+        return new ColumnarTable(m_timestamps, Maps.newLinkedHashMap(m_columns), m_offset + fromRow, toRow - fromRow);
+    }
+
+    /**
+     * Returns a copy of this table with the given number of rows. Additional rows
+     * are filled with NaN values, and have a timestamp of 0.
+     */
+    public ColumnarTable withRowCount(int rowCount) {
+        Preconditions.checkArgument(rowCount >= 0, "rowCount must be >= 0");
+        final int numRowsToCopy = Math.min(rowCount, m_rowCount);
+        final long[] timestamps = new long[rowCount];
+        System.arraycopy(m_timestamps, m_offset, timestamps, 0, numRowsToCopy);
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (Map.Entry<String, double[]> entry : m_columns.entrySet()) {
+            final double[] column = new double[rowCount];
+            System.arraycopy(entry.getValue(), m_offset, column, 0, numRowsToCopy);
+            Arrays.fill(column, numRowsToCopy, rowCount, Double.NaN);
+            columns.put(entry.getKey(), column);
+        }
+        return new ColumnarTable(timestamps, columns, 0, rowCount);
+    }
+
+    /**
+     * @return the timestamps of the rows in this table, without copying them if
+     * the table covers the entire backing array
+     */
+    public long[] toTimestampArray() {
+        if (isCompact()) {
+            return m_timestamps;
+        }
+        return Arrays.copyOfRange(m_timestamps, m_offset, m_offset + m_rowCount);
+    }
+
+    /**
+     * @return the values of the column in the rows of this table, without copying them if
+     * the table covers the entire backing array, or null if there is no such column
+     */
+    public double[] toColumnArray(String columnName) {
+        final double[] column = m_columns.get(columnName);
+        if (column == null || isCompact()) {
+            return column;
+        }
+        return Arrays.copyOfRange(column, m_offset, m_offset + m_rowCount);
+    }
+
+    private boolean isCompact() {
+        return m_offset == 0 && m_rowCount == m_timestamps.length;
+    }
+
+    private int checkRow(int row) {
+        return Preconditions.checkElementIndex(row, m_rowCount);
+    }
+
+    /**
+     * Converts a table, as used by {@link Filter}, to a columnar table.
+     *
+     * The rows of the table must be contiguous, and missing values are set to NaN.
+     * If the table has no timestamp column, all of the timestamps are set to 0.
+     */
+    public static ColumnarTable fromRowSortedTable(RowSortedTable<Long, String, Double> table) {
+        Preconditions.checkNotNull(table, "table argument");
+        if (table.isEmpty()) {
+            return new ColumnarTable(new long[0], Maps.<String, double[]>newLinkedHashMap(), 0, 0);
+        }
+
+        final long firstRowKey = table.rowKeySet().first();
+        final long lastRowKey = table.rowKeySet().last();
+        final int numRows = (int)(lastRowKey - firstRowKey) + 1;
+        final boolean hasTimestamps = table.containsColumn(Filter.TIMESTAMP_COLUMN_NAME);
+
+        final long[] timestamps = new long[numRows];
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (String columnName : table.columnKeySet()) {
+            if (!Filter.TIMESTAMP_COLUMN_NAME.equals(columnName)) {
+                final double[] column = new double[numRows];
+                Arrays.fill(column, Double.NaN);
+                columns.put(columnName, column);
+            }
+        }
+
+        for (Map.Entry<Long, Map<String, Double>> row : table.rowMap().entrySet()) {
+            final int k = (int)(row.getKey() - firstRowKey);
+            for (Map.Entry<String, Double> cell : row.getValue().entrySet()) {
+                if (Filter.TIMESTAMP_COLUMN_NAME.equals(cell.getKey())) {
+                    timestamps[k] = cell.getValue().longValue();
+                } else {
+                    columns.get(cell.getKey())[k] = cell.getValue();
+                }
+            }
+        }
+        Preconditions.checkState(!hasTimestamps || table.column(Filter.TIMESTAMP_COLUMN_NAME).size() == numRows,
+                "filter timestamps must be contiguous");
+
+        return new ColumnarTable(timestamps, columns, 0, numRows);
+    }
+
+    public RowSortedTable<Long, String, Double> toRowSortedTable() {
+        final RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
+        copyTo(table, 0L, true);
+        return table;
+    }
+
+    /**
+     * Adds the rows of this table to the given table.
+     *
+     * @param table the target table
+     * @param firstRowKey key of the first row in the target table
+     * @param includeTimestamps whether or not the timestamps should be added to the target table
+     */
+    public void copyTo(RowSortedTable<Long, String, Double> table, long firstRowKey, boolean includeTimestamps) {
+        for (int k = 0; k < m_rowCount; k++) {
+            final Long rowKey = Long.valueOf(firstRowKey + k);
+            if (includeTimestamps) {
+                table.put(rowKey, Filter.TIMESTAMP_COLUMN_NAME, (double)m_timestamps[m_offset + k]);
+            }
+            for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+                table.put(rowKey, column.getKey(), column.getValue()[m_offset + k]);
+            }
+        }
+    }
+
+    /**
+     * @return the columns of this table, sorted by name
+     */
+    public SortedMap<String, double[]> toColumnMap() {
+        final SortedMap<String, double[]> columns = Maps.newTreeMap();
+        for (String columnName : m_columns.keySet()) {
+            columns.put(columnName, toColumnArray(columnName));
+        }
+        return columns;
+    }
+}
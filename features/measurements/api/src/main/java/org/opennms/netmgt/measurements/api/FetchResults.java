@@ -33,7 +33,6 @@ import java.util.Map;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
 import com.google.common.collect.RowSortedTable;
 import com.google.common.collect.TreeBasedTable;
 
@@ -73,51 +72,23 @@ public class FetchResults {
         m_step = step;
         m_constants = constants;
 
-        if (table.size() < 1) {
-            // No rows
-            m_timestamps = new long[0];
-            m_columns = Maps.newHashMapWithExpectedSize(0);
-            return;
-        }
+        // Convert the table once, instead of looking up the columns on every row
+        final ColumnarTable columnarTable = ColumnarTable.fromRowSortedTable(table);
+        m_timestamps = columnarTable.toTimestampArray();
+        m_columns = columnarTable.toColumnMap();
+    }
 
-        Long firstIndex = null;
-        Long lastIndex = null;
-        Map<Long, Double> timestampsByIndex = table.column(Filter.TIMESTAMP_COLUMN_NAME);
-        for (Long index : timestampsByIndex.keySet()) {
-            if (firstIndex == null) {
-                firstIndex = index;
-            } else {
-                Preconditions.checkState(index == (lastIndex + 1), "filter timestamps must be contiguous");
-            }
-            lastIndex = index;
-        }
+    /**
+     * Used when applying columnar filters.
+     */
+    public FetchResults(final ColumnarTable table, final long step, final Map<String, Object> constants) {
+        Preconditions.checkNotNull(table, "table argument");
+        Preconditions.checkNotNull(constants, "constants argument");
 
-        int numRows = (int)(lastIndex - firstIndex) + 1;
-        m_columns = Maps.newLinkedHashMap(); // preserve ordering
-        m_timestamps = new long[numRows];
-
-        for (int k = 0; k < numRows; k++) {
-            for (String columnName : table.columnKeySet()) {
-                Double value = table.get(Long.valueOf(k), columnName);
-
-                if (Filter.TIMESTAMP_COLUMN_NAME.equals(columnName)) {
-                    Preconditions.checkNotNull(value, "filter timestamps must be contiguous");
-                    m_timestamps[k] = value.longValue();
-                } else {
-                    double column[] = m_columns.get(columnName);
-                    if (column == null) {
-                        column = new double[numRows];
-                        m_columns.put(columnName, column);
-                    }
-
-                    if (value == null) {
-                        column[k] = Double.NaN;
-                    } else {
-                        column[k] = value;
-                    }
-                }
-            }
-        }
+        m_timestamps = table.toTimestampArray();
+        m_columns = table.toColumnMap();
+        m_step = step;
+        m_constants = constants;
     }
 
     public long[] getTimestamps() {
@@ -145,6 +116,14 @@ public class FetchResults {
             .toString();
     }
 
+    /**
+     * Returns a {@link ColumnarTable} that shares the timestamp and column
+     * arrays with these results.
+     */
+    public ColumnarTable asColumnarTable() {
+        return new ColumnarTable(m_timestamps, m_columns);
+    }
+
     public RowSortedTable<Long, String, Double> asRowSortedTable() {
         RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
 
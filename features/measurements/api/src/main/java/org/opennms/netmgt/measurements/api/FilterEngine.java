@@ -82,6 +82,53 @@ public class FilterEngine {
         }
     }
 
+    /**
+     * Successively applies all of the filters to the given {@link ColumnarTable}.
+     *
+     * {@link ColumnarFilter}s operate on the table directly, other filters are applied
+     * to a {@link RowSortedTable} that is only converted back once a columnar filter
+     * follows, or all of the filters have been applied.
+     *
+     * @return the filtered table
+     */
+    public ColumnarTable filter(final List<FilterDef> filterDefinitions, ColumnarTable table) throws FilterException {
+        Preconditions.checkNotNull(filterDefinitions, "filterDefinitions argument");
+        Preconditions.checkNotNull(table, "table argument");
+
+        RowSortedTable<Long, String, Double> rowSortedTable = null;
+        for (FilterDef filterDef : filterDefinitions) {
+            Filter filter = getFilter(filterDef);
+            if (filter == null) {
+                throw new FilterException("No filter implementation found for {}", filterDef.getName());
+            }
+            try {
+                if (filter instanceof ColumnarFilter) {
+                    if (rowSortedTable != null) {
+                        table = ColumnarTable.fromRowSortedTable(rowSortedTable);
+                        rowSortedTable = null;
+                    }
+                    table = ((ColumnarFilter)filter).filter(table);
+                } else {
+                    if (rowSortedTable == null) {
+                        rowSortedTable = table.toRowSortedTable();
+                    }
+                    filter.filter(rowSortedTable);
+                }
+            } catch (Throwable t) {
+                throw new FilterException(t, "An error occurred while applying filter {}", t.getMessage());
+            }
+        }
+
+        if (rowSortedTable != null) {
+            try {
+                table = ColumnarTable.fromRowSortedTable(rowSortedTable);
+            } catch (Throwable t) {
+                throw new FilterException(t, "An error occurred while applying filters {}", t.getMessage());
+            }
+        }
+        return table;
+    }
+
     /**
      * Retrieves a {@link Filter} that supports the given filter definition.
      *
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.Filter;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+import com.google.common.collect.TreeBasedTable;
+
+public class ColumnarTableTest {
+
+    private static final double DELTA = 0.0000001;
+
+    @Test
+    public void canSliceWithoutCopying() {
+        final long[] timestamps = new long[] { 0, 100, 200, 300, 400 };
+        final double[] x = new double[] { 1, 2, 3, 4, 5 };
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+
+        final ColumnarTable table = new ColumnarTable(timestamps, columns);
+        final ColumnarTable slice = table.slice(1, 4);
+
+        // The slice shares the arrays with the original table
+        assertEquals(3, slice.getRowCount());
+        assertEquals(1, slice.getOffset());
+        assertSame(x, slice.getColumn("x"));
+        assertEquals(100, slice.getTimestamp(0));
+        assertEquals(2d, slice.get("x", 0), DELTA);
+        assertEquals(4d, slice.get("x", 2), DELTA);
+
+        // Columns added to the slice are not added to the original table
+        slice.getOrCreateColumn("y")[slice.getOffset()] = 42d;
+        assertTrue(slice.containsColumn("y"));
+        assertFalse(table.containsColumn("y"));
+
+        // The arrays are only copied when converting the slice back to fetch results
+        final FetchResults results = new FetchResults(slice, 100, Maps.<String, Object>newHashMap());
+        assertArrayEquals(new long[] { 100, 200, 300 }, results.getTimestamps());
+        assertArrayEquals(new double[] { 2, 3, 4 }, results.getColumns().get("x"), DELTA);
+        assertArrayEquals(new double[] { 42d, Double.NaN, Double.NaN }, results.getColumns().get("y"), DELTA);
+
+        // But not when the table covers the entire array
+        assertSame(x, new FetchResults(table, 100, Maps.<String, Object>newHashMap()).getColumns().get("x"));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void cantReadOutsideOfSlice() {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", new double[] { 1, 2, 3 });
+        new ColumnarTable(new long[] { 0, 100, 200 }, columns).slice(0, 2).get("x", 2);
+    }
+
+    @Test
+    public void canAddRows() {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", new double[] { 1, 2, 3 });
+        final ColumnarTable table = new ColumnarTable(new long[] { 0, 100, 200 }, columns).slice(1, 3).withRowCount(4);
+
+        assertEquals(4, table.getRowCount());
+        assertEquals(0, table.getOffset());
+        assertArrayEquals(new long[] { 100, 200, 0, 0 }, table.getTimestamps());
+        assertArrayEquals(new double[] { 2, 3, Double.NaN, Double.NaN }, table.getColumn("x"), DELTA);
+    }
+
+    @Test
+    public void canConvertToAndFromRowSortedTable() {
+        RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
+        table.put(0L, Filter.TIMESTAMP_COLUMN_NAME, 0d);
+        table.put(0L, "x", 1d);
+        table.put(1L, Filter.TIMESTAMP_COLUMN_NAME, 100d);
+        table.put(2L, Filter.TIMESTAMP_COLUMN_NAME, 200d);
+        table.put(2L, "y", 99d);
+
+        final ColumnarTable columnarTable = ColumnarTable.fromRowSortedTable(table);
+        assertArrayEquals(new long[] { 0, 100, 200 }, columnarTable.getTimestamps());
+        assertArrayEquals(new double[] { 1d, Double.NaN, Double.NaN }, columnarTable.getColumn("x"), DELTA);
+        assertArrayEquals(new double[] { Double.NaN, Double.NaN, 99d }, columnarTable.getColumn("y"), DELTA);
+
+        table = columnarTable.toRowSortedTable();
+        assertEquals(3, table.rowKeySet().size());
+        assertEquals(200d, table.get(2L, Filter.TIMESTAMP_COLUMN_NAME), DELTA);
+        assertEquals(99d, table.get(2L, "y"), DELTA);
+        assertEquals(Double.NaN, table.get(1L, "x"), DELTA);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void cantConvertTableWithMissingTimestamps() {
+        RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
+        table.put(0L, Filter.TIMESTAMP_COLUMN_NAME, 0d);
+        table.put(2L, Filter.TIMESTAMP_COLUMN_NAME, 200d);
+        ColumnarTable.fromRowSortedTable(table);
+    }
+
+    @Test
+    public void canApplyColumnarFilterToRowSortedTable() throws Exception {
+        // Drops the first row and doubles the values of x
+        final ColumnarFilter filter = new ColumnarFilter() {
+            @Override
+            public ColumnarTable filter(ColumnarTable table) {
+                final ColumnarTable slice = table.slice(1, table.getRowCount());
+                final double[] x = slice.getColumn("x");
+                for (int k = 0; k < slice.getRowCount(); k++) {
+                    x[slice.getOffset() + k] *= 2;
+                }
+                return slice;
+            }
+        };
+
+        RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
+        for (long k = 0; k < 3; k++) {
+            table.put(k, Filter.TIMESTAMP_COLUMN_NAME, k * 100d);
+            table.put(k, "x", (double)k);
+        }
+        filter.filter(table);
+
+        assertEquals(2, table.rowKeySet().size());
+        assertEquals(100d, table.get(0L, Filter.TIMESTAMP_COLUMN_NAME), DELTA);
+        assertEquals(2d, table.get(0L, "x"), DELTA);
+        assertEquals(4d, table.get(1L, "x"), DELTA);
+    }
+}
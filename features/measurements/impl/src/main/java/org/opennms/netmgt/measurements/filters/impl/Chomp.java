@@ -28,16 +28,12 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Set;
-
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 import org.opennms.netmgt.measurements.filters.impl.Utils.TableLimits;
 
-import com.google.common.collect.RowSortedTable;
-import com.google.common.collect.Sets;
-
 /**
  * Strips leading and trailing rows that contain
  * nothing but NaNs/null values from the data source.
@@ -49,7 +45,7 @@ import com.google.common.collect.Sets;
  * @author jwhite
  */
 @FilterInfo(name="Chomp", description="Strips leading and trailing rows that contain nothing but NaNs/null values.")
-public class Chomp implements Filter {
+public class Chomp extends ColumnarFilter {
 
     @FilterParam(key="stripNaNs", value="true", displayName="Strip", description="When set, leading and trailing rows containing NaNs will be removed")
     private boolean m_stripNaNs;
@@ -65,62 +61,33 @@ public class Chomp implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable)
-            throws Exception {
-
-        int numRowsInTable = qrAsTable.rowKeySet().size();
-        long lastRowToKeep = numRowsInTable;
-        long firstRowToKeep = lastRowToKeep;
+    public ColumnarTable filter(ColumnarTable table) throws Exception {
+        int numRowsInTable = table.getRowCount();
+        int lastRowToKeep = numRowsInTable;
+        int firstRowToKeep = lastRowToKeep;
 
         // Determine the index of the first row with a timestamp
         // on/after the cutoff date
-        for (long k : qrAsTable.rowKeySet()) {
-            if(qrAsTable.get(k, TIMESTAMP_COLUMN_NAME) >= m_cutoffDate) {
+        for (int k = 0; k < numRowsInTable; k++) {
+            if (table.getTimestamp(k) >= m_cutoffDate) {
                 firstRowToKeep = k;
                 break;
             }
         }
 
         if (m_stripNaNs) {
-            // Excluding the timestamp column, determine the
-            // index of the first and last rows which don't contain
-            // completely NaN values
-            Set<String> columnNamesNoTs = Sets.newHashSet(qrAsTable.columnKeySet());
-            columnNamesNoTs.remove(TIMESTAMP_COLUMN_NAME);
-            TableLimits limits = Utils.getRowsWithValues(qrAsTable, columnNamesNoTs.toArray(new String[0]));
-            firstRowToKeep = Math.max(firstRowToKeep, limits.firstRowWithValues);
-            lastRowToKeep = Math.min(lastRowToKeep, limits.lastRowWithValues);
+            // Determine the index of the first and last rows
+            // which don't contain completely NaN values
+            TableLimits limits = Utils.getRowsWithValues(table, table.getColumnNames().toArray(new String[0]));
+            firstRowToKeep = Math.max(firstRowToKeep, (int)limits.firstRowWithValues);
+            lastRowToKeep = Math.min(lastRowToKeep, (int)limits.lastRowWithValues);
         }
 
-        Set<String> columnNames = Sets.newHashSet(qrAsTable.columnKeySet());
-
-        // Remove all of the trailing rows
-        for (long i = lastRowToKeep+1; i < numRowsInTable; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
-        }
-
-        // Remove all of the leading rows
-        for (long i = 0; i < firstRowToKeep; i++) {
-            for (String columnName : columnNames) {
-                qrAsTable.remove(i, columnName);
-            }
-        }
-
-        // Bump up the indices on the remaining rows
-        if (firstRowToKeep > 0) {
-            long j = 0;
-            for (long i = firstRowToKeep; i <= lastRowToKeep; i++) {
-                for (String columnName : columnNames) {
-                    Double value = qrAsTable.get(i, columnName);
-                    if (value != null) {
-                        qrAsTable.put(j, columnName, value);
-                    }
-                    qrAsTable.remove(i, columnName);
-                }
-                j++;
-            }
+        // Slice the remaining rows, their indices start at 0
+        lastRowToKeep = Math.min(lastRowToKeep, numRowsInTable - 1);
+        if (firstRowToKeep > lastRowToKeep) {
+            return table.slice(0, 0);
         }
+        return table.slice(firstRowToKeep, lastRowToKeep + 1);
     }
 }
@@ -28,21 +28,18 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
-import java.util.Map.Entry;
-
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 
-import com.google.common.collect.RowSortedTable;
-
 /**
  * Calculates the derivative. Useful to converting gauges into rates.
  *
  * @author jwhite
  */
 @FilterInfo(name="Derivative", description="Calculates the derivative (rate of change) between rows.")
-public class Derivative implements Filter {
+public class Derivative extends ColumnarFilter {
 
     @FilterParam(key="inputColumn", required=true, displayName="Input", description="Input column.")
     private String m_inputColumn;
@@ -58,18 +55,19 @@ public class Derivative implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> qrAsTable) throws Exception {
-        Entry<Long, Double> lastEntry = null;
-        for (Entry<Long, Double> entry : qrAsTable.column(m_inputColumn).entrySet()) {
-            double slope = Double.NaN;
-            if (lastEntry != null) {
-                final long step = entry.getKey() - lastEntry.getKey();
-                if (step != 0) {
-                    slope = (entry.getValue() - lastEntry.getValue()) / step;
-                }
-            }
-            qrAsTable.put(entry.getKey(), m_outputColumn, slope);
-            lastEntry = entry;
+    public ColumnarTable filter(ColumnarTable table) throws Exception {
+        final double[] input = table.getColumn(m_inputColumn);
+        if (input == null || table.getRowCount() < 1) {
+            return table;
+        }
+        final double[] output = table.getOrCreateColumn(m_outputColumn);
+        final int offset = table.getOffset();
+
+        // Work backwards, so that the output column can also be the input column
+        for (int k = offset + table.getRowCount() - 1; k > offset; k--) {
+            output[k] = input[k] - input[k - 1];
         }
+        output[offset] = Double.NaN;
+        return table;
     }
 }
@@ -35,18 +35,16 @@ import org.opennms.netmgt.integrations.R.RScriptException;
 import org.opennms.netmgt.integrations.R.RScriptExecutor;
 import org.opennms.netmgt.integrations.R.RScriptInput;
 import org.opennms.netmgt.integrations.R.RScriptOutput;
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 import org.opennms.netmgt.measurements.filters.impl.Utils.TableLimits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Maps;
-import com.google.common.collect.RowSortedTable;
-import com.google.common.collect.TreeBasedTable;
 
 /**
  * Performs Holt-Winters forecasting on a given column of
@@ -55,7 +53,7 @@ import com.google.common.collect.TreeBasedTable;
  * @author jwhite
  */
 @FilterInfo(name="HoltWinters", description="Performs Holt-Winters forecasting.", backend="R")
-public class HWForecast implements Filter {
+public class HWForecast extends ColumnarFilter {
     private static final Logger LOG = LoggerFactory.getLogger(HWForecast.class);
     private static final String PATH_TO_R_SCRIPT = "/org/opennms/netmgt/measurements/filters/impl/holtWinters.R";
 
@@ -87,9 +85,7 @@ public class HWForecast implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> table) throws RScriptException {
-        Preconditions.checkArgument(table.containsColumn(TIMESTAMP_COLUMN_NAME), String.format("Data source must have a '%s' column.", Filter.TIMESTAMP_COLUMN_NAME));
-
+    public ColumnarTable filter(ColumnarTable table) throws RScriptException {
         // Determine the index of the first and last non-NaN values
         // Assume the values between these are contiguous
         TableLimits limits = Utils.getRowsWithValues(table, m_inputColumn);
@@ -98,12 +94,13 @@ public class HWForecast implements Filter {
         long numSampleRows = limits.lastRowWithValues - limits.firstRowWithValues;
         if (numSampleRows < 1) {
             LOG.error("Insufficient values in column for forecasting. Excluding forecast columns from data source.");
-            return;
+            return table;
         }
 
         // Determine the step size
-        Date lastTimestamp = new Date(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME).longValue());
-        long stepInMs = (long)(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME) - table.get(limits.lastRowWithValues-1, Filter.TIMESTAMP_COLUMN_NAME));
+        final int lastRowWithValues = (int)limits.lastRowWithValues;
+        Date lastTimestamp = new Date(table.getTimestamp(lastRowWithValues));
+        long stepInMs = table.getTimestamp(lastRowWithValues) - table.getTimestamp(lastRowWithValues-1);
 
         // Calculate the number of samples per period
         int numSamplesPerPeriod = (int)Math.floor(m_periodInSeconds * 1000 / stepInMs);
@@ -122,9 +119,9 @@ public class HWForecast implements Filter {
         arguments.put("firstIndex", limits.firstRowWithValues+1);
         arguments.put("lastIndex", limits.lastRowWithValues+1);
 
-        // Make the forecasts
+        // Make the forecasts, the script only accepts tables
         RScriptExecutor executor = new RScriptExecutor();
-        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table, arguments));
+        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table.toRowSortedTable(), arguments));
         ImmutableTable<Long, String, Double> outputTable = output.getTable();
 
         // The output table contains the fitted values, followed
@@ -132,23 +129,34 @@ public class HWForecast implements Filter {
         int numOutputRows = outputTable.rowKeySet().size();
         int numFittedValues = numOutputRows - numForecasts;
 
+        // Make room for the forecasted values
+        int numRows = Math.max(table.getRowCount(), lastRowWithValues + numOutputRows - numFittedValues + 1);
+        if (numRows > table.getRowCount()) {
+            table = table.withRowCount(numRows);
+        }
+        final int offset = table.getOffset();
+
         // Add the fitted values to rows where the input column has values
-        for (long i = 0; i < numFittedValues; i++) {
-            long idxTarget = i + (numSampleRows - numFittedValues) + limits.firstRowWithValues + 1;
-            table.put(idxTarget, m_outputPrefix + "Fit", outputTable.get(i, "fit"));
+        if (numFittedValues > 0) {
+            final double[] fit = table.getOrCreateColumn(m_outputPrefix + "Fit");
+            for (int i = 0; i < numFittedValues; i++) {
+                int idxTarget = (int)(i + (numSampleRows - numFittedValues) + limits.firstRowWithValues + 1);
+                fit[offset + idxTarget] = outputTable.get((long)i, "fit");
+            }
         }
 
         // Append the forecasted values and include the time stamp with the appropriate step
-        for (long i = numFittedValues; i < numOutputRows; i++) {
-            long idxForecast = i - numFittedValues + 1;
-            long idxTarget = limits.lastRowWithValues + idxForecast;
+        for (int i = Math.max(0, numFittedValues); i < numOutputRows; i++) {
+            int idxForecast = i - numFittedValues + 1;
+            int idxTarget = lastRowWithValues + idxForecast;
             if (m_confidenceLevel > 0) {
-                table.put(idxTarget, m_outputPrefix + "Fit", outputTable.get(i, "fit"));
-                table.put(idxTarget, m_outputPrefix + "Lwr", outputTable.get(i, "lwr"));
-                table.put(idxTarget, m_outputPrefix + "Upr", outputTable.get(i, "upr"));
+                table.getOrCreateColumn(m_outputPrefix + "Fit")[offset + idxTarget] = outputTable.get((long)i, "fit");
+                table.getOrCreateColumn(m_outputPrefix + "Lwr")[offset + idxTarget] = outputTable.get((long)i, "lwr");
+                table.getOrCreateColumn(m_outputPrefix + "Upr")[offset + idxTarget] = outputTable.get((long)i, "upr");
             }
-            table.put(idxTarget, TIMESTAMP_COLUMN_NAME, (double)new Date(lastTimestamp.getTime() + stepInMs * idxForecast).getTime());
+            table.setTimestamp(idxTarget, lastTimestamp.getTime() + stepInMs * idxForecast);
         }
+        return table;
     }
 
     public static void checkForecastSupport() throws RScriptException {
@@ -156,13 +164,16 @@ public class HWForecast implements Filter {
         HWForecast forecastFilter = new HWForecast("HW", "X", 1, 1, 0.95);
 
         // Use constant values for the Y column
-        RowSortedTable<Long, String, Double> table = TreeBasedTable.create();
-        for (long i = 0; i < 100; i++) {
-            table.put(i, Filter.TIMESTAMP_COLUMN_NAME, (double)(i * 1000));
-            table.put(i, "X", 1.0d);
+        final long[] timestamps = new long[100];
+        final double[] values = new double[100];
+        for (int i = 0; i < 100; i++) {
+            timestamps[i] = i * 1000;
+            values[i] = 1.0d;
         }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("X", values);
 
         // Apply the filter
-        forecastFilter.filter(table);
+        forecastFilter.filter(new ColumnarTable(timestamps, columns));
     }
 }
@@ -35,17 +35,16 @@ import org.opennms.netmgt.integrations.R.RScriptException;
 import org.opennms.netmgt.integrations.R.RScriptExecutor;
 import org.opennms.netmgt.integrations.R.RScriptInput;
 import org.opennms.netmgt.integrations.R.RScriptOutput;
-import org.opennms.netmgt.measurements.api.Filter;
+import org.opennms.netmgt.measurements.api.ColumnarFilter;
+import org.opennms.netmgt.measurements.api.ColumnarTable;
 import org.opennms.netmgt.measurements.api.FilterInfo;
 import org.opennms.netmgt.measurements.api.FilterParam;
 import org.opennms.netmgt.measurements.filters.impl.Utils.TableLimits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Maps;
-import com.google.common.collect.RowSortedTable;
 
 /**
  * Fits a trend line to the samples in a column using R.
@@ -53,7 +52,7 @@ import com.google.common.collect.RowSortedTable;
  * @author jwhite
  */
 @FilterInfo(name="Trend", description="Fits a trend line or polynomial to a given column.", backend="R")
-public class TrendLine implements Filter {
+public class TrendLine extends ColumnarFilter {
     private static final Logger LOG = LoggerFactory.getLogger(TrendLine.class);
     private static final String PATH_TO_R_SCRIPT = "/org/opennms/netmgt/measurements/filters/impl/trendLine.R";
 
@@ -79,9 +78,7 @@ public class TrendLine implements Filter {
     }
 
     @Override
-    public void filter(RowSortedTable<Long, String, Double> table) throws RScriptException {
-        Preconditions.checkArgument(table.containsColumn(TIMESTAMP_COLUMN_NAME), String.format("Data source must have a '%s' column.", Filter.TIMESTAMP_COLUMN_NAME));
-
+    public ColumnarTable filter(ColumnarTable table) throws RScriptException {
         // Determine the index of the first and last non-NaN values
         // Assume the values between these are contiguous
         TableLimits limits = Utils.getRowsWithValues(table, m_inputColumn);
@@ -90,12 +87,14 @@ public class TrendLine implements Filter {
         long numSampleRows = limits.lastRowWithValues - limits.firstRowWithValues;
         if (numSampleRows < 1) {
             LOG.error("Insufficient values in column for trending. Excluding trend from data source.");
-            return;
+            return table;
         }
 
         // Determine the step size
-        Date lastTimestamp = new Date(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME).longValue());
-        long stepInMs = (long)(table.get(limits.lastRowWithValues, TIMESTAMP_COLUMN_NAME) - table.get(limits.lastRowWithValues-1, Filter.TIMESTAMP_COLUMN_NAME));
+        final int firstRowWithValues = (int)limits.firstRowWithValues;
+        final int lastRowWithValues = (int)limits.lastRowWithValues;
+        Date lastTimestamp = new Date(table.getTimestamp(lastRowWithValues));
+        long stepInMs = table.getTimestamp(lastRowWithValues) - table.getTimestamp(lastRowWithValues-1);
 
         // Num steps ahead
         int numStepsAhead = (int)Math.floor(m_secondsAhead * 1000 / stepInMs);
@@ -111,19 +110,28 @@ public class TrendLine implements Filter {
         arguments.put("numStepsAhead", numStepsAhead);
         arguments.put("stepInMs", stepInMs);
 
-        // Calculate the trend line/curve
+        // Calculate the trend line/curve, the script only accepts tables
         RScriptExecutor executor = new RScriptExecutor();
-        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table, arguments));
+        RScriptOutput output = executor.exec(PATH_TO_R_SCRIPT, new RScriptInput(table.toRowSortedTable(), arguments));
         ImmutableTable<Long, String, Double> outputTable = output.getTable();
 
+        // Make room for the requested number of steps ahead
+        int numRows = Math.max(table.getRowCount(), lastRowWithValues + numStepsAhead + 1);
+        if (numRows > table.getRowCount()) {
+            table = table.withRowCount(numRows);
+        }
+        final double[] trend = table.getOrCreateColumn(m_outputColumn);
+        final int offset = table.getOffset();
+
         // Calculate the value of the polynomial for all of the samples
         // and the requested number of steps ahead
         long j = 0;
-        for (long i = limits.firstRowWithValues; i <= (limits.lastRowWithValues + numStepsAhead); i++) {
-            if (i >= limits.lastRowWithValues) {
-                table.put(i, TIMESTAMP_COLUMN_NAME, (double)new Date(lastTimestamp.getTime() + stepInMs * (i-limits.lastRowWithValues)).getTime());
+        for (int i = firstRowWithValues; i <= (lastRowWithValues + numStepsAhead); i++) {
+            if (i >= lastRowWithValues) {
+                table.setTimestamp(i, lastTimestamp.getTime() + stepInMs * (i-lastRowWithValues));
             }
-            table.put(i, m_outputColumn, outputTable.get(j++, "x"));
+            trend[offset + i] = outputTable.get(j++, "x");
         }
+        return table;
     }
 }
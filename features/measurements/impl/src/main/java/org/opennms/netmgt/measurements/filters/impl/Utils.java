@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
+import org.opennms.netmgt.measurements.api.ColumnarTable;
+
 import com.google.common.collect.Table;
 
 /**
@@ -59,4 +61,30 @@ public class Utils {
 
         return limits;
     }
+
+    public static TableLimits getRowsWithValues(ColumnarTable table, String... columnNames) {
+        TableLimits limits = new TableLimits();
+        final int offset = table.getOffset();
+        for (String columnName : columnNames) {
+            final double[] column = table.getColumn(columnName);
+            if (column == null) {
+                continue;
+            }
+            for (int k = 0; k < table.getRowCount(); k++) {
+                if (!Double.isNaN(column[offset + k])) {
+                    if (limits.firstRowWithValues < 0 || k < limits.firstRowWithValues) {
+                        limits.firstRowWithValues = k;
+                    }
+                    break;
+                }
+            }
+            for (int k = table.getRowCount() - 1; k >= 0; k--) {
+                if (!Double.isNaN(column[offset + k])) {
+                    limits.lastRowWithValues = Math.max(limits.lastRowWithValues, k);
+                    break;
+                }
+            }
+        }
+        return limits;
+    }
 }
@@ -0,0 +1,1127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Compiles the subset of the JEXL syntax that is used for arithmetic on
+ * measurements into trees that evaluate an entire column at a time.
+ *
+ * The compiled expressions follow the semantics of the (lenient) JEXL
+ * engine used by {@link JEXLExpressionEngine}: real literals are floats,
+ * operations on integers and timestamps are integer operations, division
+ * and modulo by zero yield 0, and NaN is equal to itself and smaller than
+ * any other number when compared.
+ *
+ * Anything outside of this subset, including syntax errors, results in an
+ * {@link UnsupportedExpressionException} so that the caller can fall back
+ * to JEXL.
+ */
+public class ColumnarExpressionCompiler {
+
+    /**
+     * Thrown when an expression cannot be compiled, or evaluated, by us.
+     */
+    public static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The type of the values of a node.
+     *
+     * MIXED values are integers on some rows and reals on others, which
+     * only happens with conditionals.
+     */
+    protected enum Type {
+        INT, DOUBLE, MIXED, BOOL;
+
+        private boolean isNumeric() {
+            return this != BOOL;
+        }
+    }
+
+    /**
+     * Resolves the identifiers used in an expression.
+     */
+    public interface Scope {
+        /**
+         * @return the node that evaluates to the value of the identifier
+         * @throws UnsupportedExpressionException if the identifier cannot be resolved
+         */
+        Node resolve(String name) throws UnsupportedExpressionException;
+    }
+
+    /**
+     * The values that are available when evaluating the nodes.
+     */
+    public interface Frame {
+        int getNumRows();
+
+        long[] getTimestamps();
+
+        double[] getColumn(String name);
+
+        double[] getResult(int index);
+    }
+
+    private static final Set<String> KEYWORDS = ImmutableSet.of("if", "else", "for", "foreach", "while", "new", "var",
+            "empty", "size", "null", "true", "false", "return", "and", "or", "eq", "ne", "gt", "ge", "lt", "le",
+            "mod", "div", "not");
+
+    private static final Set<String> NAMESPACES = ImmutableSet.of("math", "strictmath");
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sin", Math::sin).put("cos", Math::cos).put("tan", Math::tan)
+            .put("asin", Math::asin).put("acos", Math::acos).put("atan", Math::atan)
+            .put("sinh", Math::sinh).put("cosh", Math::cosh).put("tanh", Math::tanh)
+            .put("exp", Math::exp).put("expm1", Math::expm1).put("log", Math::log)
+            .put("log10", Math::log10).put("log1p", Math::log1p).put("sqrt", Math::sqrt)
+            .put("cbrt", Math::cbrt).put("ceil", Math::ceil).put("floor", Math::floor)
+            .put("rint", Math::rint).put("toDegrees", Math::toDegrees).put("toRadians", Math::toRadians)
+            .put("signum", Math::signum)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", Math::atan2).put("pow", Math::pow).put("hypot", Math::hypot)
+            .put("IEEEremainder", Math::IEEEremainder)
+            .build();
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sin", StrictMath::sin).put("cos", StrictMath::cos).put("tan", StrictMath::tan)
+            .put("asin", StrictMath::asin).put("acos", StrictMath::acos).put("atan", StrictMath::atan)
+            .put("sinh", StrictMath::sinh).put("cosh", StrictMath::cosh).put("tanh", StrictMath::tanh)
+            .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1).put("log", StrictMath::log)
+            .put("log10", StrictMath::log10).put("log1p", StrictMath::log1p).put("sqrt", StrictMath::sqrt)
+            .put("cbrt", StrictMath::cbrt).put("ceil", StrictMath::ceil).put("floor", StrictMath::floor)
+            .put("rint", StrictMath::rint).put("toDegrees", StrictMath::toDegrees).put("toRadians", StrictMath::toRadians)
+            .put("signum", StrictMath::signum)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", StrictMath::atan2).put("pow", StrictMath::pow).put("hypot", StrictMath::hypot)
+            .put("IEEEremainder", StrictMath::IEEEremainder)
+            .build();
+
+    /**
+     * Compiles the given expression.
+     *
+     * @throws UnsupportedExpressionException if the expression cannot be compiled
+     */
+    public static Node compile(String expression, Scope scope) throws UnsupportedExpressionException {
+        final Parser parser = new Parser(tokenize(expression), scope);
+        final Node node = parser.expression();
+        if (parser.hasMore()) {
+            throw new UnsupportedExpressionException("Unexpected token: " + parser.peek());
+        }
+        return node;
+    }
+
+    /*
+     * Tokenizer
+     */
+
+    private static final String[] OPERATORS = {
+        // Longest first
+        "?:", "||", "&&", "==", "!=", "<=", ">=",
+        "?", ":", "(", ")", ",", "<", ">", "+", "-", "*", "/", "%", "!"
+    };
+
+    private static List<String> tokenize(String expression) throws UnsupportedExpressionException {
+        final List<String> tokens = new ArrayList<>();
+        final int length = expression.length();
+        int i = 0;
+        outer:
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                i++;
+                continue;
+            }
+            if (isLetter(c)) {
+                int j = i + 1;
+                while (j < length && (isLetter(expression.charAt(j)) || isDigit(expression.charAt(j)))) {
+                    j++;
+                }
+                tokens.add(expression.substring(i, j));
+                i = j;
+                continue;
+            }
+            if (isDigit(c)) {
+                int j = i + 1;
+                while (j < length && (isDigit(expression.charAt(j)) || isLetter(expression.charAt(j)))) {
+                    j++;
+                }
+                if (j + 1 < length && expression.charAt(j) == '.' && isDigit(expression.charAt(j + 1))) {
+                    // Real literal, with an optional exponent and suffix
+                    j++;
+                    while (j < length && isDigit(expression.charAt(j))) {
+                        j++;
+                    }
+                    if (j < length && (expression.charAt(j) == 'e' || expression.charAt(j) == 'E')) {
+                        int k = j + 1;
+                        if (k < length && (expression.charAt(k) == '+' || expression.charAt(k) == '-')) {
+                            k++;
+                        }
+                        if (k < length && isDigit(expression.charAt(k))) {
+                            j = k;
+                            while (j < length && isDigit(expression.charAt(j))) {
+                                j++;
+                            }
+                        }
+                    }
+                    if (j < length && "dDfFbB".indexOf(expression.charAt(j)) >= 0) {
+                        j++;
+                    }
+                }
+                tokens.add(expression.substring(i, j));
+                i = j;
+                continue;
+            }
+            if (expression.startsWith("//", i) || expression.startsWith("/*", i)
+                    || expression.startsWith("=~", i) || expression.startsWith("!~", i)) {
+                throw new UnsupportedExpressionException("Unsupported character at position " + i + " of: " + expression);
+            }
+            for (String operator : OPERATORS) {
+                if (expression.startsWith(operator, i)) {
+                    tokens.add(operator);
+                    i += operator.length();
+                    continue outer;
+                }
+            }
+            throw new UnsupportedExpressionException("Unsupported character at position " + i + " of: " + expression);
+        }
+        return tokens;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$' || c == '@';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /*
+     * Parser, using the same precedence rules as JEXL
+     */
+
+    private static class Parser {
+        private final List<String> m_tokens;
+        private final Scope m_scope;
+        private int m_position = 0;
+
+        private Parser(List<String> tokens, Scope scope) {
+            m_tokens = tokens;
+            m_scope = scope;
+        }
+
+        private boolean hasMore() {
+            return m_position < m_tokens.size();
+        }
+
+        private String peek() {
+            return hasMore() ? m_tokens.get(m_position) : null;
+        }
+
+        private String peek(int offset) {
+            return m_position + offset < m_tokens.size() ? m_tokens.get(m_position + offset) : null;
+        }
+
+        private boolean accept(String token) {
+            if (token.equals(peek())) {
+                m_position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) throws UnsupportedExpressionException {
+            if (!accept(token)) {
+                throw new UnsupportedExpressionException("Expected '" + token + "' but got: " + peek());
+            }
+        }
+
+        private Node expression() throws UnsupportedExpressionException {
+            final Node condition = or();
+            if (accept("?")) {
+                final Node ifTrue = expression();
+                expect(":");
+                final Node ifFalse = expression();
+                return new Conditional(condition, ifTrue, ifFalse);
+            } else if (accept("?:")) {
+                return new Elvis(condition, expression());
+            }
+            return condition;
+        }
+
+        private Node or() throws UnsupportedExpressionException {
+            Node left = and();
+            while (accept("||")) {
+                left = new Logical(true, left, and());
+            }
+            return left;
+        }
+
+        private Node and() throws UnsupportedExpressionException {
+            Node left = equality();
+            while (accept("&&")) {
+                left = new Logical(false, left, equality());
+            }
+            return left;
+        }
+
+        private Node equality() throws UnsupportedExpressionException {
+            final Node left = relational();
+            final String op = peek();
+            if ("==".equals(op) || "!=".equals(op)) {
+                m_position++;
+                return new Comparison(op, left, relational());
+            }
+            return left;
+        }
+
+        private Node relational() throws UnsupportedExpressionException {
+            final Node left = additive();
+            final String op = peek();
+            if ("<".equals(op) || ">".equals(op) || "<=".equals(op) || ">=".equals(op)) {
+                m_position++;
+                return new Comparison(op, left, additive());
+            }
+            return left;
+        }
+
+        private Node additive() throws UnsupportedExpressionException {
+            Node left = multiplicative();
+            for (;;) {
+                final String op = peek();
+                if ("+".equals(op) || "-".equals(op)) {
+                    m_position++;
+                    left = Arithmetic.create(op.charAt(0), left, multiplicative());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node multiplicative() throws UnsupportedExpressionException {
+            Node left = unary();
+            for (;;) {
+                final String op = peek();
+                if ("*".equals(op) || "/".equals(op) || "%".equals(op)) {
+                    m_position++;
+                    left = Arithmetic.create(op.charAt(0), left, unary());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node unary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                return new Negate(unary());
+            } else if (accept("!")) {
+                return new Not(unary());
+            }
+            return primary();
+        }
+
+        private Node primary() throws UnsupportedExpressionException {
+            final String token = peek();
+            if (token == null) {
+                throw new UnsupportedExpressionException("Unexpected end of expression");
+            }
+            if (accept("(")) {
+                final Node node = expression();
+                expect(")");
+                return node;
+            }
+            if (isDigit(token.charAt(0))) {
+                m_position++;
+                return literal(token);
+            }
+            if (isLetter(token.charAt(0))) {
+                if (KEYWORDS.contains(token)) {
+                    throw new UnsupportedExpressionException("Unsupported keyword: " + token);
+                }
+                if (":".equals(peek(1)) && peek(2) != null && isLetter(peek(2).charAt(0)) && "(".equals(peek(3))) {
+                    m_position += 4;
+                    return function(token, m_tokens.get(m_position - 2));
+                }
+                m_position++;
+                return m_scope.resolve(token);
+            }
+            throw new UnsupportedExpressionException("Unexpected token: " + token);
+        }
+
+        private Node function(String namespace, String name) throws UnsupportedExpressionException {
+            final List<Node> args = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    args.add(expression());
+                } while (accept(","));
+                expect(")");
+            }
+            if (!NAMESPACES.contains(namespace)) {
+                throw new UnsupportedExpressionException("Unsupported namespace: " + namespace);
+            }
+            final boolean strict = "strictmath".equals(namespace);
+            for (Node arg : args) {
+                if (!arg.getType().isNumeric() || arg.isFloat()) {
+                    // Floats would be widened instead of being converted like they are everywhere else
+                    throw new UnsupportedExpressionException("Unsupported argument for function: " + name);
+                }
+            }
+
+            if (args.size() == 1 && (strict ? STRICTMATH_UNARY : MATH_UNARY).containsKey(name)) {
+                return new UnaryFunction((strict ? STRICTMATH_UNARY : MATH_UNARY).get(name), args.get(0));
+            } else if (args.size() == 2 && (strict ? STRICTMATH_BINARY : MATH_BINARY).containsKey(name)) {
+                return new BinaryFunction((strict ? STRICTMATH_BINARY : MATH_BINARY).get(name), args.get(0), args.get(1));
+            } else if (args.size() == 1 && "abs".equals(name)) {
+                return new Abs(args.get(0));
+            } else if (args.size() == 2 && ("min".equals(name) || "max".equals(name))) {
+                return new MinMax("min".equals(name), args.get(0), args.get(1));
+            }
+            throw new UnsupportedExpressionException("Unsupported function: " + namespace + ":" + name + " with " + args.size() + " arguments");
+        }
+
+        private static Node literal(String token) throws UnsupportedExpressionException {
+            final char last = token.charAt(token.length() - 1);
+            try {
+                if (token.indexOf('.') >= 0) {
+                    if (last == 'b' || last == 'B') {
+                        throw new UnsupportedExpressionException("Unsupported BigDecimal literal: " + token);
+                    } else if (last == 'd' || last == 'D') {
+                        return new Constant(Double.parseDouble(token));
+                    }
+                    // JEXL defaults to floats, which it converts to doubles through their string representation
+                    return new FloatConstant(Float.parseFloat(token));
+                }
+
+                String digits = token;
+                int radix = 10;
+                if (digits.length() > 1 && digits.charAt(0) == '0') {
+                    if (digits.charAt(1) == 'x' || digits.charAt(1) == 'X') {
+                        radix = 16;
+                        digits = digits.substring(2);
+                    } else {
+                        radix = 8;
+                    }
+                }
+                if (last == 'l' || last == 'L') {
+                    digits = digits.substring(0, digits.length() - 1);
+                } else if (last == 'h' || last == 'H') {
+                    throw new UnsupportedExpressionException("Unsupported BigInteger literal: " + token);
+                }
+                return new LongConstant(Long.parseLong(digits, radix));
+            } catch (NumberFormatException e) {
+                throw new UnsupportedExpressionException("Unsupported literal: " + token);
+            }
+        }
+    }
+
+    /*
+     * Nodes
+     */
+
+    /**
+     * A node of a compiled expression.
+     */
+    public static abstract class Node {
+        private final Type m_type;
+
+        protected Node(Type type) {
+            m_type = type;
+        }
+
+        public Type getType() {
+            return m_type;
+        }
+
+        /**
+         * @return true if the node may evaluate to a float literal
+         */
+        protected boolean isFloat() {
+            return false;
+        }
+
+        /**
+         * Evaluates numeric nodes, the result must not be modified.
+         */
+        public abstract double[] evaluate(Frame frame) throws UnsupportedExpressionException;
+
+        /**
+         * Evaluates nodes of type {@link Type#INT}, the result must not be modified.
+         */
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            throw new IllegalStateException("Not an integer node: " + this);
+        }
+
+        /**
+         * Evaluates nodes of type {@link Type#BOOL}, the result must not be modified.
+         */
+        protected boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException {
+            throw new IllegalStateException("Not a boolean node: " + this);
+        }
+
+        /**
+         * Evaluates the truth of the node, the way JEXL coerces numbers to booleans.
+         */
+        protected boolean[] evaluateTruth(Frame frame) throws UnsupportedExpressionException {
+            switch (m_type) {
+            case BOOL:
+                return evaluateBooleans(frame);
+            case INT: {
+                final long[] values = evaluateLongs(frame);
+                final boolean[] truth = new boolean[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    truth[i] = values[i] != 0;
+                }
+                return truth;
+            }
+            default: {
+                final double[] values = evaluate(frame);
+                final boolean[] truth = new boolean[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    truth[i] = !Double.isNaN(values[i]) && values[i] != 0d;
+                }
+                return truth;
+            }
+            }
+        }
+    }
+
+    /**
+     * Base class for the nodes of type {@link Type#INT}.
+     */
+    private static abstract class LongNode extends Node {
+        protected LongNode() {
+            super(Type.INT);
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final long[] values = evaluateLongs(frame);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected abstract long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException;
+    }
+
+    /**
+     * Base class for the nodes of type {@link Type#BOOL}.
+     */
+    private static abstract class BooleanNode extends Node {
+        protected BooleanNode() {
+            super(Type.BOOL);
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) {
+            throw new IllegalStateException("Not a numeric node: " + this);
+        }
+
+        @Override
+        protected abstract boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException;
+    }
+
+    public static class Constant extends Node {
+        private final double m_value;
+
+        public Constant(double value) {
+            super(Type.DOUBLE);
+            m_value = value;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) {
+            final double[] values = new double[frame.getNumRows()];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    private static class FloatConstant extends Constant {
+        private FloatConstant(float value) {
+            super(Double.parseDouble(Float.toString(value)));
+        }
+
+        @Override
+        protected boolean isFloat() {
+            return true;
+        }
+    }
+
+    public static class LongConstant extends LongNode {
+        private final long m_value;
+
+        public LongConstant(long value) {
+            m_value = value;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) {
+            final long[] values = new long[frame.getNumRows()];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    public static class ColumnReference extends Node {
+        private final String m_name;
+
+        public ColumnReference(String name) {
+            super(Type.DOUBLE);
+            m_name = name;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) {
+            return frame.getColumn(m_name);
+        }
+    }
+
+    public static class ResultReference extends Node {
+        private final int m_index;
+
+        public ResultReference(int index) {
+            super(Type.DOUBLE);
+            m_index = index;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) {
+            return frame.getResult(m_index);
+        }
+    }
+
+    public static class TimestampReference extends LongNode {
+        @Override
+        protected long[] evaluateLongs(Frame frame) {
+            return frame.getTimestamps();
+        }
+    }
+
+    private static class Arithmetic extends Node {
+        private final char m_op;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Arithmetic(Type type, char op, Node left, Node right) {
+            super(type);
+            m_op = op;
+            m_left = left;
+            m_right = right;
+        }
+
+        private static Node create(char op, Node left, Node right) throws UnsupportedExpressionException {
+            final Type l = left.getType();
+            final Type r = right.getType();
+            if (!l.isNumeric() || !r.isNumeric()) {
+                throw new UnsupportedExpressionException("Arithmetic on booleans is not supported");
+            }
+            if (l == Type.INT && r == Type.INT) {
+                return new LongArithmetic(op, left, right);
+            } else if (l == Type.DOUBLE || r == Type.DOUBLE) {
+                return new Arithmetic(Type.DOUBLE, op, left, right);
+            } else if (op == '/' || op == '%') {
+                // The result depends on whether both operands are integers on any given row
+                throw new UnsupportedExpressionException("Division of mixed integer and real values is not supported");
+            }
+            // Addition, subtraction and multiplication give the same values
+            return new Arithmetic(Type.MIXED, op, left, right);
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final double[] a = m_left.evaluate(frame);
+            final double[] b = m_right.evaluate(frame);
+            final double[] result = new double[a.length];
+            switch (m_op) {
+            case '+':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = a[i] + b[i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = a[i] - b[i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = a[i] * b[i];
+                }
+                break;
+            case '/':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = b[i] == 0d ? 0d : a[i] / b[i];
+                }
+                break;
+            case '%':
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = b[i] == 0d ? 0d : a[i] % b[i];
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operator: " + m_op);
+            }
+            return result;
+        }
+    }
+
+    private static class LongArithmetic extends LongNode {
+        private final char m_op;
+        private final Node m_left;
+        private final Node m_right;
+
+        private LongArithmetic(char op, Node left, Node right) {
+            m_op = op;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            final long[] a = m_left.evaluateLongs(frame);
+            final long[] b = m_right.evaluateLongs(frame);
+            final long[] result = new long[a.length];
+            try {
+                switch (m_op) {
+                case '+':
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = Math.addExact(a[i], b[i]);
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = Math.subtractExact(a[i], b[i]);
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = Math.multiplyExact(a[i], b[i]);
+                    }
+                    break;
+                case '/':
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = b[i] == 0 ? 0 : a[i] / b[i];
+                    }
+                    break;
+                case '%':
+                    // JEXL uses BigInteger.mod(), which fails when the modulus isn't positive
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = b[i] <= 0 ? 0 : Math.floorMod(a[i], b[i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator: " + m_op);
+                }
+            } catch (ArithmeticException e) {
+                // JEXL would switch to BigIntegers
+                throw new UnsupportedExpressionException("Integer overflow");
+            }
+            return result;
+        }
+    }
+
+    private static class Negate extends Node {
+        private final Node m_child;
+
+        private Negate(Node child) throws UnsupportedExpressionException {
+            super(child.getType());
+            if (!child.getType().isNumeric()) {
+                throw new UnsupportedExpressionException("Negation of booleans is not supported");
+            }
+            m_child = child;
+        }
+
+        @Override
+        protected boolean isFloat() {
+            return m_child.isFloat();
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final double[] values = m_child.evaluate(frame);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            final long[] values = m_child.evaluateLongs(frame);
+            final long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+    }
+
+    private static class Comparison extends BooleanNode {
+        private final String m_op;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Comparison(String op, Node left, Node right) throws UnsupportedExpressionException {
+            if (!left.getType().isNumeric() || !right.getType().isNumeric()) {
+                throw new UnsupportedExpressionException("Comparison of booleans is not supported");
+            }
+            m_op = op;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] result = new boolean[frame.getNumRows()];
+            if (m_left.getType() == Type.INT && m_right.getType() == Type.INT) {
+                final long[] a = m_left.evaluateLongs(frame);
+                final long[] b = m_right.evaluateLongs(frame);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = test(Long.compare(a[i], b[i]));
+                }
+            } else {
+                final double[] a = m_left.evaluate(frame);
+                final double[] b = m_right.evaluate(frame);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = test(compare(a[i], b[i]));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Same as JexlArithmetic: NaN equals NaN and is smaller than any other number.
+         */
+        private static int compare(double lhs, double rhs) {
+            if (Double.isNaN(lhs)) {
+                return Double.isNaN(rhs) ? 0 : -1;
+            } else if (Double.isNaN(rhs)) {
+                return 1;
+            } else if (lhs < rhs) {
+                return -1;
+            } else if (lhs > rhs) {
+                return 1;
+            }
+            return 0;
+        }
+
+        private boolean test(int comparison) {
+            switch (m_op) {
+            case "==": return comparison == 0;
+            case "!=": return comparison != 0;
+            case "<": return comparison < 0;
+            case "<=": return comparison <= 0;
+            case ">": return comparison > 0;
+            case ">=": return comparison >= 0;
+            default: throw new IllegalStateException("Unknown operator: " + m_op);
+            }
+        }
+    }
+
+    private static class Logical extends BooleanNode {
+        private final boolean m_or;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Logical(boolean or, Node left, Node right) {
+            m_or = or;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] a = m_left.evaluateTruth(frame);
+            final boolean[] b = m_right.evaluateTruth(frame);
+            final boolean[] result = new boolean[a.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = m_or ? a[i] || b[i] : a[i] && b[i];
+            }
+            return result;
+        }
+    }
+
+    private static class Not extends BooleanNode {
+        private final Node m_child;
+
+        private Not(Node child) {
+            m_child = child;
+        }
+
+        @Override
+        protected boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] values = m_child.evaluateTruth(frame);
+            final boolean[] result = new boolean[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = !values[i];
+            }
+            return result;
+        }
+    }
+
+    private static Type typeOfEither(Node a, Node b) throws UnsupportedExpressionException {
+        final Type ta = a.getType();
+        final Type tb = b.getType();
+        if (ta == tb) {
+            return ta;
+        } else if (ta == Type.BOOL || tb == Type.BOOL) {
+            throw new UnsupportedExpressionException("Conditionals that return both booleans and numbers are not supported");
+        }
+        return Type.MIXED;
+    }
+
+    /**
+     * The ternary operator.
+     */
+    private static class Conditional extends Node {
+        private final Node m_condition;
+        private final Node m_ifTrue;
+        private final Node m_ifFalse;
+
+        private Conditional(Node condition, Node ifTrue, Node ifFalse) throws UnsupportedExpressionException {
+            super(typeOfEither(ifTrue, ifFalse));
+            m_condition = condition;
+            m_ifTrue = ifTrue;
+            m_ifFalse = ifFalse;
+        }
+
+        @Override
+        protected boolean isFloat() {
+            return m_ifTrue.isFloat() || m_ifFalse.isFloat();
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] condition = m_condition.evaluateTruth(frame);
+            final double[] a = m_ifTrue.evaluate(frame);
+            final double[] b = m_ifFalse.evaluate(frame);
+            final double[] result = new double[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] condition = m_condition.evaluateTruth(frame);
+            final long[] a = m_ifTrue.evaluateLongs(frame);
+            final long[] b = m_ifFalse.evaluateLongs(frame);
+            final long[] result = new long[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected boolean[] evaluateBooleans(Frame frame) throws UnsupportedExpressionException {
+            final boolean[] condition = m_condition.evaluateTruth(frame);
+            final boolean[] a = m_ifTrue.evaluateBooleans(frame);
+            final boolean[] b = m_ifFalse.evaluateBooleans(frame);
+            final boolean[] result = new boolean[condition.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = condition[i] ? a[i] : b[i];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The elvis operator, <code>a ?: b</code> is <code>a ? a : b</code>.
+     */
+    private static class Elvis extends Conditional {
+        private Elvis(Node value, Node otherwise) throws UnsupportedExpressionException {
+            super(value, value, otherwise);
+        }
+    }
+
+    private static class UnaryFunction extends Node {
+        private final DoubleUnaryOperator m_function;
+        private final Node m_arg;
+
+        private UnaryFunction(DoubleUnaryOperator function, Node arg) {
+            super(Type.DOUBLE);
+            m_function = function;
+            m_arg = arg;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final double[] values = m_arg.evaluate(frame);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = m_function.applyAsDouble(values[i]);
+            }
+            return result;
+        }
+    }
+
+    private static class BinaryFunction extends Node {
+        private final DoubleBinaryOperator m_function;
+        private final Node m_left;
+        private final Node m_right;
+
+        private BinaryFunction(DoubleBinaryOperator function, Node left, Node right) {
+            super(Type.DOUBLE);
+            m_function = function;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            final double[] a = m_left.evaluate(frame);
+            final double[] b = m_right.evaluate(frame);
+            final double[] result = new double[a.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = m_function.applyAsDouble(a[i], b[i]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Type of the functions that have integer and real variants, which
+     * get picked depending on the type of the arguments.
+     */
+    private static Type overloadedType(Node... args) throws UnsupportedExpressionException {
+        final Set<Type> types = new HashSet<>();
+        for (Node arg : args) {
+            types.add(arg.getType());
+        }
+        if (types.contains(Type.MIXED)) {
+            throw new UnsupportedExpressionException("Functions of mixed integer and real values are not supported");
+        }
+        return types.contains(Type.DOUBLE) ? Type.DOUBLE : Type.INT;
+    }
+
+    private static class Abs extends Node {
+        private final Node m_arg;
+
+        private Abs(Node arg) throws UnsupportedExpressionException {
+            super(overloadedType(arg));
+            m_arg = arg;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            if (getType() == Type.INT) {
+                return toDoubles(evaluateLongs(frame));
+            }
+            final double[] values = m_arg.evaluate(frame);
+            final double[] result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Math.abs(values[i]);
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            final long[] values = m_arg.evaluateLongs(frame);
+            final long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Math.abs(values[i]);
+            }
+            return result;
+        }
+    }
+
+    private static class MinMax extends Node {
+        private final boolean m_min;
+        private final Node m_left;
+        private final Node m_right;
+
+        private MinMax(boolean min, Node left, Node right) throws UnsupportedExpressionException {
+            super(overloadedType(left, right));
+            m_min = min;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        public double[] evaluate(Frame frame) throws UnsupportedExpressionException {
+            if (getType() == Type.INT) {
+                return toDoubles(evaluateLongs(frame));
+            }
+            final double[] a = m_left.evaluate(frame);
+            final double[] b = m_right.evaluate(frame);
+            final double[] result = new double[a.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = m_min ? Math.min(a[i], b[i]) : Math.max(a[i], b[i]);
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] evaluateLongs(Frame frame) throws UnsupportedExpressionException {
+            final long[] a = m_left.evaluateLongs(frame);
+            final long[] b = m_right.evaluateLongs(frame);
+            final long[] result = new long[a.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = m_min ? Math.min(a[i], b[i]) : Math.max(a[i], b[i]);
+            }
+            return result;
+        }
+    }
+
+    private static double[] toDoubles(long[] values) {
+        final double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+}
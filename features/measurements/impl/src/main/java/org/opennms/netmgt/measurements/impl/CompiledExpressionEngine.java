@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.ColumnReference;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.Constant;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.Frame;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.LongConstant;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.Node;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.ResultReference;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.TimestampReference;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.Type;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An expression engine that compiles the expressions once per request
+ * and evaluates them over entire columns, instead of interpreting every
+ * expression on every row.
+ *
+ * Only the arithmetic subset of JEXL is supported, see {@link ColumnarExpressionCompiler}.
+ * Requests that use anything else are delegated to the {@link JEXLExpressionEngine},
+ * which also takes care of reporting errors.
+ *
+ * The compiled evaluation can be disabled by setting the
+ * {@value #ENABLED_PROPERTY} system property to <code>false</code>.
+ */
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledExpressionEngine.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.measurements.compiledExpressions";
+
+    private final ExpressionEngine m_fallback;
+
+    private final boolean m_enabled;
+
+    public CompiledExpressionEngine() {
+        this(new JEXLExpressionEngine(), Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, Boolean.TRUE.toString())));
+    }
+
+    public CompiledExpressionEngine(ExpressionEngine fallback, boolean enabled) {
+        m_fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+        m_enabled = enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        if (request.getExpressions().isEmpty()) {
+            return;
+        }
+        if (m_enabled) {
+            try {
+                applyCompiledExpressions(request.getExpressions(), results);
+                return;
+            } catch (UnsupportedExpressionException e) {
+                LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            }
+        }
+        m_fallback.applyExpressions(request, results);
+    }
+
+    private static void applyCompiledExpressions(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final long[] timestamps = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        // Compile all of the expressions before evaluating any of them, so
+        // that we can still hand the request over to JEXL untouched
+        final Map<String, Integer> labels = new HashMap<>();
+        final Node[] nodes = new Node[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            final String label = expressions.get(i).getLabel();
+            if (labels.containsKey(label) || columns.containsKey(label)) {
+                // With JEXL, the values would depend on the order of the evaluation
+                throw new UnsupportedExpressionException("Duplicate label: " + label);
+            }
+            final Map<String, Integer> previousLabels = new HashMap<>(labels);
+            nodes[i] = ColumnarExpressionCompiler.compile(expressions.get(i).getExpression(),
+                    name -> resolve(name, timestamps, columns, previousLabels, results.getConstants()));
+            if (nodes[i].getType() == Type.BOOL) {
+                throw new UnsupportedExpressionException("Expression with label '" + label + "' does not return a number.");
+            }
+            labels.put(label, i);
+        }
+
+        final double[][] values = new double[nodes.length][];
+        final Frame frame = new Frame() {
+            @Override
+            public int getNumRows() {
+                return numRows;
+            }
+
+            @Override
+            public long[] getTimestamps() {
+                return timestamps;
+            }
+
+            @Override
+            public double[] getColumn(String name) {
+                return columns.get(name);
+            }
+
+            @Override
+            public double[] getResult(int index) {
+                return values[index];
+            }
+        };
+        for (int i = 0; i < nodes.length; i++) {
+            values[i] = nodes[i].evaluate(frame);
+        }
+
+        // Store the results, the arrays may be shared with the columns or other results
+        for (int i = 0; i < nodes.length; i++) {
+            final Expression expression = expressions.get(i);
+            if (!expression.getTransient()) {
+                columns.put(expression.getLabel(), values[i].clone());
+            }
+        }
+    }
+
+    /**
+     * Resolves the identifiers the same way as the JEXL context that is built
+     * by {@link JEXLExpressionEngine}.
+     */
+    private static Node resolve(String name, long[] timestamps, Map<String, double[]> columns,
+            Map<String, Integer> labels, Map<String, Object> constants) throws UnsupportedExpressionException {
+        if (columns.containsKey(name)) {
+            return new ColumnReference(name);
+        } else if ("timestamp".equals(name)) {
+            return new TimestampReference();
+        } else if (labels.containsKey(name)) {
+            return new ResultReference(labels.get(name));
+        }
+
+        switch (name) {
+        case "__diff_time":
+            return new Constant(timestamps.length < 1 ? 0d : timestamps[timestamps.length - 1] - timestamps[0]);
+        case "__inf":
+            return new Constant(Double.POSITIVE_INFINITY);
+        case "__neg_inf":
+            return new Constant(Double.NEGATIVE_INFINITY);
+        case "NaN":
+            return new Constant(Double.NaN);
+        default:
+            break;
+        }
+
+        final Object constant = constants.get(name);
+        if (constant instanceof Double || constant instanceof Float) {
+            return new Constant(((Number)constant).doubleValue());
+        } else if (constant instanceof Long || constant instanceof Integer || constant instanceof Short || constant instanceof Byte) {
+            return new LongConstant(((Number)constant).longValue());
+        }
+        throw new UnsupportedExpressionException("Unsupported or unknown identifier: " + name);
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.filters.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ColumnarTable;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.FilterEngine;
+import org.opennms.netmgt.measurements.api.exceptions.FilterException;
+import org.opennms.netmgt.measurements.model.FilterDef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * Compares the columnar and the table based filter pipelines for each of the
+ * built-in filters, on the results of a fetch with 10 series of 8000 rows each.
+ *
+ * Both pipelines include the conversion from and to the {@link FetchResults}, as done
+ * by the measurements service. The GC profiler is enabled so that the allocation
+ * rate per operation (gc.alloc.rate.norm) is reported along with the latency.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.measurements.filters.impl.FilterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+
+    private static final int NUM_SERIES = 10;
+
+    private static final int NUM_ROWS = 8000;
+
+    @Param({"Chomp", "Derivative", "Percentile", "Outlier"})
+    public String filter;
+
+    @Param({"columnar", "table"})
+    public String pipeline;
+
+    private final FilterEngine m_filterEngine = new FilterEngine();
+
+    private List<FilterDef> m_filters;
+
+    private long[] m_timestamps;
+
+    private final Map<String, double[]> m_values = Maps.newHashMap();
+
+    private final Map<String, double[]> m_columns = Maps.newHashMap();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        m_timestamps = new long[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            m_timestamps[i] = 1483228800000L + i * 300000L;
+        }
+
+        for (int j = 0; j < NUM_SERIES; j++) {
+            final double[] values = new double[NUM_ROWS];
+            for (int i = 0; i < NUM_ROWS; i++) {
+                // Leading and trailing NaNs for Chomp to strip, and the occasional gap
+                final boolean missing = i < 100 || i >= NUM_ROWS - 100 || random.nextInt(100) == 0;
+                values[i] = missing ? Double.NaN : random.nextDouble() * 1000000;
+            }
+            m_values.put("octets" + j, values);
+            m_columns.put("octets" + j, new double[NUM_ROWS]);
+        }
+
+        switch (filter) {
+        case "Chomp":
+            m_filters = Lists.newArrayList(new FilterDef("Chomp", "stripNaNs", "true"));
+            break;
+        case "Derivative":
+            m_filters = Lists.newArrayList(new FilterDef("Derivative", "inputColumn", "octets0", "outputColumn", "rate0"));
+            break;
+        case "Percentile":
+            m_filters = Lists.newArrayList(new FilterDef("Percentile", "inputColumn", "octets0", "outputColumn", "p95", "quantile", "0.95"));
+            break;
+        case "Outlier":
+            m_filters = Lists.newArrayList(new FilterDef("Outlier", "inputColumn", "octets0", "quantile", "0.95"));
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported filter: " + filter);
+        }
+    }
+
+    @Benchmark
+    public FetchResults filter() throws FilterException {
+        // The filters may modify the values in place, so start from the original values
+        for (Map.Entry<String, double[]> entry : m_values.entrySet()) {
+            System.arraycopy(entry.getValue(), 0, m_columns.get(entry.getKey()), 0, NUM_ROWS);
+        }
+        final FetchResults results = new FetchResults(m_timestamps, Maps.newHashMap(m_columns), 300000L, Maps.<String, Object>newHashMap());
+
+        if ("columnar".equals(pipeline)) {
+            final ColumnarTable table = m_filterEngine.filter(m_filters, results.asColumnarTable());
+            return new FetchResults(table, results.getStep(), results.getConstants());
+        } else {
+            final RowSortedTable<Long, String, Double> table = results.asRowSortedTable();
+            m_filterEngine.filter(m_filters, table);
+            return new FetchResults(table, results.getStep(), results.getConstants());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(FilterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
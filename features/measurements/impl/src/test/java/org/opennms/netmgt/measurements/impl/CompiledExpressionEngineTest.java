@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the compiled expressions give the same results as JEXL.
+ */
+public class CompiledExpressionEngineTest {
+
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "%" };
+    private static final String[] COMPARATORS = { "==", "!=", "<", "<=", ">", ">=" };
+    private static final String[] FUNCTIONS = { "math:sin", "math:sqrt", "math:log", "math:floor", "strictmath:exp", "math:abs" };
+    private static final String[] BINARY_FUNCTIONS = { "math:min", "math:max", "math:pow", "strictmath:atan2" };
+    private static final String[] LITERALS = { "0", "1", "7", "-3", "0.5", "2.0d", "1.5e2", "010", "0x1F", "8L", "1.1f" };
+    private static final String[] IDENTIFIERS = { "x", "y", "z", "timestamp", "__diff_time", "__inf", "__neg_inf", "NaN", "speed", "ratio" };
+
+    @Test
+    public void canEvaluateTheJexlTestCases() throws ExpressionException {
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("A", 0.0);
+        constants.put("B", 0.14290626);
+        constants.put("C", 0.01);
+        constants.put("speed", 65);
+
+        assertCompiledMatchesJexl(constants,
+                "x * 5 + 7",
+                "math:sin(x)",
+                "( ( (A == __inf) || (A == __neg_inf) || (B == __inf) || (B == __neg_inf) || (C == __inf) || (C == __neg_inf) || (C < A) || (C > B) ) ? NaN : C )",
+                "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )",
+                "( ( ( A == NaN ) && ( B == NaN ) ) ? NaN : ( ( A == NaN ) ? B : ( ( B == NaN ) ? A : ( A + B ) ) ) )",
+                "math:atan2(speed,x)",
+                "timestamp / 125.0d",
+                "speed / 0.62137",
+                "1 * __diff_time");
+    }
+
+    @Test
+    public void canEvaluateIntegerArithmetic() throws ExpressionException {
+        assertCompiledMatchesJexl(Maps.<String, Object>newHashMap(),
+                "timestamp / 7",
+                "timestamp % 7 - 3",
+                "-timestamp % 0",
+                "timestamp / 0 + 1",
+                "7 / 2 * x",
+                "-7 % 3",
+                "x > 50 ? timestamp : x",
+                "x ?: 42",
+                "!x ? 1 : 2",
+                "math:abs(-timestamp) + math:max(3, timestamp)");
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        final QueryRequest request = request("a", "x * 2", "b", "a + timestamp", "c", "b / a");
+        request.getExpressions().get(1).setTransient(true);
+
+        final FetchResults compiled = results(Maps.<String, Object>newHashMap());
+        compiledOnly().applyExpressions(request, compiled);
+        final FetchResults jexl = results(Maps.<String, Object>newHashMap());
+        new JEXLExpressionEngine().applyExpressions(request, jexl);
+
+        assertFalse(compiled.getColumns().containsKey("b"));
+        assertArrayEquals(jexl.getColumns().get("a"), compiled.getColumns().get("a"), 0.0d);
+        assertArrayEquals(jexl.getColumns().get("c"), compiled.getColumns().get("c"), 0.0d);
+    }
+
+    @Test
+    public void fallsBackToJexl() throws ExpressionException {
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("label", "ifInOctets");
+
+        for (String expression : new String[] {
+                "x == 1 ? 'a' : 'b'",
+                "label.length()",
+                "x = 2",
+                "size(label)",
+                "x & 1",
+                "a ? 1 : 2",
+                "math:round(x)",
+                "math:sin(0.1)",
+                "1 < 2 < 3",
+                "9223372036854775807 + timestamp",
+                "(x > 1 ? timestamp : 0.5) / timestamp"
+        }) {
+            final AtomicBoolean delegated = new AtomicBoolean(false);
+            final ExpressionEngine engine = new CompiledExpressionEngine(new ExpressionEngine() {
+                @Override
+                public void applyExpressions(QueryRequest request, FetchResults results) {
+                    delegated.set(true);
+                }
+            }, true);
+            engine.applyExpressions(request("r", expression), results(constants));
+            assertTrue(expression, delegated.get());
+        }
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        new CompiledExpressionEngine().applyExpressions(request("r", "/"), results(Maps.<String, Object>newHashMap()));
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        new CompiledExpressionEngine().applyExpressions(request("r", "x > 1"), results(Maps.<String, Object>newHashMap()));
+    }
+
+    @Test
+    public void canEvaluateRandomExpressions() throws ExpressionException {
+        final Random random = new Random(42);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 100000000L);
+        constants.put("ratio", 0.25d);
+
+        for (int i = 0; i < 2000; i++) {
+            final String expression = randomExpression(random, 4);
+            final FetchResults expected = results(constants);
+            final FetchResults actual = results(constants);
+            final QueryRequest request = request("e", expression);
+
+            try {
+                new JEXLExpressionEngine().applyExpressions(request, expected);
+            } catch (ExpressionException e) {
+                // Errors must be reported the same way
+                try {
+                    new CompiledExpressionEngine(new JEXLExpressionEngine(), true).applyExpressions(request, actual);
+                    fail("Expected an ExpressionException for: " + expression);
+                } catch (ExpressionException ex) {
+                    continue;
+                }
+            }
+            new CompiledExpressionEngine(new JEXLExpressionEngine(), true).applyExpressions(request, actual);
+            assertArrayEquals(expression, expected.getColumns().get("e"), actual.getColumns().get("e"), 0.0d);
+        }
+    }
+
+    private static String randomExpression(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return random.nextBoolean() ? LITERALS[random.nextInt(LITERALS.length)] : IDENTIFIERS[random.nextInt(IDENTIFIERS.length)];
+        }
+        switch (random.nextInt(6)) {
+        case 0:
+            return "(" + randomExpression(random, depth - 1) + " " + COMPARATORS[random.nextInt(COMPARATORS.length)] + " "
+                    + randomExpression(random, depth - 1) + " ? " + randomExpression(random, depth - 1) + " : "
+                    + randomExpression(random, depth - 1) + ")";
+        case 1:
+            return FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + randomExpression(random, depth - 1) + ")";
+        case 2:
+            return BINARY_FUNCTIONS[random.nextInt(BINARY_FUNCTIONS.length)] + "(" + randomExpression(random, depth - 1) + ", "
+                    + randomExpression(random, depth - 1) + ")";
+        case 3:
+            return "-" + randomExpression(random, depth - 1);
+        default:
+            return "(" + randomExpression(random, depth - 1) + " " + OPERATORS[random.nextInt(OPERATORS.length)] + " "
+                    + randomExpression(random, depth - 1) + ")";
+        }
+    }
+
+    private static void assertCompiledMatchesJexl(Map<String, Object> constants, String... expressions) throws ExpressionException {
+        for (String expression : expressions) {
+            final FetchResults expected = results(constants);
+            final FetchResults actual = results(constants);
+            final QueryRequest request = request("r", expression);
+
+            new JEXLExpressionEngine().applyExpressions(request, expected);
+            compiledOnly().applyExpressions(request, actual);
+            assertArrayEquals(expression, expected.getColumns().get("r"), actual.getColumns().get("r"), 0.0d);
+        }
+    }
+
+    /**
+     * @return an engine that fails if any of the expressions could not be compiled
+     */
+    private static ExpressionEngine compiledOnly() {
+        return new CompiledExpressionEngine(new ExpressionEngine() {
+            @Override
+            public void applyExpressions(QueryRequest request, FetchResults results) {
+                throw new AssertionError("Expressions were not compiled: " + request.getExpressions());
+            }
+        }, true);
+    }
+
+    private static QueryRequest request(String... labelsAndExpressions) {
+        final List<Expression> expressions = Lists.newArrayList();
+        for (int i = 0; i < labelsAndExpressions.length; i += 2) {
+            final Expression expression = new Expression();
+            expression.setLabel(labelsAndExpressions[i]);
+            expression.setExpression(labelsAndExpressions[i + 1]);
+            expressions.add(expression);
+        }
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    private static FetchResults results(Map<String, Object> constants) {
+        final int N = 100;
+        final long timestamps[] = new long[N];
+        final double xValues[] = new double[N];
+        final double yValues[] = new double[N];
+        final double zValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = 1483228800000L + i * 1000;
+            xValues[i] = i;
+            yValues[i] = i % 10 == 0 ? Double.NaN : Math.sin(i) * 100;
+            zValues[i] = i % 3 == 0 ? 0d : -i / 4d;
+        }
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+        values.put("z", zValues);
+        return new FetchResults(timestamps, values, 1, constants);
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the compiled expression engine against JEXL on a request with
+ * 200 series of 8000 rows each, and a derived expression for every series.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.measurements.impl.ExpressionEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExpressionEngineBenchmark {
+
+    private static final int NUM_SERIES = 200;
+
+    private static final int NUM_ROWS = 8000;
+
+    @Param({"compiled", "jexl"})
+    public String engine;
+
+    private ExpressionEngine m_engine;
+
+    private QueryRequest m_request;
+
+    private long[] m_timestamps;
+
+    private final Map<String, double[]> m_columns = Maps.newHashMap();
+
+    private final Map<String, Object> m_constants = Maps.newHashMap();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        m_engine = "compiled".equals(engine) ? new CompiledExpressionEngine(new JEXLExpressionEngine(), true) : new JEXLExpressionEngine();
+
+        final Random random = new Random(42);
+        m_timestamps = new long[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            m_timestamps[i] = 1483228800000L + i * 300000L;
+        }
+
+        final List<Expression> expressions = Lists.newArrayList();
+        for (int j = 0; j < NUM_SERIES; j++) {
+            final double[] values = new double[NUM_ROWS];
+            for (int i = 0; i < NUM_ROWS; i++) {
+                values[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1000000;
+            }
+            m_columns.put("octets" + j, values);
+            m_constants.put("speed" + j, 100000000d);
+
+            // Typical derived values: bits per second, utilization and a guarded limit
+            final Expression bits = new Expression();
+            bits.setLabel("bits" + j);
+            bits.setExpression("octets" + j + " * 8");
+            bits.setTransient(true);
+            expressions.add(bits);
+
+            final Expression utilization = new Expression();
+            utilization.setLabel("util" + j);
+            utilization.setExpression("(bits" + j + " == NaN || speed" + j + " == 0) ? NaN : math:min(100.0d, bits" + j + " * 100 / speed" + j + ")");
+            expressions.add(utilization);
+        }
+
+        m_request = new QueryRequest();
+        m_request.setExpressions(expressions);
+    }
+
+    @Benchmark
+    public FetchResults applyExpressions() throws ExpressionException {
+        // The engines add the results to the columns, so start with a fresh copy
+        final FetchResults results = new FetchResults(m_timestamps, Maps.newHashMap(m_columns), 300000L, m_constants);
+        m_engine.applyExpressions(m_request, results);
+        return results;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(ExpressionEngineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
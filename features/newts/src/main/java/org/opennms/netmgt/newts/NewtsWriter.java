@@ -28,10 +28,13 @@
 
 package org.opennms.netmgt.newts;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -39,6 +42,8 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.joda.time.Duration;
+import org.opennms.core.ipc.sink.journal.MessageJournal;
+import org.opennms.core.ipc.sink.journal.MessageJournal.Record;
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.newts.support.NewtsUtils;
 import org.opennms.newts.api.Sample;
@@ -47,14 +52,16 @@ import org.opennms.newts.api.search.Indexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Strings;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventTranslatorOneArg;
@@ -70,9 +77,24 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * When an overflow directory is configured, the batches that don't fit in the
+ * ring buffer are written to a journal on disk instead of being dropped. Once
+ * the journal holds a batch, all subsequent batches are appended to it as well,
+ * and a background thread moves them back onto the ring buffer, in order, as
+ * space becomes available.
+ *
+ * Each writer thread adapts the size of the batches it inserts to the latency
+ * of the repository: the batch size is halved when an insert takes longer than
+ * the target latency, and grows back towards max_batch_size when inserts are
+ * fast. A thread that fails to insert a batch also backs off before trying
+ * again, which reduces the number of concurrent inserts while the repository
+ * is struggling. When the overflow journal is enabled, the failed batch is
+ * moved to the journal and replayed from there, otherwise the insert is
+ * retried a few times before the samples are dropped.
+ *
  * @author jwhite
  */
-public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
+public class NewtsWriter implements InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
@@ -81,6 +103,20 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    public static final long DEFAULT_OVERFLOW_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    public static final int DEFAULT_OVERFLOW_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public static final long DEFAULT_TARGET_INSERT_LATENCY_MS = 250;
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+
+    private static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final long REPLAY_RETRY_DELAY_MS = 10;
+
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
@@ -91,6 +127,8 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
 
+    private Worker[] m_workers;
+
     private final int m_maxBatchSize;
 
     private final int m_ringBufferSize;
@@ -99,12 +137,37 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    private final Meter m_spilledSamples;
+
+    private final Meter m_replayedSamples;
+
+    private final Timer m_insertTimer;
+
+    private String m_overflowDirectory;
+
+    private long m_overflowMaxSize = DEFAULT_OVERFLOW_MAX_SIZE;
+
+    private int m_overflowSegmentSize = DEFAULT_OVERFLOW_SEGMENT_SIZE;
+
+    private volatile long m_targetInsertLatencyMs = DEFAULT_TARGET_INSERT_LATENCY_MS;
+
+    private volatile MessageJournal m_overflowJournal;
+
+    private Thread m_replayThread;
+
+    private volatile boolean m_replaying = false;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    /**
+     * Number of samples that were published to the ring buffer, but not yet persisted.
+     */
+    private final AtomicLong m_numSamplesInFlight = new AtomicLong();
+
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
             @Named("newts.writer_threads") Integer numWriterThreads, MetricRegistry registry) {
@@ -133,8 +196,41 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         return Long.valueOf(m_ringBufferSize);
                     }
                 });
+        registry.register(MetricRegistry.name("ring-buffer", "in-flight-samples"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_numSamplesInFlight.get();
+                    }
+                });
+        registry.register(MetricRegistry.name("overflow", "depth"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        final MessageJournal journal = m_overflowJournal;
+                        return journal != null ? journal.getDepth() : 0L;
+                    }
+                });
+        registry.register(MetricRegistry.name("overflow", "bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        final MessageJournal journal = m_overflowJournal;
+                        return journal != null ? journal.getBytes() : 0L;
+                    }
+                });
+        registry.register(MetricRegistry.name("writer", "batch-size"),
+                new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return getAverageBatchSize();
+                    }
+                });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_spilledSamples = registry.meter(MetricRegistry.name("overflow", "spilled-samples"));
+        m_replayedSamples = registry.meter(MetricRegistry.name("overflow", "replayed-samples"));
+        m_insertTimer = registry.timer(MetricRegistry.name("writer", "insert"));
 
         LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
         setUpWorkerPool();
@@ -146,10 +242,10 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 .setNameFormat("NewtsWriter-Consumer-%d").build();
         final Executor executor = Executors.newCachedThreadPool(namedThreadFactory);
 
-        @SuppressWarnings("unchecked")
-        final WorkHandler<SampleBatchEvent> handlers[] = new WorkHandler[m_numWriterThreads];
+        // Each thread gets its own handler, so that the batch size can be adapted per thread
+        m_workers = new Worker[m_numWriterThreads];
         for (int i = 0; i < m_numWriterThreads; i++) {
-            handlers[i] = this;
+            m_workers[i] = new Worker();
         }
 
         m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
@@ -157,78 +253,275 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 m_ringBuffer,
                 m_ringBuffer.newBarrier(),
                 new FatalExceptionHandler(),
-                handlers);
+                m_workers);
         m_ringBuffer.addGatingSequences(m_workerPool.getWorkerSequences());
 
         m_workerPool.start(executor);
     }
 
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (Strings.isNullOrEmpty(m_overflowDirectory)) {
+            return;
+        }
+
+        LOG.debug("Using overflow_directory: {} with overflow_max_size: {}", m_overflowDirectory, m_overflowMaxSize);
+        m_overflowJournal = new MessageJournal(Paths.get(m_overflowDirectory), m_overflowSegmentSize, m_overflowMaxSize);
+
+        m_replaying = true;
+        m_replayThread = new Thread(this::replay, "NewtsWriter-Overflow-Replay");
+        m_replayThread.setDaemon(true);
+        m_replayThread.start();
+    }
+
     @Override
     public void destroy() throws Exception {
+        // Stop the replay first, the batches that remain in the journal will be replayed on the next start
+        if (m_replayThread != null) {
+            m_replaying = false;
+            m_replayThread.interrupt();
+            m_replayThread.join(TimeUnit.SECONDS.toMillis(30));
+        }
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
+        if (m_overflowJournal != null) {
+            m_overflowJournal.close();
+        }
     }
 
     public void insert(List<Sample> samples) {
-        pushToRingBuffer(samples, TRANSLATOR);
+        pushToRingBuffer(samples, false);
     }
 
     public void index(List<Sample> samples) {
-        pushToRingBuffer(samples, INDEX_ONLY_TRANSLATOR);
+        pushToRingBuffer(samples, true);
     }
 
-    private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+    private void pushToRingBuffer(List<Sample> samples, boolean indexOnly) {
+        final MessageJournal overflowJournal = m_overflowJournal;
+        // Preserve the ordering of the samples: once we start spilling to the journal,
+        // everything goes to the journal until it has been replayed
+        if (overflowJournal != null && overflowJournal.getDepth() > 0 && spill(overflowJournal, samples, indexOnly)) {
+            return;
+        }
+
         // Add the samples to the ring buffer
-        if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
-            RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
-                    samples.size(), new Object() {
-                        @Override
-                        public String toString() {
-                            // We wrap this in a toString() method to avoid build the string
-                            // unless the log message is actually printed
-                            return samples.stream()
-                                    .map(s -> s.getResource().getId())
-                                    .distinct()
-                                    .collect(Collectors.joining(", "));
-                        }
-                    });
-            m_droppedSamples.mark(samples.size());
+        m_numSamplesInFlight.addAndGet(samples.size());
+        if (m_ringBuffer.tryPublishEvent(indexOnly ? INDEX_ONLY_TRANSLATOR : TRANSLATOR, samples)) {
+            // Increase our entry counter
+            m_numEntriesOnRingBuffer.incrementAndGet();
             return;
         }
-        // Increase our entry counter
-        m_numEntriesOnRingBuffer.incrementAndGet();
+        m_numSamplesInFlight.addAndGet(-samples.size());
+
+        if (overflowJournal != null && spill(overflowJournal, samples, indexOnly)) {
+            return;
+        }
+
+        RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
+                samples.size(), new Object() {
+                    @Override
+                    public String toString() {
+                        // We wrap this in a toString() method to avoid build the string
+                        // unless the log message is actually printed
+                        return samples.stream()
+                                .map(s -> s.getResource().getId())
+                                .distinct()
+                                .collect(Collectors.joining(", "));
+                    }
+                });
+        m_droppedSamples.mark(samples.size());
     }
 
-    @Override
-    public void onEvent(SampleBatchEvent event) throws Exception {
+    /**
+     * Appends the samples to the overflow journal.
+     *
+     * @return <code>true</code> if the samples were written to the journal
+     */
+    private boolean spill(MessageJournal overflowJournal, List<Sample> samples, boolean indexOnly) {
+        try {
+            if (overflowJournal.append(SampleBatchCodec.encode(samples, indexOnly), false)) {
+                m_spilledSamples.mark(samples.size());
+                return true;
+            }
+            RATE_LIMITED_LOGGER.error("The overflow journal in {} is full.", m_overflowDirectory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException|IllegalStateException e) {
+            RATE_LIMITED_LOGGER.error("Failed to write {} samples to the overflow journal in {}.", samples.size(), m_overflowDirectory, e);
+        }
+        return false;
+    }
+
+    /**
+     * Moves the batches from the overflow journal to the ring buffer, in order, until we're stopped.
+     */
+    private void replay() {
         // We'd expect the logs from this thread to be in collectd.log
         Logging.putPrefix("collectd");
 
-        List<Sample> samples = event.getSamples();
-        // Decrement our entry counter
-        m_numEntriesOnRingBuffer.decrementAndGet();
+        final MessageJournal overflowJournal = m_overflowJournal;
+        while (m_replaying) {
+            final Record record;
+            try {
+                record = overflowJournal.peek(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException|IllegalStateException e) {
+                if (m_replaying) {
+                    LOG.error("Failed to read from the overflow journal in {}. Replay is stopping.", m_overflowDirectory, e);
+                }
+                break;
+            }
+            if (record == null) {
+                continue;
+            }
+
+            final SampleBatchEvent batch;
+            try {
+                if (!record.isValid()) {
+                    throw new IOException("Checksum mismatch for " + record);
+                }
+                batch = SampleBatchCodec.decode(record.getPayload());
+            } catch (Exception e) {
+                LOG.error("Discarding samples from the overflow journal in {} that could not be read.", m_overflowDirectory, e);
+                overflowJournal.commit(record);
+                continue;
+            }
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+            final List<Sample> samples = batch.getSamples();
+            m_numSamplesInFlight.addAndGet(samples.size());
             try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
+                while (!m_ringBuffer.tryPublishEvent(batch.isIndexOnly() ? INDEX_ONLY_TRANSLATOR : TRANSLATOR, samples)) {
+                    Thread.sleep(REPLAY_RETRY_DELAY_MS);
+                }
+            } catch (InterruptedException e) {
+                // The batch stays in the journal
+                m_numSamplesInFlight.addAndGet(-samples.size());
+                break;
+            }
+            m_numEntriesOnRingBuffer.incrementAndGet();
+            overflowJournal.commit(record);
+            m_replayedSamples.mark(samples.size());
+        }
+    }
+
+    private double getAverageBatchSize() {
+        long sum = 0;
+        for (Worker worker : m_workers) {
+            sum += worker.m_batchSize;
+        }
+        return (double)sum / m_workers.length;
+    }
+
+    /**
+     * Inserts the batches from the ring buffer. There is one instance per writer thread.
+     */
+    private class Worker implements WorkHandler<SampleBatchEvent> {
+
+        private volatile int m_batchSize = m_maxBatchSize;
+
+        private long m_backoffMs = 0;
+
+        @Override
+        public void onEvent(SampleBatchEvent event) throws Exception {
+            // We'd expect the logs from this thread to be in collectd.log
+            Logging.putPrefix("collectd");
+
+            List<Sample> samples = event.getSamples();
+            // Decrement our entry counter
+            m_numEntriesOnRingBuffer.decrementAndGet();
+
+            // Partition the samples into collections no larger than the current batch size
+            int offset = 0;
+            while (offset < samples.size()) {
+                final List<Sample> batch = samples.subList(offset, Math.min(samples.size(), offset + m_batchSize));
+                offset += batch.size();
+
+                try {
+                    write(batch, event.isIndexOnly());
+                } finally {
+                    m_numSamplesInFlight.addAndGet(-batch.size());
                 }
+            }
+        }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+        /**
+         * Inserts (or indexes) the batch. Failed batches are retried after
+         * backing off, and are moved to the overflow journal, when there is
+         * one, so that they get replayed instead of being lost.
+         */
+        private void write(List<Sample> batch, boolean indexOnly) {
+            for (int attempt = 1; ; attempt++) {
+                final long start = System.nanoTime();
+                boolean succeeded = false;
+                try {
+                    if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
+                        LOG.debug("Indexing {} samples", batch.size());
+                        m_indexer.update(batch);
+                    } else {
+                        LOG.debug("Inserting {} samples", batch.size());
+                        m_sampleRepository.insert(batch);
+                    }
+                    succeeded = true;
+
+                    if (LOG.isDebugEnabled()) {
+                        String uniqueResourceIds = batch.stream()
+                            .map(s -> s.getResource().getId())
+                            .distinct()
+                            .collect(Collectors.joining(", "));
+                        LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+                    }
+                } catch (Throwable t) {
+                    RATE_LIMITED_LOGGER.error("An error occurred while inserting {} samples (attempt {}).", batch.size(), attempt, t);
+                }
+                adapt(System.nanoTime() - start, succeeded);
+                if (succeeded) {
+                    return;
+                }
+
+                final MessageJournal overflowJournal = m_overflowJournal;
+                if (overflowJournal != null && spill(overflowJournal, batch, indexOnly)) {
+                    LOG.debug("Moved {} samples that failed to be inserted to the overflow journal.", batch.size());
+                    return;
+                }
+                if (attempt >= MAX_INSERT_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    RATE_LIMITED_LOGGER.error("Failed to insert {} samples after {} attempts. The samples will be dropped.", batch.size(), attempt);
+                    m_droppedSamples.mark(batch.size());
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adjusts the batch size using additive increase and multiplicative decrease,
+         * and backs off exponentially after failed inserts.
+         */
+        private void adapt(long elapsedNanos, boolean succeeded) {
+            m_insertTimer.update(elapsedNanos, TimeUnit.NANOSECONDS);
+            if (!succeeded) {
+                if (m_targetInsertLatencyMs > 0) {
+                    m_batchSize = Math.max(1, m_batchSize / 2);
+                }
+                m_backoffMs = m_backoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(m_backoffMs * 2, MAX_BACKOFF_MS);
+                try {
+                    Thread.sleep(m_backoffMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-            } catch (Throwable t) {
-                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+                return;
+            }
+
+            m_backoffMs = 0;
+            if (m_targetInsertLatencyMs <= 0) {
+                return;
+            }
+            final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            if (elapsedMs > m_targetInsertLatencyMs) {
+                m_batchSize = Math.max(1, m_batchSize / 2);
+            } else if (elapsedMs < m_targetInsertLatencyMs / 2 && m_batchSize < m_maxBatchSize) {
+                m_batchSize++;
             }
         }
     }
@@ -249,6 +542,30 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 }
             };
 
+    /**
+     * Directory in which the samples that don't fit in the ring buffer are stored.
+     * The overflow journal is disabled when this is empty.
+     */
+    public void setOverflowDirectory(String overflowDirectory) {
+        m_overflowDirectory = overflowDirectory;
+    }
+
+    public void setOverflowMaxSize(long overflowMaxSize) {
+        m_overflowMaxSize = overflowMaxSize;
+    }
+
+    public void setOverflowSegmentSize(int overflowSegmentSize) {
+        m_overflowSegmentSize = overflowSegmentSize;
+    }
+
+    /**
+     * Inserts that take longer than this shrink the batch size. The batch size
+     * is fixed to max_batch_size when this is zero or negative.
+     */
+    public void setTargetInsertLatency(long targetInsertLatencyMs) {
+        m_targetInsertLatencyMs = targetInsertLatencyMs;
+    }
+
     @VisibleForTesting
     public void setSampleRepository(SampleRepository sampleRepository) {
         m_sampleRepository = sampleRepository;
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.google.common.base.Optional;
+
+/**
+ * Compact binary encoding of a batch of {@link Sample}s, used to spill
+ * batches that don't fit in the ring buffer to the overflow journal.
+ *
+ * Gauges are stored as doubles and the other metric types as longs, so
+ * the values are restored exactly.
+ */
+class SampleBatchCodec {
+
+    private static final byte VERSION = 1;
+
+    private SampleBatchCodec() {}
+
+    public static byte[] encode(List<Sample> samples, boolean indexOnly) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + samples.size() * 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeBoolean(indexOnly);
+            out.writeInt(samples.size());
+            for (Sample sample : samples) {
+                out.writeLong(sample.getTimestamp().asMillis());
+                out.writeUTF(sample.getContext().getId());
+                out.writeUTF(sample.getResource().getId());
+                writeAttributes(out, sample.getResource().getAttributes().orNull());
+                out.writeUTF(sample.getName());
+                out.writeByte(sample.getType().ordinal());
+                final ValueType<?> value = sample.getValue();
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    if (sample.getType() == MetricType.GAUGE) {
+                        out.writeDouble(value.doubleValue());
+                    } else {
+                        out.writeLong(value.longValue());
+                    }
+                }
+                writeAttributes(out, sample.getAttributes());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static SampleBatchEvent decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sample batch version: " + version);
+            }
+            final boolean indexOnly = in.readBoolean();
+            final int numSamples = in.readInt();
+            final List<Sample> samples = new ArrayList<>(numSamples);
+            for (int i = 0; i < numSamples; i++) {
+                final Timestamp timestamp = Timestamp.fromEpochMillis(in.readLong());
+                final Context context = new Context(in.readUTF());
+                final String resourceId = in.readUTF();
+                final Resource resource = new Resource(resourceId, Optional.fromNullable(readAttributes(in)));
+                final String name = in.readUTF();
+                final MetricType type = MetricType.values()[in.readByte()];
+                ValueType<?> value = null;
+                if (in.readBoolean()) {
+                    if (type == MetricType.GAUGE) {
+                        value = ValueType.compose(in.readDouble(), type);
+                    } else {
+                        value = ValueType.compose(in.readLong(), type);
+                    }
+                }
+                samples.add(new Sample(timestamp, context, resource, name, type, value, readAttributes(in)));
+            }
+
+            final SampleBatchEvent event = new SampleBatchEvent();
+            event.setIndexOnly(indexOnly);
+            event.setSamples(samples);
+            return event;
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out, Map<String, String> attributes) throws IOException {
+        if (attributes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readAttributes(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        final Map<String, String> attributes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            attributes.put(in.readUTF(), in.readUTF());
+        }
+        return attributes;
+    }
+}
@@ -29,14 +29,19 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
@@ -57,6 +62,9 @@ import com.google.common.collect.Lists;
 
 public class NewtsWriterTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     /**
      * Uses a latch to verify that multiple that multiple threads
      * are used to concurrently insert samples into the SampleRepository.
@@ -119,6 +127,175 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Fills the ring buffer with the overflow journal enabled, and verifies
+     * that the additional samples are spilled to disk and then inserted
+     * in order once the writer threads are unblocked.
+     */
+    @Test
+    public void samplesAreSpilledAndReplayedInOrderWhenRingBufferIsFull() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 4;
+        int numSamples = 100;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setOverflowDirectory(tempFolder.newFolder("overflow").getAbsolutePath());
+        writer.setOverflowMaxSize(1024 * 1024);
+        writer.setOverflowSegmentSize(64 * 1024);
+        writer.afterPropertiesSet();
+
+        lock.lock();
+        for (int i = 0; i < numSamples; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        // Nothing should have been dropped
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+        long spilled = registry.meter("overflow.spilled-samples").getCount();
+        assertTrue("samples should have been spilled", spilled > 0);
+
+        // Unlock the writer thread and wait for the journal to be replayed
+        lock.unlock();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sampleRepo.getNumSamplesInserted() < numSamples && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.destroy();
+
+        assertEquals(numSamples, sampleRepo.getNumSamplesInserted());
+        assertEquals(spilled, registry.meter("overflow.replayed-samples").getCount());
+        for (int i = 0; i < numSamples; i++) {
+            assertEquals(i, sampleRepo.getInsertedSamples().get(i).getValue().intValue());
+        }
+    }
+
+    /**
+     * Verifies that the writer threads shrink their batches when the
+     * inserts are slower than the target latency.
+     */
+    @Test
+    public void batchSizeIsReducedWhenInsertsAreSlow() throws Exception {
+        Resource x = new Resource("x");
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        MockSampleRepository sampleRepo = new MockSampleRepository() {
+            @Override
+            public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+                batchSizes.add(samples.size());
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        };
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(16, 1024, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setTargetInsertLatency(5);
+
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 64; i++) {
+            samples.add(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)));
+        }
+        writer.insert(samples);
+        writer.destroy();
+
+        assertEquals(Integer.valueOf(16), batchSizes.get(0));
+        assertEquals(Integer.valueOf(8), batchSizes.get(1));
+        assertEquals(Integer.valueOf(4), batchSizes.get(2));
+        assertEquals(64, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Verifies that a batch that fails to be inserted is retried
+     * instead of being dropped.
+     */
+    @Test
+    public void failedInsertsAreRetried() throws Exception {
+        Resource x = new Resource("x");
+        FailingSampleRepository sampleRepo = new FailingSampleRepository(2);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(16, 1024, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            samples.add(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)));
+        }
+        writer.insert(samples);
+        writer.destroy();
+
+        assertEquals(3, sampleRepo.getNumAttempts());
+        assertEquals(10, sampleRepo.getInsertedSamples().size());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    /**
+     * Verifies that a batch that fails to be inserted is moved to
+     * the overflow journal, and inserted once it is replayed.
+     */
+    @Test
+    public void failedInsertsAreReplayedFromTheOverflowJournal() throws Exception {
+        Resource x = new Resource("x");
+        FailingSampleRepository sampleRepo = new FailingSampleRepository(1);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(16, 1024, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setOverflowDirectory(tempFolder.newFolder("overflow").getAbsolutePath());
+        writer.setOverflowMaxSize(1024 * 1024);
+        writer.setOverflowSegmentSize(64 * 1024);
+        writer.afterPropertiesSet();
+
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            samples.add(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)));
+        }
+        writer.insert(samples);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sampleRepo.getInsertedSamples().size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.destroy();
+
+        assertEquals(10, sampleRepo.getInsertedSamples().size());
+        assertEquals(10, registry.meter("overflow.spilled-samples").getCount());
+        assertEquals(10, registry.meter("overflow.replayed-samples").getCount());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    private static class FailingSampleRepository extends MockSampleRepository {
+        private final AtomicInteger numFailures;
+        private final AtomicInteger numAttempts = new AtomicInteger(0);
+        private final List<Sample> insertedSamples = new CopyOnWriteArrayList<>();
+
+        public FailingSampleRepository(int numFailures) {
+            this.numFailures = new AtomicInteger(numFailures);
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            numAttempts.incrementAndGet();
+            if (numFailures.getAndDecrement() > 0) {
+                throw new IllegalStateException("insert failed");
+            }
+            insertedSamples.addAll(samples);
+        }
+
+        public int getNumAttempts() {
+            return numAttempts.get();
+        }
+
+        public List<Sample> getInsertedSamples() {
+            return insertedSamples;
+        }
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -141,6 +318,7 @@ public class NewtsWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final List<Sample> insertedSamples = new CopyOnWriteArrayList<>();
 
         public LockedSampleRepository(Lock lock) {
             this.lock = lock;
@@ -151,6 +329,7 @@ public class NewtsWriterTest {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            insertedSamples.addAll(samples);
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -162,6 +341,10 @@ public class NewtsWriterTest {
         public int getNumSamplesInserted() {
             return numSamplesInserted.get();
         }
+
+        public List<Sample> getInsertedSamples() {
+            return insertedSamples;
+        }
     }
 
     private static class MockSampleRepository implements SampleRepository {
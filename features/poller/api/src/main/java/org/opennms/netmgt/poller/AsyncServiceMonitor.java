@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ServiceMonitor} that can perform the poll without blocking the
+ * calling thread.
+ *
+ * The poller uses {@link #pollAsync(MonitoredService, Map)} when the monitor
+ * implements this interface, so that a small number of threads can keep a
+ * large number of polls in flight. {@link #poll(MonitoredService, Map)} must
+ * still be implemented and is expected to block until the future completes.
+ *
+ * @see org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    /**
+     * Asynchronous equivalent of {@link #poll(MonitoredService, Map)}.
+     *
+     * Implementations must not block: all of the I/O should be performed
+     * using non-blocking primitives and the future should be completed
+     * from the thread that handled the I/O. Callers should avoid performing
+     * any lengthy processing in the callbacks attached to the future.
+     *
+     * @param svc
+     *            Includes details about to the service being monitored.
+     * @param parameters
+     *            Includes the service parameters defined in <EM>poller-configuration.xml</EM> and those
+     *            returned by {@link #getRuntimeAttributes(MonitoredService, Map)}.
+     * @return a future that completes with the availability of the service,
+     *         or exceptionally if an unrecoverable error prevented the
+     *         service from being monitored
+     */
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+}
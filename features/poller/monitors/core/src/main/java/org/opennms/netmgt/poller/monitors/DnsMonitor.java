@@ -34,9 +34,14 @@ import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
@@ -46,16 +51,19 @@ import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Section;
-import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.Type;
+import org.xbill.DNS.WireParseException;
 
 /**
  * <P>
@@ -69,7 +77,7 @@ import org.xbill.DNS.Type;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class DnsMonitor extends AbstractServiceMonitor {
+final public class DnsMonitor extends AbstractAsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(DnsMonitor.class);
     /**
      * Default DNS port.
@@ -104,6 +112,13 @@ final public class DnsMonitor extends AbstractServiceMonitor {
      */
     private static final int DEFAULT_MAX_ANSWERS = Integer.MAX_VALUE;
 
+    /**
+     * Maximum size of a DNS message sent over UDP, without EDNS.
+     */
+    private static final int MAX_UDP_SIZE = 512;
+
+    private static final int DNS_HEADER_LENGTH = 12;
+
     /**
      * {@inheritDoc}
      *
@@ -114,13 +129,14 @@ final public class DnsMonitor extends AbstractServiceMonitor {
      * <P>
      * During the poll an DNS address request query packet is generated for
      * hostname 'localhost'. The query is sent via UDP socket to the interface
-     * at the specified port (by default UDP port 53). If a response is
+     * at the specified port (by default UDP port 53), and again via TCP if the
+     * response is truncated. If a response is
      * received, it is parsed and validated. If the DNS lookup was successful
      * the service status is set to SERVICE_AVAILABLE and the method returns.
      * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         // get the parameters
         //
         TimeoutTracker timeoutTracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
@@ -152,39 +168,39 @@ final public class DnsMonitor extends AbstractServiceMonitor {
         //
         final InetAddress addr = svc.getAddress();
 
-        PollStatus serviceStatus = null;
-        serviceStatus = pollDNS(timeoutTracker, port, addr, lookup, fatalCodes, minAnswers, maxAnswers);
-
-        if (serviceStatus == null) {
-            String reason = "Never received valid DNS response for address: " + addr;
-            LOG.debug(reason);
-            serviceStatus = PollStatus.unavailable(reason);
-        }
-        
         // 
         //
         // return the status of the service
         //
-        return serviceStatus;
+        return pollDNS(timeoutTracker, port, addr, lookup, fatalCodes, minAnswers, maxAnswers);
     }
 
-    private PollStatus pollDNS(final TimeoutTracker timeoutTracker, final int port, final InetAddress address, final String lookup, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
-    	final String addr = InetAddressUtils.str(address);
-        for (timeoutTracker.reset(); timeoutTracker.shouldRetry(); timeoutTracker.nextAttempt()) {
+    private CompletableFuture<PollStatus> pollDNS(final TimeoutTracker timeoutTracker, final int port, final InetAddress address, final String lookup, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
+        final String addr = InetAddressUtils.str(address);
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        // Set once we receive a response, or fail for any reason other than a timeout
+        final AtomicBoolean done = new AtomicBoolean(false);
+        return AsyncMonitorUtils.retry(group, timeoutTracker, () -> {
+            final Message query;
             try {
                 final Name name = Name.fromString(lookup, Name.root);
-                final SimpleResolver resolver = new SimpleResolver();
-                resolver.setAddress(new InetSocketAddress(addr, port));
-                resolver.setLocalAddress((InetSocketAddress)null);
-                double timeout = timeoutTracker.getSoTimeout()/1000;
-                resolver.setTimeout((timeout < 1 ? 1 : (int) timeout));
                 final Record question = Record.newRecord(name, Type.A, DClass.IN);
-                final Message query = Message.newQuery(question);
-                PollStatus status;
+                query = Message.newQuery(question);
+            } catch (final IOException e) {
+                done.set(true);
+                String reason1 = "IOException while polling address: " + addr + " " + e.getMessage();
+                LOG.debug(reason1, e);
+                return CompletableFuture.completedFuture(PollStatus.unavailable(reason1));
+            }
 
-                timeoutTracker.startAttempt();
-                final Message response = resolver.send(query);
+            // The timeout is applied in seconds, like the resolver used to
+            double timeout = timeoutTracker.getSoTimeout()/1000;
+            final long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout < 1 ? 1 : (long) timeout);
+
+            return send(group, new InetSocketAddress(address, port), query, endTime).thenApply(response -> {
+                done.set(true);
                 double responseTime = timeoutTracker.elapsedTimeInMillis();
+                PollStatus status;
 
                 final Integer rcode = response.getHeader().getRcode();
                 LOG.debug("received response code: {}", rcode);
@@ -215,29 +231,92 @@ final public class DnsMonitor extends AbstractServiceMonitor {
                     LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
                     return status;
                 }
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof InterruptedIOException) {
+                    // No response received, retry without marking the poll failed. If we get this condition over and over until
+                    // the retries are exhausted, we'll get the log message below
+                    String reason = "Never received valid DNS response for address: " + addr;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                }
+                done.set(true);
+                if (e instanceof NoRouteToHostException) {
+                    String reason1 = "No route to host exception for address: " + addr;
+                    LOG.debug(reason1, e);
+                    return PollStatus.unavailable(reason1);
+                } else if (e instanceof ConnectException) {
+                    String reason1 = "Connection exception for address: " + addr;
+                    LOG.debug(reason1, e);
+                    return PollStatus.unavailable(reason1);
+                } else if (e instanceof IOException) {
+                    String reason1 = "IOException while polling address: " + addr + " " + e.getMessage();
+                    LOG.debug(reason1, e);
+                    return PollStatus.unavailable(reason1);
+                }
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> done.get());
+    }
 
-            } catch (final InterruptedIOException e) {
-                // No response received, retry without marking the poll failed. If we get this condition over and over until 
-                // the retries are exhausted, it will leave serviceStatus null and we'll get the log message at the bottom 
-            } catch (final NoRouteToHostException e) {
-                String reason1 = "No route to host exception for address: " + addr;
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
-            } catch (final ConnectException e) {
-                String reason1 = "Connection exception for address: " + addr;
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
-            } catch (final IOException e) {
-                String reason1 = "IOException while polling address: " + addr + " " + e.getMessage();
-                LOG.debug(reason1, e);
-                return PollStatus.unavailable(reason1);
-            }
+    /**
+     * Sends the query over UDP, and falls back to TCP when the response is
+     * truncated, like {@link org.xbill.DNS.SimpleResolver#send(Message)} does.
+     * Responses with a different id are ignored when using UDP.
+     */
+    private static CompletableFuture<Message> send(NioEventLoopGroup group, InetSocketAddress address, Message query, long endTime) {
+        final byte[] out = query.toWire(Message.MAXLENGTH);
+        final long timeoutMs = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(endTime - System.nanoTime()));
+        if (out.length > MAX_UDP_SIZE) {
+            return sendTcp(group, address, query, out, timeoutMs);
         }
-        String reason = "Never received valid DNS response for address: " + addr;
-       
-        LOG.debug(reason);
-        return PollStatus.unavailable(reason);
+        return group.exchange(address, ByteBuffer.wrap(out), MAX_UDP_SIZE, timeoutMs).thenCompose(in -> {
+            final byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            try {
+                if (getId(bytes) != query.getHeader().getID()) {
+                    LOG.debug("Ignoring DNS response with an invalid message id from {}", address);
+                    return send(group, address, query, endTime);
+                }
+                final Message response = new Message(bytes);
+                if (response.getHeader().getFlag(Flags.TC)) {
+                    return sendTcp(group, address, query, out, timeoutMs);
+                }
+                return CompletableFuture.completedFuture(response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static CompletableFuture<Message> sendTcp(NioEventLoopGroup group, InetSocketAddress address, Message query, byte[] out, long timeoutMs) {
+        final byte[] request = new byte[out.length + 2];
+        request[0] = (byte)(out.length >>> 8);
+        request[1] = (byte)out.length;
+        System.arraycopy(out, 0, request, 2, out.length);
+
+        return AsyncMonitorUtils.withConnection(group.connect(address, timeoutMs), conn -> {
+            return conn.write(request, timeoutMs)
+                .thenCompose(v -> conn.readFully(2, timeoutMs))
+                .thenCompose(length -> conn.readFully(((length[0] & 0xFF) << 8) + (length[1] & 0xFF), timeoutMs))
+                .thenApply(in -> {
+                    try {
+                        if (getId(in) != query.getHeader().getID()) {
+                            throw new WireParseException("invalid message id: expected " + query.getHeader().getID() + "; got id " + getId(in));
+                        }
+                        return new Message(in);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+        });
     }
 
+    private static int getId(byte[] in) throws WireParseException {
+        if (in.length < DNS_HEADER_LENGTH) {
+            throw new WireParseException("invalid DNS header - too short");
+        }
+        return ((in[0] & 0xFF) << 8) + (in[1] & 0xFF);
+    }
 
 }
@@ -28,16 +28,14 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
@@ -45,8 +43,10 @@ import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
 import org.opennms.netmgt.poller.monitors.support.FtpResponse;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,7 +60,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-public class FtpMonitor extends AbstractServiceMonitor {
+public class FtpMonitor extends AbstractAsyncServiceMonitor {
     
     
     public static final Logger LOG = LoggerFactory.getLogger(FtpMonitor.class);
@@ -95,136 +95,123 @@ public class FtpMonitor extends AbstractServiceMonitor {
      * valid we set the service status to SERVICE_AVAILABLE and return.
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         // Get the parameters
-        TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
-        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
-        String userid = ParameterMap.getKeyedString(parameters, "userid", null);
-        String password = ParameterMap.getKeyedString(parameters, "password", null);
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final String userid = ParameterMap.getKeyedString(parameters, "userid", null);
+        final String password = ParameterMap.getKeyedString(parameters, "password", null);
 
         // Extract the address
-        InetAddress ipAddr = svc.getAddress();
+        final InetAddress ipAddr = svc.getAddress();
 
-        PollStatus serviceStatus = PollStatus.unavailable();
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        return AsyncMonitorUtils.retry(group, tracker, () -> {
 
             LOG.debug("FtpMonitor.poll: Polling interface: {} {}", InetAddressUtils.str(ipAddr), tracker);
 
-            Socket socket = null;
-            try {
-                // create a connected socket
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
+            return AsyncMonitorUtils.withConnection(group.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout()), conn -> {
                 LOG.debug("FtpMonitor: connected to host: {} on port: {}", ipAddr, port);
 
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-
-                BufferedReader lineRdr = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                FtpResponse bannerResponse = FtpResponse.readResponse(lineRdr);
+                final long timeout = tracker.getSoTimeout();
+                return FtpResponse.readResponse(conn, timeout).thenCompose(bannerResponse -> {
+                    if (!bannerResponse.isSuccess()) {
+                        return CompletableFuture.completedFuture(PollStatus.unavailable());
+                    }
 
-                if (bannerResponse.isSuccess()) {
                     // Attempt to login if userid and password available
-                    boolean loggedInSuccessfully = false;
                     LOG.debug("FtpMonitor: Banner response successful.");
+                    final CompletableFuture<Boolean> login;
                     if (userid == null || userid.length() == 0 || password == null || password.length() == 0) {
-                        loggedInSuccessfully = true;
+                        login = CompletableFuture.completedFuture(true);
                     } else {
-                        FtpResponse.sendCommand(socket, "USER " + userid);
-
-                        FtpResponse userResponse = FtpResponse.readResponse(lineRdr);
-
-                        if (userResponse.isSuccess() || userResponse.isIntermediate()) {
-                            LOG.debug("FtpMonitor: User response successful.");
-                            FtpResponse.sendCommand(socket, "PASS " + password);
-                            
-                            FtpResponse passResponse = FtpResponse.readResponse(lineRdr);
-                            if (passResponse.isSuccess()) {
-                                LOG.debug("FtpMonitor.poll: Login successful, parsed return code: {}", passResponse.getCode());
-                                loggedInSuccessfully = true;
-                            } else {
-                                LOG.debug("FtpMonitor.poll: Login failed, parsed return code: {}, full response: {}", passResponse.getCode(), passResponse);
-                                loggedInSuccessfully = false;
+                        login = FtpResponse.sendCommand(conn, "USER " + userid, timeout)
+                                .thenCompose(v -> FtpResponse.readResponse(conn, timeout))
+                                .thenCompose(userResponse -> {
+                            if (!userResponse.isSuccess() && !userResponse.isIntermediate()) {
+                                return CompletableFuture.completedFuture(false);
                             }
-                        }
+                            LOG.debug("FtpMonitor: User response successful.");
+                            return FtpResponse.sendCommand(conn, "PASS " + password, timeout)
+                                    .thenCompose(v -> FtpResponse.readResponse(conn, timeout))
+                                    .thenApply(passResponse -> {
+                                if (passResponse.isSuccess()) {
+                                    LOG.debug("FtpMonitor.poll: Login successful, parsed return code: {}", passResponse.getCode());
+                                    return true;
+                                } else {
+                                    LOG.debug("FtpMonitor.poll: Login failed, parsed return code: {}, full response: {}", passResponse.getCode(), passResponse);
+                                    return false;
+                                }
+                            });
+                        });
                     }
 
-                    // Store the response time before we try to quit
-                    double responseTime = tracker.elapsedTimeInMillis();
-
-                    if (loggedInSuccessfully) {
-                        FtpResponse.sendCommand(socket, "QUIT");
-
-                        FtpResponse quitResponse = FtpResponse.readResponse(lineRdr);
-
-                        /*
-                         * Special Cases for success:
-                         * 
-                         * Also want to accept the following
-                         * ERROR message generated by some FTP servers
-                         * following a QUIT command without a previous
-                         * successful login:
-                         *
-                         * "530 QUIT : User not logged in. Please login with
-                         * USER and PASS first."
-                         * 
-                         * Also want to accept the following ERROR
-                         * message generated by some FTP servers following a
-                         * QUIT command without a previously successful login:
-                         *
-                         * "425 Session is disconnected."
-                         */
-                        if (quitResponse.isSuccess()
-                                || (quitResponse.getCode() == 530 ) || (quitResponse.getCode() == 425 )) {
-                            serviceStatus = PollStatus.available(responseTime);
+                    return login.thenCompose(loggedInSuccessfully -> {
+                        // Store the response time before we try to quit
+                        final double responseTime = tracker.elapsedTimeInMillis();
+
+                        if (!loggedInSuccessfully) {
+                            return CompletableFuture.completedFuture(PollStatus.unavailable());
                         }
-                    }
-                }
 
-                /*
-                 * If we get this far and the status has not been set
-                 * to available, then something didn't verify during
-                 * the banner checking or login/QUIT command process.
-                 */
-                if (!serviceStatus.isAvailable()) {
-                    serviceStatus = PollStatus.unavailable();
-                }
-            } catch (NumberFormatException e) {
-            	String reason = "NumberFormatException while polling address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (NoRouteToHostException e) {
-            	String reason = "No route to host exception for address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (InterruptedIOException e) {
-            	String reason = "did not connect to host with " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (ConnectException e) {
-            	String reason = "Connection exception for address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-            	String reason = "IOException while polling address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null) {
-                        socket.close();
-                    }
-                } catch (IOException e) {
-                    LOG.debug("FtpMonitor.poll: Error closing socket", e);
-                }
-            }
-        }
+                        return FtpResponse.sendCommand(conn, "QUIT", timeout)
+                                .thenCompose(v -> FtpResponse.readResponse(conn, timeout))
+                                .thenApply(quitResponse -> {
+                            /*
+                             * Special Cases for success:
+                             * 
+                             * Also want to accept the following
+                             * ERROR message generated by some FTP servers
+                             * following a QUIT command without a previous
+                             * successful login:
+                             *
+                             * "530 QUIT : User not logged in. Please login with
+                             * USER and PASS first."
+                             * 
+                             * Also want to accept the following ERROR
+                             * message generated by some FTP servers following a
+                             * QUIT command without a previously successful login:
+                             *
+                             * "425 Session is disconnected."
+                             */
+                            if (quitResponse.isSuccess()
+                                    || (quitResponse.getCode() == 530 ) || (quitResponse.getCode() == 425 )) {
+                                return PollStatus.available(responseTime);
+                            }
 
-        return serviceStatus;
+                            /*
+                             * If we get this far then something didn't verify
+                             * during the QUIT command process.
+                             */
+                            return PollStatus.unavailable();
+                        });
+                    });
+                });
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof NumberFormatException) {
+                    String reason = "NumberFormatException while polling address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof NoRouteToHostException) {
+                    String reason = "No route to host exception for address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof InterruptedIOException) {
+                    String reason = "did not connect to host with " + tracker;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof ConnectException) {
+                    String reason = "Connection exception for address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof IOException) {
+                    String reason = "IOException while polling address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                }
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> false);
     }
 }
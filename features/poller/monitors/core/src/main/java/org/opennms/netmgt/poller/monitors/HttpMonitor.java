@@ -28,37 +28,38 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.SSLEngine;
+
 import org.apache.commons.lang.StringUtils;
 import org.opennms.core.utils.Base64;
-import org.opennms.core.utils.DefaultSocketWrapper;
 import org.opennms.core.utils.IPLike;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
-import org.opennms.core.utils.SocketWrapper;
 import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncConnection;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,7 +74,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
 @Distributable
-public class HttpMonitor extends AbstractServiceMonitor {
+public class HttpMonitor extends AbstractAsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(HttpMonitor.class);
     
@@ -125,90 +126,96 @@ public class HttpMonitor extends AbstractServiceMonitor {
      * SERVICE_AVAILABLE and return.
      */
     @Override
-    public PollStatus poll(final MonitoredService svc, final Map<String, Object> parameters) {
-        final InetAddress addr = svc.getAddress();
-        final String nodeLabel = svc.getNodeLabel();
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final HttpMonitorClient httpClient = new HttpMonitorClient(svc.getNodeLabel(), svc.getAddress(), new TreeMap<String, Object>(parameters));
 
         // Cycle through the port list
         //
-        int currentPort = -1;
-        final HttpMonitorClient httpClient = new HttpMonitorClient(nodeLabel, addr, new TreeMap<String, Object>(parameters));
+        return pollPorts(svc, parameters, httpClient, 0).thenApply(v -> httpClient.determinePollStatusResponse());
+    }
 
-        for (int portIndex = 0; portIndex < determinePorts(httpClient.getParameters()).length && httpClient.getPollStatus() != PollStatus.SERVICE_AVAILABLE; portIndex++) {
-            currentPort = determinePorts(httpClient.getParameters())[portIndex];
+    private CompletableFuture<Void> pollPorts(final MonitoredService svc, final Map<String, Object> parameters, final HttpMonitorClient httpClient, final int portIndex) {
+        if (portIndex >= determinePorts(httpClient.getParameters()).length || httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-            httpClient.setTimeoutTracker(new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT));
-            LOG.debug("Port = {}, Address = {}, {}", currentPort, addr, httpClient.getTimeoutTracker());
-            
-            httpClient.setCurrentPort(currentPort);
-            String serviceInfo = new StringBuilder(addr.toString())
-            .append(":").append(svc.getSvcName()).append(":").append(currentPort)
-            .toString();
-
-            for(httpClient.getTimeoutTracker().reset();
-                httpClient.getTimeoutTracker().shouldRetry() && httpClient.getPollStatus() != PollStatus.SERVICE_AVAILABLE; 
-                httpClient.getTimeoutTracker().nextAttempt()) {
-                
-                try {
-                    httpClient.getTimeoutTracker().startAttempt();                    
-                    httpClient.connect();
-                    LOG.debug("HttpMonitor: connected to host: {} on port: {}", addr, currentPort);
-
-                    httpClient.sendHttpCommand();
-                    
-                    if (httpClient.isEndOfStream()) {
-                        continue;
-                    }
+        final InetAddress addr = svc.getAddress();
+        final int currentPort = determinePorts(httpClient.getParameters())[portIndex];
+
+        httpClient.setTimeoutTracker(new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT));
+        LOG.debug("Port = {}, Address = {}, {}", currentPort, addr, httpClient.getTimeoutTracker());
+
+        httpClient.setCurrentPort(currentPort);
+        final String serviceInfo = new StringBuilder(addr.toString())
+        .append(":").append(svc.getSvcName()).append(":").append(currentPort)
+        .toString();
+
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        final AtomicBoolean noRoute = new AtomicBoolean(false);
+        return AsyncMonitorUtils.retry(group, httpClient.getTimeoutTracker(), () -> {
+            return httpClient.connect(group).thenCompose(v -> {
+                LOG.debug("HttpMonitor: connected to host: {} on port: {}", addr, currentPort);
+                return httpClient.sendHttpCommand();
+            }).thenCompose(v -> {
+                if (httpClient.isEndOfStream()) {
+                    return CompletableFuture.completedFuture(null);
+                }
 
-                    httpClient.setResponseTime(httpClient.getTimeoutTracker().elapsedTimeInMillis());
-                    logResponseTimes(httpClient.getResponseTime(), httpClient.getCurrentLine());
+                httpClient.setResponseTime(httpClient.getTimeoutTracker().elapsedTimeInMillis());
+                logResponseTimes(httpClient.getResponseTime(), httpClient.getCurrentLine());
 
-                    if (httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(httpClient.getResponseText())) {
-                        httpClient.setPollStatus(PollStatus.SERVICE_UNAVAILABLE);
-                        httpClient.readLinedMatching();
-                        
+                if (httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(httpClient.getResponseText())) {
+                    httpClient.setPollStatus(PollStatus.SERVICE_UNAVAILABLE);
+                    return httpClient.readLinedMatching().thenCompose(line -> {
                         if (httpClient.isEndOfStream()) {
-                            continue;
+                            return CompletableFuture.completedFuture(null);
                         }
 
-                        httpClient.read();
-
-                        if (!httpClient.isResponseTextFound()) {
-                            String message = "Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response for " + serviceInfo;
-                            LOG.debug(message);
-                            httpClient.setReason("Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response");
-                        }
+                        return httpClient.read().thenRun(() -> {
+                            if (!httpClient.isResponseTextFound()) {
+                                String message = "Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response for " + serviceInfo;
+                                LOG.debug(message);
+                                httpClient.setReason("Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response");
+                            }
+                        });
+                    });
+                }
+                return CompletableFuture.completedFuture(null);
+            }).handle((v, t) -> {
+                httpClient.closeConnection();
+                if (t != null) {
+                    final Throwable e = AsyncMonitorUtils.unwrap(t);
+                    if (e instanceof NoRouteToHostException) {
+                        LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, e);
+                        noRoute.set(true); // Will cause the remaining ports to be skipped
+                        httpClient.setReason("No route to host exception");
+                    } else if (e instanceof SocketTimeoutException) {
+                        LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, httpClient.getTimeoutTracker().toString());
+                        httpClient.setReason("HTTP connection timeout");
+                    } else if (e instanceof InterruptedIOException) {
+                        LOG.info(String.format("checkStatus: HTTP connection for service {} interrupted after {} bytes transferred with {}", serviceInfo, ((InterruptedIOException)e).bytesTransferred, httpClient.getTimeoutTracker().toString()), e);
+                        httpClient.setReason(String.format("HTTP connection interrupted, %d bytes transferred", ((InterruptedIOException)e).bytesTransferred));
+                    } else if (e instanceof ConnectException) {
+                        LOG.warn("Connection exception for {}", serviceInfo, e);
+                        httpClient.setReason("HTTP connection exception on port: "+currentPort+": "+e.getMessage());
+                    } else if (e instanceof IOException) {
+                        String exceptionClass = e.getClass().getSimpleName();
+                        LOG.warn("{} while polling {}", exceptionClass, serviceInfo, e);
+                        httpClient.setReason("IOException while polling address: "+addr+": "+e.getMessage());
+                    } else {
+                        String exceptionClass = e.getClass().getSimpleName();
+                        LOG.warn("Unexpected {} while polling {}", exceptionClass, serviceInfo, e);
+                        httpClient.setReason("Unexpected exception while polling address: "+addr+": "+e.getMessage());
                     }
-                    
-                } catch (NoRouteToHostException e) {
-                    LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, e);
-                    portIndex = determinePorts(httpClient.getParameters()).length; // Will cause outer for(;;) to terminate
-                    httpClient.setReason("No route to host exception");
-                } catch (SocketTimeoutException e) {
-                    LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, httpClient.getTimeoutTracker().toString());
-                    httpClient.setReason("HTTP connection timeout");
-                } catch (InterruptedIOException e) {
-                    LOG.info(String.format("checkStatus: HTTP connection for service {} interrupted after {} bytes transferred with {}", serviceInfo, e.bytesTransferred, httpClient.getTimeoutTracker().toString()), e);
-                    httpClient.setReason(String.format("HTTP connection interrupted, %d bytes transferred", e.bytesTransferred));
-                } catch (ConnectException e) {
-                    LOG.warn("Connection exception for {}", serviceInfo, e);
-                    httpClient.setReason("HTTP connection exception on port: "+determinePorts(httpClient.getParameters())[portIndex]+": "+e.getMessage());
-                } catch (IOException e) {
-                    String exceptionClass = e.getClass().getSimpleName();
-                    LOG.warn("{} while polling {}", exceptionClass, serviceInfo, e);
-                    httpClient.setReason("IOException while polling address: "+addr+": "+e.getMessage());
-                } catch (Throwable e) {
-                    String exceptionClass = e.getClass().getSimpleName();
-                    LOG.warn("Unexpected {} while polling {}", exceptionClass, serviceInfo, e);
-                    httpClient.setReason("Unexpected exception while polling address: "+addr+": "+e.getMessage());
-                } finally {
-                    httpClient.closeConnection();
                 }
-
-            } // end for (attempts)
-        } // end for (ports)
-        return httpClient.determinePollStatusResponse();
-
+                return PollStatus.get(httpClient.getPollStatus(), httpClient.getReason());
+            });
+        }, status -> noRoute.get()).thenCompose(status -> {
+            if (noRoute.get()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return pollPorts(svc, parameters, httpClient, portIndex + 1);
+        });
     }
 
     private void logResponseTimes(Double responseTime, String line) {
@@ -217,14 +224,14 @@ public class HttpMonitor extends AbstractServiceMonitor {
     }
 
     /**
-     * <p>wrapSocket</p>
+     * Creates the engine used to secure the connection to the server.
      *
-     * @param socket a {@link java.net.Socket} object.
-     * @return a {@link java.net.Socket} object.
-     * @throws java.io.IOException if any.
+     * @param address the address of the server
+     * @param port the port of the server
+     * @return the engine, or null if the connection should not be secured
      */
-    protected SocketWrapper getSocketWrapper() {
-        return new DefaultSocketWrapper();
+    protected SSLEngine createSslEngine(InetAddress address, int port) {
+        return null;
     }
 
     private static boolean determineVerbosity(final Map<String, Object> parameters) {
@@ -306,8 +313,7 @@ public class HttpMonitor extends AbstractServiceMonitor {
         final InetAddress m_addr;
         final Map<String, Object> m_parameters;
         String m_httpCmd;
-        Socket m_httpSocket;
-        private BufferedReader m_lineRdr;
+        AsyncConnection m_conn;
         private String m_currentLine;
         private int m_serviceStatus;
         private String m_reason;
@@ -329,13 +335,15 @@ public class HttpMonitor extends AbstractServiceMonitor {
             m_responseText = determineResponseText(parameters);
         }
         
-        public void read() throws IOException {
-            for (int nullCount = 0; nullCount < 2;) {
-                readLinedMatching();
-                if (isEndOfStream()) {
-                    nullCount++;
-                }
+        public CompletableFuture<Void> read() {
+            return read(0);
+        }
+
+        private CompletableFuture<Void> read(final int nullCount) {
+            if (nullCount >= 2) {
+                return CompletableFuture.completedFuture(null);
             }
+            return readLinedMatching().thenCompose(line -> read(isEndOfStream() ? nullCount + 1 : nullCount));
         }
 
         public int getCurrentPort() {
@@ -420,23 +428,22 @@ public class HttpMonitor extends AbstractServiceMonitor {
             m_responseTime = elapsedTimeInMillis;
         }
 
-        private void connect() throws IOException, SocketException {
-            m_httpSocket = new Socket();
-            m_httpSocket.connect(new InetSocketAddress(m_addr, m_currentPort), m_timeoutTracker.getConnectionTimeout());
-            m_serviceStatus = PollStatus.SERVICE_UNRESPONSIVE;
-            m_httpSocket.setSoTimeout(m_timeoutTracker.getSoTimeout());
-            m_httpSocket = getSocketWrapper().wrapSocket(m_httpSocket);
+        private CompletableFuture<Void> connect(final NioEventLoopGroup group) {
+            return group.connect(new InetSocketAddress(m_addr, m_currentPort), m_timeoutTracker.getConnectionTimeout()).thenCompose(conn -> {
+                m_conn = conn;
+                m_serviceStatus = PollStatus.SERVICE_UNRESPONSIVE;
+                final SSLEngine sslEngine = createSslEngine(m_addr, m_currentPort);
+                if (sslEngine == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return conn.startTls(sslEngine, m_timeoutTracker.getSoTimeout());
+            });
         }
         
         public void closeConnection() {
-            try {
-                if (m_httpSocket != null) {
-                    m_httpSocket.close();
-                    m_httpSocket = null;
-                }
-            } catch (final IOException e) {
-                e.fillInStackTrace();
-                HttpMonitor.LOG.warn("Error closing socket connection", e);
+            if (m_conn != null) {
+                m_conn.close();
+                m_conn = null;
             }
         }
 
@@ -511,43 +518,46 @@ public class HttpMonitor extends AbstractServiceMonitor {
             return false;
         }
 
-        public String readLine() throws IOException {
-            m_currentLine = m_lineRdr.readLine();
-            
-            if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
-                HttpMonitor.LOG.debug("\t<<: {}", m_currentLine);
-            }
-            
-            m_html.append(m_currentLine);
-            return m_currentLine;
+        public CompletableFuture<String> readLine() {
+            return m_conn.readLine(m_timeoutTracker.getSoTimeout()).thenApply(line -> {
+                m_currentLine = line;
+
+                if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
+                    HttpMonitor.LOG.debug("\t<<: {}", m_currentLine);
+                }
+
+                m_html.append(m_currentLine);
+                return m_currentLine;
+            });
         }
 
-        public String readLinedMatching() throws IOException {
-            readLine();
-            
-            if (m_responseText != null && m_currentLine != null && !m_responseTextFound) {
-                if (checkCurrentLineMatchesResponseText()) {
-                    if (HttpMonitor.LOG.isDebugEnabled()) {
-                        HttpMonitor.LOG.debug("response-text: "+m_responseText+": found.");
+        public CompletableFuture<String> readLinedMatching() {
+            return readLine().thenApply(line -> {
+                if (m_responseText != null && m_currentLine != null && !m_responseTextFound) {
+                    if (checkCurrentLineMatchesResponseText()) {
+                        if (HttpMonitor.LOG.isDebugEnabled()) {
+                            HttpMonitor.LOG.debug("response-text: "+m_responseText+": found.");
+                        }
+                        m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
                     }
-                    m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
                 }
-            }
-            return m_currentLine;
+                return m_currentLine;
+            });
         }
 
-        public void sendHttpCommand() throws IOException {
+        public CompletableFuture<Void> sendHttpCommand() {
             if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
                 HttpMonitor.LOG.debug("Sending HTTP command: {}", m_httpCmd);
             }
-            m_httpSocket.getOutputStream().write(m_httpCmd.getBytes());
-            m_lineRdr = new BufferedReader(new InputStreamReader(m_httpSocket.getInputStream()));
-            readLine();
-            if (determineVerbosity(m_parameters)) {
-                HttpMonitor.LOG.debug("Server response: {}", m_currentLine);
-            }
-            determineServerInitialResponse();
-            m_headerFinished = false; // Clean header flag for each HTTP request.
+            return m_conn.write(m_httpCmd.getBytes(), m_timeoutTracker.getSoTimeout())
+                    .thenCompose(v -> readLine())
+                    .thenAccept(line -> {
+                if (determineVerbosity(m_parameters)) {
+                    HttpMonitor.LOG.debug("Server response: {}", m_currentLine);
+                }
+                determineServerInitialResponse();
+                m_headerFinished = false; // Clean header flag for each HTTP request.
+            });
         }
 
         private void buildCommand() {
@@ -587,14 +597,6 @@ public class HttpMonitor extends AbstractServiceMonitor {
             return m_reason;
         }
 
-        public Socket getHttpSocket() {
-            return m_httpSocket;
-        }
-
-        public void setHttpSocket(final Socket httpSocket) {
-            m_httpSocket = httpSocket;
-        }
-
         protected PollStatus determinePollStatusResponse() {
             /*
              Add the 'qualifier' parm to the parameter map. This parm will
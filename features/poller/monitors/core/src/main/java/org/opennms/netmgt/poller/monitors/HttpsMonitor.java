@@ -28,11 +28,13 @@
 
 package org.opennms.netmgt.poller.monitors;
 
+import java.net.InetAddress;
 import java.util.Map;
 
+import javax.net.ssl.SSLEngine;
+
 import org.opennms.core.utils.ParameterMap;
-import org.opennms.core.utils.SocketWrapper;
-import org.opennms.core.utils.SslSocketWrapper;
+import org.opennms.core.utils.SocketUtils;
 import org.opennms.netmgt.poller.Distributable;
 
 /**
@@ -61,8 +63,8 @@ public class HttpsMonitor extends HttpMonitor {
 
     /** {@inheritDoc} */
     @Override
-    protected SocketWrapper getSocketWrapper() {
-        return new SslSocketWrapper();
+    protected SSLEngine createSslEngine(InetAddress address, int port) {
+        return SocketUtils.createSslEngine(address, port, null);
     }
 
 }
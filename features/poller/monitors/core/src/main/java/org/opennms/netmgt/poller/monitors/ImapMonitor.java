@@ -28,25 +28,25 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.net.ssl.SSLEngine;
 
-import org.opennms.core.utils.DefaultSocketWrapper;
 import org.opennms.core.utils.ParameterMap;
-import org.opennms.core.utils.SocketWrapper;
 import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @version CVS 1.1.1.1
  */
 @Distributable
-public class ImapMonitor extends AbstractServiceMonitor {
+public class ImapMonitor extends AbstractAsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(ImapMonitor.class);
 
     /**
@@ -135,116 +135,89 @@ public class ImapMonitor extends AbstractServiceMonitor {
      * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         // Process parameters
         //
 
-        TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
         // Retries
         //
-	final int port = determinePort(parameters);
+        final int port = determinePort(parameters);
 
         // Get interface address from NetworkInterface
         //
-        InetAddress ipAddr = svc.getAddress();
+        final InetAddress ipAddr = svc.getAddress();
 
 
         LOG.debug("ImapMonitor.poll: address: {} port: {} {}", ipAddr, port, tracker);
 
-        PollStatus serviceStatus = PollStatus.unavailable();
-
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
-            Socket socket = null;
-            try {
-                //
-                // create a connected socket
-                //
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
-
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-                
- 		// For SSL support
-                socket = getSocketWrapper().wrapSocket(socket);
-
-                BufferedReader rdr = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        return AsyncMonitorUtils.retry(group, tracker, () -> {
+            return AsyncMonitorUtils.withConnection(group.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout()), conn -> {
+                // For SSL support
+                final SSLEngine sslEngine = createSslEngine(ipAddr, port);
+                final CompletableFuture<Void> ready = sslEngine == null ? CompletableFuture.completedFuture(null) : conn.startTls(sslEngine, tracker.getSoTimeout());
 
                 //
                 // Tokenize the Banner Line, and check the first
                 // line for a valid return.
                 //
-                String banner = rdr.readLine();
-                
-                double responseTime = tracker.elapsedTimeInMillis();
+                return ready.thenCompose(v -> conn.readLine(tracker.getSoTimeout())).thenCompose(banner -> {
+                    double responseTime = tracker.elapsedTimeInMillis();
 
+                    LOG.debug("ImapMonitor.Poll(): banner: {}", banner);
 
-                LOG.debug("ImapMonitor.Poll(): banner: {}", banner);
+                    if (banner == null || !banner.startsWith(IMAP_START_RESPONSE_PREFIX)) {
+                        return CompletableFuture.completedFuture(PollStatus.unavailable());
+                    }
 
-                if (banner != null && banner.startsWith(IMAP_START_RESPONSE_PREFIX)) {
                     //
                     // Send the LOGOUT
                     //
-                    socket.getOutputStream().write(IMAP_LOGOUT_REQUEST.getBytes());
-
-                    //
-                    // get the returned string, tokenize, and
-                    // verify the correct output.
-                    //
-                    String response = rdr.readLine();
-                    if (response != null && response.startsWith(IMAP_BYE_RESPONSE_PREFIX)) {
-                        response = rdr.readLine();
-                        if (response != null && response.startsWith(IMAP_LOGOUT_RESPONSE_PREFIX)) {
-                            serviceStatus = PollStatus.available(responseTime);
+                    return conn.write(IMAP_LOGOUT_REQUEST.getBytes(), tracker.getSoTimeout())
+                            .thenCompose(w -> conn.readLine(tracker.getSoTimeout()))
+                            .thenCompose(response -> {
+                        //
+                        // get the returned string, tokenize, and
+                        // verify the correct output.
+                        //
+                        if (response == null || !response.startsWith(IMAP_BYE_RESPONSE_PREFIX)) {
+                            return CompletableFuture.completedFuture(PollStatus.unavailable());
                         }
-                    }
-                }
-
-                // If we get this far and the status has not been set
-                // to available, then something didn't verify during
-                // the banner checking or logout process.
-                if (!serviceStatus.isAvailable()) {
-                    serviceStatus = PollStatus.unavailable();
-                }
-
-            } catch (NoRouteToHostException e) {
-            	
-            	String reason = "No route to host exception for address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-
-            } catch (ConnectException e) {
-                // Connection refused. Continue to retry.
-            	String reason = "Connection exception for address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (InterruptedIOException e) {
-            	String reason = "did not connect to host with " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-            	String reason = "IOException while polling address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null)
-                        socket.close();
-                } catch (IOException e) {
-                    e.fillInStackTrace();
-                    LOG.debug("ImapMonitor.poll: Error closing socket.", e);
+                        return conn.readLine(tracker.getSoTimeout()).thenApply(logout -> {
+                            if (logout != null && logout.startsWith(IMAP_LOGOUT_RESPONSE_PREFIX)) {
+                                return PollStatus.available(responseTime);
+                            }
+
+                            // If we get this far then something didn't
+                            // verify during the logout process.
+                            return PollStatus.unavailable();
+                        });
+                    });
+                });
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof NoRouteToHostException) {
+                    String reason = "No route to host exception for address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof ConnectException) {
+                    // Connection refused. Continue to retry.
+                    String reason = "Connection exception for address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof InterruptedIOException) {
+                    String reason = "did not connect to host with " + tracker;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof IOException) {
+                    String reason = "IOException while polling address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
                 }
-            }
-        }
-
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> false);
     }
 
     protected int determinePort(final Map<String, Object> parameters) {
@@ -252,14 +225,14 @@ public class ImapMonitor extends AbstractServiceMonitor {
     }
 
     /**
-     * <p>wrapSocket</p>
+     * Creates the engine used to secure the connection to the server.
      *
-     * @param socket a {@link java.net.Socket} object.
-     * @return a {@link java.net.Socket} object.
-     * @throws java.io.IOException if any.
+     * @param address the address of the server
+     * @param port the port of the server
+     * @return the engine, or null if the connection should not be secured
      */
-    protected SocketWrapper getSocketWrapper() {
-        return new DefaultSocketWrapper();
+    protected SSLEngine createSslEngine(InetAddress address, int port) {
+        return null;
     }
 
 
@@ -28,17 +28,15 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
@@ -48,7 +46,9 @@ import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,7 +64,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="mailto:mike@opennms.org">Mike </A>
  */
 @Distributable
-final public class Pop3Monitor extends AbstractServiceMonitor {
+final public class Pop3Monitor extends AbstractAsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(Pop3Monitor.class);
 
@@ -102,112 +102,85 @@ final public class Pop3Monitor extends AbstractServiceMonitor {
      * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         // Process parameters
         //
-        TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
 
-        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
 
-        InetAddress ipAddr = svc.getAddress();
+        final InetAddress ipAddr = svc.getAddress();
+        final String hostAddress = InetAddressUtils.str(ipAddr);
 
         LOG.debug("poll: address = {}, port = {}, {}", ipAddr, port, tracker);
 
-        PollStatus serviceStatus = PollStatus.unavailable();
-
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
-            Socket socket = null;
-            final String hostAddress = InetAddressUtils.str(ipAddr);
-			try {
-                //
-                // create a connected socket
-                //
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        return AsyncMonitorUtils.retry(group, tracker, () -> {
+            return AsyncMonitorUtils.withConnection(group.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout()), conn -> {
                 LOG.debug("Pop3Monitor: connected to host: {} on port: {}", ipAddr, port);
 
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-                BufferedReader rdr = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
                 //
                 // Tokenize the Banner Line, and check the first
                 // line for a valid return.
                 //
                 // Server response should start with: "+OK"
                 //
-                String banner = rdr.readLine();
-                double responseTime = tracker.elapsedTimeInMillis();
+                return conn.readLine(tracker.getSoTimeout()).thenCompose(banner -> {
+                    double responseTime = tracker.elapsedTimeInMillis();
 
-                if (banner == null)
-                    continue;
-                StringTokenizer t = new StringTokenizer(banner);
+                    // We're connected, so the status is at least unresponsive
+                    if (banner == null)
+                        return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                    StringTokenizer t = new StringTokenizer(banner);
+
+                    if (!t.nextToken().equals("+OK")) {
+                        return CompletableFuture.completedFuture(PollStatus.unavailable());
+                    }
 
-                if (t.nextToken().equals("+OK")) {
                     //
                     // POP3 server should recoginize the QUIT command
                     //
                     String cmd = "QUIT\r\n";
-                    socket.getOutputStream().write(cmd.getBytes());
-
-                    //
-                    // Parse the response to the QUIT command
-                    //
-                    // Server response should start with: "+OK"
-                    //
-                    t = new StringTokenizer(rdr.readLine());
-                    if (t.nextToken().equals("+OK")) {
-                        serviceStatus = PollStatus.available(responseTime);
-                    }
-                }
-
-                // If we get this far and the status has not been set
-                // to available, then something didn't verify during
-                // the banner checking or QUIT command process.
-                if (!serviceStatus.isAvailable()) {
-                    serviceStatus = PollStatus.unavailable();
+                    return conn.write(cmd.getBytes(), tracker.getSoTimeout())
+                            .thenCompose(v -> conn.readLine(tracker.getSoTimeout()))
+                            .thenApply(response -> {
+                        //
+                        // Parse the response to the QUIT command
+                        //
+                        // Server response should start with: "+OK"
+                        //
+                        StringTokenizer rt = new StringTokenizer(response);
+                        if (rt.nextToken().equals("+OK")) {
+                            return PollStatus.available(responseTime);
+                        }
+
+                        // If we get this far then something didn't verify
+                        // during the QUIT command process.
+                        return PollStatus.unavailable();
+                    });
+                });
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof NoRouteToHostException) {
+                    String reason = "No route to host exception for address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof InterruptedIOException) {
+                    String reason = "did not connect to host with " + tracker;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof ConnectException) {
+                    String reason = "Connection exception for address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof IOException) {
+                    String reason = "IOException while polling address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
                 }
-            } catch (NoRouteToHostException e) {
-            	
-            	String reason = "No route to host exception for address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-                
-            } catch (InterruptedIOException e) {
-            	
-            	String reason = "did not connect to host with " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            	
-            } catch (ConnectException e) {
-            	
-            	String reason = "Connection exception for address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-            	
-            	String reason = "IOException while polling address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null)
-                        socket.close();
-
-                } catch (IOException e) {
-                    LOG.debug("poll: Error closing socket.", e);
-                }
-            }
-        }
-
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> false);
     }
 
 }
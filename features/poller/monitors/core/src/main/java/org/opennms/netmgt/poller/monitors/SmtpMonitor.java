@@ -28,28 +28,30 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import org.apache.commons.net.io.CRLFLineReader;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncConnection;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,7 +67,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-public final class SmtpMonitor extends AbstractServiceMonitor {
+public final class SmtpMonitor extends AbstractAsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(SmtpMonitor.class);
 
@@ -127,190 +129,155 @@ public final class SmtpMonitor extends AbstractServiceMonitor {
      * </P>
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
-        TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
 
-        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
-        InetAddress ipAddr = svc.getAddress();
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final InetAddress ipAddr = svc.getAddress();
 
         final String hostAddress = InetAddressUtils.str(ipAddr);
         LOG.debug("poll: address = {}, port = {}, {}", hostAddress, port, tracker);
 
-        PollStatus serviceStatus = PollStatus.unavailable();
-
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
-            Socket socket = null;
-            try {
-                // create a connected socket
-                //
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
-
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        final AtomicBoolean noRoute = new AtomicBoolean(false);
+        return AsyncMonitorUtils.retry(group, tracker, () -> {
+            return AsyncMonitorUtils.withConnection(group.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout()), conn -> {
                 LOG.debug("SmtpMonitor: connected to host: {} on port: {}", ipAddr, port);
 
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-                // Forcing to check for CRLF instead of any other line terminator as per RFC specification
-                CRLFLineReader rdr = new CRLFLineReader(new InputStreamReader(socket.getInputStream(), "ASCII"));
-
                 //
                 // Tokenize the Banner Line, and check the first
                 // line for a valid return.
                 //
-                String banner = sendMessage(socket, rdr, null);
-                LOG.debug("poll: banner = {}", banner);
-
-                StringTokenizer t = new StringTokenizer(banner);
-                int rc = Integer.parseInt(t.nextToken());
-                if (rc == 220) {
-                    //
-                    // Send the HELO command
-                    //
-                    String cmd = "HELO " + LOCALHOST_NAME + "\r\n";
-                    socket.getOutputStream().write(cmd.getBytes());
-
-                    //
-                    // get the returned string, tokenize, and
-                    // verify the correct output.
-                    //
-                    String response = rdr.readLine();
-                    double responseTime = tracker.elapsedTimeInMillis();
-
-                    if (response == null) {
-                        continue;
-                    }
-
-                    if (MULTILINE.matcher(response).find()) {
-                        // Ok we have a multi-line response...first three
-                        // chars of the response line are the return code.
-                        // The last line of the response will start with
-                        // return code followed by a space.
-                        String multiLineRC = new String(response.getBytes("ASCII"), 0, 3, "ASCII");
-
-                        // Create new regExp to look for last line
-                        // of this multi line response
-                        Pattern endMultiline = null;
-                        try {
-                            endMultiline = Pattern.compile(multiLineRC);
-                        } catch (PatternSyntaxException ex) {
-                            throw new java.lang.reflect.UndeclaredThrowableException(ex);
-                        }
-
-                        // read until we hit the last line of the multi-line
-                        // response
-                        do {
-                            response = rdr.readLine();
-                        } while (response != null && !endMultiline.matcher(response).find());
-                        if (response == null) {
-                            continue;
-                        }
+                return sendMessage(conn, tracker, null).thenCompose(banner -> {
+                    LOG.debug("poll: banner = {}", banner);
+
+                    StringTokenizer t = new StringTokenizer(banner);
+                    int rc = Integer.parseInt(t.nextToken());
+                    if (rc == 220) {
+                        //
+                        // Send the HELO command
+                        //
+                        String cmd = "HELO " + LOCALHOST_NAME + "\r\n";
+                        return conn.write(cmd.getBytes(StandardCharsets.US_ASCII), tracker.getSoTimeout())
+                                .thenCompose(v -> conn.readLine(tracker.getSoTimeout(), true))
+                                .thenCompose(response -> {
+                            //
+                            // get the returned string, tokenize, and
+                            // verify the correct output.
+                            //
+                            double responseTime = tracker.elapsedTimeInMillis();
+
+                            // We're connected, so the status is at least unresponsive
+                            if (response == null) {
+                                return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                            }
+
+                            if (MULTILINE.matcher(response).find()) {
+                                // Ok we have a multi-line response...first three
+                                // chars of the response line are the return code.
+                                // The last line of the response will start with
+                                // return code followed by a space.
+                                //
+                                // read until we hit the last line of the multi-line
+                                // response
+                                return readUntil(conn, tracker, Pattern.compile(response.substring(0, 3)))
+                                        .thenCompose(last -> last == null ? CompletableFuture.completedFuture(PollStatus.unresponsive()) : quit(conn, tracker, last, responseTime));
+                            }
+                            return quit(conn, tracker, response, responseTime);
+                        });
+                    } else if (rc == 554) {
+                        return sendMessage(conn, tracker, "QUIT\r\n").thenApply(response -> PollStatus.unavailable("Server rejecting transactions with 554"));
                     }
 
-                    t = new StringTokenizer(response);
-                    rc = Integer.parseInt(t.nextToken());
-                    if (rc == 250) {
-                        response = sendMessage(socket, rdr, "QUIT\r\n");
-
-                        t = new StringTokenizer(response);
-                        rc = Integer.parseInt(t.nextToken());
-
-                        if (rc == 221) {
-                            serviceStatus = PollStatus.available(responseTime);
-                        }
-                    }
-                } else if (rc == 554) {
-                    String response = sendMessage(socket, rdr, "QUIT\r\n");
-                    serviceStatus = PollStatus.unavailable("Server rejecting transactions with 554");
+                    // If we get this far, then something didn't verify during the banner checking
+                    return CompletableFuture.completedFuture(PollStatus.unavailable());
+                });
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof NumberFormatException) {
+                    String reason = "NumberFormatException while polling address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof NoRouteToHostException) {
+                    String reason = "No route to host exception for address " + hostAddress;
+                    LOG.debug(reason, e);
+                    noRoute.set(true);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof InterruptedIOException) {
+                    String reason = "Did not receive expected response within timeout " + tracker;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof ConnectException) {
+                    String reason = "Unable to connect to address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof IOException) {
+                    String reason = "IOException while polling address " + hostAddress;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
                 }
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> noRoute.get()); // Break out of the retries
+    }
 
-                // If we get this far and the status has not been set to
-                // available, then something didn't verify during the banner
-                // checking or HELO/QUIT comand process.
-                if (!serviceStatus.isAvailable()) {
-                    serviceStatus = PollStatus.unavailable(serviceStatus.getReason());
-                }
-            } catch (NumberFormatException e) {
-                String reason = "NumberFormatException while polling address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (NoRouteToHostException e) {
-                String reason = "No route to host exception for address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-                break; // Break out of for(;;)
-            } catch (InterruptedIOException e) {
-                String reason = "Did not receive expected response within timeout " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (ConnectException e) {
-                String reason = "Unable to connect to address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-                String reason = "IOException while polling address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null) {
-                        socket.close();
-                    }
-                } catch (IOException e) {
-                    e.fillInStackTrace();
-                    LOG.debug("poll: Error closing socket.", e);
-                }
-            }
+    /**
+     * Verifies the response to the HELO command and sends the QUIT command.
+     */
+    private CompletableFuture<PollStatus> quit(AsyncConnection conn, TimeoutTracker tracker, String response, double responseTime) {
+        StringTokenizer t = new StringTokenizer(response);
+        int rc = Integer.parseInt(t.nextToken());
+        if (rc != 250) {
+            return CompletableFuture.completedFuture(PollStatus.unavailable());
         }
-
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
+        return sendMessage(conn, tracker, "QUIT\r\n").thenApply(quitResponse -> {
+            StringTokenizer qt = new StringTokenizer(quitResponse);
+            if (Integer.parseInt(qt.nextToken()) == 221) {
+                return PollStatus.available(responseTime);
+            }
+            return PollStatus.unavailable();
+        });
     }
 
-    private String sendMessage(Socket socket, BufferedReader rdr, String command) throws IOException {
+    private CompletableFuture<String> sendMessage(AsyncConnection conn, TimeoutTracker tracker, String command) {
+        final CompletableFuture<Void> sent;
         if (command != null && !"".equals(command)) {
-            socket.getOutputStream().write(command.getBytes("ASCII"));
+            sent = conn.write(command.getBytes(StandardCharsets.US_ASCII), tracker.getSoTimeout());
+        } else {
+            sent = CompletableFuture.completedFuture(null);
         }
 
         //
         // get the returned string, tokenize, and
         // verify the correct output.
         //
-        String response = rdr.readLine();
-        if (response == null) {
-            return "";
-        }
-        if (MULTILINE.matcher(response).find()) {
-            // Ok we have a multi-line response...first three
-            // chars of the response line are the return code.
-            // The last line of the response will start with
-            // return code followed by a space.
-            String multiLineRC = new String(response.getBytes("ASCII"), 0, 3, "ASCII") + " ";
-
-            // Create new regExp to look for last line
-            // of this multi line response
-            Pattern endMultiline = null;
-            try {
-                endMultiline = Pattern.compile(multiLineRC);
-            } catch (PatternSyntaxException ex) {
-                throw new java.lang.reflect.UndeclaredThrowableException(ex);
+        // Forcing to check for CRLF instead of any other line terminator as per RFC specification
+        return sent.thenCompose(v -> conn.readLine(tracker.getSoTimeout(), true)).thenCompose(response -> {
+            if (response == null) {
+                return CompletableFuture.completedFuture("");
             }
+            if (MULTILINE.matcher(response).find()) {
+                // Ok we have a multi-line response...first three
+                // chars of the response line are the return code.
+                // The last line of the response will start with
+                // return code followed by a space.
+                return readUntil(conn, tracker, Pattern.compile(response.substring(0, 3) + " "))
+                        .thenApply(last -> last == null ? "" : last);
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
 
-            // read until we hit the last line of the multi-line
-            // response
-            do {
-                response = rdr.readLine();
-            } while (response != null && !endMultiline.matcher(response).find());
-            if (response == null) {
-                return "";
+    /**
+     * Reads lines until one matches the given pattern, or the end of the stream is reached.
+     */
+    private CompletableFuture<String> readUntil(AsyncConnection conn, TimeoutTracker tracker, Pattern endMultiline) {
+        return conn.readLine(tracker.getSoTimeout(), true).thenCompose(response -> {
+            if (response == null || endMultiline.matcher(response).find()) {
+                return CompletableFuture.completedFuture(response);
             }
-        }
-        return response;
+            return readUntil(conn, tracker, endMultiline);
+        });
     }
 
 }
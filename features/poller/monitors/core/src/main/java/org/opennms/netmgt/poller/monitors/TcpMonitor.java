@@ -28,16 +28,15 @@
 
 package org.opennms.netmgt.poller.monitors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
@@ -45,7 +44,9 @@ import org.opennms.core.utils.TimeoutTracker;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncMonitorUtils;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.support.AbstractAsyncServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +62,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class TcpMonitor extends AbstractServiceMonitor {
+final public class TcpMonitor extends AbstractAsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(TcpMonitor.class);
 
@@ -95,9 +96,12 @@ final public class TcpMonitor extends AbstractServiceMonitor {
      * interface is parsed and if the banner text indicates that we are talking
      * to Provided that the interface's response is valid we set the service
      * status to SERVICE_AVAILABLE and return.
+     *
+     * The connection and the banner are handled by the shared
+     * {@link NioEventLoopGroup}, so the calling thread is never blocked.
      */
     @Override
-    public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         //
         // Process parameters
         //
@@ -105,112 +109,90 @@ final public class TcpMonitor extends AbstractServiceMonitor {
         //
         // Get interface address from NetworkInterface
         //
-        TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
 
         // Port
         //
-        int port = ParameterMap.getKeyedInteger(parameters, PARAMETER_PORT, DEFAULT_PORT);
+        final int port = ParameterMap.getKeyedInteger(parameters, PARAMETER_PORT, DEFAULT_PORT);
         if (port == DEFAULT_PORT) {
             throw new RuntimeException("TcpMonitor: required parameter 'port' is not present in supplied properties.");
         }
 
         // BannerMatch
         //
-        String strBannerMatch = ParameterMap.getKeyedString(parameters, PARAMETER_BANNER, null);
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, PARAMETER_BANNER, null);
 
         // Get the address instance.
         //
-        InetAddress ipAddr = svc.getAddress();
+        final InetAddress ipAddr = svc.getAddress();
 
         final String hostAddress = InetAddressUtils.str(ipAddr);
-	LOG.debug("poll: address = {}, port = {}, {}", hostAddress, port, tracker);
+        LOG.debug("poll: address = {}, port = {}, {}", hostAddress, port, tracker);
 
         // Give it a whirl
         //
-        PollStatus serviceStatus = PollStatus.unavailable();
-
-        for (tracker.reset(); tracker.shouldRetry() && !serviceStatus.isAvailable(); tracker.nextAttempt()) {
-            Socket socket = null;
-            try {
-                
-                tracker.startAttempt();
-
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout());
-                socket.setSoTimeout(tracker.getSoTimeout());
+        final NioEventLoopGroup group = NioEventLoopGroup.getDefault();
+        final AtomicBoolean noRoute = new AtomicBoolean(false);
+        return AsyncMonitorUtils.retry(group, tracker, () -> {
+            return AsyncMonitorUtils.withConnection(group.connect(new InetSocketAddress(ipAddr, port), tracker.getConnectionTimeout()), conn -> {
                 LOG.debug("TcpMonitor: connected to host: {} on port: {}", ipAddr, port);
 
-                // We're connected, so upgrade status to unresponsive
-                serviceStatus = PollStatus.unresponsive();
-
                 if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
-                    serviceStatus = PollStatus.available(tracker.elapsedTimeInMillis());
-                    break;
+                    return CompletableFuture.completedFuture(PollStatus.available(tracker.elapsedTimeInMillis()));
                 }
 
-                BufferedReader rdr = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
                 //
                 // Tokenize the Banner Line, and check the first
                 // line for a valid return.
                 //
-                String response = rdr.readLine();
-                double responseTime = tracker.elapsedTimeInMillis();
-
-                if (response == null)
-                    continue;
-                LOG.debug("poll: banner = {}", response);
-                LOG.debug("poll: responseTime= {}ms", responseTime);
-
-                //Could it be a regex?
-                if (strBannerMatch.charAt(0)=='~'){
-                  if (!response.matches(strBannerMatch.substring(1)))
-                    serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
-                  else
-                    serviceStatus = PollStatus.available(responseTime);
-                }
-                else {
-                  if (response.indexOf(strBannerMatch) > -1) {
-                    serviceStatus = PollStatus.available(responseTime);
-                  }
-                  else {
-                    serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
-                  }
+                return conn.readLine(tracker.getSoTimeout()).thenApply(response -> {
+                    double responseTime = tracker.elapsedTimeInMillis();
+
+                    // We're connected, so the status is at least unresponsive
+                    if (response == null)
+                        return PollStatus.unresponsive();
+                    LOG.debug("poll: banner = {}", response);
+                    LOG.debug("poll: responseTime= {}ms", responseTime);
+
+                    //Could it be a regex?
+                    if (strBannerMatch.charAt(0)=='~'){
+                      if (!response.matches(strBannerMatch.substring(1)))
+                        return PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
+                      else
+                        return PollStatus.available(responseTime);
+                    }
+                    else {
+                      if (response.indexOf(strBannerMatch) > -1) {
+                        return PollStatus.available(responseTime);
+                      }
+                      else {
+                        return PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
+                      }
+                    }
+                });
+            }).exceptionally(t -> {
+                final Throwable e = AsyncMonitorUtils.unwrap(t);
+                if (e instanceof NoRouteToHostException) {
+                    String reason = "No route to host exception for address " + hostAddress;
+                    LOG.debug(reason, e);
+                    noRoute.set(true);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof InterruptedIOException) {
+                    String reason = "did not connect to host with " + tracker;
+                    LOG.debug(reason);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof ConnectException) {
+                    String reason = "Connection exception for address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
+                } else if (e instanceof IOException) {
+                    String reason = "IOException while polling address: " + ipAddr;
+                    LOG.debug(reason, e);
+                    return PollStatus.unavailable(reason);
                 }
-
-            } catch (NoRouteToHostException e) {
-            	String reason = "No route to host exception for address " + hostAddress;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-                break; // Break out of for(;;)
-            } catch (InterruptedIOException e) {
-            	String reason = "did not connect to host with " + tracker;
-                LOG.debug(reason);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (ConnectException e) {
-            	String reason = "Connection exception for address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } catch (IOException e) {
-            	String reason = "IOException while polling address: " + ipAddr;
-                LOG.debug(reason, e);
-                serviceStatus = PollStatus.unavailable(reason);
-            } finally {
-                try {
-                    // Close the socket
-                    if (socket != null)
-                        socket.close();
-                } catch (IOException e) {
-                    e.fillInStackTrace();
-                    LOG.debug("poll: Error closing socket.", e);
-                }
-            }
-        }
-
-        //
-        // return the status of the service
-        //
-        return serviceStatus;
+                throw AsyncMonitorUtils.rethrow(t);
+            });
+        }, status -> noRoute.get()); // Break out of the retries
     }
 
 }
@@ -0,0 +1,668 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup.EventLoop;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup.Timer;
+
+/**
+ * A non-blocking TCP connection, optionally secured with TLS, that is
+ * serviced by one of the threads of a {@link NioEventLoopGroup}.
+ *
+ * The connection supports at most one outstanding read and one outstanding
+ * write at any given time, which is all that is required by the request and
+ * response protocols that are spoken by the monitors. Every operation has its
+ * own timeout, and the connection is closed when an operation fails or times
+ * out.
+ *
+ * Lines are decoded as UTF-8, and may be terminated with either "\n" or
+ * "\r\n".
+ */
+public class AsyncConnection implements AutoCloseable {
+
+    /**
+     * Lines that are longer than this are returned in chunks.
+     */
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int MIN_READ_SIZE = 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final EventLoop m_loop;
+
+    private final SocketChannel m_channel;
+
+    private final InetSocketAddress m_remoteAddress;
+
+    private final NioEventLoopGroup.Handler m_handler = new NioEventLoopGroup.Handler() {
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            if (key.isConnectable() && m_channel.finishConnect()) {
+                connected();
+            }
+            if (key.isValid() && key.isWritable()) {
+                onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                onReadable();
+            }
+            updateInterest();
+        }
+
+        @Override
+        public void fail(Throwable t) {
+            AsyncConnection.this.fail(t);
+        }
+    };
+
+    private SelectionKey m_key;
+
+    /**
+     * Application data that has been read but not consumed yet, in write mode.
+     */
+    private ByteBuffer m_in = ByteBuffer.allocate(4 * MIN_READ_SIZE);
+
+    private boolean m_eof = false;
+
+    private boolean m_closed = false;
+
+    private Throwable m_failure;
+
+    private CompletableFuture<AsyncConnection> m_connectFuture;
+
+    private Timer m_connectTimer;
+
+    private PendingRead<?> m_read;
+
+    private ByteBuffer m_writeBuffer;
+
+    private CompletableFuture<Void> m_writeFuture;
+
+    private Timer m_writeTimer;
+
+    private SSLEngine m_ssl;
+
+    /**
+     * Encrypted data that has been read but not unwrapped yet, in write mode.
+     */
+    private ByteBuffer m_netIn;
+
+    /**
+     * Encrypted data that has been wrapped but not written yet, in write mode.
+     */
+    private ByteBuffer m_netOut;
+
+    private CompletableFuture<Void> m_handshakeFuture;
+
+    private Timer m_handshakeTimer;
+
+    private boolean m_handshakeNeedsRead = false;
+
+    private AsyncConnection(EventLoop loop, SocketChannel channel, InetSocketAddress remoteAddress) {
+        m_loop = loop;
+        m_channel = channel;
+        m_remoteAddress = remoteAddress;
+        m_loop.channelOpened();
+    }
+
+    /**
+     * Must be called from the event loop.
+     */
+    static void connect(EventLoop loop, InetSocketAddress address, long timeoutMs, CompletableFuture<AsyncConnection> future) {
+        final SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+
+        final AsyncConnection conn = new AsyncConnection(loop, channel, address);
+        conn.m_connectFuture = future;
+        try {
+            channel.configureBlocking(false);
+            conn.m_key = channel.register(loop.getSelector(), 0, conn.m_handler);
+            if (channel.connect(address)) {
+                conn.connected();
+            } else {
+                conn.m_connectTimer = loop.scheduleMillis(timeoutMs, () -> conn.fail(new SocketTimeoutException("connect timed out")));
+                conn.updateInterest();
+            }
+        } catch (Throwable t) {
+            conn.fail(t);
+        }
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return m_remoteAddress;
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @param timeoutMs how long to wait for the line
+     * @return a future that completes with the line, without the line
+     * terminator, or with null if the end of the stream was reached
+     */
+    public CompletableFuture<String> readLine(long timeoutMs) {
+        return readLine(timeoutMs, false);
+    }
+
+    /**
+     * Reads the next line.
+     *
+     * @param timeoutMs how long to wait for the line
+     * @param crlfOnly when true, only "\r\n" terminates a line
+     * @return a future that completes with the line, without the line
+     * terminator, or with null if the end of the stream was reached
+     */
+    public CompletableFuture<String> readLine(long timeoutMs, boolean crlfOnly) {
+        return read(new PendingRead<String>() {
+            @Override
+            protected boolean tryRead() {
+                m_in.flip();
+                try {
+                    final int start = m_in.position();
+                    final int limit = m_in.limit();
+                    for (int i = start; i < limit; i++) {
+                        if (m_in.get(i) == '\n') {
+                            final boolean cr = i > start && m_in.get(i - 1) == '\r';
+                            if (crlfOnly && !cr) {
+                                continue;
+                            }
+                            final int end = cr ? i - 1 : i;
+                            m_result = decode(start, end);
+                            m_in.position(i + 1);
+                            return true;
+                        }
+                    }
+                    if (limit - start >= MAX_LINE_LENGTH || (m_eof && limit > start)) {
+                        m_result = decode(start, limit);
+                        m_in.position(limit);
+                        return true;
+                    }
+                    if (m_eof) {
+                        m_result = null;
+                        return true;
+                    }
+                    return false;
+                } finally {
+                    m_in.compact();
+                }
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * Reads exactly the given number of bytes.
+     *
+     * @param length the number of bytes to read
+     * @param timeoutMs how long to wait for the bytes
+     * @return a future that completes with the bytes, or exceptionally with
+     * an {@link EOFException} if the stream ends before all of them were read
+     */
+    public CompletableFuture<byte[]> readFully(int length, long timeoutMs) {
+        if (length < 0 || length > MAX_LINE_LENGTH) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        return read(new PendingRead<byte[]>() {
+            @Override
+            protected boolean tryRead() throws IOException {
+                m_in.flip();
+                try {
+                    if (m_in.remaining() >= length) {
+                        final byte[] bytes = new byte[length];
+                        m_in.get(bytes);
+                        m_result = bytes;
+                        return true;
+                    }
+                    if (m_eof) {
+                        throw new EOFException("Expected " + length + " bytes but only " + m_in.remaining() + " were available.");
+                    }
+                    return false;
+                } finally {
+                    m_in.compact();
+                }
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * Writes the given line followed by "\r\n".
+     */
+    public CompletableFuture<Void> writeLine(String line, long timeoutMs) {
+        return write((line + "\r\n").getBytes(StandardCharsets.UTF_8), timeoutMs);
+    }
+
+    /**
+     * Writes the given bytes.
+     *
+     * @param data the bytes to write
+     * @param timeoutMs how long to wait for all of the bytes to be written
+     * @return a future that completes once all of the bytes were written to the socket
+     */
+    public CompletableFuture<Void> write(byte[] data, long timeoutMs) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        m_loop.execute(() -> {
+            if (m_failure != null) {
+                future.completeExceptionally(m_failure);
+                return;
+            } else if (m_writeFuture != null) {
+                future.completeExceptionally(new IllegalStateException("A write is already pending."));
+                return;
+            }
+            m_writeBuffer = ByteBuffer.wrap(data);
+            m_writeFuture = future;
+            m_writeTimer = m_loop.scheduleMillis(timeoutMs, () -> fail(new SocketTimeoutException("Write timed out")));
+            try {
+                flushWrite();
+                updateInterest();
+            } catch (Throwable t) {
+                fail(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Performs a TLS handshake using the given engine, after which all of the
+     * data that is read and written on this connection is encrypted.
+     *
+     * @param engine an engine in client mode
+     * @param timeoutMs how long to wait for the handshake to complete
+     * @return a future that completes once the handshake has completed
+     */
+    public CompletableFuture<Void> startTls(SSLEngine engine, long timeoutMs) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        m_loop.execute(() -> {
+            if (m_failure != null) {
+                future.completeExceptionally(m_failure);
+                return;
+            } else if (m_ssl != null) {
+                future.completeExceptionally(new IllegalStateException("TLS was already started."));
+                return;
+            }
+            m_ssl = engine;
+            final SSLSession session = engine.getSession();
+            m_netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            m_netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            ensureInputCapacity(session.getApplicationBufferSize());
+            m_handshakeFuture = future;
+            m_handshakeTimer = m_loop.scheduleMillis(timeoutMs, () -> fail(new SocketTimeoutException("TLS handshake timed out")));
+            try {
+                engine.beginHandshake();
+                handshake();
+                updateInterest();
+            } catch (Throwable t) {
+                fail(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Closes the connection. Pending operations complete exceptionally.
+     */
+    @Override
+    public void close() {
+        m_loop.execute(() -> fail(new ClosedChannelException()));
+    }
+
+    private <T> CompletableFuture<T> read(PendingRead<T> read, long timeoutMs) {
+        m_loop.execute(() -> {
+            if (m_failure != null) {
+                read.m_future.completeExceptionally(m_failure);
+                return;
+            } else if (m_read != null) {
+                read.m_future.completeExceptionally(new IllegalStateException("A read is already pending."));
+                return;
+            }
+            m_read = read;
+            read.m_timer = m_loop.scheduleMillis(timeoutMs, () -> fail(new SocketTimeoutException("Read timed out")));
+            completeRead();
+            updateInterest();
+        });
+        return read.m_future;
+    }
+
+    private void connected() {
+        final CompletableFuture<AsyncConnection> future = m_connectFuture;
+        m_connectFuture = null;
+        if (m_connectTimer != null) {
+            m_connectTimer.cancel();
+        }
+        future.complete(this);
+    }
+
+    private void onReadable() throws IOException {
+        if (m_ssl == null) {
+            ensureInputCapacity(MIN_READ_SIZE);
+            if (m_channel.read(m_in) < 0) {
+                m_eof = true;
+            }
+        } else {
+            if (!m_netIn.hasRemaining()) {
+                m_netIn = grow(m_netIn, m_netIn.capacity());
+            }
+            if (m_channel.read(m_netIn) < 0) {
+                m_eof = true;
+            }
+            if (m_handshakeFuture != null) {
+                if (m_eof) {
+                    throw new SSLException("The connection was closed during the TLS handshake.");
+                }
+                handshake();
+                return;
+            }
+            unwrap();
+        }
+        completeRead();
+    }
+
+    private void onWritable() throws IOException {
+        if (m_handshakeFuture != null) {
+            handshake();
+        } else {
+            flushWrite();
+        }
+    }
+
+    private void completeRead() {
+        if (m_read == null) {
+            return;
+        }
+        try {
+            if (!m_read.tryRead()) {
+                return;
+            }
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        final PendingRead<?> read = m_read;
+        m_read = null;
+        read.complete();
+    }
+
+    private void flushWrite() throws IOException {
+        if (m_writeBuffer == null || m_handshakeFuture != null) {
+            return;
+        }
+        if (m_ssl == null) {
+            m_channel.write(m_writeBuffer);
+            if (m_writeBuffer.hasRemaining()) {
+                return;
+            }
+        } else {
+            while (true) {
+                if (!flushNetOut()) {
+                    return;
+                }
+                if (!m_writeBuffer.hasRemaining()) {
+                    break;
+                }
+                if (m_ssl.wrap(m_writeBuffer, m_netOut).getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("The TLS session was closed.");
+                }
+            }
+        }
+
+        final CompletableFuture<Void> future = m_writeFuture;
+        m_writeBuffer = null;
+        m_writeFuture = null;
+        m_writeTimer.cancel();
+        future.complete(null);
+    }
+
+    private void handshake() throws IOException {
+        while (true) {
+            switch (m_ssl.getHandshakeStatus()) {
+            case NEED_TASK:
+                runDelegatedTasks();
+                break;
+            case NEED_WRAP: {
+                final SSLEngineResult result = m_ssl.wrap(EMPTY, m_netOut);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (!flushNetOut()) {
+                        return;
+                    }
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("The TLS session was closed during the handshake.");
+                }
+                break;
+            }
+            case NEED_UNWRAP: {
+                if (!flushNetOut()) {
+                    return;
+                }
+                final SSLEngineResult result;
+                m_netIn.flip();
+                try {
+                    result = m_ssl.unwrap(m_netIn, m_in);
+                } finally {
+                    m_netIn.compact();
+                }
+                switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!m_netIn.hasRemaining()) {
+                        m_netIn = grow(m_netIn, m_netIn.capacity());
+                    }
+                    m_handshakeNeedsRead = true;
+                    return;
+                case BUFFER_OVERFLOW:
+                    ensureInputCapacity(m_ssl.getSession().getApplicationBufferSize());
+                    break;
+                case CLOSED:
+                    throw new SSLException("The TLS session was closed during the handshake.");
+                default:
+                    m_handshakeNeedsRead = false;
+                    break;
+                }
+                break;
+            }
+            default:
+                // FINISHED or NOT_HANDSHAKING
+                if (!flushNetOut()) {
+                    return;
+                }
+                final CompletableFuture<Void> future = m_handshakeFuture;
+                m_handshakeFuture = null;
+                m_handshakeNeedsRead = false;
+                m_handshakeTimer.cancel();
+                // Application data may have been received along with the last handshake message
+                unwrap();
+                future.complete(null);
+                completeRead();
+                flushWrite();
+                return;
+            }
+        }
+    }
+
+    private void unwrap() throws IOException {
+        m_netIn.flip();
+        try {
+            while (m_netIn.hasRemaining()) {
+                ensureInputCapacity(m_ssl.getSession().getApplicationBufferSize());
+                final SSLEngineResult result = m_ssl.unwrap(m_netIn, m_in);
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    m_eof = true;
+                    return;
+                } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                        || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+                    return;
+                }
+            }
+        } finally {
+            m_netIn.compact();
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = m_ssl.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return true if all of the encrypted data was written
+     */
+    private boolean flushNetOut() throws IOException {
+        if (m_netOut.position() == 0) {
+            return true;
+        }
+        m_netOut.flip();
+        try {
+            m_channel.write(m_netOut);
+            return !m_netOut.hasRemaining();
+        } finally {
+            m_netOut.compact();
+        }
+    }
+
+    private void updateInterest() {
+        if (m_key == null || !m_key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (m_connectFuture != null) {
+            ops |= SelectionKey.OP_CONNECT;
+        } else {
+            if (m_read != null || m_handshakeNeedsRead) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (m_writeBuffer != null || (m_netOut != null && m_netOut.position() > 0)) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        m_key.interestOps(ops);
+    }
+
+    private void ensureInputCapacity(int minRemaining) {
+        if (m_in.remaining() < minRemaining) {
+            m_in = grow(m_in, minRemaining);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minRemaining) {
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minRemaining));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private String decode(int start, int end) {
+        return new String(m_in.array(), m_in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private void fail(Throwable t) {
+        if (m_failure == null) {
+            m_failure = t;
+        }
+        if (!m_closed) {
+            m_closed = true;
+            if (m_key != null) {
+                m_key.cancel();
+            }
+            try {
+                m_channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            m_loop.channelClosed();
+        }
+
+        if (m_connectFuture != null) {
+            final CompletableFuture<AsyncConnection> future = m_connectFuture;
+            m_connectFuture = null;
+            if (m_connectTimer != null) {
+                m_connectTimer.cancel();
+            }
+            future.completeExceptionally(t);
+        }
+        if (m_read != null) {
+            final PendingRead<?> read = m_read;
+            m_read = null;
+            read.m_timer.cancel();
+            read.m_future.completeExceptionally(t);
+        }
+        if (m_writeFuture != null) {
+            final CompletableFuture<Void> future = m_writeFuture;
+            m_writeFuture = null;
+            m_writeBuffer = null;
+            m_writeTimer.cancel();
+            future.completeExceptionally(t);
+        }
+        if (m_handshakeFuture != null) {
+            final CompletableFuture<Void> future = m_handshakeFuture;
+            m_handshakeFuture = null;
+            m_handshakeTimer.cancel();
+            future.completeExceptionally(t);
+        }
+    }
+
+    private static abstract class PendingRead<T> {
+        private final CompletableFuture<T> m_future = new CompletableFuture<>();
+        private Timer m_timer;
+        protected T m_result;
+
+        /**
+         * Attempts to read the result from the buffered input.
+         *
+         * @return true if {@link #m_result} was set
+         */
+        protected abstract boolean tryRead() throws IOException;
+
+        private void complete() {
+            m_timer.cancel();
+            m_future.complete(m_result);
+        }
+    }
+}
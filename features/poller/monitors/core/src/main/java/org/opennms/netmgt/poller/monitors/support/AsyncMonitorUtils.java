@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.PollStatus;
+
+/**
+ * Helpers shared by the asynchronous service monitors.
+ */
+public abstract class AsyncMonitorUtils {
+
+    /**
+     * Asynchronous equivalent of the retry loop used by the blocking monitors:
+     *
+     * <pre>
+     * for (tracker.reset(); tracker.shouldRetry() &amp;&amp; !status.isAvailable(); tracker.nextAttempt()) {
+     *     tracker.startAttempt();
+     *     status = attempt();
+     * }
+     * </pre>
+     *
+     * When strict timeouts are enabled, the delay between the attempts is
+     * waited for on the event loop instead of sleeping.
+     *
+     * @param group used to wait between attempts
+     * @param tracker tracks the attempts
+     * @param attempt performs a single attempt, after {@link TimeoutTracker#startAttempt()} was called
+     * @param last stops the retries early when it returns true for the status of an attempt
+     * @return the status of the last attempt
+     */
+    public static CompletableFuture<PollStatus> retry(NioEventLoopGroup group, TimeoutTracker tracker, Supplier<CompletableFuture<PollStatus>> attempt, Predicate<PollStatus> last) {
+        tracker.reset();
+        return nextAttempt(group, tracker, attempt, last, PollStatus.unavailable());
+    }
+
+    private static CompletableFuture<PollStatus> nextAttempt(NioEventLoopGroup group, TimeoutTracker tracker, Supplier<CompletableFuture<PollStatus>> attempt, Predicate<PollStatus> last, PollStatus previous) {
+        if (!tracker.shouldRetry()) {
+            return CompletableFuture.completedFuture(previous);
+        }
+
+        final long waitNanos = tracker.getNanosUntilNextAttempt();
+        final CompletableFuture<Void> ready = waitNanos > 0 ? group.delay(waitNanos, TimeUnit.NANOSECONDS) : CompletableFuture.completedFuture(null);
+        return ready.thenCompose(v -> {
+            tracker.startAttempt();
+            return attempt.get();
+        }).thenCompose(status -> {
+            if (status.isAvailable() || last.test(status)) {
+                return CompletableFuture.completedFuture(status);
+            }
+            tracker.nextAttempt();
+            return nextAttempt(group, tracker, attempt, last, status);
+        });
+    }
+
+    /**
+     * Applies the given function to the connection once it is established,
+     * and closes the connection once the future returned by the function completes.
+     */
+    public static <T> CompletableFuture<T> withConnection(CompletableFuture<AsyncConnection> connect, Function<AsyncConnection, CompletableFuture<T>> fn) {
+        return connect.thenCompose(conn -> {
+            final CompletableFuture<T> future;
+            try {
+                future = fn.apply(conn);
+            } catch (RuntimeException e) {
+                conn.close();
+                throw e;
+            }
+            return future.whenComplete((result, ex) -> conn.close());
+        });
+    }
+
+    /**
+     * Returns the exception that caused the given future to complete exceptionally.
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Rethrows the given exception from a stage of a {@link CompletableFuture}.
+     */
+    public static CompletionException rethrow(Throwable t) {
+        return t instanceof CompletionException ? (CompletionException)t : new CompletionException(t);
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup.EventLoop;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup.Timer;
+
+/**
+ * A single UDP request/response exchange performed by an {@link EventLoop}.
+ *
+ * The channel is connected to the remote address so that datagrams from
+ * other hosts are discarded and ICMP port unreachable errors are surfaced
+ * as {@link java.net.PortUnreachableException}s.
+ */
+final class DatagramExchange implements NioEventLoopGroup.Handler {
+
+    private final EventLoop m_loop;
+    private final DatagramChannel m_channel;
+    private final ByteBuffer m_request;
+    private final ByteBuffer m_response;
+    private final CompletableFuture<ByteBuffer> m_future;
+    private SelectionKey m_key;
+    private Timer m_timeout;
+    private boolean m_closed = false;
+
+    private DatagramExchange(EventLoop loop, DatagramChannel channel, ByteBuffer request, int maxResponseSize, CompletableFuture<ByteBuffer> future) {
+        m_loop = loop;
+        m_channel = channel;
+        m_request = request.duplicate();
+        m_response = ByteBuffer.allocate(maxResponseSize);
+        m_future = future;
+        m_loop.channelOpened();
+    }
+
+    /**
+     * Must be called from the event loop.
+     */
+    static void start(EventLoop loop, InetSocketAddress address, ByteBuffer request, int maxResponseSize, long timeoutMs, CompletableFuture<ByteBuffer> future) {
+        final DatagramChannel channel;
+        try {
+            channel = DatagramChannel.open();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+
+        final DatagramExchange exchange = new DatagramExchange(loop, channel, request, maxResponseSize, future);
+        try {
+            channel.configureBlocking(false);
+            channel.connect(address);
+            exchange.m_key = channel.register(loop.getSelector(), 0, exchange);
+            exchange.m_timeout = loop.scheduleMillis(timeoutMs, () -> exchange.fail(new SocketTimeoutException("Timed out waiting for a response from " + address)));
+            exchange.send();
+        } catch (Throwable t) {
+            exchange.fail(t);
+        }
+    }
+
+    private void send() throws IOException {
+        m_channel.write(m_request);
+        // A datagram is either sent in full or not at all
+        m_key.interestOps(m_request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (key.isWritable()) {
+            send();
+        } else if (key.isReadable()) {
+            m_response.clear();
+            if (m_channel.read(m_response) > 0) {
+                m_response.flip();
+                close();
+                m_future.complete(m_response);
+            }
+        }
+    }
+
+    @Override
+    public void fail(Throwable t) {
+        close();
+        m_future.completeExceptionally(t);
+    }
+
+    private void close() {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        if (m_timeout != null) {
+            m_timeout.cancel();
+        }
+        if (m_key != null) {
+            m_key.cancel();
+        }
+        try {
+            m_channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        m_loop.channelClosed();
+    }
+}
@@ -34,6 +34,8 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.springframework.util.StringUtils;
 
@@ -197,10 +199,78 @@ public class FtpResponse {
      * @throws java.io.IOException if any.
      */
     public static FtpResponse readResponse(BufferedReader in) throws IOException {
-        int code;
         List<String> response = new ArrayList<String>();
 
         String firstResponseLine = in.readLine();
+        int code = parseFirstLine(firstResponseLine, response);
+
+        // Is the fourth character a hyphen (if so, it's a continuation)?
+        if ("-".equals(firstResponseLine.substring(3, 4))) {
+            // The multi-line response ends with a line that begins with this:
+            String endMultiLine = code + " ";
+
+            while (true) {
+                String subsequentResponse = in.readLine();
+                if (parseSubsequentLine(subsequentResponse, endMultiLine, response)) {
+                    break;
+                }
+            }
+        }
+
+        return new FtpResponse(code, response.toArray(new String[response.size()]));
+    }
+
+    /**
+     * Helper method to send commands to the remote server without blocking.
+     *
+     * @param conn connection to the server
+     * @param command command to send, without trailing EOL (CRLF, \r\n).
+     * @param timeoutMs how long to wait for the command to be written
+     * @return a future that completes once the command was written
+     */
+    public static CompletableFuture<Void> sendCommand(AsyncConnection conn, String command, long timeoutMs) {
+        return conn.write((command + "\r\n").getBytes(), timeoutMs);
+    }
+
+    /**
+     * Reads a server response without blocking.
+     *
+     * @param conn connection to the server
+     * @param timeoutMs how long to wait for each line of the response
+     * @return a future that completes with the response from server
+     */
+    public static CompletableFuture<FtpResponse> readResponse(AsyncConnection conn, long timeoutMs) {
+        return conn.readLine(timeoutMs).thenCompose(firstResponseLine -> {
+            final List<String> response = new ArrayList<String>();
+            final int code;
+            try {
+                code = parseFirstLine(firstResponseLine, response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+
+            // Is the fourth character a hyphen (if so, it's a continuation)?
+            if ("-".equals(firstResponseLine.substring(3, 4))) {
+                return readMultiLineResponse(conn, timeoutMs, code, response);
+            }
+            return CompletableFuture.completedFuture(new FtpResponse(code, response.toArray(new String[response.size()])));
+        });
+    }
+
+    private static CompletableFuture<FtpResponse> readMultiLineResponse(AsyncConnection conn, long timeoutMs, int code, List<String> response) {
+        return conn.readLine(timeoutMs).thenCompose(subsequentResponse -> {
+            try {
+                if (parseSubsequentLine(subsequentResponse, code + " ", response)) {
+                    return CompletableFuture.completedFuture(new FtpResponse(code, response.toArray(new String[response.size()])));
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return readMultiLineResponse(conn, timeoutMs, code, response);
+        });
+    }
+
+    private static int parseFirstLine(String firstResponseLine, List<String> response) throws IOException {
         if (firstResponseLine == null) {
             throw new IOException("End of stream was reached before a response could be read");
             
@@ -211,33 +281,28 @@ public class FtpResponse {
         response.add(firstResponseLine.substring(4));
 
         try {
-            code = Integer.parseInt(codeString);
+            return Integer.parseInt(codeString);
         } catch (NumberFormatException e) {
             IOException newE = new IOException("First response line returned a non-numeric result code \"" + codeString + "\": " + firstResponseLine);
             newE.initCause(e);
             throw newE;
         }
+    }
 
-        // Is the fourth character a hyphen (if so, it's a continuation)?
-        if ("-".equals(firstResponseLine.substring(3, 4))) {
-            // The multi-line response ends with a line that begins with this:
-            String endMultiLine = code + " ";
-
-            while (true) {
-                String subsequentResponse = in.readLine();
-                if (subsequentResponse == null) {
-                    throw new IOException("End of stream was reached before the complete multi-line response could be read.  What was read: " + StringUtils.collectionToDelimitedString(response, "\n"));
-                }
-                
-                if (subsequentResponse.startsWith(endMultiLine)) {
-                    response.add(subsequentResponse.substring(4));
-                    break;
-                }
-                
-                response.add(subsequentResponse);
-            }
+    /**
+     * @return true if this was the last line of the multi-line response
+     */
+    private static boolean parseSubsequentLine(String subsequentResponse, String endMultiLine, List<String> response) throws IOException {
+        if (subsequentResponse == null) {
+            throw new IOException("End of stream was reached before the complete multi-line response could be read.  What was read: " + StringUtils.collectionToDelimitedString(response, "\n"));
         }
-
-        return new FtpResponse(code, response.toArray(new String[response.size()]));
+        
+        if (subsequentResponse.startsWith(endMultiLine)) {
+            response.add(subsequentResponse.substring(4));
+            return true;
+        }
+        
+        response.add(subsequentResponse);
+        return false;
     }
 }
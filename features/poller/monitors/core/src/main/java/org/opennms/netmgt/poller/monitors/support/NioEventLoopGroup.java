@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small group of threads that perform non-blocking network I/O on behalf
+ * of the asynchronous service monitors.
+ *
+ * Each thread owns a {@link Selector} and services the channels that are
+ * registered with it, along with a queue of tasks and a set of timers.
+ * Connections are assigned to the threads in a round-robin fashion.
+ *
+ * The futures returned by this class are completed from the event loop
+ * threads, so the callbacks attached to these must never block.
+ *
+ * The default group is shared by all of the monitors, and its size can be
+ * set using the {@value #THREADS_PROPERTY} system property.
+ */
+public class NioEventLoopGroup implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioEventLoopGroup.class);
+
+    public static final String THREADS_PROPERTY = "org.opennms.netmgt.poller.nio.threads";
+
+    private static NioEventLoopGroup s_default;
+
+    private final EventLoop[] m_loops;
+
+    private final AtomicInteger m_next = new AtomicInteger();
+
+    private final AtomicInteger m_openChannels = new AtomicInteger();
+
+    private final AtomicLong m_pendingOperations = new AtomicLong();
+
+    /**
+     * Returns the group shared by the monitors, creating it on first use.
+     *
+     * @return the default group
+     */
+    public static synchronized NioEventLoopGroup getDefault() {
+        if (s_default == null) {
+            final int numThreads = Integer.getInteger(THREADS_PROPERTY, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            s_default = new NioEventLoopGroup("Poller-NIO", numThreads);
+        }
+        return s_default;
+    }
+
+    public NioEventLoopGroup(String name, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be strictly positive");
+        }
+        m_loops = new EventLoop[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            try {
+                m_loops[i] = new EventLoop(name + "-" + i);
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Failed to open a selector", e);
+            }
+        }
+        for (EventLoop loop : m_loops) {
+            loop.m_thread.start();
+        }
+    }
+
+    /**
+     * Opens a TCP connection to the given address.
+     *
+     * The future completes exceptionally with the same exceptions that would
+     * be thrown by {@link java.net.Socket#connect(java.net.SocketAddress, int)},
+     * i.e. a {@link java.net.ConnectException}, a {@link java.net.NoRouteToHostException}
+     * or a {@link SocketTimeoutException} when the timeout expires.
+     *
+     * @param address the address to connect to
+     * @param timeoutMs the connection timeout in milliseconds
+     * @return a future that completes with the connection once it is established
+     */
+    public CompletableFuture<AsyncConnection> connect(InetSocketAddress address, long timeoutMs) {
+        final CompletableFuture<AsyncConnection> future = new CompletableFuture<>();
+        final EventLoop loop = next();
+        loop.execute(() -> AsyncConnection.connect(loop, address, timeoutMs, future));
+        return track(future);
+    }
+
+    /**
+     * Sends a single UDP datagram to the given address and waits for the first
+     * datagram that is received in response.
+     *
+     * @param address the address to send the request to
+     * @param request the contents of the datagram
+     * @param maxResponseSize the size of the buffer used to receive the response
+     * @param timeoutMs how long to wait for the response
+     * @return a future that completes with the contents of the response
+     */
+    public CompletableFuture<ByteBuffer> exchange(InetSocketAddress address, ByteBuffer request, int maxResponseSize, long timeoutMs) {
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        final EventLoop loop = next();
+        loop.execute(() -> DatagramExchange.start(loop, address, request, maxResponseSize, timeoutMs, future));
+        return track(future);
+    }
+
+    /**
+     * Returns a future that completes once the given delay has elapsed.
+     *
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return a future that completes on one of the event loop threads
+     */
+    public CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final EventLoop loop = next();
+        final long delayNanos = unit.toNanos(delay);
+        loop.execute(() -> loop.schedule(delayNanos, () -> future.complete(null)));
+        return future;
+    }
+
+    /**
+     * @return the number of channels that are currently open
+     */
+    public int getOpenChannels() {
+        return m_openChannels.get();
+    }
+
+    /**
+     * @return the number of connections and exchanges that have not completed yet
+     */
+    public long getPendingOperations() {
+        return m_pendingOperations.get();
+    }
+
+    public int getNumThreads() {
+        return m_loops.length;
+    }
+
+    /**
+     * Stops the event loop threads and closes all of the channels that
+     * are still registered with them.
+     */
+    @Override
+    public void close() {
+        for (EventLoop loop : m_loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        m_pendingOperations.incrementAndGet();
+        future.whenComplete((result, ex) -> m_pendingOperations.decrementAndGet());
+        return future;
+    }
+
+    private EventLoop next() {
+        return m_loops[Math.floorMod(m_next.getAndIncrement(), m_loops.length)];
+    }
+
+    /**
+     * Implemented by the objects that are attached to the selection keys.
+     */
+    interface Handler {
+        /**
+         * Invoked from the event loop when the key is ready.
+         */
+        void handle(SelectionKey key) throws IOException;
+
+        /**
+         * Invoked from the event loop when {@link #handle(SelectionKey)}
+         * fails, or when the loop is shut down.
+         */
+        void fail(Throwable t);
+    }
+
+    /**
+     * A task that is run by the event loop once its deadline has passed.
+     */
+    static final class Timer implements Comparable<Timer> {
+        private final long m_deadlineNanos;
+        private final long m_sequence;
+        private final Runnable m_task;
+        private boolean m_cancelled;
+
+        private Timer(long deadlineNanos, long sequence, Runnable task) {
+            m_deadlineNanos = deadlineNanos;
+            m_sequence = sequence;
+            m_task = task;
+        }
+
+        /**
+         * Must be called from the event loop.
+         */
+        void cancel() {
+            m_cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            final int cmp = Long.compare(m_deadlineNanos - other.m_deadlineNanos, 0);
+            return cmp != 0 ? cmp : Long.compare(m_sequence, other.m_sequence);
+        }
+    }
+
+    final class EventLoop implements Runnable {
+        private final Selector m_selector;
+        private final Thread m_thread;
+        private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> m_timers = new PriorityQueue<>();
+        private long m_timerSequence = 0;
+        private volatile boolean m_running = true;
+
+        private EventLoop(String name) throws IOException {
+            m_selector = Selector.open();
+            m_thread = new Thread(this, name);
+            m_thread.setDaemon(true);
+        }
+
+        Selector getSelector() {
+            return m_selector;
+        }
+
+        void channelOpened() {
+            m_openChannels.incrementAndGet();
+        }
+
+        void channelClosed() {
+            m_openChannels.decrementAndGet();
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == m_thread;
+        }
+
+        /**
+         * Runs the given task on the event loop. Tasks are run in the order
+         * in which they were submitted.
+         */
+        void execute(Runnable task) {
+            m_tasks.add(task);
+            if (!inEventLoop()) {
+                m_selector.wakeup();
+            }
+        }
+
+        /**
+         * Schedules the task to be run after the given delay.
+         * Must be called from the event loop.
+         */
+        Timer schedule(long delayNanos, Runnable task) {
+            final Timer timer = new Timer(System.nanoTime() + Math.max(0, delayNanos), m_timerSequence++, task);
+            m_timers.add(timer);
+            return timer;
+        }
+
+        Timer scheduleMillis(long delayMs, Runnable task) {
+            return schedule(TimeUnit.MILLISECONDS.toNanos(delayMs), task);
+        }
+
+        private void shutdown() {
+            m_running = false;
+            m_selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (m_running) {
+                try {
+                    runTasks();
+                    final long waitMs = millisUntilNextTimer();
+                    if (!m_tasks.isEmpty() || waitMs == 0) {
+                        m_selector.selectNow();
+                    } else if (waitMs < 0) {
+                        m_selector.select();
+                    } else {
+                        m_selector.select(waitMs);
+                    }
+                    processSelectedKeys();
+                    runTimers();
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (Throwable t) {
+                    LOG.warn("Unexpected exception in the event loop.", t);
+                }
+            }
+
+            final IOException closed = new IOException("The event loop was shut down.");
+            try {
+                for (SelectionKey key : m_selector.keys()) {
+                    if (key.attachment() instanceof Handler) {
+                        ((Handler)key.attachment()).fail(closed);
+                    }
+                }
+                m_selector.close();
+            } catch (Throwable t) {
+                LOG.warn("Failed to close the selector.", t);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = m_tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOG.warn("Unexpected exception in event loop task.", t);
+                }
+            }
+        }
+
+        private long millisUntilNextTimer() {
+            Timer timer;
+            while ((timer = m_timers.peek()) != null && timer.m_cancelled) {
+                m_timers.poll();
+            }
+            if (timer == null) {
+                return -1;
+            }
+            final long remainingNanos = timer.m_deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return 0;
+            }
+            // Round up so that we don't wake up before the deadline
+            return TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        }
+
+        private void processSelectedKeys() {
+            final Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                final SelectionKey key = it.next();
+                it.remove();
+                final Handler handler = (Handler)key.attachment();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    handler.handle(key);
+                } catch (Throwable t) {
+                    handler.fail(t);
+                }
+            }
+        }
+
+        private void runTimers() {
+            final long now = System.nanoTime();
+            Timer timer;
+            while ((timer = m_timers.peek()) != null && timer.m_deadlineNanos - now <= 0) {
+                m_timers.poll();
+                if (timer.m_cancelled) {
+                    continue;
+                }
+                try {
+                    timer.m_task.run();
+                } catch (Throwable t) {
+                    LOG.warn("Unexpected exception in event loop timer.", t);
+                }
+            }
+        }
+    }
+}
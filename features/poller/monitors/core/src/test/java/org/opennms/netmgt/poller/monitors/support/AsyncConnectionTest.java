@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.SocketUtils;
+
+public class AsyncConnectionTest {
+
+    private NioEventLoopGroup m_group;
+
+    private ServerSocket m_serverSocket;
+
+    @Before
+    public void setUp() throws Exception {
+        m_group = new NioEventLoopGroup("AsyncConnectionTest", 2);
+        m_serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_serverSocket.close();
+        m_group.close();
+    }
+
+    @Test
+    public void canReadAndWriteLines() throws Exception {
+        final Thread server = serve(m_serverSocket, socket -> {
+            final OutputStream out = socket.getOutputStream();
+            out.write("220 Welcome\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            final byte[] buf = new byte[6];
+            int read = 0;
+            while (read < buf.length) {
+                read += socket.getInputStream().read(buf, read, buf.length - read);
+            }
+            out.write(buf);
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        });
+
+        try (AsyncConnection conn = m_group.connect(getServerAddress(), 5000).get(10, TimeUnit.SECONDS)) {
+            assertEquals("220 Welcome", conn.readLine(5000).get(10, TimeUnit.SECONDS));
+            conn.writeLine("QUIT", 5000).get(10, TimeUnit.SECONDS);
+            assertEquals("QUIT", conn.readLine(5000).get(10, TimeUnit.SECONDS));
+            // The last line isn't terminated, it's returned once the server closes the connection
+            assertEquals("partial", conn.readLine(5000).get(10, TimeUnit.SECONDS));
+            assertNull(conn.readLine(5000).get(10, TimeUnit.SECONDS));
+        }
+        server.join();
+        waitForChannelsToClose();
+    }
+
+    @Test
+    public void canReadFully() throws Exception {
+        final byte[] payload = new byte[AsyncConnection.MAX_LINE_LENGTH];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte)i;
+        }
+        final Thread server = serve(m_serverSocket, socket -> {
+            socket.getOutputStream().write(payload);
+            socket.getOutputStream().flush();
+        });
+
+        try (AsyncConnection conn = m_group.connect(getServerAddress(), 5000).get(10, TimeUnit.SECONDS)) {
+            assertArrayEquals(payload, conn.readFully(payload.length, 5000).get(10, TimeUnit.SECONDS));
+        }
+        server.join();
+    }
+
+    @Test
+    public void failsReadsThatTimeOut() throws Exception {
+        final Thread server = serve(m_serverSocket, socket -> {
+            // Wait for the client to give up
+            socket.getInputStream().read();
+        });
+
+        final AsyncConnection conn = m_group.connect(getServerAddress(), 5000).get(10, TimeUnit.SECONDS);
+        final long start = System.nanoTime();
+        try {
+            conn.readLine(200).get(10, TimeUnit.SECONDS);
+            fail("The read should have timed out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        server.join();
+        waitForChannelsToClose();
+    }
+
+    @Test
+    public void failsConnectionsThatAreRefused() throws Exception {
+        final InetSocketAddress address = getServerAddress();
+        m_serverSocket.close();
+
+        try {
+            m_group.connect(address, 5000).get(10, TimeUnit.SECONDS);
+            fail("The connection should have been refused.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectException);
+        }
+        waitForChannelsToClose();
+    }
+
+    @Test
+    public void canExchangeDatagrams() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final Thread server = new Thread(() -> {
+                try {
+                    final DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+                    socket.receive(packet);
+                    socket.send(new DatagramPacket(packet.getData(), packet.getLength(), packet.getSocketAddress()));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            server.start();
+
+            final ByteBuffer response = m_group.exchange(new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort()),
+                    ByteBuffer.wrap("ping".getBytes(StandardCharsets.UTF_8)), 512, 5000).get(10, TimeUnit.SECONDS);
+            final byte[] bytes = new byte[response.remaining()];
+            response.get(bytes);
+            assertEquals("ping", new String(bytes, StandardCharsets.UTF_8));
+            server.join();
+        }
+        waitForChannelsToClose();
+    }
+
+    @Test
+    public void failsDatagramExchangesThatTimeOut() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            m_group.exchange(new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort()),
+                    ByteBuffer.wrap("ping".getBytes(StandardCharsets.UTF_8)), 512, 200).get(10, TimeUnit.SECONDS);
+            fail("The exchange should have timed out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        waitForChannelsToClose();
+    }
+
+    @Test
+    public void canStartTls() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream is = new FileInputStream("src/test/resources/JUnitHttpServer.keystore")) {
+            keyStore.load(is, "opennms".toCharArray());
+        }
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "opennms".toCharArray());
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+
+        try (SSLServerSocket sslServerSocket = (SSLServerSocket)sslContext.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            final Thread server = serve(sslServerSocket, socket -> {
+                final byte[] buf = new byte[7];
+                int read = 0;
+                while (read < buf.length) {
+                    read += socket.getInputStream().read(buf, read, buf.length - read);
+                }
+                socket.getOutputStream().write("* OK ".getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().write(buf);
+                socket.getOutputStream().flush();
+            });
+
+            final InetSocketAddress address = new InetSocketAddress(sslServerSocket.getInetAddress(), sslServerSocket.getLocalPort());
+            try (AsyncConnection conn = m_group.connect(address, 5000).get(10, TimeUnit.SECONDS)) {
+                conn.startTls(SocketUtils.createSslEngine(address.getAddress(), address.getPort(), null), 5000).get(10, TimeUnit.SECONDS);
+                conn.writeLine("HELLO", 5000).get(10, TimeUnit.SECONDS);
+                assertEquals("* OK HELLO", conn.readLine(5000).get(10, TimeUnit.SECONDS));
+            }
+            server.join();
+        }
+    }
+
+    private InetSocketAddress getServerAddress() {
+        return new InetSocketAddress(m_serverSocket.getInetAddress(), m_serverSocket.getLocalPort());
+    }
+
+    private void waitForChannelsToClose() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (m_group.getOpenChannels() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_group.getOpenChannels());
+        assertEquals(0, m_group.getPendingOperations());
+    }
+
+    private interface SocketHandler {
+        void handle(Socket socket) throws Exception;
+    }
+
+    private static Thread serve(ServerSocket serverSocket, SocketHandler handler) {
+        final Thread thread = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                handler.handle(socket);
+            } catch (Exception e) {
+                // The client may have already closed the connection
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -46,6 +46,25 @@ public abstract class AvailabilityConstants {
      */
     public static final String DB_GET_SVC_ENTRIES = "SELECT ifServices.serviceid, service.servicename FROM ifServices, ipInterface, node, service WHERE ifServices.ipInterfaceId = ipInterface.id AND ipInterface.nodeId = node.nodeId AND ipInterface.ipaddr = ? AND ipinterface.isManaged ='M' AND ifServices.serviceid = service.serviceid AND ifservices.status = 'A' AND node.nodeid = ? AND node.nodetype = 'A'";
 
+    /**
+     * The SQL statement for getting the first and last day that the outages
+     * have been rolled up for. The days in between are always rolled up too.
+     */
+    public static final String DB_GET_ROLLED_UP_DAYS = "SELECT MIN(day), MAX(day) FROM outageRollupDays";
+
+    /**
+     * The SQL statement for getting the daily outage rollups for a
+     * nodeid/ip/serviceid in a range of days
+     */
+    public static final String DB_GET_OUTAGE_ROLLUPS = "SELECT outageRollups.day, outageRollups.downtime FROM outageRollups, ifServices, ipInterface, node WHERE outageRollups.ifServiceId = ifServices.id AND ifServices.ipInterfaceId = ipInterface.id AND ipInterface.nodeId = node.nodeId AND node.nodeid = ? AND ipInterface.ipaddr = ? AND ifServices.serviceid = ? AND outageRollups.day >= ? AND outageRollups.day < ?";
+
+    /**
+     * The SQL statement for getting the outage entries for a nodeid/ip/serviceid
+     * that overlap with the report window, but are not completely covered by
+     * the rolled up days
+     */
+    public static final String DB_GET_OUTAGE_ENTRIES_OUTSIDE_ROLLUPS = "SELECT ifLostService, ifRegainedService FROM outages, ifServices, ipInterface, node WHERE outages.ifServiceId = ifServices.id AND ifServices.ipInterfaceId = ipInterface.id AND ipInterface.nodeId = node.nodeId AND node.nodeid = ? AND ipInterface.ipaddr = ? AND ifServices.serviceid = ? AND ifLostService < ? AND (ifRegainedService IS NULL OR ifRegainedService > ?) AND (ifLostService < ? OR ifRegainedService IS NULL OR ifRegainedService > ?)";
+
     /**
      * The SQL statement for getting outage entries for a nodeid/ip/serviceid
      */
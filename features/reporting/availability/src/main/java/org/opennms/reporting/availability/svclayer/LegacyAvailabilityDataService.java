@@ -37,6 +37,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -67,6 +69,14 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
 
     private List<Node> m_nodes;
 
+    /**
+     * The days in [m_rollupStart, m_rollupEnd) are read from the daily outage
+     * rollups instead of the outages.
+     */
+    private long m_rollupStart;
+
+    private long m_rollupEnd;
+
     private static final String LOG4J_CATEGORY = "reports";
 
     /**
@@ -87,6 +97,7 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                     PreparedStatement ipInfoGetStmt = null;
                     PreparedStatement servicesGetStmt = null;
                     PreparedStatement outagesGetStmt = null;
+                    PreparedStatement rollupsGetStmt = null;
 
                     String categoryName = category.getLabel();
                     try {
@@ -121,10 +132,16 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                         servicesGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_SVC_ENTRIES);
                         db.watch(servicesGetStmt);
 
+                        initialiseRollupRange(db, startTime, endTime);
+
                         // Prepared statement to get outages entries
-                        outagesGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_OUTAGE_ENTRIES);
+                        outagesGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_OUTAGE_ENTRIES_OUTSIDE_ROLLUPS);
                         db.watch(outagesGetStmt);
 
+                        // Prepared statement to get the daily outage rollups
+                        rollupsGetStmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_OUTAGE_ROLLUPS);
+                        db.watch(rollupsGetStmt);
+
                         /*
                          * For each of these IP addresses, get the details from the
                          * ifServices and services tables.
@@ -171,7 +188,7 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                                      */
                                     if (monitoredServices.isEmpty() || monitoredServices.contains(svcname)) {
                                         final OutageSvcTimesList outageSvcTimesList = new OutageSvcTimesList();
-                                        getOutagesNodeIpSvc(nodeid, nodeName, ip, svcid, svcname, outageSvcTimesList, outagesGetStmt, startTime, endTime);
+                                        getOutagesNodeIpSvc(nodeid, nodeName, ip, svcid, svcname, outageSvcTimesList, outagesGetStmt, rollupsGetStmt, startTime, endTime);
                                     }
                                 }
                             }
@@ -195,16 +212,103 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
 
     }
 
+    /**
+     * Determines the range of days that are read from the daily outage
+     * rollups.
+     *
+     * The rollups only hold the total downtime of each day, so the
+     * individual outages are still read for last month and the current
+     * month, which are used for the top service outages. The day before
+     * last month is read from the outages too, since the rolling windows of
+     * the report don't necessarily start at midnight.
+     */
+    private void initialiseRollupRange(final DBUtils db, final long startTime, final long endTime) throws SQLException {
+        m_rollupStart = startTime;
+        m_rollupEnd = startTime;
+
+        final PreparedStatement stmt = m_availConn.prepareStatement(AvailabilityConstants.DB_GET_ROLLED_UP_DAYS);
+        db.watch(stmt);
+        final ResultSet rs = stmt.executeQuery();
+        db.watch(rs);
+        if (!rs.next() || rs.getDate(1) == null) {
+            LOG.debug("No outages have been rolled up, using the outages for the whole report.");
+            return;
+        }
+
+        final Calendar cal = Calendar.getInstance();
+        cal.setTime(rs.getDate(2));
+        cal.add(Calendar.DATE, 1);
+        final long lastRolledUpEnd = cal.getTimeInMillis();
+
+        cal.setTimeInMillis(endTime);
+        cal.add(Calendar.MONTH, -1);
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DATE, -1);
+        final long lastMonthStart = cal.getTimeInMillis();
+
+        cal.setTimeInMillis(startTime);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        if (cal.getTimeInMillis() < startTime) {
+            cal.add(Calendar.DATE, 1);
+        }
+        final long rollupStart = Math.max(cal.getTimeInMillis(), rs.getDate(1).getTime());
+        final long rollupEnd = Math.min(lastRolledUpEnd, lastMonthStart);
+
+        if (rollupStart < rollupEnd) {
+            m_rollupStart = rollupStart;
+            m_rollupEnd = rollupEnd;
+            LOG.debug("Using the outage rollups from {} until {}", new java.util.Date(m_rollupStart), new java.util.Date(m_rollupEnd));
+        }
+    }
+
+    /**
+     * Returns the parts of the given outage that are not within
+     * [rollupStart, rollupEnd). A regained time of 0 means that the
+     * outage is still open.
+     *
+     * @return the outages, which are empty if the outage is completely
+     * within the range
+     */
+    static List<Outage> excludeRollupRange(final long losttime, final long regainedtime, final long rollupStart, final long rollupEnd) {
+        if (rollupStart >= rollupEnd || (regainedtime > 0 && regainedtime <= rollupStart) || losttime >= rollupEnd) {
+            return Collections.singletonList(new Outage(losttime, regainedtime));
+        }
+
+        final List<Outage> outages = new ArrayList<Outage>(2);
+        if (losttime < rollupStart) {
+            outages.add(new Outage(losttime, rollupStart));
+        }
+        if (regainedtime <= 0 || regainedtime > rollupEnd) {
+            outages.add(new Outage(Math.max(losttime, rollupEnd), regainedtime));
+        }
+        return outages;
+    }
+
     /**
      * Get all outages for this nodeid/ipaddr/service combination and add it
      * to m_nodes.
+     *
+     * The outages for the days in [m_rollupStart, m_rollupEnd) are built
+     * from the daily rollups, with one outage that starts at midnight and
+     * lasts for the downtime of that day.
      */
-    private void getOutagesNodeIpSvc(int nodeid, String nodeName, String ipaddr, int serviceid, String serviceName, OutageSvcTimesList outageSvcTimesList, PreparedStatement outagesGetStmt, long startTime,long endTime) throws SQLException {
+    private void getOutagesNodeIpSvc(int nodeid, String nodeName, String ipaddr, int serviceid, String serviceName, OutageSvcTimesList outageSvcTimesList, PreparedStatement outagesGetStmt, PreparedStatement rollupsGetStmt, long startTime,long endTime) throws SQLException {
         // Get outages for this node/ip/svc pair
         try {
             outagesGetStmt.setInt(1, nodeid);
             outagesGetStmt.setString(2, ipaddr);
             outagesGetStmt.setInt(3, serviceid);
+            outagesGetStmt.setTimestamp(4, new Timestamp(endTime));
+            outagesGetStmt.setTimestamp(5, new Timestamp(startTime));
+            outagesGetStmt.setTimestamp(6, new Timestamp(m_rollupStart));
+            outagesGetStmt.setTimestamp(7, new Timestamp(m_rollupEnd));
 
             ResultSet rs = outagesGetStmt.executeQuery();
 
@@ -256,14 +360,41 @@ public class LegacyAvailabilityDataService implements AvailabilityDataService {
                         continue;
                     }
                 }
-                Outage outage = new Outage(losttime, regainedtime);
-                outageSvcTimesList.add(outage);
-                addNode(nodeName, nodeid, ipaddr, serviceName, losttime, regainedtime);
+                for (final Outage outage : excludeRollupRange(losttime, regainedtime, m_rollupStart, m_rollupEnd)) {
+                    outageSvcTimesList.add(outage);
+                    addNode(nodeName, nodeid, ipaddr, serviceName, outage.getLostTime(), outage.getRegainedTime());
+                }
             }
             if (rs != null) {
                 rs.close();
             }
 
+            if (m_rollupStart < m_rollupEnd) {
+                rollupsGetStmt.setInt(1, nodeid);
+                rollupsGetStmt.setString(2, ipaddr);
+                rollupsGetStmt.setInt(3, serviceid);
+                rollupsGetStmt.setDate(4, new java.sql.Date(m_rollupStart));
+                rollupsGetStmt.setDate(5, new java.sql.Date(m_rollupEnd));
+
+                final Calendar cal = Calendar.getInstance();
+                rs = rollupsGetStmt.executeQuery();
+                while (rs.next()) {
+                    final long downtime = rs.getLong(2);
+                    if (downtime <= 0) {
+                        continue;
+                    }
+                    cal.setTime(rs.getDate(1));
+                    final long dayStart = cal.getTimeInMillis();
+                    cal.add(Calendar.DATE, 1);
+                    final long dayEnd = cal.getTimeInMillis();
+
+                    final Outage outage = new Outage(dayStart, Math.min(dayStart + downtime, dayEnd));
+                    outageSvcTimesList.add(outage);
+                    addNode(nodeName, nodeid, ipaddr, serviceName, outage.getLostTime(), outage.getRegainedTime());
+                }
+                rs.close();
+            }
+
         } catch (SQLException e) {
             LOG.error("SQL Error occured while getting the outages ", e);
             throw e;
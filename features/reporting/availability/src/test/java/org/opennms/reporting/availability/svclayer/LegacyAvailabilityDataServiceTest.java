@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.reporting.availability.svclayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.reporting.datablock.Outage;
+
+public class LegacyAvailabilityDataServiceTest {
+
+    private static final long ROLLUP_START = 100000;
+
+    private static final long ROLLUP_END = 200000;
+
+    @Test
+    public void testOutageOutsideRollupRange() {
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 2000, ROLLUP_START, ROLLUP_END), 1000, 2000);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, ROLLUP_START, ROLLUP_START, ROLLUP_END), 1000, ROLLUP_START);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(ROLLUP_END, 300000, ROLLUP_START, ROLLUP_END), ROLLUP_END, 300000);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(ROLLUP_END, 0, ROLLUP_START, ROLLUP_END), ROLLUP_END, 0);
+    }
+
+    @Test
+    public void testOutageWithinRollupRange() {
+        assertTrue(LegacyAvailabilityDataService.excludeRollupRange(ROLLUP_START, ROLLUP_END, ROLLUP_START, ROLLUP_END).isEmpty());
+        assertTrue(LegacyAvailabilityDataService.excludeRollupRange(150000, 160000, ROLLUP_START, ROLLUP_END).isEmpty());
+    }
+
+    @Test
+    public void testOutageOverlappingRollupRange() {
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 150000, ROLLUP_START, ROLLUP_END), 1000, ROLLUP_START);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(150000, 300000, ROLLUP_START, ROLLUP_END), ROLLUP_END, 300000);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(150000, 0, ROLLUP_START, ROLLUP_END), ROLLUP_END, 0);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 300000, ROLLUP_START, ROLLUP_END), 1000, ROLLUP_START, ROLLUP_END, 300000);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 0, ROLLUP_START, ROLLUP_END), 1000, ROLLUP_START, ROLLUP_END, 0);
+    }
+
+    @Test
+    public void testEmptyRollupRange() {
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 300000, ROLLUP_START, ROLLUP_START), 1000, 300000);
+        assertOutages(LegacyAvailabilityDataService.excludeRollupRange(1000, 0, ROLLUP_START, ROLLUP_START), 1000, 0);
+    }
+
+    private static void assertOutages(final List<Outage> outages, final long... times) {
+        assertEquals(times.length / 2, outages.size());
+        for (int i = 0; i < outages.size(); i++) {
+            assertEquals(times[2 * i], outages.get(i).getLostTime());
+            assertEquals(times[2 * i + 1], outages.get(i).getRegainedTime());
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +40,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.xml.bind.JAXBException;
 
@@ -69,6 +73,9 @@ import org.opennms.netmgt.dao.api.IsIsLinkDao;
 import org.opennms.netmgt.dao.api.LldpElementDao;
 import org.opennms.netmgt.dao.api.LldpLinkDao;
 import org.opennms.netmgt.dao.api.OspfLinkDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.model.BridgeBridgeLink;
 import org.opennms.netmgt.model.BridgeMacLink;
 import org.opennms.netmgt.model.CdpElement;
@@ -87,15 +94,71 @@ import org.opennms.netmgt.model.topology.BroadcastDomain;
 import org.opennms.netmgt.model.topology.EdgeAlarmStatusSummary;
 import org.opennms.netmgt.model.topology.IsisTopologyLink;
 import org.opennms.netmgt.model.topology.SharedSegment;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.Lists;
 
-public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider {
+public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider implements EventListener {
+
+    /**
+     * The parts of the topology that are loaded from the database.
+     *
+     * These are kept in memory between refreshes and are only reloaded
+     * once they have been marked as dirty by an event, or when the data
+     * has reached the maximum age.
+     */
+    enum Section {
+        NODES,
+        IP_INTERFACES,
+        SNMP_INTERFACES,
+        IP_NET_TO_MEDIA,
+        LLDP,
+        OSPF,
+        CDP,
+        ISIS,
+        BRIDGE
+    }
+
+    /** Sent by enlinkd when the links of a node were (re)discovered, the runnable parameter identifies the protocol. */
+    static final String NODE_LINK_DISCOVERY_COMPLETED_UEI = "uei.opennms.org/internal/linkd/nodeLinkDiscoveryCompleted";
+
+    private static final Map<String, Section> SECTIONS_BY_RUNNABLE = new HashMap<>();
+    static {
+        SECTIONS_BY_RUNNABLE.put("LldpLinkDiscovery", Section.LLDP);
+        SECTIONS_BY_RUNNABLE.put("OspfLinkDiscovery", Section.OSPF);
+        SECTIONS_BY_RUNNABLE.put("CdpLinkDiscovery", Section.CDP);
+        SECTIONS_BY_RUNNABLE.put("IsisLinkDiscovery", Section.ISIS);
+        SECTIONS_BY_RUNNABLE.put("BridgeLinkDiscovery", Section.BRIDGE);
+        SECTIONS_BY_RUNNABLE.put("DiscoveryBridgeTopology", Section.BRIDGE);
+        SECTIONS_BY_RUNNABLE.put("IpNetToMediaLinkDiscovery", Section.IP_NET_TO_MEDIA);
+    }
+
+    private static final Set<Section> INVENTORY_SECTIONS = Collections.unmodifiableSet(EnumSet.of(Section.NODES, Section.IP_INTERFACES, Section.SNMP_INTERFACES));
+
+    private static final List<String> UEIS = Lists.newArrayList(
+            NODE_LINK_DISCOVERY_COMPLETED_UEI,
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+            EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI);
+
+    /**
+     * Changes that are not signaled by an event, i.e. the interface attributes
+     * updated by a rescan, are picked up once the data reaches this age.
+     */
+    public static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
 
     abstract class LinkDetail<K> {
         private final String m_id;
@@ -424,6 +487,26 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     private BridgeMacLinkDao m_bridgeMacLinkDao;
     private BridgeTopologyDao m_bridgeTopologyDao;
     private IpNetToMediaDao m_ipNetToMediaDao;
+    private EventSubscriptionService m_eventSubscriptionService;
+    private long m_maxAge = DEFAULT_MAX_AGE;
+
+    private final Set<Section> m_dirtySections = ConcurrentHashMap.newKeySet();
+    private long m_lastFullLoad = 0;
+    private boolean m_graphLoaded = false;
+
+    // Data kept between refreshes, only the dirty sections are reloaded. These are
+    // all projections from the TopologyDao and are never attached to a session.
+    private List<OnmsNode> m_nodes = Collections.emptyList();
+    private List<OnmsIpInterface> m_ipInterfaces = Collections.emptyList();
+    private List<OnmsSnmpInterface> m_snmpInterfaces = Collections.emptyList();
+    private List<IpNetToMedia> m_ipNetToMedia = Collections.emptyList();
+    private List<LldpElement> m_lldpElements = Collections.emptyList();
+    private List<LldpLink> m_lldpLinks = Collections.emptyList();
+    private List<OspfLink> m_ospfLinks = Collections.emptyList();
+    private List<CdpElement> m_cdpElements = Collections.emptyList();
+    private List<CdpLink> m_cdpLinks = Collections.emptyList();
+    private List<IsisTopologyLink> m_isisLinks = Collections.emptyList();
+    private Set<BroadcastDomain> m_broadcastDomains = Collections.emptySet();
 
     private SelectionAware selectionAwareDelegate = new EnhancedLinkdSelectionAware();
     
@@ -445,6 +528,7 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     private final Timer m_loadBridgeLinksTimer;
     private final Timer m_loadNoLinksTimer;
     private final Timer m_loadManualLinksTimer;
+    private final Meter m_refreshSkippedMeter;
 
     public EnhancedLinkdTopologyProvider(MetricRegistry registry) {
         Objects.requireNonNull(registry);
@@ -460,9 +544,74 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
         m_loadBridgeLinksTimer = registry.timer(MetricRegistry.name("enlinkd", "load", "links", "bridge"));
         m_loadNoLinksTimer = registry.timer(MetricRegistry.name("enlinkd", "load", "links", "none"));
         m_loadManualLinksTimer = registry.timer(MetricRegistry.name("enlinkd", "load", "links", "manual"));
+        m_refreshSkippedMeter = registry.meter(MetricRegistry.name("enlinkd", "load", "skipped"));
+        m_dirtySections.addAll(EnumSet.allOf(Section.class));
+    }
+
+    public void init() {
+        if (m_eventSubscriptionService != null) {
+            m_eventSubscriptionService.addEventListener(this, UEIS);
+        }
+    }
+
+    public void destroy() {
+        if (m_eventSubscriptionService != null) {
+            m_eventSubscriptionService.removeEventListener(this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        final String uei = e.getUei();
+        if (NODE_LINK_DISCOVERY_COMPLETED_UEI.equals(uei)) {
+            final Parm runnable = e.getParm("runnable");
+            final Section section = runnable != null && runnable.getValue() != null ? SECTIONS_BY_RUNNABLE.get(runnable.getValue().getContent()) : null;
+            if (section != null) {
+                m_dirtySections.add(section);
+            } else {
+                m_dirtySections.addAll(EnumSet.allOf(Section.class));
+            }
+        } else if (EventConstants.NODE_DELETED_EVENT_UEI.equals(uei)) {
+            // The links are deleted along with the node
+            m_dirtySections.addAll(EnumSet.allOf(Section.class));
+        } else {
+            m_dirtySections.addAll(INVENTORY_SECTIONS);
+        }
+    }
+
+    /**
+     * Determines which sections need to be reloaded, and clears their dirty flag.
+     */
+    private Set<Section> getSectionsToReload() {
+        final long now = System.currentTimeMillis();
+        if (m_eventSubscriptionService == null || now - m_lastFullLoad >= m_maxAge) {
+            // We can't rely on the events, or the data is too old: reload everything
+            m_dirtySections.clear();
+            m_lastFullLoad = now;
+            return EnumSet.allOf(Section.class);
+        }
+        final Set<Section> sections = EnumSet.noneOf(Section.class);
+        for (Section section : Section.values()) {
+            if (m_dirtySections.remove(section)) {
+                sections.add(section);
+            }
+        }
+        return sections;
+    }
+
+    @Override
+    public void resetContainer() {
+        m_graphLoaded = false;
+        super.resetContainer();
     }
 
-    private void loadCompleteTopology() throws MalformedURLException, JAXBException {
+    private void loadCompleteTopology(Set<Section> sectionsToReload) throws MalformedURLException, JAXBException {
+        LOG.debug("loadtopology: reloading {}", sectionsToReload);
         try{
             resetContainer();
         } catch (Exception e){
@@ -478,8 +627,11 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         Timer.Context context = m_loadNodesTimer.time();
         try {
-            LOG.info("Loading nodes");
-            for (OnmsNode node: m_nodeDao.findAll()) {
+            if (sectionsToReload.contains(Section.NODES)) {
+                LOG.info("Loading nodes");
+                m_nodes = reload(Section.NODES, () -> m_topologyDao.getNodesForTopology());
+            }
+            for (OnmsNode node: m_nodes) {
                 nodemap.put(node.getId(), node);
             }
             LOG.info("Nodes loaded");
@@ -491,9 +643,12 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         context = m_loadIpInterfacesTimer.time();
         try {
-            LOG.info("Loading Ip Interface");
+            if (sectionsToReload.contains(Section.IP_INTERFACES)) {
+                LOG.info("Loading Ip Interface");
+                m_ipInterfaces = reload(Section.IP_INTERFACES, () -> m_topologyDao.getIpInterfacesForTopology());
+            }
             Set<InetAddress> duplicatedips = new HashSet<InetAddress>();
-            for (OnmsIpInterface ip: m_ipInterfaceDao.findAll()) {
+            for (OnmsIpInterface ip: m_ipInterfaces) {
                 if (!nodeipmap.containsKey(ip.getNode().getId())) {
                     nodeipmap.put(ip.getNode().getId(), new ArrayList<OnmsIpInterface>());
                     nodeipprimarymap.put(ip.getNode().getId(), ip);
@@ -525,8 +680,11 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         context = m_loadSnmpInterfacesTimer.time();
         try {
-            LOG.info("Loading Snmp Interface");
-            for (OnmsSnmpInterface snmp: m_snmpInterfaceDao.findAll()) {
+            if (sectionsToReload.contains(Section.SNMP_INTERFACES)) {
+                LOG.info("Loading Snmp Interface");
+                m_snmpInterfaces = reload(Section.SNMP_INTERFACES, () -> m_topologyDao.getSnmpInterfacesForTopology());
+            }
+            for (OnmsSnmpInterface snmp: m_snmpInterfaces) {
                 // Index the SNMP interfaces by node id
                 final int nodeId = snmp.getNode().getId();
                 List<OnmsSnmpInterface> snmpinterfaces = nodesnmpmap.get(nodeId);
@@ -547,8 +705,11 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
         try {
             Set<String> duplicatednodemac = new HashSet<String>();
             Map<String, Integer> mactonodemap = new HashMap<String, Integer>();
-            LOG.info("Loading ip net to media");
-            for (IpNetToMedia ipnettomedia: m_ipNetToMediaDao.findAll()) {
+            if (sectionsToReload.contains(Section.IP_NET_TO_MEDIA)) {
+                LOG.info("Loading ip net to media");
+                m_ipNetToMedia = reload(Section.IP_NET_TO_MEDIA, () -> m_topologyDao.getIpNetToMediaForTopology());
+            }
+            for (IpNetToMedia ipnettomedia: m_ipNetToMedia) {
                 if (duplicatednodemac.contains(ipnettomedia.getPhysAddress())) {
                     LOG.info("load ip net media: different nodeid found for ip: {} mac: {}. Skipping...",InetAddressUtils.str(ipnettomedia.getNetAddress()), ipnettomedia.getPhysAddress());
                     continue;
@@ -584,7 +745,11 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         context = m_loadLldpLinksTimer.time();
         try{
-            LOG.info("Loading Lldp link");
+            if (sectionsToReload.contains(Section.LLDP)) {
+                LOG.info("Loading Lldp link");
+                m_lldpElements = reload(Section.LLDP, () -> m_topologyDao.getLldpElementsForTopology());
+                m_lldpLinks = reload(Section.LLDP, () -> m_topologyDao.getLldpLinksForTopology());
+            }
             getLldpLinks(nodemap, nodesnmpmap,nodeipprimarymap);
             LOG.info("Lldp link loaded");
         } catch (Exception e){
@@ -595,7 +760,10 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         context = m_loadOspfLinksTimer.time();
         try{
-            LOG.info("Loading Ospf link");
+            if (sectionsToReload.contains(Section.OSPF)) {
+                LOG.info("Loading Ospf link");
+                m_ospfLinks = reload(Section.OSPF, () -> m_topologyDao.getOspfLinksForTopology());
+            }
             getOspfLinks(nodemap,nodesnmpmap,nodeipprimarymap);
             LOG.info("Ospf link loaded");
         } catch (Exception e){
@@ -604,9 +772,13 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
             context.stop();
         }
 
-        context = m_loadIsisLinksTimer.time();
+        context = m_loadCdpLinksTimer.time();
         try{
-            LOG.info("Loading Cdp link");
+            if (sectionsToReload.contains(Section.CDP)) {
+                LOG.info("Loading Cdp link");
+                m_cdpElements = reload(Section.CDP, () -> m_topologyDao.getCdpElementsForTopology());
+                m_cdpLinks = reload(Section.CDP, () -> m_topologyDao.getCdpLinksForTopology());
+            }
             getCdpLinks(nodemap,nodesnmpmap,nodeipprimarymap,ipmap);
             LOG.info("Cdp link loaded");
         } catch (Exception e){
@@ -615,9 +787,12 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
             context.stop();
         }
 
-        context = m_loadCdpLinksTimer.time();
+        context = m_loadIsisLinksTimer.time();
         try{
-            LOG.info("Loading IsIs link");
+            if (sectionsToReload.contains(Section.ISIS)) {
+                LOG.info("Loading IsIs link");
+                m_isisLinks = reload(Section.ISIS, () -> m_isisLinkDao.getLinksForTopology());
+            }
             getIsIsLinks(nodesnmpmap,nodeipprimarymap);
             LOG.info("IsIs link loaded");
         } catch (Exception e){
@@ -628,7 +803,10 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         context = m_loadBridgeLinksTimer.time();
         try{
-            LOG.info("Loading Bridge link");
+            if (sectionsToReload.contains(Section.BRIDGE)) {
+                LOG.info("Loading Bridge link");
+                m_broadcastDomains = reload(Section.BRIDGE, () -> m_bridgeTopologyDao.getAllPersisted(m_topologyDao.getBridgeBridgeLinksForTopology(), m_topologyDao.getBridgeMacLinksForTopology()));
+            }
             getBridgeLinks(nodemap, nodesnmpmap,macipmap,nodeipmap,nodeipprimarymap);
             LOG.info("Bridge link loaded");
         } catch (Exception e){
@@ -647,11 +825,30 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
             context.stop();
         }
 
+        m_graphLoaded = true;
+
         LOG.debug("Found {} groups", getGroups().size());
         LOG.debug("Found {} vertices", getVerticesWithoutGroups().size());
         LOG.debug("Found {} edges", getEdges().size());
     }
 
+    /**
+     * Loads the data for the given section, and marks the section as
+     * dirty if this fails so that it gets retried on the next refresh.
+     */
+    private <T> T reload(Section section, Supplier<T> loader) {
+        boolean success = false;
+        try {
+            final T data = loader.get();
+            success = true;
+            return data;
+        } finally {
+            if (!success) {
+                m_dirtySections.add(section);
+            }
+        }
+    }
+
     protected final Vertex getOrCreateVertex(OnmsNode sourceNode,OnmsIpInterface primary) {
         Vertex source = getVertex(getNamespace(), sourceNode.getNodeId());
         if (source == null) {
@@ -742,12 +939,12 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
         // Index the LLDP elements by node id
         Map<Integer, LldpElement> lldpelementmap = new HashMap<Integer, LldpElement>();
-        for (LldpElement lldpelement: m_lldpElementDao.findAll()) {
+        for (LldpElement lldpelement: m_lldpElements) {
             lldpelementmap.put(lldpelement.getNode().getId(), lldpelement);
         }
 
         // Pull all of the LLDP links and index them by remote chassis id
-        List<LldpLink> allLinks = m_lldpLinkDao.findAll();
+        List<LldpLink> allLinks = m_lldpLinks;
         Map<String, List<LldpLink>> linksByRemoteChassisId = new HashMap<>();
         for (LldpLink link : allLinks) {
             final String remoteChassisId = link.getLldpRemChassisId();
@@ -823,7 +1020,7 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     }
 
     private void getOspfLinks(Map<Integer, OnmsNode> nodemap,Map<Integer, List<OnmsSnmpInterface>> nodesnmpmap, Map<Integer, OnmsIpInterface> ipprimarymap) {
-        List<OspfLink> allLinks =  getOspfLinkDao().findAll();
+        List<OspfLink> allLinks = m_ospfLinks;
         Set<OspfLinkDetail> combinedLinkDetails = new HashSet<OspfLinkDetail>();
         Set<Integer> parsed = new HashSet<Integer>();
         for(OspfLink sourceLink : allLinks) {
@@ -858,11 +1055,11 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     private void getCdpLinks(Map<Integer,OnmsNode> nodemap,Map<Integer, List<OnmsSnmpInterface>> nodesnmpmap, 
             Map<Integer, OnmsIpInterface> ipprimarymap, Map<InetAddress,OnmsIpInterface> ipmap) {
         Map<Integer, CdpElement> cdpelementmap = new HashMap<Integer, CdpElement>();
-        for (CdpElement cdpelement: m_cdpElementDao.findAll()) {
+        for (CdpElement cdpelement: m_cdpElements) {
             cdpelementmap.put(cdpelement.getNode().getId(), cdpelement);
         }
 
-        List<CdpLink> allLinks = m_cdpLinkDao.findAll();
+        List<CdpLink> allLinks = m_cdpLinks;
         Set<CdpLinkDetail> combinedLinkDetails = new HashSet<CdpLinkDetail>();
         Set<Integer> parsed = new HashSet<Integer>();
 
@@ -923,7 +1120,7 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     }
 
     private void getIsIsLinks(Map<Integer, List<OnmsSnmpInterface>> nodesnmpmap, Map<Integer, OnmsIpInterface> ipprimarymap){
-        List<IsisTopologyLink> isislinks = m_isisLinkDao.getLinksForTopology();
+        List<IsisTopologyLink> isislinks = m_isisLinks;
 
         if (isislinks != null && isislinks.size() > 0) {
             for (IsisTopologyLink link : isislinks) {
@@ -971,7 +1168,7 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
     }
 
     private void getBridgeLinks(Map<Integer, OnmsNode> nodemap, Map<Integer, List<OnmsSnmpInterface>> nodesnmpmap,Map<String, List<OnmsIpInterface>> macToIpMap,Map<Integer, List<OnmsIpInterface>> ipmap, Map<Integer, OnmsIpInterface> ipprimarymap){
-        for (BroadcastDomain domain: m_bridgeTopologyDao.getAllPersisted(m_bridgeBridgeLinkDao, m_bridgeMacLinkDao)) {
+        for (BroadcastDomain domain: m_broadcastDomains) {
             LOG.info("loadtopology: parsing broadcast Domain: '{}', {}", domain);
             for (SharedSegment segment: domain.getTopology()) {
                 if (segment.noMacsOnSegment() && segment.getBridgeBridgeLinks().size() == 1) {
@@ -1048,10 +1245,16 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
 
     @Override
     @Transactional
-    public void refresh() {
+    public synchronized void refresh() {
         final Timer.Context context = m_loadFullTimer.time();
         try {
-            loadCompleteTopology();
+            final Set<Section> sectionsToReload = getSectionsToReload();
+            if (sectionsToReload.isEmpty() && m_graphLoaded) {
+                LOG.debug("refresh: topology is up-to-date, skipping reload");
+                m_refreshSkippedMeter.mark();
+                return;
+            }
+            loadCompleteTopology(sectionsToReload);
         } catch (MalformedURLException e) {
             LOG.error(e.getMessage(), e);
         } catch (JAXBException e) {
@@ -1302,6 +1505,14 @@ public class EnhancedLinkdTopologyProvider extends AbstractLinkdTopologyProvider
         return m_cdpElementDao;
     }
 
+    public void setEventSubscriptionService(EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    public void setMaxAge(long maxAge) {
+        m_maxAge = maxAge;
+    }
+
     public void setCdpElementDao(CdpElementDao cdpElementDao) {
         m_cdpElementDao = cdpElementDao;
     }
@@ -60,7 +60,9 @@ import org.opennms.netmgt.dao.api.LldpLinkDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.OspfLinkDao;
 import org.opennms.netmgt.dao.api.SnmpInterfaceDao;
+import org.opennms.netmgt.dao.api.TopologyDao;
 import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
 import org.opennms.netmgt.model.CdpElement;
 import org.opennms.netmgt.model.CdpLink;
 import org.opennms.netmgt.model.IpNetToMedia;
@@ -117,6 +119,9 @@ public class EnhancedLinkdMockDataPopulator {
     @Autowired
     private IpNetToMediaDao m_ipNetToMediaDao;
 
+    @Autowired
+    private TopologyDao m_topologyDao;
+
     @Autowired
     private OperationContext m_operationContext;
 
@@ -415,9 +420,20 @@ public class EnhancedLinkdMockDataPopulator {
         EasyMock.expect(m_bridgeMacLinkDao.getAllBridgeLinksToIpAddrToNodes()).andReturn(new ArrayList<BridgeMacTopologyLink>()).anyTimes();
         EasyMock.expect(m_cdpLinkDao.findAll()).andReturn(new ArrayList<CdpLink>()).anyTimes();
         EasyMock.expect(m_cdpElementDao.findAll()).andReturn(new ArrayList<CdpElement>()).anyTimes();
-        EasyMock.expect(m_bridgeTopologyDao.getAllPersisted(m_bridgeBridgeLinkDao, m_bridgeMacLinkDao)).andReturn(new HashSet<BroadcastDomain>()).anyTimes();
+        EasyMock.expect(m_bridgeTopologyDao.getAllPersisted(new ArrayList<BridgeBridgeLink>(), new ArrayList<BridgeMacLink>())).andReturn(new HashSet<BroadcastDomain>()).anyTimes();
         EasyMock.expect(m_isisLinkDao.getLinksForTopology()).andReturn(new ArrayList<IsisTopologyLink>()).anyTimes();
 
+        EasyMock.expect(m_topologyDao.getNodesForTopology()).andReturn(getNodes()).anyTimes();
+        EasyMock.expect(m_topologyDao.getIpInterfacesForTopology()).andReturn(getOnmsIpInterfaces()).anyTimes();
+        EasyMock.expect(m_topologyDao.getIpNetToMediaForTopology()).andReturn(new ArrayList<IpNetToMedia>()).anyTimes();
+        EasyMock.expect(m_topologyDao.getSnmpInterfacesForTopology()).andReturn(getOnmsSnmpInterfaces()).anyTimes();
+        EasyMock.expect(m_topologyDao.getLldpElementsForTopology()).andReturn(getLldpElements()).anyTimes();
+        EasyMock.expect(m_topologyDao.getLldpLinksForTopology()).andReturn(getLinks()).anyTimes();
+        EasyMock.expect(m_topologyDao.getOspfLinksForTopology()).andReturn(getOspfLinks()).anyTimes();
+        EasyMock.expect(m_topologyDao.getCdpElementsForTopology()).andReturn(new ArrayList<CdpElement>()).anyTimes();
+        EasyMock.expect(m_topologyDao.getCdpLinksForTopology()).andReturn(new ArrayList<CdpLink>()).anyTimes();
+        EasyMock.expect(m_topologyDao.getBridgeBridgeLinksForTopology()).andReturn(new ArrayList<BridgeBridgeLink>()).anyTimes();
+        EasyMock.expect(m_topologyDao.getBridgeMacLinksForTopology()).andReturn(new ArrayList<BridgeMacLink>()).anyTimes();
         EasyMock.expect(m_nodeDao.findAll()).andReturn(getNodes()).anyTimes();
         EasyMock.expect(m_ipInterfaceDao.findAll()).andReturn(getOnmsIpInterfaces()).anyTimes();
         EasyMock.expect(m_ipNetToMediaDao.findAll()).andReturn(new ArrayList<IpNetToMedia>()).anyTimes();
@@ -444,6 +460,7 @@ public class EnhancedLinkdMockDataPopulator {
         EasyMock.replay(m_snmpInterfaceDao);
         EasyMock.replay(m_ipInterfaceDao);
         EasyMock.replay(m_ipNetToMediaDao);
+        EasyMock.replay(m_topologyDao);
     }
 
     public void tearDown() {
@@ -456,6 +473,7 @@ public class EnhancedLinkdMockDataPopulator {
         EasyMock.reset(m_snmpInterfaceDao);
         EasyMock.reset(m_ipInterfaceDao);
         EasyMock.reset(m_ipNetToMediaDao);
+        EasyMock.reset(m_topologyDao);
     }
 
 
@@ -37,6 +37,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -55,9 +56,11 @@ import org.opennms.features.topology.api.topo.VertexProvider;
 import org.opennms.features.topology.api.topo.VertexRef;
 import org.opennms.netmgt.dao.api.LldpLinkDao;
 import org.opennms.netmgt.dao.api.OspfLinkDao;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.model.FilterManager;
 import org.opennms.netmgt.model.LldpLink;
 import org.opennms.netmgt.model.OspfLink;
+import org.opennms.netmgt.model.events.EventBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -109,6 +112,28 @@ public class EnhancedLinkdTopologyProviderTest {
 
     }
 
+    @Test
+    public void testRefreshOnlyReloadsWhenDirty() {
+        m_topologyProvider.setEventSubscriptionService(EasyMock.createNiceMock(EventSubscriptionService.class));
+        try {
+            assertEquals(8, m_topologyProvider.getVertices().size());
+
+            // Nothing changed, the graph should be left as-is
+            m_topologyProvider.addVertex(50, 100);
+            m_topologyProvider.refresh();
+            assertEquals(9, m_topologyProvider.getVertices().size());
+
+            // The LLDP links were rediscovered, the graph should be rebuilt
+            m_topologyProvider.onEvent(new EventBuilder(EnhancedLinkdTopologyProvider.NODE_LINK_DISCOVERY_COMPLETED_UEI, "test")
+                    .addParam("runnable", "LldpLinkDiscovery")
+                    .getEvent());
+            m_topologyProvider.refresh();
+            assertEquals(8, m_topologyProvider.getVertices().size());
+        } finally {
+            m_topologyProvider.setEventSubscriptionService(null);
+        }
+    }
+
     @Test
     public void testAddGroup() {
         Vertex parentId = m_topologyProvider.addGroup("Linkd Group", "linkd:group");
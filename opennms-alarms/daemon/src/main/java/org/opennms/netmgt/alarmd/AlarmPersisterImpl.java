@@ -28,10 +28,24 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.events.api.EventParameterUtils;
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsSeverity;
@@ -40,40 +54,145 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * When write-behind is enabled, the alarms that were recently created or
+ * updated are cached by reduction key. Events that reduce to one of these
+ * alarms, and that don't have any update fields, are coalesced in memory:
+ * the counter, last event, last event time, log message and parameters of
+ * the alarm are written in a single batch every flush interval, along with
+ * the references from the events to the alarm. The lifecycle events are
+ * still sent for every event, in order, so the database may lag behind them
+ * by up to one flush interval. Each of these events is reduced to a new copy
+ * of the cached alarm, so the alarms that were already returned, and handed
+ * to the northbounders, don't change.
+ *
+ * A cached alarm is only trusted for two flush intervals after it was read
+ * from the database by the regular reduction path. After that, the next event
+ * is reduced in a transaction again, which picks up any acknowledgements,
+ * escalations or clears that were made in the meantime. If the alarm was
+ * deleted before the pending reductions were flushed, the events are persisted
+ * again as if they had just arrived.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
+    public static final String WRITE_BEHIND_PROPERTY = "org.opennms.alarmd.writeBehind";
+
+    public static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.alarmd.writeBehind.flushInterval";
+
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
     private EventForwarder m_eventForwarder;
     private TransactionOperations m_transactionOperations;
 
+    private boolean m_writeBehind = Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+    private long m_flushInterval = Long.getLong(FLUSH_INTERVAL_PROPERTY, 1000);
+
+    /**
+     * Guards the cache and the pending reductions, and serializes the
+     * processing of the events while write-behind is enabled.
+     */
+    private final Object m_lock = new Object();
+    private final Map<String, CachedAlarm> m_alarmCache = new HashMap<>();
+    private final Map<String, PendingReduction> m_pendingReductions = new LinkedHashMap<>();
+    private ScheduledExecutorService m_flusher;
+
+    private final Counter m_coalescedReductions;
+    private final Counter m_alarmUpdates;
+    private final Timer m_flushTimer;
+
+    private static class CachedAlarm {
+        private final OnmsAlarm m_alarm;
+        /**
+         * When the alarm was read from the database by the regular reduction
+         * path. This is kept when the alarm is cached again after a flush.
+         */
+        private final long m_cachedAt;
+
+        public CachedAlarm(OnmsAlarm alarm) {
+            this(alarm, System.currentTimeMillis());
+        }
+
+        public CachedAlarm(OnmsAlarm alarm, long cachedAt) {
+            m_alarm = alarm;
+            m_cachedAt = cachedAt;
+        }
+    }
+
+    /**
+     * The events that were reduced to an alarm since the last flush.
+     */
+    private static class PendingReduction {
+        private final String m_reductionKey;
+        private final Integer m_alarmId;
+        private final List<Event> m_events = new ArrayList<>();
+        private final List<Integer> m_eventIds = new ArrayList<>();
+        private int m_lastAutoCleanIndex = -1;
+        private Date m_lastEventTime;
+        private String m_logMsg;
+        private String m_eventParms;
+
+        public PendingReduction(String reductionKey, Integer alarmId) {
+            m_reductionKey = reductionKey;
+            m_alarmId = alarmId;
+        }
+
+        public void add(Event event) {
+            if (event.getAlarmData().isAutoClean()) {
+                m_lastAutoCleanIndex = m_eventIds.size();
+            }
+            m_events.add(event);
+            m_eventIds.add(event.getDbid());
+            // Same as the values eventd persisted
+            m_lastEventTime = event.getTime();
+            m_logMsg = event.getLogmsg() == null ? null : EventDatabaseConstants.format(event.getLogmsg().getContent(), 0);
+            m_eventParms = EventDatabaseConstants.format(EventParameterUtils.format(event), 0);
+        }
+
+        public Integer getLastEventId() {
+            return m_eventIds.get(m_eventIds.size() - 1);
+        }
+    }
+
     private static class OnmsAlarmAndLifecycleEvent {
         private final OnmsAlarm m_alarm;
-        private final Event m_event;
+        private final List<Event> m_events;
 
         public OnmsAlarmAndLifecycleEvent(OnmsAlarm alarm, Event event) {
+            this(alarm, Collections.singletonList(event));
+        }
+
+        public OnmsAlarmAndLifecycleEvent(OnmsAlarm alarm, List<Event> events) {
             m_alarm = alarm;
-            m_event = event;
+            m_events = events;
         }
 
         public OnmsAlarm getAlarm() {
             return m_alarm;
         }
 
-        public Event getEvent() {
-            return m_event;
+        /**
+         * @return the lifecycle events, in the order in which they must be sent
+         */
+        public List<Event> getEvents() {
+            return m_events;
         }
     }
 
@@ -89,6 +208,23 @@ public class AlarmPersisterImpl implements AlarmPersister {
             LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
         }
 
+        if (!m_writeBehind) {
+            return addOrReduceAndSend(event);
+        }
+        synchronized (m_lock) {
+            final OnmsAlarmAndLifecycleEvent alarmAndEvent = reduceEventInCache(event);
+            if (alarmAndEvent != null) {
+                sendLifecycleEvents(alarmAndEvent.getEvents());
+                return alarmAndEvent.getAlarm();
+            }
+
+            final OnmsAlarm alarm = addOrReduceAndSend(event);
+            m_alarmCache.put(alarm.getReductionKey(), new CachedAlarm(alarm));
+            return alarm;
+        }
+    }
+
+    private OnmsAlarm addOrReduceAndSend(Event event) {
         // Process the alarm inside a transaction
         OnmsAlarmAndLifecycleEvent alarmAndEvent = m_transactionOperations.execute(new TransactionCallback<OnmsAlarmAndLifecycleEvent>() {
             @Override
@@ -98,17 +234,251 @@ public class AlarmPersisterImpl implements AlarmPersister {
         });
 
         // Send the event outside of the database transaction
-        m_eventForwarder.sendNow(alarmAndEvent.getEvent());
+        sendLifecycleEvents(alarmAndEvent.getEvents());
 
         return alarmAndEvent.getAlarm();
     }
 
+    private void sendLifecycleEvents(List<Event> events) {
+        for (Event event : events) {
+            m_eventForwarder.sendNow(event);
+        }
+    }
+
+    /**
+     * Reduces the event to a cached alarm, leaving the database updates to
+     * the next flush.
+     *
+     * @return null if the event must be processed in a transaction instead
+     */
+    private OnmsAlarmAndLifecycleEvent reduceEventInCache(Event event) {
+        final String reductionKey = event.getAlarmData().getReductionKey();
+        final CachedAlarm cached = m_alarmCache.get(reductionKey);
+        // Only trust the cache for as long as we keep flushing the alarm, since
+        // it may have been acknowledged, escalated or deleted in the meantime
+        if (cached == null || isStale(cached, System.currentTimeMillis()) || event.getAlarmData().hasUpdateFields()) {
+            return null;
+        }
+
+        final OnmsAlarm alarm = copyOf(cached.m_alarm);
+        m_alarmCache.put(reductionKey, new CachedAlarm(alarm, cached.m_cachedAt));
+        PendingReduction pending = m_pendingReductions.get(reductionKey);
+        if (pending == null) {
+            pending = new PendingReduction(reductionKey, alarm.getId());
+            m_pendingReductions.put(reductionKey, pending);
+        }
+        pending.add(event);
+        m_coalescedReductions.inc();
+
+        LOG.debug("reduceEventInCache: reductionKey:{} found in cache, coalescing event {} into alarm {}", reductionKey, event.getDbid(), alarm.getId());
+
+        // Keep our copy of the alarm in line with the database, for the northbounders
+        alarm.setLastEvent(createLastEvent(event, alarm));
+        alarm.setCounter(alarm.getCounter() + 1);
+        alarm.setLastEventTime(pending.m_lastEventTime);
+        alarm.setLogMsg(pending.m_logMsg);
+        alarm.setEventParms(pending.m_eventParms);
+
+        final EventBuilder ebldr = new EventBuilder(EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI, Alarmd.NAME);
+        ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
+        ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
+        return new OnmsAlarmAndLifecycleEvent(alarm, ebldr.getEvent());
+    }
+
+    /**
+     * Creates a shallow copy of the alarm. The related objects are shared, the
+     * reductions only replace them.
+     */
+    private static OnmsAlarm copyOf(OnmsAlarm alarm) {
+        final OnmsAlarm copy = new OnmsAlarm();
+        copy.setId(alarm.getId());
+        copy.setUei(alarm.getUei());
+        copy.setDistPoller(alarm.getDistPoller());
+        copy.setNode(alarm.getNode());
+        copy.setIpAddr(alarm.getIpAddr());
+        copy.setServiceType(alarm.getServiceType());
+        copy.setReductionKey(alarm.getReductionKey());
+        copy.setAlarmType(alarm.getAlarmType());
+        copy.setIfIndex(alarm.getIfIndex());
+        copy.setCounter(alarm.getCounter());
+        copy.setSeverity(alarm.getSeverity());
+        copy.setFirstEventTime(alarm.getFirstEventTime());
+        copy.setLastEvent(alarm.getLastEvent());
+        copy.setLastEventTime(alarm.getLastEventTime());
+        copy.setFirstAutomationTime(alarm.getFirstAutomationTime());
+        copy.setLastAutomationTime(alarm.getLastAutomationTime());
+        copy.setDescription(alarm.getDescription());
+        copy.setLogMsg(alarm.getLogMsg());
+        copy.setOperInstruct(alarm.getOperInstruct());
+        copy.setTTicketId(alarm.getTTicketId());
+        copy.setTTicketState(alarm.getTTicketState());
+        copy.setMouseOverText(alarm.getMouseOverText());
+        copy.setSuppressedUntil(alarm.getSuppressedUntil());
+        copy.setSuppressedUser(alarm.getSuppressedUser());
+        copy.setSuppressedTime(alarm.getSuppressedTime());
+        copy.setAlarmAckUser(alarm.getAlarmAckUser());
+        copy.setAlarmAckTime(alarm.getAlarmAckTime());
+        copy.setClearKey(alarm.getClearKey());
+        copy.setEventParms(alarm.getEventParms());
+        copy.setManagedObjectInstance(alarm.getManagedObjectInstance());
+        copy.setManagedObjectType(alarm.getManagedObjectType());
+        copy.setApplicationDN(alarm.getApplicationDN());
+        copy.setOssPrimaryKey(alarm.getOssPrimaryKey());
+        copy.setX733AlarmType(alarm.getX733AlarmType());
+        copy.setX733ProbableCause(alarm.getX733ProbableCause());
+        copy.setQosAlarmState(alarm.getQosAlarmState());
+        copy.setDetails(alarm.getDetails());
+        copy.setStickyMemo(alarm.getStickyMemo());
+        copy.setReductionKeyMemo(alarm.getReductionKeyMemo());
+        return copy;
+    }
+
+    /**
+     * Creates a detached copy of the event that eventd persisted, with the
+     * same values, so that the cached alarm refers to its last event without
+     * loading it from the database.
+     */
+    private static OnmsEvent createLastEvent(Event event, OnmsAlarm alarm) {
+        final OnmsEvent e = new OnmsEvent();
+        e.setId(event.getDbid());
+        e.setEventUei(event.getUei());
+        e.setEventTime(event.getTime());
+        e.setEventCreateTime(event.getCreationTime());
+        e.setEventSource(event.getSource());
+        e.setEventHost(event.getHost());
+        e.setNode(alarm.getNode());
+        e.setIpAddr(alarm.getIpAddr());
+        e.setServiceType(alarm.getServiceType());
+        e.setEventSeverity(OnmsSeverity.get(event.getSeverity()).getId());
+        e.setEventLogMsg(event.getLogmsg() == null ? null : EventDatabaseConstants.format(event.getLogmsg().getContent(), 0));
+        e.setEventParms(EventDatabaseConstants.format(EventParameterUtils.format(event), 0));
+        e.setAlarm(alarm);
+        return e;
+    }
+
+    private boolean isStale(CachedAlarm cached, long now) {
+        return now - cached.m_cachedAt > 2 * m_flushInterval;
+    }
+
+    /**
+     * Writes the pending reductions to the database in a single transaction.
+     */
+    protected void flush() {
+        synchronized (m_lock) {
+            final long now = System.currentTimeMillis();
+            m_alarmCache.values().removeIf(cached -> isStale(cached, now));
+            if (m_pendingReductions.isEmpty()) {
+                return;
+            }
+
+            final List<PendingReduction> pendingReductions = new ArrayList<>(m_pendingReductions.values());
+            m_pendingReductions.clear();
+
+            final List<Event> lifecycleEvents = new ArrayList<>();
+            final Timer.Context context = m_flushTimer.time();
+            try {
+                final List<OnmsAlarm> alarms = m_transactionOperations.execute(new TransactionCallback<List<OnmsAlarm>>() {
+                    @Override
+                    public List<OnmsAlarm> doInTransaction(TransactionStatus status) {
+                        final List<OnmsAlarm> alarms = new ArrayList<>(pendingReductions.size());
+                        for (PendingReduction pending : pendingReductions) {
+                            alarms.add(applyPendingReduction(pending, lifecycleEvents));
+                        }
+                        return alarms;
+                    }
+                });
+
+                for (int i = 0; i < pendingReductions.size(); i++) {
+                    final PendingReduction pending = pendingReductions.get(i);
+                    final OnmsAlarm alarm = alarms.get(i);
+                    final CachedAlarm cached = m_alarmCache.get(pending.m_reductionKey);
+                    if (!alarm.getId().equals(pending.m_alarmId)) {
+                        // The alarm was deleted, and created again from the pending events
+                        m_alarmCache.put(alarm.getReductionKey(), new CachedAlarm(alarm));
+                    } else if (cached != null) {
+                        // Keep the time at which the alarm was last read by the regular
+                        // reduction path, so that the cache entry still expires
+                        m_alarmCache.put(alarm.getReductionKey(), new CachedAlarm(alarm, cached.m_cachedAt));
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.error("flush: Failed to write {} pending reductions, will try again.", pendingReductions.size(), e);
+                for (PendingReduction pending : pendingReductions) {
+                    m_pendingReductions.put(pending.m_reductionKey, pending);
+                }
+            } finally {
+                context.stop();
+            }
+
+            // Send the events outside of the database transaction
+            sendLifecycleEvents(lifecycleEvents);
+        }
+    }
+
+    /**
+     * Must be called inside of a transaction.
+     *
+     * If the alarm was deleted, the pending events are persisted again, one at
+     * a time, and the lifecycle events that this generates are added to the
+     * given list.
+     *
+     * @return the updated alarm, or the one that was created again from the
+     * pending events
+     */
+    private OnmsAlarm applyPendingReduction(PendingReduction pending, List<Event> lifecycleEvents) {
+        final OnmsAlarm alarm = m_alarmDao.get(pending.m_alarmId);
+        if (alarm == null) {
+            LOG.info("applyPendingReduction: alarm {} with reductionKey:{} was deleted, persisting {} reduced events again.", pending.m_alarmId, pending.m_reductionKey, pending.m_events.size());
+            OnmsAlarm recreated = null;
+            for (Event event : pending.m_events) {
+                final OnmsAlarmAndLifecycleEvent alarmAndEvent = addOrReduceEventAsAlarm(event);
+                lifecycleEvents.addAll(alarmAndEvent.getEvents());
+                recreated = alarmAndEvent.getAlarm();
+            }
+            return recreated;
+        }
+
+        alarm.setLastEvent(m_eventDao.load(pending.getLastEventId()));
+        alarm.setLastEventTime(pending.m_lastEventTime);
+        alarm.setCounter(alarm.getCounter() + pending.m_eventIds.size());
+        alarm.setLogMsg(pending.m_logMsg);
+        alarm.setEventParms(pending.m_eventParms);
+        m_alarmDao.update(alarm);
+
+        if (pending.m_lastAutoCleanIndex >= 0) {
+            // Only keep the last auto-clean event, and the ones after it
+            final int autoCleanIndex = pending.m_lastAutoCleanIndex;
+            m_eventDao.updateAlarmForEvents(alarm, pending.m_eventIds.subList(0, autoCleanIndex + 1));
+            m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), m_eventDao.load(pending.m_eventIds.get(autoCleanIndex)));
+            if (autoCleanIndex + 1 < pending.m_eventIds.size()) {
+                m_eventDao.updateAlarmForEvents(alarm, pending.m_eventIds.subList(autoCleanIndex + 1, pending.m_eventIds.size()));
+            }
+        } else {
+            m_eventDao.updateAlarmForEvents(alarm, pending.m_eventIds);
+        }
+        m_alarmUpdates.inc();
+
+        if (alarm.getNodeId() != null) {
+            alarm.getNode().getForeignSource(); // Load the node while we have a session, for the northbounders
+        }
+        return alarm;
+    }
+
     private OnmsAlarmAndLifecycleEvent addOrReduceEventAsAlarm(Event event) {
         // 2012-03-11 pbrane: for some reason when we get here the event from the DB doesn't have the LogMsg (in my tests anyway)
         OnmsEvent e = m_eventDao.get(event.getDbid());
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
 
         String reductionKey = event.getAlarmData().getReductionKey();
+        final List<Event> lifecycleEvents = new ArrayList<>();
+        if (m_writeBehind) {
+            // Write the reductions that are still pending first, so that they're not applied out of order
+            final PendingReduction pending = m_pendingReductions.remove(reductionKey);
+            if (pending != null) {
+                applyPendingReduction(pending, lifecycleEvents);
+            }
+        }
+
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
 
@@ -145,8 +515,9 @@ public class AlarmPersisterImpl implements AlarmPersister {
 
         ebldr.addParam(EventConstants.PARM_ALARM_UEI, alarm.getUei());
         ebldr.addParam(EventConstants.PARM_ALARM_ID, alarm.getId());
+        lifecycleEvents.add(ebldr.getEvent());
 
-        return new OnmsAlarmAndLifecycleEvent(alarm, ebldr.getEvent());
+        return new OnmsAlarmAndLifecycleEvent(alarm, lifecycleEvents);
     }
 
     private static void reduceEvent(OnmsEvent e, OnmsAlarm alarm, Event event) {
@@ -274,6 +645,76 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return true;
     }
 
+    /**
+     * <p>Constructor for AlarmPersisterImpl.</p>
+     */
+    public AlarmPersisterImpl() {
+        this(new MetricRegistry());
+    }
+
+    public AlarmPersisterImpl(MetricRegistry registry) {
+        m_coalescedReductions = registry.counter("alarms.writebehind.coalesced");
+        m_alarmUpdates = registry.counter("alarms.writebehind.updates");
+        m_flushTimer = registry.timer("alarms.writebehind.flush");
+        registry.register("alarms.writebehind.pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                synchronized (m_lock) {
+                    return m_pendingReductions.size();
+                }
+            }
+        });
+        // The number of events that were reduced for every alarm update that was written
+        registry.register("alarms.writebehind.coalescing-ratio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                final long updates = m_alarmUpdates.getCount();
+                return updates == 0 ? 0.0 : (double)m_coalescedReductions.getCount() / updates;
+            }
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_writeBehind) {
+            LOG.info("Coalescing alarm reductions, flushing every {}ms.", m_flushInterval);
+            m_flusher = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("AlarmdWriteBehind", 1));
+            m_flusher.scheduleWithFixedDelay(this::flush, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (m_flusher != null) {
+            m_flusher.shutdown();
+            m_flusher.awaitTermination(m_flushInterval, TimeUnit.MILLISECONDS);
+            m_flusher = null;
+            flush();
+        }
+    }
+
+    public boolean isWriteBehind() {
+        return m_writeBehind;
+    }
+
+    /**
+     * Must be set before the bean is initialized.
+     *
+     * @param writeBehind coalesce the reductions of cached alarms
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        m_writeBehind = writeBehind;
+    }
+
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        Assert.isTrue(flushInterval > 0, "flushInterval must be positive");
+        m_flushInterval = flushInterval;
+    }
+
     public TransactionOperations getTransactionOperations() {
         return m_transactionOperations;
     }
@@ -59,6 +59,7 @@ import org.opennms.netmgt.dao.mock.MockEventIpcManager;
 import org.opennms.netmgt.mock.MockEventUtil;
 import org.opennms.netmgt.mock.MockNetwork;
 import org.opennms.netmgt.mock.MockNode;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.model.events.EventBuilder;
@@ -221,6 +222,155 @@ public class AlarmdIT implements TemporaryDatabaseAware<MockDatabase>, Initializ
     }
     
 
+    @Test
+    public void testWriteBehindCoalescesReductions() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persister.setWriteBehind(true);
+        // Large enough that we only flush when we ask to
+        persister.setFlushInterval(60000);
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+            assertEmptyAlarmTable();
+
+            // The first event creates the alarm right away
+            sendNodeDownEvent("writeBehind", node);
+            assertEquals(1, getAlarmCounter("writeBehind"));
+
+            // The reductions are kept in memory...
+            for (int i = 0; i < 4; i++) {
+                sendNodeDownEvent("writeBehind", node);
+            }
+            assertEquals(1, getAlarmCounter("writeBehind"));
+
+            // ...until they're flushed
+            persister.flush();
+            assertEquals(5, getAlarmCounter("writeBehind"));
+            assertEquals(5, m_jdbcTemplate.queryForObject("select count(*) from events e join alarms a on e.alarmId = a.alarmId where a.reductionKey = ?",
+                    new Object[] { "writeBehind" }, Integer.class).intValue());
+
+            // Events with update fields are processed right away, after the pending reductions
+            sendNodeDownEvent("writeBehind", node);
+            sendNodeDownEventWithUpdateFieldSeverity("writeBehind", node, OnmsSeverity.CRITICAL);
+            assertEquals(7, getAlarmCounter("writeBehind"));
+            assertEquals(OnmsSeverity.CRITICAL, OnmsSeverity.get(m_jdbcTemplate.queryForObject("select severity from alarms where reductionKey = ?",
+                    new Object[] { "writeBehind" }, Integer.class).intValue()));
+        } finally {
+            persister.setWriteBehind(false);
+        }
+    }
+
+    @Test
+    public void testWriteBehindExpiresAlarmsThatKeepBeingReduced() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persister.setWriteBehind(true);
+        persister.setFlushInterval(100);
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+            assertEmptyAlarmTable();
+
+            sendNodeDownEvent("writeBehindExpires", node);
+            assertEquals(1, getAlarmCounter("writeBehindExpires"));
+
+            // Keep reducing and flushing the alarm. Once the cached alarm has expired,
+            // the next event is reduced in the database right away.
+            int counter = 1;
+            boolean reducedInDatabase = false;
+            final long start = System.currentTimeMillis();
+            while (!reducedInDatabase && System.currentTimeMillis() - start <= 10 * persister.getFlushInterval()) {
+                Thread.sleep(20);
+                sendNodeDownEvent("writeBehindExpires", node);
+                counter++;
+                reducedInDatabase = getAlarmCounter("writeBehindExpires") == counter;
+                persister.flush();
+                assertEquals(counter, getAlarmCounter("writeBehindExpires"));
+            }
+            assertTrue("the cached alarm never expired", reducedInDatabase);
+            assertTrue("the first reductions were not coalesced", counter > 2);
+        } finally {
+            persister.setWriteBehind(false);
+            persister.setFlushInterval(1000);
+        }
+    }
+
+    @Test
+    public void testWriteBehindPersistsReductionsOfDeletedAlarms() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persister.setWriteBehind(true);
+        // Large enough that we only flush when we ask to
+        persister.setFlushInterval(60000);
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+            assertEmptyAlarmTable();
+
+            sendNodeDownEvent("writeBehindDeleted", node);
+            final int alarmId = m_jdbcTemplate.queryForObject("select alarmId from alarms where reductionKey = ?",
+                    new Object[] { "writeBehindDeleted" }, Integer.class).intValue();
+
+            // Reduce a few events in memory, and delete the alarm before they are flushed
+            for (int i = 0; i < 3; i++) {
+                sendNodeDownEvent("writeBehindDeleted", node);
+            }
+            m_jdbcTemplate.update("delete from alarms where alarmId = ?", alarmId);
+            persister.flush();
+
+            // The pending events created a new alarm
+            assertEquals(3, getAlarmCounter("writeBehindDeleted"));
+            assertEquals(3, m_jdbcTemplate.queryForObject("select count(*) from events e join alarms a on e.alarmId = a.alarmId where a.reductionKey = ?",
+                    new Object[] { "writeBehindDeleted" }, Integer.class).intValue());
+            assertTrue(alarmId != m_jdbcTemplate.queryForObject("select alarmId from alarms where reductionKey = ?",
+                    new Object[] { "writeBehindDeleted" }, Integer.class).intValue());
+        } finally {
+            persister.setWriteBehind(false);
+        }
+    }
+
+    @Test
+    public void testWriteBehindLeavesReturnedAlarmsUnchanged() throws Exception {
+        final AlarmPersisterImpl persister = (AlarmPersisterImpl)m_alarmd.getPersister();
+        persister.setWriteBehind(true);
+        // Large enough that we only flush when we ask to
+        persister.setFlushInterval(60000);
+
+        // Keep the alarms that are handed to the northbounders
+        final List<OnmsAlarm> alarms = new ArrayList<>();
+        m_alarmd.setPersister(new AlarmPersister() {
+            @Override
+            public OnmsAlarm persist(Event event) {
+                final OnmsAlarm alarm = persister.persist(event);
+                if (alarm != null) {
+                    alarms.add(alarm);
+                }
+                return alarm;
+            }
+        });
+        try {
+            final MockNode node = m_mockNetwork.getNode(1);
+            assertEmptyAlarmTable();
+
+            for (int i = 0; i < 3; i++) {
+                sendNodeDownEvent("writeBehindUnchanged", node);
+            }
+            persister.flush();
+
+            // Every reduction returned another instance, with its own counter
+            assertEquals(3, alarms.size());
+            for (int i = 0; i < alarms.size(); i++) {
+                assertEquals(i + 1, alarms.get(i).getCounter().intValue());
+                for (int j = 0; j < i; j++) {
+                    assertTrue(alarms.get(i) != alarms.get(j));
+                }
+            }
+            assertEquals(3, getAlarmCounter("writeBehindUnchanged"));
+        } finally {
+            m_alarmd.setPersister(persister);
+            persister.setWriteBehind(false);
+        }
+    }
+
+    private int getAlarmCounter(String reductionKey) {
+        return m_jdbcTemplate.queryForObject("select counter from alarms where reductionKey = ?", new Object[] { reductionKey }, Integer.class).intValue();
+    }
+
     @Test
     public void testPersistManyAlarmsAtOnce() throws InterruptedException {
         int numberOfAlarmsToReduce = 10;
@@ -902,6 +902,54 @@ create index outages_svcregainedid_idx on outages(svcRegainedEventID);
 create index outages_regainedservice_idx on outages(ifRegainedService);
 create index outages_ifServiceId_idx on outages(ifServiceId);
 create unique index one_outstanding_outage_per_service_idx on outages (ifserviceid) where ifregainedservice is null;
+create index outages_lostservice_idx on outages(ifLostService);
+
+--########################################################################
+--#
+--# outagerollups table -- This table maintains the downtime of every
+--#                        service per day, computed from the outages table
+--#                        once the day is complete.
+--#
+--# This table provides the following information:
+--#
+--#  ifServiceId       : Unique integer identifier of service
+--#  day               : The (local) day
+--#  downtime          : The downtime of the service during the day, in
+--#                      milliseconds
+--#  outageCount       : The number of outages that overlap the day
+--#
+--########################################################################
+
+create table outagerollups (
+	ifServiceId		INTEGER not null,
+	day			date not null,
+	downtime		bigint not null,
+	outageCount		integer not null,
+
+	constraint outagerollups_pkey primary key (ifServiceId, day),
+	constraint outagerollups_ifservices_fkey foreign key (ifServiceId) references ifServices (id) ON DELETE CASCADE
+);
+
+create index outagerollups_day_idx on outagerollups(day);
+
+--########################################################################
+--#
+--# outagerollupdays table -- This table records the days that have been
+--#                           rolled up. These are always contiguous.
+--#
+--# This table provides the following information:
+--#
+--#  day               : The (local) day
+--#  rolledUp          : When the day was rolled up
+--#
+--########################################################################
+
+create table outagerollupdays (
+	day			date not null,
+	rolledUp		timestamp not null,
+
+	constraint outagerollupdays_pkey primary key (day)
+);
 
 --########################################################################
 --# notification table - Contains information on acknowleged and outstanding
@@ -29,19 +29,19 @@
 -- The following PL/PgSQL function is used to calculate the downtime
 -- of a (Node, IP Address, Service) tuple between two dates. The
 -- X date is the time closest to the current time. The Y date must
--- be older than the X date. The downtime between the two dates are
--- calculated based on all matching tuples.
+-- be older than the X date.
 --
--- @author Brian Weave <weave@oculan.com>
--- @author Sowmya Nataraj <sowmya@opennms.org>
+-- The daily rollups in the outagerollups table are used for the complete
+-- days in the window that have been rolled up, and the outages table
+-- (through getRawOutageTimeInWindow) for the rest of the window.
 --
--- Dependencies: outages table from etc/create.sql
--- 
--- $1	The node identifier
--- $2	The ipAddress
--- $3	The service identifier
--- $4	X time. This is the time that is closest to current
--- $5	Y time. This is the time that is furtherest from current.
+-- Dependencies: outages, outagerollups and outagerollupdays tables from
+-- etc/create.sql, getRawOutageTimeInWindow from
+-- etc/getRawOutageTimeInWindow.sql
+--
+-- $1	The service identifier
+-- $2	X time. This is the time that is closest to current
+-- $3	Y time. This is the time that is furtherest from current.
 --
 -- In time:  Now >= X >= Y 
 -- (X -Y) is the window for which outage is calculated
@@ -57,77 +57,39 @@ CREATE OR REPLACE FUNCTION getOutageTimeInWindow(integer,timestamp without time
         ifsrvid ALIAS FOR $1;
         xtime ALIAS FOR $2;
         ytime ALIAS FOR $3;
-        orec RECORD;
-        lostTime timestamp without time zone;
-        gainTime timestamp without time zone;
-        downtime float8;
-        zero CONSTANT float8 := 0.0;
-        epochTime CONSTANT timestamp without time zone := to_timestamp(''01 Jan 1970 00:00:00'', ''DD Mon YYYY HH24:MI:SS'');
+        firstRolledUp date;
+        lastRolledUp date;
+        rollupStart timestamp without time zone;
+        rollupEnd timestamp without time zone;
+        totaltime float8;
    BEGIN
-        downtime = zero;
-        FOR orec IN SELECT ifLostService,ifRegainedService
-                FROM outages 
-                WHERE ifServiceId = ifsrvid 
-                        AND (
-                                (ifRegainedService IS NULL AND ifLostService <= xtime)
-                                OR (ifRegainedService > ytime)
-                        )
-        LOOP
-         BEGIN
-                gainTime := epochTime;
-                lostTime := orec.ifLostService;
-                IF orec.ifRegainedService IS NOT NULL THEN
-                        gainTime := orec.ifRegainedService;
-                END IF;
-                --
-                -- Find the appropriate records
-                --
-                IF xtime > lostTime THEN
-                 --
-                 -- for any outage to be in window of 
-                 -- opportunity the lost time must ALWAYS be
-                 -- less that the x time.
-                 --
-                 IF gainTime = epochTime THEN
-                  --
-                  -- if the gain time is epochTime then the outage
-                  -- does not have an uptime.
-                  --
-                   IF ytime > lostTime THEN
-                    downtime := downtime + EXTRACT(EPOCH FROM (xtime - ytime));
-                   ELSE
-                    downtime := downtime + EXTRACT(EPOCH FROM (xtime - lostTime));
-                   END IF;
-                 ELSE
-                  IF xtime > gainTime AND gainTime > ytime THEN
-                   --
-                   -- regain time between x and y
-                   --
-                    IF ytime > lostTime THEN
-                     downtime := downtime + EXTRACT (EPOCH FROM (gainTime - ytime));
-                    ELSE
-                     downtime := downtime + EXTRACT (EPOCH FROM (gainTime - lostTime));
-                    END IF; 
-                  ELSE
-                   IF gainTime > xtime THEN
-                   --
-                   -- regain time greater than x, lost less that x
-                   --
-                    IF ytime > lostTime THEN
-                     downtime := downtime + EXTRACT (EPOCH FROM (xtime - ytime));
-                    ELSE
-                     downtime := downtime + EXTRACT (EPOCH FROM (xtime - lostTime));
-                    END IF;
-                   -- end gainTime > xtime
-                   END IF;
-                  -- end xtime > gainTime AND gainTime > ytime
-                  END IF;
-                 -- end gaintime == epochTime
-                 END IF;
-                -- end xtime > lostTime
-                END IF;
-         END;
-        END LOOP;
-        RETURN downtime*1000.0;
+        SELECT MIN(day), MAX(day) INTO firstRolledUp, lastRolledUp FROM outagerollupdays;
+        IF firstRolledUp IS NULL OR xtime <= ytime THEN
+                RETURN getRawOutageTimeInWindow(ifsrvid, xtime, ytime);
+        END IF;
+
+        --
+        -- the first and the last (exclusive) complete days in the window
+        --
+        rollupStart := date_trunc(''day'', ytime);
+        IF rollupStart < ytime THEN
+                rollupStart := rollupStart + interval ''1 day'';
+        END IF;
+        rollupStart := GREATEST(rollupStart, firstRolledUp::timestamp without time zone);
+        rollupEnd := LEAST(date_trunc(''day'', xtime), (lastRolledUp + 1)::timestamp without time zone);
+
+        IF rollupStart >= rollupEnd THEN
+                RETURN getRawOutageTimeInWindow(ifsrvid, xtime, ytime);
+        END IF;
+
+        SELECT COALESCE(SUM(outagerollups.downtime), 0) INTO totaltime
+                FROM outagerollups
+                WHERE outagerollups.ifServiceId = ifsrvid
+                        AND outagerollups.day >= rollupStart::date
+                        AND outagerollups.day < rollupEnd::date;
+
+        RETURN totaltime
+                + getRawOutageTimeInWindow(ifsrvid, rollupStart, ytime)
+                + getRawOutageTimeInWindow(ifsrvid, xtime, rollupEnd);
    END;
 ' LANGUAGE 'plpgsql';
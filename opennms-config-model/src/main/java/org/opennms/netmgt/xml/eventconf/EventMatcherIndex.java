@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A decision tree over the mask elements and varbinds of every event definition
+ * reachable from a root {@link Events}.
+ *
+ * The first level of the tree honours the {@link Partition} the definitions were
+ * initialized with, exactly like {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * did when it searched the partitions of every event file.  Below that, each
+ * branch discriminates on a single field (id, generic, specific, varbind #n, ...)
+ * using a hash of the exact values, a table of the '%' prefixes and a wildcard
+ * child holding the definitions that don't constrain the field (or use a regex).
+ *
+ * The tree only narrows down the candidates: every candidate is still verified
+ * with {@link Event#matches(org.opennms.netmgt.xml.event.Event)} and the candidate
+ * with the lowest rank (the position of the definition in the {@link EventOrdering})
+ * wins, so the result is the same as a linear search in priority order.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+class EventMatcherIndex {
+
+    /**
+     * Branches with this many definitions or fewer are not split any further.
+     */
+    private static final int MAX_LEAF_SIZE = 8;
+
+    private static final String UEI_FIELD = "uei";
+
+    private final Node m_root;
+    private final int m_eventCount;
+
+    private EventMatcherIndex(Node root, int eventCount) {
+        m_root = root;
+        m_eventCount = eventCount;
+    }
+
+    /**
+     * Builds the index for the given root event configuration.  The events must
+     * already have been initialized with the given partition.
+     */
+    public static EventMatcherIndex build(Events events, Partition partition) {
+        // forEachEvent visits the definitions of the root file first, then the
+        // definitions of every loaded event file in order which is the same order
+        // as the EventOrdering that was handed out in Events.initialize()
+        final List<IndexedEvent> entries = events.forEachEvent(new ArrayList<IndexedEvent>(), new Events.EventCallback<List<IndexedEvent>>() {
+            @Override
+            public List<IndexedEvent> process(List<IndexedEvent> accum, Event event) {
+                final IndexedEvent entry = IndexedEvent.create(accum.size(), event, partition);
+                if (entry != null) {
+                    accum.add(entry);
+                }
+                return accum;
+            }
+        });
+
+        final List<IndexedEvent> nullPartitioned = new ArrayList<>();
+        final Map<String, List<IndexedEvent>> partitioned = new LinkedHashMap<>();
+        for (IndexedEvent entry : entries) {
+            if (entry.partitionKeys == null) {
+                nullPartitioned.add(entry);
+            } else {
+                for (String key : entry.partitionKeys) {
+                    List<IndexedEvent> bucket = partitioned.get(key);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>(1);
+                        partitioned.put(key, bucket);
+                    }
+                    bucket.add(entry);
+                }
+            }
+        }
+
+        final Map<String, Node> partitionNodes = new HashMap<>(partitioned.size() * 2);
+        for (Entry<String, List<IndexedEvent>> bucket : partitioned.entrySet()) {
+            partitionNodes.put(bucket.getKey(), buildNode(bucket.getValue(), Collections.<String>emptySet()));
+        }
+
+        final Node root = new PartitionNode(partition, partitionNodes, buildNode(nullPartitioned, Collections.<String>emptySet()));
+        return new EventMatcherIndex(root, entries.size());
+    }
+
+    public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final Match match = new Match();
+        m_root.visit(matchingEvent, match);
+        return match.event;
+    }
+
+    public int getEventCount() {
+        return m_eventCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EventMatcherIndex[events=" + m_eventCount + "]";
+    }
+
+    private static Node buildNode(List<IndexedEvent> entries, Set<String> usedFields) {
+        if (entries.size() <= MAX_LEAF_SIZE) {
+            return new LeafNode(entries);
+        }
+
+        // Pick the field that leaves us with the fewest candidates in the worst case
+        String bestField = null;
+        int bestWorstCase = entries.size();
+        for (String field : candidateFields(entries, usedFields)) {
+            final int worstCase = worstCaseCandidates(entries, field);
+            if (worstCase < bestWorstCase) {
+                bestField = field;
+                bestWorstCase = worstCase;
+            }
+        }
+
+        if (bestField == null) {
+            // Nothing left to discriminate on
+            return new LeafNode(entries);
+        }
+
+        final Map<String, List<IndexedEvent>> exact = new LinkedHashMap<>();
+        final Map<String, List<IndexedEvent>> prefixes = new LinkedHashMap<>();
+        final List<IndexedEvent> wildcard = new ArrayList<>();
+        for (IndexedEvent entry : entries) {
+            final Constraint constraint = entry.constraints.get(bestField);
+            if (constraint == null || constraint.wildcard) {
+                wildcard.add(entry);
+                continue;
+            }
+            for (String value : constraint.exact) {
+                add(exact, value, entry);
+            }
+            for (String prefix : constraint.prefixes) {
+                add(prefixes, prefix, entry);
+            }
+        }
+
+        final Set<String> childFields = new HashSet<>(usedFields);
+        childFields.add(bestField);
+
+        final Map<String, Node> exactNodes = new HashMap<>(exact.size() * 2);
+        for (Entry<String, List<IndexedEvent>> bucket : exact.entrySet()) {
+            exactNodes.put(bucket.getKey(), buildNode(bucket.getValue(), childFields));
+        }
+        final Map<String, Node> prefixNodes = new HashMap<>(prefixes.size() * 2);
+        final TreeSet<Integer> prefixLengths = new TreeSet<>();
+        for (Entry<String, List<IndexedEvent>> bucket : prefixes.entrySet()) {
+            prefixNodes.put(bucket.getKey(), buildNode(bucket.getValue(), childFields));
+            prefixLengths.add(bucket.getKey().length());
+        }
+        final Node wildcardNode = wildcard.isEmpty() ? null : buildNode(wildcard, childFields);
+
+        return new FieldNode(field(bestField), exactNodes, prefixNodes, toIntArray(prefixLengths), wildcardNode);
+    }
+
+    private static Set<String> candidateFields(List<IndexedEvent> entries, Set<String> usedFields) {
+        final Set<String> fields = new HashSet<>();
+        for (IndexedEvent entry : entries) {
+            for (Entry<String, Constraint> constraint : entry.constraints.entrySet()) {
+                if (!constraint.getValue().wildcard && !usedFields.contains(constraint.getKey())) {
+                    fields.add(constraint.getKey());
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * The number of definitions that remain candidates when the event value falls
+     * in the largest bucket for the given field.
+     */
+    private static int worstCaseCandidates(List<IndexedEvent> entries, String field) {
+        final Map<String, Integer> bucketSizes = new HashMap<>();
+        int wildcard = 0;
+        for (IndexedEvent entry : entries) {
+            final Constraint constraint = entry.constraints.get(field);
+            if (constraint == null || constraint.wildcard) {
+                wildcard++;
+                continue;
+            }
+            for (String value : constraint.exact) {
+                increment(bucketSizes, "=" + value);
+            }
+            for (String prefix : constraint.prefixes) {
+                increment(bucketSizes, "%" + prefix);
+            }
+        }
+
+        int largest = 0;
+        for (Integer size : bucketSizes.values()) {
+            largest = Math.max(largest, size);
+        }
+        return wildcard + largest;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        final Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private static void add(Map<String, List<IndexedEvent>> buckets, String key, IndexedEvent entry) {
+        List<IndexedEvent> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets.put(key, bucket);
+        }
+        // an event can list the same value more than once
+        if (bucket.isEmpty() || bucket.get(bucket.size() - 1) != entry) {
+            bucket.add(entry);
+        }
+    }
+
+    private static int[] toIntArray(Set<Integer> values) {
+        final int[] result = new int[values.size()];
+        int i = 0;
+        for (Integer value : values) {
+            result[i++] = value;
+        }
+        return result;
+    }
+
+    private static Field field(String key) {
+        if (key.startsWith(Constraint.VARBIND_PREFIX)) {
+            return EventMatchers.varbind(Integer.parseInt(key.substring(Constraint.VARBIND_PREFIX.length())));
+        }
+        return EventMatchers.field(key);
+    }
+
+    /**
+     * Holds the best match found so far while walking the tree.
+     */
+    private static class Match {
+        private int rank = Integer.MAX_VALUE;
+        private Event event;
+    }
+
+    private static interface Node {
+        void visit(org.opennms.netmgt.xml.event.Event matchingEvent, Match match);
+    }
+
+    private static class PartitionNode implements Node {
+        private final Partition m_partition;
+        private final Map<String, Node> m_partitions;
+        private final Node m_nullPartition;
+
+        public PartitionNode(Partition partition, Map<String, Node> partitions, Node nullPartition) {
+            m_partition = partition;
+            m_partitions = partitions;
+            m_nullPartition = nullPartition;
+        }
+
+        @Override
+        public void visit(org.opennms.netmgt.xml.event.Event matchingEvent, Match match) {
+            final String key = m_partition.group(matchingEvent);
+            if (key != null) {
+                final Node node = m_partitions.get(key);
+                if (node != null) {
+                    node.visit(matchingEvent, match);
+                }
+            }
+            m_nullPartition.visit(matchingEvent, match);
+        }
+    }
+
+    private static class FieldNode implements Node {
+        private final Field m_field;
+        private final Map<String, Node> m_exact;
+        private final Map<String, Node> m_prefixes;
+        private final int[] m_prefixLengths;
+        private final Node m_wildcard;
+
+        public FieldNode(Field field, Map<String, Node> exact, Map<String, Node> prefixes, int[] prefixLengths, Node wildcard) {
+            m_field = field;
+            m_exact = exact;
+            m_prefixes = prefixes;
+            m_prefixLengths = prefixLengths;
+            m_wildcard = wildcard;
+        }
+
+        @Override
+        public void visit(org.opennms.netmgt.xml.event.Event matchingEvent, Match match) {
+            final String value = m_field.get(matchingEvent);
+            if (value != null) {
+                final Node exact = m_exact.get(value);
+                if (exact != null) {
+                    exact.visit(matchingEvent, match);
+                }
+                for (int length : m_prefixLengths) {
+                    if (length > value.length()) {
+                        break;
+                    }
+                    final Node prefix = m_prefixes.get(value.substring(0, length));
+                    if (prefix != null) {
+                        prefix.visit(matchingEvent, match);
+                    }
+                }
+            }
+            if (m_wildcard != null) {
+                m_wildcard.visit(matchingEvent, match);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_field + "[exact=" + m_exact.size() + ", prefixes=" + m_prefixes.size() + ", wildcard=" + (m_wildcard != null) + "]";
+        }
+    }
+
+    private static class LeafNode implements Node {
+        private final int[] m_ranks;
+        private final Event[] m_events;
+
+        public LeafNode(List<IndexedEvent> entries) {
+            m_ranks = new int[entries.size()];
+            m_events = new Event[entries.size()];
+            for (int i = 0; i < m_ranks.length; i++) {
+                m_ranks[i] = entries.get(i).rank;
+                m_events[i] = entries.get(i).event;
+            }
+        }
+
+        @Override
+        public void visit(org.opennms.netmgt.xml.event.Event matchingEvent, Match match) {
+            // entries are sorted by rank so we can stop as soon as we can't beat the current match
+            for (int i = 0; i < m_ranks.length && m_ranks[i] < match.rank; i++) {
+                if (m_events[i].matches(matchingEvent)) {
+                    match.rank = m_ranks[i];
+                    match.event = m_events[i];
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "leaf" + Arrays.toString(m_ranks);
+        }
+    }
+
+    /**
+     * The values an event definition accepts for a single field.
+     */
+    private static class Constraint {
+        private static final String VARBIND_PREFIX = "varbind#";
+
+        private final List<String> exact = new ArrayList<>(1);
+        private final List<String> prefixes = new ArrayList<>(1);
+        private boolean wildcard = false;
+
+        /**
+         * Mirrors the value handling in {@link Maskelement#constructMatcher()} and
+         * {@link Varbind#constructMatcher()}.
+         */
+        public static Constraint create(List<String> values) {
+            final Constraint constraint = new Constraint();
+            for (String value : values) {
+                if (value == null) {
+                    continue;
+                } else if (value.startsWith("~")) {
+                    constraint.wildcard = true;
+                } else if (value.endsWith("%")) {
+                    constraint.prefixes.add(value.substring(0, value.length() - 1));
+                } else {
+                    constraint.exact.add(value);
+                }
+            }
+            if (constraint.exact.isEmpty() && constraint.prefixes.isEmpty()) {
+                constraint.wildcard = true;
+            }
+            return constraint;
+        }
+    }
+
+    private static class IndexedEvent {
+        private final int rank;
+        private final Event event;
+        private final List<String> partitionKeys;
+        private final Map<String, Constraint> constraints = new HashMap<>(4);
+
+        private IndexedEvent(int rank, Event event, List<String> partitionKeys) {
+            this.rank = rank;
+            this.event = event;
+            this.partitionKeys = partitionKeys;
+        }
+
+        /**
+         * Returns null for definitions that can never match, i.e. ones with neither a mask nor a UEI.
+         */
+        public static IndexedEvent create(int rank, Event event, Partition partition) {
+            final IndexedEvent entry = new IndexedEvent(rank, event, partition.group(event));
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelementCount() <= 0) {
+                // See Event.constructMatcher()
+                if (event.getUei() == null) {
+                    return null;
+                }
+                entry.constraints.put(UEI_FIELD, Constraint.create(Collections.singletonList(event.getUei())));
+                return entry;
+            }
+
+            for (Maskelement element : mask.getMaskelementCollection()) {
+                if (element.getMename() == null) {
+                    continue;
+                }
+                // when a field is constrained more than once any of the constraints will do
+                if (!entry.constraints.containsKey(element.getMename())) {
+                    entry.constraints.put(element.getMename(), Constraint.create(element.getMevalueCollection()));
+                }
+            }
+            for (Varbind varbind : mask.getVarbindCollection()) {
+                if (varbind.getVbnumber() == null) {
+                    continue;
+                }
+                final String key = Constraint.VARBIND_PREFIX + varbind.getVbnumber();
+                if (!entry.constraints.containsKey(key)) {
+                    entry.constraints.put(key, Constraint.create(varbind.getVbvalueCollection()));
+                }
+            }
+            return entry;
+        }
+    }
+}
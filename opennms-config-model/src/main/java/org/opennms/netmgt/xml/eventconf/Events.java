@@ -84,6 +84,12 @@ public class Events implements Serializable {
 
 	private static final long serialVersionUID = -3725006529763434264L;
 
+	/**
+	 * Set this system property to false to disable the {@link EventMatcherIndex} and
+	 * fall back to searching the partitions of every event file linearly.
+	 */
+	public static final String INDEXED_MATCHING_PROPERTY = "org.opennms.eventconf.indexedMatching";
+
 	private static final String[] EMPTY_STRING_ARRAY = new String[0];
 	private static final Event[] EMPTY_EVENT_ARRAY = new Event[0];
 
@@ -121,6 +127,12 @@ public class Events implements Serializable {
         
 	@XmlTransient
 	private EventOrdering m_ordering;
+
+	@XmlTransient
+	private boolean m_indexedMatching = true;
+
+	@XmlTransient
+	private transient volatile EventMatcherIndex m_matcherIndex;
 	
 	public EventOrdering getOrdering() {
 	    return m_ordering;
@@ -433,7 +445,18 @@ public class Events implements Serializable {
 			}
 		}
 
-		// If the UEI match failed, fallback to searching with the matchers through the partitions
+		// If the UEI match failed, fallback to searching with the matchers
+		if (m_indexedMatching) {
+			return getMatcherIndex().findFirstMatchingEvent(matchingEvent);
+		}
+		return scanForFirstMatchingEvent(matchingEvent);
+	}
+
+	/**
+	 * Searches the partitions of this file and every loaded event file in order.
+	 * This is what {@link EventMatcherIndex} optimizes and is kept for comparison.
+	 */
+	Event scanForFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
 		String key = m_partition.group(matchingEvent);
 		Collection<Event> potentialMatches = m_nullPartitionedEvents;
 		if (key != null) {
@@ -452,7 +475,7 @@ public class Events implements Serializable {
 
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events subEvents = loadedEvents.getValue();
-			Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+			Event event = subEvents.scanForFirstMatchingEvent(matchingEvent);
 			if (event != null) {
 				return event;
 			}
@@ -512,6 +535,25 @@ public class Events implements Serializable {
 		}
 
 		indexEventsByUei();
+
+		// The matcher index is built on first use so that the event files
+		// loaded from the root are not indexed individually
+		m_indexedMatching = Boolean.parseBoolean(System.getProperty(INDEXED_MATCHING_PROPERTY, "true"));
+		m_matcherIndex = null;
+	}
+
+	private EventMatcherIndex getMatcherIndex() {
+		EventMatcherIndex index = m_matcherIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = m_matcherIndex;
+				if (index == null) {
+					index = EventMatcherIndex.build(this, m_partition);
+					m_matcherIndex = index;
+				}
+			}
+		}
+		return index;
 	}
 
 	private void indexEventsByUei() {
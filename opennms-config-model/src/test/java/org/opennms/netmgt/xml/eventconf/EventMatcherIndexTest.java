@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Value;
+
+public class EventMatcherIndexTest {
+
+    private static final String[] IDS = { ".1.3.6.1.4.1.9", ".1.3.6.1.4.1.9.9.41", ".1.3.6.1.4.1.2636", ".1.3.6.1.2.1.15.7", ".1.3.6.1.6.3.1.1.5" };
+    private static final String[] VARBIND_VALUES = { "up", "down", "testing", "1", "2", "10" };
+
+    /**
+     * Same rules as the partition used by DefaultEventConfDao: wildcard ids are not pigeon-holed.
+     */
+    private static class WildcardAwarePartition extends EnterpriseIdPartition {
+        @Override
+        public List<String> group(Event eventConf) {
+            final List<String> keys = super.group(eventConf);
+            if (keys == null) return null;
+            for (String key : keys) {
+                if (key.endsWith("%") || key.startsWith("~")) return null;
+            }
+            return keys;
+        }
+    }
+
+    @Test
+    public void testHigherPriorityWildcardWins() {
+        final Events root = new Events();
+        root.addEvent(event("uei.opennms.org/test/anyCisco", mask(element("id", ".1.3.6.1.4.1.9%"))));
+        root.addEvent(event("uei.opennms.org/test/exact", mask(element("id", ".1.3.6.1.4.1.9.9.41"), element("generic", "6"), element("specific", "1"))));
+
+        final Events file = new Events();
+        file.addEvent(event("uei.opennms.org/test/fileExact", mask(element("id", ".1.3.6.1.4.1.9.9.41"), element("generic", "6"))));
+        root.addLoadedEventFile("file.events.xml", file);
+
+        root.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        assertEquals("uei.opennms.org/test/anyCisco", root.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9.9.41", 6, 1)).getUei());
+        assertNull(root.findFirstMatchingEvent(trap(".1.3.6.1.4.1.2636", 6, 1)));
+    }
+
+    @Test
+    public void testLoadedFileOrdering() {
+        final Events root = new Events();
+        root.addEvent(event("uei.opennms.org/test/coldStart", mask(element("generic", "0"))));
+
+        final Events file1 = new Events();
+        file1.addEvent(event("uei.opennms.org/test/linkDownUp", mask(element("id", ".1.3.6.1.6.3.1.1.5"), element("generic", "2")), varbind(1, "up")));
+        file1.addEvent(event("uei.opennms.org/test/linkDownRegex", mask(element("id", ".1.3.6.1.6.3.1.1.5"), element("generic", "2")), varbind(1, "~^d.*")));
+        final Events file2 = new Events();
+        file2.addEvent(event("uei.opennms.org/test/linkDownAny", mask(element("generic", "2"))));
+        root.addLoadedEventFile("file1.events.xml", file1);
+        root.addLoadedEventFile("file2.events.xml", file2);
+
+        root.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        assertEquals("uei.opennms.org/test/coldStart", root.findFirstMatchingEvent(trap(".1.3.6.1.6.3.1.1.5", 0, 0)).getUei());
+        assertEquals("uei.opennms.org/test/linkDownUp", root.findFirstMatchingEvent(trap(".1.3.6.1.6.3.1.1.5", 2, 0, "up")).getUei());
+        assertEquals("uei.opennms.org/test/linkDownRegex", root.findFirstMatchingEvent(trap(".1.3.6.1.6.3.1.1.5", 2, 0, "down")).getUei());
+        assertEquals("uei.opennms.org/test/linkDownAny", root.findFirstMatchingEvent(trap(".1.3.6.1.6.3.1.1.5", 2, 0, "testing")).getUei());
+        assertEquals("uei.opennms.org/test/linkDownAny", root.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 2, 0)).getUei());
+    }
+
+    @Test
+    public void testMatchesLinearSearchWithWildcardAwarePartition() {
+        verifyMatchesLinearSearch(new WildcardAwarePartition(), 1);
+    }
+
+    @Test
+    public void testMatchesLinearSearchWithEnterpriseIdPartition() {
+        verifyMatchesLinearSearch(new EnterpriseIdPartition(), 2);
+    }
+
+    private void verifyMatchesLinearSearch(Partition partition, long seed) {
+        final Random random = new Random(seed);
+
+        final Events root = new Events();
+        addRandomEvents(random, root, 200);
+        for (int i = 0; i < 5; i++) {
+            final Events file = new Events();
+            addRandomEvents(random, file, 500);
+            root.addLoadedEventFile("file" + i + ".events.xml", file);
+        }
+        root.initialize(partition, new EventOrdering());
+
+        for (int i = 0; i < 5000; i++) {
+            final org.opennms.netmgt.xml.event.Event trap = trap(random.nextInt(4) == 0 ? IDS[random.nextInt(IDS.length)] + "." + random.nextInt(3) : IDS[random.nextInt(IDS.length)],
+                    random.nextInt(7), random.nextInt(20), VARBIND_VALUES[random.nextInt(VARBIND_VALUES.length)], VARBIND_VALUES[random.nextInt(VARBIND_VALUES.length)]);
+            assertSame(trap.getSnmp().getId() + "/" + trap.getSnmp().getGeneric() + "/" + trap.getSnmp().getSpecific(),
+                    root.scanForFirstMatchingEvent(trap), root.findFirstMatchingEvent(trap));
+        }
+    }
+
+    private static void addRandomEvents(Random random, Events events, int count) {
+        for (int i = 0; i < count; i++) {
+            final Mask mask = new Mask();
+            if (random.nextInt(5) != 0) {
+                mask.addMaskelement(element("id", randomValue(random, IDS[random.nextInt(IDS.length)])));
+            }
+            if (random.nextInt(3) != 0) {
+                mask.addMaskelement(element("generic", Integer.toString(random.nextInt(7))));
+            }
+            if (random.nextBoolean()) {
+                mask.addMaskelement(element("specific", Integer.toString(random.nextInt(20)), Integer.toString(random.nextInt(20))));
+            }
+            if (random.nextInt(4) == 0) {
+                mask.addVarbind(varbind(1 + random.nextInt(2), randomValue(random, VARBIND_VALUES[random.nextInt(VARBIND_VALUES.length)])));
+            }
+            // masks without elements only match by UEI
+            events.addEvent(event("uei.opennms.org/test/random/" + random.nextInt(), mask, null));
+        }
+    }
+
+    private static String randomValue(Random random, String value) {
+        switch (random.nextInt(6)) {
+        case 0: return value.substring(0, value.length() - 1) + "%";
+        case 1: return "~^" + value.substring(0, 1) + ".*";
+        default: return value;
+        }
+    }
+
+    private static Event event(String uei, Mask mask) {
+        return event(uei, mask, null);
+    }
+
+    private static Event event(String uei, Mask mask, Varbind varbind) {
+        if (varbind != null) {
+            mask.addVarbind(varbind);
+        }
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Mask mask(Maskelement... elements) {
+        final Mask mask = new Mask();
+        for (Maskelement element : elements) {
+            mask.addMaskelement(element);
+        }
+        return mask;
+    }
+
+    private static Maskelement element(String name, String... values) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        for (String value : values) {
+            element.addMevalue(value);
+        }
+        return element;
+    }
+
+    private static Varbind varbind(int number, String value) {
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(number);
+        varbind.addVbvalue(value);
+        return varbind;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(String id, int generic, int specific, String... varbinds) {
+        final org.opennms.netmgt.xml.event.Snmp snmp = new org.opennms.netmgt.xml.event.Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei("uei.opennms.org/default/trap");
+        event.setSnmp(snmp);
+        for (int i = 0; i < varbinds.length; i++) {
+            final Parm parm = new Parm();
+            parm.setParmName(".1.3.6.1.2.1.2.2.1." + (i + 1));
+            parm.setValue(new Value(varbinds[i]));
+            event.addParm(parm);
+        }
+        return event;
+    }
+}
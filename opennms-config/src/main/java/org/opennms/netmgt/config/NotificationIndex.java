@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the configured notifications used to find the ones that may
+ * apply to an event without going through the complete list.
+ *
+ * The notifications are bucketed by UEI, the regular expressions used
+ * in the UEIs and severities are compiled once, and the notifications
+ * that match a given event UEI are cached.
+ *
+ * The index is immutable and must be rebuilt when the configuration changes.
+ */
+class NotificationIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationIndex.class);
+
+    static final String MATCH_ANY_UEI = "MATCH-ANY-UEI";
+
+    /**
+     * Upper bound on the number of event UEIs for which the candidates are cached.
+     */
+    private static final int MAX_CACHED_UEIS = 10000;
+
+    private final Notifications m_notifications;
+
+    private final Map<String, List<IndexedNotification>> m_notificationsByUei = new HashMap<>();
+
+    private final List<IndexedNotification> m_notificationsWithUeiRegex = new ArrayList<>();
+
+    private final List<IndexedNotification> m_notificationsMatchingAnyUei = new ArrayList<>();
+
+    private final ConcurrentMap<String, List<IndexedNotification>> m_candidatesByUei = new ConcurrentHashMap<>();
+
+    public NotificationIndex(final Notifications notifications) {
+        m_notifications = notifications;
+
+        final List<Notification> notificationList = notifications != null ? notifications.getNotificationCollection() : Collections.emptyList();
+        for (int position = 0; position < notificationList.size(); position++) {
+            final Notification notif = notificationList.get(position);
+            final String uei = notif.getUei();
+            if (uei == null) {
+                LOG.warn("Ignoring notification {} with no UEI.", notif.getName());
+                continue;
+            }
+
+            final IndexedNotification indexed = new IndexedNotification(position, notif);
+            if (MATCH_ANY_UEI.equals(uei)) {
+                m_notificationsMatchingAnyUei.add(indexed);
+            } else if (uei.startsWith("~")) {
+                m_notificationsWithUeiRegex.add(indexed);
+            } else {
+                m_notificationsByUei.computeIfAbsent(uei, k -> new ArrayList<>()).add(indexed);
+            }
+        }
+    }
+
+    public Notifications getNotifications() {
+        return m_notifications;
+    }
+
+    /**
+     * Retrieves the notifications whose UEI matches the given event UEI,
+     * in the order in which they are configured.
+     */
+    public List<IndexedNotification> getCandidates(final String uei) {
+        if (uei == null) {
+            return Collections.emptyList();
+        }
+        List<IndexedNotification> candidates = m_candidatesByUei.get(uei);
+        if (candidates == null) {
+            candidates = findCandidates(uei);
+            if (m_candidatesByUei.size() >= MAX_CACHED_UEIS) {
+                m_candidatesByUei.clear();
+            }
+            m_candidatesByUei.put(uei, candidates);
+        }
+        return candidates;
+    }
+
+    private List<IndexedNotification> findCandidates(final String uei) {
+        final List<IndexedNotification> candidates = new ArrayList<>(m_notificationsMatchingAnyUei);
+        candidates.addAll(m_notificationsByUei.getOrDefault(uei, Collections.emptyList()));
+        for (IndexedNotification notif : m_notificationsWithUeiRegex) {
+            if (notif.matchesUei(uei)) {
+                candidates.add(notif);
+            }
+        }
+        Collections.sort(candidates, (a, b) -> Integer.compare(a.m_position, b.m_position));
+        return Collections.unmodifiableList(candidates);
+    }
+
+    static class IndexedNotification {
+        private final int m_position;
+        private final Notification m_notification;
+        private final Pattern m_ueiPattern;
+        private final Pattern m_severityPattern;
+
+        private IndexedNotification(final int position, final Notification notification) {
+            m_position = position;
+            m_notification = notification;
+            m_ueiPattern = notification.getUei().startsWith("~") ? compile(notification, notification.getUei().substring(1)) : null;
+            m_severityPattern = notification.getEventSeverity() != null ? compile(notification, notification.getEventSeverity().toLowerCase()) : null;
+        }
+
+        private static Pattern compile(final Notification notification, final String regex) {
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                LOG.error("Invalid regular expression in notification {}: {}. The notification will never match.", notification.getName(), regex, e);
+                return null;
+            }
+        }
+
+        public Notification getNotification() {
+            return m_notification;
+        }
+
+        public boolean isUeiRegex() {
+            return m_ueiPattern != null;
+        }
+
+        private boolean matchesUei(final String uei) {
+            return uei.equals(m_notification.getUei()) || (m_ueiPattern != null && m_ueiPattern.matcher(uei).matches());
+        }
+
+        /**
+         * @return true if the notification has no severity, or if its severity
+         * pattern matches the given severity, ignoring case.
+         */
+        public boolean matchesSeverity(final String severity) {
+            if (m_notification.getEventSeverity() == null) {
+                return true;
+            }
+            return m_severityPattern != null && severity != null
+                    && m_severityPattern.matcher(severity.toLowerCase()).matches();
+        }
+    }
+}
@@ -49,6 +49,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -57,6 +60,7 @@ import org.opennms.core.utils.Querier;
 import org.opennms.core.utils.RowProcessor;
 import org.opennms.core.utils.SingleResultQuerier;
 import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.config.NotificationIndex.IndexedNotification;
 import org.opennms.netmgt.config.notifications.Header;
 import org.opennms.netmgt.config.notifications.Notification;
 import org.opennms.netmgt.config.notifications.Notifications;
@@ -100,6 +104,30 @@ public abstract class NotificationManager {
     private long m_binaryNoticesInterrupted = 0;
     private long m_javaNoticesInterrupted = 0;
     private long m_unknownNoticesInterrupted = 0;
+    private long m_ruleCacheHits = 0;
+    private long m_ruleCacheMisses = 0;
+
+    /**
+     * How long, in milliseconds, the results of matching the notification rules against the
+     * node, interface and service of the events are cached. The cache is also cleared when
+     * the inventory changes, see {@link #clearRuleMatchCache()}. Set to 0 to disable the cache.
+     */
+    public static final String RULE_CACHE_TTL_PROPERTY = "org.opennms.notifd.ruleCacheTtl";
+
+    private static final long DEFAULT_RULE_CACHE_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int MAX_CACHED_RULES = 10000;
+
+    private final long m_ruleCacheTtl = Long.getLong(RULE_CACHE_TTL_PROPERTY, DEFAULT_RULE_CACHE_TTL);
+
+    private final ConcurrentMap<String, Boolean> m_ruleMatchCache = new ConcurrentHashMap<>();
+
+    private volatile long m_ruleMatchCacheCreated = System.currentTimeMillis();
+
+    /**
+     * Index of {@link #m_notifications}, rebuilt when these are replaced or saved
+     */
+    private volatile NotificationIndex m_index;
     
     /**
      * 
@@ -217,18 +245,17 @@ public abstract class NotificationManager {
     public boolean hasUei(final String uei) throws IOException {
         update();
 
-        for (Notification notif : m_notifications.getNotificationCollection()) {
-            if (uei.equals(notif.getUei()) || "MATCH-ANY-UEI".equals(notif.getUei())) {
-                return true;
-            } else if (notif.getUei().charAt(0) == '~') {
-                if (uei.matches(notif.getUei().substring(1))) {
-                    return true;
-                }
+        return !getIndex().getCandidates(uei).isEmpty();
+    }
 
-            }
+    private NotificationIndex getIndex() {
+        final Notifications notifications = m_notifications;
+        NotificationIndex index = m_index;
+        if (index == null || index.getNotifications() != notifications) {
+            index = new NotificationIndex(notifications);
+            m_index = index;
         }
-
-        return false;
+        return index;
     }
 
     /**
@@ -254,26 +281,14 @@ public abstract class NotificationManager {
             return null;
         }
 
-        for (Notification curNotif : m_notifications.getNotificationCollection()) {
+        // Only the notifications with a UEI matching the event's are returned by the index
+        for (IndexedNotification indexedNotif : getIndex().getCandidates(event.getUei())) {
+            final Notification curNotif = indexedNotif.getNotification();
 
-            LOG.trace("Checking notification {} against event {} with UEI {}", curNotif.getUei(), event.getDbid(), event.getUei());
-
-            if (event.getUei().equals(curNotif.getUei()) || "MATCH-ANY-UEI".equals(curNotif.getUei())) {
-                // Match!
-            	LOG.debug("Exact match using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-            } else if (curNotif.getUei().charAt(0) == '~') {
-                if (event.getUei().matches(curNotif.getUei().substring(1))) {
-                	//Match!
-                    LOG.debug("Regex hit using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-                } else {
-
-                    LOG.trace("Notification regex {} failed to match event UEI: {}", event.getUei(), curNotif.getUei());
-                    continue;
-                }
+            if (indexedNotif.isUeiRegex()) {
+                LOG.debug("Regex hit using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
             } else {
-
-                LOG.debug("Notification UEI {} did not match UEI of event {}: {}", curNotif.getUei(), event.getDbid(), event.getUei());
-                continue;
+                LOG.debug("Exact match using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
             }
 
             /**
@@ -282,11 +297,7 @@ public abstract class NotificationManager {
 
             LOG.trace("Checking event severity: {} against notification severity: {}", curNotif.getEventSeverity(), event.getSeverity());
             // parameter is optional, return true if not set
-            if (curNotif.getEventSeverity() == null) {
-                // Skip matching on severity
-            } else if (event.getSeverity().toLowerCase().matches(curNotif.getEventSeverity().toLowerCase())) {
-                // Severities match
-            } else {
+            if (!indexedNotif.matchesSeverity(event.getSeverity())) {
 
                 LOG.debug("Event severity: {} did not match notification severity: {}", curNotif.getEventSeverity(), event.getSeverity());
                 continue;
@@ -385,7 +396,44 @@ public abstract class NotificationManager {
 
         String rule = "((" + notif.getRule() + ")" + constraints + ")";
 
-        return isRuleMatchingFilter(notif, rule);
+        return isRuleMatchingFilterCached(notif, rule);
+    }
+
+    /**
+     * The rules include the node, interface and service of the event, so the result only changes
+     * along with the inventory, or the configuration of the notification.
+     */
+    private boolean isRuleMatchingFilterCached(final Notification notif, final String rule) {
+        if (m_ruleCacheTtl <= 0) {
+            m_ruleCacheMisses++;
+            return isRuleMatchingFilter(notif, rule);
+        }
+        if (System.currentTimeMillis() - m_ruleMatchCacheCreated > m_ruleCacheTtl) {
+            clearRuleMatchCache();
+        }
+
+        final Boolean cachedMatch = m_ruleMatchCache.get(rule);
+        if (cachedMatch != null) {
+            m_ruleCacheHits++;
+            return cachedMatch;
+        }
+
+        m_ruleCacheMisses++;
+        final boolean matches = isRuleMatchingFilter(notif, rule);
+        if (m_ruleMatchCache.size() >= MAX_CACHED_RULES) {
+            m_ruleMatchCache.clear();
+        }
+        m_ruleMatchCache.put(rule, matches);
+        return matches;
+    }
+
+    /**
+     * Clears the cached results of the notification rules, this must be called
+     * when nodes, interfaces, services or their attributes are changed.
+     */
+    public void clearRuleMatchCache() {
+        m_ruleMatchCacheCreated = System.currentTimeMillis();
+        m_ruleMatchCache.clear();
     }
 
     private boolean isRuleMatchingFilter(final Notification notif, final String rule) {
@@ -1081,6 +1129,9 @@ public abstract class NotificationManager {
         final String xmlString = JaxbUtils.marshal(m_notifications);
         saveXML(xmlString);
 
+        // The notifications may have been modified in place
+        m_index = null;
+        clearRuleMatchCache();
         update();
     }
 
@@ -1339,4 +1390,12 @@ public abstract class NotificationManager {
     public long getUnknownNoticesInterrupted() {
         return m_unknownNoticesInterrupted;
     }
+
+    public long getRuleCacheHits() {
+        return m_ruleCacheHits;
+    }
+
+    public long getRuleCacheMisses() {
+        return m_ruleCacheMisses;
+    }
 }
@@ -0,0 +1,851 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.filter.FilterInventory.ColumnType;
+import org.opennms.netmgt.filter.FilterInventory.InventoryTable;
+
+/**
+ * A filter rule that was compiled to a predicate tree which can be evaluated
+ * against a {@link FilterInventory}.
+ *
+ * Rules are compiled from the SQL statements that are generated by the
+ * {@link JdbcFilterDao}, so the filter syntax is translated by exactly the same
+ * code in both cases. Only the subset of SQL for which the result is known to
+ * be the same as in PostgreSQL is supported: comparisons, LIKE, IN, IS NULL and
+ * IS DISTINCT FROM on integer and character columns, IPLIKE and the category
+ * sub-query generated for "catinc" are combined with AND, OR and NOT using
+ * three-valued logic. Anything else, including the joins of a customized
+ * database-schema.xml, is rejected with an {@link UnsupportedRuleException}.
+ */
+final class CompiledFilterRule {
+
+    /**
+     * Thrown when a statement uses SQL that can't be evaluated in memory.
+     */
+    static final class UnsupportedRuleException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedRuleException(final String message) {
+            super(message);
+        }
+    }
+
+    private interface Predicate {
+        /**
+         * @return the result of the predicate, or null if it is unknown
+         */
+        Boolean evaluate(FilterInventory inventory, Object[][] row);
+    }
+
+    /**
+     * The joins generated by {@link org.opennms.netmgt.config.DatabaseSchemaConfigFactory}
+     * for the default database-schema.xml, with ipInterface as the primary table.
+     */
+    private static final Map<InventoryTable, String> JOINS;
+    static {
+        final Map<InventoryTable, String> joins = new HashMap<>();
+        joins.put(InventoryTable.NODE, "join node on (ipinterface.nodeid = node.nodeid)");
+        joins.put(InventoryTable.SNMPINTERFACE, "join snmpinterface on (ipinterface.snmpinterfaceid = snmpinterface.id)");
+        joins.put(InventoryTable.IFSERVICES, "join ifservices on (ipinterface.id = ifservices.ipinterfaceid)");
+        joins.put(InventoryTable.SERVICE, "join service on (ifservices.serviceid = service.serviceid)");
+        joins.put(InventoryTable.ASSETS, "join assets on (ipinterface.nodeid = assets.nodeid)");
+        joins.put(InventoryTable.CATEGORY_NODE, "left join category_node on (ipinterface.nodeid = category_node.nodeid)");
+        joins.put(InventoryTable.CATEGORIES, "left join categories on (category_node.categoryid = categories.categoryid)");
+        JOINS = Collections.unmodifiableMap(joins);
+    }
+
+    private static final Pattern JOIN_PATTERN = Pattern.compile("\\s+((?:\\w+\\s+)?JOIN\\s+(\\w+)\\s+ON\\s+\\(\\w+\\.\\w+\\s*=\\s*\\w+\\.\\w+\\))", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The sub-query that {@link JdbcFilterDao} generates for "catinc" prefixed values.
+     */
+    private static final Pattern CATINC_PATTERN = Pattern.compile("IN \\(SELECT category_node\\.nodeID FROM category_node, categories WHERE categories\\.categoryID = category_node\\.categoryID AND categories\\.categoryName = '([^']*)'\\)");
+
+    private final EnumSet<InventoryTable> m_tables;
+    private final Predicate m_predicate;
+    private final boolean m_isManagedReferenced;
+    private final Integer m_nodeId;
+    private final String m_ipAddr;
+
+    private CompiledFilterRule(final EnumSet<InventoryTable> tables, final Predicate predicate, final boolean isManagedReferenced, final Integer nodeId, final String ipAddr) {
+        m_tables = tables;
+        m_predicate = predicate;
+        m_isManagedReferenced = isManagedReferenced;
+        m_nodeId = nodeId;
+        m_ipAddr = ipAddr;
+    }
+
+    /**
+     * Compiles a statement generated by the {@link JdbcFilterDao}.
+     *
+     * @param sql the SQL statement
+     * @param inventory used to resolve the columns referenced by the statement
+     */
+    static CompiledFilterRule compile(final String sql, final FilterInventory inventory) throws UnsupportedRuleException {
+        final int from = sql.indexOf(" FROM ");
+        if (!sql.startsWith("SELECT ") || from < 0) {
+            throw new UnsupportedRuleException("Not a SELECT statement: " + sql);
+        }
+        final int where = sql.indexOf(" WHERE ", from);
+
+        final EnumSet<InventoryTable> tables = parseFrom(sql.substring(from + " FROM ".length(), where < 0 ? sql.length() : where));
+        Predicate predicate = null;
+        Integer nodeId = null;
+        String ipAddr = null;
+        if (where >= 0) {
+            final Parser parser = new Parser(sql.substring(where + " WHERE ".length()), inventory, tables);
+            predicate = parser.parse();
+
+            // Use the conditions that must be true for every row to narrow down the nodes or interfaces to look at
+            final List<Predicate> conjuncts = new ArrayList<>();
+            addConjuncts(predicate, conjuncts);
+            for (final Predicate conjunct : conjuncts) {
+                if (!(conjunct instanceof Comparison) || ((Comparison)conjunct).m_op != Op.EQ) {
+                    continue;
+                }
+                final Comparison comparison = (Comparison)conjunct;
+                final ColumnRef column = comparison.m_column;
+                if (nodeId == null && column.m_type == ColumnType.INTEGER && "nodeid".equals(column.m_name)
+                        && (column.m_table == InventoryTable.NODE || column.m_table == InventoryTable.IPINTERFACE)) {
+                    final long value = (Long)comparison.m_value;
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                        nodeId = (int)value;
+                    }
+                } else if (ipAddr == null && column.m_table == InventoryTable.IPINTERFACE && "ipaddr".equals(column.m_name)
+                        && column.m_type == ColumnType.TEXT) {
+                    ipAddr = (String)comparison.m_value;
+                }
+            }
+        }
+        return new CompiledFilterRule(tables, predicate, sql.contains("isManaged"), nodeId, ipAddr);
+    }
+
+    private static EnumSet<InventoryTable> parseFrom(final String from) throws UnsupportedRuleException {
+        final EnumSet<InventoryTable> tables = EnumSet.of(InventoryTable.IPINTERFACE);
+        if (!from.regionMatches(true, 0, "ipInterface", 0, "ipInterface".length())) {
+            throw new UnsupportedRuleException("The primary table is not ipInterface: " + from);
+        }
+        final Matcher matcher = JOIN_PATTERN.matcher(from);
+        int offset = "ipInterface".length();
+        while (offset < from.length()) {
+            matcher.region(offset, from.length());
+            if (!matcher.lookingAt()) {
+                throw new UnsupportedRuleException("Unsupported join: " + from.substring(offset));
+            }
+            final InventoryTable table = InventoryTable.forTableName(matcher.group(2));
+            final String join = matcher.group(1).replaceAll("\\s+", " ").toLowerCase();
+            if (table == null || !join.equals(JOINS.get(table))) {
+                throw new UnsupportedRuleException("Unsupported join: " + matcher.group(1));
+            }
+            tables.add(table);
+            offset = matcher.end();
+        }
+        return tables;
+    }
+
+    private static void addConjuncts(final Predicate predicate, final List<Predicate> conjuncts) {
+        if (predicate instanceof And) {
+            for (final Predicate operand : ((And)predicate).m_operands) {
+                addConjuncts(operand, conjuncts);
+            }
+        } else {
+            conjuncts.add(predicate);
+        }
+    }
+
+    /**
+     * @return the tables that are joined by the statement
+     */
+    EnumSet<InventoryTable> getTables() {
+        return m_tables;
+    }
+
+    /**
+     * @return true if the statement mentions the isManaged column, {@link JdbcFilterDao}
+     * doesn't exclude the deleted interfaces from the active IP address list in that case
+     */
+    boolean isManagedReferenced() {
+        return m_isManagedReferenced;
+    }
+
+    /**
+     * @return the node ID every matching row must have, or null
+     */
+    Integer getNodeId() {
+        return m_nodeId;
+    }
+
+    /**
+     * @return the ipInterface.ipAddr every matching row must have, or null
+     */
+    String getIpAddr() {
+        return m_ipAddr;
+    }
+
+    /**
+     * @return true if the WHERE clause is true for the row
+     */
+    boolean matches(final FilterInventory inventory, final Object[][] row) {
+        return m_predicate == null || Boolean.TRUE.equals(m_predicate.evaluate(inventory, row));
+    }
+
+    private enum Op {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(final int comparison) {
+            switch (this) {
+            case EQ: return comparison == 0;
+            case NE: return comparison != 0;
+            case LT: return comparison < 0;
+            case LE: return comparison <= 0;
+            case GT: return comparison > 0;
+            default: return comparison >= 0;
+            }
+        }
+
+        Op flip() {
+            switch (this) {
+            case LT: return GT;
+            case LE: return GE;
+            case GT: return LT;
+            case GE: return LE;
+            default: return this;
+            }
+        }
+    }
+
+    private static final class ColumnRef {
+        private final InventoryTable m_table;
+        private final String m_name;
+        private final int m_index;
+        private final ColumnType m_type;
+
+        private ColumnRef(final InventoryTable table, final String name, final int index, final ColumnType type) {
+            m_table = table;
+            m_name = name;
+            m_index = index;
+            m_type = type;
+        }
+
+        private Object get(final Object[][] row) {
+            final Object[] values = row[m_table.ordinal()];
+            return values == null ? null : values[m_index];
+        }
+
+        private boolean isCharacter() {
+            return m_type == ColumnType.TEXT || m_type == ColumnType.CHAR;
+        }
+
+        @Override
+        public String toString() {
+            return m_table.getTableName() + "." + m_name;
+        }
+    }
+
+    private static int compare(final Object a, final Object b) {
+        if (a instanceof Long) {
+            return ((Long)a).compareTo((Long)b);
+        }
+        return a.equals(b) ? 0 : 1;
+    }
+
+    private static final class Comparison implements Predicate {
+        private final ColumnRef m_column;
+        private final Op m_op;
+        private final Object m_value;
+
+        private Comparison(final ColumnRef column, final Op op, final Object value) {
+            m_column = column;
+            m_op = op;
+            m_value = value;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : m_op.test(compare(value, m_value));
+        }
+    }
+
+    private static final class ColumnComparison implements Predicate {
+        private final ColumnRef m_left;
+        private final Op m_op;
+        private final ColumnRef m_right;
+
+        private ColumnComparison(final ColumnRef left, final Op op, final ColumnRef right) {
+            m_left = left;
+            m_op = op;
+            m_right = right;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object left = m_left.get(row);
+            final Object right = m_right.get(row);
+            return left == null || right == null ? null : m_op.test(compare(left, right));
+        }
+    }
+
+    private static final class IsDistinctFrom implements Predicate {
+        private final ColumnRef m_column;
+        private final ColumnRef m_otherColumn;
+        private final Object m_value;
+        private final boolean m_negated;
+
+        private IsDistinctFrom(final ColumnRef column, final ColumnRef otherColumn, final Object value, final boolean negated) {
+            m_column = column;
+            m_otherColumn = otherColumn;
+            m_value = value;
+            m_negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object other = m_otherColumn == null ? m_value : m_otherColumn.get(row);
+            return m_negated == Objects.equals(m_column.get(row), other);
+        }
+    }
+
+    private static final class In implements Predicate {
+        private final ColumnRef m_column;
+        private final List<Object> m_values;
+        private final boolean m_negated;
+
+        private In(final ColumnRef column, final List<Object> values, final boolean negated) {
+            m_column = column;
+            m_values = values;
+            m_negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : m_negated != m_values.contains(value);
+        }
+    }
+
+    private static final class Like implements Predicate {
+        private final ColumnRef m_column;
+        private final Pattern m_pattern;
+        private final boolean m_negated;
+
+        private Like(final ColumnRef column, final Pattern pattern, final boolean negated) {
+            m_column = column;
+            m_pattern = pattern;
+            m_negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : m_negated != m_pattern.matcher((String)value).matches();
+        }
+    }
+
+    private static final class IsNull implements Predicate {
+        private final ColumnRef m_column;
+        private final boolean m_negated;
+
+        private IsNull(final ColumnRef column, final boolean negated) {
+            m_column = column;
+            m_negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            return m_negated != (m_column.get(row) == null);
+        }
+    }
+
+    private static final class IpLike implements Predicate {
+        private final ColumnRef m_column;
+        private final String m_pattern;
+
+        private IpLike(final ColumnRef column, final String pattern) {
+            m_column = column;
+            m_pattern = pattern;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object value = m_column.get(row);
+            if (value == null) {
+                return null;
+            }
+            // The iplike function matches every address, IPv4 or IPv6, with either of these
+            if ("*.*.*.*".equals(m_pattern) || "*:*:*:*:*:*:*:*".equals(m_pattern)) {
+                return true;
+            }
+            return IPLike.matches((String)value, m_pattern);
+        }
+    }
+
+    private static final class InCategory implements Predicate {
+        private final ColumnRef m_column;
+        private final String m_categoryName;
+
+        private InCategory(final ColumnRef column, final String categoryName) {
+            m_column = column;
+            m_categoryName = categoryName;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : inventory.isNodeInCategory(((Long)value).intValue(), m_categoryName);
+        }
+    }
+
+    private static final class Not implements Predicate {
+        private final Predicate m_operand;
+
+        private Not(final Predicate operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            final Boolean value = m_operand.evaluate(inventory, row);
+            return value == null ? null : !value;
+        }
+    }
+
+    private static final class And implements Predicate {
+        private final List<Predicate> m_operands;
+
+        private And(final List<Predicate> operands) {
+            m_operands = operands;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            Boolean result = Boolean.TRUE;
+            for (final Predicate operand : m_operands) {
+                final Boolean value = operand.evaluate(inventory, row);
+                if (value == null) {
+                    result = null;
+                } else if (!value) {
+                    return Boolean.FALSE;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Or implements Predicate {
+        private final List<Predicate> m_operands;
+
+        private Or(final List<Predicate> operands) {
+            m_operands = operands;
+        }
+
+        @Override
+        public Boolean evaluate(final FilterInventory inventory, final Object[][] row) {
+            Boolean result = Boolean.FALSE;
+            for (final Predicate operand : m_operands) {
+                final Boolean value = operand.evaluate(inventory, row);
+                if (value == null) {
+                    result = null;
+                } else if (value) {
+                    return Boolean.TRUE;
+                }
+            }
+            return result;
+        }
+    }
+
+    private enum TokenType {
+        STRING, NUMBER, COLUMN, KEYWORD, SYMBOL, CATINC, END
+    }
+
+    private static final class Token {
+        private final TokenType m_type;
+        private final String m_text;
+
+        private Token(final TokenType type, final String text) {
+            m_type = type;
+            m_text = text;
+        }
+
+        private boolean is(final TokenType type, final String text) {
+            return m_type == type && m_text.equals(text);
+        }
+
+        @Override
+        public String toString() {
+            return m_type == TokenType.END ? "end of rule" : m_text;
+        }
+    }
+
+    /**
+     * A recursive descent parser for the WHERE clause, with the precedence of
+     * the operators in PostgreSQL: OR &lt; AND &lt; NOT &lt; comparisons.
+     */
+    private static final class Parser {
+        private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+        private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+(?:\\.[0-9]+)?");
+        private static final String[] SYMBOLS = { "<>", "!=", "<=", ">=", "=", "<", ">", "(", ")", "," };
+        private static final List<String> KEYWORDS = Arrays.asList("AND", "OR", "NOT", "LIKE", "IN", "IS", "NULL", "DISTINCT", "FROM", "IPLIKE");
+
+        private final String m_where;
+        private final FilterInventory m_inventory;
+        private final EnumSet<InventoryTable> m_tables;
+        private final List<Token> m_tokens = new ArrayList<>();
+        private int m_position = 0;
+
+        private Parser(final String where, final FilterInventory inventory, final EnumSet<InventoryTable> tables) throws UnsupportedRuleException {
+            m_where = where;
+            m_inventory = inventory;
+            m_tables = tables;
+            tokenize();
+        }
+
+        private void tokenize() throws UnsupportedRuleException {
+            final Matcher identifier = IDENTIFIER_PATTERN.matcher(m_where);
+            final Matcher number = NUMBER_PATTERN.matcher(m_where);
+            final Matcher catinc = CATINC_PATTERN.matcher(m_where);
+            int i = 0;
+            TOKENS: while (i < m_where.length()) {
+                final char c = m_where.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                if (c == '\'') {
+                    final StringBuilder value = new StringBuilder();
+                    int j = i + 1;
+                    while (true) {
+                        if (j >= m_where.length()) {
+                            throw new UnsupportedRuleException("Unterminated string in " + m_where);
+                        }
+                        if (m_where.charAt(j) == '\'') {
+                            if (j + 1 < m_where.length() && m_where.charAt(j + 1) == '\'') {
+                                value.append('\'');
+                                j += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        value.append(m_where.charAt(j++));
+                    }
+                    m_tokens.add(new Token(TokenType.STRING, value.toString()));
+                    i = j + 1;
+                    continue;
+                }
+                if (catinc.region(i, m_where.length()).lookingAt()) {
+                    m_tokens.add(new Token(TokenType.CATINC, catinc.group(1)));
+                    i = catinc.end();
+                    continue;
+                }
+                if (number.region(i, m_where.length()).lookingAt()) {
+                    if (number.end() < m_where.length() && Character.isLetter(m_where.charAt(number.end()))) {
+                        throw new UnsupportedRuleException("Unsupported token at " + m_where.substring(i));
+                    }
+                    m_tokens.add(new Token(TokenType.NUMBER, number.group()));
+                    i = number.end();
+                    continue;
+                }
+                if (identifier.region(i, m_where.length()).lookingAt()) {
+                    final String word = identifier.group();
+                    i = identifier.end();
+                    if (i < m_where.length() && m_where.charAt(i) == '.') {
+                        if (!identifier.region(i + 1, m_where.length()).lookingAt()) {
+                            throw new UnsupportedRuleException("Unsupported token at " + m_where.substring(i));
+                        }
+                        m_tokens.add(new Token(TokenType.COLUMN, word + "." + identifier.group()));
+                        i = identifier.end();
+                    } else if (KEYWORDS.contains(word.toUpperCase())) {
+                        m_tokens.add(new Token(TokenType.KEYWORD, word.toUpperCase()));
+                    } else {
+                        throw new UnsupportedRuleException("Unsupported keyword " + word);
+                    }
+                    continue;
+                }
+                for (final String symbol : SYMBOLS) {
+                    if (m_where.startsWith(symbol, i)) {
+                        m_tokens.add(new Token(TokenType.SYMBOL, symbol));
+                        i += symbol.length();
+                        continue TOKENS;
+                    }
+                }
+                throw new UnsupportedRuleException("Unsupported token at " + m_where.substring(i));
+            }
+            m_tokens.add(new Token(TokenType.END, ""));
+        }
+
+        private Token peek() {
+            return m_tokens.get(m_position);
+        }
+
+        private Token next() {
+            final Token token = m_tokens.get(m_position);
+            if (token.m_type != TokenType.END) {
+                m_position++;
+            }
+            return token;
+        }
+
+        private boolean accept(final TokenType type, final String text) {
+            if (peek().is(type, text)) {
+                m_position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final TokenType type, final String text) throws UnsupportedRuleException {
+            if (!accept(type, text)) {
+                throw new UnsupportedRuleException("Expected " + text + " but found " + peek() + " in " + m_where);
+            }
+        }
+
+        private Predicate parse() throws UnsupportedRuleException {
+            final Predicate predicate = parseOr();
+            if (peek().m_type != TokenType.END) {
+                throw new UnsupportedRuleException("Unexpected " + peek() + " in " + m_where);
+            }
+            return predicate;
+        }
+
+        private Predicate parseOr() throws UnsupportedRuleException {
+            final List<Predicate> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (accept(TokenType.KEYWORD, "OR")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        private Predicate parseAnd() throws UnsupportedRuleException {
+            final List<Predicate> operands = new ArrayList<>();
+            operands.add(parseNot());
+            while (accept(TokenType.KEYWORD, "AND")) {
+                operands.add(parseNot());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        private Predicate parseNot() throws UnsupportedRuleException {
+            if (accept(TokenType.KEYWORD, "NOT")) {
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        private Predicate parsePrimary() throws UnsupportedRuleException {
+            if (accept(TokenType.SYMBOL, "(")) {
+                final Predicate predicate = parseOr();
+                expect(TokenType.SYMBOL, ")");
+                return predicate;
+            }
+            if (accept(TokenType.KEYWORD, "IPLIKE")) {
+                expect(TokenType.SYMBOL, "(");
+                final ColumnRef column = column(next());
+                expect(TokenType.SYMBOL, ",");
+                final Token pattern = next();
+                expect(TokenType.SYMBOL, ")");
+                if (column.m_type != ColumnType.TEXT || pattern.m_type != TokenType.STRING) {
+                    throw new UnsupportedRuleException("Unsupported arguments for IPLIKE in " + m_where);
+                }
+                return new IpLike(column, pattern.m_text);
+            }
+
+            final Token left = next();
+            final Token operator = next();
+            if (operator.m_type == TokenType.SYMBOL) {
+                final Op op = op(operator.m_text);
+                final Token right = next();
+                if (left.m_type == TokenType.COLUMN && right.m_type == TokenType.COLUMN) {
+                    final ColumnRef leftColumn = column(left);
+                    final ColumnRef rightColumn = column(right);
+                    if (!(leftColumn.m_type == ColumnType.INTEGER && rightColumn.m_type == ColumnType.INTEGER)
+                            && !(leftColumn.isCharacter() && rightColumn.isCharacter() && (op == Op.EQ || op == Op.NE))) {
+                        throw new UnsupportedRuleException("Unsupported comparison between " + leftColumn + " and " + rightColumn);
+                    }
+                    return new ColumnComparison(leftColumn, op, rightColumn);
+                } else if (left.m_type == TokenType.COLUMN) {
+                    return comparison(column(left), op, right);
+                } else if (right.m_type == TokenType.COLUMN) {
+                    return comparison(column(right), op.flip(), left);
+                }
+                throw new UnsupportedRuleException("Unsupported comparison of " + left + " and " + right);
+            }
+
+            final ColumnRef column = column(left);
+            if (operator.m_type == TokenType.CATINC) {
+                if (column.m_type != ColumnType.INTEGER) {
+                    throw new UnsupportedRuleException("Unsupported category test on " + column);
+                }
+                return new InCategory(column, operator.m_text);
+            }
+            if (operator.m_type != TokenType.KEYWORD) {
+                throw new UnsupportedRuleException("Unexpected " + operator + " in " + m_where);
+            }
+            switch (operator.m_text) {
+            case "LIKE":
+                return like(column, next(), false);
+            case "IN":
+                return in(column, false);
+            case "NOT":
+                if (accept(TokenType.KEYWORD, "LIKE")) {
+                    return like(column, next(), true);
+                }
+                expect(TokenType.KEYWORD, "IN");
+                return in(column, true);
+            case "IS":
+                final boolean negated = accept(TokenType.KEYWORD, "NOT");
+                if (accept(TokenType.KEYWORD, "NULL")) {
+                    return new IsNull(column, negated);
+                }
+                expect(TokenType.KEYWORD, "DISTINCT");
+                expect(TokenType.KEYWORD, "FROM");
+                final Token other = next();
+                if (other.m_type == TokenType.COLUMN) {
+                    final ColumnRef otherColumn = column(other);
+                    if (!(column.m_type == ColumnType.INTEGER && otherColumn.m_type == ColumnType.INTEGER)
+                            && !(column.isCharacter() && otherColumn.isCharacter())) {
+                        throw new UnsupportedRuleException("Unsupported comparison between " + column + " and " + otherColumn);
+                    }
+                    return new IsDistinctFrom(column, otherColumn, null, negated);
+                }
+                return new IsDistinctFrom(column, null, constant(column, other), negated);
+            default:
+                throw new UnsupportedRuleException("Unexpected " + operator + " in " + m_where);
+            }
+        }
+
+        private Predicate comparison(final ColumnRef column, final Op op, final Token literal) throws UnsupportedRuleException {
+            if (column.isCharacter() && op != Op.EQ && op != Op.NE) {
+                // the ordering of strings depends on the collation of the database
+                throw new UnsupportedRuleException("Unsupported ordering of " + column);
+            }
+            return new Comparison(column, op, constant(column, literal));
+        }
+
+        private Predicate like(final ColumnRef column, final Token pattern, final boolean negated) throws UnsupportedRuleException {
+            if (!column.isCharacter() || pattern.m_type != TokenType.STRING) {
+                throw new UnsupportedRuleException("Unsupported LIKE on " + column);
+            }
+            final StringBuilder regex = new StringBuilder();
+            final String text = pattern.m_text;
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c == '\\') {
+                    if (++i == text.length()) {
+                        throw new UnsupportedRuleException("LIKE pattern must not end with escape character: " + text);
+                    }
+                    regex.append(Pattern.quote(String.valueOf(text.charAt(i))));
+                } else if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return new Like(column, Pattern.compile(regex.toString(), Pattern.DOTALL), negated);
+        }
+
+        private Predicate in(final ColumnRef column, final boolean negated) throws UnsupportedRuleException {
+            expect(TokenType.SYMBOL, "(");
+            final List<Object> values = new ArrayList<>();
+            do {
+                values.add(constant(column, next()));
+            } while (accept(TokenType.SYMBOL, ","));
+            expect(TokenType.SYMBOL, ")");
+            return new In(column, values, negated);
+        }
+
+        private Op op(final String symbol) throws UnsupportedRuleException {
+            switch (symbol) {
+            case "=": return Op.EQ;
+            case "<>":
+            case "!=": return Op.NE;
+            case "<": return Op.LT;
+            case "<=": return Op.LE;
+            case ">": return Op.GT;
+            case ">=": return Op.GE;
+            default: throw new UnsupportedRuleException("Unexpected " + symbol + " in " + m_where);
+            }
+        }
+
+        private ColumnRef column(final Token token) throws UnsupportedRuleException {
+            if (token.m_type != TokenType.COLUMN) {
+                throw new UnsupportedRuleException("Expected a column but found " + token + " in " + m_where);
+            }
+            final int dot = token.m_text.indexOf('.');
+            final InventoryTable table = InventoryTable.forTableName(token.m_text.substring(0, dot));
+            if (table == null || !m_tables.contains(table)) {
+                throw new UnsupportedRuleException("Unsupported table in " + token);
+            }
+            final String name = token.m_text.substring(dot + 1).toLowerCase();
+            final int index = m_inventory.columns(table).indexOf(name);
+            if (index < 0) {
+                throw new UnsupportedRuleException("Unknown column " + token);
+            }
+            final ColumnType type = m_inventory.columns(table).getType(index);
+            if (type == ColumnType.OTHER && !peek().is(TokenType.KEYWORD, "IS")) {
+                throw new UnsupportedRuleException("Unsupported column type for " + token);
+            }
+            return new ColumnRef(table, name, index, type);
+        }
+
+        /**
+         * Converts a literal to the type of the column it is compared with, like
+         * PostgreSQL does for untyped literals.
+         */
+        private Object constant(final ColumnRef column, final Token literal) throws UnsupportedRuleException {
+            if (column.m_type == ColumnType.INTEGER && (literal.m_type == TokenType.STRING || literal.m_type == TokenType.NUMBER)) {
+                try {
+                    return Long.valueOf(literal.m_text.trim());
+                } catch (final NumberFormatException e) {
+                    throw new UnsupportedRuleException("Invalid integer " + literal + " for " + column);
+                }
+            } else if (column.m_type == ColumnType.TEXT && literal.m_type == TokenType.STRING) {
+                return literal.m_text;
+            } else if (column.m_type == ColumnType.CHAR && literal.m_type == TokenType.STRING) {
+                return FilterInventory.trimTrailingBlanks(literal.m_text);
+            }
+            throw new UnsupportedRuleException("Unsupported comparison of " + column + " and " + literal);
+        }
+    }
+}
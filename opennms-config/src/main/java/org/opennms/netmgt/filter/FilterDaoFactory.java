@@ -28,8 +28,11 @@
 
 package org.opennms.netmgt.filter;
 
+import javax.sql.DataSource;
+
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,20 +83,39 @@ public class FilterDaoFactory {
             return;
         }
         
-        JdbcFilterDao jdbcFilterDao = new JdbcFilterDao();
-        
-        jdbcFilterDao.setDataSource(DataSourceFactory.getInstance());
-        
         try {
             DatabaseSchemaConfigFactory.init();
         } catch (Throwable e) {
             throw new DataAccessResourceFailureException("Could not initialize DatabaseSchemaConfigFactory: " + e, e);
         }
-        jdbcFilterDao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
         
+        setInstance(createFilterDao(DataSourceFactory.getInstance(), DatabaseSchemaConfigFactory.getInstance()));
+    }
+
+    /**
+     * Creates a {@link JdbcFilterDao}, or an {@link InMemoryFilterDao} when the
+     * {@value InMemoryFilterDao#ENABLED_PROPERTY} system property is set to true.
+     *
+     * @param dataSource a {@link javax.sql.DataSource} object.
+     * @param databaseSchemaConfig a {@link org.opennms.netmgt.config.api.DatabaseSchemaConfig} object.
+     * @return a {@link org.opennms.netmgt.filter.api.FilterDao} object.
+     */
+    public static FilterDao createFilterDao(final DataSource dataSource, final DatabaseSchemaConfig databaseSchemaConfig) {
+        JdbcFilterDao jdbcFilterDao = new JdbcFilterDao();
+        
+        jdbcFilterDao.setDataSource(dataSource);
+        jdbcFilterDao.setDatabaseSchemaConfigFactory(databaseSchemaConfig);
         jdbcFilterDao.afterPropertiesSet();
         
-        setInstance(jdbcFilterDao);
+        if (!Boolean.getBoolean(InMemoryFilterDao.ENABLED_PROPERTY)) {
+            return jdbcFilterDao;
+        }
+        
+        LOG.info("Filter rules will be evaluated in memory.");
+        InMemoryFilterDao inMemoryFilterDao = new InMemoryFilterDao();
+        inMemoryFilterDao.setDelegate(jdbcFilterDao);
+        inMemoryFilterDao.afterPropertiesSet();
+        return inMemoryFilterDao;
     }
 
 }
@@ -0,0 +1,600 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+
+/**
+ * An immutable, in-memory copy of the inventory tables that can be referenced
+ * by a filter rule with the default database-schema.xml.
+ *
+ * The rows are kept as they were read from the database, one {@code Object[]}
+ * per row, and are linked together the same way the joins generated by the
+ * {@link JdbcFilterDao} link them. Integer columns are stored as {@link Long}s,
+ * character columns as {@link String}s and any other column only records
+ * whether or not it is null.
+ */
+final class FilterInventory {
+
+    /**
+     * The tables that are part of the inventory, in join order.
+     */
+    enum InventoryTable {
+        NODE("node"),
+        IPINTERFACE("ipinterface"),
+        SNMPINTERFACE("snmpinterface"),
+        IFSERVICES("ifservices"),
+        SERVICE("service"),
+        ASSETS("assets"),
+        CATEGORY_NODE("category_node"),
+        CATEGORIES("categories");
+
+        private final String m_tableName;
+
+        private InventoryTable(final String tableName) {
+            m_tableName = tableName;
+        }
+
+        public String getTableName() {
+            return m_tableName;
+        }
+
+        public static InventoryTable forTableName(final String tableName) {
+            for (final InventoryTable table : values()) {
+                if (table.m_tableName.equalsIgnoreCase(tableName)) {
+                    return table;
+                }
+            }
+            return null;
+        }
+    }
+
+    enum ColumnType {
+        INTEGER,
+        TEXT,
+        /** blank-padded character columns, the trailing blanks are stripped */
+        CHAR,
+        OTHER
+    }
+
+    /**
+     * Stands in for the non-null values of the {@link ColumnType#OTHER} columns.
+     */
+    static final Object NOT_NULL = new Object() {
+        @Override
+        public String toString() {
+            return "NOT NULL";
+        }
+    };
+
+    /**
+     * The columns of one of the inventory tables, keyed by their lower-case name.
+     */
+    static final class Columns {
+        private final Map<String, Integer> m_indexes = new HashMap<>();
+        private final List<ColumnType> m_types = new ArrayList<>();
+
+        Columns add(final String name, final ColumnType type) {
+            m_indexes.put(name.toLowerCase(), m_types.size());
+            m_types.add(type);
+            return this;
+        }
+
+        /**
+         * @return the index of the column, or -1 if the table doesn't have it
+         */
+        int indexOf(final String name) {
+            final Integer index = m_indexes.get(name.toLowerCase());
+            return index == null ? -1 : index;
+        }
+
+        ColumnType getType(final int index) {
+            return m_types.get(index);
+        }
+
+        int size() {
+            return m_types.size();
+        }
+
+        private int required(final InventoryTable table, final String name) {
+            final int index = indexOf(name);
+            if (index < 0) {
+                throw new IllegalStateException("Table " + table.getTableName() + " has no column " + name);
+            }
+            return index;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Columns)) {
+                return false;
+            }
+            final Columns that = (Columns)obj;
+            return m_indexes.equals(that.m_indexes) && m_types.equals(that.m_types);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_indexes, m_types);
+        }
+    }
+
+    /**
+     * Receives the rows that match a rule. The row array is reused between
+     * calls, it is indexed by {@link InventoryTable#ordinal()} and holds null
+     * for the tables that are not joined, or that were outer-joined without
+     * a match.
+     */
+    interface RowVisitor {
+        /**
+         * @return false to stop the iteration
+         */
+        boolean visit(Object[][] row);
+    }
+
+    static final class NodeEntry {
+        private final Object[] m_node;
+        private final Object[] m_assets;
+        private final List<Object[]> m_categoryNodes;
+        private final List<InterfaceEntry> m_interfaces;
+
+        private NodeEntry(final Object[] node, final Object[] assets, final List<Object[]> categoryNodes, final List<InterfaceEntry> interfaces) {
+            m_node = node;
+            m_assets = assets;
+            m_categoryNodes = categoryNodes;
+            m_interfaces = interfaces;
+        }
+    }
+
+    static final class InterfaceEntry {
+        private final int m_nodeId;
+        private final Object[] m_ipInterface;
+        private final Object[] m_snmpInterface;
+        private final List<Object[]> m_ifServices;
+
+        private InterfaceEntry(final int nodeId, final Object[] ipInterface, final Object[] snmpInterface, final List<Object[]> ifServices) {
+            m_nodeId = nodeId;
+            m_ipInterface = ipInterface;
+            m_snmpInterface = snmpInterface;
+            m_ifServices = ifServices;
+        }
+    }
+
+    private static final List<Object[]> NO_MATCH = Collections.singletonList(null);
+
+    private final Map<InventoryTable, Columns> m_columns;
+    private final SortedMap<Integer, NodeEntry> m_nodes;
+    private final Map<Integer, Object[]> m_services;
+    private final Map<Integer, Object[]> m_categories;
+    private final Map<String, List<InterfaceEntry>> m_interfacesByIpAddr;
+    private final Map<InetAddress, List<InterfaceEntry>> m_interfacesByAddress;
+    private final long m_createdAt;
+
+    // Indexes of the columns used to link the rows together
+    private final int m_nodeNodeId;
+    private final int m_ipInterfaceNodeId;
+    private final int m_ipInterfaceIpAddr;
+    private final int m_ipInterfaceIsManaged;
+    private final int m_serviceServiceId;
+    private final int m_ifServicesServiceId;
+    private final int m_categoriesCategoryId;
+    private final int m_categoriesCategoryName;
+    private final int m_categoryNodeCategoryId;
+
+    /**
+     * Builds an inventory from the rows of all of the tables.
+     */
+    FilterInventory(final Map<InventoryTable, Columns> columns, final Map<InventoryTable, List<Object[]>> rows) {
+        this(columns, Collections.<Integer, NodeEntry>emptySortedMap(), Collections.<Integer>emptySet(), rows, System.currentTimeMillis());
+    }
+
+    private FilterInventory(final Map<InventoryTable, Columns> columns, final SortedMap<Integer, NodeEntry> previousNodes,
+            final Set<Integer> replacedNodeIds, final Map<InventoryTable, List<Object[]>> rows, final long createdAt) {
+        m_columns = Collections.unmodifiableMap(new EnumMap<>(columns));
+        for (final InventoryTable table : InventoryTable.values()) {
+            if (!m_columns.containsKey(table)) {
+                throw new IllegalStateException("No columns were given for table " + table.getTableName());
+            }
+        }
+        m_createdAt = createdAt;
+
+        m_nodeNodeId = columns(InventoryTable.NODE).required(InventoryTable.NODE, "nodeid");
+        m_ipInterfaceNodeId = columns(InventoryTable.IPINTERFACE).required(InventoryTable.IPINTERFACE, "nodeid");
+        m_ipInterfaceIpAddr = columns(InventoryTable.IPINTERFACE).required(InventoryTable.IPINTERFACE, "ipaddr");
+        m_ipInterfaceIsManaged = columns(InventoryTable.IPINTERFACE).required(InventoryTable.IPINTERFACE, "ismanaged");
+        m_serviceServiceId = columns(InventoryTable.SERVICE).required(InventoryTable.SERVICE, "serviceid");
+        m_ifServicesServiceId = columns(InventoryTable.IFSERVICES).required(InventoryTable.IFSERVICES, "serviceid");
+        m_categoriesCategoryId = columns(InventoryTable.CATEGORIES).required(InventoryTable.CATEGORIES, "categoryid");
+        m_categoriesCategoryName = columns(InventoryTable.CATEGORIES).required(InventoryTable.CATEGORIES, "categoryname");
+        m_categoryNodeCategoryId = columns(InventoryTable.CATEGORY_NODE).required(InventoryTable.CATEGORY_NODE, "categoryid");
+        final int ipInterfaceId = columns(InventoryTable.IPINTERFACE).required(InventoryTable.IPINTERFACE, "id");
+        final int ipInterfaceSnmpInterfaceId = columns(InventoryTable.IPINTERFACE).required(InventoryTable.IPINTERFACE, "snmpinterfaceid");
+        final int snmpInterfaceId = columns(InventoryTable.SNMPINTERFACE).required(InventoryTable.SNMPINTERFACE, "id");
+        final int ifServicesIpInterfaceId = columns(InventoryTable.IFSERVICES).required(InventoryTable.IFSERVICES, "ipinterfaceid");
+        final int assetsNodeId = columns(InventoryTable.ASSETS).required(InventoryTable.ASSETS, "nodeid");
+        final int categoryNodeNodeId = columns(InventoryTable.CATEGORY_NODE).required(InventoryTable.CATEGORY_NODE, "nodeid");
+
+        m_services = index(rows(rows, InventoryTable.SERVICE), m_serviceServiceId);
+        m_categories = index(rows(rows, InventoryTable.CATEGORIES), m_categoriesCategoryId);
+
+        final Map<Integer, Object[]> snmpInterfaces = index(rows(rows, InventoryTable.SNMPINTERFACE), snmpInterfaceId);
+        final Map<Integer, Object[]> assets = index(rows(rows, InventoryTable.ASSETS), assetsNodeId);
+        final Map<Integer, List<Object[]>> ifServices = group(rows(rows, InventoryTable.IFSERVICES), ifServicesIpInterfaceId);
+        final Map<Integer, List<Object[]>> categoryNodes = group(rows(rows, InventoryTable.CATEGORY_NODE), categoryNodeNodeId);
+
+        final Map<Integer, List<InterfaceEntry>> interfaces = new HashMap<>();
+        for (final Object[] ipInterface : rows(rows, InventoryTable.IPINTERFACE)) {
+            final Integer nodeId = intValue(ipInterface[m_ipInterfaceNodeId]);
+            final Integer snmpInterface = intValue(ipInterface[ipInterfaceSnmpInterfaceId]);
+            final List<Object[]> services = ifServices.get(intValue(ipInterface[ipInterfaceId]));
+            interfaces.computeIfAbsent(nodeId, k -> new ArrayList<>()).add(new InterfaceEntry(nodeId,
+                    ipInterface,
+                    snmpInterface == null ? null : snmpInterfaces.get(snmpInterface),
+                    services == null ? Collections.<Object[]>emptyList() : services));
+        }
+
+        final SortedMap<Integer, NodeEntry> nodes = new TreeMap<>(previousNodes);
+        nodes.keySet().removeAll(replacedNodeIds);
+        for (final Object[] node : rows(rows, InventoryTable.NODE)) {
+            final Integer nodeId = intValue(node[m_nodeNodeId]);
+            final List<Object[]> categories = categoryNodes.get(nodeId);
+            final List<InterfaceEntry> nodeInterfaces = interfaces.get(nodeId);
+            nodes.put(nodeId, new NodeEntry(node,
+                    assets.get(nodeId),
+                    categories == null ? Collections.<Object[]>emptyList() : categories,
+                    nodeInterfaces == null ? Collections.<InterfaceEntry>emptyList() : nodeInterfaces));
+        }
+        m_nodes = Collections.unmodifiableSortedMap(nodes);
+
+        m_interfacesByIpAddr = new HashMap<>();
+        m_interfacesByAddress = new HashMap<>();
+        for (final NodeEntry node : m_nodes.values()) {
+            for (final InterfaceEntry ipInterface : node.m_interfaces) {
+                final String ipAddr = (String)ipInterface.m_ipInterface[m_ipInterfaceIpAddr];
+                if (ipAddr == null) {
+                    continue;
+                }
+                m_interfacesByIpAddr.computeIfAbsent(ipAddr, k -> new ArrayList<>(1)).add(ipInterface);
+                final InetAddress address = addr(ipAddr);
+                if (address != null) {
+                    m_interfacesByAddress.computeIfAbsent(address, k -> new ArrayList<>(1)).add(ipInterface);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads all of the inventory tables.
+     */
+    static FilterInventory load(final DataSource dataSource) throws SQLException {
+        final Map<InventoryTable, Columns> columns = new EnumMap<>(InventoryTable.class);
+        final Map<InventoryTable, List<Object[]>> rows = new EnumMap<>(InventoryTable.class);
+        load(dataSource, null, columns, rows);
+        return new FilterInventory(columns, rows);
+    }
+
+    /**
+     * Builds a copy of this inventory where the given nodes are reloaded from
+     * the database. The copy keeps the creation time of this inventory.
+     *
+     * @throws IllegalStateException if the columns of the tables have changed since
+     * this inventory was loaded
+     */
+    FilterInventory reload(final DataSource dataSource, final Collection<Integer> nodeIds) throws SQLException {
+        final Map<InventoryTable, Columns> columns = new EnumMap<>(InventoryTable.class);
+        final Map<InventoryTable, List<Object[]>> rows = new EnumMap<>(InventoryTable.class);
+        load(dataSource, nodeIds, columns, rows);
+        if (!m_columns.equals(columns)) {
+            throw new IllegalStateException("The columns of the inventory tables have changed.");
+        }
+        return new FilterInventory(columns, m_nodes, new HashSet<>(nodeIds), rows, m_createdAt);
+    }
+
+    private static void load(final DataSource dataSource, final Collection<Integer> nodeIds,
+            final Map<InventoryTable, Columns> columns, final Map<InventoryTable, List<Object[]>> rows) throws SQLException {
+        final String nodeIdList = nodeIds == null ? null : join(nodeIds);
+        final Map<InventoryTable, String> queries = new LinkedHashMap<>();
+        if (nodeIdList == null) {
+            for (final InventoryTable table : InventoryTable.values()) {
+                queries.put(table, "SELECT * FROM " + table.getTableName());
+            }
+        } else {
+            queries.put(InventoryTable.NODE, "SELECT * FROM node WHERE nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.IPINTERFACE, "SELECT * FROM ipinterface WHERE nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.SNMPINTERFACE, "SELECT * FROM snmpinterface WHERE nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.IFSERVICES, "SELECT ifservices.* FROM ifservices JOIN ipinterface ON (ifservices.ipinterfaceid = ipinterface.id) WHERE ipinterface.nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.SERVICE, "SELECT * FROM service");
+            queries.put(InventoryTable.ASSETS, "SELECT * FROM assets WHERE nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.CATEGORY_NODE, "SELECT * FROM category_node WHERE nodeid IN (" + nodeIdList + ")");
+            queries.put(InventoryTable.CATEGORIES, "SELECT * FROM categories");
+        }
+
+        final DBUtils d = new DBUtils(FilterInventory.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+            for (final Map.Entry<InventoryTable, String> query : queries.entrySet()) {
+                final Statement stmt = conn.createStatement();
+                d.watch(stmt);
+                final ResultSet rset = stmt.executeQuery(query.getValue());
+                d.watch(rset);
+
+                final ResultSetMetaData metaData = rset.getMetaData();
+                final Columns tableColumns = new Columns();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    tableColumns.add(metaData.getColumnName(i), getColumnType(metaData.getColumnType(i)));
+                }
+
+                final List<Object[]> tableRows = new ArrayList<>();
+                while (rset.next()) {
+                    final Object[] row = new Object[tableColumns.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getValue(rset, i + 1, tableColumns.getType(i));
+                    }
+                    tableRows.add(row);
+                }
+                columns.put(query.getKey(), tableColumns);
+                rows.put(query.getKey(), tableRows);
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    private static ColumnType getColumnType(final int sqlType) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            return ColumnType.INTEGER;
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+            return ColumnType.TEXT;
+        case Types.CHAR:
+        case Types.NCHAR:
+            return ColumnType.CHAR;
+        default:
+            return ColumnType.OTHER;
+        }
+    }
+
+    private static Object getValue(final ResultSet rset, final int column, final ColumnType type) throws SQLException {
+        switch (type) {
+        case INTEGER:
+            final long longValue = rset.getLong(column);
+            return rset.wasNull() ? null : Long.valueOf(longValue);
+        case TEXT:
+            return rset.getString(column);
+        case CHAR:
+            return trimTrailingBlanks(rset.getString(column));
+        default:
+            return rset.getObject(column) == null ? null : NOT_NULL;
+        }
+    }
+
+    static String trimTrailingBlanks(final String value) {
+        if (value == null) {
+            return null;
+        }
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private static String join(final Collection<Integer> nodeIds) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Integer nodeId : nodeIds) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(nodeId.intValue());
+        }
+        return sb.length() == 0 ? "NULL" : sb.toString();
+    }
+
+    private static List<Object[]> rows(final Map<InventoryTable, List<Object[]>> rows, final InventoryTable table) {
+        final List<Object[]> tableRows = rows.get(table);
+        return tableRows == null ? Collections.<Object[]>emptyList() : tableRows;
+    }
+
+    private static Map<Integer, Object[]> index(final List<Object[]> rows, final int keyIndex) {
+        final Map<Integer, Object[]> index = new HashMap<>();
+        for (final Object[] row : rows) {
+            index.put(intValue(row[keyIndex]), row);
+        }
+        return index;
+    }
+
+    private static Map<Integer, List<Object[]>> group(final List<Object[]> rows, final int keyIndex) {
+        final Map<Integer, List<Object[]>> groups = new HashMap<>();
+        for (final Object[] row : rows) {
+            groups.computeIfAbsent(intValue(row[keyIndex]), k -> new ArrayList<>(2)).add(row);
+        }
+        return groups;
+    }
+
+    private static Integer intValue(final Object value) {
+        return value == null ? null : Integer.valueOf(((Long)value).intValue());
+    }
+
+    Columns columns(final InventoryTable table) {
+        return m_columns.get(table);
+    }
+
+    long getCreatedAt() {
+        return m_createdAt;
+    }
+
+    int getNodeCount() {
+        return m_nodes.size();
+    }
+
+    /**
+     * @return true if the node is a member of the category with the given name
+     */
+    boolean isNodeInCategory(final int nodeId, final String categoryName) {
+        final NodeEntry node = m_nodes.get(nodeId);
+        if (node == null) {
+            return false;
+        }
+        for (final Object[] categoryNode : node.m_categoryNodes) {
+            final Object[] category = m_categories.get(intValue(categoryNode[m_categoryNodeCategoryId]));
+            if (category != null && categoryName.equals(category[m_categoriesCategoryName])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the ipInterface row was marked as deleted
+     */
+    boolean isActive(final Object[][] row) {
+        return !"D".equals(row[InventoryTable.IPINTERFACE.ordinal()][m_ipInterfaceIsManaged]);
+    }
+
+    /**
+     * Visits the rows of the join between the given tables that match the rule.
+     *
+     * @return false if the visitor stopped the iteration
+     */
+    boolean forEachRow(final CompiledFilterRule rule, final RowVisitor visitor) {
+        final Object[][] row = new Object[InventoryTable.values().length][];
+        if (rule.getIpAddr() != null) {
+            return forEachRow(rule, m_interfacesByIpAddr.get(rule.getIpAddr()), visitor, row);
+        }
+        final Collection<NodeEntry> nodes;
+        if (rule.getNodeId() != null) {
+            final NodeEntry node = m_nodes.get(rule.getNodeId());
+            nodes = node == null ? Collections.<NodeEntry>emptyList() : Collections.singletonList(node);
+        } else {
+            nodes = m_nodes.values();
+        }
+        for (final NodeEntry node : nodes) {
+            for (final InterfaceEntry ipInterface : node.m_interfaces) {
+                if (!visitInterface(rule, node, ipInterface, visitor, row)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits the rows for the interfaces with the given address that match the rule.
+     *
+     * @return false if the visitor stopped the iteration
+     */
+    boolean forEachRow(final CompiledFilterRule rule, final InetAddress address, final RowVisitor visitor) {
+        return forEachRow(rule, m_interfacesByAddress.get(address), visitor, new Object[InventoryTable.values().length][]);
+    }
+
+    private boolean forEachRow(final CompiledFilterRule rule, final List<InterfaceEntry> interfaces, final RowVisitor visitor, final Object[][] row) {
+        if (interfaces == null) {
+            return true;
+        }
+        for (final InterfaceEntry ipInterface : interfaces) {
+            if (!visitInterface(rule, m_nodes.get(ipInterface.m_nodeId), ipInterface, visitor, row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean visitInterface(final CompiledFilterRule rule, final NodeEntry node, final InterfaceEntry ipInterface, final RowVisitor visitor, final Object[][] row) {
+        final EnumSet<InventoryTable> tables = rule.getTables();
+        // These are all inner joins, so the interface is skipped when there's nothing to join with
+        if (tables.contains(InventoryTable.SNMPINTERFACE) && ipInterface.m_snmpInterface == null) {
+            return true;
+        }
+        if (tables.contains(InventoryTable.ASSETS) && node.m_assets == null) {
+            return true;
+        }
+        final List<Object[]> ifServices = tables.contains(InventoryTable.IFSERVICES) ? ipInterface.m_ifServices : NO_MATCH;
+        // ... whereas the categories are left joined
+        final List<Object[]> categoryNodes = tables.contains(InventoryTable.CATEGORY_NODE) && !node.m_categoryNodes.isEmpty() ? node.m_categoryNodes : NO_MATCH;
+
+        row[InventoryTable.NODE.ordinal()] = node.m_node;
+        row[InventoryTable.IPINTERFACE.ordinal()] = ipInterface.m_ipInterface;
+        row[InventoryTable.SNMPINTERFACE.ordinal()] = ipInterface.m_snmpInterface;
+        row[InventoryTable.ASSETS.ordinal()] = node.m_assets;
+
+        for (final Object[] ifService : ifServices) {
+            Object[] service = null;
+            if (ifService != null && tables.contains(InventoryTable.SERVICE)) {
+                service = m_services.get(intValue(ifService[m_ifServicesServiceId]));
+                if (service == null) {
+                    continue;
+                }
+            }
+            row[InventoryTable.IFSERVICES.ordinal()] = ifService;
+            row[InventoryTable.SERVICE.ordinal()] = service;
+
+            for (final Object[] categoryNode : categoryNodes) {
+                row[InventoryTable.CATEGORY_NODE.ordinal()] = categoryNode;
+                row[InventoryTable.CATEGORIES.ordinal()] = categoryNode == null ? null : m_categories.get(intValue(categoryNode[m_categoryNodeCategoryId]));
+                if (rule.matches(this, row) && !visitor.visit(row)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
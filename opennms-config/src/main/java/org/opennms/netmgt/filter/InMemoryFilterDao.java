@@ -0,0 +1,486 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.utils.InetAddressComparator;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.events.api.SynchronousEventListener;
+import org.opennms.netmgt.filter.CompiledFilterRule.UnsupportedRuleException;
+import org.opennms.netmgt.filter.FilterInventory.InventoryTable;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link FilterDao} that evaluates the filter rules against an in-memory copy
+ * of the node, interface, service, category and asset tables instead of
+ * running a query for every call.
+ *
+ * The rules are translated to SQL by the {@link JdbcFilterDao} it wraps and the
+ * resulting statements are compiled with {@link CompiledFilterRule}, so both
+ * implementations accept the same rules. Statements that can't be evaluated
+ * in memory with the same result as the database, and every call made while
+ * the inventory can't be kept up to date, are delegated to the
+ * {@link JdbcFilterDao}.
+ *
+ * The inventory is kept up to date with the node and interface events: the
+ * nodes referenced by these events are reloaded before the next call, and
+ * the whole inventory is reloaded when an event doesn't reference a node, or
+ * after {@value #MAX_AGE_PROPERTY} milliseconds in case an update was missed.
+ *
+ * Since the daemons handle the same events on their own threads, this DAO
+ * listens as a {@link SynchronousEventListener}: eventd invalidates the nodes
+ * before it queues the event for the daemons, so a daemon never evaluates a
+ * rule against a node that an event it is handling has changed.
+ */
+public class InMemoryFilterDao implements FilterDao, InitializingBean, SynchronousEventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryFilterDao.class);
+
+    /**
+     * Set this system property to true to use the {@link InMemoryFilterDao}
+     * instead of the {@link JdbcFilterDao}.
+     */
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.filter.inMemory";
+
+    public static final String MAX_AGE_PROPERTY = "org.opennms.netmgt.filter.inMemory.maxAge";
+
+    private static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Reload everything rather than this many nodes at once.
+     */
+    private static final int MAX_NODES_PER_RELOAD = 1000;
+
+    private static final int MAX_COMPILED_RULES = 5000;
+
+    private enum StatementType {
+        IP_ADDRESS,
+        NODE_MAP,
+        IP_SERVICE_MAP
+    }
+
+    private JdbcFilterDao m_delegate;
+    private EventSubscriptionService m_eventSubscriptionService;
+    private long m_maxAge = Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE);
+
+    private volatile boolean m_subscribed = false;
+    private volatile FilterInventory m_inventory;
+    private final AtomicBoolean m_reloadRequired = new AtomicBoolean(true);
+    private final Set<Integer> m_changedNodes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Optional<CompiledFilterRule>> m_compiledRules = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_evaluatedCount = new AtomicLong();
+    private final AtomicLong m_delegatedCount = new AtomicLong();
+
+    /**
+     * <p>setDelegate</p>
+     *
+     * @param delegate the {@link JdbcFilterDao} used to translate the rules, and to
+     * run the ones that can't be evaluated in memory
+     */
+    public void setDelegate(final JdbcFilterDao delegate) {
+        m_delegate = delegate;
+    }
+
+    public JdbcFilterDao getDelegate() {
+        return m_delegate;
+    }
+
+    /**
+     * <p>setEventSubscriptionService</p>
+     *
+     * @param eventSubscriptionService used to follow the changes to the inventory,
+     * the {@link EventIpcManagerFactory} is used when it isn't set
+     */
+    public void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    public void setMaxAge(final long maxAge) {
+        m_maxAge = maxAge;
+    }
+
+    public long getMaxAge() {
+        return m_maxAge;
+    }
+
+    /**
+     * @return the number of calls that were answered from the inventory
+     */
+    public long getEvaluatedCount() {
+        return m_evaluatedCount.get();
+    }
+
+    /**
+     * @return the number of calls that were delegated to the {@link JdbcFilterDao}
+     */
+    public long getDelegatedCount() {
+        return m_delegatedCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_delegate != null, "property delegate cannot be null");
+        m_delegate.afterPropertiesSet();
+        if (m_eventSubscriptionService != null) {
+            subscribe(m_eventSubscriptionService);
+        }
+    }
+
+    public void destroy() {
+        if (m_subscribed && m_eventSubscriptionService != null) {
+            m_eventSubscriptionService.removeEventListener(this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(final Event e) {
+        if (!EventConstants.INVENTORY_CHANGED_UEIS.contains(e.getUei())) {
+            return;
+        }
+        // A reparented interface changes two nodes, and only one of them is in the event
+        if (e.getNodeid() != null && e.getNodeid() > 0 && !EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(e.getUei())) {
+            m_changedNodes.add(e.getNodeid().intValue());
+        } else {
+            m_reloadRequired.set(true);
+        }
+    }
+
+    @Override
+    public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+        final FilterInventory inventory = getInventory();
+        final CompiledFilterRule compiled = getCompiledRule(inventory, StatementType.NODE_MAP, rule);
+        if (compiled != null) {
+            final int nodeId = inventory.columns(InventoryTable.NODE).indexOf("nodeid");
+            final int nodeLabel = inventory.columns(InventoryTable.NODE).indexOf("nodelabel");
+            final SortedMap<Integer, String> resultMap = new TreeMap<Integer, String>();
+            final boolean evaluated = evaluate(rule, () -> inventory.forEachRow(compiled, row -> {
+                final Object[] node = row[InventoryTable.NODE.ordinal()];
+                resultMap.put(((Long)node[nodeId]).intValue(), (String)node[nodeLabel]);
+                return true;
+            }));
+            if (evaluated) {
+                return Collections.unmodifiableSortedMap(resultMap);
+            }
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.getNodeMap(rule);
+    }
+
+    @Override
+    public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+        final FilterInventory inventory = getInventory();
+        final CompiledFilterRule compiled = getCompiledRule(inventory, StatementType.IP_SERVICE_MAP, rule);
+        if (compiled != null) {
+            final int ipAddr = inventory.columns(InventoryTable.IPINTERFACE).indexOf("ipaddr");
+            final int serviceName = inventory.columns(InventoryTable.SERVICE).indexOf("servicename");
+            final Map<InetAddress, Set<String>> ipServices = new TreeMap<InetAddress, Set<String>>(new InetAddressComparator());
+            final boolean evaluated = evaluate(rule, () -> inventory.forEachRow(compiled, row -> {
+                final InetAddress address = addr((String)row[InventoryTable.IPINTERFACE.ordinal()][ipAddr]);
+                if (address != null) {
+                    ipServices.computeIfAbsent(address, k -> new TreeSet<String>()).add((String)row[InventoryTable.SERVICE.ordinal()][serviceName]);
+                }
+                return true;
+            }));
+            if (evaluated) {
+                return ipServices;
+            }
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.getIPAddressServiceMap(rule);
+    }
+
+    /**
+     * The inventory is invalidated by the events, so there is nothing to flush
+     * here: this is called on the polling and collection paths and reloading
+     * the inventory every time would defeat its purpose.
+     */
+    @Override
+    public void flushActiveIpAddressListCache() {
+        m_delegate.flushActiveIpAddressListCache();
+    }
+
+    @Override
+    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+        final List<InetAddress> addresses = getIPAddressList(rule, true);
+        if (addresses != null) {
+            return addresses;
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.getActiveIPAddressList(rule);
+    }
+
+    @Override
+    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+        final List<InetAddress> addresses = getIPAddressList(rule, false);
+        if (addresses != null) {
+            return addresses;
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.getIPAddressList(rule);
+    }
+
+    /**
+     * @return the list of addresses, or null if the rule can't be evaluated in memory
+     */
+    private List<InetAddress> getIPAddressList(final String rule, final boolean filterDeleted) {
+        final FilterInventory inventory = getInventory();
+        final CompiledFilterRule compiled = getCompiledRule(inventory, StatementType.IP_ADDRESS, rule);
+        if (compiled == null) {
+            return null;
+        }
+        final boolean skipDeleted = filterDeleted && !compiled.isManagedReferenced();
+        final int ipAddr = inventory.columns(InventoryTable.IPINTERFACE).indexOf("ipaddr");
+        final Set<String> ipAddrs = new LinkedHashSet<>();
+        final boolean evaluated = evaluate(rule, () -> inventory.forEachRow(compiled, row -> {
+            if (!skipDeleted || inventory.isActive(row)) {
+                ipAddrs.add((String)row[InventoryTable.IPINTERFACE.ordinal()][ipAddr]);
+            }
+            return true;
+        }));
+        if (!evaluated) {
+            return null;
+        }
+        final List<InetAddress> resultList = new ArrayList<InetAddress>(ipAddrs.size());
+        for (final String address : ipAddrs) {
+            resultList.add(addr(address));
+        }
+        return resultList;
+    }
+
+    @Override
+    public boolean isValid(final String addr, final String rule) throws FilterParseException {
+        if (rule.length() == 0) {
+            return true;
+        }
+        final FilterInventory inventory = getInventory();
+        final CompiledFilterRule compiled = getCompiledRule(inventory, StatementType.IP_ADDRESS, rule);
+        final InetAddress address = addr(addr);
+        if (compiled != null && address != null) {
+            final boolean skipDeleted = !compiled.isManagedReferenced();
+            final AtomicBoolean valid = new AtomicBoolean(false);
+            final boolean evaluated = evaluate(rule, () -> inventory.forEachRow(compiled, address, row -> {
+                if (!skipDeleted || inventory.isActive(row)) {
+                    valid.set(true);
+                    return false;
+                }
+                return true;
+            }));
+            if (evaluated) {
+                return valid.get();
+            }
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.isValid(addr, rule);
+    }
+
+    @Override
+    public boolean isRuleMatching(final String rule) throws FilterParseException {
+        final FilterInventory inventory = getInventory();
+        final CompiledFilterRule compiled = getCompiledRule(inventory, StatementType.IP_ADDRESS, rule);
+        if (compiled != null) {
+            final AtomicBoolean matches = new AtomicBoolean(false);
+            final boolean evaluated = evaluate(rule, () -> inventory.forEachRow(compiled, row -> {
+                matches.set(true);
+                return false;
+            }));
+            if (evaluated) {
+                LOG.debug("isRuleMatching: rule \"{}\" {} an entry in the inventory", rule, matches.get() ? "matches" : "does not match");
+                return matches.get();
+            }
+        }
+        m_delegatedCount.incrementAndGet();
+        return m_delegate.isRuleMatching(rule);
+    }
+
+    @Override
+    public void validateRule(final String rule) throws FilterParseException {
+        isRuleMatching(rule);
+    }
+
+    /**
+     * Runs the evaluation of a rule against the inventory.
+     *
+     * @return false if the rule can't be evaluated in memory after all
+     */
+    private boolean evaluate(final String rule, final Runnable evaluation) {
+        try {
+            evaluation.run();
+            m_evaluatedCount.incrementAndGet();
+            return true;
+        } catch (final RuntimeException e) {
+            // i.e. a malformed IPLIKE expression, let the database deal with it
+            LOG.debug("Failed to evaluate rule \"{}\" in memory.", rule, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the compiled rule, or null if it can't be evaluated in memory
+     */
+    private CompiledFilterRule getCompiledRule(final FilterInventory inventory, final StatementType type, final String rule) {
+        if (inventory == null) {
+            return null;
+        }
+        final String key = type + ":" + rule;
+        Optional<CompiledFilterRule> compiled = m_compiledRules.get(key);
+        if (compiled == null) {
+            compiled = compile(inventory, type, rule);
+            if (m_compiledRules.size() >= MAX_COMPILED_RULES) {
+                m_compiledRules.clear();
+            }
+            m_compiledRules.put(key, compiled);
+        }
+        return compiled.orElse(null);
+    }
+
+    private Optional<CompiledFilterRule> compile(final FilterInventory inventory, final StatementType type, final String rule) {
+        final String sql;
+        try {
+            switch (type) {
+            case NODE_MAP:
+                sql = m_delegate.getNodeMappingStatement(rule);
+                break;
+            case IP_SERVICE_MAP:
+                sql = m_delegate.getIPServiceMappingStatement(rule);
+                break;
+            default:
+                sql = m_delegate.getSQLStatement(rule);
+                break;
+            }
+        } catch (final FilterParseException e) {
+            // The delegate will throw the same exception
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(CompiledFilterRule.compile(sql, inventory));
+        } catch (final UnsupportedRuleException e) {
+            LOG.debug("Rule \"{}\" will be evaluated by the database: {}", rule, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the up-to-date inventory, or null if it isn't available
+     */
+    private FilterInventory getInventory() {
+        if (!m_subscribed) {
+            // Without the events we can't tell when the inventory changes
+            final EventSubscriptionService eventSubscriptionService = getEventSubscriptionService();
+            if (eventSubscriptionService == null) {
+                return null;
+            }
+            subscribe(eventSubscriptionService);
+        }
+
+        final FilterInventory inventory = m_inventory;
+        if (inventory != null && !m_reloadRequired.get() && m_changedNodes.isEmpty()
+                && System.currentTimeMillis() - inventory.getCreatedAt() < m_maxAge) {
+            return inventory;
+        }
+
+        synchronized (this) {
+            try {
+                if (m_inventory == null || m_reloadRequired.get() || System.currentTimeMillis() - m_inventory.getCreatedAt() >= m_maxAge
+                        || m_changedNodes.size() > MAX_NODES_PER_RELOAD) {
+                    // Any change made from now on is applied after this load
+                    m_reloadRequired.set(false);
+                    m_changedNodes.clear();
+                    final long start = System.currentTimeMillis();
+                    m_inventory = FilterInventory.load(m_delegate.getDataSource());
+                    m_compiledRules.clear();
+                    LOG.debug("Loaded the inventory of {} nodes in {}ms.", m_inventory.getNodeCount(), System.currentTimeMillis() - start);
+                } else if (!m_changedNodes.isEmpty()) {
+                    final Set<Integer> nodeIds = new HashSet<>(m_changedNodes);
+                    m_changedNodes.removeAll(nodeIds);
+                    m_inventory = m_inventory.reload(m_delegate.getDataSource(), nodeIds);
+                    LOG.debug("Reloaded nodes {} in the inventory.", nodeIds);
+                }
+                return m_inventory;
+            } catch (final SQLException | RuntimeException e) {
+                LOG.warn("Failed to load the inventory, the filter rules will be evaluated by the database.", e);
+                m_reloadRequired.set(true);
+                return null;
+            }
+        }
+    }
+
+    private EventSubscriptionService getEventSubscriptionService() {
+        if (m_eventSubscriptionService != null) {
+            return m_eventSubscriptionService;
+        }
+        try {
+            return EventIpcManagerFactory.getIpcManager();
+        } catch (final IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private synchronized void subscribe(final EventSubscriptionService eventSubscriptionService) {
+        if (!m_subscribed) {
+            eventSubscriptionService.addEventListener(this, EventConstants.INVENTORY_CHANGED_UEIS);
+            m_eventSubscriptionService = eventSubscriptionService;
+            m_reloadRequired.set(true);
+            m_subscribed = true;
+        }
+    }
+}
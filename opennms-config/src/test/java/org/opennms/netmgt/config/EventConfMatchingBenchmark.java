@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Compares the indexed event configuration matcher against the linear
+ * search through the partitions using the event configuration shipped
+ * in opennms-base-assembly.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.config.EventConfMatchingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EventConfMatchingBenchmark {
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private final List<org.opennms.netmgt.xml.event.Event> m_traps = new ArrayList<>();
+
+    private int m_next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty(Events.INDEXED_MATCHING_PROPERTY, Boolean.toString(indexed));
+
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        // Build a trap for every definition that matches on the enterprise id, the
+        // UEI is left empty so that every lookup goes through the mask matchers
+        for (Event eventConf : m_eventConfDao.getAllEvents()) {
+            final List<String> ids = eventConf.getMaskElementValues("id");
+            if (ids == null || ids.isEmpty() || ids.get(0).startsWith("~")) {
+                continue;
+            }
+            final Snmp snmp = new Snmp();
+            snmp.setId(ids.get(0).replace("%", ".1"));
+            snmp.setGeneric(firstIntValue(eventConf, "generic", 6));
+            snmp.setSpecific(firstIntValue(eventConf, "specific", 0));
+
+            final org.opennms.netmgt.xml.event.Event trap = new org.opennms.netmgt.xml.event.Event();
+            trap.setSnmp(snmp);
+            m_traps.add(trap);
+        }
+
+        // Add some traps that don't match any definition
+        for (int i = 0; i < m_traps.size() / 10; i++) {
+            final Snmp snmp = new Snmp();
+            snmp.setId(".1.3.6.1.4.1.99999." + i);
+            snmp.setGeneric(6);
+            snmp.setSpecific(i);
+
+            final org.opennms.netmgt.xml.event.Event trap = new org.opennms.netmgt.xml.event.Event();
+            trap.setSnmp(snmp);
+            m_traps.add(trap);
+        }
+
+        Collections.shuffle(m_traps, new Random(42));
+    }
+
+    @Benchmark
+    public void findByEvent(Blackhole bh) {
+        final org.opennms.netmgt.xml.event.Event trap = m_traps.get(m_next);
+        m_next = (m_next + 1) % m_traps.size();
+        bh.consume(m_eventConfDao.findByEvent(trap));
+    }
+
+    private static int firstIntValue(Event eventConf, String mename, int defaultValue) {
+        final List<String> values = eventConf.getMaskElementValues(mename);
+        if (values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(values.get(0));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(EventConfMatchingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
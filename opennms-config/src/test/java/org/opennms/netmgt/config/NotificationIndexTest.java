@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.NotificationIndex.IndexedNotification;
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+
+public class NotificationIndexTest {
+
+    @Test
+    public void testCandidatesAreInConfigurationOrder() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("nodeDown", "uei.opennms.org/nodes/nodeDown", null));
+        notifications.addNotification(notification("anyNode", "~^uei\\.opennms\\.org/nodes/.*", null));
+        notifications.addNotification(notification("any", "MATCH-ANY-UEI", null));
+        notifications.addNotification(notification("nodeUp", "uei.opennms.org/nodes/nodeUp", null));
+        notifications.addNotification(notification("nodeDownAgain", "uei.opennms.org/nodes/nodeDown", null));
+        notifications.addNotification(notification("invalid", "~^uei\\.opennms\\.org/(nodes", null));
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+        assertEquals("nodeDown,anyNode,any,nodeDownAgain", names(index.getCandidates("uei.opennms.org/nodes/nodeDown")));
+        assertEquals("anyNode,any,nodeUp", names(index.getCandidates("uei.opennms.org/nodes/nodeUp")));
+        assertEquals("any", names(index.getCandidates("uei.opennms.org/internal/reloadDaemonConfig")));
+        // The cached candidates should be the same
+        assertEquals("nodeDown,anyNode,any,nodeDownAgain", names(index.getCandidates("uei.opennms.org/nodes/nodeDown")));
+
+        assertTrue(index.getCandidates("uei.opennms.org/nodes/nodeDown").get(1).isUeiRegex());
+        assertFalse(index.getCandidates("uei.opennms.org/nodes/nodeDown").get(0).isUeiRegex());
+    }
+
+    @Test
+    public void testSeverityMatching() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("noSeverity", "uei.opennms.org/test", null));
+        notifications.addNotification(notification("majorOrCritical", "uei.opennms.org/test", "Major|Critical"));
+        notifications.addNotification(notification("invalid", "uei.opennms.org/test", "(Major"));
+
+        final List<IndexedNotification> candidates = new NotificationIndex(notifications).getCandidates("uei.opennms.org/test");
+        assertEquals(3, candidates.size());
+
+        assertTrue(candidates.get(0).matchesSeverity("Normal"));
+        assertTrue(candidates.get(0).matchesSeverity(null));
+
+        assertTrue(candidates.get(1).matchesSeverity("Major"));
+        assertTrue(candidates.get(1).matchesSeverity("CRITICAL"));
+        assertFalse(candidates.get(1).matchesSeverity("Minor"));
+        assertFalse(candidates.get(1).matchesSeverity("MajorOutage"));
+
+        assertFalse(candidates.get(2).matchesSeverity("Major"));
+    }
+
+    private static Notification notification(String name, String uei, String severity) {
+        final Notification notification = new Notification();
+        notification.setName(name);
+        notification.setUei(uei);
+        notification.setEventSeverity(severity);
+        notification.setRule("IPADDR IPLIKE *.*.*.*");
+        notification.setStatus("on");
+        return notification;
+    }
+
+    private static String names(List<IndexedNotification> notifications) {
+        return notifications.stream()
+                .map(n -> n.getNotification().getName())
+                .collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.filter.CompiledFilterRule.UnsupportedRuleException;
+import org.opennms.netmgt.filter.FilterInventory.ColumnType;
+import org.opennms.netmgt.filter.FilterInventory.Columns;
+import org.opennms.netmgt.filter.FilterInventory.InventoryTable;
+
+public class CompiledFilterRuleTest {
+
+    private JdbcFilterDao m_jdbcFilterDao;
+
+    private FilterInventory m_inventory;
+
+    @Before
+    public void setUp() throws Exception {
+        // Only used to translate the rules, no queries are made
+        m_jdbcFilterDao = new JdbcFilterDao();
+        m_jdbcFilterDao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory(ConfigurationTestUtils.getInputStreamForConfigFile("database-schema.xml")));
+
+        final Map<InventoryTable, Columns> columns = new EnumMap<>(InventoryTable.class);
+        columns.put(InventoryTable.NODE, new Columns()
+                .add("nodeid", ColumnType.INTEGER)
+                .add("nodelabel", ColumnType.TEXT)
+                .add("nodetype", ColumnType.CHAR)
+                .add("nodesysoid", ColumnType.TEXT)
+                .add("nodeparentid", ColumnType.INTEGER)
+                .add("nodecreatetime", ColumnType.OTHER));
+        columns.put(InventoryTable.IPINTERFACE, new Columns()
+                .add("id", ColumnType.INTEGER)
+                .add("nodeid", ColumnType.INTEGER)
+                .add("ipaddr", ColumnType.TEXT)
+                .add("ismanaged", ColumnType.CHAR)
+                .add("issnmpprimary", ColumnType.CHAR)
+                .add("snmpinterfaceid", ColumnType.INTEGER));
+        columns.put(InventoryTable.SNMPINTERFACE, new Columns()
+                .add("id", ColumnType.INTEGER)
+                .add("nodeid", ColumnType.INTEGER)
+                .add("snmpifindex", ColumnType.INTEGER)
+                .add("snmpifdescr", ColumnType.TEXT));
+        columns.put(InventoryTable.IFSERVICES, new Columns()
+                .add("id", ColumnType.INTEGER)
+                .add("ipinterfaceid", ColumnType.INTEGER)
+                .add("serviceid", ColumnType.INTEGER));
+        columns.put(InventoryTable.SERVICE, new Columns()
+                .add("serviceid", ColumnType.INTEGER)
+                .add("servicename", ColumnType.TEXT));
+        columns.put(InventoryTable.ASSETS, new Columns()
+                .add("id", ColumnType.INTEGER)
+                .add("nodeid", ColumnType.INTEGER)
+                .add("building", ColumnType.TEXT));
+        columns.put(InventoryTable.CATEGORY_NODE, new Columns()
+                .add("categoryid", ColumnType.INTEGER)
+                .add("nodeid", ColumnType.INTEGER));
+        columns.put(InventoryTable.CATEGORIES, new Columns()
+                .add("categoryid", ColumnType.INTEGER)
+                .add("categoryname", ColumnType.TEXT));
+
+        final Map<InventoryTable, List<Object[]>> rows = new EnumMap<>(InventoryTable.class);
+        rows(rows, InventoryTable.NODE,
+                row(1L, "router", "A", ".1.3.6.1.4.1.9.1.1", null, FilterInventory.NOT_NULL),
+                row(2L, "server", "A", null, 1L, FilterInventory.NOT_NULL),
+                row(3L, "empty", "D", null, null, null),
+                row(4L, "switch", "A", ".1.3.6.1.4.1.9.1.2", 1L, FilterInventory.NOT_NULL));
+        rows(rows, InventoryTable.IPINTERFACE,
+                row(10L, 1L, "192.168.1.1", "M", "P", 100L),
+                row(11L, 1L, "192.168.1.2", "D", "N", null),
+                row(20L, 2L, "10.0.0.1", "M", "N", null),
+                row(40L, 4L, "fe80:0000:0000:0000:0000:0000:0000:0001", "M", "P", 400L));
+        rows(rows, InventoryTable.SNMPINTERFACE,
+                row(100L, 1L, 1L, "eth0"),
+                row(400L, 4L, 4L, "vlan_1"));
+        rows(rows, InventoryTable.IFSERVICES,
+                row(1000L, 10L, 1L),
+                row(1001L, 10L, 2L),
+                row(1100L, 11L, 1L),
+                row(2000L, 20L, 3L));
+        rows(rows, InventoryTable.SERVICE,
+                row(1L, "ICMP"),
+                row(2L, "SNMP"),
+                row(3L, "HTTP"));
+        rows(rows, InventoryTable.ASSETS,
+                row(1L, 1L, "HQ"),
+                row(4L, 4L, null));
+        rows(rows, InventoryTable.CATEGORY_NODE,
+                row(1L, 1L),
+                row(2L, 1L),
+                row(2L, 4L));
+        rows(rows, InventoryTable.CATEGORIES,
+                row(1L, "Routers"),
+                row(2L, "Production"));
+
+        m_inventory = new FilterInventory(columns, rows);
+    }
+
+    @Test
+    public void testComparisons() throws Exception {
+        assertIpAddresses("ipaddr == '192.168.1.1'", "192.168.1.1");
+        assertIpAddresses("ipaddr != '192.168.1.1'", "192.168.1.2", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("nodeid = 2", "10.0.0.1");
+        assertIpAddresses("nodeid = '2'", "10.0.0.1");
+        assertIpAddresses("nodeid > 1 & nodeid <= 2", "10.0.0.1");
+        assertIpAddresses("2 = nodeid", "10.0.0.1");
+        assertIpAddresses("nodeType = 'A'", "192.168.1.1", "192.168.1.2", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("nodeSysOID LIKE '.1.3.6.1.4.1.9.%'", "192.168.1.1", "192.168.1.2", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("nodeLabel NOT LIKE 'r_ut%'", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("nodeLabel IN ('server', 'switch')", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("nodeParentID = nodeID");
+        assertIpAddresses("nodeParentID IS NULL", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("nodeParentID IS DISTINCT FROM 1", "192.168.1.1", "192.168.1.2");
+    }
+
+    @Test
+    public void testThreeValuedLogic() throws Exception {
+        // The router has no parent, so the comparison is unknown and so is its negation
+        assertIpAddresses("!(nodeParentID = 1)");
+        assertIpAddresses("!(nodeParentID = 1) | nodeLabel == 'router'", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("nodeSysOID != '.1.3.6.1.4.1.9.1.1'", "fe80:0000:0000:0000:0000:0000:0000:0001");
+    }
+
+    @Test
+    public void testServicesAndCategories() throws Exception {
+        assertIpAddresses("isICMP", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("isSNMP | isHTTP", "192.168.1.1", "10.0.0.1");
+        assertIpAddresses("serviceID = 3", "10.0.0.1");
+        assertIpAddresses("catincProduction", "192.168.1.1", "192.168.1.2", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("catincRouters & catincProduction", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("!catincRouters", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        // Nodes without categories are left joined
+        assertIpAddresses("categoryName IS NULL", "10.0.0.1");
+        assertIpAddresses("categoryName == 'Routers'", "192.168.1.1", "192.168.1.2");
+    }
+
+    @Test
+    public void testInnerJoins() throws Exception {
+        // Only the interfaces with an SNMP interface, or nodes with assets, are part of the join
+        assertIpAddresses("snmpIfIndex > 0 | nodeid = 2", "192.168.1.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("building IS NULL | nodeid = 2", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        // Lower-case "is" is the service prefix
+        assertIpAddresses("IsManaged == 'D'", "192.168.1.2");
+    }
+
+    @Test
+    public void testIpLike() throws Exception {
+        assertIpAddresses("ipaddr IPLIKE 192.168.1.*", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("IPLIKE(ipaddr, '*.*.*.1')", "192.168.1.1", "10.0.0.1");
+        assertIpAddresses("ipaddr IPLIKE fe80:*:*:*:*:*:*:*", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        // Like the iplike function, these match both IPv4 and IPv6 addresses
+        assertIpAddresses("ipaddr IPLIKE *.*.*.*", "192.168.1.1", "192.168.1.2", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+        assertIpAddresses("ipaddr IPLIKE *:*:*:*:*:*:*:*", "192.168.1.1", "192.168.1.2", "10.0.0.1", "fe80:0000:0000:0000:0000:0000:0000:0001");
+    }
+
+    @Test
+    public void testNodeMapAndServiceMap() throws Exception {
+        final CompiledFilterRule nodeRule = CompiledFilterRule.compile(m_jdbcFilterDao.getNodeMappingStatement("catincProduction"), m_inventory);
+        final Map<Integer, String> nodes = new TreeMap<>();
+        m_inventory.forEachRow(nodeRule, row -> {
+            nodes.put(((Long)row[InventoryTable.NODE.ordinal()][0]).intValue(), (String)row[InventoryTable.NODE.ordinal()][1]);
+            return true;
+        });
+        assertEquals("{1=router, 4=switch}", nodes.toString());
+
+        // Interfaces without services are not part of the join
+        final CompiledFilterRule serviceRule = CompiledFilterRule.compile(m_jdbcFilterDao.getIPServiceMappingStatement("nodeid == 1 | nodeid == 4"), m_inventory);
+        final Set<String> services = new TreeSet<>();
+        m_inventory.forEachRow(serviceRule, row -> {
+            services.add(row[InventoryTable.IPINTERFACE.ordinal()][2] + "/" + row[InventoryTable.SERVICE.ordinal()][1]);
+            return true;
+        });
+        assertEquals("[192.168.1.1/ICMP, 192.168.1.1/SNMP, 192.168.1.2/ICMP]", services.toString());
+    }
+
+    @Test
+    public void testFastPaths() throws Exception {
+        final CompiledFilterRule nodeRule = compile("nodeid == 1 & isICMP");
+        assertEquals(Integer.valueOf(1), nodeRule.getNodeId());
+        final CompiledFilterRule ipRule = compile("(ipaddr == '10.0.0.1') & nodeLabel LIKE 's%'");
+        assertEquals("10.0.0.1", ipRule.getIpAddr());
+        assertEquals(null, compile("nodeid == 1 | isICMP").getNodeId());
+        assertIpAddresses("nodeid == 1 & isICMP", "192.168.1.1", "192.168.1.2");
+        assertIpAddresses("ipaddr == '10.0.0.1' & nodeLabel LIKE 's%'", "10.0.0.1");
+    }
+
+    @Test
+    public void testIsManagedReferenced() throws Exception {
+        // Same test on the SQL statement as the JdbcFilterDao
+        assertTrue(compile("nodeLabel == 'isManaged'").isManagedReferenced());
+        assertFalse(compile("IsManaged != 'D'").isManagedReferenced());
+        assertFalse(compile("ipaddr IPLIKE *.*.*.*").isManagedReferenced());
+    }
+
+    @Test
+    public void testUnsupportedRules() throws Exception {
+        // These are left to the database
+        assertUnsupported("notisICMP");
+        assertUnsupported("nodeLabel > 'a'");
+        assertUnsupported("nodeCreateTime > '2010-01-01'");
+        assertUnsupported("nodeLabel = 1");
+        assertUnsupported("nodeid = 'one'");
+        assertUnsupported("nodeid = 1.5");
+        assertUnsupported("name == 'app'");
+        assertUnsupported("ipaddr == '10.0.0.1' & nodeid - 1 = 1");
+        assertUnsupported("nodeLabel LIKE 'abc\\'");
+    }
+
+    private CompiledFilterRule compile(final String rule) throws Exception {
+        return CompiledFilterRule.compile(m_jdbcFilterDao.getSQLStatement(rule), m_inventory);
+    }
+
+    private void assertIpAddresses(final String rule, final String... expected) throws Exception {
+        final CompiledFilterRule compiled = compile(rule);
+        final Set<String> ipAddrs = new LinkedHashSet<>();
+        m_inventory.forEachRow(compiled, row -> {
+            ipAddrs.add((String)row[InventoryTable.IPINTERFACE.ordinal()][2]);
+            return true;
+        });
+        assertEquals(rule, new TreeSet<>(Arrays.asList(expected)), new TreeSet<>(ipAddrs));
+    }
+
+    private void assertUnsupported(final String rule) {
+        try {
+            compile(rule);
+            fail("Expected rule to be unsupported: " + rule);
+        } catch (final UnsupportedRuleException e) {
+            // expected
+        } catch (final Exception e) {
+            fail("Unexpected exception for " + rule + ": " + e);
+        }
+    }
+
+    private static Object[] row(final Object... values) {
+        return values;
+    }
+
+    private static void rows(final Map<InventoryTable, List<Object[]>> rows, final InventoryTable table, final Object[]... tableRows) {
+        rows.put(table, new ArrayList<>(Arrays.asList(tableRows)));
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.correlation.drools;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,7 +38,9 @@ import java.util.List;
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
-public class Affliction {
+public class Affliction implements Serializable {
+    private static final long serialVersionUID = -2160839408388137944L;
+
     Long m_nodeid;
     String m_ipAddr;
     String m_svcName;
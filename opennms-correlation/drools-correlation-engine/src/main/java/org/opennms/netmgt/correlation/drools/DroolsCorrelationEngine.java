@@ -28,12 +28,25 @@
 
 package org.opennms.netmgt.correlation.drools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.drools.compiler.compiler.DroolsParserException;
 import org.drools.core.RuleBaseConfiguration;
@@ -44,6 +57,7 @@ import org.kie.api.builder.KieBuilder;
 import org.kie.api.builder.KieFileSystem;
 import org.kie.api.builder.Message.Level;
 import org.kie.api.conf.EventProcessingOption;
+import org.kie.api.marshalling.Marshaller;
 import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
 import org.opennms.core.logging.Logging;
@@ -54,19 +68,34 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.io.ByteStreams;
 
 /**
  * <p>DroolsCorrelationEngine class.</p>
  *
+ * <p>When the batch size is greater than 1, events and timer expirations are
+ * queued and inserted into the session by a separate thread, which fires the
+ * rules once per batch instead of once per event.</p>
+ *
+ * <p>When the snapshot interval is greater than 0, the session (facts, agenda
+ * and session timers) and the pending engine timers are periodically written
+ * to a file in the state directory, and restored from it on initialization.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
 public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsCorrelationEngine.class);
 
+    public static final String STATE_DIRECTORY_PROPERTY = "org.opennms.netmgt.correlation.drools.stateDirectory";
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private KieBase m_kieBase;
     private KieSession m_kieSession;
     private List<String> m_interestingEvents;
     private List<Resource> m_rules;
@@ -75,7 +104,20 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     private String m_assertBehaviour;
     private String m_eventProcessingMode;
     private boolean m_isStreaming = false;
+    private int m_batchSize = 1;
+    private int m_queueSize = 10000;
+    private long m_snapshotInterval = 0;
+    private Path m_stateDirectory = Paths.get(System.getProperty(STATE_DIRECTORY_PROPERTY,
+            Paths.get(System.getProperty("opennms.home", ""), "share", "correlation").toString()));
+    private BlockingQueue<Object> m_queue;
+    private Thread m_batchThread;
+    private Thread m_fireThread;
+    private ScheduledFuture<?> m_snapshotTask;
+    private volatile boolean m_running = false;
     private final Meter m_eventsMeter;
+    private final Histogram m_batchSizeHistogram;
+    private final Timer m_ruleFiringTimer;
+    private final Timer m_snapshotTimer;
     
     public DroolsCorrelationEngine(final String name, final MetricRegistry metricRegistry) {
         this.m_name = name;
@@ -83,27 +125,102 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         metricRegistry.register(MetricRegistry.name(name, "fact-count"), factCount);
         final Gauge<Integer> pendingTasksCount = () -> { return getPendingTasksCount(); };
         metricRegistry.register(MetricRegistry.name(name, "pending-tasks-count"), pendingTasksCount);
+        final Gauge<Integer> queueSize = () -> { return m_queue == null ? 0 : m_queue.size(); };
+        metricRegistry.register(MetricRegistry.name(name, "queue-size"), queueSize);
         m_eventsMeter = metricRegistry.meter(MetricRegistry.name(name, "events"));
+        m_batchSizeHistogram = metricRegistry.histogram(MetricRegistry.name(name, "batch-size"));
+        m_ruleFiringTimer = metricRegistry.timer(MetricRegistry.name(name, "rule-firing"));
+        m_snapshotTimer = metricRegistry.timer(MetricRegistry.name(name, "snapshot"));
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void correlate(final Event e) {
-        LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
-        m_kieSession.insert(e);
-        if (!m_isStreaming) m_kieSession.fireAllRules();
-        m_eventsMeter.mark();
-        LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+    public void correlate(final Event e) {
+        if (m_queue != null) {
+            LOG.debug("Queueing Event {} uei: {}", e.getDbid(), e.getUei());
+            enqueue(e);
+            m_eventsMeter.mark();
+            return;
+        }
+        synchronized (this) {
+            LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+            m_kieSession.insert(e);
+            fireAllRules();
+            m_eventsMeter.mark();
+            LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+        }
     }
 
     /** {@inheritDoc} */
     @Override
-    protected synchronized void timerExpired(final Integer timerId) {
-        LOG.info("Begin correlation for Timer {}", timerId);
+    protected void timerExpired(final Integer timerId) {
         TimerExpired expiration  = new TimerExpired(timerId);
-        m_kieSession.insert(expiration);
-        if (!m_isStreaming) m_kieSession.fireAllRules();
-        LOG.debug("Begin correlation for Timer {}", timerId);
+        if (m_queue != null) {
+            LOG.debug("Queueing Timer {}", timerId);
+            enqueue(expiration);
+            return;
+        }
+        synchronized (this) {
+            LOG.info("Begin correlation for Timer {}", timerId);
+            m_kieSession.insert(expiration);
+            fireAllRules();
+            LOG.debug("End correlation for Timer {}", timerId);
+        }
+    }
+
+    private void fireAllRules() {
+        if (m_isStreaming) {
+            // The rules are fired by the fireUntilHalt() thread
+            return;
+        }
+        try (Timer.Context ctx = m_ruleFiringTimer.time()) {
+            m_kieSession.fireAllRules();
+        }
+    }
+
+    private void enqueue(final Object fact) {
+        try {
+            m_queue.put(fact);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while queueing {}, it will not be correlated.", fact);
+        }
+    }
+
+    /**
+     * Inserts the queued facts in batches of up to {@link #m_batchSize}, until
+     * the engine is torn down and the queue is empty.
+     */
+    private void processBatches() {
+        final List<Object> batch = new ArrayList<>(m_batchSize);
+        while (m_running || !m_queue.isEmpty()) {
+            try {
+                final Object first = m_queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            m_queue.drainTo(batch, m_batchSize - 1);
+            try {
+                insertBatch(batch);
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to correlate a batch of {} facts.", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    private synchronized void insertBatch(final List<Object> batch) {
+        LOG.debug("Begin correlation for a batch of {} facts", batch.size());
+        for (final Object fact : batch) {
+            m_kieSession.insert(fact);
+        }
+        m_batchSizeHistogram.update(batch.size());
+        fireAllRules();
+        LOG.debug("End correlation for a batch of {} facts", batch.size());
     }
 
     /** {@inheritDoc} */
@@ -168,19 +285,176 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         }
         ruleBaseConfig.setEventProcessingMode(eventProcessingOption);
 
-        KieBase kieBase = kContainer.newKieBase(ruleBaseConfig);
-        m_kieSession = kieBase.newKieSession();
+        m_kieBase = kContainer.newKieBase(ruleBaseConfig);
+
+        Map<Integer, Long> timers = null;
+        if (m_snapshotInterval > 0 && Files.exists(getSnapshotFile())) {
+            try {
+                timers = restore();
+            } catch (final Exception e) {
+                LOG.warn("Failed to restore the snapshot of engine {} from {}. Starting with an empty session.", getName(), getSnapshotFile(), e);
+            }
+        }
+        if (m_kieSession == null) {
+            m_kieSession = m_kieBase.newKieSession();
+        }
         m_kieSession.setGlobal("engine", this);
 
         for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
             m_kieSession.setGlobal(entry.getKey(), entry.getValue());
         }
 
-        if (m_isStreaming) {
-            new Thread(() -> {
+        if (timers != null) {
+            for (final Map.Entry<Integer, Long> timer : timers.entrySet()) {
+                restoreTimer(timer.getKey(), timer.getValue());
+            }
+            LOG.info("Restored {} facts and {} timers for engine {}.", m_kieSession.getFactCount(), timers.size(), getName());
+        }
+
+        m_running = true;
+        if (m_batchSize > 1) {
+            m_queue = new ArrayBlockingQueue<>(m_queueSize);
+            m_batchThread = new Thread(() -> {
                 Logging.putPrefix(getClass().getSimpleName() + '-' + getName());
-                m_kieSession.fireUntilHalt();
-            }, "FireTask").start();
+                processBatches();
+            }, "BatchTask-" + getName());
+            m_batchThread.setDaemon(true);
+            m_batchThread.start();
+        }
+
+        if (m_isStreaming) {
+            startFiring();
+        }
+
+        if (m_snapshotInterval > 0) {
+            m_snapshotTask = getScheduler().scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (final Exception e) {
+                    LOG.warn("Failed to write the snapshot of engine {} to {}.", getName(), getSnapshotFile(), e);
+                }
+            }, m_snapshotInterval, m_snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void startFiring() {
+        m_fireThread = new Thread(() -> {
+            Logging.putPrefix(getClass().getSimpleName() + '-' + getName());
+            m_kieSession.fireUntilHalt();
+        }, "FireTask");
+        m_fireThread.start();
+    }
+
+    private void stopFiring() throws IOException, InterruptedException {
+        m_kieSession.halt();
+        m_fireThread.join(TimeUnit.SECONDS.toMillis(30));
+        if (m_fireThread.isAlive()) {
+            throw new IOException("Timed out while halting the session of engine " + getName());
+        }
+        m_fireThread = null;
+    }
+
+    /**
+     * Writes the session and the pending timers to the snapshot file.
+     *
+     * The file is first written to a temporary file and then moved in place,
+     * so a failed snapshot never replaces the previous one.
+     *
+     * @throws IOException if the snapshot could not be written
+     * @throws InterruptedException if interrupted while halting a streaming session
+     */
+    public synchronized void snapshot() throws IOException, InterruptedException {
+        final Path file = getSnapshotFile();
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Timer.Context ctx = m_snapshotTimer.time()) {
+            Files.createDirectories(m_stateDirectory);
+            final boolean wasFiring = m_fireThread != null;
+            if (wasFiring) {
+                stopFiring();
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                final Map<Integer, Long> timers = getPendingTimers();
+                // Expirations that are still queued are saved as timers that expire immediately
+                if (m_queue != null) {
+                    for (final Object fact : m_queue) {
+                        if (fact instanceof TimerExpired) {
+                            timers.put(((TimerExpired)fact).getId(), 0L);
+                        }
+                    }
+                }
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(timers.size());
+                for (final Map.Entry<Integer, Long> timer : timers.entrySet()) {
+                    out.writeInt(timer.getKey());
+                    out.writeLong(timer.getValue());
+                }
+                getMarshaller().marshall(out, m_kieSession);
+            } finally {
+                if (wasFiring) {
+                    startFiring();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        LOG.debug("Wrote the snapshot of engine {} to {}.", getName(), file);
+    }
+
+    /**
+     * Replaces the session with the one from the snapshot file.
+     *
+     * @return the timers that were pending when the snapshot was taken
+     */
+    private Map<Integer, Long> restore() throws IOException, ClassNotFoundException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getSnapshotFile())))) {
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            final int timerCount = in.readInt();
+            final Map<Integer, Long> timers = new HashMap<>();
+            for (int i = 0; i < timerCount; i++) {
+                timers.put(in.readInt(), in.readLong());
+            }
+            m_kieSession = getMarshaller().unmarshall(in);
+            return timers;
+        }
+    }
+
+    private Marshaller getMarshaller() {
+        return KieServices.Factory.get().getMarshallers().newMarshaller(m_kieBase);
+    }
+
+    private Path getSnapshotFile() {
+        return m_stateDirectory.resolve(getName() + ".snapshot");
+    }
+
+    /**
+     * Processes the queued facts, writes a final snapshot and stops the
+     * threads of the engine.
+     */
+    @Override
+    public void tearDown() {
+        m_running = false;
+        if (m_snapshotTask != null) {
+            m_snapshotTask.cancel(false);
+        }
+        try {
+            if (m_batchThread != null) {
+                m_batchThread.join(TimeUnit.SECONDS.toMillis(30));
+            }
+            if (m_snapshotInterval > 0) {
+                snapshot();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            LOG.warn("Failed to write the snapshot of engine {} to {}.", getName(), getSnapshotFile(), e);
+        }
+        synchronized (this) {
+            if (m_fireThread != null) {
+                m_kieSession.halt();
+                m_fireThread = null;
+            }
         }
     }
 
@@ -233,4 +507,28 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     public void setEventProcessingMode(String eventProcessingMode) {
         this.m_eventProcessingMode = eventProcessingMode;
     }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = Math.max(1, batchSize);
+    }
+
+    public void setQueueSize(int queueSize) {
+        m_queueSize = Math.max(1, queueSize);
+    }
+
+    public long getSnapshotInterval() {
+        return m_snapshotInterval;
+    }
+
+    public void setSnapshotInterval(long snapshotInterval) {
+        m_snapshotInterval = snapshotInterval;
+    }
+
+    public void setStateDirectory(Path stateDirectory) {
+        m_stateDirectory = stateDirectory;
+    }
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.correlation.drools;
 
+import java.io.Serializable;
+
 import org.opennms.netmgt.xml.event.Event;
 
 /**
@@ -36,7 +38,9 @@ import org.opennms.netmgt.xml.event.Event;
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
-public class EventParameter {
+public class EventParameter implements Serializable {
+    private static final long serialVersionUID = -5197034693664548972L;
+
     private String m_name;
     private Object m_value;
     private Event m_event;
@@ -84,6 +84,15 @@ public class RuleSet implements Serializable {
 
     @XmlAttribute(name = "event-processing-mode")
     private String _eventProcessingMode;
+
+    @XmlAttribute(name = "batch-size")
+    private Integer _batchSize;
+
+    @XmlAttribute(name = "queue-size")
+    private Integer _queueSize;
+
+    @XmlAttribute(name = "snapshot-interval")
+    private Long _snapshotInterval;
     
     @XmlElement(name = "rule-file")
     private List<String> _ruleFileList;
@@ -119,6 +128,30 @@ public class RuleSet implements Serializable {
     public void setEventProcessingMode(String eventProcessingMode) {
         this._eventProcessingMode = eventProcessingMode;
     }
+
+    public int getBatchSize() {
+        return _batchSize == null ? 1 : _batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this._batchSize = batchSize;
+    }
+
+    public int getQueueSize() {
+        return _queueSize == null ? 10000 : _queueSize;
+    }
+
+    public void setQueueSize(Integer queueSize) {
+        this._queueSize = queueSize;
+    }
+
+    public long getSnapshotInterval() {
+        return _snapshotInterval == null ? 0 : _snapshotInterval;
+    }
+
+    public void setSnapshotInterval(Long snapshotInterval) {
+        this._snapshotInterval = snapshotInterval;
+    }
     
     /**
      *
@@ -841,6 +874,9 @@ public class RuleSet implements Serializable {
         final DroolsCorrelationEngine engine = new DroolsCorrelationEngine(getName(), metricRegistry);
         engine.setAssertBehaviour(getAssertBehaviour());
         engine.setEventProcessingMode(getEventProcessingMode());
+        engine.setBatchSize(getBatchSize());
+        engine.setQueueSize(getQueueSize());
+        engine.setSnapshotInterval(getSnapshotInterval());
         engine.setEventIpcManager(eventIpcManager);
         engine.setScheduler(new ScheduledThreadPoolExecutor(1));
         engine.setInterestingEvents(getInterestingEvents());
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.correlation.drools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.FileSystemResource;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class DroolsCorrelationEngineSnapshotTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private ScheduledThreadPoolExecutor m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.shutdownNow();
+    }
+
+    @Test
+    public void canRestoreFactsAndTimersFromSnapshot() throws Exception {
+        final DroolsCorrelationEngine engine = createEngine();
+        engine.correlate(createRemoteNodeLostServiceEvent(7));
+        engine.correlate(createRemoteNodeLostServiceEvent(8));
+        // Processes the queued events and writes the last snapshot
+        engine.tearDown();
+
+        // One affliction, with a flap (and its timer) per location monitor
+        assertEquals(3, engine.getKieSessionObjects().size());
+        assertEquals(2, engine.getPendingTasksCount());
+
+        final DroolsCorrelationEngine restoredEngine = createEngine();
+        try {
+            assertEquals(3, restoredEngine.getKieSessionObjects().size());
+            assertEquals(2, restoredEngine.getPendingTasksCount());
+            assertTrue(restoredEngine.getKieSessionObjects().stream().anyMatch(f -> f instanceof Affliction));
+        } finally {
+            restoredEngine.tearDown();
+        }
+    }
+
+    private DroolsCorrelationEngine createEngine() throws Exception {
+        final Map<String, Object> globals = new HashMap<>();
+        globals.put("WIDE_SPREAD_THRESHOLD", 3);
+        globals.put("FLAP_INTERVAL", 60000L);
+        globals.put("FLAP_COUNT", 3);
+
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("locationMonitorRules", new MetricRegistry());
+        engine.setEventIpcManager(new MockEventIpcManager());
+        engine.setScheduler(m_scheduler);
+        engine.setInterestingEvents(Collections.singletonList(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI));
+        engine.setRulesResources(Collections.singletonList(new FileSystemResource(
+                "src/test/opennms-home/etc/drools-engine.d/locationMonitorRules/LocationMonitorRules.drl")));
+        engine.setGlobals(globals);
+        engine.setAssertBehaviour("identity");
+        engine.setBatchSize(10);
+        engine.setSnapshotInterval(60000);
+        engine.setStateDirectory(m_tempFolder.getRoot().toPath());
+        engine.initialize();
+        return engine;
+    }
+
+    private static Event createRemoteNodeLostServiceEvent(int locationMonitor) {
+        return new EventBuilder(EventConstants.REMOTE_NODE_LOST_SERVICE_UEI, "test")
+                .setNodeid(1).setInterface(addr("192.168.1.1"))
+                .setService("HTTP")
+                .addParam(EventConstants.PARM_LOCATION_MONITOR_ID, locationMonitor)
+                .getEvent();
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.correlation;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
@@ -112,6 +113,37 @@ public abstract class AbstractCorrelationEngine implements CorrelationEngine {
         return m_pendingTasks.size();
     }
 
+    /**
+     * Returns the number of milliseconds remaining for each of the pending
+     * timers, keyed by timer id.
+     *
+     * @return a {@link java.util.Map} object.
+     */
+    public Map<Integer, Long> getPendingTimers() {
+        final Map<Integer, Long> timers = new HashMap<>();
+        for (final Map.Entry<Integer, ScheduledFuture<?>> entry : m_pendingTasks.entrySet()) {
+            timers.put(entry.getKey(), Math.max(0L, entry.getValue().getDelay(TimeUnit.MILLISECONDS)));
+        }
+        return timers;
+    }
+
+    /**
+     * Schedules a timer that was previously returned by {@link #setTimer(long)},
+     * keeping its id so that the facts that refer to it still match when it expires.
+     *
+     * @param timerId a {@link java.lang.Integer} object.
+     * @param millis a long.
+     */
+    public void restoreTimer(final Integer timerId, final long millis) {
+        s_lastTimerId.accumulateAndGet(timerId, Math::max);
+        final RuleTimerTask timerTask = new RuleTimerTask(timerId);
+        final ScheduledFuture<?> future = m_scheduler.schedule(timerTask, millis, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> previous = m_pendingTasks.put(timerId, future);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+    }
+
     /**
      * <p>timerExpired</p>
      *
@@ -127,6 +159,15 @@ public abstract class AbstractCorrelationEngine implements CorrelationEngine {
     public void setScheduler(final ScheduledExecutorService scheduler) {
         m_scheduler = scheduler;
     }
+
+    /**
+     * <p>getScheduler</p>
+     *
+     * @return a {@link java.util.concurrent.ScheduledExecutorService} object.
+     */
+    protected ScheduledExecutorService getScheduler() {
+        return m_scheduler;
+    }
     
     /**
      * <p>runTimer</p>
@@ -143,7 +184,11 @@ public abstract class AbstractCorrelationEngine implements CorrelationEngine {
         private final Integer m_id;
         
         public RuleTimerTask() {
-            m_id = s_lastTimerId.incrementAndGet();
+            this(s_lastTimerId.incrementAndGet());
+        }
+
+        public RuleTimerTask(final Integer id) {
+            m_id = id;
         }
         
         public Integer getId() {
@@ -61,4 +61,11 @@ public interface CorrelationEngine {
 	 */
 	void correlate(Event e);
 
+	/**
+	 * Called when the correlator is stopped, after the engine no longer
+	 * receives events.
+	 */
+	default void tearDown() {
+	}
+
 }
@@ -88,6 +88,11 @@ public class Correlator extends AbstractServiceDaemon implements CorrelationEngi
 		public void onEvent(final Event e) {
 			m_engine.correlate(e);
 		}
+
+		public void close() {
+			m_eventIpcManager.removeEventListener(this);
+			m_engine.tearDown();
+		}
 		
 	}
 
@@ -113,6 +118,19 @@ public class Correlator extends AbstractServiceDaemon implements CorrelationEngi
 		
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected void onStop() {
+		for (final EngineAdapter adapter : m_adapters) {
+			try {
+				adapter.close();
+			} catch (final Exception e) {
+				LOG.warn("Failed to stop correlation engine {}", adapter.getName(), e);
+			}
+		}
+		m_adapters.clear();
+	}
+
 	/**
 	 * <p>setCorrelationEngines</p>
 	 *
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.correlation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Event;
+
+public class AbstractCorrelationEngineTest {
+
+    private final BlockingQueue<Integer> m_expired = new LinkedBlockingQueue<>();
+
+    private ScheduledThreadPoolExecutor m_scheduler;
+
+    private AbstractCorrelationEngine m_engine;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new ScheduledThreadPoolExecutor(1);
+        m_engine = new AbstractCorrelationEngine() {
+            @Override
+            public void correlate(Event e) {
+            }
+
+            @Override
+            public List<String> getInterestingEvents() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            protected void timerExpired(Integer timerId) {
+                m_expired.add(timerId);
+            }
+
+            @Override
+            public String getName() {
+                return "test";
+            }
+        };
+        m_engine.setScheduler(m_scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.shutdownNow();
+    }
+
+    @Test
+    public void canListPendingTimers() {
+        final Integer timerId = m_engine.setTimer(TimeUnit.MINUTES.toMillis(1));
+
+        final Map<Integer, Long> timers = m_engine.getPendingTimers();
+        assertEquals(1, timers.size());
+        assertTrue(timers.get(timerId) > 0);
+        assertTrue(timers.get(timerId) <= TimeUnit.MINUTES.toMillis(1));
+
+        m_engine.cancelTimer(timerId);
+        assertEquals(0, m_engine.getPendingTimers().size());
+    }
+
+    @Test
+    public void canRestoreTimers() throws InterruptedException {
+        final Integer restoredId = m_engine.setTimer(TimeUnit.MINUTES.toMillis(1)) + 1000;
+
+        m_engine.restoreTimer(restoredId, 10);
+        assertEquals(restoredId, m_expired.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, m_engine.getPendingTasksCount());
+
+        // Timers created after the restore must not reuse the restored id
+        assertTrue(m_engine.setTimer(TimeUnit.MINUTES.toMillis(1)) > restoredId);
+    }
+}
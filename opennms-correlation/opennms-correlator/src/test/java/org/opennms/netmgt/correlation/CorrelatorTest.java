@@ -63,11 +63,13 @@ public class CorrelatorTest extends TestCase {
 		expect(m_engine.getInterestingEvents()).andReturn(interestingEvents);
 
 		m_eventIpcManager.addEventListener(isA(EventListener.class), same(interestingEvents));
-
-		replayMocks();
 	}
 
 	public void testStartStop() throws Exception {
+		m_eventIpcManager.removeEventListener(isA(EventListener.class));
+		m_engine.tearDown();
+
+		replayMocks();
 
 		m_correlator = new Correlator();
 		m_correlator.setEventIpcManager(m_eventIpcManager);
@@ -84,6 +86,7 @@ public class CorrelatorTest extends TestCase {
 	}
 	
 	public void testRegisterForEvents() throws Exception {
+		replayMocks();
 
 		m_correlator = new Correlator();
 		m_correlator.setEventIpcManager(m_eventIpcManager);
@@ -32,6 +32,8 @@ package org.opennms.netmgt.dao.api;
 import java.util.List;
 import java.util.Set;
 
+import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
 import org.opennms.netmgt.model.topology.BroadcastDomain;
 import org.opennms.netmgt.model.topology.SharedSegment;
 
@@ -57,4 +59,7 @@ public interface BridgeTopologyDao {
 
     Set<BroadcastDomain> getAllPersisted(BridgeBridgeLinkDao bridgeBridgeLinkDao, BridgeMacLinkDao bridgeMacLinkDao);
 
+    // build the BroadcastDomains from links that were already loaded
+    Set<BroadcastDomain> getAllPersisted(List<BridgeBridgeLink> bridgeBridgeLinks, List<BridgeMacLink> bridgeMacLinks);
+
 }
@@ -28,8 +28,10 @@
 
 package org.opennms.netmgt.dao.api;
 
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -37,6 +39,27 @@ public interface EventDao extends LegacyOnmsDao<OnmsEvent, Integer> {
 
     int deletePreviousEventsForAlarm(final Integer id, final OnmsEvent e);
 
+    /**
+     * Associates the given events with the alarm using bulk updates, without
+     * loading the events.
+     *
+     * @param alarm the alarm
+     * @param eventIds the ids of the events
+     * @return the number of events that were updated
+     */
+    int updateAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds);
+
+    /**
+     * Inserts the given new events with a single batched statement and sets
+     * their ids. The ids are allocated in blocks from the same sequence, and
+     * with the same algorithm, as the ones assigned by {@link #save(Object)}.
+     *
+     * The events are not associated with the current session.
+     *
+     * @param events the events to insert
+     */
+    void saveAll(final List<OnmsEvent> events);
+
     /**
      * Returns a list of events which have been created
      * AFTER date and the uei of each event matches one uei entry of the ueiList.
@@ -28,13 +28,28 @@
 
 package org.opennms.netmgt.dao.api;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Maps the IP addresses of the interfaces to the IDs of their nodes, by location.
+ *
+ * Lookups are lock-free: the bulk of the addresses are kept in an immutable
+ * snapshot that is replaced as a whole by {@link #setManagedAddresses(Map)},
+ * and the addresses that are added or removed afterwards are kept in a
+ * concurrent map of changes that is checked first. Once there are enough
+ * changes, they are merged into a new snapshot.
+ *
+ * IPv4 addresses are keyed on a long that combines a numeric ID for the location
+ * with the address, so that the snapshot does not need to hold any key objects.
+ */
 public class InterfaceToNodeMap {
 
     public static class LocationIpAddressKey {
@@ -79,65 +94,277 @@ public class InterfaceToNodeMap {
         }
     }
 
-    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
-    private final Map<LocationIpAddressKey,Integer> m_managedAddresses = new HashMap<>();
+    /**
+     * Stored in the changes for the addresses that were removed since the snapshot was built.
+     */
+    private static final int REMOVED = -1;
+
+    private static final int MIN_CHANGES_BEFORE_MERGE = 1024;
+
+    /**
+     * Assigns a numeric ID to every location, the IDs are never reused.
+     */
+    private final ConcurrentMap<String, Integer> m_locationIds = new ConcurrentHashMap<>();
+
+    private final Object m_writeLock = new Object();
+
+    private volatile State m_state = new State(new Snapshot(0));
+
+    private volatile int m_size = 0;
+
+    /**
+     * A snapshot and the changes that were made since, they are always read together.
+     */
+    private static class State {
+        private final Snapshot m_snapshot;
+        private final ConcurrentMap<Object, Integer> m_changes = new ConcurrentHashMap<>();
+
+        private State(Snapshot snapshot) {
+            m_snapshot = snapshot;
+        }
+
+        private int getNodeId(long ipv4Key, IpAddressKey key) {
+            if (!m_changes.isEmpty()) {
+                final Integer nodeId = key == null ? m_changes.get(ipv4Key) : m_changes.get(key);
+                if (nodeId != null) {
+                    return nodeId.intValue();
+                }
+            }
+            return key == null ? m_snapshot.get(ipv4Key) : m_snapshot.get(key);
+        }
+    }
+
+    /**
+     * An immutable map of addresses to node IDs.
+     *
+     * The IPv4 addresses are stored in an open addressing table of primitives.
+     */
+    private static class Snapshot {
+        private static final long EMPTY = -1L;
+
+        private final long[] m_ipv4Keys;
+        private final int[] m_ipv4NodeIds;
+        private final int m_ipv4Mask;
+        private final Map<IpAddressKey, Integer> m_otherAddresses = new HashMap<>();
+
+        private Snapshot(int expectedSize) {
+            // Keep the load factor below 0.5
+            int capacity = 16;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            m_ipv4Keys = new long[capacity];
+            m_ipv4NodeIds = new int[capacity];
+            m_ipv4Mask = capacity - 1;
+            Arrays.fill(m_ipv4Keys, EMPTY);
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32)) & mask;
+        }
+
+        /**
+         * Should only be called while the snapshot is being built.
+         */
+        private void put(long key, int nodeId) {
+            int i = slot(key, m_ipv4Mask);
+            while (m_ipv4Keys[i] != EMPTY && m_ipv4Keys[i] != key) {
+                i = (i + 1) & m_ipv4Mask;
+            }
+            m_ipv4Keys[i] = key;
+            m_ipv4NodeIds[i] = nodeId;
+        }
+
+        private int get(long key) {
+            int i = slot(key, m_ipv4Mask);
+            long k;
+            while ((k = m_ipv4Keys[i]) != EMPTY) {
+                if (k == key) {
+                    return m_ipv4NodeIds[i];
+                }
+                i = (i + 1) & m_ipv4Mask;
+            }
+            return -1;
+        }
+
+        private int get(IpAddressKey key) {
+            final Integer nodeId = m_otherAddresses.get(key);
+            return nodeId == null ? -1 : nodeId.intValue();
+        }
+    }
+
+    /**
+     * Key for the addresses that are not IPv4 addresses.
+     */
+    private static class IpAddressKey {
+        private final int m_locationId;
+        private final byte[] m_address;
+        private final int m_hashCode;
+
+        private IpAddressKey(int locationId, byte[] address) {
+            m_locationId = locationId;
+            m_address = address;
+            m_hashCode = 31 * locationId + Arrays.hashCode(address);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) { return true; }
+            if (!(obj instanceof IpAddressKey)) { return false; }
+            final IpAddressKey other = (IpAddressKey)obj;
+            return m_locationId == other.m_locationId && Arrays.equals(m_address, other.m_address);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hashCode;
+        }
+    }
+
+    private static String normalize(String location) {
+        // Use the default location when location is null, like LocationIpAddressKey
+        return location != null ? location : MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID;
+    }
+
+    private int getOrCreateLocationId(String location) {
+        final String name = normalize(location);
+        Integer id = m_locationIds.get(name);
+        if (id == null) {
+            synchronized (m_locationIds) {
+                id = m_locationIds.get(name);
+                if (id == null) {
+                    id = m_locationIds.size();
+                    m_locationIds.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    private static long ipv4Key(int locationId, InetAddress address) {
+        final byte[] b = address.getAddress();
+        final long ip = ((b[0] & 0xFFL) << 24) | ((b[1] & 0xFFL) << 16) | ((b[2] & 0xFFL) << 8) | (b[3] & 0xFFL);
+        return ((long)locationId << 32) | ip;
+    }
+
+    private static Object changeKey(int locationId, InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return ipv4Key(locationId, address);
+        }
+        return new IpAddressKey(locationId, address.getAddress());
+    }
+
+    private static int getNodeId(State state, Object key) {
+        if (key instanceof Long) {
+            return state.getNodeId((Long)key, null);
+        }
+        return state.getNodeId(0, (IpAddressKey)key);
+    }
 
     public int addManagedAddress(String location, InetAddress address, int nodeId) {
-        m_lock.writeLock().lock();
-        try {
-            Integer retval = m_managedAddresses.put(new LocationIpAddressKey(location, address), nodeId);
-            return retval == null ? -1 : retval.intValue();
-        } finally {
-            m_lock.writeLock().unlock();
+        Objects.requireNonNull(address);
+        synchronized (m_writeLock) {
+            final State state = m_state;
+            final Object key = changeKey(getOrCreateLocationId(location), address);
+            final int previous = getNodeId(state, key);
+            state.m_changes.put(key, nodeId);
+            if (previous == -1) {
+                m_size++;
+            }
+            mergeChangesIfNeeded(state);
+            return previous;
         }
     }
 
     public int removeManagedAddress(String location, InetAddress address) {
-        m_lock.writeLock().lock();
-        try {
-            Integer retval = m_managedAddresses.remove(new LocationIpAddressKey(location, address));
-            return retval == null ? -1 : retval.intValue();
-        } finally {
-            m_lock.writeLock().unlock();
+        Objects.requireNonNull(address);
+        synchronized (m_writeLock) {
+            final Integer locationId = m_locationIds.get(normalize(location));
+            if (locationId == null) {
+                return -1;
+            }
+            final State state = m_state;
+            final Object key = changeKey(locationId, address);
+            final int previous = getNodeId(state, key);
+            if (previous != -1) {
+                state.m_changes.put(key, REMOVED);
+                m_size--;
+                mergeChangesIfNeeded(state);
+            }
+            return previous;
         }
     }
 
     public int size() {
-        m_lock.readLock().lock();
-        try {
-            return m_managedAddresses.size();
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return m_size;
     }
 
     public int getNodeId(String location, InetAddress address) {
-        m_lock.readLock().lock();
-        try {
-            Integer retval = m_managedAddresses.get(new LocationIpAddressKey(location, address));
-            return retval == null ? -1 : retval.intValue();
-        } finally {
-            m_lock.readLock().unlock();
+        final Integer locationId = m_locationIds.get(normalize(location));
+        if (locationId == null) {
+            return -1;
+        }
+        final State state = m_state;
+        if (address instanceof Inet4Address) {
+            return state.getNodeId(ipv4Key(locationId, address), null);
         }
+        return state.getNodeId(0, new IpAddressKey(locationId, address.getAddress()));
     }
 
     public void setManagedAddresses(Map<LocationIpAddressKey,Integer> addresses) {
-        m_lock.writeLock().lock();
-        try {
-            m_managedAddresses.clear();
-            m_managedAddresses.putAll(addresses);
-        } finally {
-            m_lock.writeLock().unlock();
+        synchronized (m_writeLock) {
+            final Snapshot snapshot = new Snapshot(addresses.size());
+            for (Entry<LocationIpAddressKey, Integer> entry : addresses.entrySet()) {
+                final Object key = changeKey(getOrCreateLocationId(entry.getKey().getLocation()), entry.getKey().getIpAddress());
+                put(snapshot, key, entry.getValue());
+            }
+            m_state = new State(snapshot);
+            m_size = addresses.size();
         }
     }
 
+    private static void put(Snapshot snapshot, Object key, int nodeId) {
+        if (key instanceof Long) {
+            snapshot.put((Long)key, nodeId);
+        } else {
+            snapshot.m_otherAddresses.put((IpAddressKey)key, nodeId);
+        }
+    }
+
+    /**
+     * Builds a new snapshot once the number of changes grows past an eighth of the
+     * snapshot, so that lookups rarely need to go through the map of changes.
+     *
+     * Must be called while holding the write lock.
+     */
+    private void mergeChangesIfNeeded(State state) {
+        if (state.m_changes.size() < Math.max(MIN_CHANGES_BEFORE_MERGE, m_size / 8)) {
+            return;
+        }
+        final Snapshot previous = state.m_snapshot;
+        final Snapshot snapshot = new Snapshot(m_size);
+        for (int i = 0; i < previous.m_ipv4Keys.length; i++) {
+            final long key = previous.m_ipv4Keys[i];
+            if (key != Snapshot.EMPTY && !state.m_changes.containsKey(key)) {
+                snapshot.put(key, previous.m_ipv4NodeIds[i]);
+            }
+        }
+        for (Entry<IpAddressKey, Integer> entry : previous.m_otherAddresses.entrySet()) {
+            if (!state.m_changes.containsKey(entry.getKey())) {
+                snapshot.m_otherAddresses.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Entry<Object, Integer> change : state.m_changes.entrySet()) {
+            if (change.getValue().intValue() != REMOVED) {
+                put(snapshot, change.getKey(), change.getValue());
+            }
+        }
+        m_state = new State(snapshot);
+    }
+
     @Override
     public String toString() {
-        m_lock.readLock().lock();
-        try {
-            return String.format("InterfaceToNodeMap[managedAddresses='%s']", m_managedAddresses);
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return String.format("InterfaceToNodeMap[size=%d, locations=%s]", m_size, m_locationIds.keySet());
     }
 }
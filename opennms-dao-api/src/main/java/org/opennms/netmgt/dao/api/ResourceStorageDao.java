@@ -151,4 +151,17 @@ public interface ResourceStorageDao {
      * Retrieves the meta-data stored at the given path.
      */
     public Map<String,String> getMetaData(ResourcePath path);
+
+    /**
+     * Notifies the DAO that metrics were persisted at the given path
+     * by a component that writes them directly, without using this DAO.
+     *
+     * Implementations that keep track of the resource tree can use this
+     * to update their view without having to rescan the storage.
+     *
+     * @param path resource path containing the metrics
+     */
+    public default void metricsPersisted(ResourcePath path) {
+        // Nothing to do by default
+    }
 }
@@ -28,10 +28,112 @@
 
 package org.opennms.netmgt.dao.api;
 
+import java.util.List;
+
+import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.CdpElement;
+import org.opennms.netmgt.model.CdpLink;
+import org.opennms.netmgt.model.IpNetToMedia;
+import org.opennms.netmgt.model.LldpElement;
+import org.opennms.netmgt.model.LldpLink;
+import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSnmpInterface;
+import org.opennms.netmgt.model.OspfLink;
 
 public interface TopologyDao {
 
     OnmsNode getDefaultFocusPoint();
 
+    /**
+     * Retrieves all of the nodes, with only the id, label, type, sysObjectId,
+     * sysName and sysLocation populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<OnmsNode> getNodesForTopology();
+
+    /**
+     * Retrieves all of the IP interfaces, with only the id, node id, IP address,
+     * isManaged, isSnmpPrimary and ifIndex populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<OnmsIpInterface> getIpInterfacesForTopology();
+
+    /**
+     * Retrieves all of the SNMP interfaces, with only the id, node id, ifIndex,
+     * ifName, ifSpeed and netMask populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<OnmsSnmpInterface> getSnmpInterfacesForTopology();
+
+    /**
+     * Retrieves all of the IP to MAC address mappings, with only the
+     * id, IP address and MAC address populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<IpNetToMedia> getIpNetToMediaForTopology();
+
+    /**
+     * Retrieves all of the LLDP elements, with only the id, node id,
+     * chassis id, chassis id sub-type and sysname populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<LldpElement> getLldpElementsForTopology();
+
+    /**
+     * Retrieves all of the LLDP links, with only the id, node id, local
+     * and remote port ids, sub-types and descriptions, port ifIndex,
+     * remote chassis id, chassis id sub-type and sysname populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<LldpLink> getLldpLinksForTopology();
+
+    /**
+     * Retrieves all of the OSPF links, with only the id, node id, ifIndex
+     * and the local and remote addresses populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<OspfLink> getOspfLinksForTopology();
+
+    /**
+     * Retrieves all of the CDP elements, with only the id, node id and
+     * global device id populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<CdpElement> getCdpElementsForTopology();
+
+    /**
+     * Retrieves all of the CDP links, with only the id, node id, ifIndex,
+     * interface name and the cache address, address type, device id and
+     * device port populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<CdpLink> getCdpLinksForTopology();
+
+    /**
+     * Retrieves all of the bridge to bridge links, with only the id, node id,
+     * bridge port, ifIndex, ifName and vlan of both the bridge and the
+     * designated bridge populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<BridgeBridgeLink> getBridgeBridgeLinksForTopology();
+
+    /**
+     * Retrieves all of the bridge to MAC address links, with only the id,
+     * node id, bridge port, ifIndex, ifName, vlan and MAC address populated.
+     *
+     * The returned instances are not attached to a session.
+     */
+    List<BridgeMacLink> getBridgeMacLinksForTopology();
 }
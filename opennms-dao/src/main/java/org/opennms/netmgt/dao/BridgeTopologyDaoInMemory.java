@@ -150,9 +150,14 @@ MACLINK:        for (BridgeMacLink link : bridgeMacLinkDao.findByNodeId(nodeid))
 
     @Override
     public Set<BroadcastDomain> getAllPersisted(BridgeBridgeLinkDao bridgeBridgeLinkDao,BridgeMacLinkDao bridgeMacLinkDao) {
+        return getAllPersisted(bridgeBridgeLinkDao.findAll(), bridgeMacLinkDao.findAll());
+    }
+
+    @Override
+    public Set<BroadcastDomain> getAllPersisted(List<BridgeBridgeLink> bridgeBridgeLinks, List<BridgeMacLink> bridgeMacLinks) {
         List<SharedSegment> segments = new ArrayList<SharedSegment>();
 
-BRIDGELINK:        for (BridgeBridgeLink link : bridgeBridgeLinkDao.findAll()) {
+BRIDGELINK:        for (BridgeBridgeLink link : bridgeBridgeLinks) {
             for (SharedSegment segment : segments) {
                 if (segment.containsPort(link.getNode().getId(),
                                          link.getBridgePort())
@@ -168,7 +173,7 @@ BRIDGELINK:        for (BridgeBridgeLink link : bridgeBridgeLinkDao.findAll()) {
             segments.add(segment);
         }
 
-MACLINK:  for (BridgeMacLink link : bridgeMacLinkDao.findAll()) {
+MACLINK:  for (BridgeMacLink link : bridgeMacLinks) {
             link.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
             for (SharedSegment segment : segments) {
                 if (segment.containsMac(link.getMacAddress())
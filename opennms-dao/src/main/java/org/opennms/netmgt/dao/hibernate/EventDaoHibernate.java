@@ -30,17 +30,54 @@ package org.opennms.netmgt.dao.hibernate;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.hibernate3.HibernateCallback;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import javax.persistence.SequenceGenerator;
+
 public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer> implements EventDao {
 
+    /**
+     * Keep the number of bind parameters well below the limits of the JDBC drivers.
+     */
+    private static final int MAX_IDS_PER_UPDATE = 1000;
+
+    /**
+     * Hibernate maps the sequence generator of {@link OnmsEvent#getId()} to a hi/lo
+     * generator, where every value fetched from the sequence reserves a block of
+     * allocationSize ids. {@link #saveAll(List)} reserves the same blocks so that
+     * both can be used at the same time.
+     */
+    private static final int ID_BLOCK_SIZE = getIdBlockSize();
+
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events (eventId, eventUei, nodeId, eventTime, eventHost, eventSource, ipAddr, " +
+            "systemId, eventSnmpHost, serviceId, eventSnmp, eventParms, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, " +
+            "eventSeverity, eventPathOutage, eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, " +
+            "eventOperAction, eventOperActionMenuText, eventNotification, eventTTicket, eventTTicketState, eventForward, " +
+            "eventMouseOverText, eventLog, eventDisplay, ifIndex, eventAckUser, eventAckTime, alarmId) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Object m_idLock = new Object();
+
+    private long m_nextId = 0;
+
+    private long m_idsLeft = 0;
+
 	public EventDaoHibernate() {
 		super(OnmsEvent.class);
 	}
@@ -53,6 +90,146 @@ public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer>
         return bulkDelete(hql, values);
     }
 
+    @Override
+    public int updateAlarmForEvents(final OnmsAlarm alarm, final Collection<Integer> eventIds) {
+        final String hql = "update OnmsEvent set alarm = :alarm where id in (:eventIds)";
+        final List<Integer> ids = new ArrayList<>(eventIds);
+
+        int updated = 0;
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_UPDATE) {
+            final List<Integer> chunk = ids.subList(i, Math.min(i + MAX_IDS_PER_UPDATE, ids.size()));
+            updated += getHibernateTemplate().execute(new HibernateCallback<Integer>() {
+                @Override
+                public Integer doInHibernate(Session session) throws HibernateException, SQLException {
+                    return session.createQuery(hql)
+                            .setEntity("alarm", alarm)
+                            .setParameterList("eventIds", chunk)
+                            .executeUpdate();
+                }
+            });
+        }
+        return updated;
+    }
+
+    @Override
+    public void saveAll(final List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        getHibernateTemplate().execute(new HibernateCallback<Void>() {
+            @Override
+            public Void doInHibernate(Session session) throws HibernateException, SQLException {
+                final long[] ids = allocateIds(session, events.size());
+                session.doWork(new Work() {
+                    @Override
+                    public void execute(Connection connection) throws SQLException {
+                        try (final PreparedStatement stmt = connection.prepareStatement(INSERT_EVENT_SQL)) {
+                            for (int i = 0; i < ids.length; i++) {
+                                setParameters(stmt, events.get(i), ids[i]);
+                                stmt.addBatch();
+                            }
+                            stmt.executeBatch();
+                        }
+                    }
+                });
+                for (int i = 0; i < ids.length; i++) {
+                    events.get(i).setId((int)ids[i]);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Allocates ids from the blocks that were reserved previously, and reserves
+     * as many new blocks as needed with a single query.
+     */
+    private long[] allocateIds(final Session session, final int count) {
+        final long[] ids = new long[count];
+        synchronized (m_idLock) {
+            int i = 0;
+            while (i < count) {
+                if (m_idsLeft == 0) {
+                    final int blocks = (count - i + ID_BLOCK_SIZE - 1) / ID_BLOCK_SIZE;
+                    final List<?> his = session.createSQLQuery("SELECT nextval('eventsNxtId') FROM generate_series(1, :blocks)")
+                            .setInteger("blocks", blocks)
+                            .list();
+                    // Hand out the blocks now, and keep whatever is left of the last one
+                    for (final Object hi : his) {
+                        final long first = ((Number)hi).longValue() * ID_BLOCK_SIZE;
+                        // Same as Hibernate, never use 0 as an id
+                        for (long id = first == 0 ? 1 : first; id < first + ID_BLOCK_SIZE; id++) {
+                            if (i < count) {
+                                ids[i++] = id;
+                            } else {
+                                if (m_idsLeft == 0) {
+                                    m_nextId = id;
+                                }
+                                m_idsLeft++;
+                            }
+                        }
+                    }
+                } else {
+                    ids[i++] = m_nextId++;
+                    m_idsLeft--;
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void setParameters(final PreparedStatement stmt, final OnmsEvent event, final long id) throws SQLException {
+        int i = 1;
+        stmt.setInt(i++, (int)id);
+        stmt.setString(i++, event.getEventUei());
+        stmt.setObject(i++, event.getNode() == null ? null : event.getNode().getId(), Types.INTEGER);
+        stmt.setTimestamp(i++, toTimestamp(event.getEventTime()));
+        stmt.setString(i++, event.getEventHost());
+        stmt.setString(i++, event.getEventSource());
+        stmt.setString(i++, event.getIpAddr() == null ? null : InetAddressUtils.str(event.getIpAddr()));
+        stmt.setString(i++, event.getDistPoller() == null ? null : event.getDistPoller().getId());
+        stmt.setString(i++, event.getEventSnmpHost());
+        stmt.setObject(i++, event.getServiceType() == null ? null : event.getServiceType().getId(), Types.INTEGER);
+        stmt.setString(i++, event.getEventSnmp());
+        stmt.setString(i++, event.getEventParms());
+        stmt.setTimestamp(i++, toTimestamp(event.getEventCreateTime()));
+        stmt.setString(i++, event.getEventDescr());
+        stmt.setString(i++, event.getEventLogGroup());
+        stmt.setString(i++, event.getEventLogMsg());
+        stmt.setObject(i++, event.getEventSeverity(), Types.INTEGER);
+        stmt.setString(i++, event.getEventPathOutage());
+        stmt.setString(i++, event.getEventCorrelation());
+        stmt.setObject(i++, event.getEventSuppressedCount(), Types.INTEGER);
+        stmt.setString(i++, event.getEventOperInstruct());
+        stmt.setString(i++, event.getEventAutoAction());
+        stmt.setString(i++, event.getEventOperAction());
+        stmt.setString(i++, event.getEventOperActionMenuText());
+        stmt.setString(i++, event.getEventNotification());
+        stmt.setString(i++, event.getEventTTicket());
+        stmt.setObject(i++, event.getEventTTicketState(), Types.INTEGER);
+        stmt.setString(i++, event.getEventForward());
+        stmt.setString(i++, event.getEventMouseOverText());
+        stmt.setString(i++, event.getEventLog());
+        stmt.setString(i++, event.getEventDisplay());
+        stmt.setObject(i++, event.getIfIndex(), Types.INTEGER);
+        stmt.setString(i++, event.getEventAckUser());
+        stmt.setTimestamp(i++, toTimestamp(event.getEventAckTime()));
+        stmt.setObject(i++, event.getAlarm() == null ? null : event.getAlarm().getId(), Types.INTEGER);
+    }
+
+    private static Timestamp toTimestamp(final Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    private static int getIdBlockSize() {
+        try {
+            return OnmsEvent.class.getMethod("getId").getAnnotation(SequenceGenerator.class).allocationSize();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public List<OnmsEvent> getEventsAfterDate(final List<String> ueiList, final Date date) {
         final String hql = "From OnmsEvent e where e.eventUei in (:eventUei) and e.eventTime > :eventTime order by e.eventTime desc";
@@ -49,6 +49,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
 /**
  * This class represents a singular instance that is used to map IP
  * addresses to known nodes.
@@ -71,6 +76,31 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
     private final InterfaceToNodeMap m_knownips = new InterfaceToNodeMap();
 
+    private final Counter m_lookups;
+
+    private final Counter m_misses;
+
+    public InterfaceToNodeCacheDaoImpl() {
+        this(new MetricRegistry());
+    }
+
+    public InterfaceToNodeCacheDaoImpl(MetricRegistry metrics) {
+        m_lookups = metrics.counter("lookups");
+        m_misses = metrics.counter("misses");
+        metrics.register("size", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_knownips.size();
+            }
+        });
+        metrics.register("miss-ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(m_misses.getCount(), m_lookups.getCount());
+            }
+        });
+    }
+
     public NodeDao getNodeDao() {
         return m_nodeDao;
     }
@@ -125,17 +155,24 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     }
 
     /**
-     * Returns the nodeid for the IP Address
+     * Returns the nodeid for the IP Address. This does not lock, so it can be
+     * called concurrently by all of the threads that receive traps and syslog
+     * messages.
      *
      * @param addr The IP Address to query.
      * @return The node ID of the IP Address if known.
      */
     @Override
-    public synchronized int getNodeId(final String location, final InetAddress addr) {
+    public int getNodeId(final String location, final InetAddress addr) {
         if (addr == null) {
             return -1;
         }
-        return m_knownips.getNodeId(location, addr);
+        m_lookups.inc();
+        final int nodeId = m_knownips.getNodeId(location, addr);
+        if (nodeId == -1) {
+            m_misses.inc();
+        }
+        return nodeId;
     }
 
     /**
@@ -28,16 +28,47 @@
 
 package org.opennms.netmgt.dao.hibernate;
 
+import java.net.InetAddress;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.opennms.core.utils.LldpUtils.LldpChassisIdSubType;
+import org.opennms.core.utils.LldpUtils.LldpPortIdSubType;
 import org.opennms.netmgt.dao.api.TopologyDao;
+import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.CdpElement;
+import org.opennms.netmgt.model.CdpLink;
+import org.opennms.netmgt.model.CdpLink.CiscoNetworkProtocolType;
+import org.opennms.netmgt.model.IpNetToMedia;
+import org.opennms.netmgt.model.LldpElement;
+import org.opennms.netmgt.model.LldpLink;
+import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsNode.NodeType;
+import org.opennms.netmgt.model.OnmsSnmpInterface;
+import org.opennms.netmgt.model.OspfLink;
+import org.opennms.netmgt.model.PrimaryType;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 public class TopologyDaoHibernate extends HibernateDaoSupport implements TopologyDao {
+
+    /**
+     * Number of rows fetched at a time when loading the topology, the
+     * rows are streamed instead of being materialized all at once.
+     */
+    private static final int FETCH_SIZE = 1000;
+
     @Override
     public OnmsNode getDefaultFocusPoint() {
 
@@ -63,4 +94,215 @@ public class TopologyDaoHibernate extends HibernateDaoSupport implements Topolog
         }
         return null;
     }
+
+    @Override
+    public List<OnmsNode> getNodesForTopology() {
+        return scroll("select n.id, n.label, n.type, n.sysObjectId, n.sysName, n.sysLocation from OnmsNode as n", row -> {
+            final OnmsNode node = new OnmsNode();
+            node.setId((Integer)row[0]);
+            node.setLabel((String)row[1]);
+            node.setType((NodeType)row[2]);
+            node.setSysObjectId((String)row[3]);
+            node.setSysName((String)row[4]);
+            node.setSysLocation((String)row[5]);
+            return node;
+        });
+    }
+
+    @Override
+    public List<OnmsIpInterface> getIpInterfacesForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select ip.id, ip.node.id, ip.ipAddress, ip.isManaged, ip.isSnmpPrimary, snmp.ifIndex "
+                + "from OnmsIpInterface as ip left join ip.snmpInterface as snmp", row -> {
+            final OnmsIpInterface ip = new OnmsIpInterface();
+            ip.setId((Integer)row[0]);
+            ip.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            ip.setIpAddress((InetAddress)row[2]);
+            ip.setIsManaged((String)row[3]);
+            ip.setIsSnmpPrimary((PrimaryType)row[4]);
+            if (row[5] != null) {
+                final OnmsSnmpInterface snmp = new OnmsSnmpInterface();
+                snmp.setIfIndex((Integer)row[5]);
+                ip.setSnmpInterface(snmp);
+            }
+            return ip;
+        });
+    }
+
+    @Override
+    public List<OnmsSnmpInterface> getSnmpInterfacesForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select snmp.id, snmp.node.id, snmp.ifIndex, snmp.ifName, snmp.ifSpeed, snmp.netMask from OnmsSnmpInterface as snmp", row -> {
+            final OnmsSnmpInterface snmp = new OnmsSnmpInterface();
+            snmp.setId((Integer)row[0]);
+            snmp.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            snmp.setIfIndex((Integer)row[2]);
+            snmp.setIfName((String)row[3]);
+            snmp.setIfSpeed((Long)row[4]);
+            snmp.setNetMask((InetAddress)row[5]);
+            return snmp;
+        });
+    }
+
+    @Override
+    public List<IpNetToMedia> getIpNetToMediaForTopology() {
+        return scroll("select m.id, m.netAddress, m.physAddress from IpNetToMedia as m", row -> {
+            final IpNetToMedia ipNetToMedia = new IpNetToMedia();
+            ipNetToMedia.setId((Integer)row[0]);
+            ipNetToMedia.setNetAddress((InetAddress)row[1]);
+            ipNetToMedia.setPhysAddress((String)row[2]);
+            return ipNetToMedia;
+        });
+    }
+
+    @Override
+    public List<LldpElement> getLldpElementsForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select e.id, e.node.id, e.lldpChassisId, e.lldpChassisIdSubType, e.lldpSysname from LldpElement as e", row -> {
+            final LldpElement element = new LldpElement();
+            element.setId((Integer)row[0]);
+            element.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            element.setLldpChassisId((String)row[2]);
+            element.setLldpChassisIdSubType((LldpChassisIdSubType)row[3]);
+            element.setLldpSysname((String)row[4]);
+            return element;
+        });
+    }
+
+    @Override
+    public List<LldpLink> getLldpLinksForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select l.id, l.node.id, l.lldpPortId, l.lldpPortIdSubType, l.lldpPortDescr, l.lldpPortIfindex, "
+                + "l.lldpRemChassisId, l.lldpRemChassisIdSubType, l.lldpRemSysname, l.lldpRemPortId, l.lldpRemPortIdSubType, l.lldpRemPortDescr "
+                + "from LldpLink as l", row -> {
+            final LldpLink link = new LldpLink();
+            link.setId((Integer)row[0]);
+            link.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            link.setLldpPortId((String)row[2]);
+            link.setLldpPortIdSubType((LldpPortIdSubType)row[3]);
+            link.setLldpPortDescr((String)row[4]);
+            link.setLldpPortIfindex((Integer)row[5]);
+            link.setLldpRemChassisId((String)row[6]);
+            link.setLldpRemChassisIdSubType((LldpChassisIdSubType)row[7]);
+            link.setLldpRemSysname((String)row[8]);
+            link.setLldpRemPortId((String)row[9]);
+            link.setLldpRemPortIdSubType((LldpPortIdSubType)row[10]);
+            link.setLldpRemPortDescr((String)row[11]);
+            return link;
+        });
+    }
+
+    @Override
+    public List<OspfLink> getOspfLinksForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select l.id, l.node.id, l.ospfIfIndex, l.ospfIpAddr, l.ospfIpMask, l.ospfRemRouterId, l.ospfRemIpAddr from OspfLink as l", row -> {
+            final OspfLink link = new OspfLink();
+            link.setId((Integer)row[0]);
+            link.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            link.setOspfIfIndex((Integer)row[2]);
+            link.setOspfIpAddr((InetAddress)row[3]);
+            link.setOspfIpMask((InetAddress)row[4]);
+            link.setOspfRemRouterId((InetAddress)row[5]);
+            link.setOspfRemIpAddr((InetAddress)row[6]);
+            return link;
+        });
+    }
+
+    @Override
+    public List<CdpElement> getCdpElementsForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select e.id, e.node.id, e.cdpGlobalDeviceId from CdpElement as e", row -> {
+            final CdpElement element = new CdpElement();
+            element.setId((Integer)row[0]);
+            element.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            element.setCdpGlobalDeviceId((String)row[2]);
+            return element;
+        });
+    }
+
+    @Override
+    public List<CdpLink> getCdpLinksForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select l.id, l.node.id, l.cdpCacheIfIndex, l.cdpInterfaceName, l.cdpCacheAddressType, l.cdpCacheAddress, "
+                + "l.cdpCacheDeviceId, l.cdpCacheDevicePort from CdpLink as l", row -> {
+            final CdpLink link = new CdpLink();
+            link.setId((Integer)row[0]);
+            link.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            link.setCdpCacheIfIndex((Integer)row[2]);
+            link.setCdpInterfaceName((String)row[3]);
+            link.setCdpCacheAddressType((CiscoNetworkProtocolType)row[4]);
+            link.setCdpCacheAddress((String)row[5]);
+            link.setCdpCacheDeviceId((String)row[6]);
+            link.setCdpCacheDevicePort((String)row[7]);
+            return link;
+        });
+    }
+
+    @Override
+    public List<BridgeBridgeLink> getBridgeBridgeLinksForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select l.id, l.node.id, l.bridgePort, l.bridgePortIfIndex, l.bridgePortIfName, l.vlan, "
+                + "l.designatedNode.id, l.designatedPort, l.designatedPortIfIndex, l.designatedPortIfName, l.designatedVlan "
+                + "from BridgeBridgeLink as l", row -> {
+            final BridgeBridgeLink link = new BridgeBridgeLink();
+            link.setId((Integer)row[0]);
+            link.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            link.setBridgePort((Integer)row[2]);
+            link.setBridgePortIfIndex((Integer)row[3]);
+            link.setBridgePortIfName((String)row[4]);
+            link.setVlan((Integer)row[5]);
+            link.setDesignatedNode(nodes.computeIfAbsent((Integer)row[6], TopologyDaoHibernate::nodeReference));
+            link.setDesignatedPort((Integer)row[7]);
+            link.setDesignatedPortIfIndex((Integer)row[8]);
+            link.setDesignatedPortIfName((String)row[9]);
+            link.setDesignatedVlan((Integer)row[10]);
+            return link;
+        });
+    }
+
+    @Override
+    public List<BridgeMacLink> getBridgeMacLinksForTopology() {
+        final Map<Integer, OnmsNode> nodes = new HashMap<>();
+        return scroll("select l.id, l.node.id, l.bridgePort, l.bridgePortIfIndex, l.bridgePortIfName, l.vlan, l.macAddress from BridgeMacLink as l", row -> {
+            final BridgeMacLink link = new BridgeMacLink();
+            link.setId((Integer)row[0]);
+            link.setNode(nodes.computeIfAbsent((Integer)row[1], TopologyDaoHibernate::nodeReference));
+            link.setBridgePort((Integer)row[2]);
+            link.setBridgePortIfIndex((Integer)row[3]);
+            link.setBridgePortIfName((String)row[4]);
+            link.setVlan((Integer)row[5]);
+            link.setMacAddress((String)row[6]);
+            return link;
+        });
+    }
+
+    private static OnmsNode nodeReference(Integer nodeId) {
+        final OnmsNode node = new OnmsNode();
+        node.setId(nodeId);
+        return node;
+    }
+
+    /**
+     * Runs the given (read-only) projection and streams the
+     * resulting rows through the mapper.
+     */
+    private <T> List<T> scroll(final String query, final Function<Object[], T> mapper) {
+        return getHibernateTemplate().execute(new HibernateCallback<List<T>>() {
+            public List<T> doInHibernate(Session session) throws HibernateException, SQLException {
+                final List<T> results = new ArrayList<>();
+                final ScrollableResults rows = session.createQuery(query)
+                        .setReadOnly(true)
+                        .setFetchSize(FETCH_SIZE)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                try {
+                    while (rows.next()) {
+                        results.add(mapper.apply(rows.get()));
+                    }
+                } finally {
+                    rows.close();
+                }
+                return results;
+            }
+        });
+    }
 }
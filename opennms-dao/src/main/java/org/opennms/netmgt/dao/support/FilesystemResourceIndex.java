@@ -0,0 +1,462 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the directories in the RRD repository, used by
+ * {@link FilesystemResourceStorageDao} to answer the existence, children and
+ * string attribute queries without walking the tree on disk.
+ *
+ * For every directory we only keep track of whether or not it contains
+ * metrics (files with the RRD extension) and a strings.properties file.
+ * The index is kept up-to-date by the DAO when resources are written or
+ * deleted, and is periodically rebuilt from the filesystem to pick up any
+ * changes made by other processes. It is saved to disk when stopped so that
+ * it does not have to be rebuilt on the next start.
+ *
+ * Until the index is ready (i.e. it was loaded or the initial scan completed)
+ * callers must fall back to the filesystem.
+ */
+final class FilesystemResourceIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceIndex.class);
+
+    private static final int MAGIC = 0x4f4e4d52; // ONMR
+
+    private static final int VERSION = 1;
+
+    static final class Node {
+        private final ConcurrentMap<String, Node> m_children = new ConcurrentHashMap<>(4);
+        private volatile boolean m_hasMetrics;
+        private volatile boolean m_hasStringAttributes;
+
+        private Node find(String[] path) {
+            Node node = this;
+            for (String element : path) {
+                node = node.m_children.get(element);
+                if (node == null) {
+                    return null;
+                }
+            }
+            return node;
+        }
+
+        private Node findOrCreate(String[] path) {
+            Node node = this;
+            for (String element : path) {
+                node = node.m_children.computeIfAbsent(element, k -> new Node());
+            }
+            return node;
+        }
+
+        private boolean exists(int depth) {
+            if (depth == 0) {
+                return m_hasMetrics;
+            }
+            for (Node child : m_children.values()) {
+                if (child.exists(depth - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean existsWithin(int depth) {
+            if (depth < 0) {
+                return false;
+            }
+            if (m_hasMetrics) {
+                return true;
+            }
+            for (Node child : m_children.values()) {
+                if (child.existsWithin(depth - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int size() {
+            int size = 1;
+            for (Node child : m_children.values()) {
+                size += child.size();
+            }
+            return size;
+        }
+    }
+
+    private final Path m_rrdDirectory;
+
+    private final String m_rrdExtension;
+
+    private final Path m_indexFile;
+
+    private final ForkJoinPool m_scanPool;
+
+    private final Object m_lock = new Object();
+
+    /**
+     * Root of the index, null until the index is ready.
+     */
+    private volatile Node m_root;
+
+    /**
+     * Updates made while a scan is in progress, these are re-applied to the
+     * new tree before it replaces the current one.
+     */
+    private volatile List<Consumer<Node>> m_pendingUpdates;
+
+    private ScheduledExecutorService m_reconciler;
+
+    public FilesystemResourceIndex(Path rrdDirectory, String rrdExtension, Path indexFile, int scanThreads) {
+        m_rrdDirectory = Objects.requireNonNull(rrdDirectory);
+        m_rrdExtension = Objects.requireNonNull(rrdExtension);
+        m_indexFile = Objects.requireNonNull(indexFile);
+        m_scanPool = new ForkJoinPool(scanThreads);
+    }
+
+    /**
+     * Loads the index from disk, or triggers a rebuild if it cannot be loaded,
+     * and schedules the periodic reconciliation with the filesystem.
+     */
+    public synchronized void start(long reconcileIntervalMs) {
+        if (m_reconciler != null) {
+            return;
+        }
+        m_reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "FilesystemResourceIndex-Reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (!load()) {
+            m_reconciler.execute(this::rebuildQuietly);
+        }
+        if (reconcileIntervalMs > 0) {
+            m_reconciler.scheduleWithFixedDelay(this::rebuildQuietly, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the reconciler and saves the index to disk.
+     */
+    public synchronized void stop() {
+        if (m_reconciler != null) {
+            m_reconciler.shutdownNow();
+            m_reconciler = null;
+        }
+        m_scanPool.shutdownNow();
+        if (m_root != null) {
+            try {
+                save();
+            } catch (IOException e) {
+                LOG.warn("Failed to save the resource index to {}.", m_indexFile, e);
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return m_root != null;
+    }
+
+    public boolean exists(String[] path, int depth) {
+        final Node node = getRoot().find(path);
+        return node != null && node.exists(depth);
+    }
+
+    public boolean existsWithin(String[] path, int depth) {
+        final Node node = getRoot().find(path);
+        return node != null && node.existsWithin(depth);
+    }
+
+    /**
+     * Returns the names of the directories directly below the given path that
+     * contain metrics at the given depth.
+     */
+    public Set<String> children(String[] path, int depth) {
+        final Node node = getRoot().find(path);
+        if (node == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> children = new HashSet<>();
+        for (Map.Entry<String, Node> entry : node.m_children.entrySet()) {
+            if (entry.getValue().exists(depth - 1)) {
+                children.add(entry.getKey());
+            }
+        }
+        return children;
+    }
+
+    public boolean isDirectory(String[] path) {
+        return getRoot().find(path) != null;
+    }
+
+    public boolean hasStringAttributes(String[] path) {
+        final Node node = getRoot().find(path);
+        return node != null && node.m_hasStringAttributes;
+    }
+
+    public void metricsPersisted(String[] path) {
+        final Node root = m_root;
+        if (root != null && m_pendingUpdates == null) {
+            // Fast path, this is called every time metrics are persisted
+            final Node node = root.find(path);
+            if (node != null && node.m_hasMetrics) {
+                return;
+            }
+        }
+        update(r -> r.findOrCreate(path).m_hasMetrics = true);
+    }
+
+    public void stringAttributesPersisted(String[] path) {
+        update(r -> r.findOrCreate(path).m_hasStringAttributes = true);
+    }
+
+    public void directoryCreated(String[] path) {
+        update(r -> r.findOrCreate(path));
+    }
+
+    public void deleted(String[] path) {
+        if (path.length == 0) {
+            update(r -> r.m_children.clear());
+            return;
+        }
+        final String[] parentPath = new String[path.length - 1];
+        System.arraycopy(path, 0, parentPath, 0, parentPath.length);
+        final String name = path[path.length - 1];
+        update(r -> {
+            final Node parent = r.find(parentPath);
+            if (parent != null) {
+                parent.m_children.remove(name);
+            }
+        });
+    }
+
+    /**
+     * Scans the repository and replaces the current tree with the result.
+     */
+    public void rebuild() {
+        synchronized (m_lock) {
+            m_pendingUpdates = new ArrayList<>();
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            final Node root = Files.isDirectory(m_rrdDirectory) ? m_scanPool.invoke(new ScanTask(m_rrdDirectory)) : new Node();
+            synchronized (m_lock) {
+                for (Consumer<Node> update : m_pendingUpdates) {
+                    update.accept(root);
+                }
+                m_root = root;
+            }
+            LOG.info("Indexed {} directories in {} in {}ms.", root.size(), m_rrdDirectory, System.currentTimeMillis() - start);
+        } finally {
+            synchronized (m_lock) {
+                m_pendingUpdates = null;
+            }
+        }
+    }
+
+    private void rebuildQuietly() {
+        try {
+            rebuild();
+            save();
+        } catch (Throwable t) {
+            LOG.error("Failed to rebuild the resource index for {}.", m_rrdDirectory, t);
+        }
+    }
+
+    private void update(Consumer<Node> update) {
+        synchronized (m_lock) {
+            if (m_pendingUpdates != null) {
+                m_pendingUpdates.add(update);
+            }
+        }
+        final Node root = m_root;
+        if (root != null) {
+            update.accept(root);
+        }
+    }
+
+    private Node getRoot() {
+        final Node root = m_root;
+        if (root == null) {
+            throw new IllegalStateException("The resource index is not ready.");
+        }
+        return root;
+    }
+
+    private class ScanTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path m_dir;
+
+        private ScanTask(Path dir) {
+            m_dir = dir;
+        }
+
+        @Override
+        protected Node compute() {
+            final Node node = new Node();
+            final Map<String, ScanTask> subtasks = new HashMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_dir)) {
+                for (Path entry : stream) {
+                    final String name = entry.getFileName().toString();
+                    final BasicFileAttributes attrs;
+                    try {
+                        // Follow links, like File.isDirectory() and File.isFile() do
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        LOG.debug("Failed to read the attributes of {}. Skipping.", entry, e);
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        final ScanTask subtask = new ScanTask(entry);
+                        subtask.fork();
+                        subtasks.put(name, subtask);
+                    } else if (attrs.isRegularFile()) {
+                        if (name.endsWith(m_rrdExtension)) {
+                            node.m_hasMetrics = true;
+                        } else if (RrdResourceAttributeUtils.STRINGS_PROPERTIES_FILE_NAME.equals(name)) {
+                            node.m_hasStringAttributes = true;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to list {}. Its contents will not be indexed.", m_dir, e);
+            }
+            for (Map.Entry<String, ScanTask> entry : subtasks.entrySet()) {
+                node.m_children.put(entry.getKey(), entry.getValue().join());
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Saves the index to disk.
+     */
+    public void save() throws IOException {
+        final Node root = getRoot();
+        final Path tmpFile = m_indexFile.resolveSibling(m_indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(m_rrdExtension);
+            write(out, root);
+        }
+        Files.move(tmpFile, m_indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the index from disk.
+     *
+     * @return true if the index was loaded, false if it is missing or cannot be used
+     */
+    public boolean load() {
+        if (!Files.isRegularFile(m_indexFile)) {
+            return false;
+        }
+        final long start = System.currentTimeMillis();
+        final Node root;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(m_indexFile))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.info("Ignoring resource index {} with an unknown format.", m_indexFile);
+                return false;
+            }
+            if (!m_rrdExtension.equals(in.readUTF())) {
+                LOG.info("Ignoring resource index {} built for a different RRD strategy.", m_indexFile);
+                return false;
+            }
+            root = read(in);
+        } catch (IOException e) {
+            LOG.warn("Failed to load the resource index from {}.", m_indexFile, e);
+            return false;
+        }
+        synchronized (m_lock) {
+            m_root = root;
+        }
+        LOG.info("Loaded {} directories from resource index {} in {}ms.", root.size(), m_indexFile, System.currentTimeMillis() - start);
+        return true;
+    }
+
+    private static void write(DataOutputStream out, Node node) throws IOException {
+        out.writeBoolean(node.m_hasMetrics);
+        out.writeBoolean(node.m_hasStringAttributes);
+        // Take a snapshot, the map may be modified concurrently
+        final List<Map.Entry<String, Node>> children = new ArrayList<>(node.m_children.entrySet());
+        out.writeInt(children.size());
+        for (Map.Entry<String, Node> child : children) {
+            out.writeUTF(child.getKey());
+            write(out, child.getValue());
+        }
+    }
+
+    private static Node read(DataInputStream in) throws IOException {
+        final Node node = new Node();
+        node.m_hasMetrics = in.readBoolean();
+        node.m_hasStringAttributes = in.readBoolean();
+        final int numChildren = in.readInt();
+        for (int i = 0; i < numChildren; i++) {
+            final String name = in.readUTF();
+            node.m_children.put(name, read(in));
+        }
+        return node;
+    }
+}
@@ -32,10 +32,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -49,6 +52,7 @@ import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -60,12 +64,30 @@ import com.google.common.collect.Maps;
  * Used in conjunction with RRD/JRB strategies that persist
  * metrics to the local disk.
  *
+ * When enabled with the {@link #INDEX_ENABLED_PROPERTY} system property,
+ * the existence, children and string attribute queries are answered from
+ * a {@link FilesystemResourceIndex} instead of walking the tree on disk.
+ *
  * @author jwhite
  */
-public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean {
+public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceStorageDao.class);
 
+    public static final String INDEX_ENABLED_PROPERTY = "org.opennms.rrd.resourceIndex.enabled";
+
+    public static final String INDEX_FILE_PROPERTY = "org.opennms.rrd.resourceIndex.file";
+
+    public static final String INDEX_RECONCILE_INTERVAL_PROPERTY = "org.opennms.rrd.resourceIndex.reconcileInterval";
+
+    public static final String INDEX_SCAN_THREADS_PROPERTY = "org.opennms.rrd.resourceIndex.scanThreads";
+
+    /**
+     * Name of the file in the RRD directory that is used to store
+     * the index, unless overridden with {@link #INDEX_FILE_PROPERTY}.
+     */
+    public static final String DEFAULT_INDEX_FILE_NAME = ".resource-index";
+
     @Autowired
     private RrdStrategy<?, ?> m_rrdStrategy;
 
@@ -73,27 +95,61 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     private File m_rrdDirectory;
 
+    private boolean m_indexEnabled = Boolean.getBoolean(INDEX_ENABLED_PROPERTY);
+
+    private long m_indexReconcileInterval = Long.getLong(INDEX_RECONCILE_INTERVAL_PROPERTY, TimeUnit.HOURS.toMillis(1));
+
+    private FilesystemResourceIndex m_index;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
         setRrdExtension(m_rrdStrategy.getDefaultFileExtension());
+
+        if (m_indexEnabled) {
+            final String indexFile = System.getProperty(INDEX_FILE_PROPERTY);
+            final Path rrdDirectory = m_rrdDirectory.getAbsoluteFile().toPath();
+            m_index = new FilesystemResourceIndex(rrdDirectory, RRD_EXTENSION,
+                    indexFile != null ? Paths.get(indexFile) : rrdDirectory.resolve(DEFAULT_INDEX_FILE_NAME),
+                    Integer.getInteger(INDEX_SCAN_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+            m_index.start(m_indexReconcileInterval);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_index != null) {
+            m_index.stop();
+        }
     }
 
     @Override
     public boolean exists(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        if (isIndexReady()) {
+            return m_index.exists(toElements(path), depth);
+        }
         return exists(toPath(path), depth);
     }
 
     @Override
     public boolean existsWithin(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        if (isIndexReady()) {
+            return m_index.existsWithin(toElements(path), depth);
+        }
         return existsWithin(toPath(path), depth);
     }
 
     @Override
     public Set<ResourcePath> children(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth > 0, "depth must be positive");
+        if (isIndexReady()) {
+            return m_index.children(toElements(path), depth).stream()
+                    .map(name -> ResourcePath.get(path, name))
+                    .collect(Collectors.toSet());
+        }
+
         final Path root = toPath(path);
         if (!Files.isDirectory(root)) {
             return Collections.emptySet();
@@ -112,6 +168,9 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public Set<OnmsAttribute> getAttributes(ResourcePath path) {
+        if (isIndexReady() && !m_index.isDirectory(toElements(path))) {
+            return Collections.emptySet();
+        }
         return RrdResourceAttributeUtils.getAttributesAtRelativePath(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString(), RRD_EXTENSION);
     }
 
@@ -122,15 +181,24 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        if (m_index != null) {
+            m_index.stringAttributesPersisted(toElements(path));
+        }
     }
 
     @Override
     public String getStringAttribute(ResourcePath path, String key) {
+        if (isIndexReady() && !m_index.hasStringAttributes(toElements(path))) {
+            return null;
+        }
         return RrdResourceAttributeUtils.getStringProperty(toPath(path).toFile(), key);
     }
 
     @Override
     public Map<String, String> getStringAttributes(ResourcePath path) {
+        if (isIndexReady() && !m_index.hasStringAttributes(toElements(path))) {
+            return Collections.emptyMap();
+        }
         Properties props = RrdResourceAttributeUtils.getStringProperties(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString());
         return Maps.fromProperties(props);
     }
@@ -138,6 +206,16 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
     @Override
     public void updateMetricToResourceMappings(ResourcePath path, Map<String, String> metricsNameToResourceNames) {
         RrdResourceAttributeUtils.updateDsProperties(toPath(path).toFile(), metricsNameToResourceNames);
+        if (m_index != null) {
+            m_index.directoryCreated(toElements(path));
+        }
+    }
+
+    @Override
+    public void metricsPersisted(ResourcePath path) {
+        if (m_index != null) {
+            m_index.metricsPersisted(toElements(path));
+        }
     }
 
     @Override
@@ -147,7 +225,11 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public boolean delete(ResourcePath path) {
-        return FileUtils.deleteQuietly(toPath(path).toFile());
+        final boolean deleted = FileUtils.deleteQuietly(toPath(path).toFile());
+        if (deleted && m_index != null) {
+            m_index.deleted(toElements(path));
+        }
+        return deleted;
     }
 
     private boolean exists(Path root, int depth) {
@@ -184,6 +266,27 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         return m_rrdDirectory.getAbsoluteFile().toPath().resolve(ResourcePath.resourceToFilesystemPath(path));
     }
 
+    private boolean isIndexReady() {
+        return m_index != null && m_index.isReady();
+    }
+
+    /**
+     * Converts the resource path to the names of the directories on disk,
+     * using the same rules as {@link #toPath(ResourcePath)}.
+     */
+    private static String[] toElements(final ResourcePath path) {
+        final Path relativePath = ResourcePath.resourceToFilesystemPath(path);
+        if (relativePath.toString().isEmpty()) {
+            return new String[0];
+        }
+        final String[] elements = new String[relativePath.getNameCount()];
+        final Iterator<Path> it = relativePath.iterator();
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = it.next().toString();
+        }
+        return elements;
+    }
+
     public void setRrdDirectory(File rrdDirectory) {
         m_rrdDirectory = rrdDirectory;
     }
@@ -201,6 +304,14 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         RRD_EXTENSION = rrdExtension;
     }
 
+    public void setIndexEnabled(boolean indexEnabled) {
+        m_indexEnabled = indexEnabled;
+    }
+
+    public void setIndexReconcileInterval(long indexReconcileInterval) {
+        m_indexReconcileInterval = indexReconcileInterval;
+    }
+
     private static Predicate<Path> isRrdFile = new Predicate<Path>() {
         @Override
         public boolean test(Path path) {
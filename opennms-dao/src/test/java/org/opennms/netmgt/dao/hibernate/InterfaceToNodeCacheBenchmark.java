@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of {@link InterfaceToNodeCacheDaoImpl#getNodeId} with a
+ * single thread and with as many threads as there are processors, like the trap
+ * and syslog receivers do. One lookup in ten is for an unknown address.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.dao.hibernate.InterfaceToNodeCacheBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InterfaceToNodeCacheBenchmark {
+
+    private static final int NUM_ADDRESSES = 50000;
+
+    private static final String[] LOCATIONS = { "Default", "Minion" };
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        private final InterfaceToNodeCacheDaoImpl m_cache = new InterfaceToNodeCacheDaoImpl();
+
+        private final InetAddress[] m_addresses = new InetAddress[NUM_ADDRESSES];
+
+        @Setup(Level.Trial)
+        public void setUp() throws UnknownHostException {
+            for (int i = 0; i < NUM_ADDRESSES; i++) {
+                m_addresses[i] = InetAddress.getByAddress(new byte[] { 10, (byte)(i >> 16), (byte)(i >> 8), (byte)i });
+                // Leave every tenth address out of the cache
+                if (i % 10 != 0) {
+                    m_cache.setNodeId(LOCATIONS[i % LOCATIONS.length], m_addresses[i], i + 1);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random m_random = new Random();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int getNodeId(CacheState cache, ThreadState thread) {
+        return lookup(cache, thread);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int getNodeIdConcurrently(CacheState cache, ThreadState thread) {
+        return lookup(cache, thread);
+    }
+
+    private static int lookup(CacheState cache, ThreadState thread) {
+        final int i = thread.m_random.nextInt(NUM_ADDRESSES);
+        return cache.m_cache.getNodeId(LOCATIONS[i % LOCATIONS.length], cache.m_addresses[i]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(InterfaceToNodeCacheBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.InterfaceToNodeMap;
+import org.opennms.netmgt.dao.api.InterfaceToNodeMap.LocationIpAddressKey;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Verifies the lookups without a database, see {@link InterfaceToNodeCacheDaoImplIT}
+ * for the synchronization with the database.
+ */
+public class InterfaceToNodeCacheDaoImplTest {
+
+    private static final String DEFAULT = MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID;
+
+    @Test
+    public void testLookupsByLocation() {
+        final InterfaceToNodeCacheDaoImpl cache = new InterfaceToNodeCacheDaoImpl();
+        assertEquals(-1, cache.setNodeId(DEFAULT, addr("10.0.0.1"), 1));
+        assertEquals(-1, cache.setNodeId("Minion", addr("10.0.0.1"), 2));
+        assertEquals(-1, cache.setNodeId(null, addr("fe80::1"), 3));
+
+        assertEquals(1, cache.getNodeId(DEFAULT, addr("10.0.0.1")));
+        assertEquals(1, cache.getNodeId(null, addr("10.0.0.1")));
+        assertEquals(2, cache.getNodeId("Minion", addr("10.0.0.1")));
+        assertEquals(3, cache.getNodeId(DEFAULT, addr("fe80::1")));
+        assertEquals(-1, cache.getNodeId("Minion", addr("fe80::1")));
+        assertEquals(-1, cache.getNodeId("Unknown", addr("10.0.0.1")));
+        assertEquals(-1, cache.getNodeId(DEFAULT, addr("10.0.0.2")));
+        assertEquals(-1, cache.getNodeId(DEFAULT, null));
+        assertEquals(3, cache.size());
+
+        assertEquals(2, cache.removeNodeId("Minion", addr("10.0.0.1")));
+        assertEquals(-1, cache.removeNodeId("Minion", addr("10.0.0.1")));
+        assertEquals(-1, cache.getNodeId("Minion", addr("10.0.0.1")));
+        assertEquals(1, cache.getNodeId(DEFAULT, addr("10.0.0.1")));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(-1, cache.getNodeId(DEFAULT, addr("10.0.0.1")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testChangesAreMergedIntoSnapshot() throws Exception {
+        final InterfaceToNodeMap map = new InterfaceToNodeMap();
+        final Map<LocationIpAddressKey, Integer> addresses = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            addresses.put(new LocationIpAddressKey(DEFAULT, ipv4(i)), i + 1);
+        }
+        addresses.put(new LocationIpAddressKey(DEFAULT, addr("2001:db8::1")), 10000);
+        map.setManagedAddresses(addresses);
+        assertEquals(5001, map.size());
+
+        // Enough changes to go through several snapshots
+        for (int i = 0; i < 5000; i += 2) {
+            assertEquals(i + 1, map.removeManagedAddress(DEFAULT, ipv4(i)));
+        }
+        for (int i = 5000; i < 8000; i++) {
+            assertEquals(-1, map.addManagedAddress("Minion", ipv4(i), i + 1));
+        }
+        assertEquals(10000, map.addManagedAddress(DEFAULT, addr("2001:db8::1"), 10001));
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i + 1, map.getNodeId(DEFAULT, ipv4(i)));
+        }
+        for (int i = 5000; i < 8000; i++) {
+            assertEquals(i + 1, map.getNodeId("Minion", ipv4(i)));
+            assertEquals(-1, map.getNodeId(DEFAULT, ipv4(i)));
+        }
+        assertEquals(10001, map.getNodeId(null, addr("2001:db8::1")));
+        assertEquals(2500 + 3000 + 1, map.size());
+    }
+
+    @Test
+    public void testMetrics() {
+        final MetricRegistry metrics = new MetricRegistry();
+        final InterfaceToNodeCacheDaoImpl cache = new InterfaceToNodeCacheDaoImpl(metrics);
+        cache.setNodeId(DEFAULT, addr("10.0.0.1"), 1);
+        cache.getNodeId(DEFAULT, addr("10.0.0.1"));
+        cache.getNodeId(DEFAULT, addr("10.0.0.1"));
+        cache.getNodeId(DEFAULT, addr("10.0.0.1"));
+        cache.getNodeId(DEFAULT, addr("10.0.0.2"));
+
+        assertEquals(4, metrics.getCounters().get("lookups").getCount());
+        assertEquals(1, metrics.getCounters().get("misses").getCount());
+        assertEquals(1, metrics.getGauges().get("size").getValue());
+        assertEquals(0.25d, (Double)((Gauge<?>)metrics.getGauges().get("miss-ratio")).getValue(), 0.0001d);
+    }
+
+    private static InetAddress ipv4(int i) throws Exception {
+        return InetAddress.getByAddress(new byte[] { 10, (byte)(i >> 16), (byte)(i >> 8), (byte)i });
+    }
+}
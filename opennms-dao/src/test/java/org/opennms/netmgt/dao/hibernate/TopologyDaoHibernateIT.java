@@ -28,14 +28,36 @@
 
 package org.opennms.netmgt.dao.hibernate;
 
+import java.util.Date;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.LldpUtils.LldpChassisIdSubType;
+import org.opennms.core.utils.LldpUtils.LldpPortIdSubType;
 import org.opennms.netmgt.dao.DatabasePopulator;
+import org.opennms.netmgt.dao.api.BridgeBridgeLinkDao;
+import org.opennms.netmgt.dao.api.BridgeMacLinkDao;
+import org.opennms.netmgt.dao.api.CdpElementDao;
+import org.opennms.netmgt.dao.api.CdpLinkDao;
+import org.opennms.netmgt.dao.api.LldpElementDao;
+import org.opennms.netmgt.dao.api.LldpLinkDao;
+import org.opennms.netmgt.dao.api.OspfLinkDao;
 import org.opennms.netmgt.dao.api.TopologyDao;
+import org.opennms.netmgt.model.BridgeBridgeLink;
+import org.opennms.netmgt.model.BridgeMacLink;
+import org.opennms.netmgt.model.CdpElement;
+import org.opennms.netmgt.model.CdpLink;
+import org.opennms.netmgt.model.CdpLink.CiscoNetworkProtocolType;
+import org.opennms.netmgt.model.LldpElement;
+import org.opennms.netmgt.model.LldpLink;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OspfElement.TruthValue;
+import org.opennms.netmgt.model.OspfLink;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -62,6 +84,27 @@ public class TopologyDaoHibernateIT {
     @Autowired
     private DatabasePopulator m_populator;
 
+    @Autowired
+    private LldpElementDao m_lldpElementDao;
+
+    @Autowired
+    private LldpLinkDao m_lldpLinkDao;
+
+    @Autowired
+    private OspfLinkDao m_ospfLinkDao;
+
+    @Autowired
+    private CdpElementDao m_cdpElementDao;
+
+    @Autowired
+    private CdpLinkDao m_cdpLinkDao;
+
+    @Autowired
+    private BridgeBridgeLinkDao m_bridgeBridgeLinkDao;
+
+    @Autowired
+    private BridgeMacLinkDao m_bridgeMacLinkDao;
+
     @BeforeTransaction
     public void setUp() {
         
@@ -84,4 +127,104 @@ public class TopologyDaoHibernateIT {
         Assert.assertNotNull(node2);
     }
 
+    @Test
+    @Transactional
+    public void testGetLinksForTopology() {
+        m_populator.populateDatabase();
+        final OnmsNode node1 = m_populator.getNode1();
+        final OnmsNode node2 = m_populator.getNode2();
+        final Date now = new Date();
+
+        final LldpElement lldpElement = new LldpElement(node1, "0016c8bd4d80", "node1", LldpChassisIdSubType.LLDP_CHASSISID_SUBTYPE_MACADDRESS);
+        lldpElement.setLldpNodeLastPollTime(now);
+        m_lldpElementDao.save(lldpElement);
+        final LldpLink lldpLink = new LldpLink(node1, 1, 10, "Gi0/1", "GigabitEthernet0/1", LldpPortIdSubType.LLDP_PORTID_SUBTYPE_INTERFACENAME,
+                "0016c894aa80", "node2", LldpChassisIdSubType.LLDP_CHASSISID_SUBTYPE_MACADDRESS,
+                "Gi0/2", LldpPortIdSubType.LLDP_PORTID_SUBTYPE_INTERFACENAME, "GigabitEthernet0/2");
+        lldpLink.setLldpLinkLastPollTime(now);
+        m_lldpLinkDao.save(lldpLink);
+
+        final OspfLink ospfLink = new OspfLink();
+        ospfLink.setNode(node1);
+        ospfLink.setOspfIpAddr(InetAddressUtils.addr("192.168.1.1"));
+        ospfLink.setOspfIpMask(InetAddressUtils.addr("255.255.255.252"));
+        ospfLink.setOspfIfIndex(10);
+        ospfLink.setOspfAddressLessIndex(0);
+        ospfLink.setOspfRemRouterId(InetAddressUtils.addr("192.168.1.2"));
+        ospfLink.setOspfRemIpAddr(InetAddressUtils.addr("192.168.1.2"));
+        ospfLink.setOspfRemAddressLessIndex(0);
+        ospfLink.setOspfLinkLastPollTime(now);
+        m_ospfLinkDao.save(ospfLink);
+
+        final CdpElement cdpElement = new CdpElement(node1, "node1.example.org");
+        cdpElement.setCdpGlobalRun(TruthValue.TRUE);
+        cdpElement.setCdpNodeLastPollTime(now);
+        m_cdpElementDao.save(cdpElement);
+        final CdpLink cdpLink = new CdpLink();
+        cdpLink.setNode(node1);
+        cdpLink.setCdpCacheIfIndex(10);
+        cdpLink.setCdpCacheDeviceIndex(1);
+        cdpLink.setCdpInterfaceName("GigabitEthernet0/1");
+        cdpLink.setCdpCacheAddressType(CiscoNetworkProtocolType.ip);
+        cdpLink.setCdpCacheAddress("192.168.1.2");
+        cdpLink.setCdpCacheVersion("IOS");
+        cdpLink.setCdpCacheDeviceId("node2.example.org");
+        cdpLink.setCdpCacheDevicePort("GigabitEthernet0/2");
+        cdpLink.setCdpCacheDevicePlatform("cisco");
+        cdpLink.setCdpLinkLastPollTime(now);
+        m_cdpLinkDao.save(cdpLink);
+
+        final BridgeBridgeLink bridgeBridgeLink = new BridgeBridgeLink();
+        bridgeBridgeLink.setNode(node1);
+        bridgeBridgeLink.setBridgePort(1);
+        bridgeBridgeLink.setBridgePortIfIndex(10);
+        bridgeBridgeLink.setVlan(1);
+        bridgeBridgeLink.setDesignatedNode(node2);
+        bridgeBridgeLink.setDesignatedPort(2);
+        bridgeBridgeLink.setDesignatedPortIfIndex(20);
+        bridgeBridgeLink.setBridgeBridgeLinkLastPollTime(now);
+        m_bridgeBridgeLinkDao.save(bridgeBridgeLink);
+        final BridgeMacLink bridgeMacLink = new BridgeMacLink();
+        bridgeMacLink.setNode(node2);
+        bridgeMacLink.setBridgePort(3);
+        bridgeMacLink.setBridgePortIfIndex(30);
+        bridgeMacLink.setMacAddress("0016c8bd4d8b");
+        bridgeMacLink.setBridgeMacLinkLastPollTime(now);
+        m_bridgeMacLinkDao.save(bridgeMacLink);
+        m_bridgeMacLinkDao.flush();
+
+        final List<LldpElement> lldpElements = m_topologyDao.getLldpElementsForTopology();
+        Assert.assertEquals(1, lldpElements.size());
+        Assert.assertEquals(node1.getId(), lldpElements.get(0).getNode().getId());
+        Assert.assertEquals("0016c8bd4d80", lldpElements.get(0).getLldpChassisId());
+        Assert.assertEquals(LldpChassisIdSubType.LLDP_CHASSISID_SUBTYPE_MACADDRESS, lldpElements.get(0).getLldpChassisIdSubType());
+        final List<LldpLink> lldpLinks = m_topologyDao.getLldpLinksForTopology();
+        Assert.assertEquals(1, lldpLinks.size());
+        Assert.assertEquals(lldpLink.getId(), lldpLinks.get(0).getId());
+        Assert.assertEquals("Gi0/2", lldpLinks.get(0).getLldpRemPortId());
+        Assert.assertEquals(LldpPortIdSubType.LLDP_PORTID_SUBTYPE_INTERFACENAME, lldpLinks.get(0).getLldpRemPortIdSubType());
+        Assert.assertEquals(Integer.valueOf(10), lldpLinks.get(0).getLldpPortIfindex());
+
+        final List<OspfLink> ospfLinks = m_topologyDao.getOspfLinksForTopology();
+        Assert.assertEquals(1, ospfLinks.size());
+        Assert.assertEquals(InetAddressUtils.addr("192.168.1.2"), ospfLinks.get(0).getOspfRemIpAddr());
+        Assert.assertEquals(Integer.valueOf(10), ospfLinks.get(0).getOspfIfIndex());
+
+        final List<CdpElement> cdpElements = m_topologyDao.getCdpElementsForTopology();
+        Assert.assertEquals(1, cdpElements.size());
+        Assert.assertEquals("node1.example.org", cdpElements.get(0).getCdpGlobalDeviceId());
+        final List<CdpLink> cdpLinks = m_topologyDao.getCdpLinksForTopology();
+        Assert.assertEquals(1, cdpLinks.size());
+        Assert.assertEquals(CiscoNetworkProtocolType.ip, cdpLinks.get(0).getCdpCacheAddressType());
+        Assert.assertEquals("GigabitEthernet0/2", cdpLinks.get(0).getCdpCacheDevicePort());
+
+        final List<BridgeBridgeLink> bridgeBridgeLinks = m_topologyDao.getBridgeBridgeLinksForTopology();
+        Assert.assertEquals(1, bridgeBridgeLinks.size());
+        Assert.assertEquals(node2.getId(), bridgeBridgeLinks.get(0).getDesignatedNode().getId());
+        Assert.assertEquals(Integer.valueOf(2), bridgeBridgeLinks.get(0).getDesignatedPort());
+        final List<BridgeMacLink> bridgeMacLinks = m_topologyDao.getBridgeMacLinksForTopology();
+        Assert.assertEquals(1, bridgeMacLinks.size());
+        Assert.assertEquals(node2.getId(), bridgeMacLinks.get(0).getNode().getId());
+        Assert.assertEquals("0016c8bd4d8b", bridgeMacLinks.get(0).getMacAddress());
+    }
 }
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+
+public class FilesystemResourceIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RrdStrategy<?, ?> m_rrdStrategy;
+
+    private String m_rrdFileExtension;
+
+    private File m_rrdDirectory;
+
+    private FilesystemResourceStorageDao m_fsResourceStorageDao = new FilesystemResourceStorageDao();
+
+    @Before
+    public void setUp() throws Exception {
+        m_rrdStrategy = new JRobinRrdStrategy();
+        m_rrdFileExtension = m_rrdStrategy.getDefaultFileExtension();
+        m_rrdDirectory = tempFolder.newFolder("rrd");
+        m_fsResourceStorageDao.setRrdDirectory(m_rrdDirectory);
+        m_fsResourceStorageDao.setRrdStrategy(m_rrdStrategy);
+    }
+
+    @Test
+    public void rebuildMatchesFilesystem() throws IOException {
+        final List<ResourcePath> paths = createRandomTree(new Random(42));
+
+        final FilesystemResourceIndex index = createIndex();
+        assertFalse(index.isReady());
+        index.rebuild();
+        assertTrue(index.isReady());
+
+        verifyMatchesFilesystem(index, paths);
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        final List<ResourcePath> paths = createRandomTree(new Random(7));
+
+        final FilesystemResourceIndex index = createIndex();
+        index.rebuild();
+        index.save();
+
+        final FilesystemResourceIndex loadedIndex = createIndex();
+        assertTrue(loadedIndex.load());
+        verifyMatchesFilesystem(loadedIndex, paths);
+
+        // The index is ignored when the extension changes
+        final FilesystemResourceIndex rrdIndex = new FilesystemResourceIndex(m_rrdDirectory.toPath(), ".rrd", getIndexFile(), 2);
+        assertFalse(rrdIndex.load());
+    }
+
+    @Test
+    public void updates() throws IOException {
+        final FilesystemResourceIndex index = createIndex();
+        index.rebuild();
+
+        assertFalse(index.exists(elements("snmp", "1", "ifIndex"), 0));
+        index.metricsPersisted(elements("snmp", "1", "ifIndex"));
+        assertTrue(index.exists(elements("snmp", "1", "ifIndex"), 0));
+        assertTrue(index.exists(elements("snmp"), 2));
+        assertTrue(index.existsWithin(elements("snmp"), 2));
+        assertFalse(index.existsWithin(elements("snmp"), 1));
+        assertEquals(Collections.singleton("1"), index.children(elements("snmp"), 2));
+
+        assertFalse(index.hasStringAttributes(elements("snmp", "1")));
+        index.stringAttributesPersisted(elements("snmp", "1"));
+        assertTrue(index.hasStringAttributes(elements("snmp", "1")));
+
+        index.deleted(elements("snmp", "1"));
+        assertFalse(index.exists(elements("snmp"), 2));
+        assertTrue(index.isDirectory(elements("snmp")));
+        assertFalse(index.isDirectory(elements("snmp", "1")));
+    }
+
+    @Test
+    public void daoUsesIndex() throws Exception {
+        final FilesystemResourceStorageDao dao = new FilesystemResourceStorageDao();
+        dao.setRrdDirectory(m_rrdDirectory);
+        dao.setRrdStrategy(m_rrdStrategy);
+        dao.setIndexEnabled(true);
+        dao.setIndexReconcileInterval(0);
+        dao.afterPropertiesSet();
+        try {
+            // Wait for the initial scan to complete
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (!new File(m_rrdDirectory, FilesystemResourceStorageDao.DEFAULT_INDEX_FILE_NAME).exists()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            final ResourcePath path = ResourcePath.get("snmp", "1", "ifIndex");
+            assertFalse(dao.exists(path, 0));
+            assertEquals(null, dao.getStringAttribute(path, "key"));
+
+            // Metrics written directly to disk are not visible until the DAO is notified
+            final File folder = new File(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString());
+            assertTrue(folder.mkdirs());
+            assertTrue(new File(folder, "ds" + m_rrdFileExtension).createNewFile());
+            assertFalse(dao.exists(path, 0));
+            dao.metricsPersisted(path);
+            assertTrue(dao.exists(path, 0));
+            assertEquals(Collections.singleton(ResourcePath.get("snmp", "1")), dao.children(ResourcePath.get("snmp"), 2));
+
+            dao.setStringAttribute(path, "key", "value");
+            assertEquals("value", dao.getStringAttribute(path, "key"));
+
+            assertTrue(dao.delete(ResourcePath.get("snmp", "1")));
+            assertFalse(dao.existsWithin(ResourcePath.get("snmp"), 2));
+        } finally {
+            dao.destroy();
+        }
+    }
+
+    private void verifyMatchesFilesystem(FilesystemResourceIndex index, List<ResourcePath> paths) {
+        for (ResourcePath path : paths) {
+            for (int depth = 0; depth < 4; depth++) {
+                assertEquals(path + "@" + depth, m_fsResourceStorageDao.exists(path, depth), index.exists(path.elements(), depth));
+                assertEquals(path + "@" + depth, m_fsResourceStorageDao.existsWithin(path, depth), index.existsWithin(path.elements(), depth));
+                if (depth > 0) {
+                    final Set<ResourcePath> children = index.children(path.elements(), depth).stream()
+                            .map(name -> ResourcePath.get(path, name))
+                            .collect(Collectors.toSet());
+                    assertEquals(path + "@" + depth, m_fsResourceStorageDao.children(path, depth), children);
+                }
+            }
+            assertEquals(path.toString(), m_fsResourceStorageDao.getStringAttribute(path, "key") != null, index.hasStringAttributes(path.elements()));
+        }
+    }
+
+    private List<ResourcePath> createRandomTree(Random random) throws IOException {
+        final List<ResourcePath> paths = new ArrayList<>();
+        paths.add(ResourcePath.get());
+        paths.add(ResourcePath.get("does", "not", "exist"));
+        for (int node = 0; node < 20; node++) {
+            final ResourcePath nodePath = ResourcePath.get("snmp", Integer.toString(node));
+            paths.add(nodePath);
+            createResource(random, nodePath);
+            for (int resource = random.nextInt(5); resource > 0; resource--) {
+                final ResourcePath resourcePath = ResourcePath.get(nodePath, "if" + resource);
+                paths.add(resourcePath);
+                createResource(random, resourcePath);
+                if (random.nextInt(4) == 0) {
+                    final ResourcePath subResourcePath = ResourcePath.get(resourcePath, "sub");
+                    paths.add(subResourcePath);
+                    createResource(random, subResourcePath);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private void createResource(Random random, ResourcePath path) throws IOException {
+        final File folder = new File(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString());
+        folder.mkdirs();
+        if (random.nextBoolean()) {
+            new File(folder, "ds" + m_rrdFileExtension).createNewFile();
+        }
+        if (random.nextInt(3) == 0) {
+            m_fsResourceStorageDao.setStringAttribute(path, "key", "value");
+        }
+        if (random.nextInt(5) == 0) {
+            new File(folder, "other.txt").createNewFile();
+        }
+    }
+
+    private FilesystemResourceIndex createIndex() {
+        return new FilesystemResourceIndex(m_rrdDirectory.toPath(), m_rrdFileExtension, getIndexFile(), 2);
+    }
+
+    private Path getIndexFile() {
+        return new File(tempFolder.getRoot(), "resource-index").toPath();
+    }
+
+    private static String[] elements(String... elements) {
+        return elements;
+    }
+}
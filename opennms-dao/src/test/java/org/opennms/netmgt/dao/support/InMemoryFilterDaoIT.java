@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.InMemoryFilterDao;
+import org.opennms.netmgt.filter.JdbcFilterDao;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Runs the {@link JdbcFilterDaoIT} tests against the {@link InMemoryFilterDao},
+ * along with the tests that follow the changes to the inventory.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-databasePopulator.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase
+public class InMemoryFilterDaoIT extends JdbcFilterDaoIT {
+
+    InMemoryFilterDao m_inMemoryDao;
+
+    @Override
+    protected FilterDao createFilterDao(final JdbcFilterDao jdbcFilterDao) throws Exception {
+        final EventSubscriptionService eventSubscriptionService = EasyMock.createNiceMock(EventSubscriptionService.class);
+        EasyMock.replay(eventSubscriptionService);
+
+        m_inMemoryDao = new InMemoryFilterDao();
+        m_inMemoryDao.setDelegate(jdbcFilterDao);
+        m_inMemoryDao.setEventSubscriptionService(eventSubscriptionService);
+        m_inMemoryDao.afterPropertiesSet();
+        return m_inMemoryDao;
+    }
+
+    @Test
+    public void testSupportedRulesAreEvaluatedInMemory() throws Exception {
+        assertEquals(3, m_inMemoryDao.getIPAddressList("ipaddr IPLIKE 192.168.1.*").size());
+        assertEquals(1, m_inMemoryDao.getNodeMap("catincIMP_mid & nodeid == " + m_populator.getNode1().getId()).size());
+        assertTrue(m_inMemoryDao.getIPAddressServiceMap("isICMP").size() > 0);
+        assertTrue(m_inMemoryDao.isValid("192.168.1.1", "nodeid == " + m_populator.getNode1().getId()));
+        assertEquals(4, m_inMemoryDao.getEvaluatedCount());
+        assertEquals(0, m_inMemoryDao.getDelegatedCount());
+
+        m_inMemoryDao.getIPAddressList("nodeCreateTime > '2000-01-01'");
+        assertEquals(1, m_inMemoryDao.getDelegatedCount());
+    }
+
+    @Test
+    public void testUpdatedNodeIsReloadedOnEvent() throws Exception {
+        assertEquals(1, m_inMemoryDao.getActiveIPAddressList("ipaddr == '192.168.1.1'").size());
+
+        final int nodeId = setInterfaceDeleted("192.168.1.1");
+
+        // Nothing changes until we receive the event
+        assertEquals(1, m_inMemoryDao.getActiveIPAddressList("ipaddr == '192.168.1.1'").size());
+
+        m_inMemoryDao.onEvent(new EventBuilder(EventConstants.INTERFACE_DELETED_EVENT_UEI, "test").setNodeid(nodeId).getEvent());
+        assertEquals(0, m_inMemoryDao.getActiveIPAddressList("ipaddr == '192.168.1.1'").size());
+        assertEquals(new HashSet<>(m_jdbcDao.getActiveIPAddressList("ipaddr IPLIKE *.*.*.*")),
+                new HashSet<>(m_inMemoryDao.getActiveIPAddressList("ipaddr IPLIKE *.*.*.*")));
+    }
+
+    @Test
+    public void testFlushDoesNotReloadTheInventory() throws Exception {
+        assertTrue(m_inMemoryDao.isValid("192.168.1.1", "ipaddr IPLIKE *.*.*.*"));
+
+        setInterfaceDeleted("192.168.1.1");
+
+        m_inMemoryDao.flushActiveIpAddressListCache();
+        assertTrue(m_inMemoryDao.isValid("192.168.1.1", "ipaddr IPLIKE *.*.*.*"));
+        assertEquals(0, m_inMemoryDao.getDelegatedCount());
+    }
+
+    private int setInterfaceDeleted(final String ipAddress) {
+        return m_transTemplate.execute(status -> {
+            final OnmsIpInterface iface = m_interfaceDao.findByIpAddress(ipAddress).get(0);
+            iface.setIsManaged("D");
+            m_interfaceDao.save(iface);
+            m_interfaceDao.flush();
+            return iface.getNode().getId();
+        });
+    }
+}
@@ -59,6 +59,7 @@ import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.filter.JdbcFilterDao;
+import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.model.AbstractEntityVisitor;
 import org.opennms.netmgt.model.EntityVisitor;
 import org.opennms.netmgt.model.OnmsIpInterface;
@@ -73,6 +74,9 @@ import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
 /**
+ * Runs the filter rules against the {@link JdbcFilterDao}. Subclasses run the
+ * same tests against the other {@link FilterDao} implementations by overriding
+ * {@link #createFilterDao(JdbcFilterDao)}.
  *
  * @author <a href="mailto:dj@opennms.org">DJ Gregor</a>
  */
@@ -96,8 +100,10 @@ public class JdbcFilterDaoIT implements InitializingBean {
     @Autowired
     ServiceTypeDao m_serviceTypeDao;
 
-    JdbcFilterDao m_dao;
-    
+    JdbcFilterDao m_jdbcDao;
+
+    FilterDao m_dao;
+
     @Autowired
     DatabasePopulator m_populator;
 
@@ -122,13 +128,21 @@ public class JdbcFilterDaoIT implements InitializingBean {
         // as the autowired DAOs
 
         DatabaseSchemaConfigFactory.init();
-        m_dao = new JdbcFilterDao();
-        m_dao.setDataSource(m_dataSource);
-        m_dao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
-        m_dao.afterPropertiesSet();
+        m_jdbcDao = new JdbcFilterDao();
+        m_jdbcDao.setDataSource(m_dataSource);
+        m_jdbcDao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
+        m_jdbcDao.afterPropertiesSet();
+        m_dao = createFilterDao(m_jdbcDao);
         FilterDaoFactory.setInstance(m_dao);
     }
 
+    /**
+     * @return the {@link FilterDao} under test
+     */
+    protected FilterDao createFilterDao(final JdbcFilterDao jdbcFilterDao) throws Exception {
+        return jdbcFilterDao;
+    }
+
     @After
     public void tearDown() {
         m_populator.resetDatabase();
@@ -317,12 +331,12 @@ public class JdbcFilterDaoIT implements InitializingBean {
 
     @Test
     public void testGetInterfaceWithServiceStatement() throws Exception {
-        assertEquals("SQL from getInterfaceWithServiceStatement", "SELECT DISTINCT ipInterface.ipAddr, service.serviceName, node.nodeID FROM ipInterface JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId) JOIN service ON (ifServices.serviceID = service.serviceID) JOIN node ON (ipInterface.nodeID = node.nodeID) WHERE IPLIKE(ipInterface.ipaddr, '*.*.*.*')", m_dao.getInterfaceWithServiceStatement("ipaddr IPLIKE *.*.*.*"));
+        assertEquals("SQL from getInterfaceWithServiceStatement", "SELECT DISTINCT ipInterface.ipAddr, service.serviceName, node.nodeID FROM ipInterface JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId) JOIN service ON (ifServices.serviceID = service.serviceID) JOIN node ON (ipInterface.nodeID = node.nodeID) WHERE IPLIKE(ipInterface.ipaddr, '*.*.*.*')", m_jdbcDao.getInterfaceWithServiceStatement("ipaddr IPLIKE *.*.*.*"));
     }
 
     @Test
     public void testGetIpv6InterfaceWithServiceStatement() throws Exception {
-        assertEquals("SQL from getIpv6InterfaceWithServiceStatement", "SELECT DISTINCT ipInterface.ipAddr, service.serviceName, node.nodeID FROM ipInterface JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId) JOIN service ON (ifServices.serviceID = service.serviceID) JOIN node ON (ipInterface.nodeID = node.nodeID) WHERE IPLIKE(ipInterface.ipaddr, '*:*:*:*:*:*:*:*')", m_dao.getInterfaceWithServiceStatement("ipaddr IPLIKE *:*:*:*:*:*:*:*"));
+        assertEquals("SQL from getIpv6InterfaceWithServiceStatement", "SELECT DISTINCT ipInterface.ipAddr, service.serviceName, node.nodeID FROM ipInterface JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId) JOIN service ON (ifServices.serviceID = service.serviceID) JOIN node ON (ipInterface.nodeID = node.nodeID) WHERE IPLIKE(ipInterface.ipaddr, '*:*:*:*:*:*:*:*')", m_jdbcDao.getInterfaceWithServiceStatement("ipaddr IPLIKE *:*:*:*:*:*:*:*"));
     }
 
     @Test
@@ -346,11 +360,11 @@ public class JdbcFilterDaoIT implements InitializingBean {
 
     @Test
     public void testVariousWaysToMatchServiceNames() {
-        assertEquals("service statement", m_dao.getInterfaceWithServiceStatement("isFooService"), m_dao.getInterfaceWithServiceStatement("serviceName == 'FooService'"));
-        assertEquals("ip service mapping statement", m_dao.getIPServiceMappingStatement("isFooService"), m_dao.getIPServiceMappingStatement("serviceName == 'FooService'"));
-        assertEquals("ip service mapping statement", m_dao.getNodeMappingStatement("isFooService"), m_dao.getNodeMappingStatement("serviceName == 'FooService'"));
+        assertEquals("service statement", m_jdbcDao.getInterfaceWithServiceStatement("isFooService"), m_jdbcDao.getInterfaceWithServiceStatement("serviceName == 'FooService'"));
+        assertEquals("ip service mapping statement", m_jdbcDao.getIPServiceMappingStatement("isFooService"), m_jdbcDao.getIPServiceMappingStatement("serviceName == 'FooService'"));
+        assertEquals("ip service mapping statement", m_jdbcDao.getNodeMappingStatement("isFooService"), m_jdbcDao.getNodeMappingStatement("serviceName == 'FooService'"));
 
         // Just make sure this one doesn't hurl
-        m_dao.getInterfaceWithServiceStatement("serviceName == 'DiskUsage-/foo/bar'");
+        m_jdbcDao.getInterfaceWithServiceStatement("serviceName == 'DiskUsage-/foo/bar'");
     }
 }
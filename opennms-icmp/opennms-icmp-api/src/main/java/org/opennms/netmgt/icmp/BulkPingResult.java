@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a single {@link BulkPingRequest}.
+ */
+public final class BulkPingResult {
+
+    public enum Status {
+        /** An echo reply was received */
+        RESPONDED,
+        /** No reply was received after all of the retries */
+        TIMED_OUT,
+        /** The request could not be sent */
+        ERROR
+    }
+
+    private final int m_index;
+    private final InetAddress m_address;
+    private final Status m_status;
+    private final long m_rttNanos;
+    private final Throwable m_error;
+
+    BulkPingResult(int index, InetAddress address, Status status, long rttNanos, Throwable error) {
+        m_index = index;
+        m_address = address;
+        m_status = status;
+        m_rttNanos = rttNanos;
+        m_error = error;
+    }
+
+    /**
+     * @return the position of the request in the sequence of requests, starting at 0
+     */
+    public int getIndex() {
+        return m_index;
+    }
+
+    public InetAddress getAddress() {
+        return m_address;
+    }
+
+    public Status getStatus() {
+        return m_status;
+    }
+
+    public boolean isResponded() {
+        return m_status == Status.RESPONDED;
+    }
+
+    /**
+     * @return the round-trip time in the given unit, or null if no reply was received
+     */
+    public Double elapsedTime(TimeUnit unit) {
+        if (m_status != Status.RESPONDED) {
+            return null;
+        }
+        return m_rttNanos / (double)TimeUnit.NANOSECONDS.convert(1, unit);
+    }
+
+    /**
+     * @return the error that prevented the request from being sent, if any
+     */
+    public Throwable getError() {
+        return m_error;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkPingResult[index=" + m_index + ", address=" + m_address + ", status=" + m_status
+                + (m_status == Status.RESPONDED ? ", rtt=" + elapsedTime(TimeUnit.MILLISECONDS) + "ms" : "")
+                + (m_error != null ? ", error=" + m_error : "") + "]";
+    }
+}
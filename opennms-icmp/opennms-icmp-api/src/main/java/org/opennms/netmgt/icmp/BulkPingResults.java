@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * The results of a {@link Pinger#bulkPing(Iterable, double, int)}, in the
+ * order in which they complete.
+ *
+ * Iterating blocks until the next result is available, and ends once every
+ * request has completed. Closing stops the sweep, any requests that are still
+ * outstanding are abandoned.
+ */
+public interface BulkPingResults extends Iterator<BulkPingResult>, AutoCloseable {
+
+    /**
+     * @return the remaining results as a sequential stream, closing the
+     *    stream closes the sweep
+     */
+    public Stream<BulkPingResult> stream();
+
+    /**
+     * @return the number of echo requests sent so far, including retries
+     */
+    public long getSent();
+
+    /**
+     * @return the number of requests that were answered
+     */
+    public long getReceived();
+
+    /**
+     * @return the number of requests that were not answered after all of their retries
+     */
+    public long getTimedOut();
+
+    /**
+     * @return the number of replies that arrived after their request timed out,
+     *    or that were duplicates
+     */
+    public long getLate();
+
+    /**
+     * @return the number of requests that could not be sent
+     */
+    public long getErrors();
+
+    @Override
+    public void close();
+
+}
@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.opennms.netmgt.icmp.BulkPingResult.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pings large numbers of addresses through an {@link EchoMessenger}.
+ *
+ * Each sweep sends its requests from a dedicated thread, at a fixed rate, and
+ * tracks the outstanding requests in primitive arrays indexed by the position
+ * of the request in the sweep. The position is encoded in the thread id of
+ * the echo request, so matching a reply is an array lookup, and the timeouts
+ * are tracked with an {@link IntTimerWheel} instead of a queue of request
+ * objects.
+ *
+ * The thread ids used by the sweeps all start with {@link #THREAD_ID_MARKER},
+ * messengers that are shared with other kinds of requests can use
+ * {@link #isBulkThreadId(long)} to route the replies.
+ */
+public class BulkPinger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkPinger.class);
+
+    /** The upper 24 bits of the thread ids used by the sweeps: "BLK" */
+    public static final long THREAD_ID_MARKER = 0x424C4B0000000000L;
+
+    private static final long THREAD_ID_MARKER_MASK = 0xFFFFFF0000000000L;
+
+    private static final int MAX_SWEEPS = 256;
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int WHEEL_BUCKETS = 512;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Don't try to catch up on more than this much time after a stall */
+    private static final long MAX_BURST_NANOS = TICK_NANOS;
+
+    /** Check the timeouts at least this often when sending as fast as possible */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private static final Object END = new Object();
+
+    private final EchoMessenger m_messenger;
+
+    private final AtomicReferenceArray<Sweep> m_sweeps = new AtomicReferenceArray<>(MAX_SWEEPS);
+
+    private int m_nextSlot = 0;
+
+    private final AtomicLong m_sent = new AtomicLong();
+    private final AtomicLong m_received = new AtomicLong();
+    private final AtomicLong m_timedOut = new AtomicLong();
+    private final AtomicLong m_late = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+
+    public BulkPinger(EchoMessenger messenger) {
+        m_messenger = Objects.requireNonNull(messenger);
+    }
+
+    /**
+     * Creates a {@link BulkPinger} that sends every request with
+     * {@link Pinger#ping(InetAddress, long, int, int, int, PingResponseCallback)}.
+     *
+     * This works with any {@link Pinger}, but doesn't avoid the overhead of
+     * tracking the requests individually.
+     */
+    public static BulkPinger forPinger(Pinger pinger) {
+        final PingerEchoMessenger messenger = new PingerEchoMessenger(pinger);
+        final BulkPinger bulkPinger = new BulkPinger(messenger);
+        messenger.m_bulkPinger = bulkPinger;
+        return bulkPinger;
+    }
+
+    public static boolean isBulkThreadId(long threadId) {
+        return (threadId & THREAD_ID_MARKER_MASK) == THREAD_ID_MARKER;
+    }
+
+    /**
+     * Starts pinging the given addresses.
+     *
+     * @param requests the requests, which are consumed lazily as they are sent
+     * @param packetsPerSecond the rate at which the requests are sent, retries
+     *    are sent immediately and don't count against it; 0 or less to send as
+     *    fast as possible
+     * @param packetSize the size in bytes of the ICMP packets
+     * @return the results
+     */
+    public BulkPingResults ping(Iterator<BulkPingRequest> requests, double packetsPerSecond, int packetSize) {
+        final Sweep sweep = new Sweep(requests, packetsPerSecond, packetSize);
+        sweep.m_slot = register(sweep);
+        final Thread thread = new Thread(sweep, "BulkPinger-Sweep-" + sweep.m_slot);
+        thread.setDaemon(true);
+        thread.start();
+        return sweep;
+    }
+
+    /**
+     * Handles an echo reply.
+     *
+     * @return false if the reply isn't for one of our requests
+     */
+    public boolean handleReply(InetAddress address, EchoPacket reply) {
+        return handleReply(reply.getThreadId(), address, (long)reply.elapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Handles an echo reply.
+     *
+     * @return false if the reply isn't for one of our requests
+     */
+    public boolean handleReply(long threadId, InetAddress address, long rttNanos) {
+        if (!isBulkThreadId(threadId)) {
+            return false;
+        }
+        final Sweep sweep = m_sweeps.get(slotOf(threadId));
+        if (sweep == null) {
+            m_late.incrementAndGet();
+        } else {
+            sweep.handleReply((int)threadId, address, rttNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Fails the request with the given thread id, if it is still outstanding.
+     *
+     * @return false if the thread id isn't for one of our requests
+     */
+    public boolean handleError(long threadId, Throwable t) {
+        if (!isBulkThreadId(threadId)) {
+            return false;
+        }
+        final Sweep sweep = m_sweeps.get(slotOf(threadId));
+        if (sweep != null) {
+            sweep.handleError((int)threadId, t);
+        }
+        return true;
+    }
+
+    public long getSent() {
+        return m_sent.get();
+    }
+
+    public long getReceived() {
+        return m_received.get();
+    }
+
+    public long getTimedOut() {
+        return m_timedOut.get();
+    }
+
+    public long getLate() {
+        return m_late.get();
+    }
+
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    private synchronized int register(Sweep sweep) {
+        for (int i = 0; i < MAX_SWEEPS; i++) {
+            final int slot = (m_nextSlot + i) % MAX_SWEEPS;
+            if (m_sweeps.compareAndSet(slot, null, sweep)) {
+                // Don't reuse a slot right away, so that late replies aren't matched to the next sweep
+                m_nextSlot = (slot + 1) % MAX_SWEEPS;
+                return slot;
+            }
+        }
+        throw new IllegalStateException("Too many concurrent ping sweeps.");
+    }
+
+    private static int slotOf(long threadId) {
+        return (int)((threadId >>> 32) & (MAX_SWEEPS - 1));
+    }
+
+    private final class Sweep implements BulkPingResults, Runnable {
+
+        private final Iterator<BulkPingRequest> m_requests;
+        private final long m_intervalNanos;
+        private final int m_packetSize;
+        private volatile int m_slot;
+
+        private final BlockingQueue<Object> m_results = new LinkedBlockingQueue<>();
+        private volatile boolean m_closed = false;
+        private Object m_next = null;
+
+        // The outstanding requests, indexed by the position of the request modulo the capacity
+        private int m_capacity = INITIAL_CAPACITY;
+        private boolean[] m_pending = new boolean[INITIAL_CAPACITY];
+        private int[] m_index = new int[INITIAL_CAPACITY];
+        private InetAddress[] m_address = new InetAddress[INITIAL_CAPACITY];
+        private long[] m_timeout = new long[INITIAL_CAPACITY];
+        private int[] m_retriesLeft = new int[INITIAL_CAPACITY];
+        private int m_numPending = 0;
+
+        private IntTimerWheel m_wheel;
+
+        private final AtomicLong m_sent = new AtomicLong();
+        private final AtomicLong m_received = new AtomicLong();
+        private final AtomicLong m_timedOut = new AtomicLong();
+        private final AtomicLong m_late = new AtomicLong();
+        private final AtomicLong m_errors = new AtomicLong();
+
+        private Sweep(Iterator<BulkPingRequest> requests, double packetsPerSecond, int packetSize) {
+            m_requests = Objects.requireNonNull(requests);
+            m_intervalNanos = packetsPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / packetsPerSecond) : 0;
+            m_packetSize = packetSize;
+        }
+
+        @Override
+        public void run() {
+            try {
+                sweep();
+            } catch (Throwable t) {
+                LOG.error("Ping sweep failed.", t);
+            } finally {
+                m_sweeps.compareAndSet(m_slot, this, null);
+                m_results.add(END);
+                LOG.debug("Ping sweep done: sent={}, received={}, timedOut={}, late={}, errors={}",
+                        getSent(), getReceived(), getTimedOut(), getLate(), getErrors());
+            }
+        }
+
+        private void sweep() {
+            final long start = System.nanoTime();
+            synchronized (this) {
+                m_wheel = new IntTimerWheel(TICK_NANOS, WHEEL_BUCKETS, start);
+            }
+            long nextSendNanos = start;
+            int nextIndex = 0;
+            boolean moreRequests = m_requests.hasNext();
+
+            while (!m_closed) {
+                long now = System.nanoTime();
+                synchronized (this) {
+                    m_wheel.expire(now, this::expired);
+                }
+
+                if (moreRequests) {
+                    nextSendNanos = Math.max(nextSendNanos, now - MAX_BURST_NANOS);
+                    int batchSize = 0;
+                    while (moreRequests && !m_closed && nextSendNanos - now <= 0 && batchSize++ < MAX_BATCH_SIZE) {
+                        send(nextIndex++, m_requests.next(), now);
+                        moreRequests = m_requests.hasNext();
+                        nextSendNanos += m_intervalNanos;
+                        if (m_intervalNanos > 0) {
+                            now = System.nanoTime();
+                        }
+                    }
+                }
+
+                final long wakeUpNanos;
+                synchronized (this) {
+                    if (!moreRequests && m_numPending == 0) {
+                        return;
+                    }
+                    wakeUpNanos = moreRequests ? Math.min(nextSendNanos, m_wheel.getNextTickNanos()) : m_wheel.getNextTickNanos();
+                }
+                final long sleepNanos = wakeUpNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+            }
+        }
+
+        private void send(int index, BulkPingRequest request, long now) {
+            synchronized (this) {
+                final int slot = reserve(index);
+                m_pending[slot] = true;
+                m_index[slot] = index;
+                m_address[slot] = request.getAddress();
+                m_timeout[slot] = TimeUnit.MILLISECONDS.toNanos(request.getTimeout());
+                m_retriesLeft[slot] = request.getRetries();
+                m_numPending++;
+                m_wheel.schedule(index, now + m_timeout[slot]);
+            }
+            transmit(index, request.getAddress(), request.getTimeout());
+        }
+
+        private void transmit(int index, InetAddress address, long timeout) {
+            try {
+                m_messenger.sendEchoRequest(address, index & 0xFFFF, threadIdOf(index), m_packetSize, timeout);
+                m_sent.incrementAndGet();
+                BulkPinger.this.m_sent.incrementAndGet();
+            } catch (Throwable t) {
+                handleError(index, t);
+            }
+        }
+
+        /**
+         * Called from the timer wheel, while holding the lock.
+         */
+        private void expired(int index) {
+            final int slot = index & (m_capacity - 1);
+            if (!m_pending[slot] || m_index[slot] != index) {
+                // Already answered
+                return;
+            }
+            if (m_retriesLeft[slot] > 0) {
+                m_retriesLeft[slot]--;
+                m_wheel.schedule(index, System.nanoTime() + m_timeout[slot]);
+                transmit(index, m_address[slot], TimeUnit.NANOSECONDS.toMillis(m_timeout[slot]));
+            } else {
+                final InetAddress address = complete(slot);
+                m_timedOut.incrementAndGet();
+                BulkPinger.this.m_timedOut.incrementAndGet();
+                m_results.add(new BulkPingResult(index, address, Status.TIMED_OUT, 0, null));
+            }
+        }
+
+        private void handleReply(int index, InetAddress address, long rttNanos) {
+            final InetAddress requested;
+            synchronized (this) {
+                final int slot = index & (m_capacity - 1);
+                if (m_closed || !m_pending[slot] || m_index[slot] != index || !m_address[slot].equals(address)) {
+                    requested = null;
+                } else {
+                    requested = complete(slot);
+                }
+            }
+            if (requested == null) {
+                m_late.incrementAndGet();
+                BulkPinger.this.m_late.incrementAndGet();
+                return;
+            }
+            m_received.incrementAndGet();
+            BulkPinger.this.m_received.incrementAndGet();
+            m_results.add(new BulkPingResult(index, requested, Status.RESPONDED, rttNanos, null));
+        }
+
+        private void handleError(int index, Throwable t) {
+            final InetAddress requested;
+            synchronized (this) {
+                final int slot = index & (m_capacity - 1);
+                if (m_closed || !m_pending[slot] || m_index[slot] != index) {
+                    return;
+                }
+                requested = complete(slot);
+            }
+            m_errors.incrementAndGet();
+            BulkPinger.this.m_errors.incrementAndGet();
+            m_results.add(new BulkPingResult(index, requested, Status.ERROR, 0, t));
+        }
+
+        private InetAddress complete(int slot) {
+            final InetAddress address = m_address[slot];
+            m_pending[slot] = false;
+            m_address[slot] = null;
+            m_numPending--;
+            return address;
+        }
+
+        /**
+         * Makes sure that the slot for the given index is free, growing the
+         * table if it's taken by a request that is still outstanding.
+         */
+        private int reserve(int index) {
+            while (m_pending[index & (m_capacity - 1)]) {
+                // Doubling the capacity can't make two outstanding requests collide,
+                // since they would have collided before as well
+                final int capacity = m_capacity * 2;
+                final boolean[] pending = new boolean[capacity];
+                final int[] indexes = new int[capacity];
+                final InetAddress[] addresses = new InetAddress[capacity];
+                final long[] timeouts = new long[capacity];
+                final int[] retriesLeft = new int[capacity];
+                for (int i = 0; i < m_capacity; i++) {
+                    if (m_pending[i]) {
+                        final int slot = m_index[i] & (capacity - 1);
+                        pending[slot] = true;
+                        indexes[slot] = m_index[i];
+                        addresses[slot] = m_address[i];
+                        timeouts[slot] = m_timeout[i];
+                        retriesLeft[slot] = m_retriesLeft[i];
+                    }
+                }
+                m_capacity = capacity;
+                m_pending = pending;
+                m_index = indexes;
+                m_address = addresses;
+                m_timeout = timeouts;
+                m_retriesLeft = retriesLeft;
+            }
+            return index & (m_capacity - 1);
+        }
+
+        private long threadIdOf(int index) {
+            return THREAD_ID_MARKER | ((long)m_slot << 32) | (index & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (m_next == null) {
+                try {
+                    m_next = m_results.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    m_next = END;
+                }
+            }
+            return m_next != END;
+        }
+
+        @Override
+        public BulkPingResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BulkPingResult result = (BulkPingResult)m_next;
+            m_next = null;
+            return result;
+        }
+
+        @Override
+        public Stream<BulkPingResult> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(this::close);
+        }
+
+        @Override
+        public void close() {
+            m_closed = true;
+        }
+
+        @Override
+        public long getSent() {
+            return m_sent.get();
+        }
+
+        @Override
+        public long getReceived() {
+            return m_received.get();
+        }
+
+        @Override
+        public long getTimedOut() {
+            return m_timedOut.get();
+        }
+
+        @Override
+        public long getLate() {
+            return m_late.get();
+        }
+
+        @Override
+        public long getErrors() {
+            return m_errors.get();
+        }
+
+        @Override
+        public String toString() {
+            return "BulkPingResults[slot=" + m_slot + ", sent=" + getSent() + ", received=" + getReceived()
+                    + ", timedOut=" + getTimedOut() + ", late=" + getLate() + ", errors=" + getErrors() + "]";
+        }
+    }
+
+    /**
+     * Sends the requests using the callback based API of a {@link Pinger}.
+     */
+    private static final class PingerEchoMessenger implements EchoMessenger {
+        private final Pinger m_pinger;
+        private BulkPinger m_bulkPinger;
+
+        private PingerEchoMessenger(Pinger pinger) {
+            m_pinger = Objects.requireNonNull(pinger);
+        }
+
+        @Override
+        public void sendEchoRequest(InetAddress address, int sequenceNumber, long threadId, int packetSize, long timeout) throws Exception {
+            m_pinger.ping(address, timeout, 0, packetSize, sequenceNumber, new PingResponseCallback() {
+                @Override
+                public void handleResponse(InetAddress addr, EchoPacket response) {
+                    m_bulkPinger.handleReply(threadId, address, response != null ? (long)response.elapsedTime(TimeUnit.NANOSECONDS) : 0);
+                }
+
+                @Override
+                public void handleTimeout(InetAddress addr, EchoPacket request) {
+                    // The sweep tracks the timeouts itself
+                }
+
+                @Override
+                public void handleError(InetAddress addr, EchoPacket request, Throwable t) {
+                    m_bulkPinger.handleError(threadId, t);
+                }
+            });
+        }
+    }
+}
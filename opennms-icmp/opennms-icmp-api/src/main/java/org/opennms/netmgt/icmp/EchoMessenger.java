@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+
+/**
+ * Sends ICMP echo requests on behalf of a {@link BulkPinger}.
+ *
+ * The replies must be handed back to the {@link BulkPinger} with
+ * {@link BulkPinger#handleReply(InetAddress, EchoPacket)}, and must carry the
+ * thread id of the request they answer.
+ */
+public interface EchoMessenger {
+
+    /**
+     * Sends a single echo request.
+     *
+     * @param address the address to ping
+     * @param sequenceNumber the sequence number of the request
+     * @param threadId the thread id that must be returned with the reply
+     * @param packetSize the size in bytes of the ICMP packet
+     * @param timeout the time in milliseconds after which the request will be
+     *    considered lost; implementations that don't track the requests themselves
+     *    can ignore it
+     */
+    public void sendEchoRequest(InetAddress address, int sequenceNumber, long threadId, int packetSize, long timeout) throws Exception;
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A hashed timer wheel keyed by ints.
+ *
+ * The keys and their deadlines are kept in primitive arrays, one pair per
+ * bucket, so tracking a timeout doesn't allocate once the buckets have grown
+ * to their working size. Entries can't be cancelled: the owner is expected to
+ * ignore the keys that have already been dealt with when they expire.
+ *
+ * This class is not thread-safe.
+ */
+class IntTimerWheel {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private final long m_tickNanos;
+    private final long m_startNanos;
+    private final int m_mask;
+
+    private final int[][] m_keys;
+    private final long[][] m_deadlines;
+    private final int[] m_sizes;
+
+    private long m_currentTick = 0;
+    private int m_size = 0;
+
+    private int[] m_expired = new int[INITIAL_BUCKET_CAPACITY];
+
+    /**
+     * @param tickNanos the resolution of the wheel
+     * @param numBuckets the number of buckets, rounded up to a power of 2
+     * @param startNanos the time, as returned by {@link System#nanoTime()}, at which the wheel starts
+     */
+    IntTimerWheel(long tickNanos, int numBuckets, long startNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        final int buckets = Integer.highestOneBit(Math.max(1, numBuckets - 1)) << 1;
+        m_tickNanos = tickNanos;
+        m_startNanos = startNanos;
+        m_mask = buckets - 1;
+        m_keys = new int[buckets][];
+        m_deadlines = new long[buckets][];
+        m_sizes = new int[buckets];
+    }
+
+    /**
+     * Schedules the given key to expire at the given time.
+     */
+    void schedule(int key, long deadlineNanos) {
+        final long tick = Math.max(m_currentTick, tickOf(deadlineNanos));
+        final int bucket = (int)(tick & m_mask);
+        int size = m_sizes[bucket];
+        if (m_keys[bucket] == null) {
+            m_keys[bucket] = new int[INITIAL_BUCKET_CAPACITY];
+            m_deadlines[bucket] = new long[INITIAL_BUCKET_CAPACITY];
+        } else if (size == m_keys[bucket].length) {
+            m_keys[bucket] = Arrays.copyOf(m_keys[bucket], size * 2);
+            m_deadlines[bucket] = Arrays.copyOf(m_deadlines[bucket], size * 2);
+        }
+        m_keys[bucket][size] = key;
+        m_deadlines[bucket][size] = deadlineNanos;
+        m_sizes[bucket] = size + 1;
+        m_size++;
+    }
+
+    /**
+     * Removes the keys whose deadline is at, or before the given time and
+     * hands them to the consumer, which may schedule new keys.
+     */
+    void expire(long nowNanos, IntConsumer consumer) {
+        final long nowTick = tickOf(nowNanos);
+        int numExpired = 0;
+        if (m_size > 0) {
+            // Visit every bucket at most once, even if we haven't been called in a while
+            final long lastTick = Math.min(nowTick, m_currentTick + m_mask);
+            for (long tick = m_currentTick; tick <= lastTick; tick++) {
+                numExpired = expireBucket((int)(tick & m_mask), nowNanos, numExpired);
+            }
+        }
+        m_currentTick = Math.max(m_currentTick, nowTick);
+
+        for (int i = 0; i < numExpired; i++) {
+            consumer.accept(m_expired[i]);
+        }
+    }
+
+    private int expireBucket(int bucket, long nowNanos, int numExpired) {
+        final int size = m_sizes[bucket];
+        if (size == 0) {
+            return numExpired;
+        }
+        final int[] keys = m_keys[bucket];
+        final long[] deadlines = m_deadlines[bucket];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (deadlines[i] - nowNanos <= 0) {
+                if (numExpired == m_expired.length) {
+                    m_expired = Arrays.copyOf(m_expired, numExpired * 2);
+                }
+                m_expired[numExpired++] = keys[i];
+            } else {
+                // Not due before a later round of the wheel
+                keys[kept] = keys[i];
+                deadlines[kept] = deadlines[i];
+                kept++;
+            }
+        }
+        m_size -= size - kept;
+        m_sizes[bucket] = kept;
+        return numExpired;
+    }
+
+    /**
+     * @return the time at which the next tick of the wheel starts
+     */
+    long getNextTickNanos() {
+        return m_startNanos + (m_currentTick + 1) * m_tickNanos;
+    }
+
+    /**
+     * @return the number of keys that are scheduled
+     */
+    int size() {
+        return m_size;
+    }
+
+    private long tickOf(long nanos) {
+        return Math.max(0, (nanos - m_startNanos) / m_tickNanos);
+    }
+}
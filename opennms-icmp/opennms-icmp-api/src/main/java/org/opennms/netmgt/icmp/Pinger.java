@@ -133,6 +133,24 @@ public interface Pinger {
          */
         public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
         
+        /**
+         * Ping a large number of hosts, sending the requests at a fixed rate.
+         *
+         * The default implementation sends the requests one by one with
+         * {@link #ping(InetAddress, long, int, int, int, PingResponseCallback)},
+         * implementations should override it when they can track the requests
+         * more efficiently.
+         *
+         * @param requests The addresses to ping, along with their timeout and retries.
+         *     They are consumed lazily, as the requests are sent.
+         * @param packetsPerSecond The rate at which the requests are sent, 0 or less to send them as fast as possible.
+         * @param packetSize The size in bytes of the ICMP packets.
+         * @return the results, as they complete
+         */
+        public default BulkPingResults bulkPing(Iterable<BulkPingRequest> requests, double packetsPerSecond, int packetSize) throws Exception {
+            return BulkPinger.forPinger(this).ping(requests.iterator(), packetsPerSecond, packetSize);
+        }
+
 	public void setAllowFragmentation(final boolean allow) throws Exception;
 
 	public void setTrafficClass(final int tc) throws Exception;
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.icmp.BulkPingResult.Status;
+
+public class BulkPingerTest {
+
+    private final ScheduledExecutorService m_executor = Executors.newScheduledThreadPool(2);
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void canPingManyAddresses() throws Exception {
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> 0L);
+        final List<BulkPingRequest> requests = requests(5000, 1000, 0);
+
+        try (BulkPingResults results = messenger.getBulkPinger().ping(requests.iterator(), 0, 64)) {
+            final List<BulkPingResult> all = results.stream().collect(Collectors.toList());
+            assertEquals(5000, all.size());
+            assertTrue(all.stream().allMatch(BulkPingResult::isResponded));
+            // Every request was answered exactly once
+            assertEquals(5000, all.stream().map(BulkPingResult::getIndex).collect(Collectors.toSet()).size());
+            for (BulkPingResult result : all) {
+                assertEquals(requests.get(result.getIndex()).getAddress(), result.getAddress());
+            }
+            assertEquals(5000, results.getSent());
+            assertEquals(5000, results.getReceived());
+            assertEquals(0, results.getTimedOut());
+            assertEquals(0, results.getLate());
+        }
+        assertEquals(5000, messenger.getBulkPinger().getReceived());
+    }
+
+    @Test
+    public void retriesBeforeTimingOut() throws Exception {
+        // Only the even addresses respond
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> (address.getAddress()[3] & 1) == 0 ? 0L : null);
+
+        try (BulkPingResults results = messenger.getBulkPinger().ping(requests(100, 20, 2).iterator(), 0, 64)) {
+            final Map<Status, Long> counts = results.stream().collect(Collectors.groupingBy(BulkPingResult::getStatus, Collectors.counting()));
+            assertEquals(Long.valueOf(50), counts.get(Status.RESPONDED));
+            assertEquals(Long.valueOf(50), counts.get(Status.TIMED_OUT));
+            // 50 requests that were answered right away, and 50 that were sent 3 times
+            assertEquals(50 + 50 * 3, results.getSent());
+            assertEquals(50, results.getTimedOut());
+        }
+        assertEquals(200, messenger.getSent());
+    }
+
+    @Test
+    public void countsLateReplies() throws Exception {
+        // Reply long after the timeout
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> 200L);
+
+        try (BulkPingResults results = messenger.getBulkPinger().ping(requests(10, 20, 0).iterator(), 0, 64)) {
+            assertEquals(10, results.stream().filter(r -> r.getStatus() == Status.TIMED_OUT).count());
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (messenger.getBulkPinger().getLate() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, messenger.getBulkPinger().getLate());
+        assertEquals(0, messenger.getBulkPinger().getReceived());
+    }
+
+    @Test
+    public void pacesTheRequests() throws Exception {
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> 0L);
+
+        final long start = System.nanoTime();
+        try (BulkPingResults results = messenger.getBulkPinger().ping(requests(51, 1000, 0).iterator(), 500, 64)) {
+            assertEquals(51, results.stream().count());
+        }
+        // 50 intervals of 2ms
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void reportsErrors() throws Exception {
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> 0L);
+        messenger.failFor(InetAddress.getByName("10.0.0.3"));
+
+        try (BulkPingResults results = messenger.getBulkPinger().ping(requests(5, 1000, 2).iterator(), 0, 64)) {
+            final List<BulkPingResult> errors = results.stream().filter(r -> r.getStatus() == Status.ERROR).collect(Collectors.toList());
+            assertEquals(1, errors.size());
+            assertEquals(InetAddress.getByName("10.0.0.3"), errors.get(0).getAddress());
+            assertTrue(errors.get(0).getError() instanceof IOException);
+            assertEquals(1, results.getErrors());
+            assertEquals(4, results.getReceived());
+        }
+    }
+
+    @Test
+    public void canRunConcurrentSweeps() throws Exception {
+        final LoopbackMessenger messenger = new LoopbackMessenger(address -> 1L);
+        final List<BulkPingResults> sweeps = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sweeps.add(messenger.getBulkPinger().ping(requests(200, 1000, 0).iterator(), 0, 64));
+        }
+        for (BulkPingResults results : sweeps) {
+            assertEquals(200, results.stream().filter(BulkPingResult::isResponded).count());
+            results.close();
+        }
+        assertEquals(1000, messenger.getBulkPinger().getReceived());
+        assertEquals(0, messenger.getBulkPinger().getLate());
+    }
+
+    @Test
+    public void canPingWithAnyPinger() throws Exception {
+        try (BulkPingResults results = new NullPinger().bulkPing(requests(10, 100, 1), 0, 64)) {
+            assertTrue(results.stream().allMatch(r -> r.getStatus() == Status.ERROR));
+            assertEquals(10, results.getErrors());
+        }
+    }
+
+    @Test
+    public void timerWheelExpiresKeysInOrder() {
+        final long tick = TimeUnit.MILLISECONDS.toNanos(10);
+        final IntTimerWheel wheel = new IntTimerWheel(tick, 8, 0);
+        // More than a full rotation of the wheel away
+        wheel.schedule(1, 25 * tick);
+        wheel.schedule(2, 3 * tick);
+        wheel.schedule(3, 3 * tick + 1);
+        assertEquals(3, wheel.size());
+
+        final List<Integer> expired = new ArrayList<>();
+        wheel.expire(3 * tick, expired::add);
+        assertEquals(Arrays.asList(2), expired);
+        wheel.expire(4 * tick, expired::add);
+        assertEquals(Arrays.asList(2, 3), expired);
+        // The key in the same bucket, but in a later rotation, isn't expired
+        wheel.expire(17 * tick, expired::add);
+        assertEquals(1, wheel.size());
+        wheel.expire(100 * tick, expired::add);
+        assertEquals(Arrays.asList(2, 3, 1), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    private static List<BulkPingRequest> requests(int count, long timeout, int retries) throws UnknownHostException {
+        final List<BulkPingRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] addr = new byte[] { 10, 0, (byte)(i >> 8), (byte)i };
+            requests.add(new BulkPingRequest(InetAddress.getByAddress(addr), timeout, retries));
+        }
+        return requests;
+    }
+
+    /**
+     * Answers the echo requests with the delay returned by the given function, or not at all if it returns null.
+     */
+    private class LoopbackMessenger implements EchoMessenger {
+        private final Function<InetAddress, Long> m_delays;
+        private final BulkPinger m_bulkPinger = new BulkPinger(this);
+        private final Set<InetAddress> m_failing = new HashSet<>();
+        private final AtomicInteger m_sent = new AtomicInteger();
+
+        private LoopbackMessenger(Function<InetAddress, Long> delays) {
+            m_delays = delays;
+        }
+
+        public BulkPinger getBulkPinger() {
+            return m_bulkPinger;
+        }
+
+        public int getSent() {
+            return m_sent.get();
+        }
+
+        public void failFor(InetAddress address) {
+            m_failing.add(address);
+        }
+
+        @Override
+        public void sendEchoRequest(InetAddress address, int sequenceNumber, long threadId, int packetSize, long timeout) throws Exception {
+            assertTrue(BulkPinger.isBulkThreadId(threadId));
+            if (m_failing.contains(address)) {
+                throw new IOException("Network is unreachable");
+            }
+            m_sent.incrementAndGet();
+            final Long delay = m_delays.apply(address);
+            if (delay == null) {
+                return;
+            }
+            if (delay == 0) {
+                m_bulkPinger.handleReply(threadId, address, 1000);
+            } else {
+                m_executor.schedule(() -> m_bulkPinger.handleReply(threadId, address, TimeUnit.MILLISECONDS.toNanos(delay)), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ package org.opennms.netmgt.icmp.best;
 import java.net.InetAddress;
 import java.util.List;
 
+import org.opennms.netmgt.icmp.BulkPingRequest;
+import org.opennms.netmgt.icmp.BulkPingResults;
 import org.opennms.netmgt.icmp.NullPinger;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
@@ -85,6 +87,12 @@ public class BestMatchPinger implements Pinger {
         return m_pinger.parallelPing(host, count, timeout, pingInterval, size);
     }
 
+    @Override
+    public BulkPingResults bulkPing(final Iterable<BulkPingRequest> requests, final double packetsPerSecond, final int packetSize) throws Exception {
+        initialize();
+        return m_pinger.bulkPing(requests, packetsPerSecond, packetSize);
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
@@ -29,8 +29,13 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.icmp.BulkPinger;
+import org.opennms.netmgt.icmp.EchoMessenger;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.IcmpMessengerIOException;
 import org.opennms.protocols.rt.Messenger;
@@ -42,7 +47,7 @@ import org.slf4j.LoggerFactory;
 /**
  * @author brozow
  */
-public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>, PingReplyListener {
+public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>, EchoMessenger, PingReplyListener {
 	
 	
 	private static final Logger LOG = LoggerFactory
@@ -51,8 +56,11 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
+    private final int m_pingerId;
+    private final BulkPinger m_bulkPinger = new BulkPinger(this);
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
+	    m_pingerId = pingerId;
 	    Throwable error = null;
 	    try {
 	        m_v4 = new V4Pinger(pingerId);
@@ -98,6 +106,24 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 		request.send(m_v4, m_v6);
 	}
 
+        @Override
+        public void sendEchoRequest(final InetAddress address, final int sequenceNumber, final long threadId, final int packetSize, final long timeout) throws Exception {
+            if (address instanceof Inet4Address && m_v4 != null) {
+                m_v4.ping((Inet4Address)address, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+            } else if (address instanceof Inet6Address && m_v6 != null) {
+                m_v6.ping((Inet6Address)address, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+            } else {
+                throw new IOException("Cannot ping " + InetAddressUtils.str(address) + ": No pinger found that can handle this address");
+            }
+        }
+
+        /**
+         * @return the {@link BulkPinger} that sends its requests through this messenger
+         */
+        public BulkPinger getBulkPinger() {
+            return m_bulkPinger;
+        }
+
         @Override
 	public void start(ReplyHandler<JnaPingReply> callback) {
         m_callback = callback;
@@ -107,6 +133,10 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        // The replies to the bulk requests are matched by the bulk pinger, without going through the request tracker
+        if (m_bulkPinger.handleReply(address, packet)) {
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
@@ -35,11 +35,17 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.logging.Logging;
-import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
+import org.opennms.netmgt.icmp.BulkPingRequest;
+import org.opennms.netmgt.icmp.BulkPingResult;
+import org.opennms.netmgt.icmp.BulkPingResults;
+import org.opennms.netmgt.icmp.BulkPinger;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
@@ -211,6 +217,17 @@ public class JnaPinger implements Pinger {
         return ping(host, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
     }
 
+    /**
+     * Pings the hosts through the same sockets as the other requests, but
+     * matches the replies in the {@link BulkPinger}, which tracks the
+     * outstanding requests by index instead of one object per request.
+     */
+    @Override
+    public BulkPingResults bulkPing(final Iterable<BulkPingRequest> requests, final double packetsPerSecond, final int packetSize) throws Exception {
+        initialize();
+        return m_messenger.getBulkPinger().ping(requests.iterator(), packetsPerSecond, packetSize);
+    }
+
     /**
      * Ping a remote host, sending 1 or more packets at the given interval, and then
      * return the response times as a list.
@@ -226,18 +243,18 @@ public class JnaPinger implements Pinger {
      */
     @Override
     public List<Number> parallelPing(final InetAddress host, final int count, final long timeout, final long pingInterval, final int size) throws Exception {
-        initialize();
-        final ParallelPingResponseCallback cb = new ParallelPingResponseCallback(count);
-
-        final long threadId = JnaPingRequest.getNextTID();
-        for (int seqNum = 0; seqNum < count; seqNum++) {
-            final JnaPingRequest request = new JnaPingRequest(host, m_pingerId, seqNum, threadId, timeout == 0? DEFAULT_TIMEOUT : timeout, 0, size, cb);
-            m_pingTracker.sendRequest(request);
-            Thread.sleep(pingInterval);
+        // Send the packets as a sweep of the same address, so that they're tracked
+        // by index instead of going through the request tracker one by one
+        final BulkPingRequest request = new BulkPingRequest(host, timeout == 0? DEFAULT_TIMEOUT : timeout, 0);
+        final List<BulkPingRequest> requests = Collections.nCopies(count, request);
+        final Number[] responseTimes = new Number[count];
+        try (final BulkPingResults results = bulkPing(requests, pingInterval > 0 ? 1000.0 / pingInterval : 0, size)) {
+            while (results.hasNext()) {
+                final BulkPingResult result = results.next();
+                responseTimes[result.getIndex()] = result.elapsedTime(TimeUnit.MICROSECONDS);
+            }
         }
-
-        cb.waitFor();
-        return cb.getResponseTimes();
+        return Arrays.asList(responseTimes);
     }
 
     /**
@@ -28,39 +28,38 @@
 
 package org.opennms.netmgt.icmp.proxy;
 
-import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
 import org.opennms.core.utils.IteratorUtils;
-import org.opennms.netmgt.icmp.EchoPacket;
-import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.BulkPingRequest;
+import org.opennms.netmgt.icmp.BulkPingResult;
+import org.opennms.netmgt.icmp.BulkPingResults;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.PingerFactory;
 import org.opennms.netmgt.model.discovery.IPPollAddress;
 import org.opennms.netmgt.model.discovery.IPPollRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Throwables;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Component
 public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO, PingSweepResponseDTO> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PingSweepRpcModule.class);
+
     public static final String RPC_MODULE_ID = "PING-SWEEP";
 
     private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
@@ -79,7 +78,6 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
     @Override
     public CompletableFuture<PingSweepResponseDTO> execute(PingSweepRequestDTO request) {
         final Pinger pinger = pingerFactory.getInstance();
-        final PingSweepResultTracker tracker = new PingSweepResultTracker();
 
         String location = request.getLocation();
         int packetSize = request.getPacketSize();
@@ -89,85 +87,30 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
             ranges.add(pollRange);
         }
 
-        // Use a RateLimiter to limit the ping packets per second that we send
-        RateLimiter limiter = RateLimiter.create(request.getPacketsPerSecond());
-
-        List<IPPollAddress> addresses = StreamSupport.stream(getAddresses(ranges).spliterator(), false)
-                .filter(j -> j.getAddress() != null).collect(Collectors.toList());
+        // Generate the requests lazily, as they are sent, since the ranges can be very large
+        final Iterable<BulkPingRequest> requests = Iterables.transform(
+                Iterables.filter(getAddresses(ranges), pollAddress -> pollAddress.getAddress() != null),
+                pollAddress -> new BulkPingRequest(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries()));
 
         return CompletableFuture.supplyAsync(() -> {
-            addresses.stream().forEach(pollAddress -> {
-                try {
-                    tracker.expectCallbackFor(pollAddress.getAddress());
-                    limiter.acquire();
-                    pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
-                } catch (Exception e) {
-                    tracker.handleError(pollAddress.getAddress(), null, e);
-                    tracker.completeExceptionally(e);
-                }
-            });
-
-            try {
-                tracker.getLatch().await();
-            } catch (InterruptedException e) {
+            final PingSweepResponseDTO responseDTO = new PingSweepResponseDTO();
+            // The pinger paces the requests to the given number of packets per second
+            try (final BulkPingResults results = pinger.bulkPing(requests, request.getPacketsPerSecond(), packetSize)) {
+                results.stream()
+                    .filter(BulkPingResult::isResponded)
+                    .forEach(result -> {
+                        PingSweepResultDTO sweepResult = new PingSweepResultDTO();
+                        sweepResult.setAddress(result.getAddress());
+                        sweepResult.setRtt(result.elapsedTime(TimeUnit.MILLISECONDS));
+                        responseDTO.addPingSweepResult(sweepResult);
+                    });
+                LOG.debug("Ping sweep at location {} completed: sent={}, received={}, timedOut={}, late={}, errors={}",
+                        location, results.getSent(), results.getReceived(), results.getTimedOut(), results.getLate(), results.getErrors());
+            } catch (Exception e) {
                 throw Throwables.propagate(e);
             }
-            tracker.complete();
-            return tracker.getResponse();
-        } , executor);
-
-    }
-
-    private static class PingSweepResultTracker extends CompletableFuture<PingSweepResponseDTO>
-            implements PingResponseCallback {
-
-        private final Set<InetAddress> waitingFor = Sets.newConcurrentHashSet();
-        private final CountDownLatch m_doneSignal = new CountDownLatch(1);
-        private final PingSweepResponseDTO responseDTO = new PingSweepResponseDTO();
-
-        public void expectCallbackFor(InetAddress address) {
-            waitingFor.add(address);
-        }
-
-        @Override
-        public void handleResponse(InetAddress address, EchoPacket response) {
-            if (response != null) {
-                PingSweepResultDTO sweepResult = new PingSweepResultDTO();
-                sweepResult.setAddress(address);
-                sweepResult.setRtt(response.elapsedTime(TimeUnit.MILLISECONDS));
-                responseDTO.addPingSweepResult(sweepResult);
-            }
-            afterHandled(address);
-        }
-
-        @Override
-        public void handleTimeout(InetAddress address, EchoPacket request) {
-            afterHandled(address);
-        }
-
-        @Override
-        public void handleError(InetAddress address, EchoPacket request, Throwable t) {
-            afterHandled(address);
-        }
-
-        private void afterHandled(InetAddress address) {
-            waitingFor.remove(address);
-            if (waitingFor.isEmpty()) {
-                m_doneSignal.countDown();
-            }
-        }
-
-        public void complete() {
-            complete(responseDTO);
-        }
-
-        public PingSweepResponseDTO getResponse() {
             return responseDTO;
-        }
-
-        public CountDownLatch getLatch() {
-            return m_doneSignal;
-        }
+        } , executor);
 
     }
 
@@ -0,0 +1,726 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue used by {@link QueuingRrdStrategy} when update coalescing is enabled.
+ *
+ * Every file has its own list of pending operations, which is a lock-free
+ * stack that the collection threads push onto with a single CAS. Updates
+ * keep their timestamp and values as primitives and are handed to the delegate
+ * with {@link RrdStrategy#updateFile(Object, String, long, double[])}, so they
+ * are never formatted or parsed as strings.
+ *
+ * When a file goes from having no pending operations to having some it is put on
+ * the ready queue. A write thread takes the file from the ready queue, claims it,
+ * takes all of its pending operations at once and applies them in the order
+ * in which they were queued with a single open and close of the file. A file is
+ * only ever claimed by one write thread at a time.
+ *
+ * There is no distinction between significant and insignificant updates in
+ * this mode, files are written in the order in which they became ready, unless
+ * they are promoted.
+ *
+ * Once a write thread has drained a file, and no other thread has queued
+ * operations for it in the meantime, the file is retired and forgotten, so
+ * that we only keep track of the files that have operations pending. Write
+ * threads exit after they have been idle for the write thread exit delay, and
+ * are started again when operations are queued.
+ */
+class PendingUpdateQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PendingUpdateQueue.class);
+
+    /**
+     * An operation that is waiting to be applied to a file.
+     */
+    static abstract class PendingOperation {
+        /**
+         * The previously queued operation while this is pending, and the next
+         * operation to apply once the pending operations have been taken.
+         */
+        PendingOperation link;
+
+        /**
+         * Applies the operation to the file.
+         *
+         * @param rrd the open rrd for updates, null for creates
+         */
+        abstract void apply(RrdStrategy<Object, Object> delegate, String fileName, Object rrd) throws Exception;
+
+        boolean isCreate() {
+            return false;
+        }
+    }
+
+    static final class PendingUpdate extends PendingOperation {
+        private final String owner;
+        private final long timestamp;
+        private final double[] values;
+
+        PendingUpdate(String owner, long timestamp, double[] values) {
+            this.owner = owner;
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        @Override
+        void apply(RrdStrategy<Object, Object> delegate, String fileName, Object rrd) throws Exception {
+            delegate.updateFile(rrd, owner, timestamp, values);
+        }
+    }
+
+    /**
+     * An update that was handed to us as a string by a caller that still uses
+     * {@link RrdStrategy#updateFile(Object, String, String)}.
+     */
+    static final class PendingStringUpdate extends PendingOperation {
+        private final String owner;
+        private final String data;
+
+        PendingStringUpdate(String owner, String data) {
+            this.owner = owner;
+            this.data = data;
+        }
+
+        @Override
+        void apply(RrdStrategy<Object, Object> delegate, String fileName, Object rrd) throws Exception {
+            delegate.updateFile(rrd, owner, data);
+        }
+    }
+
+    static final class PendingCreate extends PendingOperation {
+        private final Object rrdDef;
+        private final Map<String, String> attributeMappings;
+
+        PendingCreate(Object rrdDef, Map<String, String> attributeMappings) {
+            this.rrdDef = rrdDef;
+            this.attributeMappings = attributeMappings;
+        }
+
+        @Override
+        void apply(RrdStrategy<Object, Object> delegate, String fileName, Object rrd) throws Exception {
+            delegate.createFile(rrdDef, attributeMappings);
+        }
+
+        @Override
+        boolean isCreate() {
+            return true;
+        }
+    }
+
+    /**
+     * The pending operations for a single file.
+     */
+    static final class PendingFile {
+        private static final AtomicReferenceFieldUpdater<PendingFile, PendingOperation> HEAD =
+                AtomicReferenceFieldUpdater.newUpdater(PendingFile.class, PendingOperation.class, "head");
+        private static final AtomicIntegerFieldUpdater<PendingFile> QUEUED =
+                AtomicIntegerFieldUpdater.newUpdater(PendingFile.class, "queued");
+        private static final AtomicIntegerFieldUpdater<PendingFile> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(PendingFile.class, "claimed");
+
+        /**
+         * The head of a file that was retired, no operations can be pushed
+         * onto it anymore.
+         */
+        private static final PendingOperation RETIRED = new PendingOperation() {
+            @Override
+            void apply(RrdStrategy<Object, Object> delegate, String fileName, Object rrd) {
+                throw new IllegalStateException("The file " + fileName + " was retired");
+            }
+        };
+
+        private final String fileName;
+
+        /** The most recently queued operation. */
+        private volatile PendingOperation head;
+
+        /** 1 while the file is on the ready queue. */
+        private volatile int queued;
+
+        /** 1 while a write thread is applying operations to the file. */
+        private volatile int claimed;
+
+        /** When the file was last put on the ready queue. */
+        private volatile long queuedSince;
+
+        PendingFile(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return false if the file was retired, in which case the operation
+         * must be pushed onto a new instance for the same file
+         */
+        boolean push(PendingOperation op) {
+            PendingOperation h;
+            do {
+                h = head;
+                if (h == RETIRED) {
+                    op.link = null;
+                    return false;
+                }
+                op.link = h;
+            } while (!HEAD.compareAndSet(this, h, op));
+            return true;
+        }
+
+        boolean hasPending() {
+            final PendingOperation h = head;
+            return h != null && h != RETIRED;
+        }
+
+        /**
+         * Retires the file if it has no pending operations. Must only be called
+         * by the thread that has claimed the file.
+         *
+         * @return true if the file was retired
+         */
+        boolean retire() {
+            return HEAD.compareAndSet(this, null, RETIRED);
+        }
+
+        /**
+         * Takes all of the pending operations.
+         *
+         * @return the first operation that was queued, the following operations
+         * are reachable through {@link PendingOperation#link}
+         */
+        PendingOperation takeAll() {
+            PendingOperation op;
+            do {
+                op = head;
+                if (op == null || op == RETIRED) {
+                    return null;
+                }
+            } while (!HEAD.compareAndSet(this, op, null));
+            PendingOperation first = null;
+            while (op != null) {
+                final PendingOperation previous = op.link;
+                op.link = first;
+                first = op;
+                op = previous;
+            }
+            return first;
+        }
+
+        boolean markQueued() {
+            return QUEUED.compareAndSet(this, 0, 1);
+        }
+
+        void clearQueued() {
+            queued = 0;
+        }
+
+        boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        void release() {
+            claimed = 0;
+        }
+    }
+
+    /**
+     * Statistics for a single write thread. Only the write thread updates them.
+     */
+    static final class WriterStats {
+        private final String name;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile long filesWritten = 0;
+        private volatile long operationsWritten = 0;
+
+        WriterStats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return true if no thread was running for these stats, and the
+         * caller must run one
+         */
+        boolean markRunning() {
+            return running.compareAndSet(0, 1);
+        }
+
+        void clearRunning() {
+            running.set(0);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getFilesWritten() {
+            return filesWritten;
+        }
+
+        long getOperationsWritten() {
+            return operationsWritten;
+        }
+
+        /**
+         * @return the number of operations written per second since the thread started
+         */
+        double getThroughput() {
+            final long elapsedMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+            return operationsWritten * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: filesWritten=%d, operationsWritten=%d, operationsPerSecond=%.1f",
+                    name, filesWritten, operationsWritten, getThroughput());
+        }
+    }
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private final ConcurrentHashMap<String, PendingFile> m_files = new ConcurrentHashMap<>();
+
+    private final Queue<PendingFile> m_ready = new ConcurrentLinkedQueue<>();
+
+    private final Queue<PendingFile> m_promoted = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder m_pendingOperations = new LongAdder();
+
+    private final LongAdder m_filesQueued = new LongAdder();
+
+    private final LongAdder m_enqueuedOperations = new LongAdder();
+
+    private final LongAdder m_dequeuedOperations = new LongAdder();
+
+    private final LongAdder m_dequeuedFiles = new LongAdder();
+
+    private final LongAdder m_createsCompleted = new LongAdder();
+
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
+
+    private final LongAdder m_errors = new LongAdder();
+
+    private final LongAdder m_discarded = new LongAdder();
+
+    private final LongAdder m_promotions = new LongAdder();
+
+    private final List<WriterStats> m_writerStats = new ArrayList<>();
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private long m_writeThreadSleepTime = 50;
+
+    private long m_writeThreadExitDelay = 0;
+
+    private long m_queueHighWaterMark = 0;
+
+    private long m_modulus = 10000;
+
+    private Runnable m_statsLogger;
+
+    private final AtomicInteger m_runningWriters = new AtomicInteger();
+
+    PendingUpdateQueue(RrdStrategy<Object, Object> delegate) {
+        m_delegate = Objects.requireNonNull(delegate);
+    }
+
+    void setCategory(String category) {
+        m_category = category;
+    }
+
+    void setWriteThreads(int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    void setWriteThreadSleepTime(long writeThreadSleepTime) {
+        m_writeThreadSleepTime = writeThreadSleepTime;
+    }
+
+    void setWriteThreadExitDelay(long writeThreadExitDelay) {
+        m_writeThreadExitDelay = writeThreadExitDelay;
+    }
+
+    void setQueueHighWaterMark(long queueHighWaterMark) {
+        m_queueHighWaterMark = queueHighWaterMark;
+    }
+
+    void setModulus(long modulus) {
+        m_modulus = modulus;
+    }
+
+    /**
+     * @param statsLogger called every time another {@code modulus} updates were written
+     */
+    void setStatsLogger(Runnable statsLogger) {
+        m_statsLogger = statsLogger;
+    }
+
+    void enqueueUpdate(String fileName, String owner, long timestamp, double[] values) {
+        enqueue(fileName, new PendingUpdate(owner, timestamp, values));
+    }
+
+    void enqueueUpdate(String fileName, String owner, String data) {
+        enqueue(fileName, new PendingStringUpdate(owner, data));
+    }
+
+    void enqueueCreate(String fileName, Object rrdDef, Map<String, String> attributeMappings) {
+        enqueue(fileName, new PendingCreate(rrdDef, attributeMappings));
+    }
+
+    private void enqueue(String fileName, PendingOperation op) {
+        if (m_queueHighWaterMark > 0 && m_pendingOperations.sum() >= m_queueHighWaterMark) {
+            m_discarded.increment();
+            LOG.error("RRD Data Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+
+        while (true) {
+            PendingFile file = m_files.get(fileName);
+            if (file == null) {
+                file = m_files.computeIfAbsent(fileName, PendingFile::new);
+            }
+            if (file.push(op)) {
+                m_pendingOperations.increment();
+                m_enqueuedOperations.increment();
+                schedule(file);
+                break;
+            }
+            // The file was retired after we looked it up, replace it
+            m_files.remove(fileName, file);
+        }
+
+        ensureWritersStarted();
+    }
+
+    /**
+     * Puts the file on the ready queue, unless it's already there.
+     */
+    private void schedule(PendingFile file) {
+        if (file.markQueued()) {
+            file.queuedSince = System.currentTimeMillis();
+            m_filesQueued.increment();
+            m_ready.offer(file);
+        }
+    }
+
+    /**
+     * Moves the given files ahead of the other files with pending operations.
+     */
+    void promote(Collection<String> fileNames) {
+        for (String fileName : fileNames) {
+            final PendingFile file = m_files.get(fileName);
+            if (file != null && file.hasPending()) {
+                m_promoted.offer(file);
+                m_promotions.increment();
+            }
+        }
+    }
+
+    /**
+     * Starts a write thread for every one that isn't running.
+     */
+    private void ensureWritersStarted() {
+        final int writeThreads = Math.max(m_writeThreads, 1);
+        if (m_runningWriters.get() >= writeThreads) {
+            return;
+        }
+        synchronized (m_writerStats) {
+            for (int i = m_writerStats.size() + 1; i <= writeThreads; i++) {
+                m_writerStats.add(new WriterStats(QueuingRrdStrategy.class.getSimpleName() + "-" + i));
+            }
+            for (WriterStats stats : m_writerStats) {
+                if (stats.markRunning()) {
+                    m_runningWriters.incrementAndGet();
+                    final Thread thread = new Thread(() -> Logging.withPrefix(m_category, () -> runWriter(stats)), stats.getName());
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+        }
+    }
+
+    private void runWriter(WriterStats stats) {
+        long idleSince = -1;
+        while (true) {
+            try {
+                if (writeNextFile(stats)) {
+                    idleSince = -1;
+                    continue;
+                }
+                final long now = System.currentTimeMillis();
+                if (idleSince < 0) {
+                    idleSince = now;
+                } else if (now - idleSince >= m_writeThreadExitDelay && exitWriter(stats)) {
+                    LOG.debug("{} was idle for {}ms, exiting.", stats.getName(), now - idleSince);
+                    return;
+                }
+                Thread.sleep(m_writeThreadSleepTime);
+            } catch (InterruptedException e) {
+                LOG.debug("{} was interrupted, exiting.", stats.getName());
+                stats.clearRunning();
+                m_runningWriters.decrementAndGet();
+                return;
+            } catch (Throwable t) {
+                LOG.error("Unexpected error in {}", stats.getName(), t);
+            }
+        }
+    }
+
+    /**
+     * Marks the write thread as stopped, unless operations were queued while
+     * it was deciding to exit.
+     *
+     * @return true if the thread must exit
+     */
+    private boolean exitWriter(WriterStats stats) {
+        stats.clearRunning();
+        m_runningWriters.decrementAndGet();
+        // An operation may have been queued after we last looked, by a thread
+        // that saw us still running and didn't start another one
+        if (m_pendingOperations.sum() > 0 && stats.markRunning()) {
+            m_runningWriters.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the pending operations of the next file that is ready.
+     *
+     * @return false if there was no file to work on
+     */
+    boolean writeNextFile(WriterStats stats) {
+        PendingFile file = m_promoted.poll();
+        if (file == null) {
+            file = m_ready.poll();
+            if (file == null) {
+                return false;
+            }
+            m_filesQueued.decrement();
+            // new operations must put the file back on the ready queue from here on
+            file.clearQueued();
+        }
+
+        if (!file.claim()) {
+            // another thread is writing this file, it will reschedule it if
+            // there are still operations pending when it's done
+            return true;
+        }
+        try {
+            final PendingOperation ops = file.takeAll();
+            if (ops != null) {
+                write(file.fileName, ops, stats);
+            }
+            // Forget the file until operations are queued for it again
+            if (file.retire()) {
+                m_files.remove(file.fileName, file);
+            }
+        } finally {
+            file.release();
+        }
+
+        if (file.hasPending()) {
+            schedule(file);
+        }
+        return true;
+    }
+
+    private void write(String fileName, PendingOperation ops, WriterStats stats) {
+        int count = 0;
+        for (PendingOperation op = ops; op != null; op = op.link) {
+            count++;
+        }
+        m_dequeuedOperations.add(count);
+        m_dequeuedFiles.increment();
+
+        int creates = 0;
+        int updates = 0;
+        Object rrd = null;
+        // a failed operation must not drop the ones queued behind it
+        for (PendingOperation op = ops; op != null; op = op.link) {
+            try {
+                if (op.isCreate()) {
+                    if (rrd != null) {
+                        final Object open = rrd;
+                        rrd = null;
+                        m_delegate.closeFile(open);
+                    }
+                    op.apply(m_delegate, fileName, null);
+                    creates++;
+                } else {
+                    if (rrd == null) {
+                        rrd = m_delegate.openFile(fileName);
+                    }
+                    op.apply(m_delegate, fileName, rrd);
+                    updates++;
+                }
+            } catch (Throwable e) {
+                m_errors.increment();
+                LOG.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
+            }
+        }
+        if (rrd != null) {
+            try {
+                m_delegate.closeFile(rrd);
+            } catch (Throwable e) {
+                m_errors.increment();
+                LOG.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+            }
+        }
+
+        stats.filesWritten++;
+        stats.operationsWritten += creates + updates;
+        m_createsCompleted.add(creates);
+        final long total = m_updatesCompleted.addAndGet(updates);
+        // only count the operations as done once they were applied
+        m_pendingOperations.add(-count);
+
+        if (m_statsLogger != null && m_modulus > 0 && updates > 0 && total / m_modulus != (total - updates) / m_modulus) {
+            m_statsLogger.run();
+        }
+    }
+
+    /**
+     * @return the number of operations that have not been written yet
+     */
+    long getPendingOperations() {
+        return m_pendingOperations.sum();
+    }
+
+    /**
+     * @return the number of files on the ready queue
+     */
+    long getFilesQueued() {
+        return m_filesQueued.sum();
+    }
+
+    /**
+     * @return how long, in milliseconds, the file at the head of the ready
+     * queue has been waiting to be written, or 0 if no files are waiting
+     */
+    long getOldestPendingAge() {
+        final PendingFile file = m_ready.peek();
+        if (file == null) {
+            return 0;
+        }
+        return Math.max(System.currentTimeMillis() - file.queuedSince, 0);
+    }
+
+    /**
+     * @return the number of files that have operations pending, or are being written
+     */
+    int getFileCount() {
+        return m_files.size();
+    }
+
+    /**
+     * @return the number of write threads that are running
+     */
+    int getRunningWriters() {
+        return m_runningWriters.get();
+    }
+
+    long getEnqueuedOperations() {
+        return m_enqueuedOperations.sum();
+    }
+
+    long getDequeuedOperations() {
+        return m_dequeuedOperations.sum();
+    }
+
+    long getDequeuedFiles() {
+        return m_dequeuedFiles.sum();
+    }
+
+    long getCreatesCompleted() {
+        return m_createsCompleted.sum();
+    }
+
+    long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    long getErrors() {
+        return m_errors.sum();
+    }
+
+    long getDiscarded() {
+        return m_discarded.sum();
+    }
+
+    long getPromotions() {
+        return m_promotions.sum();
+    }
+
+    List<WriterStats> getWriterStats() {
+        synchronized (m_writerStats) {
+            return new ArrayList<>(m_writerStats);
+        }
+    }
+
+    String getStats() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("\nQS:\t").append("pendingOperations=").append(getPendingOperations())
+            .append(", filesQueued=").append(getFilesQueued())
+            .append(", oldestPendingAge=").append(getOldestPendingAge()).append("ms")
+            .append(", files=").append(m_files.size());
+        sb.append("\nQS:\t").append("enqueuedOperations=").append(getEnqueuedOperations())
+            .append(", dequeuedOperations=").append(getDequeuedOperations())
+            .append(", filesWritten=").append(getDequeuedFiles())
+            .append(", opsPerFile=").append(getDequeuedOperations() / Math.max(getDequeuedFiles(), 1.0))
+            .append(", createsCompleted=").append(getCreatesCompleted())
+            .append(", updatesCompleted=").append(getUpdatesCompleted())
+            .append(", errors=").append(getErrors())
+            .append(", discarded=").append(getDiscarded())
+            .append(", promotions=").append(getPromotions());
+        for (WriterStats stats : getWriterStats()) {
+            sb.append("\nQS:\t").append(stats);
+        }
+        return sb.toString();
+    }
+}
@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -96,6 +97,13 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.coalesceUpdates: (default false) use the
+ * {@link PendingUpdateQueue} instead of the queue described above. The
+ * collection threads add their updates to per file lists without taking a lock,
+ * the values are kept as numbers instead of strings and all updates that are
+ * pending for a file are written with a single open of the file. Significant
+ * and insignificant updates are not distinguished in this mode.
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -157,6 +165,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private boolean m_coalesceUpdates;
+
+    private volatile PendingUpdateQueue m_pendingUpdates;
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -357,6 +369,24 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
+    /**
+     * <p>coalesceUpdates</p>
+     *
+     * @return a boolean.
+     */
+    public boolean coalesceUpdates() {
+        return m_coalesceUpdates;
+    }
+
+    /**
+     * <p>setCoalesceUpdates</p>
+     *
+     * @param coalesceUpdates a boolean.
+     */
+    public void setCoalesceUpdates(boolean coalesceUpdates) {
+        m_coalesceUpdates = coalesceUpdates;
+    }
+
     LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
 
     LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
@@ -866,8 +896,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        if (m_coalesceUpdates) {
+            getPendingUpdates().promote(rrdFiles);
+        } else {
+            synchronized (this) {
+                filesWithSignificantWork.addAll(0, rrdFiles);
+            }
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -950,6 +986,31 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_delegate;
     }
 
+    /**
+     * Returns the queue used when updates are coalesced, creating it on first use
+     * so that all of the properties have been set by then.
+     */
+    private PendingUpdateQueue getPendingUpdates() {
+        PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        if (pendingUpdates == null) {
+            synchronized (this) {
+                pendingUpdates = m_pendingUpdates;
+                if (pendingUpdates == null) {
+                    pendingUpdates = new PendingUpdateQueue(m_delegate);
+                    pendingUpdates.setCategory(m_category);
+                    pendingUpdates.setWriteThreads(m_writeThreads);
+                    pendingUpdates.setWriteThreadSleepTime(m_writeThreadSleepTime);
+                    pendingUpdates.setWriteThreadExitDelay(m_writeThreadExitDelay);
+                    pendingUpdates.setQueueHighWaterMark(m_queueHighWaterMark);
+                    pendingUpdates.setModulus(m_modulus);
+                    pendingUpdates.setStatsLogger(this::logStats);
+                    m_pendingUpdates = pendingUpdates;
+                }
+            }
+        }
+        return pendingUpdates;
+    }
+
     //
     // RrdStrategy Implementation.. These methods just enqueue the calls as
     // operations
@@ -993,7 +1054,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      */
     @Override
     public void createFile(CreateOperation op, Map<String, String> attributeMappings) throws Exception {
-        if (m_queueCreates) {
+        if (m_queueCreates && m_coalesceUpdates) {
+            getPendingUpdates().enqueueCreate(op.getFileName(), op.getData(), attributeMappings);
+        } else if (m_queueCreates) {
             op.setAttributeMappings(attributeMappings);
             addOperation(op);
         } else {
@@ -1020,7 +1083,22 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /** {@inheritDoc} */
     @Override
     public void updateFile(String rrdFile, String owner, String data) throws Exception {
-        addOperation(makeUpdateOperation((String) rrdFile, owner, data));
+        if (m_coalesceUpdates) {
+            getPendingUpdates().enqueueUpdate(rrdFile, owner, data);
+        } else {
+            addOperation(makeUpdateOperation((String) rrdFile, owner, data));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        if (m_coalesceUpdates) {
+            getPendingUpdates().enqueueUpdate(rrdFile, owner, timestamp, values);
+        } else {
+            // the operations in this queue are strings
+            updateFile(rrdFile, owner, RrdStrategy.toUpdateString(timestamp, values));
+        }
     }
 
     /** {@inheritDoc} */
@@ -1156,6 +1234,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      */
     @Override
     public String getStats() {
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        if (pendingUpdates != null) {
+            return pendingUpdates.getStats();
+        }
+
         long now = System.currentTimeMillis();
 
         long currentElapsedMillis = Math.max(now - lastStatsTime, 1);
@@ -1304,7 +1387,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getPendingOperations() : m_totalOperationsPending;
     }
 
     /**
@@ -1322,7 +1406,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getCreatesCompleted() : m_createsCompleted;
     }
 
     /**
@@ -1340,7 +1425,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getUpdatesCompleted() : m_updatesCompleted;
     }
 
     /**
@@ -1358,7 +1444,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getErrors() : m_errors;
     }
 
     /**
@@ -1376,7 +1463,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getPromotions() : m_promotionCount;
     }
 
     /**
@@ -1430,7 +1518,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getEnqueuedOperations() : m_enqueuedOperations;
     }
 
     /**
@@ -1448,7 +1537,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getDequeuedOperations() : m_dequeuedOperations;
     }
 
     /**
@@ -1466,7 +1556,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getDequeuedFiles() : m_dequeuedItems;
     }
 
     /**
@@ -1496,6 +1587,34 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_significantOpsCompleted = significantOpsCompleted;
     }
 
+    /**
+     * Returns how long the oldest file with pending updates has been waiting
+     * to be written. This is only tracked when updates are coalesced.
+     *
+     * @return the age in milliseconds, or 0 if nothing is pending
+     */
+    public long getOldestPendingAge() {
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        return pendingUpdates != null ? pendingUpdates.getOldestPendingAge() : 0;
+    }
+
+    /**
+     * Returns the number of operations each write thread wrote per second since
+     * it was started. This is only tracked when updates are coalesced.
+     *
+     * @return the rates, by thread name
+     */
+    public Map<String, Double> getWriteThreadThroughput() {
+        final Map<String, Double> throughput = new LinkedHashMap<>();
+        final PendingUpdateQueue pendingUpdates = m_pendingUpdates;
+        if (pendingUpdates != null) {
+            for (PendingUpdateQueue.WriterStats stats : pendingUpdates.getWriterStats()) {
+                throughput.put(stats.getName(), stats.getThroughput());
+            }
+        }
+        return throughput;
+    }
+
     /**
      * <p>getStartTime</p>
      *
@@ -31,8 +31,10 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
@@ -130,6 +132,31 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values.
+     *
+     * The default implementation formats the values as a
+     * <timestamp>:<value>[:<value>...] string and calls
+     * {@link #updateFile(Object, String, String)}. Strategies that can store the
+     * values directly should override this to avoid the round-trip through
+     * the string.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the time of the update, in seconds since the epoch
+     * @param values
+     *            the values for the data sources, in order. {@link Double#NaN}
+     *            is used for unknown values.
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public default void updateFile(F rrd, String owner, long timestamp, double[] values) throws Exception {
+        updateFile(rrd, owner, toUpdateString(timestamp, values));
+    }
+
     /**
      * This closes the supplied round robin database
      *
@@ -280,4 +307,33 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      * @param rrdFiles a {@link java.util.Collection} object.
      */
     public void promoteEnqueuedFiles(Collection<String> rrdFiles);
+
+    /**
+     * Formats the given values as an update string of the form
+     * <timestamp>:<value>[:<value>...], using 'U' for unknown values.
+     *
+     * @param timestamp the time of the update, in seconds since the epoch
+     * @param values the values for the data sources
+     * @return the update string
+     */
+    public static String toUpdateString(long timestamp, double[] values) {
+        final NumberFormat nf = NumberFormat.getInstance(Locale.US);
+        nf.setGroupingUsed(false);
+        nf.setMinimumFractionDigits(0);
+        nf.setMaximumFractionDigits(Integer.MAX_VALUE);
+        nf.setMinimumIntegerDigits(0);
+        nf.setMaximumIntegerDigits(Integer.MAX_VALUE);
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(timestamp);
+        for (double value : values) {
+            sb.append(':');
+            if (Double.isFinite(value)) {
+                sb.append(nf.format(value));
+            } else {
+                sb.append('U');
+            }
+        }
+        return sb.toString();
+    }
 }
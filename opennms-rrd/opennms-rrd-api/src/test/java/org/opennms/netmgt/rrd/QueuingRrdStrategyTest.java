@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueuingRrdStrategyTest {
+
+    /**
+     * Records the operations applied to every file, and fails if two threads
+     * work on the same file at the same time. Updates matching the failing
+     * update are rejected.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final Map<String, List<String>> m_operations = new ConcurrentHashMap<>();
+        private final Map<String, Thread> m_openFiles = new ConcurrentHashMap<>();
+        private volatile boolean m_concurrentAccess = false;
+        private volatile int m_stringUpdates = 0;
+        private volatile String m_failingUpdate = null;
+
+        @Override
+        public Object openFile(String fileName) {
+            if (m_openFiles.putIfAbsent(fileName, Thread.currentThread()) != null) {
+                m_concurrentAccess = true;
+            }
+            return fileName;
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            m_openFiles.remove(rrd);
+        }
+
+        @Override
+        public void createFile(Object rrdDef, Map<String, String> attributeMappings) {
+            record((String)rrdDef, "create");
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            m_stringUpdates++;
+            record((String)rrd, data);
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, long timestamp, double[] values) {
+            final String data = RrdStrategy.toUpdateString(timestamp, values);
+            if (data.equals(m_failingUpdate)) {
+                throw new IllegalStateException("failed to update " + rrd + " with " + data);
+            }
+            record((String)rrd, data);
+        }
+
+        private void record(String fileName, String operation) {
+            m_operations.computeIfAbsent(fileName, f -> Collections.synchronizedList(new ArrayList<>())).add(operation);
+        }
+    }
+
+    private RecordingRrdStrategy m_delegate;
+
+    private QueuingRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new QueuingRrdStrategy(m_delegate);
+        m_strategy.setWriteThreads(4);
+        m_strategy.setWriteThreadSleepTime(1);
+        m_strategy.setModulus(1000);
+        m_strategy.setCoalesceUpdates(true);
+        m_strategy.setQueueCreates(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        waitForQueueToDrain();
+    }
+
+    @Test
+    public void testToUpdateString() {
+        assertEquals("1000:1:2.5:U:U:-3", RrdStrategy.toUpdateString(1000, new double[] { 1, 2.5, Double.NaN, Double.POSITIVE_INFINITY, -3 }));
+        assertEquals("1000:9007199254740992", RrdStrategy.toUpdateString(1000, new double[] { 9007199254740992d }));
+        // same formatting as RrdPersistOperationBuilder.mapValue()
+        assertEquals("1000:.0001", RrdStrategy.toUpdateString(1000, new double[] { 0.0001 }));
+        assertEquals("1000", RrdStrategy.toUpdateString(1000, new double[0]));
+    }
+
+    @Test
+    public void testCoalescedUpdatesAreWrittenInOrder() throws Exception {
+        final int numFiles = 50;
+        final int numUpdates = 200;
+        final int numThreads = 8;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                try {
+                    // every thread owns a subset of the files, like the collectors do
+                    for (int i = 0; i < numUpdates; i++) {
+                        for (int f = thread; f < numFiles; f += numThreads) {
+                            final String fileName = "file" + f;
+                            if (i == 0) {
+                                m_strategy.createFile(m_strategy.makeCreateOperation(fileName, fileName), null);
+                            }
+                            m_strategy.updateFile(fileName, "test", 1000L + i, new double[] { i, f });
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        waitForQueueToDrain();
+
+        assertEquals(false, m_delegate.m_concurrentAccess);
+        assertEquals(0, m_delegate.m_stringUpdates);
+        assertEquals(numFiles, m_delegate.m_operations.size());
+        for (int f = 0; f < numFiles; f++) {
+            final List<String> operations = m_delegate.m_operations.get("file" + f);
+            assertEquals(numUpdates + 1, operations.size());
+            assertEquals("create", operations.get(0));
+            for (int i = 0; i < numUpdates; i++) {
+                assertEquals((1000L + i) + ":" + i + ":" + f, operations.get(i + 1));
+            }
+        }
+
+        assertEquals(numFiles, m_strategy.getCreatesCompleted());
+        assertEquals(numFiles * numUpdates, m_strategy.getUpdatesCompleted());
+        assertEquals(numFiles * (numUpdates + 1), m_strategy.getEnqueuedOperations());
+        assertEquals(numFiles * (numUpdates + 1), m_strategy.getDequeuedOperations());
+        assertEquals(0, m_strategy.getErrors());
+        assertEquals(0, m_strategy.getOldestPendingAge());
+        assertEquals(4, m_strategy.getWriteThreadThroughput().size());
+    }
+
+    @Test
+    public void testStringUpdatesAreQueued() throws Exception {
+        m_strategy.updateFile("file", "test", "1000:1");
+        m_strategy.updateFile("file", "test", 1001L, new double[] { 2 });
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList("file"));
+
+        waitForQueueToDrain();
+
+        assertEquals(1, m_delegate.m_stringUpdates);
+        assertEquals(2, m_delegate.m_operations.get("file").size());
+        assertEquals("1000:1", m_delegate.m_operations.get("file").get(0));
+        assertEquals("1001:2", m_delegate.m_operations.get("file").get(1));
+    }
+
+    @Test
+    public void testFailedUpdateDoesNotDropTheRemainingUpdates() throws Exception {
+        m_delegate.m_failingUpdate = "1001:2";
+        m_strategy.createFile(m_strategy.makeCreateOperation("file", "file"), null);
+        m_strategy.updateFile("file", "test", 1000L, new double[] { 1 });
+        m_strategy.updateFile("file", "test", 1001L, new double[] { 2 });
+        m_strategy.updateFile("file", "test", 1002L, new double[] { 3 });
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList("file"));
+
+        waitForQueueToDrain();
+
+        assertEquals(3, m_delegate.m_operations.get("file").size());
+        assertEquals("create", m_delegate.m_operations.get("file").get(0));
+        assertEquals("1000:1", m_delegate.m_operations.get("file").get(1));
+        assertEquals("1002:3", m_delegate.m_operations.get("file").get(2));
+        assertEquals(1, m_strategy.getCreatesCompleted());
+        assertEquals(2, m_strategy.getUpdatesCompleted());
+        assertEquals(1, m_strategy.getErrors());
+        assertEquals(false, m_delegate.m_concurrentAccess);
+    }
+
+    @Test
+    public void testDrainedFilesAreForgotten() throws Exception {
+        final PendingUpdateQueue queue = new PendingUpdateQueue(m_delegate);
+        queue.setWriteThreads(2);
+        queue.setWriteThreadSleepTime(1);
+        queue.setWriteThreadExitDelay(60000);
+        for (int f = 0; f < 100; f++) {
+            queue.enqueueUpdate("file" + f, "test", 1000L, new double[] { f });
+        }
+        waitFor(() -> queue.getPendingOperations() == 0 && queue.getFileCount() == 0);
+
+        // Operations for the same files are queued again, and written in order
+        for (int f = 0; f < 100; f++) {
+            queue.enqueueUpdate("file" + f, "test", 1001L, new double[] { f });
+        }
+        waitFor(() -> queue.getPendingOperations() == 0 && queue.getFileCount() == 0);
+        for (int f = 0; f < 100; f++) {
+            assertEquals(Arrays.asList("1000:" + f, "1001:" + f), m_delegate.m_operations.get("file" + f));
+        }
+        assertEquals(false, m_delegate.m_concurrentAccess);
+    }
+
+    @Test
+    public void testIdleWriteThreadsExit() throws Exception {
+        final PendingUpdateQueue queue = new PendingUpdateQueue(m_delegate);
+        queue.setWriteThreads(2);
+        queue.setWriteThreadSleepTime(1);
+        queue.setWriteThreadExitDelay(100);
+
+        queue.enqueueUpdate("file", "test", 1000L, new double[] { 1 });
+        assertEquals(2, queue.getRunningWriters());
+        waitFor(() -> queue.getRunningWriters() == 0);
+        assertEquals(1, queue.getUpdatesCompleted());
+
+        // The threads are started again when there is more work
+        queue.enqueueUpdate("file", "test", 1001L, new double[] { 2 });
+        assertEquals(2, queue.getRunningWriters());
+        waitFor(() -> queue.getUpdatesCompleted() == 2);
+        assertEquals(Arrays.asList("1000:1", "1001:2"), m_delegate.m_operations.get("file"));
+        assertEquals(2, queue.getWriterStats().size());
+        waitFor(() -> queue.getRunningWriters() == 0);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private void waitForQueueToDrain() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (m_strategy.getTotalOperationsPending() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+    }
+}
@@ -194,6 +194,11 @@ public final class BroadcastEventProcessor implements EventListener {
             return;
         }
 
+        if (EventConstants.INVENTORY_CHANGED_UEIS.contains(event.getUei())) {
+            LOG.debug("onEvent: clearing the cached notification rule matches after {}", event.getUei());
+            m_notificationManager.clearRuleMatchCache();
+        }
+
         if (event.getLogmsg() != null && event.getLogmsg().getDest().equalsIgnoreCase("donotpersist")) {
             LOG.debug("discarding event {}, the event has been configured as 'doNotPersist'.", event.getUei());
             return;
@@ -113,4 +113,16 @@ public class Notifd extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
     public long getUnknownNoticesInterrupted() {
         return getDaemon().getNotificationManager().getUnknownNoticesInterrupted();
     }
+
+    @Override
+    /** {@inheritDoc} */
+    public long getRuleCacheHits() {
+        return getDaemon().getNotificationManager().getRuleCacheHits();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public long getRuleCacheMisses() {
+        return getDaemon().getNotificationManager().getRuleCacheMisses();
+    }
 }
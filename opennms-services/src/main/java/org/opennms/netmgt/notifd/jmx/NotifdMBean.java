@@ -97,4 +97,16 @@ public interface NotifdMBean extends BaseOnmsMBean {
      *         (threw an exception) since Notifd was last started.
      */
     public long getUnknownNoticesInterrupted();
+
+    /**
+     * @return The total number of notification rules that were matched against
+     *         the node, interface and service of an event using the cache
+     */
+    public long getRuleCacheHits();
+
+    /**
+     * @return The total number of notification rules that were matched against
+     *         the node, interface and service of an event using the database
+     */
+    public long getRuleCacheMisses();
 }
@@ -31,7 +31,9 @@ package org.opennms.netmgt.poller.jmx;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoopGroup;
+import org.opennms.netmgt.poller.pollables.PollableServiceConfig;
+import org.opennms.netmgt.scheduler.ExecutorScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -139,11 +141,26 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
     
+    @Override
+    public long getAsyncPollsInFlight() {
+        return PollableServiceConfig.getAsyncPollsInFlight();
+    }
+
+    @Override
+    public long getNioOpenChannels() {
+        return NioEventLoopGroup.getDefault().getOpenChannels();
+    }
+
+    @Override
+    public long getNioPendingOperations() {
+        return NioEventLoopGroup.getDefault().getPendingOperations();
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) ((ExecutorScheduler) getDaemon().getScheduler()).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof ExecutorScheduler);
     }
 }
@@ -84,4 +84,19 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of asynchronous polls that have been started, but have not yet completed
+     */
+    public long getAsyncPollsInFlight();
+
+    /**
+     * @return The number of channels currently opened by the non-blocking monitors
+     */
+    public long getNioOpenChannels();
+
+    /**
+     * @return The number of reads, writes and connects the non-blocking monitors are waiting on
+     */
+    public long getNioPendingOperations();
 }
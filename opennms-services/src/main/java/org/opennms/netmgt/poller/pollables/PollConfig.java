@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +49,14 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Starts a poll without blocking the calling thread.
+     *
+     * @return the future poll status, or null if the monitor cannot be
+     * polled asynchronously, in which case {@link #poll()} must be used
+     */
+    public CompletableFuture<PollStatus> pollAsync();
+
     /**
      * <p>getCurrentTime</p>
      *
@@ -31,13 +31,15 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.AsyncReadyRunnable;
 import org.opennms.netmgt.scheduler.PostponeNecessary;
-import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
@@ -48,7 +50,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  */
-public class PollableService extends PollableElement implements ReadyRunnable, MonitoredService {
+public class PollableService extends PollableElement implements AsyncReadyRunnable, MonitoredService {
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
@@ -72,6 +74,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    private final AtomicReference<PollStatus> m_prefetchedStatus = new AtomicReference<>();
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -187,7 +190,10 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_prefetchedStatus.getAndSet(null);
+        if (newStatus == null) {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -378,6 +384,22 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     public void run() {
         doRun(500);
     }
+
+    /**
+     * Polls the service asynchronously when the monitor supports it, so
+     * that the scheduler thread and the tree lock are not held while
+     * waiting on the network. The status is then processed by {@link #run()}
+     * as usual.
+     */
+    @Override
+    public CompletableFuture<?> prepare() {
+        m_prefetchedStatus.set(null);
+        final CompletableFuture<PollStatus> future = m_pollConfig.pollAsync();
+        if (future == null) {
+            return null;
+        }
+        return future.thenAccept(m_prefetchedStatus::set);
+    }
     
     /**
      * <p>doRun</p>
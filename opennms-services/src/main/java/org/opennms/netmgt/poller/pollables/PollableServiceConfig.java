@@ -30,8 +30,11 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.rpc.api.RequestRejectedException;
 import org.opennms.core.rpc.api.RequestTimedOutException;
@@ -43,7 +46,9 @@ import org.opennms.netmgt.config.poller.Package;
 import org.opennms.netmgt.config.poller.Parameter;
 import org.opennms.netmgt.config.poller.Service;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.LocationAwarePollerClient;
+import org.opennms.netmgt.poller.PollerRequestBuilder;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.scheduler.ScheduleInterval;
@@ -60,6 +65,8 @@ import org.slf4j.LoggerFactory;
 public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     private static final Logger LOG = LoggerFactory.getLogger(PollableServiceConfig.class);
 
+    private static final AtomicLong s_asyncPollsInFlight = new AtomicLong();
+
     private PollerConfig m_pollerConfig;
     private PollOutagesConfig m_pollOutagesConfig;
     private PollableService m_service;
@@ -116,41 +123,86 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     @Override
     public PollStatus poll() {
         try {
-            final String packageName = getPackageName();
-            // Use the service's configured interval as the TTL for this request
-            final Long ttlInMs = m_configService.getInterval();
-            LOG.debug("Polling {} with TTL {} using pkg {}",
-                    m_service, ttlInMs, packageName);
-
-            PollStatus result = m_locationAwarePollerClient.poll()
-                .withService(m_service)
-                .withMonitor(m_serviceMonitor)
-                .withTimeToLive(ttlInMs)
-                .withAttributes(getParameters())
-                .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
-                .withAdaptor(m_invertedStatusServiceMonitorAdaptor)
+            PollStatus result = createPollRequest()
                 .execute()
                 .get().getPollStatus();
-            LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
+            LOG.debug("Finish polling {} using pkg {} result = {}", m_service, getPackageName(), result);
             return result;
         } catch (InterruptedException e) {
             LOG.warn("Interrupted while invoking the poll for {}."
                     + " Marking the service as UNKNOWN.", m_service);
             return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
         } catch (Throwable e) {
-            final Throwable cause = e.getCause();
-            if (cause != null && cause instanceof RequestTimedOutException) {
-                LOG.warn("No response was received when remotely invoking the poll for {}."
-                        + " Marking the service as UNKNOWN.", m_service);
-                return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
-            } else if (cause != null && cause instanceof RequestRejectedException) {
-                LOG.warn("The request to remotely invoke the poll for {} was rejected."
-                        + " Marking the service as UNKNOWN.", m_service);
-                return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
+            return getPollStatusForFailure(e);
+        }
+    }
+
+    /**
+     * Polls the service without blocking the calling thread when the monitor
+     * supports it.
+     *
+     * @return the future poll status, or null if the monitor is not an
+     * {@link AsyncServiceMonitor}
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync() {
+        if (!(m_serviceMonitor instanceof AsyncServiceMonitor)) {
+            return null;
+        }
+
+        CompletableFuture<PollStatus> future;
+        s_asyncPollsInFlight.incrementAndGet();
+        try {
+            future = createPollRequest().execute().thenApply(response -> response.getPollStatus());
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.handle((result, e) -> {
+            s_asyncPollsInFlight.decrementAndGet();
+            if (e != null) {
+                return getPollStatusForFailure(e instanceof CompletionException ? e : new CompletionException(e));
             }
-            LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
-            return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
+            LOG.debug("Finish asynchronous poll of {} result = {}", m_service, result);
+            return result;
+        });
+    }
+
+    /**
+     * @return the number of asynchronous polls that have been started, but have not yet completed
+     */
+    public static long getAsyncPollsInFlight() {
+        return s_asyncPollsInFlight.get();
+    }
+
+    private PollerRequestBuilder createPollRequest() {
+        // Use the service's configured interval as the TTL for this request
+        final Long ttlInMs = m_configService.getInterval();
+        LOG.debug("Polling {} with TTL {} using pkg {}",
+                m_service, ttlInMs, getPackageName());
+
+        return m_locationAwarePollerClient.poll()
+            .withService(m_service)
+            .withMonitor(m_serviceMonitor)
+            .withTimeToLive(ttlInMs)
+            .withAttributes(getParameters())
+            .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
+            .withAdaptor(m_invertedStatusServiceMonitorAdaptor);
+    }
+
+    private PollStatus getPollStatusForFailure(Throwable e) {
+        final Throwable cause = e.getCause();
+        if (cause != null && cause instanceof RequestTimedOutException) {
+            LOG.warn("No response was received when remotely invoking the poll for {}."
+                    + " Marking the service as UNKNOWN.", m_service);
+            return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
+        } else if (cause != null && cause instanceof RequestRejectedException) {
+            LOG.warn("The request to remotely invoke the poll for {} was rejected."
+                    + " Marking the service as UNKNOWN.", m_service);
+            return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
         }
+        LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+        return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
     }
 
     /**
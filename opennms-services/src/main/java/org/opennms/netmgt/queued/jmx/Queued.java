@@ -247,5 +247,35 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getOldestPendingAge() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getOldestPendingAge();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getWriteThreadThroughput</p>
+     *
+     * @return an array of {@link java.lang.String} objects.
+     */
+    @Override
+    public String[] getWriteThreadThroughput() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getWriteThreadThroughput().entrySet().stream()
+                    .map(e -> String.format("%s=%.1f", e.getKey(), e.getValue()))
+                    .toArray(String[]::new);
+        } else {
+            return new String[0];
+        }
+    }
+
 
 }
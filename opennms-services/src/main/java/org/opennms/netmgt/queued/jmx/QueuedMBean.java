@@ -115,5 +115,19 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * How long the oldest file with pending updates has been waiting to be
+	 * written, in milliseconds. Only tracked when updates are coalesced.
+	 *
+	 * @return a long.
+	 */
+	public long getOldestPendingAge();
+	/**
+	 * The number of operations written per second by each write thread, as
+	 * "thread=rate". Only tracked when updates are coalesced.
+	 *
+	 * @return an array of {@link java.lang.String} objects.
+	 */
+	public String[] getWriteThreadThroughput();
 
 }
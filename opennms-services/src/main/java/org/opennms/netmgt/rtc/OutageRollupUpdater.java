@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the daily outage rollups in the <code>outagerollups</code> table.
+ *
+ * Once a day is complete (and the configured delay has passed, so that the
+ * outages of that day have been written) the downtime of every service during
+ * that day is computed from the outages table, and the day is added to
+ * <code>outagerollupdays</code>. The days are always rolled up in order, so
+ * the rolled up days are contiguous. The availability calculations use the
+ * rollups for these days, and the outages for the rest of their window.
+ *
+ * Outages that are still open at the end of a day count as downtime until
+ * the end of that day.
+ *
+ * When no days have been rolled up yet, the rollups start
+ * <code>org.opennms.rtc.rollup.backfillDays</code> days ago.
+ */
+public class OutageRollupUpdater {
+    private static final Logger LOG = LoggerFactory.getLogger(OutageRollupUpdater.class);
+
+    private static final int BACKFILL_DAYS = Integer.getInteger("org.opennms.rtc.rollup.backfillDays", 400);
+
+    private static final long INTERVAL_MS = Long.getLong("org.opennms.rtc.rollup.interval", TimeUnit.MINUTES.toMillis(15));
+
+    private static final long DELAY_MS = Long.getLong("org.opennms.rtc.rollup.delay", TimeUnit.HOURS.toMillis(1));
+
+    private static final String DELETE_ROLLUPS = "DELETE FROM outagerollups WHERE day = ?";
+
+    private static final String INSERT_ROLLUPS = "INSERT INTO outagerollups (ifserviceid, day, downtime, outagecount) "
+            + "SELECT ifserviceid, ?, "
+            + "(SUM(EXTRACT(EPOCH FROM (LEAST(COALESCE(ifregainedservice, ?), ?) - GREATEST(iflostservice, ?)))) * 1000)::bigint, "
+            + "COUNT(*) "
+            + "FROM outages WHERE iflostservice < ? AND (ifregainedservice IS NULL OR ifregainedservice > ?) "
+            + "GROUP BY ifserviceid";
+
+    private static final String DELETE_DAY = "DELETE FROM outagerollupdays WHERE day = ?";
+
+    private static final String INSERT_DAY = "INSERT INTO outagerollupdays (day, rolledup) VALUES (?, ?)";
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate m_transactionTemplate;
+
+    private ScheduledExecutorService m_executor;
+
+    /**
+     * Rolls up the complete days periodically, until stopped.
+     */
+    public synchronized void start() {
+        if (m_executor != null) {
+            return;
+        }
+        m_executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "RTC-OutageRollupUpdater"));
+        m_executor.scheduleWithFixedDelay(() -> {
+            try {
+                rollup();
+            } catch (final Exception e) {
+                LOG.error("Failed to roll up the outages.", e);
+            }
+        }, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+    }
+
+    /**
+     * Rolls up the complete days that haven't been rolled up yet, oldest first.
+     *
+     * @return the number of days that were rolled up
+     */
+    public int rollup() {
+        final Date lastRolledUp = m_jdbcTemplate.queryForObject("SELECT MAX(day) FROM outagerollupdays", Date.class);
+
+        final Calendar day = Calendar.getInstance();
+        if (lastRolledUp == null) {
+            truncateToDay(day);
+            day.add(Calendar.DATE, -BACKFILL_DAYS);
+            LOG.info("No outages have been rolled up yet, starting at {}.", day.getTime());
+        } else {
+            day.setTime(lastRolledUp);
+            truncateToDay(day);
+            day.add(Calendar.DATE, 1);
+        }
+
+        int count = 0;
+        final long now = System.currentTimeMillis();
+        while (!Thread.currentThread().isInterrupted()) {
+            final Calendar end = (Calendar)day.clone();
+            end.add(Calendar.DATE, 1);
+            if (end.getTimeInMillis() + DELAY_MS > now) {
+                break;
+            }
+            rollupDay(day.getTime(), end.getTime());
+            day.setTime(end.getTime());
+            count++;
+        }
+        if (count > 0) {
+            LOG.info("Rolled up the outages of {} days.", count);
+        }
+        return count;
+    }
+
+    /**
+     * (Re)computes the rollups of the day that starts at <code>start</code>.
+     */
+    void rollupDay(final Date start, final Date end) {
+        final java.sql.Date day = new java.sql.Date(start.getTime());
+        final Timestamp startTime = new Timestamp(start.getTime());
+        final Timestamp endTime = new Timestamp(end.getTime());
+
+        LOG.debug("Rolling up the outages of {}.", day);
+        m_transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                m_jdbcTemplate.update(DELETE_ROLLUPS, day);
+                m_jdbcTemplate.update(INSERT_ROLLUPS, day, endTime, endTime, startTime, endTime, startTime);
+                m_jdbcTemplate.update(DELETE_DAY, day);
+                m_jdbcTemplate.update(INSERT_DAY, day, new Timestamp(System.currentTimeMillis()));
+            }
+        });
+    }
+
+    private static void truncateToDay(final Calendar cal) {
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+    }
+}
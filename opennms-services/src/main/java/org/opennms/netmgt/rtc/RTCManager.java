@@ -88,6 +88,9 @@ public final class RTCManager extends AbstractServiceDaemon {
     @Autowired
     private RTCConfigFactory m_configFactory;
 
+    @Autowired
+    private OutageRollupUpdater m_outageRollupUpdater;
+
     /**
      * The scheduled task that runs and triggers the {@link DataSender}.
      */
@@ -151,6 +154,8 @@ public final class RTCManager extends AbstractServiceDaemon {
 
         if (log().isDebugEnabled())
             log().debug("userTimer" + " scheduled");
+
+        m_outageRollupUpdater.start();
         
         if (log().isDebugEnabled()) {
             log().debug("RTC ready to receive events");
@@ -180,6 +185,8 @@ public final class RTCManager extends AbstractServiceDaemon {
             if (log().isDebugEnabled())
                 log().debug("Timer Cancelled");
 
+            m_outageRollupUpdater.stop();
+
         } catch (Throwable e) {
             log().error(e.getLocalizedMessage(), e);
         }
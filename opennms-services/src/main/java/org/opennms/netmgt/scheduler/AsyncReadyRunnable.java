@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ReadyRunnable} that can perform part of its work asynchronously
+ * before it is run.
+ *
+ * When a {@link Schedule} is due, it first calls {@link #prepare()}. If a
+ * future is returned, the scheduler thread is released immediately, and the
+ * runnable is handed back to the scheduler once the future completes, at
+ * which point {@link #run()} is invoked as usual. This allows a small number
+ * of scheduler threads to drive a large number of runnables that spend most
+ * of their time waiting on I/O.
+ */
+public interface AsyncReadyRunnable extends ReadyRunnable {
+
+    /**
+     * Starts the asynchronous part of the work. Must not block.
+     *
+     * @return a future that completes when {@link #run()} should be invoked,
+     *         or null if it should be invoked immediately
+     */
+    public CompletableFuture<?> prepare();
+
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks how late the scheduled tasks were handed off for execution, using
+ * buckets whose upper bounds are powers of two milliseconds.
+ *
+ * Recording is lock-free, and the percentiles are approximated by the upper
+ * bound of the bucket in which they fall.
+ */
+public class LatenessHistogram {
+
+    /**
+     * The last bucket holds everything over 2^(NUM_BUCKETS-2) ms, about 9 minutes.
+     */
+    private static final int NUM_BUCKETS = 21;
+
+    private final AtomicLongArray m_buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    private final AtomicLong m_count = new AtomicLong();
+
+    private final AtomicLong m_sum = new AtomicLong();
+
+    private final AtomicLong m_max = new AtomicLong();
+
+    public void record(long latenessMs) {
+        final long lateness = Math.max(0, latenessMs);
+        m_buckets.incrementAndGet(bucketFor(lateness));
+        m_count.incrementAndGet();
+        m_sum.addAndGet(lateness);
+        long max;
+        while (lateness > (max = m_max.get()) && !m_max.compareAndSet(max, lateness));
+    }
+
+    private static int bucketFor(long lateness) {
+        if (lateness <= 1) {
+            return 0;
+        }
+        // The smallest i for which lateness <= 2^i
+        final int bucket = 64 - Long.numberOfLeadingZeros(lateness - 1);
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    public long getCount() {
+        return m_count.get();
+    }
+
+    public double getMean() {
+        final long count = m_count.get();
+        return count == 0 ? 0 : (double)m_sum.get() / count;
+    }
+
+    public long getMax() {
+        return m_max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the upper bound of the bucket containing the given quantile, in milliseconds
+     */
+    public long getPercentile(double quantile) {
+        final long count = m_count.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long)Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; i++) {
+            seen += m_buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the upper bound of every bucket in milliseconds, the last bucket is unbounded
+     */
+    public long[] getBucketBounds() {
+        final long[] bounds = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS - 1; i++) {
+            bounds[i] = 1L << i;
+        }
+        bounds[NUM_BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    public long[] getBucketCounts() {
+        final long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = m_buckets.get(i);
+        }
+        return counts;
+    }
+}
@@ -54,7 +54,7 @@ import org.springframework.util.Assert;
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http://www.opennms.org/">OpenNMS </a>
  */
-public class LegacyScheduler implements Runnable, PausableFiber, Scheduler {
+public class LegacyScheduler implements Runnable, PausableFiber, ExecutorScheduler {
     
     private static final Logger LOG = LoggerFactory.getLogger(LegacyScheduler.class);
     
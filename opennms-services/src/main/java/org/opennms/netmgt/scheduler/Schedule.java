@@ -29,6 +29,7 @@
 package org.opennms.netmgt.scheduler;
 
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,9 +58,18 @@ public class Schedule {
     
     class ScheduleEntry implements ReadyRunnable {
         private final int m_expirationCode;
+        private final boolean m_prepared;
 
         public ScheduleEntry(int expirationCode) {
+            this(expirationCode, false);
+        }
+
+        /**
+         * @param prepared true if {@link AsyncReadyRunnable#prepare()} has already completed for this run
+         */
+        ScheduleEntry(int expirationCode, boolean prepared) {
             m_expirationCode = expirationCode;
+            m_prepared = prepared;
         }
         
         /**
@@ -82,11 +92,20 @@ public class Schedule {
             }
             
             if (!m_interval.scheduledSuspension()) {
+                if (!m_prepared && m_schedulable instanceof AsyncReadyRunnable) {
+                    final CompletableFuture<?> prepared = ((AsyncReadyRunnable)m_schedulable).prepare();
+                    if (prepared != null) {
+                        // Finish the run on one of the scheduler's threads once the asynchronous work is done
+                        prepared.whenComplete((result, ex) -> m_timer.schedule(0, new ScheduleEntry(m_expirationCode, true)));
+                        return;
+                    }
+                }
+
                 try {
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
 				   // Chose a random number of seconds between 5 and 14 to wait before trying again
-                    m_timer.schedule(random.nextInt(10)*1000+5000, this);
+                    m_timer.schedule(random.nextInt(10)*1000+5000, m_prepared ? new ScheduleEntry(m_expirationCode) : this);
                     return;
                 }
             }
@@ -100,12 +119,12 @@ public class Schedule {
             
             long interval = m_interval.getInterval();
             if (interval >= 0 && m_scheduled)
-                m_timer.schedule(interval, this);
+                m_timer.schedule(interval, m_prepared ? new ScheduleEntry(m_expirationCode) : this);
 
         }
         
         @Override
-        public String toString() { return "ScheduleEntry[expCode="+m_expirationCode+"] for "+m_schedulable; }
+        public String toString() { return "ScheduleEntry[expCode="+m_expirationCode+(m_prepared ? ", prepared" : "")+"] for "+m_schedulable; }
     }
 
     /**
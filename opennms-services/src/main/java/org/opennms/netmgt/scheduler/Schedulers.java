@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+/**
+ * Creates the {@link ExecutorScheduler} used by the daemons.
+ *
+ * The implementation is selected with the {@value #IMPLEMENTATION_PROPERTY}
+ * system property, which can be set to <code>legacy</code> (the default) or
+ * <code>timingwheel</code>.
+ */
+public abstract class Schedulers {
+
+    public static final String IMPLEMENTATION_PROPERTY = "org.opennms.scheduler.implementation";
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timingwheel";
+
+    /**
+     * Spread the first executions over this many milliseconds when using the
+     * timing wheel, see {@link TimingWheelScheduler#TimingWheelScheduler(String, int, long)}.
+     */
+    public static final String INITIAL_SPREAD_PROPERTY = "org.opennms.scheduler.timingwheel.initialSpread";
+
+    private static final long DEFAULT_INITIAL_SPREAD = 30000;
+
+    /**
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public static ExecutorScheduler createScheduler(String parent, int maxSize) {
+        if (TIMING_WHEEL.equalsIgnoreCase(System.getProperty(IMPLEMENTATION_PROPERTY, LEGACY))) {
+            return new TimingWheelScheduler(parent, maxSize, Long.getLong(INITIAL_SPREAD_PROPERTY, DEFAULT_INITIAL_SPREAD));
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+}
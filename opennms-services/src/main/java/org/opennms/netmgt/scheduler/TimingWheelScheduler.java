@@ -0,0 +1,527 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A scheduler based on a hierarchical timing wheel, which can be used in
+ * place of the {@link LegacyScheduler}.
+ *
+ * Scheduling and expiring a runnable are both constant time operations,
+ * regardless of the number of runnables that are scheduled. Callers never
+ * block: new runnables are handed to the dispatcher thread through a
+ * lock-free queue, and the dispatcher is the only thread that touches the
+ * wheels.
+ *
+ * The wheels have {@value #SLOTS} slots each. The slots of the first wheel
+ * span one tick of {@value #TICK_MS}ms, and the slots of every other wheel
+ * span a full rotation of the wheel below it. When a wheel completes a
+ * rotation, the runnables in the next slot of the wheel above are moved
+ * down to the wheel that matches how far away they are.
+ *
+ * Once its time has come, a runnable is handed off to the thread pool if it
+ * {@link ReadyRunnable#isReady() is ready}, otherwise it is checked again
+ * after {@value #NOT_READY_RECHECK_MS}ms.
+ *
+ * Runnables that are scheduled without a delay before the scheduler is
+ * started, or shortly thereafter, are spread randomly over the initial
+ * spread so that all of the services don't get polled at once after a
+ * restart.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, ExecutorScheduler, TimingWheelSchedulerMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    protected static final long TICK_MS = 100;
+
+    protected static final long NOT_READY_RECHECK_MS = 1000;
+
+    private static final int SLOT_BITS = 8;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    private final String m_parent;
+
+    private final long m_tickMs;
+
+    private final long m_tickNanos;
+
+    private final long m_initialSpreadMs;
+
+    private final ExecutorService m_runner;
+
+    /**
+     * Runnables that have been scheduled, but not yet added to the wheels.
+     */
+    private final Queue<Entry> m_incoming = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The wheels, only accessed by the dispatcher thread.
+     */
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Entry>[][] m_wheels = new ArrayDeque[LEVELS][SLOTS];
+
+    /**
+     * The last tick that was processed, only accessed by the dispatcher thread.
+     */
+    private long m_currentTick = 0;
+
+    private final long m_originNanos = System.nanoTime();
+
+    private final AtomicInteger m_scheduled = new AtomicInteger();
+
+    private final LatenessHistogram m_lateness = new LatenessHistogram();
+
+    private volatile long m_numTasksExecuted = 0;
+
+    private volatile long m_startedNanos = 0;
+
+    private volatile int m_status = START_PENDING;
+
+    private volatile Thread m_worker;
+
+    private ObjectName m_mbeanName;
+
+    private static class Entry {
+        private final ReadyRunnable m_runnable;
+        private final long m_dueNanos;
+        private long m_deadlineTick;
+
+        private Entry(ReadyRunnable runnable, long dueNanos) {
+            m_runnable = runnable;
+            m_dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Constructs a new instance of the scheduler without any initial spread.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, 0);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param initialSpreadMs
+     *            Runnables scheduled without a delay before the scheduler is
+     *            started, or within this many milliseconds of it being
+     *            started, are delayed by a random amount up to this value.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long initialSpreadMs) {
+        this(parent, maxSize, initialSpreadMs, TICK_MS);
+    }
+
+    /**
+     * Allows the tests to use a shorter tick.
+     */
+    TimingWheelScheduler(final String parent, final int maxSize, final long initialSpreadMs, final long tickMs) {
+        Assert.isTrue(tickMs > 0, "tickMs must be positive");
+        m_parent = parent;
+        m_tickMs = tickMs;
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        m_initialSpreadMs = Math.max(0, initialSpreadMs);
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        long delay = Math.max(0, interval);
+        if (delay == 0 && isWithinInitialSpread()) {
+            delay = ThreadLocalRandom.current().nextLong(m_initialSpreadMs);
+        }
+        LOG.debug("schedule: Adding ready runnable {} in {}ms", runnable, delay);
+
+        m_scheduled.incrementAndGet();
+        m_incoming.add(new Entry(runnable, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+        if (delay < m_tickMs) {
+            // Don't wait for the next tick
+            final Thread worker = m_worker;
+            if (worker != null) {
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+    private boolean isWithinInitialSpread() {
+        if (m_initialSpreadMs == 0) {
+            return false;
+        }
+        final long startedNanos = m_startedNanos;
+        return startedNanos == 0 || System.nanoTime() - startedNanos < TimeUnit.MILLISECONDS.toNanos(m_initialSpreadMs);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_startedNanos = System.nanoTime();
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+        registerMBean();
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+        unregisterMBean();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return m_parent + "Scheduler";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /**
+     * The main method of the scheduler. Moves the wheels forward in step
+     * with the clock, and hands the runnables off to the thread pool as
+     * they expire.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            // Don't override a pause or stop that was requested right after starting
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    // if resume pending then change to running
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+                }
+
+                addIncoming();
+
+                // Catch up with the clock, one tick at a time
+                final long nowTick = (System.nanoTime() - m_originNanos) / m_tickNanos;
+                while (m_currentTick < nowTick) {
+                    advance();
+                }
+
+                // Sleep until the next tick, or until something needs to run right away
+                final long sleepNanos = m_originNanos + (m_currentTick + 1) * m_tickNanos - System.nanoTime();
+                if (sleepNanos > 0 && m_incoming.isEmpty()) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+                if (Thread.interrupted()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // exit
+        } catch (RejectedExecutionException e) {
+            if (m_status != STOP_PENDING) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private void addIncoming() {
+        Entry entry;
+        while ((entry = m_incoming.poll()) != null) {
+            // Round up so that we never run early
+            entry.m_deadlineTick = (entry.m_dueNanos - m_originNanos + m_tickNanos - 1) / m_tickNanos;
+            insert(entry);
+        }
+    }
+
+    private void insert(Entry entry) {
+        final long delta = entry.m_deadlineTick - m_currentTick;
+        if (delta <= 0) {
+            expire(entry);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        final int slot = (int)((entry.m_deadlineTick >> (SLOT_BITS * level)) & SLOT_MASK);
+        ArrayDeque<Entry> entries = m_wheels[level][slot];
+        if (entries == null) {
+            entries = new ArrayDeque<>();
+            m_wheels[level][slot] = entries;
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Moves on to the next tick, cascading the higher wheels that are due
+     * and expiring the runnables in the current slot.
+     */
+    private void advance() {
+        final long tick = ++m_currentTick;
+
+        // Start with the highest wheel, since the entries it cascades may land in the wheel below
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                final ArrayDeque<Entry> entries = takeSlot(level, (int)((tick >> (SLOT_BITS * level)) & SLOT_MASK));
+                if (entries != null) {
+                    for (Entry entry : entries) {
+                        insert(entry);
+                    }
+                }
+            }
+        }
+
+        final ArrayDeque<Entry> entries = takeSlot(0, (int)(tick & SLOT_MASK));
+        if (entries != null) {
+            for (Entry entry : entries) {
+                expire(entry);
+            }
+        }
+    }
+
+    private ArrayDeque<Entry> takeSlot(int level, int slot) {
+        final ArrayDeque<Entry> entries = m_wheels[level][slot];
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+        m_wheels[level][slot] = null;
+        return entries;
+    }
+
+    private void expire(Entry entry) {
+        if (!entry.m_runnable.isReady()) {
+            LOG.debug("run: {} is not ready, will check again in {}ms", entry.m_runnable, NOT_READY_RECHECK_MS);
+            entry.m_deadlineTick = m_currentTick + Math.max(1, NOT_READY_RECHECK_MS / m_tickMs);
+            insert(entry);
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", entry.m_runnable);
+        m_runner.execute(entry.m_runnable);
+        m_scheduled.decrementAndGet();
+        m_numTasksExecuted++;
+        m_lateness.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.m_dueNanos));
+    }
+
+    private void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName("OpenNMS:Name=" + getName());
+            if (server.isRegistered(name)) {
+                // Left behind by a previous instance that wasn't stopped
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            m_mbeanName = name;
+        } catch (JMException e) {
+            LOG.warn("Failed to register the MBean for {}", getName(), e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (m_mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_mbeanName);
+        } catch (JMException e) {
+            LOG.warn("Failed to unregister the MBean for {}", getName(), e);
+        }
+        m_mbeanName = null;
+    }
+
+    @Override
+    public long getLatenessCount() {
+        return m_lateness.getCount();
+    }
+
+    @Override
+    public double getLatenessMean() {
+        return m_lateness.getMean();
+    }
+
+    @Override
+    public long getLatenessMax() {
+        return m_lateness.getMax();
+    }
+
+    @Override
+    public long getLateness50thPercentile() {
+        return m_lateness.getPercentile(0.5);
+    }
+
+    @Override
+    public long getLateness95thPercentile() {
+        return m_lateness.getPercentile(0.95);
+    }
+
+    @Override
+    public long getLateness99thPercentile() {
+        return m_lateness.getPercentile(0.99);
+    }
+
+    @Override
+    public long[] getLatenessBucketBounds() {
+        return m_lateness.getBucketBounds();
+    }
+
+    @Override
+    public long[] getLatenessBucketCounts() {
+        return m_lateness.getBucketCounts();
+    }
+}
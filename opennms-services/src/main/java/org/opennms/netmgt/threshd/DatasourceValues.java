@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A small map of data source values that stores the values as primitives.
+ *
+ * Thresholds only reference a handful of data sources, so the values are
+ * kept in parallel arrays and looked up with a linear scan. The instance can
+ * be {@link #clear() cleared} and reused for every threshold that is applied
+ * to a resource, instead of allocating a new map and boxing every value.
+ *
+ * Missing values are stored as <code>null</code>, like they were with a
+ * {@link java.util.HashMap}, so that relaxed thresholds can be evaluated.
+ *
+ * This class is not thread-safe.
+ */
+public class DatasourceValues extends AbstractMap<String, Double> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] m_names = new String[INITIAL_CAPACITY];
+    private double[] m_values = new double[INITIAL_CAPACITY];
+    private boolean[] m_missing = new boolean[INITIAL_CAPACITY];
+    private int m_size = 0;
+
+    private int indexOf(Object name) {
+        for (int i = 0; i < m_size; i++) {
+            // The names are usually interned, so try the reference first
+            if (m_names[i] == name || m_names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the given value without boxing it.
+     */
+    public void put(String name, double value) {
+        final int index = indexOf(name);
+        if (index >= 0) {
+            m_values[index] = value;
+            m_missing[index] = false;
+        } else {
+            append(name, value, false);
+        }
+    }
+
+    /**
+     * @return the value, or the given default if the value is missing
+     */
+    public double getDouble(String name, double defaultValue) {
+        final int index = indexOf(name);
+        return index < 0 || m_missing[index] ? defaultValue : m_values[index];
+    }
+
+    private void append(String name, double value, boolean missing) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        if (m_size == m_names.length) {
+            final int capacity = m_size * 2;
+            m_names = Arrays.copyOf(m_names, capacity);
+            m_values = Arrays.copyOf(m_values, capacity);
+            m_missing = Arrays.copyOf(m_missing, capacity);
+        }
+        m_names[m_size] = name;
+        m_values[m_size] = value;
+        m_missing[m_size] = missing;
+        m_size++;
+    }
+
+    private Double valueAt(int index) {
+        return m_missing[index] ? null : Double.valueOf(m_values[index]);
+    }
+
+    @Override
+    public Double put(String name, Double value) {
+        final int index = indexOf(name);
+        if (index >= 0) {
+            final Double previous = valueAt(index);
+            m_values[index] = value == null ? Double.NaN : value.doubleValue();
+            m_missing[index] = value == null;
+            return previous;
+        }
+        append(name, value == null ? Double.NaN : value.doubleValue(), value == null);
+        return null;
+    }
+
+    @Override
+    public Double get(Object name) {
+        final int index = indexOf(name);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return indexOf(name) >= 0;
+    }
+
+    @Override
+    public Double remove(Object name) {
+        final int index = indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        final Double previous = valueAt(index);
+        removeAt(index);
+        return previous;
+    }
+
+    private void removeAt(int index) {
+        final int moved = m_size - index - 1;
+        System.arraycopy(m_names, index + 1, m_names, index, moved);
+        System.arraycopy(m_values, index + 1, m_values, index, moved);
+        System.arraycopy(m_missing, index + 1, m_missing, index, moved);
+        m_size--;
+        m_names[m_size] = null;
+    }
+
+    @Override
+    public int size() {
+        return m_size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(m_names, 0, m_size, null);
+        m_size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Double>>() {
+            @Override
+            public Iterator<Map.Entry<String, Double>> iterator() {
+                return new Iterator<Map.Entry<String, Double>>() {
+                    private int m_next = 0;
+                    private boolean m_canRemove = false;
+
+                    @Override
+                    public boolean hasNext() {
+                        return m_next < m_size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Double> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Map.Entry<String, Double> entry = new SimpleImmutableEntry<String, Double>(m_names[m_next], valueAt(m_next));
+                        m_next++;
+                        m_canRemove = true;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!m_canRemove) {
+                            throw new IllegalStateException();
+                        }
+                        removeAt(--m_next);
+                        m_canRemove = false;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return m_size;
+            }
+        };
+    }
+}
@@ -33,10 +33,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +52,33 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * The JEXL engine is thread-safe once it has been configured, so we share a single instance.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    /**
+     * The compiled expressions, keyed by the expression text.
+     *
+     * The same expressions are wrapped for every resource that is thresholded, so
+     * they are only parsed once. The cache is cleared when the thresholds are reloaded.
+     */
+    private static final ConcurrentMap<String, ExpressionImpl> COMPILED_EXPRESSIONS = new ConcurrentHashMap<>();
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final ExpressionImpl m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            ExpressionImpl e = getCompiledExpression(m_expression.getExpression());
+            m_compiledExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -79,6 +98,26 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         LOG.trace("Threshold Variables: {}", m_datasources);
     }
 
+    private static ExpressionImpl getCompiledExpression(String expression) {
+        ExpressionImpl compiled = COMPILED_EXPRESSIONS.get(expression);
+        if (compiled == null) {
+            compiled = (ExpressionImpl) JEXL_ENGINE.createExpression(expression);
+            final ExpressionImpl existing = COMPILED_EXPRESSIONS.putIfAbsent(expression, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Discards the compiled expressions. This should be called when the
+     * thresholding configuration is reloaded.
+     */
+    public static void clearExpressionCache() {
+        COMPILED_EXPRESSIONS.clear();
+    }
+
     @Override
     public String getDatasourceExpression() {
         return m_expression.getExpression();
@@ -140,17 +179,51 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * Exposes the data source values to the expression without copying them.
+     */
+    private static class ExpressionContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_variables;
+
+        private ExpressionContext(Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_variables != null && m_variables.containsKey(name)) {
+                return m_variables.get(name);
+            } else if ("math".equals(name)) {
+                return MATH_BINDING;
+            } else if ("datasources".equals(name)) {
+                // To workaround NMS-5019
+                return m_values;
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            // Variables that are assigned by the expression are kept apart from the values
+            if (m_variables == null) {
+                m_variables = new HashMap<String, Object>();
+            }
+            m_variables.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return (m_variables != null && m_variables.containsKey(name))
+                    || "math".equals(name) || "datasources".equals(name) || m_values.containsKey(name);
+        }
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_compiledExpression.evaluate(new ExpressionContext(values));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
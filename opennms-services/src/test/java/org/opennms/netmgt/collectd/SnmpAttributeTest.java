@@ -29,6 +29,8 @@
 package org.opennms.netmgt.collectd;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.matches;
@@ -62,6 +64,7 @@ import org.opennms.netmgt.dao.support.FilesystemResourceStorageDao;
 import org.opennms.netmgt.mock.MockDataCollectionConfig;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
@@ -141,6 +144,14 @@ public class SnmpAttributeTest {
         testPersisting(stringValue, new Snmp4JValueFactory().getOctetString(bytes));
     }
 
+    private static boolean isExactDouble(String value) {
+        try {
+            return Math.abs(Long.parseLong(value)) <= (1L << 53);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
     @Ignore
     @SuppressWarnings("unchecked")
     private void testPersisting(String matchValue, SnmpValue snmpValue) throws Exception {
@@ -160,9 +171,16 @@ public class SnmpAttributeTest {
         m_rrdStrategy.createFile(isA(Object.class), isA(Map.class));
 
         expect(m_rrdStrategy.openFile(isA(String.class))).andReturn(new Object());
-        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        if (isExactDouble(matchValue)) {
+            // the values are passed as doubles when that doesn't lose precision
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), anyLong(), aryEq(new double[] { Double.parseDouble(matchValue) }));
+        } else {
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        }
         m_rrdStrategy.closeFile(isA(Object.class));
 
+        m_resourceStorageDao.metricsPersisted(isA(ResourcePath.class));
+
         m_mocks.replayAll();
 
         SnmpCollectionAgent agent = DefaultCollectionAgent.create(ipInterface.getId(), m_ipInterfaceDao, new MockPlatformTransactionManager());
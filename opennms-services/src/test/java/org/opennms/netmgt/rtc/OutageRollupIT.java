@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.MonitoredServiceDao;
+import org.opennms.netmgt.dao.api.OutageDao;
+import org.opennms.netmgt.mock.MockNetwork;
+import org.opennms.netmgt.mock.MockService;
+import org.opennms.netmgt.model.OnmsMonitoredService;
+import org.opennms.netmgt.model.OnmsOutage;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Verifies that the outage time computed from the daily rollups matches the
+ * outage time computed from the outages table.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/applicationContext-rtc.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class OutageRollupIT implements TemporaryDatabaseAware<MockDatabase> {
+
+    @Autowired
+    private OutageRollupUpdater m_outageRollupUpdater;
+
+    @Autowired
+    private OutageDao m_outageDao;
+
+    @Autowired
+    private MonitoredServiceDao m_monitoredServiceDao;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private MockDatabase m_mockDatabase;
+
+    private OnmsMonitoredService m_service;
+
+    @Override
+    public void setTemporaryDatabase(MockDatabase database) {
+        m_mockDatabase = database;
+    }
+
+    @Before
+    public void setUp() {
+        BeanUtils.assertAutowiring(this);
+
+        final MockNetwork mockNetwork = new MockNetwork();
+        mockNetwork.createStandardNetwork();
+        m_mockDatabase.populate(mockNetwork);
+        final MockService svc = mockNetwork.getService(1, "192.168.1.1", "ICMP");
+        m_service = m_monitoredServiceDao.get(svc.getNodeId(), svc.getAddress(), svc.getSvcName());
+    }
+
+    @Test
+    public void rollupsMatchTheRawOutageTimeWithPartialDaysAtBothEnds() throws Exception {
+        // An outage that spans two midnights
+        addOutage(at(-6, 22, 0), at(-4, 3, 0));
+        // Outages within a single day
+        addOutage(at(-6, 12, 0), at(-6, 13, 0));
+        addOutage(at(-3, 10, 0), at(-3, 10, 30));
+        addOutage(at(-2, 23, 45), at(-1, 0, 15));
+        // An outage that is still open
+        addOutage(at(-1, 20, 0), null);
+
+        // Roll up the last week, up to and including yesterday
+        for (int day = -8; day < 0; day++) {
+            m_outageRollupUpdater.rollupDay(at(day, 0, 0), at(day + 1, 0, 0));
+        }
+        assertEquals(Integer.valueOf(8), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outagerollupdays", Integer.class));
+
+        // The ends of the windows fall within outages, in the middle of rolled up days
+        assertRollupsMatchRawOutageTime(at(-3, 10, 15), at(-6, 22, 30));
+        assertRollupsMatchRawOutageTime(at(-1, 22, 0), at(-5, 1, 0));
+        assertRollupsMatchRawOutageTime(at(-2, 23, 50), at(-6, 12, 30));
+        // The window ends today, which hasn't been rolled up
+        assertRollupsMatchRawOutageTime(new Date(), at(-7, 6, 0));
+        // The window starts before the first rolled up day
+        assertRollupsMatchRawOutageTime(at(-4, 1, 0), at(-10, 6, 0));
+        // The window starts and ends at midnight
+        assertRollupsMatchRawOutageTime(at(-1, 0, 0), at(-6, 0, 0));
+    }
+
+    private void assertRollupsMatchRawOutageTime(Date xtime, Date ytime) {
+        final Double raw = m_jdbcTemplate.queryForObject("SELECT getRawOutageTimeInWindow(?, ?::timestamp without time zone, ?::timestamp without time zone)",
+                Double.class, m_service.getId(), new Timestamp(xtime.getTime()), new Timestamp(ytime.getTime()));
+        final Double rolledUp = m_jdbcTemplate.queryForObject("SELECT getOutageTimeInWindow(?, ?::timestamp without time zone, ?::timestamp without time zone)",
+                Double.class, m_service.getId(), new Timestamp(xtime.getTime()), new Timestamp(ytime.getTime()));
+        assertTrue("there should be outages between " + ytime + " and " + xtime, raw > 0);
+        assertEquals("outage time between " + ytime + " and " + xtime, raw, rolledUp, 0.0);
+    }
+
+    private void addOutage(Date lost, Date regained) {
+        final OnmsOutage outage = new OnmsOutage();
+        outage.setMonitoredService(m_service);
+        outage.setIfLostService(lost);
+        outage.setIfRegainedService(regained);
+        m_outageDao.save(outage);
+        m_outageDao.flush();
+    }
+
+    /**
+     * @return the given time of day, the given number of days from today
+     */
+    private static Date at(int days, int hours, int minutes) {
+        final Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, hours);
+        cal.set(Calendar.MINUTE, minutes);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DATE, days);
+        return cal.getTime();
+    }
+}
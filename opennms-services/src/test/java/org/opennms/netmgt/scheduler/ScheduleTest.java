@@ -29,6 +29,8 @@
 package org.opennms.netmgt.scheduler;
 
 
+import java.util.concurrent.CompletableFuture;
+
 import junit.framework.TestCase;
 
 import org.opennms.core.test.MockLogAppender;
@@ -226,6 +228,63 @@ public class ScheduleTest extends TestCase {
         assertRunAndScheduled(1000, 1000, 2, 1);
     }
     
+    public void testAsyncSchedulable() {
+        final MockAsyncSchedulable schedulable = new MockAsyncSchedulable();
+        m_schedulable = schedulable;
+        m_sched = new Schedule(m_schedulable, m_interval, m_scheduler);
+
+        m_sched.schedule();
+
+        assertRunAndScheduled(0, 0, 0, 1);
+
+        // the entry is prepared, but not run until the future completes
+        m_scheduler.next();
+
+        assertEquals(1, schedulable.getPrepareCount());
+        assertRunAndScheduled(0, -1, 0, 0);
+
+        schedulable.getFuture().complete(null);
+
+        assertRunAndScheduled(0, 0, 0, 1);
+
+        m_scheduler.next();
+
+        assertEquals(1, schedulable.getPrepareCount());
+        assertRunAndScheduled(0, 1000, 1, 1);
+
+        // the next run is prepared again
+        m_scheduler.next();
+
+        assertEquals(2, schedulable.getPrepareCount());
+        assertRunAndScheduled(1000, -1, 1, 0);
+
+        // the run should still happen when the asynchronous work fails
+        schedulable.getFuture().completeExceptionally(new Exception());
+        m_scheduler.next();
+
+        assertRunAndScheduled(1000, 1000, 2, 1);
+    }
+
+    class MockAsyncSchedulable extends MockSchedulable implements AsyncReadyRunnable {
+        private int m_prepareCount = 0;
+        private CompletableFuture<Void> m_future;
+
+        @Override
+        public CompletableFuture<?> prepare() {
+            m_prepareCount++;
+            m_future = new CompletableFuture<>();
+            return m_future;
+        }
+
+        public int getPrepareCount() {
+            return m_prepareCount;
+        }
+
+        public CompletableFuture<Void> getFuture() {
+            return m_future;
+        }
+    }
+
     private void assertRunAndScheduled(long currentTime, long interval, int count, int entryCount) {
         assertEquals(count, m_schedulable.getRunCount());
         assertEquals(currentTime, m_scheduler.getCurrentTime());
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.fiber.PausableFiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class LatchedRunnable implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+        private final List<String> m_order;
+        private final String m_name;
+        private final AtomicBoolean m_ready = new AtomicBoolean(true);
+        private volatile long m_ranAt;
+
+        private LatchedRunnable(String name, CountDownLatch latch, List<String> order) {
+            m_name = name;
+            m_latch = latch;
+            m_order = order;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready.get();
+        }
+
+        @Override
+        public void run() {
+            m_ranAt = System.currentTimeMillis();
+            m_order.add(m_name);
+            m_latch.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (m_scheduler != null && m_scheduler.getStatus() != Fiber.STOPPED) {
+            m_scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testRunsInOrderOfDelay() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 0, 10);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(3);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final long start = System.currentTimeMillis();
+        m_scheduler.schedule(300, new LatchedRunnable("third", latch, order));
+        m_scheduler.schedule(0, new LatchedRunnable("first", latch, order));
+        final LatchedRunnable second = new LatchedRunnable("second", latch, order);
+        m_scheduler.schedule(150, second);
+        assertEquals(3, m_scheduler.getScheduled());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("first", order.get(0));
+        assertEquals("second", order.get(1));
+        assertEquals("third", order.get(2));
+        assertTrue("ran early", second.m_ranAt - start >= 150);
+
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+        assertEquals(3, m_scheduler.getLatenessCount());
+    }
+
+    @Test
+    public void testCascadesFromTheHigherWheels() throws Exception {
+        // With a 1ms tick the first wheel covers 256ms, so these go through the second wheel
+        m_scheduler = new TimingWheelScheduler("Test", 1, 0, 1);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final long start = System.currentTimeMillis();
+        final LatchedRunnable first = new LatchedRunnable("first", latch, order);
+        final LatchedRunnable second = new LatchedRunnable("second", latch, order);
+        m_scheduler.schedule(700, second);
+        m_scheduler.schedule(400, first);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("first", order.get(0));
+        assertEquals("second", order.get(1));
+        assertTrue("ran early", first.m_ranAt - start >= 400);
+        assertTrue("ran early", second.m_ranAt - start >= 700);
+    }
+
+    @Test
+    public void testWaitsUntilReady() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 0, 10);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final LatchedRunnable runnable = new LatchedRunnable("runnable", latch, order);
+        runnable.m_ready.set(false);
+        m_scheduler.schedule(0, runnable);
+
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, m_scheduler.getScheduled());
+
+        runnable.m_ready.set(true);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 0, 10);
+        m_scheduler.start();
+        m_scheduler.pause();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(50, new LatchedRunnable("runnable", latch, new CopyOnWriteArrayList<>()));
+        assertFalse(latch.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(PausableFiber.PAUSED, m_scheduler.getStatus());
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Fiber.RUNNING, m_scheduler.getStatus());
+    }
+
+    @Test
+    public void testInitialSpread() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 4, 1000, 10);
+
+        final int count = 20;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            m_scheduler.schedule(0, new LatchedRunnable(Integer.toString(i), latch, order));
+        }
+        m_scheduler.start();
+
+        // Not all of them should run right away
+        assertFalse(latch.await(50, TimeUnit.MILLISECONDS));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 0, 10);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(100, new LatchedRunnable("runnable", latch, new CopyOnWriteArrayList<>()));
+        m_scheduler.stop();
+
+        assertFalse(latch.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(Fiber.STOPPED, m_scheduler.getStatus());
+    }
+
+    @Test
+    public void testLatenessHistogram() {
+        final LatenessHistogram histogram = new LatenessHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(0);
+        }
+        histogram.record(100);
+        histogram.record(5000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5000, histogram.getMax());
+        assertEquals(51.0, histogram.getMean(), 0.001);
+        assertEquals(1, histogram.getPercentile(0.5));
+        assertTrue(histogram.getPercentile(0.99) >= 100);
+        assertTrue(histogram.getPercentile(1.0) >= 5000);
+    }
+}
@@ -171,4 +171,41 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testDatasourceValues() throws Exception {
+        DatasourceValues values = new DatasourceValues();
+        values.put("ifInOctets", 200000.0);
+        values.put("ifSpeed", 10000000.0);
+        Assert.assertEquals(16.0, wrapper.evaluate(values), 0.0);
+
+        // The same instance is reused for the next evaluation
+        values.clear();
+        values.put("ifHCInOctets", 20000000.0);
+        values.put("ifSpeed", 100000000.0);
+        values.put("ifHighSpeed", 1000.0);
+        Assert.assertEquals(16.0, wrapper.evaluate(values), 0.0);
+        Assert.assertEquals(3, values.size());
+        Assert.assertNull(values.get("ifInOctets"));
+
+        Expression exp = new Expression();
+        exp.setExpression("datasources['ns-dskTotal'] - datasources['ns-dskUsed']");
+        ExpressionConfigWrapper dsWrapper = new ExpressionConfigWrapper(exp);
+        values.clear();
+        values.put("ns-dskTotal", 100.0);
+        values.put("ns-dskUsed", 40.0);
+        Assert.assertEquals(60.0, dsWrapper.evaluate(values), 0.0);
+    }
+
+    @Test
+    public void testAssignmentDoesNotAlterValues() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression("data = data * 2");
+        ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("data", 10.0);
+        Assert.assertEquals(20.0, wrapper.evaluate(values), 0.0);
+        Assert.assertEquals(20.0, wrapper.evaluate(values), 0.0);
+        Assert.assertEquals(10.0, values.get("data"), 0.0);
+    }
 }
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.config.threshd.Expression;
+import org.opennms.netmgt.config.threshd.Threshold;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorHighLow.ThresholdEvaluatorStateHighLow;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorRelativeChange.ThresholdEvaluatorStateRelativeChange;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorState.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of evaluating a single sample against the high/low,
+ * relativeChange and expression thresholds, the way it is done for every
+ * resource by {@link ThresholdingSet#applyThresholds}.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.threshd.ThresholdEvaluatorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ThresholdEvaluatorBenchmark {
+
+    private static final String EXPRESSION = "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)";
+
+    private static final int NUM_SAMPLES = 1024;
+
+    private final double[] m_samples = new double[NUM_SAMPLES];
+
+    private int m_next = 0;
+
+    private final DatasourceValues m_values = new DatasourceValues();
+
+    private ThresholdConfigWrapper m_highConfig;
+
+    private ThresholdEvaluatorStateHighLow m_high;
+
+    private ThresholdEvaluatorStateRelativeChange m_relativeChange;
+
+    private ExpressionConfigWrapper m_expressionConfig;
+
+    private ThresholdEvaluatorStateHighLow m_expression;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            m_samples[i] = random.nextDouble() * 200000000;
+        }
+
+        final Threshold high = new Threshold();
+        high.setType("high");
+        high.setDsName("ifInOctets");
+        high.setDsType("if");
+        high.setValue(150000000.0);
+        high.setRearm(100000000.0);
+        high.setTrigger(3);
+        m_highConfig = new ThresholdConfigWrapper(high);
+        m_high = new ThresholdEvaluatorStateHighLow(m_highConfig);
+
+        final Threshold relativeChange = new Threshold();
+        relativeChange.setType("relativeChange");
+        relativeChange.setDsName("ifInOctets");
+        relativeChange.setDsType("if");
+        relativeChange.setValue(1.5);
+        relativeChange.setRearm(0.5);
+        relativeChange.setTrigger(1);
+        m_relativeChange = new ThresholdEvaluatorStateRelativeChange(new ThresholdConfigWrapper(relativeChange));
+
+        final Expression expression = new Expression();
+        expression.setType("high");
+        expression.setExpression(EXPRESSION);
+        expression.setDsType("if");
+        expression.setValue(90.0);
+        expression.setRearm(50.0);
+        expression.setTrigger(3);
+        m_expressionConfig = new ExpressionConfigWrapper(expression);
+        m_expression = new ThresholdEvaluatorStateHighLow(m_expressionConfig);
+    }
+
+    private void nextValues() {
+        m_values.clear();
+        m_values.put("ifInOctets", m_samples[m_next]);
+        m_values.put("ifHCInOctets", m_samples[m_next]);
+        m_values.put("ifSpeed", 1000000000.0);
+        m_values.put("ifHighSpeed", 1000.0);
+        m_next = (m_next + 1) % NUM_SAMPLES;
+    }
+
+    @Benchmark
+    public Status highLow() throws ThresholdExpressionException {
+        nextValues();
+        return m_high.evaluate(m_highConfig.evaluate(m_values));
+    }
+
+    @Benchmark
+    public Status relativeChange() throws ThresholdExpressionException {
+        nextValues();
+        return m_relativeChange.evaluate(m_highConfig.evaluate(m_values));
+    }
+
+    @Benchmark
+    public Status expression() throws ThresholdExpressionException {
+        nextValues();
+        return m_expression.evaluate(m_expressionConfig.evaluate(m_values));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(ThresholdEvaluatorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}